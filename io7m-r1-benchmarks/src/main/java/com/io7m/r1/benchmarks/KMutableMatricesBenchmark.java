@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jfunctional.Unit;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KMatricesInstanceFunctionType;
+import com.io7m.r1.kernel.KMatricesInstanceType;
+import com.io7m.r1.kernel.KMatricesObserverFunctionType;
+import com.io7m.r1.kernel.KMatricesObserverType;
+import com.io7m.r1.kernel.KMutableMatrices;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.shaders.deferred.RKDMaterialCases;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * Throughput of {@link KMutableMatrices#withObserver} and
+ * {@link KMatricesObserverType#withInstance}. The functions passed to the
+ * matrices are allocated once, so only the cost of the matrix calculations is
+ * measured.
+ */
+
+@State(Scope.Benchmark) @BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS) @Fork(1) @Warmup(iterations = 5) @Measurement(iterations = 10) public class KMutableMatricesBenchmark
+{
+  /**
+   * The number of instances evaluated per observer.
+   */
+
+  @Param({ "1", "1000", "10000" }) public int instances;
+
+  private KCamera                                                       camera;
+  private List<KInstanceOpaqueRegular>                                  instance_list;
+  private KMutableMatrices                                              matrices;
+  private KMatricesInstanceFunctionType<Unit, UnreachableCodeException> on_instance;
+  private KMatricesObserverFunctionType<Unit, UnreachableCodeException> on_observer;
+  private KMatricesObserverFunctionType<Unit, UnreachableCodeException> on_observer_only;
+  private float                                                         sum;
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public KMutableMatricesBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Create the instances and the functions passed to the matrices.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.camera = RBenchmarkFixtures.newCamera();
+    this.matrices = KMutableMatrices.newMatrices();
+
+    final KMeshReadableType mesh =
+      RBenchmarkFixtures.newMesh(RBenchmarkFixtures.newGL().getGLCommon());
+    final KMaterialOpaqueRegular material =
+      new RKDMaterialCases().getCasesGeometryOpaqueRegular().get(0);
+
+    this.instance_list =
+      new ArrayList<KInstanceOpaqueRegular>(this.instances);
+    for (int index = 0; index < this.instances; ++index) {
+      this.instance_list.add(KInstanceOpaqueRegular.newInstance(
+        mesh,
+        material,
+        KTransformMatrix4x4.newTransform(PMatrixI4x4F
+          .<RSpaceObjectType, RSpaceWorldType> identity()),
+        PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+        KFaceSelection.FACE_RENDER_FRONT));
+    }
+
+    this.on_instance =
+      new KMatricesInstanceFunctionType<Unit, UnreachableCodeException>() {
+        @SuppressWarnings("synthetic-access") @Override public Unit run(
+          final KMatricesInstanceType i)
+          throws RException
+        {
+          KMutableMatricesBenchmark.this.sum +=
+            i.getMatrixModelView().getRowColumnF(0, 0)
+              + i.getMatrixNormal().getRowColumnF(0, 0);
+          return Unit.unit();
+        }
+      };
+
+    final List<KInstanceOpaqueRegular> is = this.instance_list;
+    final KMatricesInstanceFunctionType<Unit, UnreachableCodeException> f =
+      this.on_instance;
+
+    this.on_observer =
+      new KMatricesObserverFunctionType<Unit, UnreachableCodeException>() {
+        @Override public Unit run(
+          final KMatricesObserverType o)
+          throws RException
+        {
+          final int size = is.size();
+          for (int index = 0; index < size; ++index) {
+            final KInstanceOpaqueRegular instance = is.get(index);
+            assert instance != null;
+            o.withInstance(instance, f);
+          }
+          return Unit.unit();
+        }
+      };
+
+    this.on_observer_only =
+      new KMatricesObserverFunctionType<Unit, UnreachableCodeException>() {
+        @SuppressWarnings("synthetic-access") @Override public Unit run(
+          final KMatricesObserverType o)
+          throws RException
+        {
+          KMutableMatricesBenchmark.this.sum +=
+            o.getMatrixView().getRowColumnF(0, 0);
+          return Unit.unit();
+        }
+      };
+  }
+
+  /**
+   * @return A value derived from the calculated matrices.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public float withInstance()
+    throws Exception
+  {
+    this.matrices.withObserver(
+      this.camera.getViewMatrix(),
+      this.camera.getProjection(),
+      this.on_observer);
+    return this.sum;
+  }
+
+  /**
+   * @return A value derived from the calculated matrices.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public float withObserver()
+    throws Exception
+  {
+    this.matrices.withObserver(
+      this.camera.getViewMatrix(),
+      this.camera.getProjection(),
+      this.on_observer_only);
+    return this.sum;
+  }
+}
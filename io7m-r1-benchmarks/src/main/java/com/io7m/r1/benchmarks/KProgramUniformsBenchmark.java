@@ -0,0 +1,355 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcanephora.FragmentShaderType;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.JCGLType;
+import com.io7m.jcanephora.ProgramAttributeType;
+import com.io7m.jcanephora.ProgramType;
+import com.io7m.jcanephora.ProgramUniformType;
+import com.io7m.jcanephora.ProgramUsableType;
+import com.io7m.jcanephora.VertexShaderType;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jcanephora.batchexec.JCBExecutor;
+import com.io7m.jcanephora.batchexec.JCBExecutorProcedureType;
+import com.io7m.jcanephora.batchexec.JCBExecutorType;
+import com.io7m.jcanephora.batchexec.JCBProgramProcedureType;
+import com.io7m.jcanephora.batchexec.JCBProgramType;
+import com.io7m.jcanephora.fake.FakeProgram;
+import com.io7m.jcanephora.fake.FakeProgramUniform;
+import com.io7m.jcanephora.fake.FakeShaderControlType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jtensors.MatrixM3x3F;
+import com.io7m.jtensors.MatrixM4x4F;
+import com.io7m.r1.kernel.KProgramUniformSlot;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KProgramUniforms;
+import com.io7m.r1.tests.RFakeGL;
+
+/**
+ * <p>
+ * The cost of writing per-instance uniforms by name, compared to writing
+ * them through pre-resolved slots, against the fake GL implementation. Each
+ * simulated instance is drawn.
+ * </p>
+ * <p>
+ * Writing by name costs five uniform lookups by name per draw. Executing the
+ * program once per draw through slots still costs one lookup per slot per
+ * draw, to tell the executor about the slots. Executing the program once for
+ * a run of draws through slots costs five lookups per run, regardless of the
+ * number of draws: {@link #putBySlotRun()} reports the measured count.
+ * </p>
+ */
+
+@State(Scope.Benchmark) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS) @Fork(1) @Warmup(iterations = 5) @Measurement(iterations = 10) public class KProgramUniformsBenchmark
+{
+  private static void declare(
+    final ProgramUsableType program,
+    final Map<String, ProgramUniformType> uniforms,
+    final KProgramUniformSlot slot)
+  {
+    final FakeProgram fp = (FakeProgram) program;
+    uniforms.put(slot.getName(), FakeProgramUniform.newUniform(
+      fp.getContext(),
+      program,
+      0,
+      0,
+      slot.getName(),
+      slot.getType()));
+  }
+
+  /**
+   * The number of simulated instances per program execution.
+   */
+
+  @Param({ "1000", "10000" }) public int instances;
+
+  private JCBProgramProcedureType<JCGLException> draw;
+  private JCBExecutorType                        exec;
+  private MatrixM4x4F                            matrix_modelview;
+  private MatrixM3x3F                            matrix_normal;
+  private MatrixM4x4F                            matrix_projection;
+  private MatrixM3x3F                            matrix_uv;
+  private KProgramUniformSlot[]                  per_draw;
+  private KProgramUniforms                       uniforms;
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public KProgramUniformsBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Create a program that declares exactly the per-instance uniforms of a
+   * deferred geometry program.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    final FakeShaderControlType shader_control = new FakeShaderControlType() {
+      @Override public void onFragmentShaderCompile(
+        final String name,
+        final FragmentShaderType f)
+        throws JCGLException
+      {
+        // Nothing
+      }
+
+      @Override public void onProgramCreate(
+        final String name,
+        final ProgramUsableType program,
+        final Map<String, ProgramUniformType> u,
+        final Map<String, ProgramAttributeType> attributes)
+        throws JCGLException
+      {
+        KProgramUniformsBenchmark.declare(
+          program,
+          u,
+          KProgramUniformSlot.SLOT_MATRIX_PROJECTION);
+        KProgramUniformsBenchmark.declare(
+          program,
+          u,
+          KProgramUniformSlot.SLOT_DEPTH_COEFFICIENT);
+        KProgramUniformsBenchmark.declare(
+          program,
+          u,
+          KProgramUniformSlot.SLOT_MATRIX_MODELVIEW);
+        KProgramUniformsBenchmark.declare(
+          program,
+          u,
+          KProgramUniformSlot.SLOT_MATRIX_NORMAL);
+        KProgramUniformsBenchmark.declare(
+          program,
+          u,
+          KProgramUniformSlot.SLOT_MATRIX_UV);
+      }
+
+      @Override public void onVertexShaderCompile(
+        final String name,
+        final VertexShaderType v)
+        throws JCGLException
+      {
+        // Nothing
+      }
+    };
+
+    final LogUsableType log = RBenchmarkFixtures.newLog();
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30WithLog(log, shader_control, none);
+    final JCGLInterfaceCommonType gc = g.getGLCommon();
+
+    final List<String> lines = new ArrayList<String>();
+    lines.add("Nothing!");
+    final VertexShaderType v = gc.vertexShaderCompile("p", lines);
+    final FragmentShaderType f = gc.fragmentShaderCompile("p", lines);
+    final ProgramType p = gc.programCreateCommon("p", v, f);
+
+    this.exec = JCBExecutor.newExecutorWithoutDeclarations(gc, p, log);
+    this.uniforms = KProgramUniforms.newUniforms(gc, p);
+    if (this.uniforms.uniformsGetResolvedCount() != 5) {
+      throw new IllegalStateException("Expected five resolved slots");
+    }
+
+    this.draw = new JCBProgramProcedureType<JCGLException>() {
+      @Override public void call()
+      {
+        // Nothing
+      }
+    };
+    this.matrix_modelview = new MatrixM4x4F();
+    this.matrix_normal = new MatrixM3x3F();
+    this.matrix_projection = new MatrixM4x4F();
+    this.matrix_uv = new MatrixM3x3F();
+    this.per_draw = new KProgramUniformSlot[] {
+      KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+      KProgramUniformSlot.SLOT_MATRIX_NORMAL,
+      KProgramUniformSlot.SLOT_MATRIX_UV,
+    };
+  }
+
+  /**
+   * Write the per-instance uniforms by name, and draw each instance.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public void putByName()
+    throws Exception
+  {
+    final int count = this.instances;
+    final JCBProgramProcedureType<JCGLException> d = this.draw;
+    final MatrixM4x4F mm = this.matrix_modelview;
+    final MatrixM3x3F mn = this.matrix_normal;
+    final MatrixM4x4F mp = this.matrix_projection;
+    final MatrixM3x3F mu = this.matrix_uv;
+
+    this.exec.execRun(new JCBExecutorProcedureType<JCGLException>() {
+      @Override public void call(
+        final JCBProgramType jp)
+        throws JCGLException
+      {
+        jp.programUniformPutMatrix4x4f("m_projection", mp);
+        jp.programUniformPutFloat("depth_coefficient", 1.0f);
+
+        for (int index = 0; index < count; ++index) {
+          jp.programUniformUseExisting("m_projection");
+          jp.programUniformUseExisting("depth_coefficient");
+          jp.programUniformPutMatrix4x4f("m_modelview", mm);
+          jp.programUniformPutMatrix3x3f("m_normal", mn);
+          jp.programUniformPutMatrix3x3f("m_uv", mu);
+          jp.programExecute(d);
+        }
+      }
+    });
+  }
+
+  /**
+   * Write the per-instance uniforms through pre-resolved slots, and draw
+   * each instance.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public void putBySlot()
+    throws Exception
+  {
+    final int count = this.instances;
+    final JCBProgramProcedureType<JCGLException> d = this.draw;
+    final MatrixM4x4F mm = this.matrix_modelview;
+    final MatrixM3x3F mn = this.matrix_normal;
+    final MatrixM4x4F mp = this.matrix_projection;
+    final MatrixM3x3F mu = this.matrix_uv;
+    final KProgramUniforms u = this.uniforms;
+
+    this.exec.execRun(new JCBExecutorProcedureType<JCGLException>() {
+      @Override public void call(
+        final JCBProgramType jp)
+        throws JCGLException
+      {
+        u.uniformsBegin();
+        jp.programUniformPutMatrix4x4f("m_projection", mp);
+        jp.programUniformPutFloat("depth_coefficient", 1.0f);
+
+        for (int index = 0; index < count; ++index) {
+          u.uniformsReuse(jp, KProgramUniformSlot.SLOT_MATRIX_PROJECTION);
+          u.uniformsReuse(jp, KProgramUniformSlot.SLOT_DEPTH_COEFFICIENT);
+          u.uniformsPutMatrix4x4f(
+            jp,
+            KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+            mm);
+          u.uniformsPutMatrix3x3f(
+            jp,
+            KProgramUniformSlot.SLOT_MATRIX_NORMAL,
+            mn);
+          u.uniformsPutMatrix3x3f(jp, KProgramUniformSlot.SLOT_MATRIX_UV, mu);
+          u.uniformsExecute(jp, d);
+        }
+      }
+    });
+  }
+
+  /**
+   * Write the per-instance uniforms through pre-resolved slots, and draw
+   * every instance in a single execution of the program.
+   *
+   * @return The number of uniform lookups by name made for the run
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public long putBySlotRun()
+    throws Exception
+  {
+    final int count = this.instances;
+    final MatrixM4x4F mm = this.matrix_modelview;
+    final MatrixM3x3F mn = this.matrix_normal;
+    final MatrixM4x4F mp = this.matrix_projection;
+    final MatrixM3x3F mu = this.matrix_uv;
+    final KProgramUniforms u = this.uniforms;
+    final KProgramUniformSlot[] pd = this.per_draw;
+    final long before = u.uniformsGetNamedCount();
+
+    this.exec.execRun(new JCBExecutorProcedureType<RException>() {
+      @Override public void call(
+        final JCBProgramType jp)
+        throws RException
+      {
+        u.uniformsBegin();
+        jp.programUniformPutMatrix4x4f("m_projection", mp);
+        jp.programUniformPutFloat("depth_coefficient", 1.0f);
+        u.uniformsReuse(jp, KProgramUniformSlot.SLOT_MATRIX_PROJECTION);
+        u.uniformsReuse(jp, KProgramUniformSlot.SLOT_DEPTH_COEFFICIENT);
+
+        u.uniformsExecuteRun(jp, pd, new JCBProgramProcedureType<RException>() {
+          @Override public void call()
+            throws RException
+          {
+            for (int index = 0; index < count; ++index) {
+              u.uniformsPutMatrix4x4f(
+                jp,
+                KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+                mm);
+              u.uniformsPutMatrix3x3f(
+                jp,
+                KProgramUniformSlot.SLOT_MATRIX_NORMAL,
+                mn);
+              u.uniformsPutMatrix3x3f(
+                jp,
+                KProgramUniformSlot.SLOT_MATRIX_UV,
+                mu);
+              u.uniformsDraw();
+            }
+          }
+        });
+      }
+    });
+
+    return u.uniformsGetNamedCount() - before;
+  }
+}
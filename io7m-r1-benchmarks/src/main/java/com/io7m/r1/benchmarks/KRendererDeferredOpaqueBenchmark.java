@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcanephora.DepthFunction;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KFramebufferDeferred;
+import com.io7m.r1.kernel.KFramebufferDeferredUsableType;
+import com.io7m.r1.kernel.KMatricesObserverFunctionType;
+import com.io7m.r1.kernel.KMatricesObserverType;
+import com.io7m.r1.kernel.KMutableMatrices;
+import com.io7m.r1.kernel.KRendererDeferredOpaqueType;
+import com.io7m.r1.kernel.KShaderCacheSetType;
+import com.io7m.r1.kernel.KShadowMapContextType;
+import com.io7m.r1.kernel.KShadowMapRendererType;
+import com.io7m.r1.kernel.KShadowMapWithType;
+import com.io7m.r1.kernel.KTextureBindingsController;
+import com.io7m.r1.kernel.KTextureBindingsControllerType;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KFramebufferDeferredDescription;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KLightDirectional;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KUnitQuadCache;
+import com.io7m.r1.kernel.types.KUnitQuadCacheType;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderWithCreateType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.shaders.deferred.RKDMaterialCases;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeTextures2DStatic;
+import com.io7m.r1.tests.RFakeTexturesCubeStatic;
+import com.io7m.r1.tests.TestShaderCaches;
+
+/**
+ * The CPU-side cost of rendering a frame with the deferred opaque renderer,
+ * against the fake GL implementation.
+ */
+
+@State(Scope.Benchmark) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS) @Fork(1) @Warmup(iterations = 5) @Measurement(iterations = 10) public class KRendererDeferredOpaqueBenchmark
+{
+  /**
+   * The number of instances rendered per frame.
+   */
+
+  @Param({ "100", "1000" }) public int instances;
+
+  /**
+   * The maximum number of distinct materials used by the instances.
+   */
+
+  @Param({ "1", "16" }) public int materials;
+
+  private KCamera                              camera;
+  private KFramebufferDeferredUsableType       framebuffer;
+  private KRendererDeferredOpaqueType          renderer;
+  private KShadowMapRendererType               shadow_renderer;
+  private KVisibleSet                          visible;
+  private KShadowMapWithType<Unit, RException> with;
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public KRendererDeferredOpaqueBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Create the renderers and the visible set to be rendered.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    final LogUsableType log = RBenchmarkFixtures.newLog();
+    final JCGLImplementationType g = RBenchmarkFixtures.newGL();
+    final KUnitQuadCacheType qc =
+      KUnitQuadCache.newCache(g.getGLCommon(), log);
+    final KShaderCacheSetType tc =
+      TestShaderCaches.newCachesFromArchives(g, log);
+    final KTextureBindingsControllerType bindings =
+      KTextureBindingsController.newBindings(g.getGLCommon());
+
+    this.framebuffer =
+      KFramebufferDeferred.newFramebuffer(g, KFramebufferDeferredDescription
+        .newBuilder(RFakeGL.SCREEN_AREA)
+        .build());
+    this.renderer =
+      RBenchmarkFixtures.newDeferredRenderer(g, tc, bindings, qc, log);
+    this.shadow_renderer =
+      RBenchmarkFixtures.newShadowMapRenderer(g, tc, bindings, qc, log);
+    this.camera = RBenchmarkFixtures.newCamera();
+
+    final KMeshReadableType mesh =
+      RBenchmarkFixtures.newMesh(g.getGLCommon());
+    final List<KMaterialOpaqueRegular> cases =
+      new RKDMaterialCases(
+        RFakeTextures2DStatic.newWithName(g, "t2d"),
+        RFakeTexturesCubeStatic.newAnything(g))
+        .getCasesGeometryOpaqueRegular();
+    final int material_count = Math.min(this.materials, cases.size());
+
+    final KVisibleSetBuilderWithCreateType b =
+      KVisibleSet.newBuilder(this.camera);
+    final KVisibleSetLightGroupBuilderType lg =
+      b.visibleOpaqueNewLightGroup("g0");
+    lg.groupAddLight(KLightDirectional.newBuilder().build());
+
+    for (int index = 0; index < this.instances; ++index) {
+      final KMaterialOpaqueRegular material =
+        cases.get(index % material_count);
+      assert material != null;
+
+      lg.groupAddInstance(KInstanceOpaqueRegular.newInstance(
+        mesh,
+        material,
+        KTransformMatrix4x4.newTransform(PMatrixI4x4F
+          .<RSpaceObjectType, RSpaceWorldType> identity()),
+        PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+        KFaceSelection.FACE_RENDER_FRONT));
+    }
+
+    this.visible = b.visibleCreate();
+
+    final KMutableMatrices m = KMutableMatrices.newMatrices();
+    final KRendererDeferredOpaqueType r = this.renderer;
+    final KFramebufferDeferredUsableType fb = this.framebuffer;
+    final KCamera c = this.camera;
+    final KVisibleSet v = this.visible;
+    final OptionType<DepthFunction> depth_function = Option.none();
+
+    this.with = new KShadowMapWithType<Unit, RException>() {
+      @Override public Unit withMaps(
+        final KShadowMapContextType shadow_context)
+        throws RException
+      {
+        return m.withObserver(
+          c.getViewMatrix(),
+          c.getProjection(),
+          new KMatricesObserverFunctionType<Unit, UnreachableCodeException>() {
+            @Override public Unit run(
+              final KMatricesObserverType mwo)
+              throws RException
+            {
+              r.rendererEvaluateOpaqueLit(
+                fb,
+                shadow_context,
+                depth_function,
+                mwo,
+                v.getOpaques());
+              return Unit.unit();
+            }
+          });
+      }
+    };
+  }
+
+  /**
+   * Render a single frame.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public void render()
+    throws Exception
+  {
+    this.shadow_renderer.rendererEvaluateShadowMaps(
+      this.camera,
+      this.visible.getShadows(),
+      this.with);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcanephora.TextureFilterMagnification;
+import com.io7m.jcanephora.TextureFilterMinification;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KFramebufferRGBAWithDepth;
+import com.io7m.r1.kernel.KFramebufferRGBAWithDepthUsableType;
+import com.io7m.r1.kernel.KMatricesObserverFunctionType;
+import com.io7m.r1.kernel.KMatricesObserverType;
+import com.io7m.r1.kernel.KMutableMatrices;
+import com.io7m.r1.kernel.KShaderCacheSetType;
+import com.io7m.r1.kernel.KTextureBindingsController;
+import com.io7m.r1.kernel.KTextureBindingsControllerType;
+import com.io7m.r1.kernel.KTranslucentRendererType;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KFramebufferRGBADescription;
+import com.io7m.r1.kernel.types.KInstanceTranslucentRegular;
+import com.io7m.r1.kernel.types.KLightTranslucentType;
+import com.io7m.r1.kernel.types.KMaterialTranslucentRegular;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KRGBAPrecision;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
+import com.io7m.r1.kernel.types.KVisibleSetTranslucentsBuilderWithCreateType;
+import com.io7m.r1.shaders.forward.RKFLightCases;
+import com.io7m.r1.shaders.forward.RKFMaterialCases;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeTextures2DStatic;
+import com.io7m.r1.tests.RFakeTexturesCubeStatic;
+import com.io7m.r1.tests.TestShaderCaches;
+
+/**
+ * The CPU-side cost of rendering a frame with the translucent renderer,
+ * against the fake GL implementation. Half of the instances are unlit, and
+ * the other half are lit by every light in {@link RKFLightCases}.
+ */
+
+@State(Scope.Benchmark) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS) @Fork(1) @Warmup(iterations = 5) @Measurement(iterations = 10) public class KTranslucentRendererBenchmark
+{
+  /**
+   * The number of instances rendered per frame.
+   */
+
+  @Param({ "100", "1000" }) public int instances;
+
+  private KCamera                                                       camera;
+  private KFramebufferRGBAWithDepthUsableType                           framebuffer;
+  private KMutableMatrices                                              matrices;
+  private KMatricesObserverFunctionType<Unit, UnreachableCodeException> on_observer;
+  private KTranslucentRendererType                                      renderer;
+  private KVisibleSetTranslucents                                       translucents;
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public KTranslucentRendererBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Create the renderer and the translucent instances to be rendered.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    final LogUsableType log = RBenchmarkFixtures.newLog();
+    final JCGLImplementationType g = RBenchmarkFixtures.newGL();
+    final KShaderCacheSetType tc =
+      TestShaderCaches.newCachesFromArchives(g, log);
+    final KTextureBindingsControllerType bindings =
+      KTextureBindingsController.newBindings(g.getGLCommon());
+
+    this.renderer =
+      RBenchmarkFixtures.newTranslucentRenderer(g, tc, bindings, log);
+    this.framebuffer =
+      KFramebufferRGBAWithDepth.newFramebuffer(g, KFramebufferRGBADescription
+        .newDescription(
+          RFakeGL.SCREEN_AREA,
+          TextureFilterMagnification.TEXTURE_FILTER_LINEAR,
+          TextureFilterMinification.TEXTURE_FILTER_LINEAR,
+          KRGBAPrecision.RGBA_PRECISION_8));
+    this.camera = RBenchmarkFixtures.newCamera();
+    this.matrices = KMutableMatrices.newMatrices();
+
+    final KMeshReadableType mesh =
+      RBenchmarkFixtures.newMesh(g.getGLCommon());
+    final RKFMaterialCases material_cases =
+      new RKFMaterialCases(
+        RFakeTextures2DStatic.newWithName(g, "t2d"),
+        RFakeTexturesCubeStatic.newAnything(g));
+    final List<KMaterialTranslucentRegular> unlit =
+      material_cases.getCasesUnlitTranslucentRegular();
+    final List<KMaterialTranslucentRegular> lit =
+      material_cases.getCasesLitTranslucentRegular();
+    final Set<KLightTranslucentType> lights =
+      new HashSet<KLightTranslucentType>(new RKFLightCases().getCases());
+
+    final KVisibleSetTranslucentsBuilderWithCreateType b =
+      KVisibleSetTranslucents.newBuilder(this.camera);
+
+    for (int index = 0; index < this.instances; ++index) {
+      final boolean is_lit = (index % 2) == 1;
+
+      final KMaterialTranslucentRegular material;
+      if (is_lit) {
+        material = lit.get(index % lit.size());
+      } else {
+        material = unlit.get(index % unlit.size());
+      }
+      assert material != null;
+
+      final KInstanceTranslucentRegular instance =
+        KInstanceTranslucentRegular.newInstance(
+          mesh,
+          material,
+          KTransformMatrix4x4.newTransform(PMatrixI4x4F
+            .<RSpaceObjectType, RSpaceWorldType> identity()),
+          PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+          KFaceSelection.FACE_RENDER_FRONT);
+
+      if (is_lit) {
+        b.visibleTranslucentsAddLit(instance, lights);
+      } else {
+        b.visibleTranslucentsAddUnlit(instance);
+      }
+    }
+
+    this.translucents = b.visibleTranslucentsCreate();
+
+    final KTranslucentRendererType r = this.renderer;
+    final KFramebufferRGBAWithDepthUsableType fb = this.framebuffer;
+    final KVisibleSetTranslucents t = this.translucents;
+
+    this.on_observer =
+      new KMatricesObserverFunctionType<Unit, UnreachableCodeException>() {
+        @Override public Unit run(
+          final KMatricesObserverType mwo)
+          throws RException
+        {
+          r.rendererEvaluateTranslucents(fb, mwo, t);
+          return Unit.unit();
+        }
+      };
+  }
+
+  /**
+   * Render a single frame.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public void render()
+    throws Exception
+  {
+    this.matrices.withObserver(
+      this.camera.getViewMatrix(),
+      this.camera.getProjection(),
+      this.on_observer);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KLightDirectional;
+import com.io7m.r1.kernel.types.KLightType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderWithCreateType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.shaders.deferred.RKDMaterialCases;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * Visible set construction for large numbers of instances spread across
+ * varying numbers of distinct materials (and therefore material codes).
+ */
+
+@State(Scope.Benchmark) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MILLISECONDS) @Fork(1) @Warmup(iterations = 5) @Measurement(iterations = 10) public class KVisibleSetBenchmark
+{
+  /**
+   * The number of instances in the set.
+   */
+
+  @Param({ "1000", "10000", "100000" }) public int instances;
+
+  /**
+   * The maximum number of distinct materials used by the instances.
+   */
+
+  @Param({ "1", "16", "64" }) public int materials;
+
+  private KCamera                      camera;
+  private List<KInstanceOpaqueRegular> instance_list;
+  private KLightType                   light;
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public KVisibleSetBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Create the instances that will be added to each set.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.camera = RBenchmarkFixtures.newCamera();
+    this.light = KLightDirectional.newBuilder().build();
+
+    final KMeshReadableType mesh =
+      RBenchmarkFixtures.newMesh(RBenchmarkFixtures.newGL().getGLCommon());
+    final List<KMaterialOpaqueRegular> cases =
+      new RKDMaterialCases().getCasesGeometryOpaqueRegular();
+    final int material_count = Math.min(this.materials, cases.size());
+
+    this.instance_list =
+      new ArrayList<KInstanceOpaqueRegular>(this.instances);
+    for (int index = 0; index < this.instances; ++index) {
+      final KMaterialOpaqueRegular material =
+        cases.get(index % material_count);
+      assert material != null;
+
+      this.instance_list.add(KInstanceOpaqueRegular.newInstance(
+        mesh,
+        material,
+        KTransformMatrix4x4.newTransform(PMatrixI4x4F
+          .<RSpaceObjectType, RSpaceWorldType> identity()),
+        PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+        KFaceSelection.FACE_RENDER_FRONT));
+    }
+  }
+
+  /**
+   * @return A visible set in which all instances are lit by a single light.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public KVisibleSet buildLit()
+    throws Exception
+  {
+    final KVisibleSetBuilderWithCreateType b =
+      KVisibleSet.newBuilder(this.camera);
+    final KVisibleSetLightGroupBuilderType g =
+      b.visibleOpaqueNewLightGroup("g0");
+    g.groupAddLight(this.light);
+
+    final List<KInstanceOpaqueRegular> is = this.instance_list;
+    final int size = is.size();
+    for (int index = 0; index < size; ++index) {
+      g.groupAddInstance(is.get(index));
+    }
+    return b.visibleCreate();
+  }
+
+  /**
+   * @return A visible set in which all instances are unlit.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public KVisibleSet buildUnlit()
+    throws Exception
+  {
+    final KVisibleSetBuilderWithCreateType b =
+      KVisibleSet.newBuilder(this.camera);
+
+    final List<KInstanceOpaqueRegular> is = this.instance_list;
+    final int size = is.size();
+    for (int index = 0; index < size; ++index) {
+      b.visibleOpaqueAddUnlit(is.get(index));
+    }
+    return b.visibleCreate();
+  }
+}
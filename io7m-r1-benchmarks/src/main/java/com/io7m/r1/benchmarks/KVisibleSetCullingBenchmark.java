@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.KVisibleSetCulling;
+import com.io7m.r1.kernel.KVisibleSetCullingBuilderType;
+import com.io7m.r1.kernel.KVisibleSetCullingFilterType;
+import com.io7m.r1.kernel.KVisibleSetShadowCulling;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KInstanceBoundsFunctionType;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceType;
+import com.io7m.r1.kernel.types.KLightDirectional;
+import com.io7m.r1.kernel.types.KLightType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KTransformContext;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetParallel;
+import com.io7m.r1.kernel.types.KVisibleSetParallelBuilderType;
+import com.io7m.r1.shaders.deferred.RKDMaterialCases;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * Frustum-culled visible set construction, comparing a single culling
+ * builder with a parallel builder whose partitions are each given their own
+ * culling stage. Roughly half of the instances lie outside of the frustum.
+ */
+
+@State(Scope.Benchmark) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MILLISECONDS) @Fork(1) @Warmup(iterations = 5) @Measurement(iterations = 10) public class KVisibleSetCullingBenchmark
+{
+  private static final KInstanceBoundsFunctionType UNIT_BOUNDS;
+
+  static {
+    final OptionType<KBoundingBox<RSpaceObjectType>> box =
+      Option.some(KBoundingBox.newBox(
+        new PVectorI3F<RSpaceObjectType>(-0.5f, -0.5f, -0.5f),
+        new PVectorI3F<RSpaceObjectType>(0.5f, 0.5f, 0.5f)));
+    UNIT_BOUNDS = new KInstanceBoundsFunctionType() {
+      @Override public
+        OptionType<KBoundingBox<RSpaceObjectType>>
+        instanceGetBounds(
+          final KInstanceType instance)
+      {
+        return box;
+      }
+    };
+  }
+
+  /**
+   * The number of instances in the set.
+   */
+
+  @Param({ "10000", "100000" }) public int instances;
+
+  /**
+   * The number of partitions (and threads) used by the parallel builder.
+   */
+
+  @Param({ "2", "4" }) public int threads;
+
+  private KCamera                      camera;
+  private ExecutorService              exec;
+  private List<KInstanceOpaqueRegular> instance_list;
+  private KLightType                   light;
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public KVisibleSetCullingBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * @return A visible set built by {@link #threads} threads.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public KVisibleSet buildParallel()
+    throws Exception
+  {
+    final int count = this.threads;
+    final KVisibleSetParallelBuilderType b =
+      KVisibleSetParallel.newBuilder(this.camera, count);
+
+    final int size = this.instance_list.size();
+    final int per = (size + (count - 1)) / count;
+    final List<Future<Unit>> futures = new ArrayList<Future<Unit>>(count);
+    for (int p = 0; p < count; ++p) {
+      final KVisibleSetBuilderType pb = b.visibleGetPartition(p);
+      final int start = Math.min(size, p * per);
+      final int end = Math.min(size, start + per);
+      futures.add(this.exec.submit(new Callable<Unit>() {
+        @Override public Unit call()
+          throws Exception
+        {
+          final KVisibleSetCullingFilterType f =
+            KVisibleSetCulling.newFilter(
+              KTransformContext.newContext(),
+              KVisibleSetCullingBenchmark.this.camera,
+              KVisibleSetCullingBenchmark.UNIT_BOUNDS,
+              KVisibleSetShadowCulling.SHADOW_CULLING_NONE,
+              pb);
+          KVisibleSetCullingBenchmark.this.fill(f, start, end);
+          return Unit.unit();
+        }
+      }));
+    }
+
+    for (int index = 0; index < futures.size(); ++index) {
+      futures.get(index).get();
+    }
+    return b.visibleCreate();
+  }
+
+  /**
+   * @return A visible set built on the calling thread.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public KVisibleSet buildSerial()
+    throws Exception
+  {
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilder(
+        KTransformContext.newContext(),
+        this.camera,
+        KVisibleSetCullingBenchmark.UNIT_BOUNDS);
+    this.fill(b, 0, this.instance_list.size());
+    return b.visibleCreate();
+  }
+
+  /**
+   * Add the instances in the range <code>[start, end)</code>. Instances with
+   * even indices are lit, the rest are unlit.
+   */
+
+  private void fill(
+    final KVisibleSetBuilderType b,
+    final int start,
+    final int end)
+    throws Exception
+  {
+    final KVisibleSetLightGroupBuilderType g =
+      b.visibleOpaqueNewLightGroup("g0");
+    g.groupAddLight(this.light);
+
+    final List<KInstanceOpaqueRegular> is = this.instance_list;
+    for (int index = start; index < end; ++index) {
+      final KInstanceOpaqueRegular i = is.get(index);
+      assert i != null;
+      if ((index % 2) == 0) {
+        g.groupAddInstance(i);
+      } else {
+        b.visibleOpaqueAddUnlit(i);
+      }
+    }
+  }
+
+  /**
+   * Create the instances that will be added to each set.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.camera = RBenchmarkFixtures.newCamera();
+    this.light = KLightDirectional.newBuilder().build();
+    this.exec = Executors.newFixedThreadPool(this.threads);
+
+    final KMeshReadableType mesh =
+      RBenchmarkFixtures.newMesh(RBenchmarkFixtures.newGL().getGLCommon());
+    final List<KMaterialOpaqueRegular> cases =
+      new RKDMaterialCases().getCasesGeometryOpaqueRegular();
+    final int material_count = Math.min(16, cases.size());
+
+    /**
+     * Instances are placed on a grid around the camera: those with positive
+     * z lie behind it and are culled.
+     */
+
+    this.instance_list =
+      new ArrayList<KInstanceOpaqueRegular>(this.instances);
+    for (int index = 0; index < this.instances; ++index) {
+      final KMaterialOpaqueRegular material =
+        cases.get(index % material_count);
+      assert material != null;
+
+      final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+        new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+      PMatrixM4x4F.set(m, 0, 3, (index % 20) - 10.0f);
+      PMatrixM4x4F.set(m, 1, 3, ((index / 20) % 20) - 10.0f);
+      PMatrixM4x4F.set(m, 2, 3, ((index / 400) % 100) - 50.0f);
+
+      this.instance_list.add(KInstanceOpaqueRegular.newInstance(
+        mesh,
+        material,
+        KTransformMatrix4x4.newTransform(PMatrixI4x4F.newFromReadable(m)),
+        PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+        KFaceSelection.FACE_RENDER_FRONT));
+    }
+  }
+
+  /**
+   * Shut down the thread pool.
+   */
+
+  @TearDown public void tearDown()
+  {
+    this.exec.shutdown();
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.math.BigInteger;
+
+import com.io7m.jcache.BLUCacheConfig;
+import com.io7m.jcache.LRUCacheConfig;
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayBufferUpdateUnmapped;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.ArrayDescriptorBuilderType;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.IndexBufferUpdateUnmapped;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jlog.Log;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogPolicyAllOn;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.kernel.KDepthRenderer;
+import com.io7m.r1.kernel.KDepthRendererType;
+import com.io7m.r1.kernel.KDepthVarianceRenderer;
+import com.io7m.r1.kernel.KDepthVarianceRendererType;
+import com.io7m.r1.kernel.KFramebufferDepthVarianceCache;
+import com.io7m.r1.kernel.KFramebufferDepthVarianceCacheType;
+import com.io7m.r1.kernel.KFramebufferMonochromeCache;
+import com.io7m.r1.kernel.KFramebufferMonochromeCacheType;
+import com.io7m.r1.kernel.KFramebufferRGBAWithDepthCache;
+import com.io7m.r1.kernel.KFramebufferRGBAWithDepthCacheType;
+import com.io7m.r1.kernel.KImageFilterBlurDepthVariance;
+import com.io7m.r1.kernel.KImageFilterBlurMonochrome;
+import com.io7m.r1.kernel.KImageFilterDepthVarianceType;
+import com.io7m.r1.kernel.KImageFilterMonochromeType;
+import com.io7m.r1.kernel.KRefractionRenderer;
+import com.io7m.r1.kernel.KRefractionRendererType;
+import com.io7m.r1.kernel.KRegionCopier;
+import com.io7m.r1.kernel.KRegionCopierType;
+import com.io7m.r1.kernel.KRendererDeferredOpaque;
+import com.io7m.r1.kernel.KRendererDeferredOpaqueType;
+import com.io7m.r1.kernel.KScreenSpaceShadowDeferredRenderer;
+import com.io7m.r1.kernel.KScreenSpaceShadowDeferredRendererType;
+import com.io7m.r1.kernel.KShaderCacheSetType;
+import com.io7m.r1.kernel.KShadowMapCache;
+import com.io7m.r1.kernel.KShadowMapCacheType;
+import com.io7m.r1.kernel.KShadowMapRenderer;
+import com.io7m.r1.kernel.KShadowMapRendererType;
+import com.io7m.r1.kernel.KTextureBindingsControllerType;
+import com.io7m.r1.kernel.KTranslucentRenderer;
+import com.io7m.r1.kernel.KTranslucentRendererType;
+import com.io7m.r1.kernel.KViewRaysCache;
+import com.io7m.r1.kernel.KViewRaysCacheType;
+import com.io7m.r1.kernel.types.KBlurParameters;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFrustumMeshCache;
+import com.io7m.r1.kernel.types.KFrustumMeshCacheType;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.kernel.types.KMeshAttributes;
+import com.io7m.r1.kernel.types.KProjectionFOV;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.kernel.types.KUnitQuadCacheType;
+import com.io7m.r1.kernel.types.KUnitSphereCacheType;
+import com.io7m.r1.rmb.RBUnitSphereResourceCache;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+
+/**
+ * Functions to construct the objects shared by the benchmarks. All rendering
+ * takes place against the fake GL implementation used by the unit tests, so
+ * the benchmarks measure only the CPU-side cost of rendering.
+ */
+
+final class RBenchmarkFixtures
+{
+  static KCamera newCamera()
+    throws Exception
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFOV.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        (float) Math.toRadians(90.0f),
+        1.0f,
+        1.0f,
+        100.0f);
+    return KCamera.newCamera(view, projection);
+  }
+
+  static KRendererDeferredOpaqueType newDeferredRenderer(
+    final JCGLImplementationType g,
+    final KShaderCacheSetType tc,
+    final KTextureBindingsControllerType bindings,
+    final KUnitQuadCacheType qc,
+    final LogUsableType log)
+    throws Exception
+  {
+    final KUnitSphereCacheType sc =
+      RBUnitSphereResourceCache.newCache(
+        g.getGLCommon(),
+        KRefractionRendererType.class,
+        BigInteger.ONE,
+        log);
+
+    final KFrustumMeshCacheType fc =
+      KFrustumMeshCache.newCacheWithCapacity(
+        g.getGLCommon(),
+        ArrayBufferUpdateUnmapped.newConstructor(),
+        IndexBufferUpdateUnmapped.newConstructor(),
+        BigInteger.valueOf(250),
+        log);
+
+    final KViewRaysCacheType vrc =
+      KViewRaysCache.newCacheWithConfig(
+        new PMatrixM4x4F.Context(),
+        LRUCacheConfig.empty().withMaximumCapacity(BigInteger.valueOf(60)));
+
+    final BLUCacheConfig cache_config =
+      BLUCacheConfig
+        .empty()
+        .withMaximumBorrowsPerKey(BigInteger.valueOf(64))
+        .withMaximumCapacity(BigInteger.valueOf(1024 * 768 * 4));
+
+    final KFramebufferMonochromeCacheType mono_cache =
+      KFramebufferMonochromeCache.newCacheWithConfig(g, cache_config, log);
+
+    final KImageFilterMonochromeType<KBlurParameters> blur =
+      KImageFilterBlurMonochrome.filterNew(
+        g,
+        bindings,
+        KRegionCopier.newCopier(g, log),
+        mono_cache,
+        tc.getShaderImageCache(),
+        qc,
+        log);
+
+    final KScreenSpaceShadowDeferredRendererType ssshadow_renderer =
+      KScreenSpaceShadowDeferredRenderer.newRenderer(
+        bindings,
+        fc,
+        tc.getShaderDeferredLightCache(),
+        mono_cache,
+        blur);
+
+    return KRendererDeferredOpaque.newRenderer(
+      g,
+      bindings,
+      qc,
+      sc,
+      fc,
+      tc.getShaderDebugCache(),
+      tc.getShaderDeferredGeoCache(),
+      tc.getShaderDeferredLightCache(),
+      vrc,
+      ssshadow_renderer);
+  }
+
+  static JCGLImplementationType newGL()
+    throws Exception
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+  }
+
+  static LogUsableType newLog()
+  {
+    return Log.newLog(
+      LogPolicyAllOn.newPolicy(LogLevel.LOG_ERROR),
+      "benchmarks");
+  }
+
+  static KMesh newMesh(
+    final JCGLInterfaceCommonType gc)
+    throws Exception
+  {
+    final ArrayDescriptorBuilderType b = ArrayDescriptor.newBuilder();
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_POSITION);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_TANGENT4);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_UV);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_NORMAL);
+
+    final ArrayDescriptor type = b.build();
+    final ArrayBufferType array =
+      gc.arrayBufferAllocate(1, type, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType indices =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        1,
+        UsageHint.USAGE_STATIC_DRAW);
+
+    return KMesh.newMesh(array, indices);
+  }
+
+  static KShadowMapRendererType newShadowMapRenderer(
+    final JCGLImplementationType g,
+    final KShaderCacheSetType tc,
+    final KTextureBindingsControllerType bindings,
+    final KUnitQuadCacheType qc,
+    final LogUsableType log)
+    throws Exception
+  {
+    final KDepthRendererType dr =
+      KDepthRenderer.newRenderer(g, bindings, tc.getShaderDepthCache(), log);
+    final KDepthVarianceRendererType dvr =
+      KDepthVarianceRenderer.newRenderer(
+        g,
+        bindings,
+        tc.getShaderDepthVarianceCache());
+
+    final BLUCacheConfig cache_config =
+      BLUCacheConfig
+        .empty()
+        .withMaximumBorrowsPerKey(BigInteger.valueOf(256))
+        .withMaximumCapacity(BigInteger.valueOf(1024 * 1024 * 8 * 128));
+
+    final KFramebufferDepthVarianceCacheType depth_variance_cache =
+      KFramebufferDepthVarianceCache.newCacheWithConfig(g, cache_config, log);
+    final KImageFilterDepthVarianceType<KBlurParameters> blur =
+      KImageFilterBlurDepthVariance.filterNew(
+        g,
+        bindings,
+        KRegionCopier.newCopier(g, log),
+        depth_variance_cache,
+        tc.getShaderImageCache(),
+        qc,
+        log);
+
+    final KShadowMapCacheType sc =
+      KShadowMapCache.newCacheWithConfig(g, cache_config, log);
+    return KShadowMapRenderer.newRenderer(g, dr, dvr, blur, sc, log);
+  }
+
+  static KTranslucentRendererType newTranslucentRenderer(
+    final JCGLImplementationType g,
+    final KShaderCacheSetType tc,
+    final KTextureBindingsControllerType bindings,
+    final LogUsableType log)
+    throws Exception
+  {
+    final KRegionCopierType copier = KRegionCopier.newCopier(g, log);
+
+    final BLUCacheConfig config =
+      BLUCacheConfig
+        .empty()
+        .withMaximumBorrowsPerKey(BigInteger.TEN)
+        .withMaximumCapacity(BigInteger.valueOf(640 * 480 * 4 * 128));
+    final KFramebufferRGBAWithDepthCacheType rgba_cache =
+      KFramebufferRGBAWithDepthCache.newCacheWithConfig(g, config, log);
+
+    final KRefractionRendererType refraction_renderer =
+      KRefractionRenderer.newRenderer(
+        g,
+        bindings,
+        copier,
+        tc.getShaderForwardTranslucentUnlitCache(),
+        rgba_cache);
+
+    return KTranslucentRenderer.newRenderer(
+      g,
+      bindings,
+      tc.getShaderForwardTranslucentUnlitCache(),
+      tc.getShaderForwardTranslucentLitCache(),
+      refraction_renderer,
+      log);
+  }
+
+  private RBenchmarkFixtures()
+  {
+    throw new UnreachableCodeException();
+  }
+}
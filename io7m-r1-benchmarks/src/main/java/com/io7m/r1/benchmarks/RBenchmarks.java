@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * The main benchmark frontend.
+ * </p>
+ * <p>
+ * Runs all of the benchmarks in this package and writes the results to the
+ * file named by the first argument (or <tt>r1-benchmarks.json</tt> if no
+ * arguments are given) in JMH's JSON format, so that results can be compared
+ * across versions.
+ * </p>
+ */
+
+public final class RBenchmarks
+{
+  /**
+   * Run all benchmarks.
+   *
+   * @param args
+   *          Command line arguments.
+   * @throws RunnerException
+   *           If the benchmarks cannot be run.
+   */
+
+  public static void main(
+    final String[] args)
+    throws RunnerException
+  {
+    final String file;
+    if (args.length > 0) {
+      file = args[0];
+    } else {
+      file = "r1-benchmarks.json";
+    }
+
+    final Options opts =
+      new OptionsBuilder()
+        .include(RBenchmarks.class.getPackage().getName() + ".*")
+        .resultFormat(ResultFormatType.JSON)
+        .result(file)
+        .build();
+
+    new Runner(opts).run();
+  }
+
+  private RBenchmarks()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Serializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jtensors.parameterized.PVectorI2F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.jtensors.parameterized.PVectorI4F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.meshes.RMeshBasic;
+import com.io7m.r1.meshes.RMeshParserEventsType;
+import com.io7m.r1.meshes.RMeshParserEventsVBO;
+import com.io7m.r1.meshes.RMeshTangents;
+import com.io7m.r1.rmb.RBExporter;
+import com.io7m.r1.rmb.RBImporter;
+import com.io7m.r1.rmb.RBImporterMapped;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.xml.rmx.RXMLExporter;
+import com.io7m.r1.xml.rmx.RXMLMeshDocument;
+import com.io7m.r1.xml.rmx.RXMLMeshParser;
+
+/**
+ * Mesh import and processing rates for a generated square grid mesh of
+ * <tt>size * size</tt> quads.
+ */
+
+@State(Scope.Benchmark) @BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS) @Fork(1) @Warmup(iterations = 5) @Measurement(iterations = 10) public class RMeshParsersBenchmark
+{
+  /**
+   * Parser events that only count the vertices and triangles parsed.
+   */
+
+  private static final class CountingEvents implements
+    RMeshParserEventsType<UnreachableCodeException>
+  {
+    private long count;
+
+    CountingEvents()
+    {
+      // Nothing
+    }
+
+    long getCount()
+    {
+      return this.count;
+    }
+
+    @Override public void eventError(
+      final Exception e)
+    {
+      throw new UnreachableCodeException(e);
+    }
+
+    @Override public void eventMeshEnded()
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshName(
+      final String name)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshStarted()
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshTriangle(
+      final long index,
+      final long v0,
+      final long v1,
+      final long v2)
+    {
+      this.count += v0 + v1 + v2;
+    }
+
+    @Override public void eventMeshTrianglesEnded()
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshTrianglesStarted(
+      final long in_count)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshVertexEnded(
+      final long index)
+    {
+      this.count += index;
+    }
+
+    @Override public void eventMeshVertexNormal(
+      final long index,
+      final PVectorI3F<RSpaceObjectType> normal)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshVertexPosition(
+      final long index,
+      final PVectorI3F<RSpaceObjectType> position)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshVertexStarted(
+      final long index)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshVertexTangent4f(
+      final long index,
+      final PVectorI4F<RSpaceObjectType> tangent)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshVertexUV(
+      final long index,
+      final PVectorI2F<RSpaceTextureType> uv)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshVerticesEnded(
+      final PVectorI3F<RSpaceObjectType> lower,
+      final PVectorI3F<RSpaceObjectType> upper)
+    {
+      // Nothing
+    }
+
+    @Override public void eventMeshVerticesStarted(
+      final long in_count)
+    {
+      // Nothing
+    }
+  }
+
+  private static RMeshBasic makeGrid(
+    final int size)
+    throws Exception
+  {
+    final RMeshBasic m = RMeshBasic.newMesh("grid");
+    final int normal =
+      m.normalAdd(new PVectorI3F<RSpaceObjectType>(0.0f, 1.0f, 0.0f));
+    final int stride = size + 1;
+
+    for (int z = 0; z <= size; ++z) {
+      for (int x = 0; x <= size; ++x) {
+        final int position =
+          m.positionAdd(new PVectorI3F<RSpaceObjectType>(x, 0.0f, z));
+        final int uv =
+          m.uvAdd(new PVectorI2F<RSpaceTextureType>(
+            (float) x / (float) size,
+            (float) z / (float) size));
+        m.vertexAdd(position, normal, uv);
+      }
+    }
+
+    for (int z = 0; z < size; ++z) {
+      for (int x = 0; x < size; ++x) {
+        final int v0 = (z * stride) + x;
+        final int v1 = v0 + 1;
+        final int v2 = v0 + stride;
+        final int v3 = v2 + 1;
+        m.triangleAdd(v0, v2, v1);
+        m.triangleAdd(v1, v2, v3);
+      }
+    }
+
+    return m;
+  }
+
+  /**
+   * The number of quads along each side of the grid.
+   */
+
+  @Param({ "16", "128" }) public int size;
+
+  private RMeshBasic              basic;
+  private CountingEvents          events;
+  private JCGLInterfaceCommonType gl;
+  private LogUsableType           log;
+  private byte[]                  rmb;
+  private File                    rmb_file;
+  private Element                 rmx;
+  private byte[]                  rmx_text;
+
+  /**
+   * Construct the benchmark.
+   */
+
+  public RMeshParsersBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Generate the mesh and serialize it in each of the supported formats.
+   *
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.log = RBenchmarkFixtures.newLog();
+    this.events = new CountingEvents();
+    this.basic = RMeshParsersBenchmark.makeGrid(this.size);
+
+    final RMeshTangents mt = RMeshTangents.makeWithTangents(this.basic);
+
+    final ByteArrayOutputStream rmb_out = new ByteArrayOutputStream();
+    RBExporter.newExporter().toStream(mt, rmb_out);
+    this.rmb = rmb_out.toByteArray();
+
+    this.rmb_file = File.createTempFile("r1-benchmark-", ".rmb");
+    this.rmb_file.deleteOnExit();
+    final FileOutputStream rmb_file_out = new FileOutputStream(this.rmb_file);
+    try {
+      rmb_file_out.write(this.rmb);
+    } finally {
+      rmb_file_out.close();
+    }
+
+    this.gl = RBenchmarkFixtures.newGL().getGLCommon();
+
+    this.rmx = new RXMLExporter(this.log).toXML(mt);
+
+    final ByteArrayOutputStream rmx_out = new ByteArrayOutputStream();
+    final Serializer s = new Serializer(rmx_out);
+    s.write(new Document((Element) this.rmx.copy()));
+    this.rmx_text = rmx_out.toByteArray();
+  }
+
+  /**
+   * @return The generated mesh.
+   */
+
+  @Benchmark public RMeshTangents makeWithTangents()
+  {
+    return RMeshTangents.makeWithTangents(this.basic);
+  }
+
+  /**
+   * Load the mesh file into array and index buffers by mapping the file and
+   * copying the vertex and triangle blocks in bulk.
+   *
+   * @return A value derived from the loaded mesh.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public long loadRMBMapped()
+    throws Exception
+  {
+    final RBImporterMapped m =
+      RBImporterMapped.mapFromFile(this.rmb_file, this.log);
+    final ArrayBufferType a =
+      m.loadArrayBuffer(this.gl, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType i = m.loadIndexBuffer(this.gl);
+    return this.deleteBuffers(a, i);
+  }
+
+  /**
+   * Load the mesh file into array and index buffers by streaming parser
+   * events into a {@link RMeshParserEventsVBO}.
+   *
+   * @return A value derived from the loaded mesh.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public long loadRMBStream()
+    throws Exception
+  {
+    final RMeshParserEventsVBO<JCGLInterfaceCommonType> e =
+      RMeshParserEventsVBO.newEvents(this.gl, UsageHint.USAGE_STATIC_DRAW);
+    final FileInputStream s = new FileInputStream(this.rmb_file);
+    try {
+      RBImporter.parseFromStream(s, e, this.log);
+    } finally {
+      s.close();
+    }
+    return this.deleteBuffers(e.getArray(), e.getIndices());
+  }
+
+  private long deleteBuffers(
+    final ArrayBufferType a,
+    final IndexBufferType i)
+    throws JCGLException
+  {
+    final long r = a.bufferGetRange().getInterval();
+    this.gl.arrayBufferDelete(a);
+    this.gl.indexBufferDelete(i);
+    return r;
+  }
+
+  /**
+   * @return A value derived from the parsed mesh.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public long parseRMB()
+    throws Exception
+  {
+    RBImporter.parseFromStream(
+      new ByteArrayInputStream(this.rmb),
+      this.events,
+      this.log);
+    return this.events.getCount();
+  }
+
+  /**
+   * @return A value derived from the parsed mesh.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public long parseRMXDocument()
+    throws Exception
+  {
+    final Document d =
+      RXMLMeshDocument.parseFromStreamValidating(new ByteArrayInputStream(
+        this.rmx_text));
+    RXMLMeshParser.parseFromDocument(d, this.events);
+    return this.events.getCount();
+  }
+
+  /**
+   * @return A value derived from the parsed mesh.
+   * @throws Exception
+   *           On errors.
+   */
+
+  @Benchmark public long parseRMXElement()
+    throws Exception
+  {
+    RXMLMeshParser.parseFromElement(this.rmx, this.events);
+    return this.events.getCount();
+  }
+}
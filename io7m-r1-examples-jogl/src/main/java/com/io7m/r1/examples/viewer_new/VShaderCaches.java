@@ -18,8 +18,10 @@ package com.io7m.r1.examples.viewer_new;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
-import com.io7m.jcache.JCacheLoaderType;
 import com.io7m.jcache.LRUCacheConfig;
 import com.io7m.jcache.LRUCacheTrivial;
 import com.io7m.jcanephora.api.JCGLImplementationType;
@@ -41,8 +43,13 @@ import com.io7m.r1.kernel.KShaderCacheFilesystemLoader;
 import com.io7m.r1.kernel.KShaderCacheForwardTranslucentLitType;
 import com.io7m.r1.kernel.KShaderCacheForwardTranslucentUnlitType;
 import com.io7m.r1.kernel.KShaderCacheImageType;
+import com.io7m.r1.kernel.KShaderCacheKind;
+import com.io7m.r1.kernel.KShaderCacheLoaderType;
 import com.io7m.r1.kernel.KShaderCacheSetClasspath;
 import com.io7m.r1.kernel.KShaderCacheSetType;
+import com.io7m.r1.kernel.KShaderWarmUp;
+import com.io7m.r1.kernel.KShaderWarmUpRequest;
+import com.io7m.r1.kernel.KShaderWarmUpType;
 
 /**
  * Cache loading from the classpath or from target directories.
@@ -134,6 +141,9 @@ public final class VShaderCaches implements KShaderCacheSetType
     final KShaderCacheForwardTranslucentLitType in_shader_forward_translucent_lit_cache;
     final KShaderCacheForwardTranslucentUnlitType in_shader_forward_translucent_unlit_cache;
     final KShaderCacheImageType in_shader_image_cache;
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders =
+      new EnumMap<KShaderCacheKind, KShaderCacheLoaderType>(
+        KShaderCacheKind.class);
 
     {
       final FilesystemType fs =
@@ -142,7 +152,7 @@ public final class VShaderCaches implements KShaderCacheSetType
         VShaderCaches.makeShaderArchiveNameEclipse(base, "debug", version),
         PathVirtual.ROOT);
       in_shader_debug_cache =
-        VShaderCaches.wrapDebug(in_gi, in_log, cache_config, fs);
+        VShaderCaches.wrapDebug(in_gi, in_log, cache_config, fs, loaders);
     }
 
     {
@@ -152,7 +162,7 @@ public final class VShaderCaches implements KShaderCacheSetType
         VShaderCaches.makeShaderArchiveNameEclipse(base, "depth", version),
         PathVirtual.ROOT);
       in_shader_depth_cache =
-        VShaderCaches.wrapDepth(in_gi, in_log, cache_config, fs);
+        VShaderCaches.wrapDepth(in_gi, in_log, cache_config, fs, loaders);
     }
 
     {
@@ -163,7 +173,12 @@ public final class VShaderCaches implements KShaderCacheSetType
         "depth_variance",
         version), PathVirtual.ROOT);
       in_shader_depth_variance_cache =
-        VShaderCaches.wrapDepthVariance(in_gi, in_log, cache_config, fs);
+        VShaderCaches.wrapDepthVariance(
+          in_gi,
+          in_log,
+          cache_config,
+          fs,
+          loaders);
     }
 
     {
@@ -174,7 +189,12 @@ public final class VShaderCaches implements KShaderCacheSetType
         "deferred-geometry",
         version), PathVirtual.ROOT);
       in_shader_deferred_geo_cache =
-        VShaderCaches.wrapDeferredGeometry(in_gi, in_log, cache_config, fs);
+        VShaderCaches.wrapDeferredGeometry(
+          in_gi,
+          in_log,
+          cache_config,
+          fs,
+          loaders);
     }
 
     {
@@ -185,7 +205,12 @@ public final class VShaderCaches implements KShaderCacheSetType
         "deferred-light",
         version), PathVirtual.ROOT);
       in_shader_deferred_light_cache =
-        VShaderCaches.wrapDeferredLight(in_gi, in_log, cache_config, fs);
+        VShaderCaches.wrapDeferredLight(
+          in_gi,
+          in_log,
+          cache_config,
+          fs,
+          loaders);
     }
 
     {
@@ -195,7 +220,7 @@ public final class VShaderCaches implements KShaderCacheSetType
         VShaderCaches.makeShaderArchiveNameEclipse(base, "image", version),
         PathVirtual.ROOT);
       in_shader_image_cache =
-        VShaderCaches.wrapImage(in_gi, in_log, cache_config, fs);
+        VShaderCaches.wrapImage(in_gi, in_log, cache_config, fs, loaders);
     }
 
     {
@@ -210,7 +235,8 @@ public final class VShaderCaches implements KShaderCacheSetType
           in_gi,
           in_log,
           cache_config,
-          fs);
+          fs,
+          loaders);
     }
 
     {
@@ -225,10 +251,14 @@ public final class VShaderCaches implements KShaderCacheSetType
           in_gi,
           in_log,
           cache_config,
-          fs);
+          fs,
+          loaders);
     }
 
     return new VShaderCaches(
+      in_gi,
+      in_log,
+      loaders,
       in_shader_debug_cache,
       in_shader_deferred_geo_cache,
       in_shader_deferred_light_cache,
@@ -243,10 +273,12 @@ public final class VShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEBUG, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDebug(c);
@@ -256,10 +288,12 @@ public final class VShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDeferredGeometry(c);
@@ -269,10 +303,12 @@ public final class VShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDeferredLight(c);
@@ -282,10 +318,12 @@ public final class VShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEPTH, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDepth(c);
@@ -295,10 +333,12 @@ public final class VShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEPTH_VARIANCE, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDepthVariance(c);
@@ -310,10 +350,12 @@ public final class VShaderCaches implements KShaderCacheSetType
       final JCGLImplementationType gi,
       final LogUsableType log,
       final LRUCacheConfig cache_config,
-      final FilesystemType fs)
+      final FilesystemType fs,
+      final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_FORWARD_TRANSLUCENT_LIT, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapForwardTranslucentLit(c);
@@ -325,10 +367,14 @@ public final class VShaderCaches implements KShaderCacheSetType
       final JCGLImplementationType gi,
       final LogUsableType log,
       final LRUCacheConfig cache_config,
-      final FilesystemType fs)
+      final FilesystemType fs,
+      final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(
+      KShaderCacheKind.SHADER_CACHE_FORWARD_TRANSLUCENT_UNLIT,
+      loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapForwardTranslucentUnlit(c);
@@ -338,27 +384,38 @@ public final class VShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_IMAGE, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapImage(c);
   }
 
-  private final KShaderCacheDebugType                   shader_debug_cache;
-  private final KShaderCacheDeferredGeometryType        shader_deferred_geo_cache;
-  private final KShaderCacheDeferredLightType           shader_deferred_light_cache;
-  private final KShaderCacheDepthType                   shader_depth_cache;
-  private final KShaderCacheDepthVarianceType           shader_depth_variance_cache;
-  private final KShaderCacheForwardTranslucentLitType   shader_forward_translucent_lit_cache;
-  private final KShaderCacheForwardTranslucentUnlitType shader_forward_translucent_unlit_cache;
-  private final KShaderCacheImageType                   shader_image_cache;
+  private final JCGLImplementationType                        gi;
+  private final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders;
+  private final LogUsableType                                 log;
+  private final KShaderCacheDebugType                         shader_debug_cache;
+  private final KShaderCacheDeferredGeometryType              shader_deferred_geo_cache;
+  private final KShaderCacheDeferredLightType                 shader_deferred_light_cache;
+  private final KShaderCacheDepthType                         shader_depth_cache;
+  private final KShaderCacheDepthVarianceType                 shader_depth_variance_cache;
+  private final KShaderCacheForwardTranslucentLitType         shader_forward_translucent_lit_cache;
+  private final KShaderCacheForwardTranslucentUnlitType       shader_forward_translucent_unlit_cache;
+  private final KShaderCacheImageType                         shader_image_cache;
 
   /**
    * Construct shader caches.
    *
+   * @param in_gi
+   *          The OpenGL implementation
+   * @param in_log
+   *          A log interface
+   * @param in_loaders
+   *          The loaders used by each cache
    * @param in_shader_debug_cache
    *          A shader cache
    * @param in_shader_deferred_geo_cache
@@ -376,6 +433,9 @@ public final class VShaderCaches implements KShaderCacheSetType
    */
 
   private VShaderCaches(
+    final JCGLImplementationType in_gi,
+    final LogUsableType in_log,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> in_loaders,
     final KShaderCacheDebugType in_shader_debug_cache,
     final KShaderCacheDeferredGeometryType in_shader_deferred_geo_cache,
     final KShaderCacheDeferredLightType in_shader_deferred_light_cache,
@@ -395,6 +455,9 @@ public final class VShaderCaches implements KShaderCacheSetType
     this.shader_forward_translucent_unlit_cache =
       in_shader_forward_translucent_unlit_cache;
     this.shader_image_cache = in_shader_image_cache;
+    this.gi = NullCheck.notNull(in_gi, "OpenGL implementation");
+    this.log = NullCheck.notNull(in_log, "Log");
+    this.loaders = NullCheck.notNull(in_loaders, "Loaders");
   }
 
   @Override public KShaderCacheDebugType getShaderDebugCache()
@@ -446,4 +509,17 @@ public final class VShaderCaches implements KShaderCacheSetType
   {
     return this.shader_image_cache;
   }
+
+  @Override public KShaderWarmUpType shaderWarmUpBegin(
+    final KShaderWarmUpRequest request,
+    final ExecutorService exec)
+  {
+    return KShaderWarmUp.newWarmUp(
+      this.gi,
+      this,
+      this.loaders,
+      request,
+      exec,
+      this.log);
+  }
 }
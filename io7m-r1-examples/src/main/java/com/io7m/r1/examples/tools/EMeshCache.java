@@ -136,7 +136,12 @@ public final class EMeshCache
 
       final ArrayBufferType array = events.getArray();
       final IndexBufferType index = events.getIndices();
-      final KMesh km = KMesh.newMesh(array, index);
+      final KMesh km =
+        KMesh.newMeshWithBounds(
+          array,
+          index,
+          events.getBoundingBox(),
+          events.getBoundingSphere());
       this.meshes.put(name, km);
 
       message.setLength(0);
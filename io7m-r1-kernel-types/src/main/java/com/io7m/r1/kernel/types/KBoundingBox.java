@@ -0,0 +1,258 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import com.io7m.jequality.annotations.EqualityStructural;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jtensors.parameterized.PMatrixReadable4x4FType;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.spaces.RSpaceType;
+
+/**
+ * An immutable axis-aligned bounding box in the coordinate space
+ * <code>S</code>.
+ *
+ * @param <S>
+ *          The coordinate space of the box
+ */
+
+@EqualityStructural public final class KBoundingBox<S extends RSpaceType>
+{
+  /**
+   * Construct a new bounding box.
+   *
+   * @param lower
+   *          The lower corner of the box
+   * @param upper
+   *          The upper corner of the box
+   * @return A new bounding box
+   * @param <S>
+   *          The coordinate space of the box
+   */
+
+  public static <S extends RSpaceType> KBoundingBox<S> newBox(
+    final PVectorI3F<S> lower,
+    final PVectorI3F<S> upper)
+  {
+    NullCheck.notNull(lower, "Lower");
+    NullCheck.notNull(upper, "Upper");
+
+    RangeCheck.checkLessEqualDouble(
+      lower.getXF(),
+      "Lower X",
+      upper.getXF(),
+      "Upper X");
+    RangeCheck.checkLessEqualDouble(
+      lower.getYF(),
+      "Lower Y",
+      upper.getYF(),
+      "Upper Y");
+    RangeCheck.checkLessEqualDouble(
+      lower.getZF(),
+      "Lower Z",
+      upper.getZF(),
+      "Upper Z");
+
+    return new KBoundingBox<S>(lower, upper);
+  }
+
+  /**
+   * Transform the given box by the given matrix, and return the smallest
+   * axis-aligned box that encloses the result.
+   *
+   * @param m
+   *          The matrix
+   * @param box
+   *          The box
+   * @return A new bounding box
+   * @param <A>
+   *          The source coordinate space
+   * @param <B>
+   *          The target coordinate space
+   */
+
+  public static <A extends RSpaceType, B extends RSpaceType> KBoundingBox<B> newTransformed(
+    final PMatrixReadable4x4FType<A, B> m,
+    final KBoundingBox<A> box)
+  {
+    NullCheck.notNull(m, "Matrix");
+    NullCheck.notNull(box, "Box");
+
+    final float cx = box.getCenterX();
+    final float cy = box.getCenterY();
+    final float cz = box.getCenterZ();
+    final float ex = box.getExtentX();
+    final float ey = box.getExtentY();
+    final float ez = box.getExtentZ();
+
+    final float tcx =
+      (m.getRowColumnF(0, 0) * cx)
+        + (m.getRowColumnF(0, 1) * cy)
+        + (m.getRowColumnF(0, 2) * cz)
+        + m.getRowColumnF(0, 3);
+    final float tcy =
+      (m.getRowColumnF(1, 0) * cx)
+        + (m.getRowColumnF(1, 1) * cy)
+        + (m.getRowColumnF(1, 2) * cz)
+        + m.getRowColumnF(1, 3);
+    final float tcz =
+      (m.getRowColumnF(2, 0) * cx)
+        + (m.getRowColumnF(2, 1) * cy)
+        + (m.getRowColumnF(2, 2) * cz)
+        + m.getRowColumnF(2, 3);
+
+    final float tex =
+      (Math.abs(m.getRowColumnF(0, 0)) * ex)
+        + (Math.abs(m.getRowColumnF(0, 1)) * ey)
+        + (Math.abs(m.getRowColumnF(0, 2)) * ez);
+    final float tey =
+      (Math.abs(m.getRowColumnF(1, 0)) * ex)
+        + (Math.abs(m.getRowColumnF(1, 1)) * ey)
+        + (Math.abs(m.getRowColumnF(1, 2)) * ez);
+    final float tez =
+      (Math.abs(m.getRowColumnF(2, 0)) * ex)
+        + (Math.abs(m.getRowColumnF(2, 1)) * ey)
+        + (Math.abs(m.getRowColumnF(2, 2)) * ez);
+
+    return new KBoundingBox<B>(
+      new PVectorI3F<B>(tcx - tex, tcy - tey, tcz - tez),
+      new PVectorI3F<B>(tcx + tex, tcy + tey, tcz + tez));
+  }
+
+  private final PVectorI3F<S> lower;
+  private final PVectorI3F<S> upper;
+
+  private KBoundingBox(
+    final PVectorI3F<S> in_lower,
+    final PVectorI3F<S> in_upper)
+  {
+    this.lower = in_lower;
+    this.upper = in_upper;
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final KBoundingBox<?> other = (KBoundingBox<?>) obj;
+    return this.lower.equals(other.lower) && this.upper.equals(other.upper);
+  }
+
+  /**
+   * @return The X coordinate of the center of the box
+   */
+
+  public float getCenterX()
+  {
+    return (this.lower.getXF() * 0.5f) + (this.upper.getXF() * 0.5f);
+  }
+
+  /**
+   * @return The Y coordinate of the center of the box
+   */
+
+  public float getCenterY()
+  {
+    return (this.lower.getYF() * 0.5f) + (this.upper.getYF() * 0.5f);
+  }
+
+  /**
+   * @return The Z coordinate of the center of the box
+   */
+
+  public float getCenterZ()
+  {
+    return (this.lower.getZF() * 0.5f) + (this.upper.getZF() * 0.5f);
+  }
+
+  /**
+   * @return Half the width of the box on the X axis
+   */
+
+  public float getExtentX()
+  {
+    return (this.upper.getXF() * 0.5f) - (this.lower.getXF() * 0.5f);
+  }
+
+  /**
+   * @return Half the height of the box on the Y axis
+   */
+
+  public float getExtentY()
+  {
+    return (this.upper.getYF() * 0.5f) - (this.lower.getYF() * 0.5f);
+  }
+
+  /**
+   * @return Half the depth of the box on the Z axis
+   */
+
+  public float getExtentZ()
+  {
+    return (this.upper.getZF() * 0.5f) - (this.lower.getZF() * 0.5f);
+  }
+
+  /**
+   * @return The lower corner of the box
+   */
+
+  public PVectorI3F<S> getLower()
+  {
+    return this.lower;
+  }
+
+  /**
+   * @return The upper corner of the box
+   */
+
+  public PVectorI3F<S> getUpper()
+  {
+    return this.upper;
+  }
+
+  @Override public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = (prime * result) + this.lower.hashCode();
+    result = (prime * result) + this.upper.hashCode();
+    return result;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder();
+    b.append("[KBoundingBox ");
+    b.append(this.lower);
+    b.append(" ");
+    b.append(this.upper);
+    b.append("]");
+    final String r = b.toString();
+    assert r != null;
+    return r;
+  }
+}
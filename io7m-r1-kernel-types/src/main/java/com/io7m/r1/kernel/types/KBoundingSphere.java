@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import com.io7m.jequality.annotations.EqualityStructural;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.spaces.RSpaceType;
+
+/**
+ * An immutable bounding sphere in the coordinate space <code>S</code>.
+ *
+ * @param <S>
+ *          The coordinate space of the sphere
+ */
+
+@EqualityStructural public final class KBoundingSphere<S extends RSpaceType>
+{
+  /**
+   * Construct a new bounding sphere.
+   *
+   * @param center
+   *          The center of the sphere
+   * @param radius
+   *          The radius of the sphere
+   * @return A new bounding sphere
+   * @param <S>
+   *          The coordinate space of the sphere
+   */
+
+  public static <S extends RSpaceType> KBoundingSphere<S> newSphere(
+    final PVectorI3F<S> center,
+    final float radius)
+  {
+    NullCheck.notNull(center, "Center");
+    RangeCheck.checkGreaterEqualDouble(radius, "Radius", 0.0, "Minimum radius");
+    return new KBoundingSphere<S>(center, radius);
+  }
+
+  private final PVectorI3F<S> center;
+  private final float         radius;
+
+  private KBoundingSphere(
+    final PVectorI3F<S> in_center,
+    final float in_radius)
+  {
+    this.center = in_center;
+    this.radius = in_radius;
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final KBoundingSphere<?> other = (KBoundingSphere<?>) obj;
+    return this.center.equals(other.center)
+      && (Float.floatToIntBits(this.radius) == Float
+        .floatToIntBits(other.radius));
+  }
+
+  /**
+   * @return The center of the sphere
+   */
+
+  public PVectorI3F<S> getCenter()
+  {
+    return this.center;
+  }
+
+  /**
+   * @return The radius of the sphere
+   */
+
+  public float getRadius()
+  {
+    return this.radius;
+  }
+
+  @Override public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = (prime * result) + this.center.hashCode();
+    result = (prime * result) + Float.floatToIntBits(this.radius);
+    return result;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder();
+    b.append("[KBoundingSphere ");
+    b.append(this.center);
+    b.append(" ");
+    b.append(this.radius);
+    b.append("]");
+    final String r = b.toString();
+    assert r != null;
+    return r;
+  }
+}
@@ -0,0 +1,760 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A mutable bounding volume hierarchy of items with world-space axis-aligned
+ * bounding boxes.
+ * </p>
+ * <p>
+ * The hierarchy is intended to be built once from a large set of static
+ * items using {@link #newHierarchyFromItems(Map)}, which produces a balanced
+ * tree by recursively splitting the items at the median of their centers
+ * along the longest axis. Small numbers of dynamic items may then be
+ * inserted and removed incrementally; each insertion descends the tree
+ * choosing the sibling that minimizes the increase in surface area. If many
+ * items are inserted incrementally, {@link #rebuild()} restores a balanced
+ * tree.
+ * </p>
+ * <p>
+ * Frustum, sphere and box queries visit only those nodes whose bounds
+ * intersect the query volume, and frustum queries stop testing entirely
+ * once a node is found to lie completely inside the frustum.
+ * </p>
+ * <p>
+ * Queries do not allocate and may be nested, but the hierarchy must not be
+ * modified during a query.
+ * </p>
+ *
+ * @param <T>
+ *          The type of items
+ */
+
+@SuppressWarnings("synthetic-access") @EqualityReference public final class KBoundingVolumeHierarchy<T>
+{
+  @EqualityReference private static final class Node<T>
+  {
+    private @Nullable T       item;
+    private @Nullable Node<T> left;
+    private @Nullable Node<T> parent;
+    private @Nullable Node<T> right;
+    private float             x0;
+    private float             x1;
+    private float             y0;
+    private float             y1;
+    private float             z0;
+    private float             z1;
+
+    Node()
+    {
+      // Nothing
+    }
+
+    float getArea()
+    {
+      final float dx = this.x1 - this.x0;
+      final float dy = this.y1 - this.y0;
+      final float dz = this.z1 - this.z0;
+      return 2.0f * ((dx * dy) + (dy * dz) + (dz * dx));
+    }
+
+    float getAreaUnion(
+      final Node<T> other)
+    {
+      final float dx = Math.max(this.x1, other.x1) - Math.min(this.x0, other.x0);
+      final float dy = Math.max(this.y1, other.y1) - Math.min(this.y0, other.y0);
+      final float dz = Math.max(this.z1, other.z1) - Math.min(this.z0, other.z0);
+      return 2.0f * ((dx * dy) + (dy * dz) + (dz * dx));
+    }
+
+    float getCenter(
+      final int axis)
+    {
+      switch (axis) {
+        case 0:
+          return (this.x0 * 0.5f) + (this.x1 * 0.5f);
+        case 1:
+          return (this.y0 * 0.5f) + (this.y1 * 0.5f);
+        default:
+          return (this.z0 * 0.5f) + (this.z1 * 0.5f);
+      }
+    }
+
+    boolean isLeaf()
+    {
+      return this.left == null;
+    }
+
+    void setBounds(
+      final KBoundingBox<RSpaceWorldType> box)
+    {
+      final PVectorI3F<RSpaceWorldType> lower = box.getLower();
+      final PVectorI3F<RSpaceWorldType> upper = box.getUpper();
+      this.x0 = lower.getXF();
+      this.y0 = lower.getYF();
+      this.z0 = lower.getZF();
+      this.x1 = upper.getXF();
+      this.y1 = upper.getYF();
+      this.z1 = upper.getZF();
+    }
+
+    void setUnion(
+      final Node<T> a,
+      final Node<T> b)
+    {
+      this.x0 = Math.min(a.x0, b.x0);
+      this.y0 = Math.min(a.y0, b.y0);
+      this.z0 = Math.min(a.z0, b.z0);
+      this.x1 = Math.max(a.x1, b.x1);
+      this.y1 = Math.max(a.y1, b.y1);
+      this.z1 = Math.max(a.z1, b.z1);
+    }
+  }
+
+  @EqualityReference private static final class NodeCenterComparator<T> implements
+    Comparator<Node<T>>
+  {
+    private final int axis;
+
+    NodeCenterComparator(
+      final int in_axis)
+    {
+      this.axis = in_axis;
+    }
+
+    @Override public int compare(
+      final @Nullable Node<T> a,
+      final @Nullable Node<T> b)
+    {
+      assert a != null;
+      assert b != null;
+      return Float.compare(a.getCenter(this.axis), b.getCenter(this.axis));
+    }
+  }
+
+  /**
+   * @return A new empty hierarchy
+   * @param <T>
+   *          The type of items
+   */
+
+  public static <T> KBoundingVolumeHierarchy<T> newHierarchy()
+  {
+    return new KBoundingVolumeHierarchy<T>();
+  }
+
+  /**
+   * Construct a new balanced hierarchy from the given items.
+   *
+   * @param items
+   *          The items and their world-space bounds
+   * @return A new hierarchy
+   * @param <T>
+   *          The type of items
+   */
+
+  public static <T> KBoundingVolumeHierarchy<T> newHierarchyFromItems(
+    final Map<T, KBoundingBox<RSpaceWorldType>> items)
+  {
+    NullCheck.notNull(items, "Items");
+
+    final KBoundingVolumeHierarchy<T> h = new KBoundingVolumeHierarchy<T>();
+    for (final T item : items.keySet()) {
+      assert item != null;
+      final KBoundingBox<RSpaceWorldType> box =
+        NullCheck.notNull(items.get(item), "Bounds");
+      final Node<T> leaf = new Node<T>();
+      leaf.item = item;
+      leaf.setBounds(box);
+      h.leaves.put(item, leaf);
+    }
+    h.rebuild();
+    return h;
+  }
+
+  private static <T> Node<T> buildTopDown(
+    final List<Node<T>> nodes,
+    final int start,
+    final int end)
+  {
+    final int count = end - start;
+    if (count == 1) {
+      final Node<T> leaf = nodes.get(start);
+      assert leaf != null;
+      leaf.parent = null;
+      return leaf;
+    }
+
+    /**
+     * Split on the axis along which the centers of the nodes are most spread
+     * out.
+     */
+
+    float min_x = Float.MAX_VALUE;
+    float min_y = Float.MAX_VALUE;
+    float min_z = Float.MAX_VALUE;
+    float max_x = -Float.MAX_VALUE;
+    float max_y = -Float.MAX_VALUE;
+    float max_z = -Float.MAX_VALUE;
+    for (int index = start; index < end; ++index) {
+      final Node<T> n = nodes.get(index);
+      min_x = Math.min(min_x, n.getCenter(0));
+      min_y = Math.min(min_y, n.getCenter(1));
+      min_z = Math.min(min_z, n.getCenter(2));
+      max_x = Math.max(max_x, n.getCenter(0));
+      max_y = Math.max(max_y, n.getCenter(1));
+      max_z = Math.max(max_z, n.getCenter(2));
+    }
+
+    final float spread_x = max_x - min_x;
+    final float spread_y = max_y - min_y;
+    final float spread_z = max_z - min_z;
+
+    int axis = 2;
+    if ((spread_x >= spread_y) && (spread_x >= spread_z)) {
+      axis = 0;
+    } else if (spread_y >= spread_z) {
+      axis = 1;
+    }
+
+    Collections.sort(
+      nodes.subList(start, end),
+      new NodeCenterComparator<T>(axis));
+
+    final int middle = start + (count / 2);
+    final Node<T> left = KBoundingVolumeHierarchy.buildTopDown(nodes, start, middle);
+    final Node<T> right = KBoundingVolumeHierarchy.buildTopDown(nodes, middle, end);
+
+    final Node<T> n = new Node<T>();
+    n.left = left;
+    n.right = right;
+    n.setUnion(left, right);
+    left.parent = n;
+    right.parent = n;
+    return n;
+  }
+
+  private static <T> int getNodeHeight(
+    final @Nullable Node<T> n)
+  {
+    if (n == null) {
+      return 0;
+    }
+    return 1 + Math.max(
+      KBoundingVolumeHierarchy.getNodeHeight(n.left),
+      KBoundingVolumeHierarchy.getNodeHeight(n.right));
+  }
+
+  private static <T> float getInsertionCost(
+    final Node<T> child,
+    final Node<T> leaf)
+  {
+    if (child.isLeaf()) {
+      return child.getAreaUnion(leaf);
+    }
+    return child.getAreaUnion(leaf) - child.getArea();
+  }
+
+  private static <T, E extends Throwable> void receiveAll(
+    final Node<T> n,
+    final KBoundingVolumeHierarchyReceiverType<T, E> r)
+    throws E
+  {
+    if (n.isLeaf()) {
+      final T item = n.item;
+      assert item != null;
+      r.receiveItem(item);
+      return;
+    }
+
+    final Node<T> left = n.left;
+    final Node<T> right = n.right;
+    assert left != null;
+    assert right != null;
+    KBoundingVolumeHierarchy.receiveAll(left, r);
+    KBoundingVolumeHierarchy.receiveAll(right, r);
+  }
+
+  private final Map<T, Node<T>> leaves;
+  private @Nullable Node<T>     root;
+
+  private KBoundingVolumeHierarchy()
+  {
+    this.leaves = new HashMap<T, Node<T>>();
+  }
+
+  /**
+   * @param item
+   *          The item
+   * @return <code>true</code> if the hierarchy contains the given item
+   */
+
+  public boolean contains(
+    final T item)
+  {
+    return this.leaves.containsKey(NullCheck.notNull(item, "Item"));
+  }
+
+  /**
+   * @param item
+   *          The item
+   * @return The bounds of the given item, if the item is in the hierarchy
+   */
+
+  public @Nullable KBoundingBox<RSpaceWorldType> getBounds(
+    final T item)
+  {
+    final Node<T> n = this.leaves.get(NullCheck.notNull(item, "Item"));
+    if (n == null) {
+      return null;
+    }
+    return KBoundingBox.newBox(
+      new PVectorI3F<RSpaceWorldType>(n.x0, n.y0, n.z0),
+      new PVectorI3F<RSpaceWorldType>(n.x1, n.y1, n.z1));
+  }
+
+  /**
+   * @return The height of the tree, where an empty tree has height
+   *         <code>0</code> and a tree containing a single item has height
+   *         <code>1</code>
+   */
+
+  public int getHeight()
+  {
+    return KBoundingVolumeHierarchy.getNodeHeight(this.root);
+  }
+
+  /**
+   * @return A read-only view of the set of items in the hierarchy
+   */
+
+  public Set<T> getItems()
+  {
+    return NullCheck.notNull(Collections.unmodifiableSet(this.leaves
+      .keySet()));
+  }
+
+  /**
+   * Insert the given item with the given world-space bounds. If the item is
+   * already present, its bounds are replaced.
+   *
+   * @param item
+   *          The item
+   * @param box
+   *          The bounds of the item
+   */
+
+  public void insert(
+    final T item,
+    final KBoundingBox<RSpaceWorldType> box)
+  {
+    NullCheck.notNull(item, "Item");
+    NullCheck.notNull(box, "Bounds");
+
+    this.remove(item);
+
+    final Node<T> leaf = new Node<T>();
+    leaf.item = item;
+    leaf.setBounds(box);
+    this.leaves.put(item, leaf);
+    this.insertLeaf(leaf);
+  }
+
+  private void insertLeaf(
+    final Node<T> leaf)
+  {
+    final Node<T> r = this.root;
+    if (r == null) {
+      leaf.parent = null;
+      this.root = leaf;
+      return;
+    }
+
+    /**
+     * Find the best sibling for the new leaf.
+     */
+
+    Node<T> sibling = r;
+    while (sibling.isLeaf() == false) {
+      final Node<T> left = sibling.left;
+      final Node<T> right = sibling.right;
+      assert left != null;
+      assert right != null;
+
+      final float area = sibling.getArea();
+      final float combined = sibling.getAreaUnion(leaf);
+      final float cost = combined;
+      final float inherited = combined - area;
+      final float cost_left =
+        KBoundingVolumeHierarchy.getInsertionCost(left, leaf) + inherited;
+      final float cost_right =
+        KBoundingVolumeHierarchy.getInsertionCost(right, leaf) + inherited;
+
+      if ((cost < cost_left) && (cost < cost_right)) {
+        break;
+      }
+
+      if (cost_left < cost_right) {
+        sibling = left;
+      } else {
+        sibling = right;
+      }
+    }
+
+    /**
+     * Create a new parent for the sibling and the leaf.
+     */
+
+    final Node<T> old_parent = sibling.parent;
+    final Node<T> new_parent = new Node<T>();
+    new_parent.parent = old_parent;
+    new_parent.left = sibling;
+    new_parent.right = leaf;
+    new_parent.setUnion(sibling, leaf);
+    sibling.parent = new_parent;
+    leaf.parent = new_parent;
+
+    if (old_parent != null) {
+      if (old_parent.left == sibling) {
+        old_parent.left = new_parent;
+      } else {
+        old_parent.right = new_parent;
+      }
+      KBoundingVolumeHierarchy.refit(old_parent);
+    } else {
+      this.root = new_parent;
+    }
+  }
+
+  /**
+   * Evaluate <code>r</code> for every item whose bounds intersect the given
+   * world-space box.
+   *
+   * @param box
+   *          The box
+   * @param r
+   *          The receiver
+   * @throws E
+   *           If the receiver raises <code>E</code>
+   * @param <E>
+   *          The type of exceptions raised by the receiver
+   */
+
+  public <E extends Throwable> void queryBox(
+    final KBoundingBox<RSpaceWorldType> box,
+    final KBoundingVolumeHierarchyReceiverType<T, E> r)
+    throws E
+  {
+    NullCheck.notNull(box, "Box");
+    NullCheck.notNull(r, "Receiver");
+
+    final Node<T> n = this.root;
+    if (n != null) {
+      final PVectorI3F<RSpaceWorldType> lower = box.getLower();
+      final PVectorI3F<RSpaceWorldType> upper = box.getUpper();
+      KBoundingVolumeHierarchy.queryBoxNode(
+        n,
+        lower.getXF(),
+        lower.getYF(),
+        lower.getZF(),
+        upper.getXF(),
+        upper.getYF(),
+        upper.getZF(),
+        r);
+    }
+  }
+
+  private static <T, E extends Throwable> void queryBoxNode(
+    final Node<T> n,
+    final float x0,
+    final float y0,
+    final float z0,
+    final float x1,
+    final float y1,
+    final float z1,
+    final KBoundingVolumeHierarchyReceiverType<T, E> r)
+    throws E
+  {
+    if ((n.x1 < x0) || (n.x0 > x1)) {
+      return;
+    }
+    if ((n.y1 < y0) || (n.y0 > y1)) {
+      return;
+    }
+    if ((n.z1 < z0) || (n.z0 > z1)) {
+      return;
+    }
+
+    if (n.isLeaf()) {
+      final T item = n.item;
+      assert item != null;
+      r.receiveItem(item);
+      return;
+    }
+
+    final Node<T> left = n.left;
+    final Node<T> right = n.right;
+    assert left != null;
+    assert right != null;
+    KBoundingVolumeHierarchy.queryBoxNode(left, x0, y0, z0, x1, y1, z1, r);
+    KBoundingVolumeHierarchy.queryBoxNode(right, x0, y0, z0, x1, y1, z1, r);
+  }
+
+  /**
+   * Evaluate <code>r</code> for every item whose bounds may intersect the
+   * given frustum.
+   *
+   * @param frustum
+   *          The frustum
+   * @param r
+   *          The receiver
+   * @throws E
+   *           If the receiver raises <code>E</code>
+   * @param <E>
+   *          The type of exceptions raised by the receiver
+   */
+
+  public <E extends Throwable> void queryFrustum(
+    final KFrustum frustum,
+    final KBoundingVolumeHierarchyReceiverType<T, E> r)
+    throws E
+  {
+    NullCheck.notNull(frustum, "Frustum");
+    NullCheck.notNull(r, "Receiver");
+
+    final Node<T> n = this.root;
+    if (n != null) {
+      KBoundingVolumeHierarchy.queryFrustumNode(n, frustum, r);
+    }
+  }
+
+  private static <T, E extends Throwable> void queryFrustumNode(
+    final Node<T> n,
+    final KFrustum frustum,
+    final KBoundingVolumeHierarchyReceiverType<T, E> r)
+    throws E
+  {
+    final float cx = (n.x0 * 0.5f) + (n.x1 * 0.5f);
+    final float cy = (n.y0 * 0.5f) + (n.y1 * 0.5f);
+    final float cz = (n.z0 * 0.5f) + (n.z1 * 0.5f);
+    final float ex = (n.x1 * 0.5f) - (n.x0 * 0.5f);
+    final float ey = (n.y1 * 0.5f) - (n.y0 * 0.5f);
+    final float ez = (n.z1 * 0.5f) - (n.z0 * 0.5f);
+
+    if (frustum.intersectsBoxCenterExtents(cx, cy, cz, ex, ey, ez) == false) {
+      return;
+    }
+
+    if (n.isLeaf()) {
+      final T item = n.item;
+      assert item != null;
+      r.receiveItem(item);
+      return;
+    }
+
+    if (frustum.containsBoxCenterExtents(cx, cy, cz, ex, ey, ez)) {
+      KBoundingVolumeHierarchy.receiveAll(n, r);
+      return;
+    }
+
+    final Node<T> left = n.left;
+    final Node<T> right = n.right;
+    assert left != null;
+    assert right != null;
+    KBoundingVolumeHierarchy.queryFrustumNode(left, frustum, r);
+    KBoundingVolumeHierarchy.queryFrustumNode(right, frustum, r);
+  }
+
+  /**
+   * Evaluate <code>r</code> for every item whose bounds intersect the given
+   * world-space sphere.
+   *
+   * @param x
+   *          The X coordinate of the center of the sphere
+   * @param y
+   *          The Y coordinate of the center of the sphere
+   * @param z
+   *          The Z coordinate of the center of the sphere
+   * @param radius
+   *          The radius of the sphere
+   * @param r
+   *          The receiver
+   * @throws E
+   *           If the receiver raises <code>E</code>
+   * @param <E>
+   *          The type of exceptions raised by the receiver
+   */
+
+  public <E extends Throwable> void querySphere(
+    final float x,
+    final float y,
+    final float z,
+    final float radius,
+    final KBoundingVolumeHierarchyReceiverType<T, E> r)
+    throws E
+  {
+    NullCheck.notNull(r, "Receiver");
+
+    final Node<T> n = this.root;
+    if (n != null) {
+      KBoundingVolumeHierarchy.querySphereNode(
+        n,
+        x,
+        y,
+        z,
+        radius * radius,
+        r);
+    }
+  }
+
+  private static <T, E extends Throwable> void querySphereNode(
+    final Node<T> n,
+    final float x,
+    final float y,
+    final float z,
+    final float radius_squared,
+    final KBoundingVolumeHierarchyReceiverType<T, E> r)
+    throws E
+  {
+    /**
+     * Calculate the squared distance from the center of the sphere to the
+     * closest point on the box.
+     */
+
+    final float dx = Math.max(Math.max(n.x0 - x, 0.0f), x - n.x1);
+    final float dy = Math.max(Math.max(n.y0 - y, 0.0f), y - n.y1);
+    final float dz = Math.max(Math.max(n.z0 - z, 0.0f), z - n.z1);
+    if (((dx * dx) + (dy * dy) + (dz * dz)) > radius_squared) {
+      return;
+    }
+
+    if (n.isLeaf()) {
+      final T item = n.item;
+      assert item != null;
+      r.receiveItem(item);
+      return;
+    }
+
+    final Node<T> left = n.left;
+    final Node<T> right = n.right;
+    assert left != null;
+    assert right != null;
+    KBoundingVolumeHierarchy.querySphereNode(left, x, y, z, radius_squared, r);
+    KBoundingVolumeHierarchy.querySphereNode(right, x, y, z, radius_squared, r);
+  }
+
+  /**
+   * Rebuild the hierarchy from scratch, producing a balanced tree.
+   */
+
+  public void rebuild()
+  {
+    if (this.leaves.isEmpty()) {
+      this.root = null;
+      return;
+    }
+
+    final List<Node<T>> nodes = new ArrayList<Node<T>>(this.leaves.values());
+    this.root = KBoundingVolumeHierarchy.buildTopDown(nodes, 0, nodes.size());
+  }
+
+  private static <T> void refit(
+    final Node<T> start)
+  {
+    Node<T> current = start;
+    while (current != null) {
+      final Node<T> left = current.left;
+      final Node<T> right = current.right;
+      assert left != null;
+      assert right != null;
+      current.setUnion(left, right);
+      current = current.parent;
+    }
+  }
+
+  /**
+   * Remove the given item, if it is present.
+   *
+   * @param item
+   *          The item
+   * @return <code>true</code> if the item was present
+   */
+
+  public boolean remove(
+    final T item)
+  {
+    final Node<T> leaf = this.leaves.remove(NullCheck.notNull(item, "Item"));
+    if (leaf == null) {
+      return false;
+    }
+
+    if (leaf == this.root) {
+      this.root = null;
+      return true;
+    }
+
+    final Node<T> parent = leaf.parent;
+    assert parent != null;
+    final Node<T> grandparent = parent.parent;
+
+    Node<T> sibling = parent.left;
+    if (sibling == leaf) {
+      sibling = parent.right;
+    }
+    assert sibling != null;
+
+    if (grandparent != null) {
+      if (grandparent.left == parent) {
+        grandparent.left = sibling;
+      } else {
+        grandparent.right = sibling;
+      }
+      sibling.parent = grandparent;
+      KBoundingVolumeHierarchy.refit(grandparent);
+    } else {
+      sibling.parent = null;
+      this.root = sibling;
+    }
+
+    leaf.parent = null;
+    return true;
+  }
+
+  /**
+   * @return The number of items in the hierarchy
+   */
+
+  public int size()
+  {
+    return this.leaves.size();
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+/**
+ * The type of receivers for the results of spatial queries on a
+ * {@link KBoundingVolumeHierarchy}.
+ *
+ * @param <T>
+ *          The type of items
+ * @param <E>
+ *          The type of exceptions raised by the receiver
+ */
+
+public interface KBoundingVolumeHierarchyReceiverType<T, E extends Throwable>
+{
+  /**
+   * Receive an item that satisfied the query.
+   *
+   * @param item
+   *          The item
+   * @throws E
+   *           If required
+   */
+
+  void receiveItem(
+    final T item)
+    throws E;
+}
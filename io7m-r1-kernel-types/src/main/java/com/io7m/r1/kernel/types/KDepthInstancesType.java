@@ -22,11 +22,52 @@ import java.util.Set;
 import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
 
 /**
+ * <p>
  * A set of instances organized by their depth material codes.
+ * </p>
+ * <p>
+ * Instances are stored in <i>groups</i>, one per material code, numbered
+ * from <code>0</code> to <code>getGroupCount() - 1</code>. Iterating over
+ * groups by number avoids hashing material code strings.
+ * </p>
  */
 
 public interface KDepthInstancesType
 {
+  /**
+   * @param group
+   *          The group number
+   * @return The material code of the given group
+   */
+
+  String getGroupCode(
+    final int group);
+
+  /**
+   * @param group
+   *          The group number
+   * @return The interned material code of the given group
+   * @see KMaterialCodes
+   */
+
+  int getGroupCodeID(
+    final int group);
+
+  /**
+   * @return The number of groups
+   */
+
+  int getGroupCount();
+
+  /**
+   * @param group
+   *          The group number
+   * @return The instances in the given group
+   */
+
+  List<KInstanceOpaqueType> getGroupInstances(
+    final int group);
+
   /**
    * @param code
    *          The material code
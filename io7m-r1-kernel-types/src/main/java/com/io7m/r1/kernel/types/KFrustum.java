@@ -0,0 +1,365 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jtensors.parameterized.PMatrixReadable4x4FType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A mutable view frustum, represented as six normalized world-space planes.
+ * </p>
+ * <p>
+ * The planes are extracted directly from the product of a projection and
+ * view matrix, and are recalculated in place, so a single frustum may be
+ * reused across frames without allocating.
+ * </p>
+ * <p>
+ * All intersection tests are conservative: they may report that a volume
+ * intersects the frustum when it does not, but never the reverse.
+ * </p>
+ */
+
+@EqualityReference public final class KFrustum
+{
+  private static final int PLANE_COUNT = 6;
+
+  /**
+   * @return A new frustum. All planes are degenerate, and so every volume is
+   *         considered visible until one of the update functions is called.
+   */
+
+  public static KFrustum newFrustum()
+  {
+    return new KFrustum();
+  }
+
+  private final float[] planes;
+
+  private KFrustum()
+  {
+    this.planes = new float[KFrustum.PLANE_COUNT * 4];
+  }
+
+  private void setPlane(
+    final int index,
+    final float a,
+    final float b,
+    final float c,
+    final float d)
+  {
+    final float length = (float) Math.sqrt((a * a) + (b * b) + (c * c));
+    float r = 0.0f;
+    if (length > 0.0f) {
+      r = 1.0f / length;
+    }
+    final int base = index * 4;
+    this.planes[base + 0] = a * r;
+    this.planes[base + 1] = b * r;
+    this.planes[base + 2] = c * r;
+    this.planes[base + 3] = d * r;
+  }
+
+  /**
+   * Determine whether or not the world-space axis-aligned box with the given
+   * center and half-extents lies entirely inside the frustum.
+   *
+   * @param cx
+   *          The X coordinate of the center
+   * @param cy
+   *          The Y coordinate of the center
+   * @param cz
+   *          The Z coordinate of the center
+   * @param ex
+   *          The half-extent on the X axis
+   * @param ey
+   *          The half-extent on the Y axis
+   * @param ez
+   *          The half-extent on the Z axis
+   * @return <code>true</code> if the box is completely contained
+   */
+
+  public boolean containsBoxCenterExtents(
+    final float cx,
+    final float cy,
+    final float cz,
+    final float ex,
+    final float ey,
+    final float ez)
+  {
+    final float[] p = this.planes;
+    for (int index = 0; index < KFrustum.PLANE_COUNT; ++index) {
+      final int base = index * 4;
+      final float a = p[base + 0];
+      final float b = p[base + 1];
+      final float c = p[base + 2];
+      final float d = p[base + 3];
+
+      final float distance = (a * cx) + (b * cy) + (c * cz) + d;
+      final float radius =
+        (Math.abs(a) * ex) + (Math.abs(b) * ey) + (Math.abs(c) * ez);
+
+      if ((distance - radius) < 0.0f) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Determine whether or not the given world-space axis-aligned box
+   * intersects the frustum.
+   *
+   * @param box
+   *          The box
+   * @return <code>true</code> if the box may be visible
+   */
+
+  public boolean intersectsBox(
+    final KBoundingBox<RSpaceWorldType> box)
+  {
+    NullCheck.notNull(box, "Box");
+    return this.intersectsBoxCenterExtents(
+      box.getCenterX(),
+      box.getCenterY(),
+      box.getCenterZ(),
+      box.getExtentX(),
+      box.getExtentY(),
+      box.getExtentZ());
+  }
+
+  /**
+   * Determine whether or not the world-space axis-aligned box with the given
+   * center and half-extents intersects the frustum.
+   *
+   * @param cx
+   *          The X coordinate of the center
+   * @param cy
+   *          The Y coordinate of the center
+   * @param cz
+   *          The Z coordinate of the center
+   * @param ex
+   *          The half-extent on the X axis
+   * @param ey
+   *          The half-extent on the Y axis
+   * @param ez
+   *          The half-extent on the Z axis
+   * @return <code>true</code> if the box may be visible
+   */
+
+  public boolean intersectsBoxCenterExtents(
+    final float cx,
+    final float cy,
+    final float cz,
+    final float ex,
+    final float ey,
+    final float ez)
+  {
+    final float[] p = this.planes;
+    for (int index = 0; index < KFrustum.PLANE_COUNT; ++index) {
+      final int base = index * 4;
+      final float a = p[base + 0];
+      final float b = p[base + 1];
+      final float c = p[base + 2];
+      final float d = p[base + 3];
+
+      final float distance = (a * cx) + (b * cy) + (c * cz) + d;
+      final float radius =
+        (Math.abs(a) * ex) + (Math.abs(b) * ey) + (Math.abs(c) * ez);
+
+      if ((distance + radius) < 0.0f) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Determine whether or not the given object-space box, transformed to
+   * world-space by the given model matrix, intersects the frustum. The
+   * transformed box is enclosed in a world-space axis-aligned box before
+   * testing.
+   *
+   * @param model
+   *          The object-to-world matrix
+   * @param box
+   *          The object-space box
+   * @return <code>true</code> if the box may be visible
+   */
+
+  public boolean intersectsBoxTransformed(
+    final PMatrixReadable4x4FType<RSpaceObjectType, RSpaceWorldType> model,
+    final KBoundingBox<RSpaceObjectType> box)
+  {
+    NullCheck.notNull(model, "Model matrix");
+    NullCheck.notNull(box, "Box");
+
+    final float ocx = box.getCenterX();
+    final float ocy = box.getCenterY();
+    final float ocz = box.getCenterZ();
+    final float oex = box.getExtentX();
+    final float oey = box.getExtentY();
+    final float oez = box.getExtentZ();
+
+    final float m00 = model.getRowColumnF(0, 0);
+    final float m01 = model.getRowColumnF(0, 1);
+    final float m02 = model.getRowColumnF(0, 2);
+    final float m03 = model.getRowColumnF(0, 3);
+    final float m10 = model.getRowColumnF(1, 0);
+    final float m11 = model.getRowColumnF(1, 1);
+    final float m12 = model.getRowColumnF(1, 2);
+    final float m13 = model.getRowColumnF(1, 3);
+    final float m20 = model.getRowColumnF(2, 0);
+    final float m21 = model.getRowColumnF(2, 1);
+    final float m22 = model.getRowColumnF(2, 2);
+    final float m23 = model.getRowColumnF(2, 3);
+
+    final float wcx = (m00 * ocx) + (m01 * ocy) + (m02 * ocz) + m03;
+    final float wcy = (m10 * ocx) + (m11 * ocy) + (m12 * ocz) + m13;
+    final float wcz = (m20 * ocx) + (m21 * ocy) + (m22 * ocz) + m23;
+
+    final float wex =
+      (Math.abs(m00) * oex) + (Math.abs(m01) * oey) + (Math.abs(m02) * oez);
+    final float wey =
+      (Math.abs(m10) * oex) + (Math.abs(m11) * oey) + (Math.abs(m12) * oez);
+    final float wez =
+      (Math.abs(m20) * oex) + (Math.abs(m21) * oey) + (Math.abs(m22) * oez);
+
+    return this.intersectsBoxCenterExtents(wcx, wcy, wcz, wex, wey, wez);
+  }
+
+  /**
+   * Determine whether or not the given world-space sphere intersects the
+   * frustum.
+   *
+   * @param x
+   *          The X coordinate of the center
+   * @param y
+   *          The Y coordinate of the center
+   * @param z
+   *          The Z coordinate of the center
+   * @param radius
+   *          The radius
+   * @return <code>true</code> if the sphere may be visible
+   */
+
+  public boolean intersectsSphere(
+    final float x,
+    final float y,
+    final float z,
+    final float radius)
+  {
+    final float[] p = this.planes;
+    for (int index = 0; index < KFrustum.PLANE_COUNT; ++index) {
+      final int base = index * 4;
+      final float distance =
+        (p[base + 0] * x) + (p[base + 1] * y) + (p[base + 2] * z) + p[base + 3];
+      if (distance < -radius) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Recalculate the frustum planes from the view and projection of the
+   * given camera.
+   *
+   * @param camera
+   *          The camera
+   */
+
+  public void updateFromCamera(
+    final KCamera camera)
+  {
+    NullCheck.notNull(camera, "Camera");
+    this.updateFromMatrices(camera.getViewMatrix(), camera
+      .getProjection()
+      .projectionGetMatrix());
+  }
+
+  /**
+   * Recalculate the frustum planes from the given view and projection
+   * matrices.
+   *
+   * @param view
+   *          The world-to-eye matrix
+   * @param projection
+   *          The eye-to-clip matrix
+   * @param <E>
+   *          The eye space
+   * @param <C>
+   *          The clip space
+   */
+
+  public <E extends RSpaceType, C extends RSpaceType> void updateFromMatrices(
+    final PMatrixReadable4x4FType<RSpaceWorldType, E> view,
+    final PMatrixReadable4x4FType<E, C> projection)
+  {
+    NullCheck.notNull(view, "View matrix");
+    NullCheck.notNull(projection, "Projection matrix");
+
+    /**
+     * Calculate the rows of (projection * view) by hand, to avoid allocating
+     * a temporary matrix.
+     */
+
+    final float r00 = KFrustum.productElement(projection, view, 0, 0);
+    final float r01 = KFrustum.productElement(projection, view, 0, 1);
+    final float r02 = KFrustum.productElement(projection, view, 0, 2);
+    final float r03 = KFrustum.productElement(projection, view, 0, 3);
+    final float r10 = KFrustum.productElement(projection, view, 1, 0);
+    final float r11 = KFrustum.productElement(projection, view, 1, 1);
+    final float r12 = KFrustum.productElement(projection, view, 1, 2);
+    final float r13 = KFrustum.productElement(projection, view, 1, 3);
+    final float r20 = KFrustum.productElement(projection, view, 2, 0);
+    final float r21 = KFrustum.productElement(projection, view, 2, 1);
+    final float r22 = KFrustum.productElement(projection, view, 2, 2);
+    final float r23 = KFrustum.productElement(projection, view, 2, 3);
+    final float r30 = KFrustum.productElement(projection, view, 3, 0);
+    final float r31 = KFrustum.productElement(projection, view, 3, 1);
+    final float r32 = KFrustum.productElement(projection, view, 3, 2);
+    final float r33 = KFrustum.productElement(projection, view, 3, 3);
+
+    /**
+     * Left, right, bottom, top, near, far.
+     */
+
+    this.setPlane(0, r30 + r00, r31 + r01, r32 + r02, r33 + r03);
+    this.setPlane(1, r30 - r00, r31 - r01, r32 - r02, r33 - r03);
+    this.setPlane(2, r30 + r10, r31 + r11, r32 + r12, r33 + r13);
+    this.setPlane(3, r30 - r10, r31 - r11, r32 - r12, r33 - r13);
+    this.setPlane(4, r30 + r20, r31 + r21, r32 + r22, r33 + r23);
+    this.setPlane(5, r30 - r20, r31 - r21, r32 - r22, r33 - r23);
+  }
+
+  private static <E extends RSpaceType, C extends RSpaceType> float productElement(
+    final PMatrixReadable4x4FType<E, C> p,
+    final PMatrixReadable4x4FType<RSpaceWorldType, E> v,
+    final int row,
+    final int column)
+  {
+    return (p.getRowColumnF(row, 0) * v.getRowColumnF(0, column))
+      + (p.getRowColumnF(row, 1) * v.getRowColumnF(1, column))
+      + (p.getRowColumnF(row, 2) * v.getRowColumnF(2, column))
+      + (p.getRowColumnF(row, 3) * v.getRowColumnF(3, column));
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+
+/**
+ * The type of functions that yield object-space bounds for instances.
+ */
+
+public interface KInstanceBoundsFunctionType
+{
+  /**
+   * @param instance
+   *          The instance
+   * @return The object-space bounding box of the given instance, or nothing
+   *         if the instance is unbounded and must never be culled
+   */
+
+  OptionType<KBoundingBox<RSpaceObjectType>> instanceGetBounds(
+    final KInstanceType instance);
+}
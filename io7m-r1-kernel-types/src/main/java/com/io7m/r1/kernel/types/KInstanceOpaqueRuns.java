@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.List;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * Functions for finding runs of consecutive opaque instances that share
+ * both a mesh and a material.
+ * </p>
+ * <p>
+ * All instances in a run can be drawn with the same array buffer, the same
+ * textures, and the same material uniforms, so renderers only need to
+ * upload the per-instance matrices for each instance after the first. The
+ * visible set sort order groups such instances together, so runs are
+ * typically as long as possible.
+ * </p>
+ */
+
+public final class KInstanceOpaqueRuns
+{
+  /**
+   * Determine whether or not the two given instances can be rendered in the
+   * same run. Meshes and materials are compared by identity.
+   *
+   * @param a
+   *          The first instance
+   * @param b
+   *          The second instance
+   * @return <code>true</code> iff the instances share a mesh and material
+   */
+
+  public static boolean runCompatible(
+    final KInstanceOpaqueType a,
+    final KInstanceOpaqueType b)
+  {
+    NullCheck.notNull(a, "Instance A");
+    NullCheck.notNull(b, "Instance B");
+
+    if (a.instanceGetMesh() != b.instanceGetMesh()) {
+      return false;
+    }
+    return KVisibleSet.getOpaqueMaterial(a) == KVisibleSet.getOpaqueMaterial(b);
+  }
+
+  /**
+   * Calculate the length of the run of instances starting at
+   * <code>start</code>.
+   *
+   * @param instances
+   *          The instances
+   * @param start
+   *          The index of the first instance in the run
+   * @return The number of instances in the run (always at least
+   *         <code>1</code>)
+   */
+
+  public static int runLength(
+    final List<KInstanceOpaqueType> instances,
+    final int start)
+  {
+    NullCheck.notNull(instances, "Instances");
+    final int size = instances.size();
+    RangeCheck.checkGreaterEqual(start, "Start", 0, "Minimum index");
+    RangeCheck.checkLess(start, "Start", size, "Instance count");
+
+    final KInstanceOpaqueType first = instances.get(start);
+    assert first != null;
+
+    int end = start + 1;
+    while (end < size) {
+      final KInstanceOpaqueType i = instances.get(end);
+      assert i != null;
+      if (KInstanceOpaqueRuns.runCompatible(first, i) == false) {
+        break;
+      }
+      ++end;
+    }
+    return end - start;
+  }
+
+  private KInstanceOpaqueRuns()
+  {
+    throw new UnreachableCodeException();
+  }
+}
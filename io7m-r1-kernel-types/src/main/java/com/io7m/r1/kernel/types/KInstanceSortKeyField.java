@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+/**
+ * The fields that may contribute to the sort key of an opaque instance. Each
+ * field occupies 16 bits of the 64-bit key.
+ *
+ * @see KInstanceSortOrder
+ */
+
+public enum KInstanceSortKeyField
+{
+  /**
+   * The material of the instance. Instances that share a material object
+   * receive the same value.
+   */
+
+  SORT_FIELD_MATERIAL,
+
+  /**
+   * The set of textures used by the material of the instance. Instances
+   * whose materials use the same albedo, emission, normal, and specular
+   * textures receive the same value.
+   */
+
+  SORT_FIELD_TEXTURES,
+
+  /**
+   * The mesh of the instance. Instances that share a mesh receive the same
+   * value.
+   */
+
+  SORT_FIELD_MESH,
+
+  /**
+   * The distance of the instance origin from the observer, quantized
+   * between the near and far planes of the camera, so that nearer instances
+   * sort first.
+   */
+
+  SORT_FIELD_DEPTH
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.io7m.jequality.annotations.EqualityStructural;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+/**
+ * <p>
+ * The order in which opaque instances are sorted within each material group
+ * of a visible set.
+ * </p>
+ * <p>
+ * An order is a list of sort key fields, most significant first. Each field
+ * occupies 16 bits of a 64-bit key, starting from the most significant bits,
+ * and the instances of each group are sorted by ascending key. Fields that
+ * appear more than once are only counted at their first position.
+ * </p>
+ */
+
+@EqualityStructural public final class KInstanceSortOrder
+{
+  private static final KInstanceSortOrder DEFAULT;
+
+  static {
+    final List<KInstanceSortKeyField> f =
+      new ArrayList<KInstanceSortKeyField>();
+    f.add(KInstanceSortKeyField.SORT_FIELD_MATERIAL);
+    f.add(KInstanceSortKeyField.SORT_FIELD_TEXTURES);
+    f.add(KInstanceSortKeyField.SORT_FIELD_MESH);
+    f.add(KInstanceSortKeyField.SORT_FIELD_DEPTH);
+    DEFAULT = new KInstanceSortOrder(f);
+  }
+
+  /**
+   * @return The default order: material, textures, mesh, and then depth.
+   */
+
+  public static KInstanceSortOrder getDefault()
+  {
+    return KInstanceSortOrder.DEFAULT;
+  }
+
+  /**
+   * Construct a new sort order.
+   *
+   * @param fields
+   *          The fields, most significant first
+   * @return A new sort order
+   */
+
+  public static KInstanceSortOrder newOrder(
+    final List<KInstanceSortKeyField> fields)
+  {
+    return new KInstanceSortOrder(NullCheck.notNullAll(fields, "Fields"));
+  }
+
+  private final List<KInstanceSortKeyField> fields;
+
+  private KInstanceSortOrder(
+    final List<KInstanceSortKeyField> in_fields)
+  {
+    final List<KInstanceSortKeyField> f =
+      new ArrayList<KInstanceSortKeyField>(in_fields.size());
+    for (final KInstanceSortKeyField x : in_fields) {
+      if (f.contains(x) == false) {
+        f.add(x);
+      }
+    }
+    this.fields = NullCheck.notNull(Collections.unmodifiableList(f));
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final KInstanceSortOrder other = (KInstanceSortOrder) obj;
+    return this.fields.equals(other.fields);
+  }
+
+  /**
+   * @return The fields, most significant first, without duplicates
+   */
+
+  public List<KInstanceSortKeyField> getFields()
+  {
+    return this.fields;
+  }
+
+  @Override public int hashCode()
+  {
+    return this.fields.hashCode();
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("[KInstanceSortOrder ");
+    builder.append(this.fields);
+    builder.append("]");
+    final String r = builder.toString();
+    assert r != null;
+    return r;
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.io7m.jcanephora.Texture2DStaticUsableType;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jequality.annotations.EqualityStructural;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * Sorts the instances of each material group of a visible set by 64-bit sort
+ * keys, as specified by a {@link KInstanceSortOrder}.
+ * </p>
+ * <p>
+ * Materials, texture sets, and meshes are numbered in the order in which they
+ * are first encountered by a given sorter, so a sorter is used for exactly
+ * one visible set.
+ * </p>
+ */
+
+@EqualityReference final class KInstanceSorter
+{
+  /**
+   * The textures used by a material, compared by identity.
+   */
+
+  @EqualityStructural private static final class TextureSet
+  {
+    private final Texture2DStaticUsableType albedo;
+    private final Texture2DStaticUsableType emission;
+    private final Texture2DStaticUsableType normal;
+    private final Texture2DStaticUsableType specular;
+
+    TextureSet(
+      final KMaterialOpaqueRegular m)
+    {
+      this.albedo = m.getAlbedoTexture();
+      this.emission = m.getEmissionTexture();
+      this.normal = m.getNormalTexture();
+      this.specular = m.getSpecularTexture();
+    }
+
+    @Override public boolean equals(
+      final @Nullable Object obj)
+    {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (this.getClass() != obj.getClass()) {
+        return false;
+      }
+      final TextureSet other = (TextureSet) obj;
+      return (this.albedo == other.albedo)
+        && (this.emission == other.emission)
+        && (this.normal == other.normal)
+        && (this.specular == other.specular);
+    }
+
+    @Override public int hashCode()
+    {
+      final int prime = 31;
+      int result = 1;
+      result = (prime * result) + System.identityHashCode(this.albedo);
+      result = (prime * result) + System.identityHashCode(this.emission);
+      result = (prime * result) + System.identityHashCode(this.normal);
+      result = (prime * result) + System.identityHashCode(this.specular);
+      return result;
+    }
+  }
+
+  private static final int FIELD_BITS;
+  private static final int FIELD_MASK;
+
+  static {
+    FIELD_BITS = 16;
+    FIELD_MASK = (1 << KInstanceSorter.FIELD_BITS) - 1;
+  }
+
+  static KInstanceSorter newSorter(
+    final KInstanceSortOrder order,
+    final KCamera camera)
+  {
+    return new KInstanceSorter(order, camera);
+  }
+
+  private static int ordinal(
+    final Map<Object, Integer> m,
+    final Object x)
+  {
+    final Integer e = m.get(x);
+    if (e != null) {
+      return Math.min(e.intValue(), KInstanceSorter.FIELD_MASK);
+    }
+
+    final int o = m.size();
+    m.put(x, Integer.valueOf(o));
+    return Math.min(o, KInstanceSorter.FIELD_MASK);
+  }
+
+  private final KTransformContext                               context;
+  private final KInstanceSortKeyField[]                         fields;
+  private final float                                           far;
+  private final int[]                                           histogram;
+  private int[]                                                 indices;
+  private long[]                                                keys;
+  private final Map<Object, Integer>                            materials;
+  private final Map<Object, Integer>                            meshes;
+  private final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> model;
+  private final float                                           near;
+  private int[]                                                 scratch_indices;
+  private long[]                                                scratch_keys;
+  private final List<KInstanceOpaqueType>                       temporary;
+  private final Map<Object, Integer>                            texture_sets;
+  private final Map<Object, Integer>                            textures_by_material;
+  private final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType>    view;
+
+  private KInstanceSorter(
+    final KInstanceSortOrder order,
+    final KCamera camera)
+  {
+    NullCheck.notNull(order, "Order");
+    NullCheck.notNull(camera, "Camera");
+
+    final List<KInstanceSortKeyField> f = order.getFields();
+    this.fields =
+      f.subList(0, Math.min(f.size(), 64 / KInstanceSorter.FIELD_BITS))
+        .toArray(new KInstanceSortKeyField[0]);
+
+    final KProjectionType p = camera.getProjection();
+    this.near = p.projectionGetZNear();
+    this.far = p.projectionGetZFar();
+    this.view = camera.getViewMatrix();
+    this.context = KTransformContext.newContext();
+    this.model = new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+
+    this.materials = new IdentityHashMap<Object, Integer>();
+    this.meshes = new IdentityHashMap<Object, Integer>();
+    this.textures_by_material = new IdentityHashMap<Object, Integer>();
+    this.texture_sets = new HashMap<Object, Integer>();
+
+    this.histogram = new int[256];
+    this.indices = new int[0];
+    this.keys = new long[0];
+    this.scratch_indices = new int[0];
+    this.scratch_keys = new long[0];
+    this.temporary = new ArrayList<KInstanceOpaqueType>();
+  }
+
+  /**
+   * Quantize the distance of the origin of the instance from the observer
+   * to 16 bits.
+   */
+
+  private int depthBucket(
+    final KInstanceOpaqueType i)
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m = this.model;
+    i.instanceGetTransform().transformMakeMatrix4x4F(this.context, m);
+
+    final float x = m.getRowColumnF(0, 3);
+    final float y = m.getRowColumnF(1, 3);
+    final float z = m.getRowColumnF(2, 3);
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> v = this.view;
+    final float eye_z =
+      (v.getRowColumnF(2, 0) * x)
+        + (v.getRowColumnF(2, 1) * y)
+        + (v.getRowColumnF(2, 2) * z)
+        + v.getRowColumnF(2, 3);
+
+    final float range = this.far - this.near;
+    if (range <= 0.0f) {
+      return 0;
+    }
+
+    final float t = ((-eye_z) - this.near) / range;
+    final float c = Math.max(0.0f, Math.min(1.0f, t));
+    return (int) (c * KInstanceSorter.FIELD_MASK);
+  }
+
+  private long key(
+    final KInstanceOpaqueType i,
+    final boolean with_depth)
+  {
+    final KMaterialOpaqueRegular m = KVisibleSet.getOpaqueMaterial(i);
+
+    long k = 0;
+    for (int index = 0; index < this.fields.length; ++index) {
+      final int shift = 64 - ((index + 1) * KInstanceSorter.FIELD_BITS);
+      final int value;
+      switch (this.fields[index]) {
+        case SORT_FIELD_MATERIAL:
+        {
+          value = KInstanceSorter.ordinal(this.materials, m);
+          break;
+        }
+        case SORT_FIELD_TEXTURES:
+        {
+          value = this.textureSet(m);
+          break;
+        }
+        case SORT_FIELD_MESH:
+        {
+          value = KInstanceSorter.ordinal(this.meshes, i.instanceGetMesh());
+          break;
+        }
+        case SORT_FIELD_DEPTH:
+        {
+          value = with_depth ? this.depthBucket(i) : 0;
+          break;
+        }
+        default:
+        {
+          value = 0;
+          break;
+        }
+      }
+      k |= ((long) value) << shift;
+    }
+    return k;
+  }
+
+  private void reserve(
+    final int size)
+  {
+    if (this.keys.length < size) {
+      this.keys = new long[size];
+      this.indices = new int[size];
+      this.scratch_keys = new long[size];
+      this.scratch_indices = new int[size];
+    }
+  }
+
+  /**
+   * Sort the instances of each group of <code>g</code> in place. If
+   * <code>with_depth</code> is <code>false</code>, the depth field is treated
+   * as zero: the instances will not be viewed from the camera of the visible
+   * set (as with shadow casters).
+   */
+
+  void sortGroups(
+    final KInstancesByCode g,
+    final boolean with_depth)
+  {
+    final int count = g.getGroupCount();
+    for (int group = 0; group < count; ++group) {
+      this.sortList(g.getGroupInstances(group), with_depth);
+    }
+  }
+
+  private void sortList(
+    final List<KInstanceOpaqueType> instances,
+    final boolean with_depth)
+  {
+    final int size = instances.size();
+    if (size < 2) {
+      return;
+    }
+
+    this.reserve(size);
+    final long[] k = this.keys;
+    final int[] x = this.indices;
+    for (int index = 0; index < size; ++index) {
+      final KInstanceOpaqueType i = instances.get(index);
+      assert i != null;
+      k[index] = this.key(i, with_depth);
+      x[index] = index;
+    }
+
+    KRadixSort.sort(
+      k,
+      x,
+      size,
+      this.scratch_keys,
+      this.scratch_indices,
+      this.histogram);
+
+    final List<KInstanceOpaqueType> t = this.temporary;
+    t.clear();
+    t.addAll(instances);
+    for (int index = 0; index < size; ++index) {
+      instances.set(index, t.get(x[index]));
+    }
+    t.clear();
+  }
+
+  private int textureSet(
+    final KMaterialOpaqueRegular m)
+  {
+    final Integer e = this.textures_by_material.get(m);
+    if (e != null) {
+      return e.intValue();
+    }
+
+    final int o =
+      KInstanceSorter.ordinal(this.texture_sets, new TextureSet(m));
+    this.textures_by_material.put(m, Integer.valueOf(o));
+    return o;
+  }
+}
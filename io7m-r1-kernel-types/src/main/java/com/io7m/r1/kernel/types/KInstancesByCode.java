@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
+
+/**
+ * <p>
+ * A set of opaque instances grouped by interned material code (see
+ * {@link KMaterialCodes}).
+ * </p>
+ * <p>
+ * Groups are stored in the order in which their material codes were first
+ * encountered, and are located by code identifier via a small open-addressed
+ * table, so adding an instance never requires hashing or comparing material
+ * code strings. The table is sized to the number of groups in the set rather
+ * than to the number of codes ever interned, so the cost of constructing a
+ * set each frame does not grow with the size of the global registry. The
+ * string form of each code is only produced on request, for looking up
+ * shaders.
+ * </p>
+ */
+
+@EqualityReference public final class KInstancesByCode implements
+  KDepthInstancesType
+{
+  static KInstancesByCode newGroups()
+  {
+    return new KInstancesByCode();
+  }
+
+  private @Nullable Set<String>                 codes;
+  private int[]                                 group_ids;
+  private final List<List<KInstanceOpaqueType>> groups;
+  private int[]                                 slot_groups;
+  private int[]                                 slot_ids;
+
+  private KInstancesByCode()
+  {
+    this.groups = new ArrayList<List<KInstanceOpaqueType>>();
+    this.group_ids = new int[8];
+    this.slot_groups = new int[16];
+    this.slot_ids = new int[16];
+  }
+
+  /**
+   * Add an instance to the group for the given code.
+   *
+   * @param id
+   *          The interned material code
+   * @param instance
+   *          The instance
+   */
+
+  void add(
+    final int id,
+    final KInstanceOpaqueType instance)
+  {
+    assert this.codes == null;
+    this.groupGet(id).add(instance);
+  }
+
+  /**
+   * Append all instances in <code>other</code> to the groups of this set.
+   * Instances are appended group by group, so merging costs time
+   * proportional to the number of groups rather than to the number of
+   * instances.
+   *
+   * @param other
+   *          The instances to append
+   */
+
+  void addAll(
+    final KInstancesByCode other)
+  {
+    assert this.codes == null;
+
+    for (int group = 0; group < other.groups.size(); ++group) {
+      final List<KInstanceOpaqueType> instances = other.groups.get(group);
+      assert instances != null;
+      this.groupGet(other.group_ids[group]).addAll(instances);
+    }
+  }
+
+  private void checkGroup(
+    final int group)
+  {
+    RangeCheck.checkGreaterEqual(group, "Group", 0, "Minimum group");
+    RangeCheck.checkLess(group, "Group", this.groups.size(), "Group count");
+  }
+
+  private List<KInstanceOpaqueType> groupGet(
+    final int id)
+  {
+    assert id >= 0;
+
+    final int slot = this.slotFind(id);
+    if (this.slot_ids[slot] != 0) {
+      return NullCheck.notNull(this.groups.get(this.slot_groups[slot]));
+    }
+
+    final int group = this.groups.size();
+    if (group == this.group_ids.length) {
+      final int[] new_ids = new int[group * 2];
+      System.arraycopy(this.group_ids, 0, new_ids, 0, group);
+      this.group_ids = new_ids;
+    }
+
+    final List<KInstanceOpaqueType> instances =
+      new ArrayList<KInstanceOpaqueType>();
+    this.groups.add(instances);
+    this.group_ids[group] = id;
+
+    /**
+     * Keep the table at most half full, so that probe sequences stay short.
+     */
+
+    if (((group + 1) * 2) > this.slot_ids.length) {
+      this.slotsGrow();
+    } else {
+      this.slot_ids[slot] = id + 1;
+      this.slot_groups[slot] = group;
+    }
+
+    return instances;
+  }
+
+  @Override public String getGroupCode(
+    final int group)
+  {
+    this.checkGroup(group);
+    return KMaterialCodes.codeString(this.group_ids[group]);
+  }
+
+  @Override public int getGroupCodeID(
+    final int group)
+  {
+    this.checkGroup(group);
+    return this.group_ids[group];
+  }
+
+  @Override public int getGroupCount()
+  {
+    return this.groups.size();
+  }
+
+  @Override public List<KInstanceOpaqueType> getGroupInstances(
+    final int group)
+  {
+    this.checkGroup(group);
+    return NullCheck.notNull(this.groups.get(group));
+  }
+
+  @Override public List<KInstanceOpaqueType> getInstancesForMaterial(
+    final String code)
+    throws RExceptionMaterialNonexistent
+  {
+    final List<KInstanceOpaqueType> r = this.lookup(code);
+    if (r != null) {
+      return r;
+    }
+
+    final String ss = String.format("Material %s does not exist", code);
+    assert ss != null;
+    throw new RExceptionMaterialNonexistent(ss);
+  }
+
+  @Override public Set<String> getMaterialCodes()
+  {
+    final Set<String> cs = this.codes;
+    if (cs != null) {
+      return cs;
+    }
+
+    final Set<String> r = new HashSet<String>(this.groups.size());
+    for (int index = 0; index < this.groups.size(); ++index) {
+      r.add(KMaterialCodes.codeString(this.group_ids[index]));
+    }
+
+    final Set<String> ur = NullCheck.notNull(Collections.unmodifiableSet(r));
+    this.codes = ur;
+    return ur;
+  }
+
+  /**
+   * @param code
+   *          The material code
+   * @return The instances for the given code, or <code>null</code> if there
+   *         are none
+   */
+
+  @Nullable List<KInstanceOpaqueType> lookup(
+    final String code)
+  {
+    final int id = KMaterialCodes.codeLookup(NullCheck.notNull(code, "Code"));
+    if (id >= 0) {
+      final int slot = this.slotFind(id);
+      if (this.slot_ids[slot] != 0) {
+        return this.groups.get(this.slot_groups[slot]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the slot holding the code <code>id</code>, or the empty slot at
+   * which it would be inserted. Slots hold <code>id + 1</code>, so that zero
+   * denotes an empty slot. Code identifiers are assigned sequentially, so
+   * they are used directly as hashes.
+   */
+
+  private int slotFind(
+    final int id)
+  {
+    final int[] ids = this.slot_ids;
+    final int mask = ids.length - 1;
+    final int key = id + 1;
+
+    int slot = id & mask;
+    while ((ids[slot] != 0) && (ids[slot] != key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Double the size of the slot table and reinsert all groups.
+   */
+
+  private void slotsGrow()
+  {
+    final int size = this.slot_ids.length * 2;
+    this.slot_ids = new int[size];
+    this.slot_groups = new int[size];
+
+    for (int group = 0; group < this.groups.size(); ++group) {
+      final int id = this.group_ids[group];
+      final int slot = this.slotFind(id);
+      this.slot_ids[slot] = id + 1;
+      this.slot_groups[slot] = group;
+    }
+  }
+}
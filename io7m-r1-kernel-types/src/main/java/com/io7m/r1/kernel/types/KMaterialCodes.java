@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * A global registry of interned material codes.
+ * </p>
+ * <p>
+ * Each distinct material code is assigned a small non-negative integer
+ * identifier the first time it is interned. Identifiers are assigned
+ * sequentially and are never reused, so they can be used directly as indices
+ * into arrays when grouping instances by material. The string form of a code
+ * is only required when looking up shaders.
+ * </p>
+ * <p>
+ * Material codes are derived from the finite set of combinations of material
+ * features, so the registry is bounded by the number of distinct material
+ * shaders and is never cleared. Identifiers are not used to size any
+ * per-frame storage, so the size of the registry does not affect the cost
+ * of constructing visible sets.
+ * </p>
+ * <p>
+ * Interning is thread-safe. Retrieving the string form of an identifier does
+ * not require locking.
+ * </p>
+ */
+
+@EqualityReference public final class KMaterialCodes
+{
+  private static final Map<String, Integer> IDS;
+  private static final Object               LOCK;
+  private static volatile String[]          names;
+
+  static {
+    IDS = new HashMap<String, Integer>();
+    LOCK = new Object();
+    KMaterialCodes.names = new String[0];
+  }
+
+  /**
+   * @return The number of codes interned so far
+   */
+
+  public static int codeCount()
+  {
+    return KMaterialCodes.names.length;
+  }
+
+  /**
+   * Intern the given material code.
+   *
+   * @param code
+   *          The material code
+   * @return The identifier for the code
+   */
+
+  public static int codeIntern(
+    final String code)
+  {
+    NullCheck.notNull(code, "Code");
+
+    synchronized (KMaterialCodes.LOCK) {
+      final Integer existing = KMaterialCodes.IDS.get(code);
+      if (existing != null) {
+        return existing.intValue();
+      }
+
+      final String[] old_names = KMaterialCodes.names;
+      final int id = old_names.length;
+      final String[] new_names = new String[id + 1];
+      System.arraycopy(old_names, 0, new_names, 0, id);
+      new_names[id] = code;
+
+      KMaterialCodes.IDS.put(code, Integer.valueOf(id));
+      KMaterialCodes.names = new_names;
+      return id;
+    }
+  }
+
+  /**
+   * Intern the code of the given material.
+   *
+   * @param m
+   *          The material
+   * @return The identifier for the material's code
+   */
+
+  public static int codeInternFor(
+    final KMaterialCodeType m)
+  {
+    return KMaterialCodes.codeIntern(NullCheck.notNull(m, "Material")
+      .codeGet());
+  }
+
+  /**
+   * @param code
+   *          The material code
+   * @return The identifier for the code, or <code>-1</code> if the code has
+   *         never been interned
+   */
+
+  public static int codeLookup(
+    final String code)
+  {
+    NullCheck.notNull(code, "Code");
+
+    synchronized (KMaterialCodes.LOCK) {
+      final Integer existing = KMaterialCodes.IDS.get(code);
+      if (existing != null) {
+        return existing.intValue();
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * @param id
+   *          The code identifier
+   * @return The material code with the given identifier
+   */
+
+  public static String codeString(
+    final int id)
+  {
+    final String[] ns = KMaterialCodes.names;
+    RangeCheck.checkGreaterEqual(id, "Code", 0, "Minimum code");
+    RangeCheck.checkLess(id, "Code", ns.length, "Interned codes");
+    return NullCheck.notNull(ns[id]);
+  }
+
+  private KMaterialCodes()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -33,6 +33,12 @@ import com.io7m.r1.exceptions.RException;
 @EqualityReference public final class KMaterialDepthAlpha implements
   KMaterialDepthType
 {
+  private static final int CODE_ID;
+
+  static {
+    CODE_ID = KMaterialCodes.codeIntern(KMaterialDepthAlpha.getMaterialCode());
+  }
+
   /**
    * Construct new depth properties.
    *
@@ -70,6 +76,11 @@ import com.io7m.r1.exceptions.RException;
     return KMaterialDepthAlpha.getMaterialCode();
   }
 
+  @Override public int codeGetID()
+  {
+    return KMaterialDepthAlpha.CODE_ID;
+  }
+
   @Override public
     <A, E extends Throwable, V extends KMaterialDepthVisitorType<A, E>>
     A
@@ -26,9 +26,12 @@ import com.io7m.r1.exceptions.RException;
 @EqualityReference public final class KMaterialDepthConstant implements
   KMaterialDepthType
 {
+  private static final int                    CODE_ID;
   private static final KMaterialDepthConstant NONE_FIELD;
 
   static {
+    CODE_ID =
+      KMaterialCodes.codeIntern(KMaterialDepthConstant.getMaterialCode());
     NONE_FIELD = new KMaterialDepthConstant();
   }
 
@@ -62,6 +65,11 @@ import com.io7m.r1.exceptions.RException;
     return KMaterialDepthConstant.getMaterialCode();
   }
 
+  @Override public int codeGetID()
+  {
+    return KMaterialDepthConstant.CODE_ID;
+  }
+
   @Override public
     <A, E extends Throwable, V extends KMaterialDepthVisitorType<A, E>>
     A
@@ -24,6 +24,13 @@ import com.io7m.r1.exceptions.RException;
 
 public interface KMaterialDepthType extends KMaterialCodeType
 {
+  /**
+   * @return The interned identifier of the material code.
+   * @see KMaterialCodes
+   */
+
+  int codeGetID();
+
   /**
    * Be visited by the given generic visitor.
    *
@@ -216,6 +216,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
   private final float                                              albedo_mix;
   private final Texture2DStaticUsableType                          albedo_texture;
   private final String                                             code;
+  private final int                                                code_id;
   private final KMaterialDepthType                                 depth;
   private final float                                              emission;
   private final Texture2DStaticUsableType                          emission_texture;
@@ -253,6 +254,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     this.specular_exponent = in_specular_exponent;
     this.specular_texture = NullCheck.notNull(in_specular_texture);
     this.code = NullCheck.notNull(in_code);
+    this.code_id = KMaterialCodes.codeIntern(this.code);
     this.uv = NullCheck.notNull(in_uv);
   }
 
@@ -280,6 +282,11 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     return this.code;
   }
 
+  @Override public int getCodeID()
+  {
+    return this.code_id;
+  }
+
   /**
    * @return The material depth properties
    */
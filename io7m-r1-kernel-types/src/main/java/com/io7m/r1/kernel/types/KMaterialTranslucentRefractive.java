@@ -108,6 +108,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
   }
 
   private final String                                             code;
+  private final int                                                code_id;
   private final Texture2DStaticUsableType                          normal_texture;
   private final KMaterialRefractiveType                            refractive;
   private final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> uv_matrix;
@@ -119,6 +120,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     final KMaterialRefractiveType in_refractive)
   {
     this.code = NullCheck.notNull(in_code, "Code");
+    this.code_id = KMaterialCodes.codeIntern(this.code);
     this.uv_matrix = NullCheck.notNull(in_uv_matrix, "UV matrix");
     this.normal_texture = NullCheck.notNull(in_normal, "Normal");
     this.refractive = NullCheck.notNull(in_refractive, "Refractive");
@@ -133,6 +135,11 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     return this.code;
   }
 
+  @Override public int getCodeID()
+  {
+    return this.code_id;
+  }
+
   /**
    * @return The normal texture for the material
    */
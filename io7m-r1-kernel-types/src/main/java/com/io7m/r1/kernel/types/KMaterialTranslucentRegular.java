@@ -194,6 +194,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
   private final Texture2DStaticUsableType                          albedo_texture;
   private final KMaterialAlphaType                                 alpha;
   private final String                                             code;
+  private final int                                                code_id;
   private final KMaterialEnvironmentType                           environment;
   private final Texture2DStaticUsableType                          normal_texture;
   private final PVectorI3F<RSpaceRGBType>                          specular_color;
@@ -219,6 +220,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     this.albedo_texture = NullCheck.notNull(in_albedo_texture);
     this.alpha = NullCheck.notNull(in_alpha);
     this.code = NullCheck.notNull(in_code);
+    this.code_id = KMaterialCodes.codeIntern(this.code);
     this.environment = NullCheck.notNull(in_environment);
     this.normal_texture = NullCheck.notNull(in_normal_texture);
     this.specular_color = NullCheck.notNull(in_specular_color);
@@ -260,6 +262,11 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     return this.code;
   }
 
+  @Override public int getCodeID()
+  {
+    return this.code_id;
+  }
+
   @Override public KMaterialEnvironmentType getEnvironment()
   {
     return this.environment;
@@ -130,6 +130,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 
   private final KMaterialAlphaType                                 alpha;
   private final String                                             code;
+  private final int                                                code_id;
   private final Texture2DStaticUsableType                          normal_texture;
   private final PVectorI3F<RSpaceRGBType>                          specular_color;
   private final float                                              specular_exponent;
@@ -146,6 +147,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     final Texture2DStaticUsableType in_specular_texture)
   {
     this.code = NullCheck.notNull(in_code, "Code");
+    this.code_id = KMaterialCodes.codeIntern(this.code);
     this.uv_matrix = NullCheck.notNull(in_uv_matrix, "UV matrix");
     this.alpha = NullCheck.notNull(in_alpha, "Alpha");
     this.normal_texture = NullCheck.notNull(in_normal_texture);
@@ -172,6 +174,11 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     return this.code;
   }
 
+  @Override public int getCodeID()
+  {
+    return this.code_id;
+  }
+
   /**
    * @return The normal texture for the material
    */
@@ -32,6 +32,13 @@ public interface KMaterialType extends KTexturesRequiredType
 
   String getCode();
 
+  /**
+   * @return The interned identifier of the material code
+   * @see KMaterialCodes
+   */
+
+  int getCodeID();
+
   /**
    * Be visited by the given generic visitor.
    *
@@ -32,6 +32,8 @@ import com.io7m.jcanephora.JCGLResourceUsableType;
 import com.io7m.jcanephora.api.JCGLArrayBuffersType;
 import com.io7m.jcanephora.api.JCGLIndexBuffersType;
 import com.io7m.jequality.annotations.EqualityStructural;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 import com.io7m.junreachable.UnreachableCodeException;
@@ -39,6 +41,7 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingNormals;
 import com.io7m.r1.exceptions.RExceptionMeshMissingPositions;
 import com.io7m.r1.exceptions.RExceptionMeshMissingTangents;
 import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
+import com.io7m.r1.spaces.RSpaceObjectType;
 
 /**
  * <p>
@@ -57,6 +60,12 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
  * <li>The array buffer must have per-vertex tangents of type
  * {@link KMeshAttributes#ATTRIBUTE_TANGENT4}.</li>
  * </ul>
+ * <p>
+ * Meshes carry object-space bounding volumes, typically calculated whilst
+ * the mesh data is parsed. Meshes constructed without bounds are unbounded:
+ * they have no bounding volumes, and will never be rejected by visibility
+ * tests.
+ * </p>
  */
 
 @EqualityStructural public final class KMesh implements
@@ -128,7 +137,7 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
   }
 
   /**
-   * Construct a new mesh.
+   * Construct a new mesh. The mesh is assumed to be unbounded.
    *
    * @param in_array
    *          The array buffer of vertex data
@@ -154,16 +163,63 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
       RExceptionMeshMissingTangents,
       RExceptionMeshMissingPositions
   {
-    return new KMesh(in_array, in_indices);
+    final OptionType<KBoundingBox<RSpaceObjectType>> no_box = Option.none();
+    final OptionType<KBoundingSphere<RSpaceObjectType>> no_sphere =
+      Option.none();
+    return new KMesh(in_array, in_indices, no_box, no_sphere);
   }
 
-  private final ArrayBufferType array;
-  private boolean               deleted;
-  private final IndexBufferType indices;
+  /**
+   * Construct a new mesh with the given object-space bounds.
+   *
+   * @param in_array
+   *          The array buffer of vertex data
+   * @param in_indices
+   *          The index buffer
+   * @param in_box
+   *          The bounding box of the mesh
+   * @param in_sphere
+   *          The bounding sphere of the mesh
+   *
+   * @return A new mesh
+   * @throws RExceptionMeshMissingTangents
+   *           If the array does not have tangent vectors.
+   * @throws RExceptionMeshMissingNormals
+   *           If the array does not have normal vectors.
+   * @throws RExceptionMeshMissingUVs
+   *           If the array does not have UV coordinates.
+   * @throws RExceptionMeshMissingPositions
+   *           If the array does not have positions.
+   */
+
+  public static KMesh newMeshWithBounds(
+    final ArrayBufferType in_array,
+    final IndexBufferType in_indices,
+    final KBoundingBox<RSpaceObjectType> in_box,
+    final KBoundingSphere<RSpaceObjectType> in_sphere)
+    throws RExceptionMeshMissingUVs,
+      RExceptionMeshMissingNormals,
+      RExceptionMeshMissingTangents,
+      RExceptionMeshMissingPositions
+  {
+    final OptionType<KBoundingBox<RSpaceObjectType>> box =
+      Option.some(NullCheck.notNull(in_box, "Bounding box"));
+    final OptionType<KBoundingSphere<RSpaceObjectType>> sphere =
+      Option.some(NullCheck.notNull(in_sphere, "Bounding sphere"));
+    return new KMesh(in_array, in_indices, box, sphere);
+  }
+
+  private final ArrayBufferType                               array;
+  private final OptionType<KBoundingBox<RSpaceObjectType>>    box;
+  private boolean                                             deleted;
+  private final IndexBufferType                               indices;
+  private final OptionType<KBoundingSphere<RSpaceObjectType>> sphere;
 
   private KMesh(
     final ArrayBufferType in_array,
-    final IndexBufferType in_indices)
+    final IndexBufferType in_indices,
+    final OptionType<KBoundingBox<RSpaceObjectType>> in_box,
+    final OptionType<KBoundingSphere<RSpaceObjectType>> in_sphere)
     throws RExceptionMeshMissingUVs,
       RExceptionMeshMissingNormals,
       RExceptionMeshMissingTangents,
@@ -171,6 +227,8 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
   {
     this.array = NullCheck.notNull(in_array, "Array");
     this.indices = NullCheck.notNull(in_indices, "Indices");
+    this.box = NullCheck.notNull(in_box, "Bounding box");
+    this.sphere = NullCheck.notNull(in_sphere, "Bounding sphere");
 
     final ArrayDescriptor d = this.array.arrayGetDescriptor();
     final Map<String, ArrayAttributeDescriptor> as = d.getAttributes();
@@ -228,8 +286,10 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
     }
     final KMesh other = (KMesh) obj;
     return this.array.equals(other.array)
+      && this.box.equals(other.box)
       && (this.deleted == other.deleted)
-      && this.indices.equals(other.indices);
+      && this.indices.equals(other.indices)
+      && this.sphere.equals(other.sphere);
   }
 
   @Override public int hashCode()
@@ -237,8 +297,10 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
     final int prime = 31;
     int result = 1;
     result = (prime * result) + this.array.hashCode();
+    result = (prime * result) + this.box.hashCode();
     result = (prime * result) + (this.deleted ? 1231 : 1237);
     result = (prime * result) + this.indices.hashCode();
+    result = (prime * result) + this.sphere.hashCode();
     return result;
   }
 
@@ -247,6 +309,20 @@ import com.io7m.r1.exceptions.RExceptionMeshMissingUVs;
     return this.array;
   }
 
+  @Override public
+    OptionType<KBoundingBox<RSpaceObjectType>>
+    meshGetBoundingBox()
+  {
+    return this.box;
+  }
+
+  @Override public
+    OptionType<KBoundingSphere<RSpaceObjectType>>
+    meshGetBoundingSphere()
+  {
+    return this.sphere;
+  }
+
   @Override public IndexBufferUsableType meshGetIndexBuffer()
   {
     return this.indices;
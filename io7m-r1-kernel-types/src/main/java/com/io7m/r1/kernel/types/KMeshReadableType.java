@@ -16,11 +16,26 @@
 
 package com.io7m.r1.kernel.types;
 
+import com.io7m.jfunctional.OptionType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+
 /**
  * Readable interface to allocated meshes.
  */
 
 public interface KMeshReadableType extends KMeshReducedReadableType
 {
-  // No extra functions
+  /**
+   * @return The object-space axis-aligned bounding box of the mesh, or
+   *         nothing if the mesh is unbounded
+   */
+
+  OptionType<KBoundingBox<RSpaceObjectType>> meshGetBoundingBox();
+
+  /**
+   * @return The object-space bounding sphere of the mesh, or nothing if the
+   *         mesh is unbounded
+   */
+
+  OptionType<KBoundingSphere<RSpaceObjectType>> meshGetBoundingSphere();
 }
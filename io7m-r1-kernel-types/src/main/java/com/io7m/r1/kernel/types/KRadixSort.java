@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>
+ * A least-significant-digit radix sort over unsigned 64-bit keys.
+ * </p>
+ * <p>
+ * Keys are sorted eight bits at a time. Passes in which every key has the
+ * same digit are skipped, so keys that only use their upper bits (as sort
+ * keys with few fields do) are sorted in fewer passes. The sort is stable,
+ * and does not allocate.
+ * </p>
+ */
+
+public final class KRadixSort
+{
+  private static final int DIGIT_BITS;
+  private static final int DIGIT_MASK;
+  private static final int DIGIT_VALUES;
+
+  static {
+    DIGIT_BITS = 8;
+    DIGIT_VALUES = 1 << KRadixSort.DIGIT_BITS;
+    DIGIT_MASK = KRadixSort.DIGIT_VALUES - 1;
+  }
+
+  /**
+   * <p>
+   * Sort the first <code>count</code> elements of <code>keys</code> in
+   * ascending unsigned order, applying the same permutation to
+   * <code>values</code>.
+   * </p>
+   * <p>
+   * The scratch arrays must be at least <code>count</code> elements long.
+   * Their contents on return are unspecified.
+   * </p>
+   *
+   * @param keys
+   *          The keys
+   * @param values
+   *          The values associated with the keys
+   * @param count
+   *          The number of elements to sort
+   * @param scratch_keys
+   *          Scratch space for keys
+   * @param scratch_values
+   *          Scratch space for values
+   * @param histogram
+   *          Scratch space for digit counts, at least 256 elements long
+   */
+
+  public static void sort(
+    final long[] keys,
+    final int[] values,
+    final int count,
+    final long[] scratch_keys,
+    final int[] scratch_values,
+    final int[] histogram)
+  {
+    NullCheck.notNull(keys, "Keys");
+    NullCheck.notNull(values, "Values");
+    NullCheck.notNull(scratch_keys, "Scratch keys");
+    NullCheck.notNull(scratch_values, "Scratch values");
+    NullCheck.notNull(histogram, "Histogram");
+    RangeCheck.checkGreaterEqual(count, "Count", 0, "Minimum count");
+    RangeCheck.checkLessEqual(count, "Count", keys.length, "Keys length");
+    RangeCheck.checkLessEqual(count, "Count", values.length, "Values length");
+    RangeCheck.checkLessEqual(
+      count,
+      "Count",
+      scratch_keys.length,
+      "Scratch keys length");
+    RangeCheck.checkLessEqual(
+      count,
+      "Count",
+      scratch_values.length,
+      "Scratch values length");
+    RangeCheck.checkGreaterEqual(
+      histogram.length,
+      "Histogram length",
+      KRadixSort.DIGIT_VALUES,
+      "Digit values");
+
+    long[] src_k = keys;
+    int[] src_v = values;
+    long[] dst_k = scratch_keys;
+    int[] dst_v = scratch_values;
+
+    for (int shift = 0; shift < 64; shift += KRadixSort.DIGIT_BITS) {
+      for (int index = 0; index < KRadixSort.DIGIT_VALUES; ++index) {
+        histogram[index] = 0;
+      }
+      for (int index = 0; index < count; ++index) {
+        final int d = (int) (src_k[index] >>> shift) & KRadixSort.DIGIT_MASK;
+        histogram[d] = histogram[d] + 1;
+      }
+
+      /**
+       * If every key has the same digit, this pass would not move anything.
+       */
+
+      if (count > 0) {
+        final int first =
+          (int) (src_k[0] >>> shift) & KRadixSort.DIGIT_MASK;
+        if (histogram[first] == count) {
+          continue;
+        }
+      }
+
+      int offset = 0;
+      for (int index = 0; index < KRadixSort.DIGIT_VALUES; ++index) {
+        final int c = histogram[index];
+        histogram[index] = offset;
+        offset += c;
+      }
+
+      for (int index = 0; index < count; ++index) {
+        final long k = src_k[index];
+        final int d = (int) (k >>> shift) & KRadixSort.DIGIT_MASK;
+        final int target = histogram[d];
+        histogram[d] = target + 1;
+        dst_k[target] = k;
+        dst_v[target] = src_v[index];
+      }
+
+      final long[] tk = src_k;
+      final int[] tv = src_v;
+      src_k = dst_k;
+      src_v = dst_v;
+      dst_k = tk;
+      dst_v = tv;
+    }
+
+    if (src_k != keys) {
+      System.arraycopy(src_k, 0, keys, 0, count);
+      System.arraycopy(src_v, 0, values, 0, count);
+    }
+  }
+
+  private KRadixSort()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jtensors.parameterized.PMatrixM3x3F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PMatrixReadable3x3FType;
+import com.io7m.jtensors.parameterized.PMatrixReadable4x4FType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A mutable transform node that caches its object-to-world matrix.
+ * </p>
+ * <p>
+ * The world matrix of a node is the world matrix of its parent (if any)
+ * multiplied by the matrix of its local transform. The world matrix and the
+ * world-space normal matrix (the inverse transpose of the upper 3x3 of the
+ * world matrix) are only recalculated when the local transform of the node
+ * or of one of its ancestors has changed. Each recalculation increments the
+ * node's version number, so that users can tell whether matrices derived
+ * from the node are out of date.
+ * </p>
+ * <p>
+ * Hierarchies are expressed with parent nodes rather than by using a node as
+ * the local transform of another node, as only parent links are tracked.
+ * Nodes may be evaluated from multiple threads concurrently, but must not be
+ * modified with {@link #nodeSetLocal(KTransformType)} whilst being
+ * evaluated.
+ * </p>
+ */
+
+@EqualityReference public final class KTransformNode implements
+  KTransformType
+{
+  /**
+   * Construct a new node without a parent.
+   *
+   * @param in_local
+   *          The local transform
+   * @return A new node
+   */
+
+  public static KTransformNode newNode(
+    final KTransformType in_local)
+  {
+    final OptionType<KTransformNode> none = Option.none();
+    return new KTransformNode(none, in_local);
+  }
+
+  /**
+   * Construct a new node with the given parent.
+   *
+   * @param in_parent
+   *          The parent node
+   * @param in_local
+   *          The local transform, relative to the parent
+   * @return A new node
+   */
+
+  public static KTransformNode newNodeWithParent(
+    final KTransformNode in_parent,
+    final KTransformType in_local)
+  {
+    return new KTransformNode(
+      Option.some(NullCheck.notNull(in_parent, "Parent")),
+      in_local);
+  }
+
+  private final KTransformContext                               context;
+  private boolean                                               dirty;
+  private KTransformType                                        local;
+  private final PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType> normal;
+  private final OptionType<KTransformNode>                      parent;
+  private long                                                  parent_version;
+  private final PMatrixM4x4F<RSpaceWorldType, RSpaceWorldType>  parent_world;
+  private long                                                  version;
+  private final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> world;
+
+  private KTransformNode(
+    final OptionType<KTransformNode> in_parent,
+    final KTransformType in_local)
+  {
+    this.parent = NullCheck.notNull(in_parent, "Parent");
+    this.local = NullCheck.notNull(in_local, "Local transform");
+    this.context = KTransformContext.newContext();
+    this.world = new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    this.normal = new PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType>();
+    this.parent_world = new PMatrixM4x4F<RSpaceWorldType, RSpaceWorldType>();
+    this.dirty = true;
+    this.version = 0;
+    this.parent_version = -1;
+  }
+
+  private static void copy3x3(
+    final PMatrixReadable3x3FType<?, ?> source,
+    final PMatrixM3x3F<?, ?> target)
+  {
+    for (int row = 0; row < 3; ++row) {
+      for (int col = 0; col < 3; ++col) {
+        target.set(row, col, source.getRowColumnF(row, col));
+      }
+    }
+  }
+
+  private static void copy4x4(
+    final PMatrixReadable4x4FType<?, ?> source,
+    final PMatrixM4x4F<?, ?> target)
+  {
+    for (int row = 0; row < 4; ++row) {
+      for (int col = 0; col < 4; ++col) {
+        target.set(row, col, source.getRowColumnF(row, col));
+      }
+    }
+  }
+
+  /**
+   * @return The local transform of the node
+   */
+
+  public synchronized KTransformType nodeGetLocal()
+  {
+    return this.local;
+  }
+
+  /**
+   * Copy the world matrix and world-space normal matrix of the node to
+   * <code>m</code> and <code>n</code>, recalculating them first if necessary.
+   * Both matrices are guaranteed to be of the same version.
+   *
+   * @param m
+   *          The output world matrix
+   * @param n
+   *          The output normal matrix
+   */
+
+  public synchronized void nodeGetMatrices(
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m,
+    final PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType> n)
+  {
+    NullCheck.notNull(m, "Matrix");
+    NullCheck.notNull(n, "Normal matrix");
+    this.update();
+    KTransformNode.copy4x4(this.world, m);
+    KTransformNode.copy3x3(this.normal, n);
+  }
+
+  /**
+   * Copy the world-space normal matrix of the node to <code>m</code>,
+   * recalculating it first if necessary.
+   *
+   * @param m
+   *          The output matrix
+   */
+
+  public synchronized void nodeGetMatrixNormalWorld(
+    final PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType> m)
+  {
+    NullCheck.notNull(m, "Matrix");
+    this.update();
+    KTransformNode.copy3x3(this.normal, m);
+  }
+
+  /**
+   * Copy the world matrix of the node to <code>m</code>, recalculating it
+   * first if necessary.
+   *
+   * @param m
+   *          The output matrix
+   */
+
+  public synchronized void nodeGetMatrixWorld(
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m)
+  {
+    NullCheck.notNull(m, "Matrix");
+    this.update();
+    KTransformNode.copy4x4(this.world, m);
+  }
+
+  /**
+   * @return The parent of the node, if any
+   */
+
+  public OptionType<KTransformNode> nodeGetParent()
+  {
+    return this.parent;
+  }
+
+  /**
+   * Return the version number of the node's matrices, recalculating them
+   * first if necessary. The version number changes each time the matrices
+   * are recalculated, and is otherwise constant.
+   *
+   * @return The version number of the node's matrices
+   */
+
+  public synchronized long nodeGetVersion()
+  {
+    this.update();
+    return this.version;
+  }
+
+  /**
+   * @return <code>true</code> iff the node's matrices will be recalculated
+   *         when they are next requested
+   */
+
+  public synchronized boolean nodeIsDirty()
+  {
+    if (this.dirty) {
+      return true;
+    }
+    if (this.parent.isSome()) {
+      final KTransformNode p = ((Some<KTransformNode>) this.parent).get();
+      return p.nodeIsDirty() || (p.nodeGetVersion() != this.parent_version);
+    }
+    return false;
+  }
+
+  /**
+   * Set the local transform of the node. The node's matrices (and those of
+   * any descendants) will be recalculated when they are next requested.
+   *
+   * @param in_local
+   *          The new local transform
+   */
+
+  public synchronized void nodeSetLocal(
+    final KTransformType in_local)
+  {
+    this.local = NullCheck.notNull(in_local, "Local transform");
+    this.dirty = true;
+  }
+
+  @Override public
+    <A, E extends Throwable, V extends KTransformVisitorType<A, E>>
+    A
+    transformAccept(
+      final V v)
+      throws E
+  {
+    return v.transformNode(this);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * The given context is not used: the node uses its own context when
+   * recalculating its matrices, so that nodes shared between threads do not
+   * share temporary storage.
+   * </p>
+   */
+
+  @Override public void transformMakeMatrix4x4F(
+    final KTransformContext in_context,
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m)
+  {
+    this.nodeGetMatrixWorld(m);
+  }
+
+  private void recalculate()
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> w = this.world;
+    this.local.transformMakeMatrix4x4F(this.context, w);
+    if (this.parent.isSome()) {
+      PMatrixM4x4F.multiply(this.parent_world, w, w);
+    }
+
+    final PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType> n = this.normal;
+    for (int row = 0; row < 3; ++row) {
+      for (int col = 0; col < 3; ++col) {
+        n.set(row, col, w.getRowColumnF(row, col));
+      }
+    }
+    PMatrixM3x3F.invertInPlace(n);
+    PMatrixM3x3F.transposeInPlace(n);
+
+    ++this.version;
+    this.dirty = false;
+  }
+
+  private void update()
+  {
+    if (this.parent.isSome()) {
+      final KTransformNode p = ((Some<KTransformNode>) this.parent).get();
+      final long pv =
+        p.worldCopyIfChanged(this.parent_version, this.parent_world);
+      if (pv != this.parent_version) {
+        this.parent_version = pv;
+        this.dirty = true;
+      }
+    }
+
+    if (this.dirty) {
+      this.recalculate();
+    }
+  }
+
+  /**
+   * Copy the world matrix of this node to <code>m</code> if the current
+   * version differs from <code>seen</code>.
+   */
+
+  private synchronized long worldCopyIfChanged(
+    final long seen,
+    final PMatrixM4x4F<?, ?> m)
+  {
+    this.update();
+    if (this.version != seen) {
+      KTransformNode.copy4x4(this.world, m);
+    }
+    return this.version;
+  }
+}
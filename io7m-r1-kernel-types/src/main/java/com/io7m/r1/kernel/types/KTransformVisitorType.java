@@ -42,6 +42,20 @@ public interface KTransformVisitorType<A, E extends Throwable>
     final KTransformMatrix4x4 t)
     throws E;
 
+  /**
+   * Visit a cached transform node.
+   * 
+   * @param t
+   *          The transform
+   * @return A value of type <code>A</code>
+   * @throws E
+   *           If desired
+   */
+
+  A transformNode(
+    final KTransformNode t)
+    throws E;
+
   /**
    * Visit a transform consisting of an orientation, scale, and translation.
    * 
@@ -0,0 +1,270 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.List;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * Sorts translucent instances from back to front, by the eye-space depth of
+ * the centre of the bounding sphere of each instance's mesh, or of the
+ * object-space origin for unbounded meshes.
+ * </p>
+ * <p>
+ * A sorter is intended to be kept for the lifetime of a view and passed to
+ * each visible set builder created for that view. Its internal arrays only
+ * grow, so sorting a similar number of instances each frame does not
+ * allocate. The permutation produced by the previous sort is used as the
+ * starting point for the next sort when the number of instances has not
+ * changed, so when instances are submitted in the same order each frame and
+ * the observer moves smoothly, the insertion sort performs close to a
+ * single linear pass.
+ * </p>
+ * <p>
+ * Instances with equal depths retain the order in which they were added to
+ * the visible set, regardless of the previous permutation.
+ * </p>
+ * <p>
+ * Sorters are not thread-safe.
+ * </p>
+ */
+
+@EqualityReference public final class KTranslucentSorter
+{
+  private static final KTranslucentVisitorType<KInstanceType, UnreachableCodeException> GET_INSTANCE;
+
+  static {
+    GET_INSTANCE =
+      new KTranslucentVisitorType<KInstanceType, UnreachableCodeException>() {
+        @Override public KInstanceType refractive(
+          final KInstanceTranslucentRefractive t)
+        {
+          return t;
+        }
+
+        @Override public KInstanceType regularLit(
+          final KTranslucentRegularLit t)
+        {
+          return t.translucentGetInstance();
+        }
+
+        @Override public KInstanceType regularUnlit(
+          final KInstanceTranslucentRegular t)
+        {
+          return t;
+        }
+
+        @Override public KInstanceType specularOnly(
+          final KTranslucentSpecularOnlyLit t)
+        {
+          return t.translucentGetInstance();
+        }
+      };
+  }
+
+  /**
+   * @return A new translucent sorter
+   */
+
+  public static KTranslucentSorter newSorter()
+  {
+    return new KTranslucentSorter();
+  }
+
+  private final KTransformContext                               context;
+  private int                                                   count;
+  private float[]                                               depths;
+  private final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> model;
+  private int[]                                                 order;
+  private @Nullable KTranslucentType[]                          temporary;
+
+  private KTranslucentSorter()
+  {
+    this.context = KTransformContext.newContext();
+    this.model = new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    this.depths = new float[0];
+    this.order = new int[0];
+    this.temporary = new KTranslucentType[0];
+    this.count = 0;
+  }
+
+  private float depth(
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view,
+    final KTranslucentType t)
+  {
+    final KInstanceType i;
+    try {
+      i = t.translucentAccept(KTranslucentSorter.GET_INSTANCE);
+    } catch (final RException e) {
+      throw new UnreachableCodeException(e);
+    }
+
+    /**
+     * Unbounded meshes are sorted by the depth of their object-space origin.
+     */
+
+    float cx = 0.0f;
+    float cy = 0.0f;
+    float cz = 0.0f;
+    final OptionType<KBoundingSphere<RSpaceObjectType>> sphere =
+      i.instanceGetMesh().meshGetBoundingSphere();
+    if (sphere.isSome()) {
+      final PVectorI3F<RSpaceObjectType> c =
+        ((Some<KBoundingSphere<RSpaceObjectType>>) sphere).get().getCenter();
+      cx = c.getXF();
+      cy = c.getYF();
+      cz = c.getZF();
+    }
+
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m = this.model;
+    i.instanceGetTransform().transformMakeMatrix4x4F(this.context, m);
+
+    final float x =
+      (m.getRowColumnF(0, 0) * cx)
+        + (m.getRowColumnF(0, 1) * cy)
+        + (m.getRowColumnF(0, 2) * cz)
+        + m.getRowColumnF(0, 3);
+    final float y =
+      (m.getRowColumnF(1, 0) * cx)
+        + (m.getRowColumnF(1, 1) * cy)
+        + (m.getRowColumnF(1, 2) * cz)
+        + m.getRowColumnF(1, 3);
+    final float z =
+      (m.getRowColumnF(2, 0) * cx)
+        + (m.getRowColumnF(2, 1) * cy)
+        + (m.getRowColumnF(2, 2) * cz)
+        + m.getRowColumnF(2, 3);
+
+    return (view.getRowColumnF(2, 0) * x)
+      + (view.getRowColumnF(2, 1) * y)
+      + (view.getRowColumnF(2, 2) * z)
+      + view.getRowColumnF(2, 3);
+  }
+
+  private void ensureCapacity(
+    final int size)
+  {
+    if (this.order.length < size) {
+      final int c = Math.max(size, this.order.length * 2);
+      this.depths = new float[c];
+      this.order = new int[c];
+      this.temporary = new KTranslucentType[c];
+      this.count = 0;
+    }
+  }
+
+  /**
+   * @return <code>true</code> iff the instance at <code>a</code> must be
+   *         drawn before the instance at <code>b</code>. The observer looks
+   *         down the negative Z axis, so more distant instances have lower
+   *         eye-space Z values.
+   */
+
+  private boolean precedes(
+    final int a,
+    final int b)
+  {
+    final float da = this.depths[a];
+    final float db = this.depths[b];
+    if (da < db) {
+      return true;
+    }
+    if (da > db) {
+      return false;
+    }
+    return a < b;
+  }
+
+  /**
+   * Sort the given list in place, from back to front with respect to the
+   * given camera.
+   */
+
+  void sortBackToFront(
+    final KCamera camera,
+    final List<KTranslucentType> instances)
+  {
+    NullCheck.notNull(camera, "Camera");
+    NullCheck.notNull(instances, "Instances");
+
+    final int size = instances.size();
+    this.ensureCapacity(size);
+
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      camera.getViewMatrix();
+    final KTranslucentType[] t = this.temporary;
+    assert t != null;
+
+    for (int index = 0; index < size; ++index) {
+      final KTranslucentType i = instances.get(index);
+      assert i != null;
+      t[index] = i;
+      this.depths[index] = this.depth(view, i);
+    }
+
+    /**
+     * Start from the previous permutation if it has the right size, and
+     * from the identity permutation otherwise.
+     */
+
+    final int[] o = this.order;
+    if (this.count != size) {
+      for (int index = 0; index < size; ++index) {
+        o[index] = index;
+      }
+    }
+
+    for (int index = 1; index < size; ++index) {
+      final int current = o[index];
+      int j = index - 1;
+      while ((j >= 0) && this.precedes(current, o[j])) {
+        o[j + 1] = o[j];
+        --j;
+      }
+      o[j + 1] = current;
+    }
+
+    for (int index = 0; index < size; ++index) {
+      instances.set(index, t[o[index]]);
+    }
+
+    /**
+     * Release references to the instances so that they are not retained
+     * until the next sort.
+     */
+
+    for (int index = 0; index < size; ++index) {
+      t[index] = null;
+    }
+
+    this.count = size;
+  }
+}
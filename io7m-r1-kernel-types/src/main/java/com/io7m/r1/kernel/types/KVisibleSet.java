@@ -19,6 +19,9 @@ package com.io7m.r1.kernel.types;
 import java.util.Set;
 
 import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jnull.NullCheck;
 import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
@@ -65,16 +68,20 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
     private final KCamera                                      camera;
     private final KVisibleSetOpaquesBuilderWithCreateType      opaque_builder;
     private final KVisibleSetShadowsBuilderWithCreateType      shadow_builder;
+    private final OptionType<KInstanceSortOrder>               sort_order;
     private final KVisibleSetTranslucentsBuilderWithCreateType translucent_builder;
 
     Builder(
-      final KCamera in_camera)
+      final KCamera in_camera,
+      final OptionType<KInstanceSortOrder> in_sort_order,
+      final OptionType<KTranslucentSorter> in_translucent_sorter)
     {
+      this.sort_order = NullCheck.notNull(in_sort_order, "Sort order");
       this.shadow_builder = KVisibleSetShadows.newBuilder();
       this.opaque_builder =
         KVisibleSetOpaques.newBuilder(in_camera, this.shadow_builder);
       this.translucent_builder =
-        KVisibleSetTranslucents.newBuilder(in_camera);
+        KVisibleSet.newTranslucentsBuilder(in_camera, in_translucent_sorter);
       this.camera = NullCheck.notNull(in_camera, "Camera");
     }
 
@@ -85,11 +92,10 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
           RExceptionLightGroupLacksLights,
           RExceptionBuilderInvalid
     {
-      final KVisibleSetOpaques ob = this.opaque_builder.visibleOpaqueCreate();
-      return new KVisibleSet(
+      return KVisibleSet.newSet(
         this.camera,
-        ob,
-        ob.getShadows(),
+        this.sort_order,
+        this.opaque_builder.visibleOpaqueCreate(),
         this.translucent_builder.visibleTranslucentsCreate());
     }
 
@@ -142,55 +148,84 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
     }
   }
 
-  static String getOpaqueMaterialDepthCode(
+  private static final KInstanceOpaqueVisitorType<KMaterialOpaqueRegular, UnreachableCodeException> GET_MATERIAL;
+
+  static {
+    GET_MATERIAL =
+      new KInstanceOpaqueVisitorType<KMaterialOpaqueRegular, UnreachableCodeException>() {
+        @Override public KMaterialOpaqueRegular regular(
+          final KInstanceOpaqueRegular o)
+        {
+          return o.getMaterial();
+        }
+      };
+  }
+
+  static KMaterialOpaqueRegular getOpaqueMaterial(
     final KInstanceOpaqueType instance)
   {
     try {
-      return instance
-        .opaqueAccept(new KInstanceOpaqueVisitorType<String, UnreachableCodeException>() {
-          @Override public String regular(
-            final KInstanceOpaqueRegular o)
-          {
-            return o.getMaterial().getDepth().codeGet();
-          }
-        });
+      return instance.opaqueAccept(KVisibleSet.GET_MATERIAL);
     } catch (final RException e) {
       throw new UnreachableCodeException(e);
     }
   }
 
-  static String getOpaqueMaterialLitCode(
+  static int getOpaqueMaterialDepthCode(
     final KInstanceOpaqueType instance)
   {
-    try {
-      return instance
-        .opaqueAccept(new KInstanceOpaqueVisitorType<String, UnreachableCodeException>() {
-          @Override public String regular(
-            final KInstanceOpaqueRegular o)
-          {
-            return o.getMaterial().getCode();
-          }
-        });
-    } catch (final RException e) {
-      throw new UnreachableCodeException(e);
-    }
+    return KVisibleSet.getOpaqueMaterial(instance).getDepth().codeGetID();
   }
 
-  static String getOpaqueMaterialUnlitCode(
+  static int getOpaqueMaterialLitCode(
     final KInstanceOpaqueType instance)
   {
-    try {
-      return instance
-        .opaqueAccept(new KInstanceOpaqueVisitorType<String, UnreachableCodeException>() {
-          @Override public String regular(
-            final KInstanceOpaqueRegular o)
-          {
-            return o.getMaterial().getCode();
-          }
-        });
-    } catch (final RException e) {
-      throw new UnreachableCodeException(e);
+    return KVisibleSet.getOpaqueMaterial(instance).getCodeID();
+  }
+
+  static int getOpaqueMaterialUnlitCode(
+    final KInstanceOpaqueType instance)
+  {
+    return KVisibleSet.getOpaqueMaterial(instance).getCodeID();
+  }
+
+  /**
+   * Construct a visible set from already built opaque and translucent sets,
+   * sorting the opaque instances (and shadow casters) first if a sort order
+   * is given.
+   */
+
+  static KVisibleSet newSet(
+    final KCamera in_camera,
+    final OptionType<KInstanceSortOrder> in_sort_order,
+    final KVisibleSetOpaques in_opaques,
+    final KVisibleSetTranslucents in_translucents)
+  {
+    if (in_sort_order.isSome()) {
+      final KInstanceSortOrder order =
+        ((Some<KInstanceSortOrder>) in_sort_order).get();
+      final KInstanceSorter s = KInstanceSorter.newSorter(order, in_camera);
+      in_opaques.sortInstances(s);
+      in_opaques.getShadows().sortInstances(s);
     }
+
+    return new KVisibleSet(
+      in_camera,
+      in_opaques,
+      in_opaques.getShadows(),
+      in_translucents);
+  }
+
+  static KVisibleSetTranslucentsBuilderWithCreateType newTranslucentsBuilder(
+    final KCamera in_camera,
+    final OptionType<KTranslucentSorter> in_translucent_sorter)
+  {
+    if (in_translucent_sorter.isSome()) {
+      final KTranslucentSorter s =
+        ((Some<KTranslucentSorter>) in_translucent_sorter).get();
+      return KVisibleSetTranslucents.newBuilderWithSorter(in_camera, s);
+    }
+    return KVisibleSetTranslucents.newBuilder(in_camera);
   }
 
   /**
@@ -202,7 +237,59 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
   public static KVisibleSetBuilderWithCreateType newBuilder(
     final KCamera in_camera)
   {
-    return new Builder(in_camera);
+    final OptionType<KInstanceSortOrder> none = Option.none();
+    final OptionType<KTranslucentSorter> no_sorter = Option.none();
+    return new Builder(in_camera, none, no_sorter);
+  }
+
+  /**
+   * Construct a new visible set builder that, when the set is created, sorts
+   * the opaque instances of each material group (and the shadow casters of
+   * each light) by the sort keys specified by <code>in_order</code>. The
+   * renderers draw instances in list order, so a suitable order reduces the
+   * number of state changes between draw calls and allows more fragments to
+   * be rejected by the depth test.
+   *
+   * @return A new visible set builder.
+   * @param in_camera
+   *          The camera for the visible set
+   * @param in_order
+   *          The sort order for opaque instances
+   */
+
+  public static KVisibleSetBuilderWithCreateType newBuilderWithSortOrder(
+    final KCamera in_camera,
+    final KInstanceSortOrder in_order)
+  {
+    NullCheck.notNull(in_order, "Sort order");
+    final OptionType<KTranslucentSorter> no_sorter = Option.none();
+    return new Builder(in_camera, Option.some(in_order), no_sorter);
+  }
+
+  /**
+   * Construct a new visible set builder that, when the set is created,
+   * optionally sorts opaque instances as described by
+   * {@link #newBuilderWithSortOrder(KCamera, KInstanceSortOrder)}, and
+   * optionally sorts translucent instances from back to front using the
+   * given translucent sorter. The translucent sorter should be retained and
+   * reused for each frame, so that sorting does not allocate.
+   *
+   * @return A new visible set builder.
+   * @param in_camera
+   *          The camera for the visible set
+   * @param in_order
+   *          The sort order for opaque instances, if any
+   * @param in_translucent_sorter
+   *          The sorter for translucent instances, if any
+   */
+
+  public static KVisibleSetBuilderWithCreateType newBuilderWithSorting(
+    final KCamera in_camera,
+    final OptionType<KInstanceSortOrder> in_order,
+    final OptionType<KTranslucentSorter> in_translucent_sorter)
+  {
+    NullCheck.notNull(in_translucent_sorter, "Translucent sorter");
+    return new Builder(in_camera, in_order, in_translucent_sorter);
   }
 
   private final KCamera                 camera;
@@ -210,7 +297,7 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
   private final KVisibleSetShadows      shadows;
   private final KVisibleSetTranslucents translucents;
 
-  private KVisibleSet(
+  KVisibleSet(
     final KCamera in_camera,
     final KVisibleSetOpaques in_opaques,
     final KVisibleSetShadows in_shadows,
@@ -16,12 +16,9 @@
 
 package com.io7m.r1.kernel.types;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import com.io7m.jequality.annotations.EqualityReference;
@@ -40,12 +37,12 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
   @EqualityReference private static final class Builder implements
     KVisibleSetLightGroupBuilderWithCreateType
   {
-    private final Map<String, List<KInstanceOpaqueType>> by_material;
-    private boolean                                      done;
-    private final Set<KLightType>                        lights;
-    private final String                                 name;
-    private final KVisibleSetShadowsBuilderType          shadows;
-    private final Set<KInstanceOpaqueType>               visible;
+    private final KInstancesByCode              by_material;
+    private boolean                             done;
+    private final Set<KLightType>               lights;
+    private final String                        name;
+    private final KVisibleSetShadowsBuilderType shadows;
+    private final Set<KInstanceOpaqueType>      visible;
 
     Builder(
       final String in_name,
@@ -54,7 +51,7 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
     {
       this.done = false;
       this.visible = NullCheck.notNull(in_visible, "Visible");
-      this.by_material = new HashMap<String, List<KInstanceOpaqueType>>();
+      this.by_material = KInstancesByCode.newGroups();
       this.lights = new HashSet<KLightType>();
       this.shadows = NullCheck.notNull(in_shadow_builder, "Shadow builder");
       this.name = NullCheck.notNull(in_name, "Name");
@@ -83,17 +80,9 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
         throw new RExceptionInstanceAlreadyVisible(ss);
       }
 
-      List<KInstanceOpaqueType> instances;
-      final String code = KVisibleSet.getOpaqueMaterialLitCode(instance);
-      if (this.by_material.containsKey(code)) {
-        instances = this.by_material.get(code);
-      } else {
-        instances = new ArrayList<KInstanceOpaqueType>();
-      }
-
-      instances.add(instance);
+      final int code = KVisibleSet.getOpaqueMaterialLitCode(instance);
+      this.by_material.add(code, instance);
       this.visible.add(instance);
-      this.by_material.put(code, instances);
     }
 
     @Override public void groupAddLight(
@@ -145,21 +134,17 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
     return new Builder(in_name, in_shadow_builder, in_visible);
   }
 
-  private final Map<String, List<KInstanceOpaqueType>> by_material;
-  private final Set<String>                            codes;
-  private final Set<KLightType>                        lights;
-  private final String                                 name;
+  private final KInstancesByCode by_material;
+  private final Set<KLightType>  lights;
+  private final String           name;
 
-  private KVisibleSetLightGroup(
+  KVisibleSetLightGroup(
     final String in_name,
-    final Map<String, List<KInstanceOpaqueType>> in_by_material,
+    final KInstancesByCode in_by_material,
     final Set<KLightType> in_lights)
   {
     this.name = NullCheck.notNull(in_name, "Name");
     this.by_material = NullCheck.notNull(in_by_material, "By material");
-    this.codes =
-      NullCheck
-        .notNull(Collections.unmodifiableSet(this.by_material.keySet()));
     this.lights =
       NullCheck.notNull(Collections.unmodifiableSet(NullCheck.notNull(
         in_lights,
@@ -176,7 +161,16 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
     final String code)
   {
     return NullCheck.notNull(Collections.unmodifiableList(this.by_material
-      .get(NullCheck.notNull(code, "Code"))));
+      .lookup(code)));
+  }
+
+  /**
+   * @return The instances in the group, grouped by material code
+   */
+
+  public KInstancesByCode getInstancesByCode()
+  {
+    return this.by_material;
   }
 
   /**
@@ -194,7 +188,7 @@ import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
 
   public Set<String> getMaterialCodes()
   {
-    return this.codes;
+    return this.by_material.getMaterialCodes();
   }
 
   /**
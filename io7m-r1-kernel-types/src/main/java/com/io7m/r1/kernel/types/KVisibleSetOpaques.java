@@ -16,7 +16,6 @@
 
 package com.io7m.r1.kernel.types;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -47,15 +46,14 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
     private final boolean                                                 done;
     private final Map<String, KVisibleSetLightGroupBuilderWithCreateType> group_builders;
     private final KVisibleSetShadowsBuilderWithCreateType                 shadows;
-    private final Map<String, List<KInstanceOpaqueType>>                  unlit_by_material;
+    private final KInstancesByCode                                        unlit_by_material;
     private final Set<KInstanceOpaqueType>                                visible;
 
     Builder(
       final KCamera in_camera,
       final KVisibleSetShadowsBuilderWithCreateType in_shadows)
     {
-      this.unlit_by_material =
-        new HashMap<String, List<KInstanceOpaqueType>>();
+      this.unlit_by_material = KInstancesByCode.newGroups();
       this.group_builders =
         new HashMap<String, KVisibleSetLightGroupBuilderWithCreateType>();
       this.visible = new HashSet<KInstanceOpaqueType>();
@@ -87,17 +85,9 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
         throw new RExceptionInstanceAlreadyVisible(ss);
       }
 
-      List<KInstanceOpaqueType> instances;
-      final String code = KVisibleSet.getOpaqueMaterialUnlitCode(instance);
-      if (this.unlit_by_material.containsKey(code)) {
-        instances = this.unlit_by_material.get(code);
-      } else {
-        instances = new ArrayList<KInstanceOpaqueType>();
-      }
-
-      instances.add(instance);
+      final int code = KVisibleSet.getOpaqueMaterialUnlitCode(instance);
+      this.unlit_by_material.add(code, instance);
       this.visible.add(instance);
-      this.unlit_by_material.put(code, instances);
     }
 
     @SuppressWarnings("synthetic-access") @Override public
@@ -179,25 +169,21 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
     return new Builder(in_camera, in_shadows);
   }
 
-  private final KCamera                                camera;
-  private final Set<String>                            group_names;
-  private final Map<String, KVisibleSetLightGroup>     groups;
-  private final KVisibleSetShadows                     shadows;
-  private final Map<String, List<KInstanceOpaqueType>> unlit_by_material;
-  private final Set<String>                            unlit_codes;
+  private final KCamera                            camera;
+  private final Set<String>                        group_names;
+  private final Map<String, KVisibleSetLightGroup> groups;
+  private final KVisibleSetShadows                 shadows;
+  private final KInstancesByCode                   unlit_by_material;
 
-  private KVisibleSetOpaques(
+  KVisibleSetOpaques(
     final KCamera in_camera,
     final KVisibleSetShadows in_shadows,
-    final Map<String, List<KInstanceOpaqueType>> in_unlit_by_material,
+    final KInstancesByCode in_unlit_by_material,
     final Map<String, KVisibleSetLightGroup> in_groups)
   {
     this.shadows = NullCheck.notNull(in_shadows, "Shadows");
     this.unlit_by_material = NullCheck.notNull(in_unlit_by_material, "Unlit");
     this.groups = NullCheck.notNull(in_groups, "Groups");
-    this.unlit_codes =
-      NullCheck.notNull(Collections.unmodifiableSet(in_unlit_by_material
-        .keySet()));
     this.group_names =
       NullCheck.notNull(Collections.unmodifiableSet(this.groups.keySet()));
     this.camera = NullCheck.notNull(in_camera, "Camera");
@@ -260,19 +246,20 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
    *           If the code does not exist
    */
 
-  @SuppressWarnings("null") public
-    List<KInstanceOpaqueType>
-    getUnlitInstancesByCode(
-      final String code)
-      throws RExceptionMaterialNonexistent
+  public List<KInstanceOpaqueType> getUnlitInstancesByCode(
+    final String code)
+    throws RExceptionMaterialNonexistent
   {
-    NullCheck.notNull(code, "Code");
-    if (this.unlit_by_material.containsKey(code)) {
-      return this.unlit_by_material.get(code);
-    }
-    throw new RExceptionMaterialNonexistent(String.format(
-      "Material %s does not exist",
-      code));
+    return this.unlit_by_material.getInstancesForMaterial(code);
+  }
+
+  /**
+   * @return The unlit instances, grouped by material code
+   */
+
+  public KInstancesByCode getUnlitInstances()
+  {
+    return this.unlit_by_material;
   }
 
   /**
@@ -281,6 +268,19 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
 
   public Set<String> getUnlitMaterialCodes()
   {
-    return this.unlit_codes;
+    return this.unlit_by_material.getMaterialCodes();
+  }
+
+  /**
+   * Sort the instances of each light group and the unlit instances in place.
+   */
+
+  void sortInstances(
+    final KInstanceSorter s)
+  {
+    for (final KVisibleSetLightGroup g : this.groups.values()) {
+      s.sortGroups(g.getInstancesByCode(), true);
+    }
+    s.sortGroups(this.unlit_by_material, true);
   }
 }
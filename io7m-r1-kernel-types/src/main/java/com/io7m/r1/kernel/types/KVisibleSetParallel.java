@@ -0,0 +1,455 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
+import com.io7m.r1.exceptions.RExceptionInstanceAlreadyVisible;
+import com.io7m.r1.exceptions.RExceptionLightGroupAlreadyAdded;
+
+/**
+ * Functions for constructing visible sets from multiple threads.
+ *
+ * @see KVisibleSetParallelBuilderType
+ */
+
+@EqualityReference public final class KVisibleSetParallel
+{
+  @EqualityReference private static final class Builder implements
+    KVisibleSetParallelBuilderType
+  {
+    private final KCamera                        camera;
+    private volatile boolean                     done;
+    private final List<Partition>                partitions;
+    private final OptionType<KInstanceSortOrder> sort_order;
+    private final OptionType<KTranslucentSorter> translucent_sorter;
+    private final Set<KInstanceOpaqueType>       visible;
+
+    Builder(
+      final KCamera in_camera,
+      final OptionType<KInstanceSortOrder> in_sort_order,
+      final OptionType<KTranslucentSorter> in_translucent_sorter,
+      final int in_count)
+    {
+      this.camera = NullCheck.notNull(in_camera, "Camera");
+      this.sort_order = NullCheck.notNull(in_sort_order, "Sort order");
+      this.translucent_sorter =
+        NullCheck.notNull(in_translucent_sorter, "Translucent sorter");
+      RangeCheck.checkGreaterEqual(in_count, "Partitions", 1, "Minimum");
+
+      this.visible =
+        NullCheck.notNull(Collections
+          .newSetFromMap(new ConcurrentHashMap<KInstanceOpaqueType, Boolean>()));
+      this.partitions = new ArrayList<Partition>(in_count);
+      for (int index = 0; index < in_count; ++index) {
+        this.partitions.add(new Partition(this));
+      }
+      this.done = false;
+    }
+
+    private void checkValid()
+      throws RExceptionBuilderInvalid
+    {
+      if (this.done == true) {
+        throw new RExceptionBuilderInvalid("Builder has been invalidated");
+      }
+    }
+
+    /**
+     * Mark the given instance as visible. The set of visible instances is
+     * shared by all partitions, so an instance added to two partitions is
+     * rejected by whichever partition adds it second.
+     */
+
+    void checkVisible(
+      final KInstanceOpaqueType instance)
+      throws RExceptionInstanceAlreadyVisible
+    {
+      if (this.visible.add(instance) == false) {
+        final String ss =
+          String.format("Instance %s is already visible", instance);
+        assert ss != null;
+        throw new RExceptionInstanceAlreadyVisible(ss);
+      }
+    }
+
+    @SuppressWarnings("synthetic-access") @Override public
+      KVisibleSet
+      visibleCreate()
+        throws RException
+    {
+      this.checkValid();
+      this.done = true;
+
+      final int count = this.partitions.size();
+
+      /**
+       * The partitions have already grouped their instances by material
+       * code, so merging only concatenates the groups of each partition
+       * onto those of the first partition that used the same key.
+       */
+
+      final Map<KLightWithShadowType, KInstancesByCode> shadows =
+        new HashMap<KLightWithShadowType, KInstancesByCode>();
+      final KInstancesByCode unlit = KInstancesByCode.newGroups();
+      final Map<String, KInstancesByCode> group_instances =
+        new LinkedHashMap<String, KInstancesByCode>();
+      final Map<String, Set<KLightType>> group_lights =
+        new HashMap<String, Set<KLightType>>();
+
+      for (int index = 0; index < count; ++index) {
+        final Partition p = this.partitions.get(index);
+        assert p != null;
+
+        for (final KLightWithShadowType light : p.shadows.keySet()) {
+          assert light != null;
+          final KInstancesByCode casters = p.shadows.get(light);
+          assert casters != null;
+          final KInstancesByCode existing = shadows.get(light);
+          if (existing == null) {
+            shadows.put(light, casters);
+          } else {
+            existing.addAll(casters);
+          }
+        }
+
+        unlit.addAll(p.unlit);
+
+        for (final String name : p.groups.keySet()) {
+          assert name != null;
+          final PartitionGroup pg = p.groups.get(name);
+          assert pg != null;
+
+          final KInstancesByCode existing = group_instances.get(name);
+          if (existing == null) {
+            group_instances.put(name, pg.by_material);
+            group_lights.put(name, pg.lights);
+          } else {
+            existing.addAll(pg.by_material);
+            final Set<KLightType> lights = group_lights.get(name);
+            assert lights != null;
+            lights.addAll(pg.lights);
+          }
+        }
+      }
+
+      final Map<String, KVisibleSetLightGroup> groups =
+        new HashMap<String, KVisibleSetLightGroup>();
+      for (final String name : group_instances.keySet()) {
+        assert name != null;
+        final KInstancesByCode by_material = group_instances.get(name);
+        assert by_material != null;
+        final Set<KLightType> lights = group_lights.get(name);
+        assert lights != null;
+        groups.put(name, new KVisibleSetLightGroup(name, by_material, lights));
+      }
+
+      final KVisibleSetOpaques opaques =
+        new KVisibleSetOpaques(
+          this.camera,
+          new KVisibleSetShadows(shadows),
+          unlit,
+          groups);
+
+      /**
+       * Translucent instances, in partition order.
+       */
+
+      final KVisibleSetTranslucentsBuilderWithCreateType tb =
+        KVisibleSet.newTranslucentsBuilder(
+          this.camera,
+          this.translucent_sorter);
+
+      for (int index = 0; index < count; ++index) {
+        final Partition p = this.partitions.get(index);
+        assert p != null;
+        for (int ti = 0; ti < p.translucents.size(); ++ti) {
+          final KInstanceTranslucentType i = p.translucents.get(ti);
+          final Set<KLightTranslucentType> lights =
+            p.translucent_lights.get(ti);
+          if (lights != null) {
+            tb.visibleTranslucentsAddLit(
+              (KInstanceTranslucentLitType) i,
+              lights);
+          } else {
+            tb.visibleTranslucentsAddUnlit((KInstanceTranslucentUnlitType) i);
+          }
+        }
+      }
+
+      return KVisibleSet.newSet(
+        this.camera,
+        this.sort_order,
+        opaques,
+        tb.visibleTranslucentsCreate());
+    }
+
+    @Override public KVisibleSetBuilderType visibleGetPartition(
+      final int index)
+      throws RExceptionBuilderInvalid
+    {
+      this.checkValid();
+      RangeCheck.checkGreaterEqual(index, "Index", 0, "Minimum index");
+      RangeCheck.checkLess(
+        index,
+        "Index",
+        this.partitions.size(),
+        "Partition count");
+      return NullCheck.notNull(this.partitions.get(index));
+    }
+
+    @Override public int visibleGetPartitionCount()
+    {
+      return this.partitions.size();
+    }
+  }
+
+  /**
+   * A single partition. Opaque instances and shadow casters are grouped by
+   * material code as they are added, in the thread that fills the partition.
+   * Translucent instances are recorded for insertion into the final set.
+   */
+
+  @EqualityReference private static final class Partition implements
+    KVisibleSetBuilderType
+  {
+    private final Map<String, PartitionGroup>                 groups;
+    private final Builder                                     owner;
+    private final Map<KLightWithShadowType, KInstancesByCode> shadows;
+    private final List<Set<KLightTranslucentType>>            translucent_lights;
+    private final List<KInstanceTranslucentType>              translucents;
+    private final KInstancesByCode                            unlit;
+
+    Partition(
+      final Builder in_owner)
+    {
+      this.owner = NullCheck.notNull(in_owner, "Owner");
+      this.groups = new LinkedHashMap<String, PartitionGroup>();
+      this.shadows = new LinkedHashMap<KLightWithShadowType, KInstancesByCode>();
+      this.translucent_lights = new ArrayList<Set<KLightTranslucentType>>();
+      this.translucents = new ArrayList<KInstanceTranslucentType>();
+      this.unlit = KInstancesByCode.newGroups();
+    }
+
+    KInstancesByCode shadowsGet(
+      final KLightWithShadowType light)
+    {
+      final KInstancesByCode existing = this.shadows.get(light);
+      if (existing != null) {
+        return existing;
+      }
+
+      final KInstancesByCode by_material = KInstancesByCode.newGroups();
+      this.shadows.put(light, by_material);
+      return by_material;
+    }
+
+    @Override public void visibleOpaqueAddUnlit(
+      final KInstanceOpaqueType instance)
+      throws RExceptionBuilderInvalid,
+        RExceptionInstanceAlreadyVisible
+    {
+      NullCheck.notNull(instance, "Instance");
+      this.owner.checkValid();
+      this.owner.checkVisible(instance);
+
+      final int code = KVisibleSet.getOpaqueMaterialUnlitCode(instance);
+      this.unlit.add(code, instance);
+    }
+
+    @Override public
+      KVisibleSetLightGroupBuilderType
+      visibleOpaqueNewLightGroup(
+        final String name)
+        throws RExceptionLightGroupAlreadyAdded,
+          RExceptionBuilderInvalid
+    {
+      NullCheck.notNull(name, "Name");
+      this.owner.checkValid();
+
+      if (this.groups.containsKey(name)) {
+        final String s = String.format("Group %s already exists", name);
+        assert s != null;
+        throw new RExceptionLightGroupAlreadyAdded(s);
+      }
+
+      final PartitionGroup g = new PartitionGroup(this);
+      this.groups.put(name, g);
+      return g;
+    }
+
+    @Override public void visibleShadowsAddCaster(
+      final KLightWithShadowType light,
+      final KInstanceOpaqueType instance)
+      throws RExceptionBuilderInvalid
+    {
+      NullCheck.notNull(light, "Light");
+      NullCheck.notNull(instance, "Instance");
+      this.owner.checkValid();
+
+      final int code = KVisibleSet.getOpaqueMaterialDepthCode(instance);
+      this.shadowsGet(light).add(code, instance);
+    }
+
+    @Override public void visibleShadowsAddLight(
+      final KLightWithShadowType light)
+      throws RExceptionBuilderInvalid
+    {
+      NullCheck.notNull(light, "Light");
+      this.owner.checkValid();
+      this.shadowsGet(light);
+    }
+
+    @Override public void visibleTranslucentsAddLit(
+      final KInstanceTranslucentLitType instance,
+      final Set<KLightTranslucentType> lights)
+      throws RExceptionBuilderInvalid
+    {
+      NullCheck.notNull(instance, "Instance");
+      NullCheck.notNull(lights, "Lights");
+      this.owner.checkValid();
+      this.translucents.add(instance);
+      this.translucent_lights.add(lights);
+    }
+
+    @Override public void visibleTranslucentsAddUnlit(
+      final KInstanceTranslucentUnlitType instance)
+      throws RExceptionBuilderInvalid
+    {
+      NullCheck.notNull(instance, "Instance");
+      this.owner.checkValid();
+      this.translucents.add(instance);
+      this.translucent_lights.add(null);
+    }
+  }
+
+  /**
+   * A light group within a single partition.
+   */
+
+  @EqualityReference private static final class PartitionGroup implements
+    KVisibleSetLightGroupBuilderType
+  {
+    private final KInstancesByCode by_material;
+    private final Set<KLightType>  lights;
+    private final Partition        partition;
+
+    PartitionGroup(
+      final Partition in_partition)
+    {
+      this.partition = NullCheck.notNull(in_partition, "Partition");
+      this.by_material = KInstancesByCode.newGroups();
+      this.lights = new HashSet<KLightType>();
+    }
+
+    @Override public void groupAddInstance(
+      final KInstanceOpaqueType instance)
+      throws RExceptionBuilderInvalid,
+        RExceptionInstanceAlreadyVisible
+    {
+      NullCheck.notNull(instance, "Instance");
+      this.partition.owner.checkValid();
+      this.partition.owner.checkVisible(instance);
+
+      final int code = KVisibleSet.getOpaqueMaterialLitCode(instance);
+      this.by_material.add(code, instance);
+    }
+
+    @Override public void groupAddLight(
+      final KLightType light)
+      throws RExceptionBuilderInvalid
+    {
+      NullCheck.notNull(light, "Light");
+      this.partition.owner.checkValid();
+      this.lights.add(light);
+
+      if (light instanceof KLightWithShadowType) {
+        this.partition.shadowsGet((KLightWithShadowType) light);
+      }
+    }
+  }
+
+  /**
+   * Construct a new parallel builder that does not sort instances.
+   *
+   * @param in_camera
+   *          The camera for the visible set
+   * @param in_partitions
+   *          The number of partitions (typically the number of threads)
+   * @return A new parallel builder
+   */
+
+  public static KVisibleSetParallelBuilderType newBuilder(
+    final KCamera in_camera,
+    final int in_partitions)
+  {
+    final OptionType<KInstanceSortOrder> none = Option.none();
+    final OptionType<KTranslucentSorter> no_sorter = Option.none();
+    return new Builder(in_camera, none, no_sorter, in_partitions);
+  }
+
+  /**
+   * Construct a new parallel builder that, when the set is created, sorts
+   * instances in the same manner as
+   * {@link KVisibleSet#newBuilderWithSorting(KCamera, OptionType, OptionType)}
+   * .
+   *
+   * @param in_camera
+   *          The camera for the visible set
+   * @param in_order
+   *          The sort order for opaque instances, if any
+   * @param in_translucent_sorter
+   *          The sorter for translucent instances, if any
+   * @param in_partitions
+   *          The number of partitions (typically the number of threads)
+   * @return A new parallel builder
+   */
+
+  public static KVisibleSetParallelBuilderType newBuilderWithSorting(
+    final KCamera in_camera,
+    final OptionType<KInstanceSortOrder> in_order,
+    final OptionType<KTranslucentSorter> in_translucent_sorter,
+    final int in_partitions)
+  {
+    return new Builder(
+      in_camera,
+      in_order,
+      in_translucent_sorter,
+      in_partitions);
+  }
+
+  private KVisibleSetParallel()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
+
+/**
+ * <p>
+ * The type of builders that construct a {@link KVisibleSet} from a number of
+ * independent partitions.
+ * </p>
+ * <p>
+ * Each partition is a {@link KVisibleSetBuilderType} that may be filled by a
+ * different thread. A single partition must not be used by more than one
+ * thread at a time. When all partitions have been filled, the partitions are
+ * merged in order of their indices into a single visible set. Translucent
+ * instances appear in the resulting set in partition order and, within a
+ * partition, in order of insertion. The result therefore does not depend on
+ * the order in which threads finished.
+ * </p>
+ * <p>
+ * Light groups with the same name in different partitions denote the same
+ * group: their lights and instances are combined when merging. Adding the
+ * same opaque instance to more than one partition (or more than once to one
+ * partition) raises <code>RExceptionInstanceAlreadyVisible</code>, exactly as
+ * with a single-threaded builder. The error is raised by whichever partition
+ * adds the instance second.
+ * </p>
+ * <p>
+ * Opaque instances and shadow casters are grouped by material within each
+ * partition as they are added, so the grouping work is done by the threads
+ * filling the partitions. Merging concatenates the groups of each partition
+ * and therefore costs time proportional to the number of groups, not the
+ * number of opaque instances.
+ * </p>
+ */
+
+public interface KVisibleSetParallelBuilderType
+{
+  /**
+   * Merge all partitions and construct a {@link KVisibleSet}. This function
+   * must only be called once all threads have finished using the partitions.
+   *
+   * @return A newly constructed visible set
+   * @throws RException
+   *           If the builder has been invalidated, or if creating the visible
+   *           set raises an error.
+   */
+
+  KVisibleSet visibleCreate()
+    throws RException;
+
+  /**
+   * @param index
+   *          The partition index, in the range
+   *          <code>[0, visibleGetPartitionCount())</code>
+   * @return The partition with the given index
+   * @throws RExceptionBuilderInvalid
+   *           If the builder has been invalidated.
+   */
+
+  KVisibleSetBuilderType visibleGetPartition(
+    final int index)
+    throws RExceptionBuilderInvalid;
+
+  /**
+   * @return The number of partitions
+   */
+
+  int visibleGetPartitionCount();
+}
@@ -0,0 +1,743 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel.types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.r1.exceptions.RExceptionInstanceAlreadyVisible;
+import com.io7m.r1.exceptions.RExceptionLightGroupAlreadyAdded;
+import com.io7m.r1.exceptions.RExceptionLightGroupNonexistent;
+
+/**
+ * <p>
+ * A mutable, retained-mode visible set.
+ * </p>
+ * <p>
+ * Unlike the builders returned by {@link KVisibleSet#newBuilder(KCamera)},
+ * which must be populated from scratch every frame, a retained visible set
+ * persists between frames and is updated incrementally by adding, removing,
+ * and replacing instances, lights, and light groups. An immutable
+ * {@link KVisibleSet} suitable for passing to the existing renderers is
+ * obtained with {@link #visibleSnapshot()}.
+ * </p>
+ * <p>
+ * Snapshots share structure: only the light groups, unlit instances, shadow
+ * casters, and translucent instances that have actually changed since the
+ * previous snapshot are rebuilt. If nothing at all has changed, the previous
+ * snapshot is returned as-is.
+ * </p>
+ */
+
+@EqualityReference public final class KVisibleSetRetained
+{
+  @EqualityReference private static final class Group
+  {
+    private final Set<KInstanceOpaqueType>  instances;
+    private final Set<KLightType>           lights;
+    private final String                    name;
+    private @Nullable KVisibleSetLightGroup snapshot;
+
+    Group(
+      final String in_name)
+    {
+      this.name = NullCheck.notNull(in_name, "Name");
+      this.instances = new LinkedHashSet<KInstanceOpaqueType>();
+      this.lights = new LinkedHashSet<KLightType>();
+    }
+
+    Set<KInstanceOpaqueType> getInstances()
+    {
+      return this.instances;
+    }
+
+    Set<KLightType> getLights()
+    {
+      return this.lights;
+    }
+
+    KVisibleSetLightGroup getSnapshot()
+    {
+      final KVisibleSetLightGroup s = this.snapshot;
+      if (s != null) {
+        return s;
+      }
+
+      final KInstancesByCode by_code = KInstancesByCode.newGroups();
+      for (final KInstanceOpaqueType i : this.instances) {
+        assert i != null;
+        by_code.add(KVisibleSet.getOpaqueMaterialLitCode(i), i);
+      }
+
+      final KVisibleSetLightGroup r =
+        new KVisibleSetLightGroup(
+          this.name,
+          by_code,
+          new HashSet<KLightType>(this.lights));
+      this.snapshot = r;
+      return r;
+    }
+
+    void invalidate()
+    {
+      this.snapshot = null;
+    }
+  }
+
+  /**
+   * Construct a new, empty, retained visible set.
+   *
+   * @param in_camera
+   *          The initial camera
+   * @return A new retained visible set
+   */
+
+  public static KVisibleSetRetained newRetained(
+    final KCamera in_camera)
+  {
+    return new KVisibleSetRetained(in_camera);
+  }
+
+  private KCamera                                                   camera;
+  private final Map<KLightWithShadowType, Set<KInstanceOpaqueType>> casters;
+  private final Map<String, Group>                                  groups;
+  private final Map<KInstanceOpaqueType, Group>                     owners;
+  private @Nullable KVisibleSetShadows                              shadows_snapshot;
+  private @Nullable KVisibleSet                                     snapshot;
+  private final Map<KInstanceTranslucentType, KTranslucentType>     translucents;
+  private @Nullable List<KTranslucentType>                          translucents_snapshot;
+  private final Set<KInstanceOpaqueType>                            unlit;
+  private @Nullable KInstancesByCode                                unlit_snapshot;
+  private long                                                      version;
+
+  private KVisibleSetRetained(
+    final KCamera in_camera)
+  {
+    this.camera = NullCheck.notNull(in_camera, "Camera");
+    this.casters =
+      new LinkedHashMap<KLightWithShadowType, Set<KInstanceOpaqueType>>();
+    this.groups = new LinkedHashMap<String, Group>();
+    this.owners = new HashMap<KInstanceOpaqueType, Group>();
+    this.translucents =
+      new LinkedHashMap<KInstanceTranslucentType, KTranslucentType>();
+    this.unlit = new LinkedHashSet<KInstanceOpaqueType>();
+    this.version = 0;
+  }
+
+  private void checkNotVisible(
+    final KInstanceOpaqueType instance)
+    throws RExceptionInstanceAlreadyVisible
+  {
+    if (this.isOpaqueVisible(instance)) {
+      final String ss =
+        String.format("Instance %s is already visible", instance);
+      assert ss != null;
+      throw new RExceptionInstanceAlreadyVisible(ss);
+    }
+  }
+
+  private Group getGroup(
+    final String name)
+    throws RExceptionLightGroupNonexistent
+  {
+    final Group g = this.groups.get(NullCheck.notNull(name, "Name"));
+    if (g != null) {
+      return g;
+    }
+
+    final String s = String.format("Light group %s does not exist", name);
+    assert s != null;
+    throw new RExceptionLightGroupNonexistent(s);
+  }
+
+  private KVisibleSetShadows getShadowsSnapshot()
+  {
+    final KVisibleSetShadows s = this.shadows_snapshot;
+    if (s != null) {
+      return s;
+    }
+
+    final Map<KLightWithShadowType, KInstancesByCode> m =
+      new HashMap<KLightWithShadowType, KInstancesByCode>();
+
+    for (final KLightWithShadowType light : this.casters.keySet()) {
+      final KInstancesByCode by_code = KInstancesByCode.newGroups();
+      for (final KInstanceOpaqueType i : this.casters.get(light)) {
+        assert i != null;
+        by_code.add(KVisibleSet.getOpaqueMaterialDepthCode(i), i);
+      }
+      m.put(light, by_code);
+    }
+
+    /**
+     * Shadow-casting lights in light groups are always present in the
+     * shadow set, as with {@link KVisibleSetLightGroupBuilderType}.
+     */
+
+    for (final Group g : this.groups.values()) {
+      for (final KLightType light : g.getLights()) {
+        if (light instanceof KLightWithShadowType) {
+          final KLightWithShadowType ls = (KLightWithShadowType) light;
+          if (m.containsKey(ls) == false) {
+            m.put(ls, KInstancesByCode.newGroups());
+          }
+        }
+      }
+    }
+
+    final KVisibleSetShadows r = new KVisibleSetShadows(m);
+    this.shadows_snapshot = r;
+    return r;
+  }
+
+  private List<KTranslucentType> getTranslucentsSnapshot()
+  {
+    final List<KTranslucentType> s = this.translucents_snapshot;
+    if (s != null) {
+      return s;
+    }
+
+    final List<KTranslucentType> r =
+      new ArrayList<KTranslucentType>(this.translucents.values());
+    this.translucents_snapshot = r;
+    return r;
+  }
+
+  private KInstancesByCode getUnlitSnapshot()
+  {
+    final KInstancesByCode s = this.unlit_snapshot;
+    if (s != null) {
+      return s;
+    }
+
+    final KInstancesByCode r = KInstancesByCode.newGroups();
+    for (final KInstanceOpaqueType i : this.unlit) {
+      assert i != null;
+      r.add(KVisibleSet.getOpaqueMaterialUnlitCode(i), i);
+    }
+    this.unlit_snapshot = r;
+    return r;
+  }
+
+  private void invalidate()
+  {
+    this.snapshot = null;
+  }
+
+  private void invalidateShadows()
+  {
+    this.shadows_snapshot = null;
+    this.invalidate();
+  }
+
+  private void invalidateTranslucents()
+  {
+    this.translucents_snapshot = null;
+    this.invalidate();
+  }
+
+  private void invalidateUnlit()
+  {
+    this.unlit_snapshot = null;
+    this.invalidate();
+  }
+
+  /**
+   * @return The current camera
+   */
+
+  public KCamera cameraGet()
+  {
+    return this.camera;
+  }
+
+  /**
+   * Set the camera for subsequent snapshots.
+   *
+   * @param in_camera
+   *          The camera
+   */
+
+  public void cameraSet(
+    final KCamera in_camera)
+  {
+    NullCheck.notNull(in_camera, "Camera");
+    if (this.camera.equals(in_camera) == false) {
+      this.camera = in_camera;
+      this.invalidate();
+    }
+  }
+
+  /**
+   * Add the given instance to the given light group.
+   *
+   * @param name
+   *          The group name
+   * @param instance
+   *          The instance
+   * @throws RExceptionLightGroupNonexistent
+   *           If the group does not exist
+   * @throws RExceptionInstanceAlreadyVisible
+   *           If the instance is already visible
+   */
+
+  public void groupAddInstance(
+    final String name,
+    final KInstanceOpaqueType instance)
+    throws RExceptionLightGroupNonexistent,
+      RExceptionInstanceAlreadyVisible
+  {
+    NullCheck.notNull(instance, "Instance");
+    final Group g = this.getGroup(name);
+    this.checkNotVisible(instance);
+
+    g.getInstances().add(instance);
+    g.invalidate();
+    this.owners.put(instance, g);
+    this.invalidate();
+  }
+
+  /**
+   * Add the given light to the given light group. If the light casts
+   * shadows, it is also added to the set of shadow-casting lights.
+   *
+   * @param name
+   *          The group name
+   * @param light
+   *          The light
+   * @throws RExceptionLightGroupNonexistent
+   *           If the group does not exist
+   */
+
+  public void groupAddLight(
+    final String name,
+    final KLightType light)
+    throws RExceptionLightGroupNonexistent
+  {
+    NullCheck.notNull(light, "Light");
+    final Group g = this.getGroup(name);
+
+    if (g.getLights().add(light)) {
+      g.invalidate();
+      if (light instanceof KLightWithShadowType) {
+        this.invalidateShadows();
+      } else {
+        this.invalidate();
+      }
+    }
+  }
+
+  /**
+   * Create a new, empty, light group.
+   *
+   * @param name
+   *          The group name
+   * @throws RExceptionLightGroupAlreadyAdded
+   *           If a group with the given name already exists
+   */
+
+  public void groupCreate(
+    final String name)
+    throws RExceptionLightGroupAlreadyAdded
+  {
+    NullCheck.notNull(name, "Name");
+    if (this.groups.containsKey(name)) {
+      final String s = String.format("Group %s already exists", name);
+      assert s != null;
+      throw new RExceptionLightGroupAlreadyAdded(s);
+    }
+
+    this.groups.put(name, new Group(name));
+    this.invalidate();
+  }
+
+  /**
+   * Remove the given light group, and all of the instances within it.
+   *
+   * @param name
+   *          The group name
+   * @throws RExceptionLightGroupNonexistent
+   *           If the group does not exist
+   */
+
+  public void groupRemove(
+    final String name)
+    throws RExceptionLightGroupNonexistent
+  {
+    final Group g = this.getGroup(name);
+    for (final KInstanceOpaqueType i : g.getInstances()) {
+      this.owners.remove(i);
+    }
+    this.groups.remove(name);
+    this.invalidateShadows();
+  }
+
+  /**
+   * Remove the given light from the given light group. Has no effect if the
+   * light is not in the group.
+   *
+   * @param name
+   *          The group name
+   * @param light
+   *          The light
+   * @throws RExceptionLightGroupNonexistent
+   *           If the group does not exist
+   */
+
+  public void groupRemoveLight(
+    final String name,
+    final KLightType light)
+    throws RExceptionLightGroupNonexistent
+  {
+    NullCheck.notNull(light, "Light");
+    final Group g = this.getGroup(name);
+
+    if (g.getLights().remove(light)) {
+      g.invalidate();
+      if (light instanceof KLightWithShadowType) {
+        this.invalidateShadows();
+      } else {
+        this.invalidate();
+      }
+    }
+  }
+
+  /**
+   * @param instance
+   *          The instance
+   * @return <code>true</code> iff the given instance is currently visible,
+   *         either as an unlit instance or as a member of a light group
+   */
+
+  public boolean isOpaqueVisible(
+    final KInstanceOpaqueType instance)
+  {
+    NullCheck.notNull(instance, "Instance");
+    return this.unlit.contains(instance) || this.owners.containsKey(instance);
+  }
+
+  /**
+   * Add the given instance as an unlit instance.
+   *
+   * @param instance
+   *          The instance
+   * @throws RExceptionInstanceAlreadyVisible
+   *           If the instance is already visible
+   */
+
+  public void opaqueAddUnlit(
+    final KInstanceOpaqueType instance)
+    throws RExceptionInstanceAlreadyVisible
+  {
+    NullCheck.notNull(instance, "Instance");
+    this.checkNotVisible(instance);
+    this.unlit.add(instance);
+    this.invalidateUnlit();
+  }
+
+  /**
+   * Remove the given opaque instance, whether it is unlit or a member of a
+   * light group. Has no effect if the instance is not visible. Shadow casters
+   * are not affected.
+   *
+   * @param instance
+   *          The instance
+   */
+
+  public void opaqueRemove(
+    final KInstanceOpaqueType instance)
+  {
+    NullCheck.notNull(instance, "Instance");
+
+    if (this.unlit.remove(instance)) {
+      this.invalidateUnlit();
+      return;
+    }
+
+    final Group g = this.owners.remove(instance);
+    if (g != null) {
+      g.getInstances().remove(instance);
+      g.invalidate();
+      this.invalidate();
+    }
+  }
+
+  /**
+   * Replace the opaque instance <code>current</code> with
+   * <code>replacement</code>, preserving its light group membership and any
+   * shadow casting relationships. This is typically used when an instance
+   * has been moved or has had its material changed. Has no effect if
+   * <code>current</code> is not visible and is not a shadow caster.
+   *
+   * @param current
+   *          The current instance
+   * @param replacement
+   *          The replacement instance
+   * @throws RExceptionInstanceAlreadyVisible
+   *           If <code>replacement</code> is already visible
+   */
+
+  public void opaqueReplace(
+    final KInstanceOpaqueType current,
+    final KInstanceOpaqueType replacement)
+    throws RExceptionInstanceAlreadyVisible
+  {
+    NullCheck.notNull(current, "Current");
+    NullCheck.notNull(replacement, "Replacement");
+
+    if (current.equals(replacement)) {
+      return;
+    }
+
+    this.checkNotVisible(replacement);
+
+    if (this.unlit.remove(current)) {
+      this.unlit.add(replacement);
+      this.invalidateUnlit();
+    } else {
+      final Group g = this.owners.remove(current);
+      if (g != null) {
+        g.getInstances().remove(current);
+        g.getInstances().add(replacement);
+        g.invalidate();
+        this.owners.put(replacement, g);
+        this.invalidate();
+      }
+    }
+
+    for (final Set<KInstanceOpaqueType> cs : this.casters.values()) {
+      if (cs.remove(current)) {
+        cs.add(replacement);
+        this.invalidateShadows();
+      }
+    }
+  }
+
+  /**
+   * Add the given instance as a shadow caster for the given light, adding
+   * the light if it is not already present.
+   *
+   * @param light
+   *          The light
+   * @param instance
+   *          The instance
+   */
+
+  public void shadowsAddCaster(
+    final KLightWithShadowType light,
+    final KInstanceOpaqueType instance)
+  {
+    NullCheck.notNull(light, "Light");
+    NullCheck.notNull(instance, "Instance");
+
+    Set<KInstanceOpaqueType> cs = this.casters.get(light);
+    if (cs == null) {
+      cs = new LinkedHashSet<KInstanceOpaqueType>();
+      this.casters.put(light, cs);
+    }
+    if (cs.add(instance)) {
+      this.invalidateShadows();
+    }
+  }
+
+  /**
+   * Add the given shadow-casting light.
+   *
+   * @param light
+   *          The light
+   */
+
+  public void shadowsAddLight(
+    final KLightWithShadowType light)
+  {
+    NullCheck.notNull(light, "Light");
+
+    if (this.casters.containsKey(light) == false) {
+      this.casters.put(light, new LinkedHashSet<KInstanceOpaqueType>());
+      this.invalidateShadows();
+    }
+  }
+
+  /**
+   * Remove the given instance as a shadow caster for the given light. Has no
+   * effect if the instance is not a shadow caster for the light.
+   *
+   * @param light
+   *          The light
+   * @param instance
+   *          The instance
+   */
+
+  public void shadowsRemoveCaster(
+    final KLightWithShadowType light,
+    final KInstanceOpaqueType instance)
+  {
+    NullCheck.notNull(light, "Light");
+    NullCheck.notNull(instance, "Instance");
+
+    final Set<KInstanceOpaqueType> cs = this.casters.get(light);
+    if ((cs != null) && cs.remove(instance)) {
+      this.invalidateShadows();
+    }
+  }
+
+  /**
+   * Remove the given shadow-casting light and all of its casters. The light
+   * will remain in the shadow set if it is still a member of a light group.
+   *
+   * @param light
+   *          The light
+   */
+
+  public void shadowsRemoveLight(
+    final KLightWithShadowType light)
+  {
+    NullCheck.notNull(light, "Light");
+
+    if (this.casters.remove(light) != null) {
+      this.invalidateShadows();
+    }
+  }
+
+  /**
+   * Add the given lit translucent instance. Translucent instances are
+   * rendered in insertion order. If the instance is already present, its
+   * lights are replaced and its position in the order is preserved.
+   *
+   * @param instance
+   *          The instance
+   * @param lights
+   *          The lights that affect the instance
+   */
+
+  public void translucentsAddLit(
+    final KInstanceTranslucentLitType instance,
+    final Set<KLightTranslucentType> lights)
+  {
+    NullCheck.notNull(instance, "Instance");
+    NullCheck.notNullAll(lights, "Lights");
+
+    this.translucents.put(
+      instance,
+      KVisibleSetTranslucents.makeLit(instance, lights));
+    this.invalidateTranslucents();
+  }
+
+  /**
+   * Add the given unlit translucent instance. Translucent instances are
+   * rendered in insertion order.
+   *
+   * @param instance
+   *          The instance
+   */
+
+  public void translucentsAddUnlit(
+    final KInstanceTranslucentUnlitType instance)
+  {
+    NullCheck.notNull(instance, "Instance");
+
+    if (this.translucents.containsKey(instance) == false) {
+      this.translucents.put(instance, instance);
+      this.invalidateTranslucents();
+    }
+  }
+
+  /**
+   * Remove all translucent instances.
+   */
+
+  public void translucentsClear()
+  {
+    if (this.translucents.isEmpty() == false) {
+      this.translucents.clear();
+      this.invalidateTranslucents();
+    }
+  }
+
+  /**
+   * Remove the given translucent instance. Has no effect if the instance is
+   * not present.
+   *
+   * @param instance
+   *          The instance
+   */
+
+  public void translucentsRemove(
+    final KInstanceTranslucentType instance)
+  {
+    NullCheck.notNull(instance, "Instance");
+
+    if (this.translucents.remove(instance) != null) {
+      this.invalidateTranslucents();
+    }
+  }
+
+  /**
+   * @return The number of distinct snapshots produced so far; this value
+   *         increases each time {@link #visibleSnapshot()} has to produce a
+   *         new snapshot
+   */
+
+  public long visibleGetVersion()
+  {
+    return this.version;
+  }
+
+  /**
+   * Produce an immutable visible set reflecting the current contents of the
+   * retained set. If nothing has changed since the last call, the previous
+   * snapshot is returned. Otherwise, only the parts of the set that have
+   * changed are rebuilt, and the rest are shared with the previous snapshot.
+   *
+   * @return An immutable visible set
+   */
+
+  public KVisibleSet visibleSnapshot()
+  {
+    final KVisibleSet s = this.snapshot;
+    if (s != null) {
+      return s;
+    }
+
+    final KVisibleSetShadows sh = this.getShadowsSnapshot();
+
+    final Map<String, KVisibleSetLightGroup> gs =
+      new HashMap<String, KVisibleSetLightGroup>(this.groups.size());
+    for (final String name : this.groups.keySet()) {
+      gs.put(name, this.groups.get(name).getSnapshot());
+    }
+
+    final KVisibleSetOpaques o =
+      new KVisibleSetOpaques(this.camera, sh, this.getUnlitSnapshot(), gs);
+    final KVisibleSetTranslucents t =
+      new KVisibleSetTranslucents(this.camera, this.getTranslucentsSnapshot());
+
+    final KVisibleSet r = new KVisibleSet(this.camera, o, sh, t);
+    this.snapshot = r;
+    this.version = this.version + 1;
+    return r;
+  }
+}
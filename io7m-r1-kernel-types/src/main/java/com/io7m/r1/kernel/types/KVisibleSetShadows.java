@@ -16,7 +16,6 @@
 
 package com.io7m.r1.kernel.types;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -38,13 +37,13 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
   @EqualityReference private static final class Builder implements
     KVisibleSetShadowsBuilderWithCreateType
   {
-    private final Map<KLightWithShadowType, Map<String, List<KInstanceOpaqueType>>> casters_by_light_material;
-    private boolean                                                                 done;
+    private final Map<KLightWithShadowType, KInstancesByCode> casters_by_light_material;
+    private boolean                                           done;
 
     Builder()
     {
       this.casters_by_light_material =
-        new HashMap<KLightWithShadowType, Map<String, List<KInstanceOpaqueType>>>();
+        new HashMap<KLightWithShadowType, KInstancesByCode>();
       this.done = false;
     }
 
@@ -56,6 +55,20 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
       }
     }
 
+    private KInstancesByCode getGroups(
+      final KLightWithShadowType light)
+    {
+      final KInstancesByCode existing =
+        this.casters_by_light_material.get(light);
+      if (existing != null) {
+        return existing;
+      }
+
+      final KInstancesByCode by_material = KInstancesByCode.newGroups();
+      this.casters_by_light_material.put(light, by_material);
+      return by_material;
+    }
+
     @Override public void visibleShadowsAddCaster(
       final KLightWithShadowType light,
       final KInstanceOpaqueType instance)
@@ -65,24 +78,8 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
       NullCheck.notNull(instance, "Instance");
       this.checkValid();
 
-      Map<String, List<KInstanceOpaqueType>> by_material;
-      if (this.casters_by_light_material.containsKey(light)) {
-        by_material = this.casters_by_light_material.get(light);
-      } else {
-        by_material = new HashMap<String, List<KInstanceOpaqueType>>();
-      }
-
-      final String code = KVisibleSet.getOpaqueMaterialDepthCode(instance);
-      List<KInstanceOpaqueType> instances;
-      if (by_material.containsKey(code)) {
-        instances = by_material.get(code);
-      } else {
-        instances = new ArrayList<KInstanceOpaqueType>();
-      }
-
-      instances.add(instance);
-      by_material.put(code, instances);
-      this.casters_by_light_material.put(light, by_material);
+      final int code = KVisibleSet.getOpaqueMaterialDepthCode(instance);
+      this.getGroups(light).add(code, instance);
     }
 
     @Override public void visibleShadowsAddLight(
@@ -91,15 +88,7 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
     {
       NullCheck.notNull(light, "Light");
       this.checkValid();
-
-      Map<String, List<KInstanceOpaqueType>> by_material;
-      if (this.casters_by_light_material.containsKey(light)) {
-        by_material = this.casters_by_light_material.get(light);
-      } else {
-        by_material = new HashMap<String, List<KInstanceOpaqueType>>();
-      }
-
-      this.casters_by_light_material.put(light, by_material);
+      this.getGroups(light);
     }
 
     @SuppressWarnings("synthetic-access") @Override public
@@ -122,11 +111,11 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
     return new Builder();
   }
 
-  private final Map<KLightWithShadowType, Map<String, List<KInstanceOpaqueType>>> light_material;
-  private final Set<KLightWithShadowType>                                         lights;
+  private final Map<KLightWithShadowType, KInstancesByCode> light_material;
+  private final Set<KLightWithShadowType>                   lights;
 
-  private KVisibleSetShadows(
-    final Map<KLightWithShadowType, Map<String, List<KInstanceOpaqueType>>> in_light_material)
+  KVisibleSetShadows(
+    final Map<KLightWithShadowType, KInstancesByCode> in_light_material)
   {
     this.light_material = NullCheck.notNull(in_light_material, "Instances");
     this.lights =
@@ -153,24 +142,8 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
     throws RExceptionMaterialNonexistent,
       RExceptionLightNonexistent
   {
-    NullCheck.notNull(in_light, "Light");
     NullCheck.notNull(code, "Material code");
-
-    if (this.light_material.containsKey(in_light)) {
-      final Map<String, List<KInstanceOpaqueType>> r =
-        this.light_material.get(in_light);
-      if (r.containsKey(code)) {
-        return NullCheck.notNull(r.get(code));
-      }
-
-      final String ss = String.format("Material %s does not exist", code);
-      assert ss != null;
-      throw new RExceptionMaterialNonexistent(ss);
-    }
-
-    final String ss = String.format("Light %s does not exist", in_light);
-    assert ss != null;
-    throw new RExceptionLightNonexistent(ss);
+    return this.getInstancesForLight(in_light).getInstancesForMaterial(code);
   }
 
   /**
@@ -187,33 +160,9 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
   {
     NullCheck.notNull(in_light, "Light");
 
-    final Map<KLightWithShadowType, Map<String, List<KInstanceOpaqueType>>> lm =
-      this.light_material;
-
-    if (lm.containsKey(in_light)) {
-      final Map<String, List<KInstanceOpaqueType>> r = lm.get(in_light);
-      final Set<String> ks =
-        NullCheck.notNull(Collections.unmodifiableSet(r.keySet()));
-
-      return new KDepthInstancesType() {
-        @Override public List<KInstanceOpaqueType> getInstancesForMaterial(
-          final String code)
-          throws RExceptionMaterialNonexistent
-        {
-          if (r.containsKey(NullCheck.notNull(code, "Code"))) {
-            return NullCheck.notNull(r.get(code));
-          }
-
-          final String ss = String.format("Material %s does not exist", code);
-          assert ss != null;
-          throw new RExceptionMaterialNonexistent(ss);
-        }
-
-        @Override public Set<String> getMaterialCodes()
-        {
-          return ks;
-        }
-      };
+    final KInstancesByCode r = this.light_material.get(in_light);
+    if (r != null) {
+      return r;
     }
 
     final String ss = String.format("Light %s does not exist", in_light);
@@ -238,19 +187,24 @@ import com.io7m.r1.exceptions.RExceptionMaterialNonexistent;
    *           If the given light is not present
    */
 
-  @SuppressWarnings("null") public Set<String> getMaterialsForLight(
+  public Set<String> getMaterialsForLight(
     final KLightWithShadowType in_light)
     throws RExceptionLightNonexistent
   {
-    NullCheck.notNull(in_light, "Light");
+    return this.getInstancesForLight(in_light).getMaterialCodes();
+  }
 
-    if (this.light_material.containsKey(in_light)) {
-      return NullCheck.notNull(Collections
-        .unmodifiableSet(this.light_material.get(in_light).keySet()));
-    }
+  /**
+   * Sort the shadow casters of each light in place. Casters are rendered
+   * from the point of view of their lights, not the camera, so the depth
+   * field of the sort key is not used.
+   */
 
-    throw new RExceptionLightNonexistent(String.format(
-      "Light %s does not exist",
-      in_light));
+  void sortInstances(
+    final KInstanceSorter s)
+  {
+    for (final KInstancesByCode g : this.light_material.values()) {
+      s.sortGroups(g, false);
+    }
   }
 }
@@ -22,6 +22,9 @@ import java.util.List;
 import java.util.Set;
 
 import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jnull.NullCheck;
 import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
@@ -36,16 +39,19 @@ import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
   @EqualityReference private static final class Builder implements
     KVisibleSetTranslucentsBuilderWithCreateType
   {
-    private final KCamera                camera;
-    private boolean                      done;
-    private final List<KTranslucentType> instances;
+    private final KCamera                        camera;
+    private boolean                              done;
+    private final List<KTranslucentType>         instances;
+    private final OptionType<KTranslucentSorter> sorter;
 
     Builder(
-      final KCamera in_camera)
+      final KCamera in_camera,
+      final OptionType<KTranslucentSorter> in_sorter)
     {
       this.instances = new ArrayList<KTranslucentType>();
       this.done = false;
       this.camera = NullCheck.notNull(in_camera, "Camera");
+      this.sorter = NullCheck.notNull(in_sorter, "Sorter");
     }
 
     private void checkValid()
@@ -65,25 +71,7 @@ import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
       NullCheck.notNullAll(lights, "Lights");
       this.checkValid();
 
-      try {
-        this.instances
-          .add(instance
-            .translucentLitAccept(new KInstanceTranslucentLitVisitorType<KTranslucentType, UnreachableCodeException>() {
-              @Override public KTranslucentType regular(
-                final KInstanceTranslucentRegular i)
-              {
-                return new KTranslucentRegularLit(i, lights);
-              }
-
-              @Override public KTranslucentType specularOnly(
-                final KInstanceTranslucentSpecularOnly i)
-              {
-                return new KTranslucentSpecularOnlyLit(i, lights);
-              }
-            }));
-      } catch (final RException e) {
-        throw new UnreachableCodeException(e);
-      }
+      this.instances.add(KVisibleSetTranslucents.makeLit(instance, lights));
     }
 
     @Override public void visibleTranslucentsAddUnlit(
@@ -102,10 +90,41 @@ import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
     {
       this.checkValid();
       this.done = true;
+
+      if (this.sorter.isSome()) {
+        final KTranslucentSorter s =
+          ((Some<KTranslucentSorter>) this.sorter).get();
+        s.sortBackToFront(this.camera, this.instances);
+      }
+
       return new KVisibleSetTranslucents(this.camera, this.instances);
     }
   }
 
+  static KTranslucentType makeLit(
+    final KInstanceTranslucentLitType instance,
+    final Set<KLightTranslucentType> lights)
+  {
+    try {
+      return instance
+        .translucentLitAccept(new KInstanceTranslucentLitVisitorType<KTranslucentType, UnreachableCodeException>() {
+          @Override public KTranslucentType regular(
+            final KInstanceTranslucentRegular i)
+          {
+            return new KTranslucentRegularLit(i, lights);
+          }
+
+          @Override public KTranslucentType specularOnly(
+            final KInstanceTranslucentSpecularOnly i)
+          {
+            return new KTranslucentSpecularOnlyLit(i, lights);
+          }
+        });
+    } catch (final RException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
   /**
    * @return A new translucent set builder
    * @param camera
@@ -115,13 +134,36 @@ import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
   public static KVisibleSetTranslucentsBuilderWithCreateType newBuilder(
     final KCamera camera)
   {
-    return new Builder(camera);
+    final OptionType<KTranslucentSorter> none = Option.none();
+    return new Builder(camera, none);
+  }
+
+  /**
+   * Construct a new translucent set builder that, when the set is created,
+   * sorts the translucent instances from back to front using
+   * <code>sorter</code>, ignoring the order in which they were added.
+   *
+   * @return A new translucent set builder
+   * @param camera
+   *          The camera for the visible set
+   * @param sorter
+   *          The sorter
+   */
+
+  public static
+    KVisibleSetTranslucentsBuilderWithCreateType
+    newBuilderWithSorter(
+      final KCamera camera,
+      final KTranslucentSorter sorter)
+  {
+    NullCheck.notNull(sorter, "Sorter");
+    return new Builder(camera, Option.some(sorter));
   }
 
   private final KCamera                camera;
   private final List<KTranslucentType> instances;
 
-  private KVisibleSetTranslucents(
+  KVisibleSetTranslucents(
     final KCamera in_camera,
     final List<KTranslucentType> in_instances)
   {
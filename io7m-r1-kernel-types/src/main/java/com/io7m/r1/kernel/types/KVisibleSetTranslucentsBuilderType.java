@@ -44,6 +44,12 @@ public interface KVisibleSetTranslucentsBuilderType
    * without needing to be added to the scene in any particular order with
    * respect to opaque instances.
    * </p>
+   * <p>
+   * If the builder was created with a {@link KTranslucentSorter}, the
+   * instances are instead sorted from back to front when the set is created,
+   * and instances at equal depths are rendered in the order that they were
+   * added.
+   * </p>
    *
    * @param lights
    *          The set of lights affecting the instance
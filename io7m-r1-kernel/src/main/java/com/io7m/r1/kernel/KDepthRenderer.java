@@ -42,6 +42,7 @@ import com.io7m.jfunctional.Unit;
 import com.io7m.jlog.LogLevel;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import com.io7m.jtensors.VectorI2F;
 import com.io7m.jtensors.VectorI3F;
 import com.io7m.jtensors.parameterized.PMatrixI4x4F;
@@ -50,6 +51,7 @@ import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.kernel.types.KDepthInstancesType;
 import com.io7m.r1.kernel.types.KFaceSelection;
 import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRuns;
 import com.io7m.r1.kernel.types.KInstanceOpaqueType;
 import com.io7m.r1.kernel.types.KInstanceOpaqueVisitorType;
 import com.io7m.r1.kernel.types.KMaterialDepthAlpha;
@@ -69,6 +71,249 @@ import com.io7m.r1.spaces.RSpaceWorldType;
 @SuppressWarnings("synthetic-access") @EqualityReference public final class KDepthRenderer implements
   KDepthRendererType
 {
+  /**
+   * <p>
+   * The procedure that renders individual instances during the depth pass.
+   * </p>
+   * <p>
+   * A single value is allocated per renderer, and the fields of the value
+   * are updated for each instance, so that rendering a batch of instances
+   * does not allocate any per-instance closures.
+   * </p>
+   * <p>
+   * Consecutive instances that share a mesh and a material are rendered as
+   * a single run: the depth material uniforms, textures, and mesh attributes
+   * are uploaded once for the run, the program is executed once for the
+   * run, and only the per-instance matrices and face selection are uploaded
+   * (through resolved uniform slots) for each instance.
+   * </p>
+   */
+
+  @EqualityReference private static final class DepthInstanceRenderer implements
+    KMatricesInstanceFunctionType<Unit, JCGLException>,
+    PartialProcedureType<KTextureBindingsContextType, RException>,
+    KInstanceOpaqueVisitorType<Unit, RException>,
+    KMaterialDepthVisitorType<Unit, JCGLException>,
+    JCBProgramProcedureType<RException>
+  {
+    private static final KProgramUniformSlot[] PER_DRAW;
+
+    static {
+      PER_DRAW = new KProgramUniformSlot[] {
+        KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+        KProgramUniformSlot.SLOT_MATRIX_NORMAL,
+        KProgramUniformSlot.SLOT_MATRIX_UV,
+      };
+    }
+
+    private final KTextureBindingsControllerType  bindings;
+    private @Nullable OptionType<KFaceSelection>  faces;
+    private @Nullable JCGLInterfaceCommonType     gc;
+    private @Nullable IndexBufferUsableType       indices;
+    private @Nullable KInstanceOpaqueType         instance;
+    private @Nullable List<KInstanceOpaqueType>   instances;
+    private @Nullable KMaterialOpaqueRegular      material;
+    private @Nullable KMatricesObserverType       mwo;
+    private @Nullable JCBProgramType              program;
+    private int                                   run_count;
+    private int                                   run_start;
+    private final KGLStateTrackerType             state;
+    private @Nullable KProgramUniforms            uniforms;
+    private @Nullable KTextureBindingsContextType units;
+    private boolean                               uv_constant;
+
+    DepthInstanceRenderer(
+      final KTextureBindingsControllerType in_bindings,
+      final KGLStateTrackerType in_state)
+    {
+      this.bindings = NullCheck.notNull(in_bindings, "Texture bindings");
+      this.state = NullCheck.notNull(in_state, "State tracker");
+    }
+
+    @Override public Unit alpha(
+      final KMaterialDepthAlpha mda)
+      throws RException
+    {
+      final JCBProgramType jp = this.program;
+      final KProgramUniforms ju = this.uniforms;
+      final KTextureBindingsContextType u = this.units;
+      final KMaterialOpaqueRegular m = this.material;
+      assert jp != null;
+      assert ju != null;
+      assert u != null;
+      assert m != null;
+
+      /**
+       * Material is alpha-to-depth; must upload albedo texture, matrices, and
+       * threshold value.
+       */
+
+      this.uv_constant = false;
+      ju.uniformsPutFloat(
+        jp,
+        KProgramUniformSlot.SLOT_MATERIAL_ALPHA_DEPTH,
+        mda.getAlphaThreshold());
+      KShadingProgramCommon.putMaterialAlbedoTypeWithTextures(jp, ju, u, m);
+      return Unit.unit();
+    }
+
+    @Override public void call()
+      throws RException
+    {
+      final List<KInstanceOpaqueType> is = this.instances;
+      final KMatricesObserverType o = this.mwo;
+      assert is != null;
+      assert o != null;
+
+      final int end = this.run_start + this.run_count;
+      for (int index = this.run_start; index < end; ++index) {
+        final KInstanceOpaqueType i = is.get(index);
+        assert i != null;
+        this.instance = i;
+        o.withInstance(i, this);
+      }
+    }
+
+    @Override public void call(
+      final KTextureBindingsContextType c)
+      throws RException
+    {
+      this.units = c;
+
+      final List<KInstanceOpaqueType> is = this.instances;
+      final JCBProgramType jp = this.program;
+      final KProgramUniforms ju = this.uniforms;
+      assert is != null;
+      assert jp != null;
+      assert ju != null;
+
+      /**
+       * Upload the mesh and material state shared by every instance in the
+       * run. The array buffer is left bound after drawing, so that
+       * consecutive runs that share a mesh do not rebind it.
+       */
+
+      final KInstanceOpaqueType first = is.get(this.run_start);
+      assert first != null;
+
+      final KMeshReadableType mesh = first.instanceGetMesh();
+      final ArrayBufferUsableType a = mesh.meshGetArrayBuffer();
+      this.indices = mesh.meshGetIndexBuffer();
+      first.opaqueAccept(this);
+
+      this.state.stateArrayBufferBind(a);
+      KShadingProgramCommon.bindAttributePositionUnchecked(jp, a);
+      KShadingProgramCommon.putAttributeNormalUnchecked(jp, VectorI3F.ZERO);
+      KShadingProgramCommon.bindAttributeUVUnchecked(jp, a);
+      if (this.uv_constant) {
+        KShadingProgramCommon.putAttributeUVUnchecked(jp, VectorI2F.ZERO);
+      }
+      KShadingProgramCommon.putMatrixProjectionReuse(jp, ju);
+      KShadingProgramCommon.putDepthCoefficientReuse(jp, ju);
+
+      ju.uniformsExecuteRun(jp, DepthInstanceRenderer.PER_DRAW, this);
+    }
+
+    @Override public Unit constant(
+      final KMaterialDepthConstant m)
+      throws RException
+    {
+      this.uv_constant = true;
+      return Unit.unit();
+    }
+
+    @Override public Unit regular(
+      final KInstanceOpaqueRegular o)
+      throws RException
+    {
+      final KMaterialOpaqueRegular m = o.getMaterial();
+      this.material = m;
+      final KMaterialDepthType depth = m.getDepth();
+      return depth.depthAccept(this);
+    }
+
+    /**
+     * Render all of the given instances with the given program, writing
+     * per-instance uniforms through the program's resolved slots.
+     */
+
+    void renderBatch(
+      final JCGLInterfaceCommonType in_gc,
+      final KMatricesObserverType in_mwo,
+      final JCBProgramType in_program,
+      final KProgramUniforms in_uniforms,
+      final List<KInstanceOpaqueType> batch,
+      final OptionType<KFaceSelection> in_faces)
+      throws RException
+    {
+      this.gc = in_gc;
+      this.mwo = in_mwo;
+      this.instances = batch;
+      this.program = in_program;
+      this.uniforms = in_uniforms;
+      this.faces = in_faces;
+
+      try {
+        final int size = batch.size();
+        int index = 0;
+        while (index < size) {
+          this.run_start = index;
+          this.run_count = KInstanceOpaqueRuns.runLength(batch, index);
+          this.bindings.withNewEmptyContext(this);
+          index += this.run_count;
+        }
+      } finally {
+        this.state.stateArrayBufferUnbind();
+        this.instances = null;
+      }
+    }
+
+    @Override public Unit run(
+      final KMatricesInstanceType m)
+      throws RException
+    {
+      final KInstanceOpaqueType i = this.instance;
+      final JCGLInterfaceCommonType g = this.gc;
+      final IndexBufferUsableType ib = this.indices;
+      final JCBProgramType jp = this.program;
+      final KProgramUniforms ju = this.uniforms;
+      final OptionType<KFaceSelection> f = this.faces;
+      assert i != null;
+      assert g != null;
+      assert ib != null;
+      assert jp != null;
+      assert ju != null;
+      assert f != null;
+
+      /**
+       * Upload matrices.
+       */
+
+      KShadingProgramCommon.putMatrixModelViewUnchecked(
+        jp,
+        ju,
+        m.getMatrixModelView());
+      KShadingProgramCommon.putMatrixNormal(jp, ju, m.getMatrixNormal());
+      KShadingProgramCommon.putMatrixUVUnchecked(jp, ju, m.getMatrixUV());
+
+      /**
+       * If there's an override for face culling specified, use it.
+       * Otherwise, use the per-instance face culling settings.
+       */
+
+      if (f.isNone()) {
+        this.state.stateCullingConfigure(i.instanceGetFaceSelection());
+      } else {
+        final Some<KFaceSelection> some = (Some<KFaceSelection>) f;
+        this.state.stateCullingConfigure(some.get());
+      }
+
+      ju.uniformsDraw();
+      g.drawElements(Primitives.PRIMITIVE_TRIANGLES, ib);
+      return Unit.unit();
+    }
+  }
+
   private static final String NAME;
 
   static {
@@ -118,159 +363,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     return new KDepthRenderer(g, shader_cache, bindings, log);
   }
 
-  private static void renderDepthPassBatch(
-    final JCGLInterfaceCommonType gc,
-    final KTextureBindingsControllerType bindings,
-    final KMatricesObserverType mwo,
-    final JCBProgramType jp,
-    final List<KInstanceOpaqueType> batch,
-    final OptionType<KFaceSelection> faces)
-    throws JCGLException,
-      RException
-  {
-    for (final KInstanceOpaqueType i : batch) {
-      assert i != null;
-
-      mwo.withInstance(
-        i,
-        new KMatricesInstanceFunctionType<Unit, JCGLException>() {
-          @Override public Unit run(
-            final KMatricesInstanceType mwi)
-            throws RException
-          {
-            bindings
-              .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
-                @Override public void call(
-                  final KTextureBindingsContextType c)
-                  throws RException
-                {
-                  KDepthRenderer.renderDepthPassInstance(
-                    gc,
-                    c,
-                    mwi,
-                    jp,
-                    i,
-                    faces);
-                }
-              });
-            return Unit.unit();
-          }
-        });
-    }
-  }
-
-  private static void renderDepthPassInstance(
-    final JCGLInterfaceCommonType gc,
-    final KTextureBindingsContextType units,
-    final KMatricesInstanceValuesType mwi,
-    final JCBProgramType jp,
-    final KInstanceOpaqueType i,
-    final OptionType<KFaceSelection> faces)
-    throws JCGLException,
-      RException
-  {
-    /**
-     * Associate array attributes with program attributes, and draw mesh.
-     */
-
-    try {
-      final KMeshReadableType mesh = i.instanceGetMesh();
-      final ArrayBufferUsableType array = mesh.meshGetArrayBuffer();
-      final IndexBufferUsableType indices = mesh.meshGetIndexBuffer();
-
-      gc.arrayBufferBind(array);
-      KShadingProgramCommon.bindAttributePositionUnchecked(jp, array);
-      KShadingProgramCommon.putAttributeNormalUnchecked(jp, VectorI3F.ZERO);
-      KShadingProgramCommon.bindAttributeUVUnchecked(jp, array);
-
-      /**
-       * Upload matrices.
-       */
-
-      KShadingProgramCommon.putMatrixProjectionReuse(jp);
-      KShadingProgramCommon.putMatrixModelViewUnchecked(
-        jp,
-        mwi.getMatrixModelView());
-      KShadingProgramCommon.putDepthCoefficientReuse(jp);
-      KShadingProgramCommon.putMatrixNormal(jp, mwi.getMatrixNormal());
-      KShadingProgramCommon.putMatrixUVUnchecked(jp, mwi.getMatrixUV());
-
-      i.opaqueAccept(new KInstanceOpaqueVisitorType<Unit, RException>() {
-        @Override public Unit regular(
-          final KInstanceOpaqueRegular o)
-          throws RException
-        {
-          final KMaterialOpaqueRegular material = o.getMaterial();
-          final KMaterialDepthType depth = material.getDepth();
-          depth
-            .depthAccept(new KMaterialDepthVisitorType<Unit, JCGLException>() {
-              @Override public Unit alpha(
-                final KMaterialDepthAlpha mda)
-                throws RException
-              {
-                /**
-                 * Material is alpha-to-depth; must upload albedo texture,
-                 * matrices, and threshold value.
-                 */
-
-                KShadingProgramCommon.putMaterialAlphaDepthThreshold(
-                  jp,
-                  mda.getAlphaThreshold());
-                KShadingProgramCommon.putMaterialAlbedoTypeWithTextures(
-                  jp,
-                  units,
-                  material);
-                return Unit.unit();
-              }
-
-              @Override public Unit constant(
-                final KMaterialDepthConstant m)
-                throws RException
-              {
-                KShadingProgramCommon.putAttributeUVUnchecked(
-                  jp,
-                  VectorI2F.ZERO);
-                return Unit.unit();
-              }
-            });
-
-          return Unit.unit();
-        }
-      });
-
-      /**
-       * If there's an override for face culling specified, use it. Otherwise,
-       * use the per-instance face culling settings.
-       */
-
-      if (faces.isNone()) {
-        KRendererCommon.renderConfigureFaceCulling(
-          gc,
-          i.instanceGetFaceSelection());
-      } else {
-        final Some<KFaceSelection> some = (Some<KFaceSelection>) faces;
-        KRendererCommon.renderConfigureFaceCulling(gc, some.get());
-      }
-
-      jp.programExecute(new JCBProgramProcedureType<JCGLException>() {
-        @Override public void call()
-          throws JCGLException
-        {
-          gc.drawElements(Primitives.PRIMITIVE_TRIANGLES, indices);
-        }
-      });
-
-    } finally {
-      gc.arrayBufferUnbind();
-    }
-  }
-
   private final KTextureBindingsControllerType bindings;
   private final Map<String, String>            code_map;
   private final JCGLImplementationType         g;
+  private final DepthInstanceRenderer          instance_renderer;
   private final LogUsableType                  log;
   private final KMutableMatrices               matrices;
   private final KShaderCacheDepthType          shader_cache;
+  private final KGLStateTrackerType            state;
 
   private KDepthRenderer(
     final JCGLImplementationType gl,
@@ -281,6 +381,9 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     this.log = NullCheck.notNull(in_log, "log").with("depth-renderer");
     this.g = NullCheck.notNull(gl, "OpenGL implementation");
     this.bindings = NullCheck.notNull(in_bindings, "Texture bindings");
+    this.state = KGLStateTracker.newTracker(this.g.getGLCommon());
+    this.instance_renderer =
+      new DepthInstanceRenderer(this.bindings, this.state);
     this.shader_cache = NullCheck.notNull(in_shader_cache, "Shader cache");
     this.matrices = KMutableMatrices.newMatrices();
     this.code_map = KDepthRenderer.makeCodeMap();
@@ -299,11 +402,11 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       RException,
       JCacheException
   {
-    for (final String depth_code : instances.getMaterialCodes()) {
-      assert depth_code != null;
+    final int group_count = instances.getGroupCount();
+    for (int index = 0; index < group_count; ++index) {
+      final String depth_code = instances.getGroupCode(index);
       final List<KInstanceOpaqueType> batch =
-        instances.getInstancesForMaterial(depth_code);
-      assert batch != null;
+        instances.getGroupInstances(index);
 
       final String shader_code = this.code_map.get(depth_code);
       assert shader_code != null;
@@ -317,17 +420,20 @@ import com.io7m.r1.spaces.RSpaceWorldType;
           throws JCGLException,
             RException
         {
+          final KProgramUniforms u = program.getUniforms();
+          u.uniformsBegin();
+
           KShadingProgramCommon.putMatrixProjectionUnchecked(
             jp,
             mwo.getMatrixProjection());
           KShadingProgramCommon.putDepthCoefficient(
             jp,
             KRendererCommon.depthCoefficient(mwo.getProjection()));
-          KDepthRenderer.renderDepthPassBatch(
+          KDepthRenderer.this.instance_renderer.renderBatch(
             gc,
-            KDepthRenderer.this.bindings,
             mwo,
             jp,
+            u,
             batch,
             faces);
         }
@@ -410,6 +516,11 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     return KDepthRenderer.NAME;
   }
 
+  @Override public KGLStateTrackerType rendererGetStateTracker()
+  {
+    return this.state;
+  }
+
   private void renderScene(
     final JCGLInterfaceCommonType gc,
     final KDepthInstancesType instances,
@@ -420,15 +531,25 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       RException,
       JCacheException
   {
-    gc.blendingDisable();
+    final KGLStateTrackerType s = this.state;
+    s.stateInvalidate();
+    s.stateBlendingDisable();
     gc.colorBufferMask(false, false, false, false);
     gc.colorBufferClear4f(1.0f, 1.0f, 1.0f, 1.0f);
-    gc.cullingDisable();
-    gc.depthBufferTestEnable(DepthFunction.DEPTH_LESS_THAN);
-    gc.depthBufferWriteEnable();
+    s.stateCullingConfigure(KFaceSelection.FACE_RENDER_FRONT_AND_BACK);
+    s.stateDepthTestEnable(DepthFunction.DEPTH_LESS_THAN);
+    s.stateDepthWriteEnable();
+
+    /**
+     * Only the given area is cleared, so that the framebuffer may be shared
+     * by several maps (such as the pages of a shadow atlas).
+     */
+
+    gc.scissorEnable(area);
     gc.depthBufferClear(1.0f);
-    KRendererCommon.enableDepthClampingIfSupported(this.g);
     gc.scissorDisable();
+
+    KRendererCommon.enableDepthClampingIfSupported(this.g);
     gc.viewportSet(area);
     this.renderDepthPassBatches(instances, gc, mwo, faces);
   }
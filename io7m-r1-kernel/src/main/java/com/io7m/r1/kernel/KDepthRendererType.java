@@ -91,4 +91,11 @@ public interface KDepthRendererType extends KRendererType
     final AreaInclusive framebuffer_area,
     final OptionType<KFaceSelection> faces)
     throws RException;
+
+  /**
+   * @return The state tracker used by the renderer, whose counters record
+   *         how many redundant OpenGL calls were filtered
+   */
+
+  KGLStateTrackerType rendererGetStateTracker();
 }
@@ -279,12 +279,11 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       RException,
       JCacheException
   {
-    for (final String depth_code : instances.getMaterialCodes()) {
-      assert depth_code != null;
-
+    final int group_count = instances.getGroupCount();
+    for (int index = 0; index < group_count; ++index) {
+      final String depth_code = instances.getGroupCode(index);
       final List<KInstanceOpaqueType> batch =
-        instances.getInstancesForMaterial(depth_code);
-      assert batch != null;
+        instances.getGroupInstances(index);
 
       final KProgramType program = this.shader_cache.cacheGetLU(depth_code);
       final JCBExecutorType exec = program.getExecutable();
@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.io7m.jcanephora.AreaInclusive;
+import com.io7m.jcanephora.FramebufferColorAttachmentPointType;
+import com.io7m.jcanephora.FramebufferDrawBufferType;
+import com.io7m.jcanephora.FramebufferType;
+import com.io7m.jcanephora.FramebufferUsableType;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.RenderableDepthStencilKind;
+import com.io7m.jcanephora.RenderbufferType;
+import com.io7m.jcanephora.Texture2DStaticType;
+import com.io7m.jcanephora.Texture2DStaticUsableType;
+import com.io7m.jcanephora.TextureWrapS;
+import com.io7m.jcanephora.TextureWrapT;
+import com.io7m.jcanephora.api.JCGLFramebufferBuilderGL3ES3Type;
+import com.io7m.jcanephora.api.JCGLFramebuffersGL3Type;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLImplementationVisitorType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLInterfaceGL2Type;
+import com.io7m.jcanephora.api.JCGLInterfaceGL3Type;
+import com.io7m.jcanephora.api.JCGLInterfaceGLES2Type;
+import com.io7m.jcanephora.api.JCGLInterfaceGLES3Type;
+import com.io7m.jcanephora.api.JCGLRenderbuffersGL3ES3Type;
+import com.io7m.jcanephora.api.JCGLTextures2DStaticGL3ES3Type;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionNotSupported;
+import com.io7m.r1.kernel.types.KFramebufferRGBADescription;
+
+/**
+ * <p>
+ * A framebuffer into which translucent surfaces are accumulated with
+ * weighted blended order-independent transparency.
+ * </p>
+ * <p>
+ * The accumulation and revealage textures are both allocated with the
+ * precision given in the description, and should therefore be floating
+ * point. Multiple render targets are required, so OpenGL 2.1 and OpenGL ES
+ * 2 are not supported.
+ * </p>
+ */
+
+@EqualityReference public final class KFramebufferOrderIndependent implements
+  KFramebufferOrderIndependentType
+{
+  private static
+    <G extends JCGLTextures2DStaticGL3ES3Type & JCGLFramebuffersGL3Type>
+    Texture2DStaticType
+    newColor(
+      final G gl,
+      final KFramebufferRGBADescription desc,
+      final String name)
+      throws JCGLException
+  {
+    final AreaInclusive area = desc.getArea();
+    final int width = (int) area.getRangeX().getInterval();
+    final int height = (int) area.getRangeY().getInterval();
+
+    switch (desc.getRGBAPrecision()) {
+      case RGBA_PRECISION_16F:
+      {
+        return gl.texture2DStaticAllocateRGBA16f(
+          name + "-16f",
+          width,
+          height,
+          TextureWrapS.TEXTURE_WRAP_CLAMP_TO_EDGE,
+          TextureWrapT.TEXTURE_WRAP_CLAMP_TO_EDGE,
+          desc.getFilterMinification(),
+          desc.getFilterMagnification());
+      }
+      case RGBA_PRECISION_32F:
+      {
+        return gl.texture2DStaticAllocateRGBA32f(
+          name + "-32f",
+          width,
+          height,
+          TextureWrapS.TEXTURE_WRAP_CLAMP_TO_EDGE,
+          TextureWrapT.TEXTURE_WRAP_CLAMP_TO_EDGE,
+          desc.getFilterMinification(),
+          desc.getFilterMagnification());
+      }
+      case RGBA_PRECISION_8:
+      {
+        return gl.texture2DStaticAllocateRGBA8(
+          name + "-8",
+          width,
+          height,
+          TextureWrapS.TEXTURE_WRAP_CLAMP_TO_EDGE,
+          TextureWrapT.TEXTURE_WRAP_CLAMP_TO_EDGE,
+          desc.getFilterMinification(),
+          desc.getFilterMagnification());
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  private static
+    <G extends JCGLTextures2DStaticGL3ES3Type & JCGLFramebuffersGL3Type & JCGLRenderbuffersGL3ES3Type>
+    KFramebufferOrderIndependent
+    newGL3ES3(
+      final G gl,
+      final KFramebufferRGBADescription desc)
+      throws JCGLException
+  {
+    final AreaInclusive area = desc.getArea();
+    final int width = (int) area.getRangeX().getInterval();
+    final int height = (int) area.getRangeY().getInterval();
+
+    final RenderbufferType<RenderableDepthStencilKind> d =
+      gl.renderbufferAllocateDepth24Stencil8(width, height);
+    final Texture2DStaticType accumulation =
+      KFramebufferOrderIndependent.newColor(gl, desc, "oit-accumulation");
+    final Texture2DStaticType revealage =
+      KFramebufferOrderIndependent.newColor(gl, desc, "oit-revealage");
+
+    final List<FramebufferColorAttachmentPointType> points =
+      gl.framebufferGetColorAttachmentPoints();
+    final FramebufferColorAttachmentPointType attach_0 = points.get(0);
+    final FramebufferColorAttachmentPointType attach_1 = points.get(1);
+    assert attach_0 != null;
+    assert attach_1 != null;
+
+    final List<FramebufferDrawBufferType> buffers =
+      gl.framebufferGetDrawBuffers();
+
+    final Map<FramebufferDrawBufferType, FramebufferColorAttachmentPointType> mappings =
+      new HashMap<FramebufferDrawBufferType, FramebufferColorAttachmentPointType>();
+    mappings.put(buffers.get(0), attach_0);
+    mappings.put(buffers.get(1), attach_1);
+
+    final JCGLFramebufferBuilderGL3ES3Type fbb =
+      gl.framebufferNewBuilderGL3ES3();
+    fbb.attachDepthStencilRenderbuffer(d);
+    fbb.attachColorTexture2DAt(attach_0, accumulation);
+    fbb.attachColorTexture2DAt(attach_1, revealage);
+    fbb.setDrawBuffers(mappings);
+    final FramebufferType fb = gl.framebufferAllocate(fbb);
+
+    final JCGLFramebufferBuilderGL3ES3Type rbb =
+      gl.framebufferNewBuilderGL3ES3();
+    rbb.attachDepthStencilRenderbuffer(d);
+    rbb.attachColorTexture2D(revealage);
+    final FramebufferType fb_revealage = gl.framebufferAllocate(rbb);
+
+    return new KFramebufferOrderIndependent(
+      desc,
+      d,
+      accumulation,
+      revealage,
+      fb,
+      fb_revealage);
+  }
+
+  /**
+   * Construct a new framebuffer from the given description.
+   *
+   * @param gi
+   *          The OpenGL implementation
+   * @param description
+   *          The framebuffer description
+   * @return A new framebuffer
+   *
+   * @throws RException
+   *           If an error occurs during creation
+   */
+
+  public static KFramebufferOrderIndependentType newFramebuffer(
+    final JCGLImplementationType gi,
+    final KFramebufferRGBADescription description)
+    throws RException
+  {
+    NullCheck.notNull(description, "Description");
+    return gi
+      .implementationAccept(new JCGLImplementationVisitorType<KFramebufferOrderIndependentType, RException>() {
+        @Override public
+          KFramebufferOrderIndependentType
+          implementationIsGL2(
+            final JCGLInterfaceGL2Type gl)
+            throws RExceptionNotSupported
+        {
+          throw RExceptionNotSupported.versionNotSupported(gl
+            .metaGetVersion());
+        }
+
+        @Override public
+          KFramebufferOrderIndependentType
+          implementationIsGL3(
+            final JCGLInterfaceGL3Type gl)
+            throws JCGLException
+        {
+          return KFramebufferOrderIndependent.newGL3ES3(gl, description);
+        }
+
+        @Override public
+          KFramebufferOrderIndependentType
+          implementationIsGLES2(
+            final JCGLInterfaceGLES2Type gl)
+            throws RExceptionNotSupported
+        {
+          throw RExceptionNotSupported.versionNotSupported(gl
+            .metaGetVersion());
+        }
+
+        @Override public
+          KFramebufferOrderIndependentType
+          implementationIsGLES3(
+            final JCGLInterfaceGLES3Type gl)
+            throws JCGLException
+        {
+          return KFramebufferOrderIndependent.newGL3ES3(gl, description);
+        }
+      });
+  }
+
+  private final Texture2DStaticType                          accumulation;
+  private boolean                                            deleted;
+  private final RenderbufferType<RenderableDepthStencilKind> depth;
+  private final KFramebufferRGBADescription                  description;
+  private final FramebufferType                              framebuffer;
+  private final FramebufferType                              framebuffer_revealage;
+  private final Texture2DStaticType                          revealage;
+
+  private KFramebufferOrderIndependent(
+    final KFramebufferRGBADescription in_description,
+    final RenderbufferType<RenderableDepthStencilKind> in_depth,
+    final Texture2DStaticType in_accumulation,
+    final Texture2DStaticType in_revealage,
+    final FramebufferType in_framebuffer,
+    final FramebufferType in_framebuffer_revealage)
+  {
+    this.description = NullCheck.notNull(in_description, "Description");
+    this.depth = NullCheck.notNull(in_depth, "Depth");
+    this.accumulation = NullCheck.notNull(in_accumulation, "Accumulation");
+    this.revealage = NullCheck.notNull(in_revealage, "Revealage");
+    this.framebuffer = NullCheck.notNull(in_framebuffer, "Framebuffer");
+    this.framebuffer_revealage =
+      NullCheck.notNull(in_framebuffer_revealage, "Revealage framebuffer");
+    this.deleted = false;
+  }
+
+  @Override public void delete(
+    final JCGLImplementationType g)
+    throws RException
+  {
+    try {
+      final JCGLInterfaceCommonType gc = g.getGLCommon();
+      gc.framebufferDelete(this.framebuffer);
+      gc.framebufferDelete(this.framebuffer_revealage);
+      gc.texture2DStaticDelete(this.accumulation);
+      gc.texture2DStaticDelete(this.revealage);
+      gc.renderbufferDelete(this.depth);
+    } finally {
+      this.deleted = true;
+    }
+  }
+
+  @Override public AreaInclusive getArea()
+  {
+    return this.description.getArea();
+  }
+
+  @Override public FramebufferUsableType getOrderIndependentRevealageFramebuffer()
+  {
+    return this.framebuffer_revealage;
+  }
+
+  @Override public Texture2DStaticUsableType getOrderIndependentRevealageTexture()
+  {
+    return this.revealage;
+  }
+
+  @Override public FramebufferUsableType getRGBAColorFramebuffer()
+  {
+    return this.framebuffer;
+  }
+
+  @Override public KFramebufferRGBADescription getRGBADescription()
+  {
+    return this.description;
+  }
+
+  @Override public Texture2DStaticUsableType getRGBATexture()
+  {
+    return this.accumulation;
+  }
+
+  @Override public long getSizeInBytes()
+  {
+    return this.accumulation.resourceGetSizeBytes()
+      + this.revealage.resourceGetSizeBytes();
+  }
+
+  @Override public boolean resourceIsDeleted()
+  {
+    return this.deleted;
+  }
+}
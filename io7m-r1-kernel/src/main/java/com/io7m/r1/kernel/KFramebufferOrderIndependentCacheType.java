@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcache.BLUCacheType;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.types.KFramebufferRGBADescription;
+
+/**
+ * The type of order-independent transparency framebuffer caches.
+ */
+
+public interface KFramebufferOrderIndependentCacheType extends
+  BLUCacheType<KFramebufferRGBADescription, KFramebufferOrderIndependentUsableType, KFramebufferOrderIndependentType, RException>
+{
+  // No extra functions
+}
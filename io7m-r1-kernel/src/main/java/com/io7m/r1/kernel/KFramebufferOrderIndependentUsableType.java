@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcanephora.FramebufferUsableType;
+import com.io7m.jcanephora.Texture2DStaticUsableType;
+
+/**
+ * <p>
+ * The type of usable framebuffers into which translucent surfaces are
+ * accumulated with weighted blended order-independent transparency.
+ * </p>
+ * <p>
+ * The framebuffer returned by {@link #getRGBAColorFramebuffer()} has two
+ * color attachments that share a depth buffer: the accumulation texture
+ * returned by {@link #getRGBATexture()} at draw buffer <code>0</code>, and
+ * the revealage texture returned by
+ * {@link #getOrderIndependentRevealageTexture()} at draw buffer
+ * <code>1</code>.
+ * </p>
+ */
+
+public interface KFramebufferOrderIndependentUsableType extends
+  KFramebufferRGBAWithDepthUsableType
+{
+  /**
+   * @return A framebuffer that has only the revealage texture attached, at
+   *         draw buffer <code>0</code>, and the same depth buffer
+   */
+
+  FramebufferUsableType getOrderIndependentRevealageFramebuffer();
+
+  /**
+   * @return The texture that backs the revealage attachment
+   */
+
+  Texture2DStaticUsableType getOrderIndependentRevealageTexture();
+}
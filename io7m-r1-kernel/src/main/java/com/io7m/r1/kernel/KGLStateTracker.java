@@ -0,0 +1,326 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcanephora.ArrayBufferUsableType;
+import com.io7m.jcanephora.BlendFunction;
+import com.io7m.jcanephora.DepthFunction;
+import com.io7m.jcanephora.FaceSelection;
+import com.io7m.jcanephora.FaceWindingOrder;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.r1.kernel.types.KFaceSelection;
+
+/**
+ * The default implementation of the {@link KGLStateTrackerType} type.
+ */
+
+@EqualityReference public final class KGLStateTracker implements
+  KGLStateTrackerType
+{
+  /**
+   * Construct a new state tracker. All state is initially unknown.
+   *
+   * @param gc
+   *          An OpenGL interface
+   * @return A new state tracker
+   */
+
+  public static KGLStateTrackerType newTracker(
+    final JCGLInterfaceCommonType gc)
+  {
+    return new KGLStateTracker(gc);
+  }
+
+  private @Nullable ArrayBufferUsableType array;
+  private boolean                         array_known;
+  private @Nullable BlendFunction         blend_destination;
+  private boolean                         blend_enabled;
+  private boolean                         blend_known;
+  private @Nullable BlendFunction         blend_source;
+  private boolean                         cull_enabled;
+  private @Nullable FaceSelection         cull_faces;
+  private boolean                         cull_known;
+  private @Nullable DepthFunction         depth_function;
+  private boolean                         depth_test_enabled;
+  private boolean                         depth_test_known;
+  private boolean                         depth_write_enabled;
+  private boolean                         depth_write_known;
+  private long                            filtered;
+  private final JCGLInterfaceCommonType   gc;
+  private boolean                         stencil_enabled;
+  private boolean                         stencil_known;
+  private long                            submitted;
+
+  private KGLStateTracker(
+    final JCGLInterfaceCommonType in_gc)
+  {
+    this.gc = NullCheck.notNull(in_gc, "OpenGL interface");
+  }
+
+  private void cullingDisable()
+  {
+    if (this.cull_known && (this.cull_enabled == false)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.cullingDisable();
+    this.cull_enabled = false;
+    this.cull_faces = null;
+    this.cull_known = true;
+    ++this.submitted;
+  }
+
+  private void cullingEnable(
+    final FaceSelection faces)
+  {
+    if (this.cull_known && this.cull_enabled && (this.cull_faces == faces)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.cullingEnable(
+      faces,
+      FaceWindingOrder.FRONT_FACE_COUNTER_CLOCKWISE);
+    this.cull_enabled = true;
+    this.cull_faces = faces;
+    this.cull_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateArrayBufferBind(
+    final ArrayBufferUsableType a)
+    throws JCGLException
+  {
+    NullCheck.notNull(a, "Array buffer");
+
+    if (this.array_known && (this.array == a)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.arrayBufferBind(a);
+    this.array = a;
+    this.array_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateArrayBufferUnbind()
+    throws JCGLException
+  {
+    if (this.array_known && (this.array == null)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.arrayBufferUnbind();
+    this.array = null;
+    this.array_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateBlendingDisable()
+    throws JCGLException
+  {
+    if (this.blend_known && (this.blend_enabled == false)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.blendingDisable();
+    this.blend_enabled = false;
+    this.blend_source = null;
+    this.blend_destination = null;
+    this.blend_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateBlendingEnable(
+    final BlendFunction source,
+    final BlendFunction destination)
+    throws JCGLException
+  {
+    NullCheck.notNull(source, "Source function");
+    NullCheck.notNull(destination, "Destination function");
+
+    if (this.blend_known
+      && this.blend_enabled
+      && (this.blend_source == source)
+      && (this.blend_destination == destination)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.blendingEnable(source, destination);
+    this.blend_enabled = true;
+    this.blend_source = source;
+    this.blend_destination = destination;
+    this.blend_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateCullingConfigure(
+    final KFaceSelection faces)
+    throws JCGLException
+  {
+    NullCheck.notNull(faces, "Faces");
+
+    switch (faces) {
+      case FACE_RENDER_BACK:
+      {
+        this.cullingEnable(FaceSelection.FACE_FRONT);
+        break;
+      }
+      case FACE_RENDER_FRONT:
+      {
+        this.cullingEnable(FaceSelection.FACE_BACK);
+        break;
+      }
+      case FACE_RENDER_FRONT_AND_BACK:
+      {
+        this.cullingDisable();
+        break;
+      }
+      case FACE_RENDER_NONE:
+      {
+        this.cullingEnable(FaceSelection.FACE_FRONT_AND_BACK);
+        break;
+      }
+    }
+  }
+
+  @Override public void stateDepthTestDisable()
+    throws JCGLException
+  {
+    if (this.depth_test_known && (this.depth_test_enabled == false)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.depthBufferTestDisable();
+    this.depth_test_enabled = false;
+    this.depth_function = null;
+    this.depth_test_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateDepthTestEnable(
+    final DepthFunction f)
+    throws JCGLException
+  {
+    NullCheck.notNull(f, "Depth function");
+
+    if (this.depth_test_known
+      && this.depth_test_enabled
+      && (this.depth_function == f)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.depthBufferTestEnable(f);
+    this.depth_test_enabled = true;
+    this.depth_function = f;
+    this.depth_test_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateDepthWriteDisable()
+    throws JCGLException
+  {
+    if (this.depth_write_known && (this.depth_write_enabled == false)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.depthBufferWriteDisable();
+    this.depth_write_enabled = false;
+    this.depth_write_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateDepthWriteEnable()
+    throws JCGLException
+  {
+    if (this.depth_write_known && this.depth_write_enabled) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.depthBufferWriteEnable();
+    this.depth_write_enabled = true;
+    this.depth_write_known = true;
+    ++this.submitted;
+  }
+
+  @Override public long stateGetFilteredCount()
+  {
+    return this.filtered;
+  }
+
+  @Override public long stateGetSubmittedCount()
+  {
+    return this.submitted;
+  }
+
+  @Override public void stateInvalidate()
+  {
+    this.array_known = false;
+    this.blend_known = false;
+    this.cull_known = false;
+    this.depth_test_known = false;
+    this.depth_write_known = false;
+    this.stencil_known = false;
+  }
+
+  @Override public void stateResetCounters()
+  {
+    this.filtered = 0;
+    this.submitted = 0;
+  }
+
+  @Override public void stateStencilDisable()
+    throws JCGLException
+  {
+    if (this.stencil_known && (this.stencil_enabled == false)) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.stencilBufferDisable();
+    this.stencil_enabled = false;
+    this.stencil_known = true;
+    ++this.submitted;
+  }
+
+  @Override public void stateStencilEnable()
+    throws JCGLException
+  {
+    if (this.stencil_known && this.stencil_enabled) {
+      ++this.filtered;
+      return;
+    }
+
+    this.gc.stencilBufferEnable();
+    this.stencil_enabled = true;
+    this.stencil_known = true;
+    ++this.submitted;
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcanephora.ArrayBufferUsableType;
+import com.io7m.jcanephora.BlendFunction;
+import com.io7m.jcanephora.DepthFunction;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.r1.kernel.types.KFaceSelection;
+
+/**
+ * <p>
+ * The type of OpenGL state trackers.
+ * </p>
+ * <p>
+ * A state tracker sits between the renderers and the OpenGL interface and
+ * keeps a shadow copy of the state that the renderers change most often:
+ * the bound array buffer, face culling, blending, depth testing, depth
+ * writing, and stencil testing. Requests that would not change the current
+ * state are not submitted to OpenGL, and are counted instead.
+ * </p>
+ * <p>
+ * The tracker cannot observe state changes that bypass it, so renderers
+ * call {@link #stateInvalidate()} before a sequence of tracked calls, after
+ * any code that may have changed the state directly.
+ * </p>
+ */
+
+public interface KGLStateTrackerType
+{
+  /**
+   * Bind the given array buffer, if it is not already bound.
+   *
+   * @param a
+   *          The array buffer
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateArrayBufferBind(
+    final ArrayBufferUsableType a)
+    throws JCGLException;
+
+  /**
+   * Unbind the current array buffer, if one may be bound.
+   *
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateArrayBufferUnbind()
+    throws JCGLException;
+
+  /**
+   * Disable blending, if it may be enabled.
+   *
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateBlendingDisable()
+    throws JCGLException;
+
+  /**
+   * Enable blending with the given functions, if blending is not already
+   * enabled with those functions.
+   *
+   * @param source
+   *          The source factor
+   * @param destination
+   *          The destination factor
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateBlendingEnable(
+    final BlendFunction source,
+    final BlendFunction destination)
+    throws JCGLException;
+
+  /**
+   * Configure face culling such that the given faces are rendered, if face
+   * culling is not already configured that way.
+   *
+   * @param faces
+   *          The faces that will be rendered
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateCullingConfigure(
+    final KFaceSelection faces)
+    throws JCGLException;
+
+  /**
+   * Disable depth testing, if it may be enabled.
+   *
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateDepthTestDisable()
+    throws JCGLException;
+
+  /**
+   * Enable depth testing with the given function, if depth testing is not
+   * already enabled with that function.
+   *
+   * @param f
+   *          The depth function
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateDepthTestEnable(
+    final DepthFunction f)
+    throws JCGLException;
+
+  /**
+   * Disable depth writing, if it may be enabled.
+   *
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateDepthWriteDisable()
+    throws JCGLException;
+
+  /**
+   * Enable depth writing, if it may be disabled.
+   *
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateDepthWriteEnable()
+    throws JCGLException;
+
+  /**
+   * @return The number of calls that were not submitted to OpenGL because
+   *         they would not have changed the current state
+   */
+
+  long stateGetFilteredCount();
+
+  /**
+   * @return The number of calls that were submitted to OpenGL
+   */
+
+  long stateGetSubmittedCount();
+
+  /**
+   * Forget all tracked state, so that the next call of each kind is
+   * submitted to OpenGL unconditionally.
+   */
+
+  void stateInvalidate();
+
+  /**
+   * Reset the filtered and submitted call counters to zero.
+   */
+
+  void stateResetCounters();
+
+  /**
+   * Disable stencil testing, if it may be enabled.
+   *
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateStencilDisable()
+    throws JCGLException;
+
+  /**
+   * Enable stencil testing, if it may be disabled.
+   *
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  void stateStencilEnable()
+    throws JCGLException;
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.io7m.jcanephora.ArrayAttributeDescriptor;
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayBufferUpdateUnmapped;
+import com.io7m.jcanephora.ArrayBufferUpdateUnmappedType;
+import com.io7m.jcanephora.ArrayBufferUsableType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.ArrayDescriptorBuilderType;
+import com.io7m.jcanephora.CursorWritable3fType;
+import com.io7m.jcanephora.CursorWritable4fType;
+import com.io7m.jcanephora.CursorWritableIndexType;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.IndexBufferUpdateUnmapped;
+import com.io7m.jcanephora.IndexBufferUpdateUnmappedType;
+import com.io7m.jcanephora.IndexBufferUsableType;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.JCGLExceptionAttributeDuplicate;
+import com.io7m.jcanephora.JCGLScalarType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLArrayBuffersType;
+import com.io7m.jcanephora.api.JCGLIndexBuffersType;
+import com.io7m.jcanephora.batchexec.JCBProgramType;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jtensors.parameterized.PMatrixDirectReadable4x4FType;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.jtensors.parameterized.PVectorM4F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.types.KLightSphereTexturedCubeWithoutShadow;
+import com.io7m.r1.kernel.types.KLightSphereType;
+import com.io7m.r1.kernel.types.KLightSphereVisitorType;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadowDiffuseOnly;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceRGBType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A batch of screen-space quads that shades the tiles produced by a
+ * {@link KLightTileBinner} with a single draw call.
+ * </p>
+ * <p>
+ * Each non-empty tile is covered by one quad per group of
+ * {@link KShadingProgramCommon#LIGHT_SPHERICAL_TILED_COUNT} lights. The
+ * parameters of the lights affecting a quad are stored in the vertex
+ * attributes of the quad, so the whole batch can be drawn at once with
+ * additive blending instead of issuing one scissored pass per tile. Unused
+ * light slots have zero intensity, and unused quads at the end of the
+ * buffers are degenerate.
+ * </p>
+ */
+
+@EqualityReference public final class KLightTileBatch
+{
+  private static final ArrayDescriptor ARRAY_TYPE;
+  private static final String          ATTRIBUTE_COLOR_INTENSITY_PREFIX;
+  private static final String          ATTRIBUTE_FALLOFFS;
+  private static final String          ATTRIBUTE_POSITION;
+  private static final String          ATTRIBUTE_POSITION_RANGE_PREFIX;
+  private static final String          ATTRIBUTE_SPECULAR_FACTORS;
+  private static final int             INDICES_PER_QUAD;
+  private static final int             VERTICES_PER_QUAD;
+
+  static {
+    ATTRIBUTE_POSITION = "position";
+    ATTRIBUTE_POSITION_RANGE_PREFIX = "light_position_range_";
+    ATTRIBUTE_COLOR_INTENSITY_PREFIX = "light_color_intensity_";
+    ATTRIBUTE_FALLOFFS = "light_falloffs";
+    ATTRIBUTE_SPECULAR_FACTORS = "light_specular_factors";
+    INDICES_PER_QUAD = 6;
+    VERTICES_PER_QUAD = 4;
+
+    try {
+      final ArrayDescriptorBuilderType b = ArrayDescriptor.newBuilder();
+      b.addAttribute(ArrayAttributeDescriptor.newAttribute(
+        KLightTileBatch.ATTRIBUTE_POSITION,
+        JCGLScalarType.TYPE_FLOAT,
+        3));
+      for (int slot = 0; slot < KShadingProgramCommon.LIGHT_SPHERICAL_TILED_COUNT; ++slot) {
+        b.addAttribute(ArrayAttributeDescriptor.newAttribute(
+          KLightTileBatch.ATTRIBUTE_POSITION_RANGE_PREFIX + slot,
+          JCGLScalarType.TYPE_FLOAT,
+          4));
+        b.addAttribute(ArrayAttributeDescriptor.newAttribute(
+          KLightTileBatch.ATTRIBUTE_COLOR_INTENSITY_PREFIX + slot,
+          JCGLScalarType.TYPE_FLOAT,
+          4));
+      }
+      b.addAttribute(ArrayAttributeDescriptor.newAttribute(
+        KLightTileBatch.ATTRIBUTE_FALLOFFS,
+        JCGLScalarType.TYPE_FLOAT,
+        4));
+      b.addAttribute(ArrayAttributeDescriptor.newAttribute(
+        KLightTileBatch.ATTRIBUTE_SPECULAR_FACTORS,
+        JCGLScalarType.TYPE_FLOAT,
+        4));
+      ARRAY_TYPE = b.build();
+    } catch (final JCGLExceptionAttributeDuplicate e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * @return A new empty batch
+   */
+
+  public static KLightTileBatch newBatch()
+  {
+    return new KLightTileBatch();
+  }
+
+  private @Nullable ArrayBufferType                                        array;
+  private int                                                              capacity;
+  private final String[]                                                   color_intensity_names;
+  private final PVectorM4F<RSpaceEyeType>                                  eye;
+  private @Nullable IndexBufferType                                        indices;
+  private final String[]                                                   position_range_names;
+  private float[]                                                          quad_bounds;
+  private int                                                              quad_count;
+  private int[]                                                            quad_lights;
+  private final float[]                                                    slot_falloffs;
+  private final float[]                                                    slot_specular;
+  private final List<KLightSphereType>                                     slots;
+  private final KLightSphereVisitorType<Boolean, UnreachableCodeException> specular;
+  private final PVectorM4F<RSpaceWorldType>                                world;
+
+  private KLightTileBatch()
+  {
+    this.capacity = 0;
+    this.quad_count = 0;
+    this.quad_bounds = new float[0];
+    this.quad_lights = new int[0];
+    this.slots = new ArrayList<KLightSphereType>();
+    this.eye = new PVectorM4F<RSpaceEyeType>();
+    this.world = new PVectorM4F<RSpaceWorldType>();
+
+    final int count = KShadingProgramCommon.LIGHT_SPHERICAL_TILED_COUNT;
+    this.slot_falloffs = new float[count];
+    this.slot_specular = new float[count];
+    this.position_range_names = new String[count];
+    this.color_intensity_names = new String[count];
+    for (int slot = 0; slot < count; ++slot) {
+      this.position_range_names[slot] =
+        KLightTileBatch.ATTRIBUTE_POSITION_RANGE_PREFIX + slot;
+      this.color_intensity_names[slot] =
+        KLightTileBatch.ATTRIBUTE_COLOR_INTENSITY_PREFIX + slot;
+    }
+
+    this.specular =
+      new KLightSphereVisitorType<Boolean, UnreachableCodeException>() {
+        @Override public Boolean sphereTexturedCubeWithoutShadow(
+          final KLightSphereTexturedCubeWithoutShadow lsws)
+        {
+          throw new UnreachableCodeException();
+        }
+
+        @Override public Boolean sphereWithoutShadow(
+          final KLightSphereWithoutShadow lsws)
+        {
+          return Boolean.TRUE;
+        }
+
+        @Override public Boolean sphereWithoutShadowDiffuseOnly(
+          final KLightSphereWithoutShadowDiffuseOnly lsws)
+        {
+          return Boolean.FALSE;
+        }
+      };
+  }
+
+  private void addQuad(
+    final float x0,
+    final float y0,
+    final float x1,
+    final float y1,
+    final int first,
+    final int count)
+  {
+    final int q = this.quad_count;
+    if ((q * 4) == this.quad_bounds.length) {
+      final int size = Math.max(16, q * 2);
+      this.quad_bounds = Arrays.copyOf(this.quad_bounds, size * 4);
+      this.quad_lights = Arrays.copyOf(this.quad_lights, size * 2);
+    }
+
+    this.quad_bounds[(q * 4) + 0] = x0;
+    this.quad_bounds[(q * 4) + 1] = y0;
+    this.quad_bounds[(q * 4) + 2] = x1;
+    this.quad_bounds[(q * 4) + 3] = y1;
+    this.quad_lights[(q * 2) + 0] = first;
+    this.quad_lights[(q * 2) + 1] = count;
+    this.quad_count = q + 1;
+  }
+
+  /**
+   * Bind the attributes of the uploaded batch to the given program.
+   */
+
+  void batchBindAttributes(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    final ArrayBufferUsableType a = this.batchGetArray();
+
+    program.programAttributeBind(
+      "v_" + KLightTileBatch.ATTRIBUTE_POSITION,
+      a.arrayGetAttribute(KLightTileBatch.ATTRIBUTE_POSITION));
+    for (int slot = 0; slot < KShadingProgramCommon.LIGHT_SPHERICAL_TILED_COUNT; ++slot) {
+      final String pr = this.position_range_names[slot];
+      program.programAttributeBind("v_" + pr, a.arrayGetAttribute(pr));
+      final String ci = this.color_intensity_names[slot];
+      program.programAttributeBind("v_" + ci, a.arrayGetAttribute(ci));
+    }
+    program.programAttributeBind(
+      "v_" + KLightTileBatch.ATTRIBUTE_FALLOFFS,
+      a.arrayGetAttribute(KLightTileBatch.ATTRIBUTE_FALLOFFS));
+    program.programAttributeBind(
+      "v_" + KLightTileBatch.ATTRIBUTE_SPECULAR_FACTORS,
+      a.arrayGetAttribute(KLightTileBatch.ATTRIBUTE_SPECULAR_FACTORS));
+  }
+
+  /**
+   * Build the quads for the tiles of the given binner. Any previously built
+   * quads are discarded.
+   *
+   * @param binner
+   *          A binner holding the results of the most recent binning
+   * @param width
+   *          The width of the screen in pixels, as given to the binner
+   * @param height
+   *          The height of the screen in pixels, as given to the binner
+   */
+
+  public void batchBuild(
+    final KLightTileBinner binner,
+    final int width,
+    final int height)
+  {
+    NullCheck.notNull(binner, "Binner");
+    RangeCheck.checkGreaterEqual(width, "Width", 1, "Minimum width");
+    RangeCheck.checkGreaterEqual(height, "Height", 1, "Minimum height");
+
+    this.quad_count = 0;
+    this.slots.clear();
+
+    final int size = binner.getTileSize();
+    final int max = KShadingProgramCommon.LIGHT_SPHERICAL_TILED_COUNT;
+
+    for (int ty = 0; ty < binner.getTilesY(); ++ty) {
+      for (int tx = 0; tx < binner.getTilesX(); ++tx) {
+        final int count = binner.getTileLightCount(tx, ty);
+        if (count == 0) {
+          continue;
+        }
+
+        final int px0 = tx * size;
+        final int py0 = ty * size;
+        final int px1 = Math.min(width, px0 + size);
+        final int py1 = Math.min(height, py0 + size);
+        final float x0 = ((2.0f * px0) / width) - 1.0f;
+        final float y0 = ((2.0f * py0) / height) - 1.0f;
+        final float x1 = ((2.0f * px1) / width) - 1.0f;
+        final float y1 = ((2.0f * py1) / height) - 1.0f;
+
+        for (int base = 0; base < count; base += max) {
+          final int first = this.slots.size();
+          final int group = Math.min(max, count - base);
+          for (int index = 0; index < group; ++index) {
+            this.slots.add(binner.getTileLight(tx, ty, base + index));
+          }
+          this.addQuad(x0, y0, x1, y1, first, group);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The array buffer of the most recent upload
+   */
+
+  ArrayBufferUsableType batchGetArray()
+  {
+    final ArrayBufferType a = this.array;
+    assert a != null;
+    return a;
+  }
+
+  /**
+   * @return The index buffer of the most recent upload
+   */
+
+  IndexBufferUsableType batchGetIndices()
+  {
+    final IndexBufferType i = this.indices;
+    assert i != null;
+    return i;
+  }
+
+  /**
+   * Upload the built quads, transforming the light positions to eye-space
+   * with the given view matrix. The buffers are reallocated if they are too
+   * small to hold the batch.
+   */
+
+  <G extends JCGLArrayBuffersType & JCGLIndexBuffersType> void batchUpload(
+    final G g,
+    final PMatrixM4x4F.Context context,
+    final PMatrixDirectReadable4x4FType<RSpaceWorldType, RSpaceEyeType> view)
+    throws RException
+  {
+    if (this.quad_count > this.capacity) {
+      this.reallocate(g, Math.max(this.quad_count, this.capacity * 2));
+    }
+
+    final ArrayBufferType a = this.array;
+    assert a != null;
+
+    final ArrayBufferUpdateUnmappedType am =
+      ArrayBufferUpdateUnmapped.newUpdateReplacingAll(a);
+    final CursorWritable3fType pc =
+      am.getCursor3f(KLightTileBatch.ATTRIBUTE_POSITION);
+    final CursorWritable4fType fc =
+      am.getCursor4f(KLightTileBatch.ATTRIBUTE_FALLOFFS);
+    final CursorWritable4fType sc =
+      am.getCursor4f(KLightTileBatch.ATTRIBUTE_SPECULAR_FACTORS);
+
+    final int max = KShadingProgramCommon.LIGHT_SPHERICAL_TILED_COUNT;
+    final CursorWritable4fType[] prc = new CursorWritable4fType[max];
+    final CursorWritable4fType[] cic = new CursorWritable4fType[max];
+    for (int slot = 0; slot < max; ++slot) {
+      prc[slot] = am.getCursor4f(this.position_range_names[slot]);
+      cic[slot] = am.getCursor4f(this.color_intensity_names[slot]);
+    }
+
+    final float[] falloffs = this.slot_falloffs;
+    final float[] factors = this.slot_specular;
+
+    for (int q = 0; q < this.capacity; ++q) {
+      if (q >= this.quad_count) {
+        for (int v = 0; v < KLightTileBatch.VERTICES_PER_QUAD; ++v) {
+          pc.put3f(0.0f, 0.0f, 0.0f);
+          fc.put4f(1.0f, 1.0f, 1.0f, 1.0f);
+          sc.put4f(0.0f, 0.0f, 0.0f, 0.0f);
+          for (int slot = 0; slot < max; ++slot) {
+            prc[slot].put4f(0.0f, 0.0f, 0.0f, 1.0f);
+            cic[slot].put4f(0.0f, 0.0f, 0.0f, 0.0f);
+          }
+        }
+        continue;
+      }
+
+      final int first = this.quad_lights[(q * 2) + 0];
+      final int count = this.quad_lights[(q * 2) + 1];
+
+      for (int slot = 0; slot < max; ++slot) {
+        if (slot < count) {
+          final KLightSphereType ls = this.slots.get(first + slot);
+          assert ls != null;
+
+          this.world.copyFrom3F(ls.lightGetPosition());
+          this.world.setWF(1.0f);
+          PMatrixM4x4F.multiplyVector4FWithContext(
+            context,
+            view,
+            this.world,
+            this.eye);
+
+          final PVectorI3F<RSpaceRGBType> c = ls.lightGetColor();
+          final float ex = this.eye.getXF();
+          final float ey = this.eye.getYF();
+          final float ez = this.eye.getZF();
+          final float er = ls.lightGetRadiusInverse();
+          final float cr = c.getXF();
+          final float cg = c.getYF();
+          final float cb = c.getZF();
+          final float ci = ls.lightGetIntensity();
+          for (int v = 0; v < KLightTileBatch.VERTICES_PER_QUAD; ++v) {
+            prc[slot].put4f(ex, ey, ez, er);
+            cic[slot].put4f(cr, cg, cb, ci);
+          }
+
+          falloffs[slot] = ls.lightGetFalloffInverse();
+          factors[slot] = 0.0f;
+          if (ls.sphereAccept(this.specular).booleanValue()) {
+            factors[slot] = 1.0f;
+          }
+        } else {
+          for (int v = 0; v < KLightTileBatch.VERTICES_PER_QUAD; ++v) {
+            prc[slot].put4f(0.0f, 0.0f, 0.0f, 1.0f);
+            cic[slot].put4f(0.0f, 0.0f, 0.0f, 0.0f);
+          }
+          falloffs[slot] = 1.0f;
+          factors[slot] = 0.0f;
+        }
+      }
+
+      final float x0 = this.quad_bounds[(q * 4) + 0];
+      final float y0 = this.quad_bounds[(q * 4) + 1];
+      final float x1 = this.quad_bounds[(q * 4) + 2];
+      final float y1 = this.quad_bounds[(q * 4) + 3];
+      pc.put3f(x0, y1, 0.0f);
+      pc.put3f(x0, y0, 0.0f);
+      pc.put3f(x1, y0, 0.0f);
+      pc.put3f(x1, y1, 0.0f);
+
+      for (int v = 0; v < KLightTileBatch.VERTICES_PER_QUAD; ++v) {
+        fc.put4f(falloffs[0], falloffs[1], falloffs[2], falloffs[3]);
+        sc.put4f(factors[0], factors[1], factors[2], factors[3]);
+      }
+    }
+
+    assert pc.hasNext() == false;
+
+    g.arrayBufferBind(a);
+    try {
+      g.arrayBufferUpdate(am);
+    } finally {
+      g.arrayBufferUnbind();
+    }
+  }
+
+  /**
+   * @return The number of quads in the batch
+   */
+
+  public int getQuadCount()
+  {
+    return this.quad_count;
+  }
+
+  /**
+   * @param quad
+   *          The quad index
+   * @param index
+   *          The index of the light within the quad
+   * @return The light at <code>index</code> in the given quad
+   */
+
+  public KLightSphereType getQuadLight(
+    final int quad,
+    final int index)
+  {
+    RangeCheck.checkLess(
+      index,
+      "Light index",
+      this.getQuadLightCount(quad),
+      "Quad light count");
+    final KLightSphereType r =
+      this.slots.get(this.quad_lights[quad * 2] + index);
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * @param quad
+   *          The quad index
+   * @return The number of lights shaded by the given quad
+   */
+
+  public int getQuadLightCount(
+    final int quad)
+  {
+    return this.quad_lights[(this.quadIndex(quad) * 2) + 1];
+  }
+
+  /**
+   * @param quad
+   *          The quad index
+   * @return The maximum X coordinate of the quad in normalized device
+   *         coordinates
+   */
+
+  public float getQuadXMaximum(
+    final int quad)
+  {
+    return this.quad_bounds[(this.quadIndex(quad) * 4) + 2];
+  }
+
+  /**
+   * @param quad
+   *          The quad index
+   * @return The minimum X coordinate of the quad in normalized device
+   *         coordinates
+   */
+
+  public float getQuadXMinimum(
+    final int quad)
+  {
+    return this.quad_bounds[(this.quadIndex(quad) * 4) + 0];
+  }
+
+  /**
+   * @param quad
+   *          The quad index
+   * @return The maximum Y coordinate of the quad in normalized device
+   *         coordinates
+   */
+
+  public float getQuadYMaximum(
+    final int quad)
+  {
+    return this.quad_bounds[(this.quadIndex(quad) * 4) + 3];
+  }
+
+  /**
+   * @param quad
+   *          The quad index
+   * @return The minimum Y coordinate of the quad in normalized device
+   *         coordinates
+   */
+
+  public float getQuadYMinimum(
+    final int quad)
+  {
+    return this.quad_bounds[(this.quadIndex(quad) * 4) + 1];
+  }
+
+  private int quadIndex(
+    final int quad)
+  {
+    RangeCheck.checkLess(quad, "Quad", this.quad_count, "Quad count");
+    RangeCheck.checkGreaterEqual(quad, "Quad", 0, "Minimum quad");
+    return quad;
+  }
+
+  /**
+   * Replace the buffers with buffers large enough to hold
+   * <code>new_capacity</code> quads. The index buffer never changes after
+   * allocation, as every quad uses the same two triangles.
+   */
+
+  private <G extends JCGLArrayBuffersType & JCGLIndexBuffersType> void reallocate(
+    final G g,
+    final int new_capacity)
+  {
+    final ArrayBufferType old_array = this.array;
+    if (old_array != null) {
+      g.arrayBufferDelete(old_array);
+      this.array = null;
+    }
+    final IndexBufferType old_indices = this.indices;
+    if (old_indices != null) {
+      g.indexBufferDelete(old_indices);
+      this.indices = null;
+    }
+
+    final ArrayBufferType a =
+      g.arrayBufferAllocate(
+        (long) new_capacity * KLightTileBatch.VERTICES_PER_QUAD,
+        KLightTileBatch.ARRAY_TYPE,
+        UsageHint.USAGE_STREAM_DRAW);
+
+    final IndexBufferType i =
+      g.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        (long) new_capacity * KLightTileBatch.INDICES_PER_QUAD,
+        UsageHint.USAGE_STATIC_DRAW);
+
+    final IndexBufferUpdateUnmappedType im =
+      IndexBufferUpdateUnmapped.newReplacing(i);
+    final CursorWritableIndexType ic = im.getCursor();
+    for (int q = 0; q < new_capacity; ++q) {
+      final long base = (long) q * KLightTileBatch.VERTICES_PER_QUAD;
+      ic.putIndex(base + 0);
+      ic.putIndex(base + 1);
+      ic.putIndex(base + 2);
+      ic.putIndex(base + 0);
+      ic.putIndex(base + 2);
+      ic.putIndex(base + 3);
+    }
+    assert ic.hasNext() == false;
+    g.indexBufferUpdate(im);
+
+    this.array = a;
+    this.indices = i;
+    this.capacity = new_capacity;
+  }
+}
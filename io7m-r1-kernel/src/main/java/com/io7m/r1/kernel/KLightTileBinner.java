@@ -0,0 +1,400 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jtensors.parameterized.PMatrixReadable4x4FType;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KFrustum;
+import com.io7m.r1.kernel.types.KLightSphereType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A CPU-side binner that assigns spherical lights to rectangular
+ * screen-space tiles.
+ * </p>
+ * <p>
+ * For each light, a conservative screen-space bounding rectangle is
+ * calculated by projecting the eye-space bounding box of the light's
+ * sphere of influence, and the light is added to every tile that the
+ * rectangle overlaps. Lights that lie outside of the view frustum are not
+ * added to any tile. Storage is retained between calls to
+ * {@link #binLights(PMatrixReadable4x4FType, PMatrixReadable4x4FType, int, int, List)}
+ * , so binning does not allocate once the tile lists have reached their
+ * working sizes.
+ * </p>
+ */
+
+@EqualityReference public final class KLightTileBinner
+{
+  /**
+   * Construct a new binner using square tiles of <code>tile_size</code>
+   * pixels.
+   *
+   * @param tile_size
+   *          The width and height of tiles in pixels
+   * @return A new binner
+   */
+
+  public static KLightTileBinner newBinner(
+    final int tile_size)
+  {
+    return new KLightTileBinner(tile_size);
+  }
+
+  private final float[]                corners;
+  private final KFrustum               frustum;
+  private final List<KLightSphereType> lights;
+  private long                         lights_binned;
+  private long                         lights_culled;
+  private int[]                        tile_counts;
+  private int[][]                      tile_lights;
+  private final int                    tile_size;
+  private int                          tiles_x;
+  private int                          tiles_y;
+
+  private KLightTileBinner(
+    final int in_tile_size)
+  {
+    this.tile_size =
+      (int) RangeCheck.checkGreaterEqual(
+        in_tile_size,
+        "Tile size",
+        1,
+        "Minimum tile size");
+    this.frustum = KFrustum.newFrustum();
+    this.lights = new ArrayList<KLightSphereType>();
+    this.tile_counts = new int[0];
+    this.tile_lights = new int[0][];
+    this.corners = new float[4];
+  }
+
+  private void addToTile(
+    final int tile,
+    final int light_index)
+  {
+    final int count = this.tile_counts[tile];
+    int[] list = this.tile_lights[tile];
+    if (count == list.length) {
+      list = Arrays.copyOf(list, Math.max(4, list.length * 2));
+      this.tile_lights[tile] = list;
+    }
+    list[count] = light_index;
+    this.tile_counts[tile] = count + 1;
+  }
+
+  /**
+   * Assign each of the given lights to the tiles that it may affect. Any
+   * previous binning results are discarded.
+   *
+   * @param view
+   *          The world-to-eye matrix of the observer
+   * @param projection
+   *          The eye-to-clip matrix of the observer
+   * @param width
+   *          The width of the screen in pixels
+   * @param height
+   *          The height of the screen in pixels
+   * @param in_lights
+   *          The lights
+   */
+
+  public void binLights(
+    final PMatrixReadable4x4FType<RSpaceWorldType, RSpaceEyeType> view,
+    final PMatrixReadable4x4FType<RSpaceEyeType, RSpaceClipType> projection,
+    final int width,
+    final int height,
+    final List<? extends KLightSphereType> in_lights)
+  {
+    NullCheck.notNull(view, "View");
+    NullCheck.notNull(projection, "Projection");
+    NullCheck.notNull(in_lights, "Lights");
+    RangeCheck.checkGreaterEqual(width, "Width", 1, "Minimum width");
+    RangeCheck.checkGreaterEqual(height, "Height", 1, "Minimum height");
+
+    this.resize(width, height);
+    this.frustum.updateFromMatrices(view, projection);
+    this.lights.clear();
+    this.lights_binned = 0;
+    this.lights_culled = 0;
+
+    for (int index = 0; index < in_lights.size(); ++index) {
+      final KLightSphereType light = in_lights.get(index);
+      assert light != null;
+      this.lights.add(light);
+
+      final PVectorI3F<RSpaceWorldType> p = light.lightGetPosition();
+      final float radius = light.lightGetRadius();
+      if (this.frustum.intersectsSphere(
+        p.getXF(),
+        p.getYF(),
+        p.getZF(),
+        radius) == false) {
+        ++this.lights_culled;
+        continue;
+      }
+
+      this.calculateScreenBounds(view, projection, p, radius);
+
+      final float[] c = this.corners;
+      final float px0 = ((c[0] * 0.5f) + 0.5f) * width;
+      final float py0 = ((c[1] * 0.5f) + 0.5f) * height;
+      final float px1 = ((c[2] * 0.5f) + 0.5f) * width;
+      final float py1 = ((c[3] * 0.5f) + 0.5f) * height;
+
+      if ((px1 < 0.0f) || (py1 < 0.0f) || (px0 >= width) || (py0 >= height)) {
+        ++this.lights_culled;
+        continue;
+      }
+
+      final int tx0 = KLightTileBinner.clampTile(px0, this.tile_size, this.tiles_x);
+      final int ty0 = KLightTileBinner.clampTile(py0, this.tile_size, this.tiles_y);
+      final int tx1 = KLightTileBinner.clampTile(px1, this.tile_size, this.tiles_x);
+      final int ty1 = KLightTileBinner.clampTile(py1, this.tile_size, this.tiles_y);
+
+      for (int ty = ty0; ty <= ty1; ++ty) {
+        for (int tx = tx0; tx <= tx1; ++tx) {
+          this.addToTile((ty * this.tiles_x) + tx, index);
+        }
+      }
+      ++this.lights_binned;
+    }
+  }
+
+  private static int clampTile(
+    final float pixel,
+    final int size,
+    final int count)
+  {
+    final int tile = (int) Math.floor(pixel / size);
+    return Math.max(0, Math.min(count - 1, tile));
+  }
+
+  /**
+   * Calculate the normalized device coordinates of the screen-space
+   * rectangle that contains the given sphere, storing the result as
+   * <code>(x0, y0, x1, y1)</code> in {@link #corners}. If any part of the
+   * bounding box of the sphere lies behind the observer, the rectangle is
+   * the entire screen.
+   */
+
+  private void calculateScreenBounds(
+    final PMatrixReadable4x4FType<RSpaceWorldType, RSpaceEyeType> view,
+    final PMatrixReadable4x4FType<RSpaceEyeType, RSpaceClipType> projection,
+    final PVectorI3F<RSpaceWorldType> p,
+    final float radius)
+  {
+    final float ex =
+      (view.getRowColumnF(0, 0) * p.getXF())
+        + (view.getRowColumnF(0, 1) * p.getYF())
+        + (view.getRowColumnF(0, 2) * p.getZF())
+        + view.getRowColumnF(0, 3);
+    final float ey =
+      (view.getRowColumnF(1, 0) * p.getXF())
+        + (view.getRowColumnF(1, 1) * p.getYF())
+        + (view.getRowColumnF(1, 2) * p.getZF())
+        + view.getRowColumnF(1, 3);
+    final float ez =
+      (view.getRowColumnF(2, 0) * p.getXF())
+        + (view.getRowColumnF(2, 1) * p.getYF())
+        + (view.getRowColumnF(2, 2) * p.getZF())
+        + view.getRowColumnF(2, 3);
+
+    float min_x = Float.MAX_VALUE;
+    float min_y = Float.MAX_VALUE;
+    float max_x = -Float.MAX_VALUE;
+    float max_y = -Float.MAX_VALUE;
+
+    for (int corner = 0; corner < 8; ++corner) {
+      float cx = ex - radius;
+      if ((corner & 1) != 0) {
+        cx = ex + radius;
+      }
+      float cy = ey - radius;
+      if ((corner & 2) != 0) {
+        cy = ey + radius;
+      }
+      float cz = ez - radius;
+      if ((corner & 4) != 0) {
+        cz = ez + radius;
+      }
+
+      final float clip_x =
+        (projection.getRowColumnF(0, 0) * cx)
+          + (projection.getRowColumnF(0, 1) * cy)
+          + (projection.getRowColumnF(0, 2) * cz)
+          + projection.getRowColumnF(0, 3);
+      final float clip_y =
+        (projection.getRowColumnF(1, 0) * cx)
+          + (projection.getRowColumnF(1, 1) * cy)
+          + (projection.getRowColumnF(1, 2) * cz)
+          + projection.getRowColumnF(1, 3);
+      final float clip_w =
+        (projection.getRowColumnF(3, 0) * cx)
+          + (projection.getRowColumnF(3, 1) * cy)
+          + (projection.getRowColumnF(3, 2) * cz)
+          + projection.getRowColumnF(3, 3);
+
+      if (clip_w <= 0.0f) {
+        this.corners[0] = -1.0f;
+        this.corners[1] = -1.0f;
+        this.corners[2] = 1.0f;
+        this.corners[3] = 1.0f;
+        return;
+      }
+
+      final float ndc_x = clip_x / clip_w;
+      final float ndc_y = clip_y / clip_w;
+      min_x = Math.min(min_x, ndc_x);
+      min_y = Math.min(min_y, ndc_y);
+      max_x = Math.max(max_x, ndc_x);
+      max_y = Math.max(max_y, ndc_y);
+    }
+
+    this.corners[0] = min_x;
+    this.corners[1] = min_y;
+    this.corners[2] = max_x;
+    this.corners[3] = max_y;
+  }
+
+  /**
+   * @return The number of lights that were added to at least one tile by the
+   *         most recent binning
+   */
+
+  public long getLightsBinned()
+  {
+    return this.lights_binned;
+  }
+
+  /**
+   * @return The number of lights that were not added to any tile by the most
+   *         recent binning
+   */
+
+  public long getLightsCulled()
+  {
+    return this.lights_culled;
+  }
+
+  /**
+   * @param x
+   *          The tile X coordinate
+   * @param y
+   *          The tile Y coordinate
+   * @param index
+   *          The index of the light within the tile
+   * @return The light at <code>index</code> in the given tile
+   */
+
+  public KLightSphereType getTileLight(
+    final int x,
+    final int y,
+    final int index)
+  {
+    final int tile = this.tileIndex(x, y);
+    RangeCheck.checkLess(
+      index,
+      "Light index",
+      this.tile_counts[tile],
+      "Tile light count");
+    final KLightSphereType r = this.lights.get(this.tile_lights[tile][index]);
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * @param x
+   *          The tile X coordinate
+   * @param y
+   *          The tile Y coordinate
+   * @return The number of lights in the given tile
+   */
+
+  public int getTileLightCount(
+    final int x,
+    final int y)
+  {
+    return this.tile_counts[this.tileIndex(x, y)];
+  }
+
+  /**
+   * @return The width and height of tiles in pixels
+   */
+
+  public int getTileSize()
+  {
+    return this.tile_size;
+  }
+
+  /**
+   * @return The number of tiles on the X axis
+   */
+
+  public int getTilesX()
+  {
+    return this.tiles_x;
+  }
+
+  /**
+   * @return The number of tiles on the Y axis
+   */
+
+  public int getTilesY()
+  {
+    return this.tiles_y;
+  }
+
+  private void resize(
+    final int width,
+    final int height)
+  {
+    this.tiles_x = ((width + this.tile_size) - 1) / this.tile_size;
+    this.tiles_y = ((height + this.tile_size) - 1) / this.tile_size;
+
+    final int count = this.tiles_x * this.tiles_y;
+    if (this.tile_counts.length < count) {
+      this.tile_counts = new int[count];
+      final int[][] old = this.tile_lights;
+      this.tile_lights = Arrays.copyOf(old, count);
+      for (int index = old.length; index < count; ++index) {
+        this.tile_lights[index] = new int[4];
+      }
+    }
+    Arrays.fill(this.tile_counts, 0);
+  }
+
+  private int tileIndex(
+    final int x,
+    final int y)
+  {
+    RangeCheck.checkLess(x, "Tile X", this.tiles_x, "Tile count X");
+    RangeCheck.checkLess(y, "Tile Y", this.tiles_y, "Tile count Y");
+    RangeCheck.checkGreaterEqual(x, "Tile X", 0, "Minimum tile X");
+    RangeCheck.checkGreaterEqual(y, "Tile Y", 0, "Minimum tile Y");
+    return (y * this.tiles_x) + x;
+  }
+}
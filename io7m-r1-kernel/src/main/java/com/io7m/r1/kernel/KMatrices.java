@@ -77,6 +77,31 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     PMatrixM3x3F.transposeInPlace(mr);
   }
 
+  /**
+   * Produce a normal matrix for the given view matrix. The normal matrix of a
+   * modelview matrix <code>view * model</code> is the normal matrix of
+   * <code>view</code> multiplied by the normal matrix of <code>model</code>,
+   * so the result can be combined with cached world-space normal matrices.
+   *
+   * @param m
+   *          The view matrix
+   * @param mr
+   *          The resulting normal matrix
+   */
+
+  public static void makeNormalMatrixView(
+    final PMatrixReadable4x4FType<RSpaceWorldType, RSpaceEyeType> m,
+    final PMatrixM3x3F<RSpaceWorldType, RSpaceNormalEyeType> mr)
+  {
+    for (int row = 0; row < 3; ++row) {
+      for (int col = 0; col < 3; ++col) {
+        mr.set(row, col, m.getRowColumnF(row, col));
+      }
+    }
+    PMatrixM3x3F.invertInPlace(mr);
+    PMatrixM3x3F.transposeInPlace(mr);
+  }
+
   /**
    * Produce a view matrix assuming a viewer at <code>position</code> facing
    * <code>orientation</code>.
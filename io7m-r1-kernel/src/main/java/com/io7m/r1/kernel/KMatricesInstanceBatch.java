@@ -0,0 +1,688 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jtensors.parameterized.PMatrixM3x3F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PMatrixReadable3x3FType;
+import com.io7m.jtensors.parameterized.PMatrixReadable4x4FType;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KInstanceOpaqueVisitorType;
+import com.io7m.r1.kernel.types.KInstanceTranslucentRefractive;
+import com.io7m.r1.kernel.types.KInstanceTranslucentRegular;
+import com.io7m.r1.kernel.types.KInstanceTranslucentSpecularOnly;
+import com.io7m.r1.kernel.types.KInstanceTranslucentType;
+import com.io7m.r1.kernel.types.KInstanceTranslucentVisitorType;
+import com.io7m.r1.kernel.types.KInstanceType;
+import com.io7m.r1.kernel.types.KInstanceVisitorType;
+import com.io7m.r1.kernel.types.KInstancesByCode;
+import com.io7m.r1.kernel.types.KMaterialType;
+import com.io7m.r1.kernel.types.KTranslucentRegularLit;
+import com.io7m.r1.kernel.types.KTranslucentSpecularOnlyLit;
+import com.io7m.r1.kernel.types.KTranslucentType;
+import com.io7m.r1.kernel.types.KTranslucentVisitorType;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetOpaques;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceNormalEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A batch of instance matrices, calculated once per frame.
+ * </p>
+ * <p>
+ * The model, model-view, normal, and UV matrices of every instance in a
+ * visible set are calculated in a single pass and stored in flat arrays
+ * (ordered by instance index, row-major within each matrix). Renderers that
+ * evaluate instances with a {@link KMutableMatrices} observer started with
+ * {@link KMutableMatrices#withObserverBatched} then copy the stored matrices
+ * instead of recalculating them for each pass.
+ * </p>
+ * <p>
+ * If the batch is given an executor, the instances are split into chunks of
+ * {@link #CHUNK_SIZE} and the chunks are calculated in parallel. The results
+ * do not depend on the number of threads used.
+ * </p>
+ */
+
+@SuppressWarnings("synthetic-access") @EqualityReference public final class KMatricesInstanceBatch
+{
+  /**
+   * The maximum number of instances calculated by a single task.
+   */
+
+  public static final int                                                               CHUNK_SIZE;
+  private static final KTranslucentVisitorType<KInstanceType, UnreachableCodeException> GET_INSTANCE;
+  private static final KInstanceVisitorType<KMaterialType, UnreachableCodeException>    GET_MATERIAL;
+
+  static {
+    CHUNK_SIZE = 256;
+
+    GET_INSTANCE =
+      new KTranslucentVisitorType<KInstanceType, UnreachableCodeException>() {
+        @Override public KInstanceType refractive(
+          final KInstanceTranslucentRefractive t)
+        {
+          return t;
+        }
+
+        @Override public KInstanceType regularLit(
+          final KTranslucentRegularLit t)
+        {
+          return t.translucentGetInstance();
+        }
+
+        @Override public KInstanceType regularUnlit(
+          final KInstanceTranslucentRegular t)
+        {
+          return t;
+        }
+
+        @Override public KInstanceType specularOnly(
+          final KTranslucentSpecularOnlyLit t)
+        {
+          return t.translucentGetInstance();
+        }
+      };
+
+    final KInstanceOpaqueVisitorType<KMaterialType, UnreachableCodeException> opaque =
+      new KInstanceOpaqueVisitorType<KMaterialType, UnreachableCodeException>() {
+        @Override public KMaterialType regular(
+          final KInstanceOpaqueRegular o)
+        {
+          return o.getMaterial();
+        }
+      };
+
+    final KInstanceTranslucentVisitorType<KMaterialType, UnreachableCodeException> translucent =
+      new KInstanceTranslucentVisitorType<KMaterialType, UnreachableCodeException>() {
+        @Override public KMaterialType refractive(
+          final KInstanceTranslucentRefractive t)
+        {
+          return t.getMaterial();
+        }
+
+        @Override public KMaterialType regular(
+          final KInstanceTranslucentRegular t)
+        {
+          return t.getMaterial();
+        }
+
+        @Override public KMaterialType specularOnly(
+          final KInstanceTranslucentSpecularOnly t)
+        {
+          return t.getMaterial();
+        }
+      };
+
+    GET_MATERIAL =
+      new KInstanceVisitorType<KMaterialType, UnreachableCodeException>() {
+        @Override public KMaterialType opaque(
+          final KInstanceOpaqueType o)
+          throws RException
+        {
+          return o.opaqueAccept(opaque);
+        }
+
+        @Override public KMaterialType translucent(
+          final KInstanceTranslucentType t)
+          throws RException
+        {
+          return t.translucentAccept(translucent);
+        }
+      };
+  }
+
+  /**
+   * The storage and temporary matrices used to calculate a range of
+   * instances. Each worker is used by at most one thread at a time.
+   */
+
+  @EqualityReference private final class Worker implements Callable<Unit>
+  {
+    private int                                                       end;
+    private final KTransformEvaluator                                 evaluator;
+    private final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>     model;
+    private final PMatrixM4x4F<RSpaceObjectType, RSpaceEyeType>       modelview;
+    private final PMatrixM3x3F<RSpaceObjectType, RSpaceNormalEyeType> normal;
+    private int                                                       start;
+    private final PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>  uv;
+    private final PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>  uv_material;
+
+    Worker()
+    {
+      this.evaluator = KTransformEvaluator.newEvaluator();
+      this.model = new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+      this.modelview = new PMatrixM4x4F<RSpaceObjectType, RSpaceEyeType>();
+      this.normal = new PMatrixM3x3F<RSpaceObjectType, RSpaceNormalEyeType>();
+      this.uv = new PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>();
+      this.uv_material =
+        new PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>();
+    }
+
+    @Override public Unit call()
+    {
+      final KMatricesInstanceBatch b = KMatricesInstanceBatch.this;
+      final KInstanceType[] is = b.instances;
+      final PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType> v = b.view;
+      final PMatrixM3x3F<RSpaceWorldType, RSpaceNormalEyeType> vn =
+        b.view_normal;
+
+      for (int index = this.start; index < this.end; ++index) {
+        final KInstanceType i = is[index];
+        assert i != null;
+
+        this.evaluator.evaluate(
+          i.instanceGetTransform(),
+          v,
+          vn,
+          this.model,
+          this.modelview,
+          this.normal);
+
+        /**
+         * The UV matrix is the instance's UV matrix multiplied by the
+         * material's UV matrix.
+         */
+
+        i.instanceGetUVMatrix().makeMatrixM3x3F(this.uv);
+        try {
+          final KMaterialType m =
+            i.instanceAccept(KMatricesInstanceBatch.GET_MATERIAL);
+          m.materialGetUVMatrix().makeMatrixM3x3F(this.uv_material);
+        } catch (final JCGLException e) {
+          throw new UnreachableCodeException(e);
+        } catch (final RException e) {
+          throw new UnreachableCodeException(e);
+        }
+        PMatrixM3x3F.multiply(this.uv, this.uv_material, this.uv);
+
+        KMatricesInstanceBatch.store4x4(this.model, b.model, index);
+        KMatricesInstanceBatch.store4x4(this.modelview, b.modelview, index);
+        KMatricesInstanceBatch.store3x3(this.normal, b.normal, index);
+        KMatricesInstanceBatch.store3x3(this.uv, b.uv, index);
+      }
+
+      return Unit.unit();
+    }
+  }
+
+  /**
+   * @return A new batch that calculates matrices on the calling thread
+   */
+
+  public static KMatricesInstanceBatch newBatch()
+  {
+    final OptionType<ExecutorService> none = Option.none();
+    return new KMatricesInstanceBatch(none);
+  }
+
+  /**
+   * @param in_executor
+   *          The executor used to calculate chunks of instances in parallel
+   * @return A new batch that calculates matrices with the given executor
+   */
+
+  public static KMatricesInstanceBatch newBatchWithExecutor(
+    final ExecutorService in_executor)
+  {
+    return new KMatricesInstanceBatch(Option.some(NullCheck.notNull(
+      in_executor,
+      "Executor")));
+  }
+
+  private static void load3x3(
+    final float[] data,
+    final int index,
+    final PMatrixM3x3F<?, ?> m)
+  {
+    final int base = index * 9;
+    for (int row = 0; row < 3; ++row) {
+      for (int col = 0; col < 3; ++col) {
+        m.set(row, col, data[base + (row * 3) + col]);
+      }
+    }
+  }
+
+  private static void load4x4(
+    final float[] data,
+    final int index,
+    final PMatrixM4x4F<?, ?> m)
+  {
+    final int base = index * 16;
+    for (int row = 0; row < 4; ++row) {
+      for (int col = 0; col < 4; ++col) {
+        m.set(row, col, data[base + (row * 4) + col]);
+      }
+    }
+  }
+
+  private static void store3x3(
+    final PMatrixReadable3x3FType<?, ?> m,
+    final float[] data,
+    final int index)
+  {
+    final int base = index * 9;
+    for (int row = 0; row < 3; ++row) {
+      for (int col = 0; col < 3; ++col) {
+        data[base + (row * 3) + col] = m.getRowColumnF(row, col);
+      }
+    }
+  }
+
+  private static void store4x4(
+    final PMatrixReadable4x4FType<?, ?> m,
+    final float[] data,
+    final int index)
+  {
+    final int base = index * 16;
+    for (int row = 0; row < 4; ++row) {
+      for (int col = 0; col < 4; ++col) {
+        data[base + (row * 4) + col] = m.getRowColumnF(row, col);
+      }
+    }
+  }
+
+  private int                                                      count;
+  private final OptionType<ExecutorService>                        executor;
+  private final List<Future<Unit>>                                 futures;
+  private final Map<KInstanceType, Integer>                        indices;
+  private KInstanceType[]                                          instances;
+  private float[]                                                  model;
+  private float[]                                                  modelview;
+  private float[]                                                  normal;
+  private float[]                                                  uv;
+  private final PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType>       view;
+  private final PMatrixM3x3F<RSpaceWorldType, RSpaceNormalEyeType> view_normal;
+  private final List<Worker>                                       workers;
+
+  private KMatricesInstanceBatch(
+    final OptionType<ExecutorService> in_executor)
+  {
+    this.executor = NullCheck.notNull(in_executor, "Executor");
+    this.futures = new ArrayList<Future<Unit>>();
+    this.indices = new IdentityHashMap<KInstanceType, Integer>();
+    this.instances = new KInstanceType[0];
+    this.model = new float[0];
+    this.modelview = new float[0];
+    this.normal = new float[0];
+    this.uv = new float[0];
+    this.view = new PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType>();
+    this.view_normal = new PMatrixM3x3F<RSpaceWorldType, RSpaceNormalEyeType>();
+    this.workers = new ArrayList<Worker>();
+  }
+
+  private void add(
+    final KInstanceType i)
+  {
+    if (this.indices.containsKey(i)) {
+      return;
+    }
+
+    final int index = this.count;
+    if (index == this.instances.length) {
+      final int size = Math.max(16, index * 2);
+      final KInstanceType[] ni = new KInstanceType[size];
+      System.arraycopy(this.instances, 0, ni, 0, index);
+      this.instances = ni;
+    }
+
+    this.instances[index] = i;
+    this.indices.put(i, Integer.valueOf(index));
+    this.count = index + 1;
+  }
+
+  private void addAll(
+    final List<? extends KInstanceType> is)
+  {
+    for (int index = 0; index < is.size(); ++index) {
+      this.add(NullCheck.notNull(is.get(index), "Instance"));
+    }
+  }
+
+  private void addAllByCode(
+    final KInstancesByCode ic)
+  {
+    final int groups = ic.getGroupCount();
+    for (int group = 0; group < groups; ++group) {
+      this.addAll(ic.getGroupInstances(group));
+    }
+  }
+
+  /**
+   * Calculate the matrices for every opaque and translucent instance in the
+   * given visible set, using the view matrix of the visible set's camera.
+   * Any matrices calculated previously are discarded.
+   *
+   * @param visible
+   *          The visible set
+   * @throws RException
+   *           If an error occurs
+   */
+
+  public void batchEvaluate(
+    final KVisibleSet visible)
+    throws RException
+  {
+    NullCheck.notNull(visible, "Visible set");
+
+    this.batchReset();
+
+    final KVisibleSetOpaques opaques = visible.getOpaques();
+    final Set<String> names = opaques.getGroupNames();
+    for (final String name : names) {
+      assert name != null;
+      this.addAllByCode(opaques.getGroup(name).getInstancesByCode());
+    }
+    this.addAllByCode(opaques.getUnlitInstances());
+
+    final List<KTranslucentType> ts = visible.getTranslucents().getInstances();
+    for (int index = 0; index < ts.size(); ++index) {
+      final KTranslucentType t = ts.get(index);
+      this.add(t.translucentAccept(KMatricesInstanceBatch.GET_INSTANCE));
+    }
+
+    visible.getCamera().getViewMatrix().makeMatrixM4x4F(this.view);
+    this.calculate();
+  }
+
+  /**
+   * Calculate the matrices for the given instances, using the given view
+   * matrix. Any matrices calculated previously are discarded. Instances that
+   * appear more than once in the list are calculated once.
+   *
+   * @param in_view
+   *          The view matrix
+   * @param in_instances
+   *          The instances
+   */
+
+  public void batchEvaluateInstances(
+    final PMatrixReadable4x4FType<RSpaceWorldType, RSpaceEyeType> in_view,
+    final List<? extends KInstanceType> in_instances)
+  {
+    NullCheck.notNull(in_view, "View");
+    NullCheck.notNull(in_instances, "Instances");
+
+    this.batchReset();
+    this.addAll(in_instances);
+
+    final PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType> v = this.view;
+    for (int row = 0; row < 4; ++row) {
+      for (int col = 0; col < 4; ++col) {
+        v.set(row, col, in_view.getRowColumnF(row, col));
+      }
+    }
+
+    this.calculate();
+  }
+
+  /**
+   * @return The number of instances in the batch
+   */
+
+  public int batchGetCount()
+  {
+    return this.count;
+  }
+
+  /**
+   * @param i
+   *          The instance
+   * @return The index of the given instance in the batch, or <code>-1</code>
+   *         if the instance is not in the batch
+   */
+
+  public int batchGetIndex(
+    final KInstanceType i)
+  {
+    final Integer r = this.indices.get(NullCheck.notNull(i, "Instance"));
+    if (r != null) {
+      return r.intValue();
+    }
+    return -1;
+  }
+
+  /**
+   * Copy the model matrix of the instance at <code>index</code> to
+   * <code>m</code>.
+   *
+   * @param index
+   *          The instance index
+   * @param m
+   *          The output matrix
+   */
+
+  public void batchGetMatrixModel(
+    final int index,
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m)
+  {
+    this.checkIndex(index);
+    KMatricesInstanceBatch.load4x4(this.model, index, m);
+  }
+
+  /**
+   * Copy the model-view matrix of the instance at <code>index</code> to
+   * <code>m</code>.
+   *
+   * @param index
+   *          The instance index
+   * @param m
+   *          The output matrix
+   */
+
+  public void batchGetMatrixModelView(
+    final int index,
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceEyeType> m)
+  {
+    this.checkIndex(index);
+    KMatricesInstanceBatch.load4x4(this.modelview, index, m);
+  }
+
+  /**
+   * Copy the normal matrix of the instance at <code>index</code> to
+   * <code>m</code>.
+   *
+   * @param index
+   *          The instance index
+   * @param m
+   *          The output matrix
+   */
+
+  public void batchGetMatrixNormal(
+    final int index,
+    final PMatrixM3x3F<RSpaceObjectType, RSpaceNormalEyeType> m)
+  {
+    this.checkIndex(index);
+    KMatricesInstanceBatch.load3x3(this.normal, index, m);
+  }
+
+  /**
+   * Copy the UV matrix (the instance's UV matrix multiplied by the material's
+   * UV matrix) of the instance at <code>index</code> to <code>m</code>.
+   *
+   * @param index
+   *          The instance index
+   * @param m
+   *          The output matrix
+   */
+
+  public void batchGetMatrixUV(
+    final int index,
+    final PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType> m)
+  {
+    this.checkIndex(index);
+    KMatricesInstanceBatch.load3x3(this.uv, index, m);
+  }
+
+  /**
+   * @param v
+   *          A view matrix
+   * @return <code>true</code> iff the model-view and normal matrices in the
+   *         batch were calculated with the given view matrix
+   */
+
+  public boolean batchIsForView(
+    final PMatrixReadable4x4FType<RSpaceWorldType, RSpaceEyeType> v)
+  {
+    NullCheck.notNull(v, "View");
+    for (int row = 0; row < 4; ++row) {
+      for (int col = 0; col < 4; ++col) {
+        if (this.view.getRowColumnF(row, col) != v.getRowColumnF(row, col)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remove all instances from the batch.
+   */
+
+  public void batchReset()
+  {
+    final KInstanceType[] is = this.instances;
+    for (int index = 0; index < this.count; ++index) {
+      is[index] = null;
+    }
+    this.indices.clear();
+    this.count = 0;
+  }
+
+  private void calculate()
+  {
+    KMatrices.makeNormalMatrixView(this.view, this.view_normal);
+
+    final int n = this.count;
+    if (this.model.length < n * 16) {
+      final int size = this.instances.length;
+      this.model = new float[size * 16];
+      this.modelview = new float[size * 16];
+      this.normal = new float[size * 9];
+      this.uv = new float[size * 9];
+    }
+
+    if (this.executor.isNone() || (n <= KMatricesInstanceBatch.CHUNK_SIZE)) {
+      final Worker w = this.getWorker(0);
+      w.start = 0;
+      w.end = n;
+      w.call();
+      return;
+    }
+
+    final ExecutorService e = ((Some<ExecutorService>) this.executor).get();
+    final List<Future<Unit>> fs = this.futures;
+    final int size = KMatricesInstanceBatch.CHUNK_SIZE;
+    Throwable failure = null;
+    boolean interrupted = false;
+
+    try {
+      int chunk = 0;
+      for (int start = 0; start < n; start += size) {
+        final Worker w = this.getWorker(chunk);
+        w.start = start;
+        w.end = Math.min(n, start + size);
+        fs.add(e.submit(w));
+        ++chunk;
+      }
+    } finally {
+
+      /**
+       * The calling thread must not proceed until every submitted chunk has
+       * completed, even if one of them has failed: the remaining tasks would
+       * otherwise still be writing to the matrix arrays when the next batch
+       * is evaluated. Interruptions are deferred until all tasks have
+       * completed, and only the first failure is reported.
+       */
+
+      for (int index = 0; index < fs.size(); ++index) {
+        final Future<Unit> f = fs.get(index);
+        assert f != null;
+
+        while (true) {
+          try {
+            f.get();
+            break;
+          } catch (final InterruptedException x) {
+            interrupted = true;
+          } catch (final ExecutionException x) {
+            if (failure == null) {
+              failure = x.getCause();
+            }
+            break;
+          }
+        }
+      }
+
+      fs.clear();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (failure != null) {
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      throw new UnreachableCodeException(failure);
+    }
+  }
+
+  private void checkIndex(
+    final int index)
+  {
+    RangeCheck.checkGreaterEqual(index, "Index", 0, "Minimum index");
+    RangeCheck.checkLess(index, "Index", this.count, "Instance count");
+  }
+
+  private Worker getWorker(
+    final int index)
+  {
+    while (this.workers.size() <= index) {
+      this.workers.add(new Worker());
+    }
+    return NullCheck.notNull(this.workers.get(index));
+  }
+}
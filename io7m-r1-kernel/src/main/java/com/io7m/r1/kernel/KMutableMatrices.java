@@ -106,6 +106,7 @@ import com.io7m.r1.spaces.RSpaceWorldType;
   @EqualityReference private final class InstanceFromObserver implements
     KMatricesInstanceType
   {
+    private final KInstanceVisitorType<Unit, RException>              material_uv;
     private final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>     matrix_model;
     private final PMatrixM4x4F<RSpaceObjectType, RSpaceEyeType>       matrix_modelview;
     private final PMatrixM3x3F<RSpaceObjectType, RSpaceNormalEyeType> matrix_normal;
@@ -128,6 +129,75 @@ import com.io7m.r1.spaces.RSpaceWorldType;
         new PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>();
       this.matrix_uv_temp =
         new PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>();
+
+      /**
+       * The visitors that copy an instance's material matrix into the
+       * temporary matrix are allocated once, as they are evaluated for every
+       * instance rendered.
+       */
+
+      final PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType> uv_temp =
+        this.matrix_uv_temp;
+
+      final KInstanceOpaqueVisitorType<Unit, RException> opaque_uv =
+        new KInstanceOpaqueVisitorType<Unit, RException>() {
+          @Override public Unit regular(
+            final KInstanceOpaqueRegular or)
+            throws RException
+          {
+            final KMaterialOpaqueType mat = or.getMaterial();
+            mat.materialGetUVMatrix().makeMatrixM3x3F(uv_temp);
+            return Unit.unit();
+          }
+        };
+
+      final KInstanceTranslucentVisitorType<Unit, RException> translucent_uv =
+        new KInstanceTranslucentVisitorType<Unit, RException>() {
+          @Override public Unit refractive(
+            final KInstanceTranslucentRefractive tr)
+            throws RException
+          {
+            final KMaterialTranslucentRefractive mat = tr.getMaterial();
+            mat.materialGetUVMatrix().makeMatrixM3x3F(uv_temp);
+            return Unit.unit();
+          }
+
+          @Override public Unit regular(
+            final KInstanceTranslucentRegular tr)
+            throws RException
+          {
+            final KMaterialTranslucentRegular mat = tr.getMaterial();
+            mat.materialGetUVMatrix().makeMatrixM3x3F(uv_temp);
+            return Unit.unit();
+          }
+
+          @Override public Unit specularOnly(
+            final KInstanceTranslucentSpecularOnly ts)
+            throws RException
+          {
+            final KMaterialTranslucentSpecularOnly mat = ts.getMaterial();
+            mat.materialGetUVMatrix().makeMatrixM3x3F(uv_temp);
+            return Unit.unit();
+          }
+        };
+
+      this.material_uv = new KInstanceVisitorType<Unit, RException>() {
+        @Override public Unit opaque(
+          final KInstanceOpaqueType o)
+          throws RException,
+            JCGLException
+        {
+          return o.opaqueAccept(opaque_uv);
+        }
+
+        @Override public Unit translucent(
+          final KInstanceTranslucentType t)
+          throws RException,
+            JCGLException
+        {
+          return t.translucentAccept(translucent_uv);
+        }
+      };
     }
 
     @Override public PMatrixM4x4F.Context getMatrixContext()
@@ -209,6 +279,15 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     private void instanceStart(
       final KInstanceType i)
     {
+      final KMatricesInstanceBatch b = KMutableMatrices.this.batch;
+      if (b != null) {
+        final int index = b.batchGetIndex(i);
+        if (index >= 0) {
+          this.instanceStartFromBatch(b, index);
+          return;
+        }
+      }
+
       this.instanceStartWithTransform(
         i.instanceGetTransform(),
         i.instanceGetUVMatrix());
@@ -219,78 +298,7 @@ import com.io7m.r1.spaces.RSpaceWorldType;
          * Copy the instance's material matrix into the temporary matrix.
          */
 
-        i.instanceAccept(new KInstanceVisitorType<Unit, RException>() {
-          @Override public Unit opaque(
-            final KInstanceOpaqueType o)
-            throws RException,
-              JCGLException
-          {
-            return o
-              .opaqueAccept(new KInstanceOpaqueVisitorType<Unit, RException>() {
-                @Override public Unit regular(
-                  final KInstanceOpaqueRegular or)
-                  throws RException
-                {
-                  final KMaterialOpaqueType mat = or.getMaterial();
-                  final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> mat_uv_m =
-                    mat.materialGetUVMatrix();
-
-                  mat_uv_m
-                    .makeMatrixM3x3F(InstanceFromObserver.this.matrix_uv_temp);
-                  return Unit.unit();
-                }
-              });
-          }
-
-          @Override public Unit translucent(
-            final KInstanceTranslucentType t)
-            throws RException,
-              JCGLException
-          {
-            return t
-              .translucentAccept(new KInstanceTranslucentVisitorType<Unit, RException>() {
-                @Override public Unit refractive(
-                  final KInstanceTranslucentRefractive tr)
-                  throws RException
-                {
-                  final KMaterialTranslucentRefractive mat = tr.getMaterial();
-                  final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> mat_uv_m =
-                    mat.materialGetUVMatrix();
-
-                  mat_uv_m
-                    .makeMatrixM3x3F(InstanceFromObserver.this.matrix_uv_temp);
-                  return Unit.unit();
-                }
-
-                @Override public Unit regular(
-                  final KInstanceTranslucentRegular tr)
-                  throws RException
-                {
-                  final KMaterialTranslucentRegular mat = tr.getMaterial();
-                  final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> mat_uv_m =
-                    mat.materialGetUVMatrix();
-
-                  mat_uv_m
-                    .makeMatrixM3x3F(InstanceFromObserver.this.matrix_uv_temp);
-                  return Unit.unit();
-                }
-
-                @Override public Unit specularOnly(
-                  final KInstanceTranslucentSpecularOnly ts)
-                  throws RException
-                {
-                  final KMaterialTranslucentSpecularOnly mat =
-                    ts.getMaterial();
-                  final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> mat_uv_m =
-                    mat.materialGetUVMatrix();
-
-                  mat_uv_m
-                    .makeMatrixM3x3F(InstanceFromObserver.this.matrix_uv_temp);
-                  return Unit.unit();
-                }
-              });
-          }
-        });
+        i.instanceAccept(this.material_uv);
       } catch (final JCGLException e) {
         throw new UnreachableCodeException(e);
       } catch (final RException e) {
@@ -303,6 +311,28 @@ import com.io7m.r1.spaces.RSpaceWorldType;
         this.matrix_uv);
     }
 
+    private void instanceStartFromBatch(
+      final KMatricesInstanceBatch b,
+      final int index)
+    {
+      assert KMutableMatrices.this.observerIsActive();
+      KMutableMatrices.this.instanceSetStarted();
+
+      b.batchGetMatrixModel(index, this.matrix_model);
+      b.batchGetMatrixUV(index, this.matrix_uv);
+
+      if (KMutableMatrices.this.batch_view) {
+        b.batchGetMatrixModelView(index, this.matrix_modelview);
+        b.batchGetMatrixNormal(index, this.matrix_normal);
+      } else {
+        PMatrixM4x4F.multiply(
+          this.parent.getMatrixView(),
+          this.matrix_model,
+          this.matrix_modelview);
+        KMatrices.makeNormalMatrix(this.matrix_modelview, this.matrix_normal);
+      }
+    }
+
     private void instanceStartWithTransform(
       final KTransformType transform,
       final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> uv)
@@ -314,16 +344,13 @@ import com.io7m.r1.spaces.RSpaceWorldType;
        * Calculate model and modelview transforms.
        */
 
-      transform.transformMakeMatrix4x4F(
-        KMutableMatrices.this.transform_context,
-        this.matrix_model);
-
-      PMatrixM4x4F.multiply(
-        this.parent.getMatrixView(),
+      KMutableMatrices.this.evaluator.evaluate(
+        transform,
+        this.parent.matrix_view,
+        this.parent.matrix_view_normal,
         this.matrix_model,
-        this.matrix_modelview);
-
-      KMatrices.makeNormalMatrix(this.matrix_modelview, this.matrix_normal);
+        this.matrix_modelview,
+        this.matrix_normal);
 
       /**
        * Make UV matrix.
@@ -513,27 +540,53 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       assert KMutableMatrices.this.projectiveLightIsActive();
       KMutableMatrices.this.instanceSetStarted();
 
+      final KMatricesInstanceBatch b = KMutableMatrices.this.batch;
+      final int index;
+      if (b != null) {
+        index = b.batchGetIndex(i);
+      } else {
+        index = -1;
+      }
+
       /**
-       * Calculate model and modelview transforms.
+       * Calculate model and modelview transforms, or fetch them from the
+       * batch if the instance has already been calculated.
        */
 
-      final KTransformType transform = i.instanceGetTransform();
-      transform.transformMakeMatrix4x4F(
-        KMutableMatrices.this.transform_context,
-        this.matrix_model);
-
-      PMatrixM4x4F.multiply(
-        this.parent.getMatrixView(),
-        this.matrix_model,
-        this.matrix_modelview);
-
-      KMatrices.makeNormalMatrix(this.matrix_modelview, this.matrix_normal);
+      if (index < 0) {
+        final Observer o = KMutableMatrices.this.observer;
+        KMutableMatrices.this.evaluator.evaluate(
+          i.instanceGetTransform(),
+          o.matrix_view,
+          o.matrix_view_normal,
+          this.matrix_model,
+          this.matrix_modelview,
+          this.matrix_normal);
+      } else if (KMutableMatrices.this.batch_view) {
+        assert b != null;
+        b.batchGetMatrixModel(index, this.matrix_model);
+        b.batchGetMatrixModelView(index, this.matrix_modelview);
+        b.batchGetMatrixNormal(index, this.matrix_normal);
+      } else {
+        assert b != null;
+        b.batchGetMatrixModel(index, this.matrix_model);
+        PMatrixM4x4F.multiply(
+          this.parent.getMatrixView(),
+          this.matrix_model,
+          this.matrix_modelview);
+        KMatrices.makeNormalMatrix(this.matrix_modelview, this.matrix_normal);
+      }
 
       /**
        * Calculate texture transform.
        */
 
-      this.makeTextureTransform(i);
+      if (index >= 0) {
+        assert b != null;
+        b.batchGetMatrixUV(index, this.matrix_uv);
+      } else {
+        this.makeTextureTransform(i);
+      }
 
       /**
        * Produce a model → eye transformation matrix for the given light.
@@ -557,16 +610,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
        * Calculate model and modelview transforms.
        */
 
-      t.transformMakeMatrix4x4F(
-        KMutableMatrices.this.transform_context,
-        this.matrix_model);
-
-      PMatrixM4x4F.multiply(
-        this.parent.getMatrixView(),
+      final Observer o = KMutableMatrices.this.observer;
+      KMutableMatrices.this.evaluator.evaluate(
+        t,
+        o.matrix_view,
+        o.matrix_view_normal,
         this.matrix_model,
-        this.matrix_modelview);
-
-      KMatrices.makeNormalMatrix(this.matrix_modelview, this.matrix_normal);
+        this.matrix_modelview,
+        this.matrix_normal);
 
       /**
        * Calculate texture transform.
@@ -689,17 +740,20 @@ import com.io7m.r1.spaces.RSpaceWorldType;
   @EqualityReference private final class Observer implements
     KMatricesObserverType
   {
-    private final PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>  matrix_projection;
-    private final PMatrixM4x4F<RSpaceClipType, RSpaceEyeType>  matrix_projection_inv;
-    private final PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType> matrix_view;
-    private final PMatrixM4x4F<RSpaceEyeType, RSpaceWorldType> matrix_view_inverse;
-    private @Nullable KProjectionType                          projection;
+    private final PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>        matrix_projection;
+    private final PMatrixM4x4F<RSpaceClipType, RSpaceEyeType>        matrix_projection_inv;
+    private final PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType>       matrix_view;
+    private final PMatrixM4x4F<RSpaceEyeType, RSpaceWorldType>       matrix_view_inverse;
+    private final PMatrixM3x3F<RSpaceWorldType, RSpaceNormalEyeType> matrix_view_normal;
+    private @Nullable KProjectionType                                projection;
 
     Observer()
     {
       this.matrix_view = new PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType>();
       this.matrix_view_inverse =
         new PMatrixM4x4F<RSpaceEyeType, RSpaceWorldType>();
+      this.matrix_view_normal =
+        new PMatrixM3x3F<RSpaceWorldType, RSpaceNormalEyeType>();
       this.matrix_projection =
         new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>();
       this.matrix_projection_inv =
@@ -770,6 +824,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
         KMutableMatrices.this.matrix_context,
         this.matrix_view,
         this.matrix_view_inverse);
+
+      /**
+       * The normal matrix of the view is calculated once per observer, so
+       * that instances with cached world-space normal matrices do not need
+       * to invert their modelview matrices.
+       */
+
+      KMatrices.makeNormalMatrixView(this.matrix_view, this.matrix_view_normal);
     }
 
     @Override public <T, E extends Throwable> T withGenericTransform(
@@ -1261,16 +1323,19 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     return new KMutableMatrices();
   }
 
-  private final AtomicBoolean          instance_active;
-  private final InstanceFromObserver   instance_from_observer;
-  private final InstanceFromProjective instance_from_projective;
-  private final PMatrixM4x4F.Context   matrix_context;
-  private final Observer               observer;
-  private final AtomicBoolean          observer_active;
-  private final AtomicBoolean          projective_active;
-  private final ProjectiveFromInstance projective_from_instance;
-  private final ProjectiveFromObserver projective_from_observer;
-  private final KTransformContext      transform_context;
+  private @Nullable KMatricesInstanceBatch batch;
+  private boolean                          batch_view;
+  private final KTransformEvaluator        evaluator;
+  private final AtomicBoolean              instance_active;
+  private final InstanceFromObserver       instance_from_observer;
+  private final InstanceFromProjective     instance_from_projective;
+  private final PMatrixM4x4F.Context       matrix_context;
+  private final Observer                   observer;
+  private final AtomicBoolean              observer_active;
+  private final AtomicBoolean              projective_active;
+  private final ProjectiveFromInstance     projective_from_instance;
+  private final ProjectiveFromObserver     projective_from_observer;
+  private final KTransformContext          transform_context;
 
   private KMutableMatrices()
   {
@@ -1283,6 +1348,7 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       new InstanceFromProjective(this.projective_from_observer);
     this.matrix_context = new PMatrixM4x4F.Context();
     this.transform_context = KTransformContext.newContext();
+    this.evaluator = KTransformEvaluator.newEvaluator();
 
     this.observer_active = new AtomicBoolean();
     this.projective_active = new AtomicBoolean();
@@ -1381,4 +1447,64 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       this.observerSetStopped();
     }
   }
+
+  /**
+   * Evaluate the given observer function starting with the initial view and
+   * projection matrices. Instances that appear in the given batch have their
+   * matrices copied from the batch instead of being calculated. The
+   * model-view and normal matrices are only copied if the batch was
+   * evaluated with the same view matrix; otherwise they are calculated from
+   * the batched model matrix.
+   *
+   * @param <T>
+   *          The type of values returned by the function
+   * @param <E>
+   *          The type of exceptions raised by the function
+   * @param view
+   *          The view matrix
+   * @param projection
+   *          The projection matrix
+   * @param in_batch
+   *          The batch of precalculated instance matrices
+   * @param f
+   *          The observer function
+   * @return The value returned by the observer function
+   *
+   * @throws E
+   *           If the observer function raises <code>E</code>
+   * @throws RException
+   *           If an error occurs, or the observer function raises
+   *           {@link RException}
+   * @throws JCGLException
+   *           If the observer function raises {@link JCGLException}
+   */
+
+  public <T, E extends Throwable> T withObserverBatched(
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view,
+    final KProjectionType projection,
+    final KMatricesInstanceBatch in_batch,
+    final KMatricesObserverFunctionType<T, E> f)
+    throws E,
+      RException,
+      JCGLException
+  {
+    NullCheck.notNull(view, "View");
+    NullCheck.notNull(projection, "Projection");
+    NullCheck.notNull(in_batch, "Batch");
+
+    if (this.observerIsActive()) {
+      throw new RExceptionMatricesObserverActive("Observer is already active");
+    }
+
+    this.observer.observerStart(view, projection);
+    this.batch = in_batch;
+    this.batch_view = in_batch.batchIsForView(view);
+    try {
+      return f.run(this.observer);
+    } finally {
+      this.batch = null;
+      this.batch_view = false;
+      this.observerSetStopped();
+    }
+  }
 }
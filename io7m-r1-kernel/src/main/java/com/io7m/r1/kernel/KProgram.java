@@ -29,7 +29,6 @@ import com.io7m.jcanephora.JCGLApi;
 import com.io7m.jcanephora.JCGLException;
 import com.io7m.jcanephora.JCGLExceptionAttributeMissing;
 import com.io7m.jcanephora.JCGLExceptionDeleted;
-import com.io7m.jcanephora.JCGLExceptionProgramCompileError;
 import com.io7m.jcanephora.JCGLExceptionProgramUniformMissing;
 import com.io7m.jcanephora.JCGLExceptionTypeError;
 import com.io7m.jcanephora.JCGLSLVersionNumber;
@@ -43,7 +42,6 @@ import com.io7m.jcanephora.api.JCGLInterfaceGL2Type;
 import com.io7m.jcanephora.api.JCGLInterfaceGL3Type;
 import com.io7m.jcanephora.api.JCGLInterfaceGLES2Type;
 import com.io7m.jcanephora.api.JCGLInterfaceGLES3Type;
-import com.io7m.jcanephora.api.JCGLShadersCommonType;
 import com.io7m.jcanephora.batchexec.JCBExecutor;
 import com.io7m.jcanephora.batchexec.JCBExecutorType;
 import com.io7m.jequality.annotations.EqualityStructural;
@@ -298,23 +296,6 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
     return p;
   }
 
-  private static FragmentShaderType newFragmentShaderFromFilesystem(
-    final JCGLShadersCommonType gc,
-    final GVersionType version,
-    final FSCapabilityReadType fs,
-    final PathVirtual path,
-    final JPFragmentShaderMetaType meta)
-    throws FilesystemError,
-      IOException,
-      JCGLExceptionProgramCompileError,
-      JCGLException
-  {
-    final List<String> source =
-      KProgram.newSourceFromFilesystem(version, fs, path, meta);
-
-    return gc.fragmentShaderCompile(path.toString(), source);
-  }
-
   /**
    * Load the shader named <code>name</code> from the given filesystem, for
    * the given shading language API and version.
@@ -347,16 +328,120 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
     final String name,
     final LogUsableType log)
     throws RException
+  {
+    NullCheck.notNull(gl, "GL");
+    final KProgramSources sources =
+      KProgram.newProgramSourcesFromFilesystem(version, api, fs, name, log);
+    return KProgram.newProgramFromSources(gl, sources, log);
+  }
+
+  /**
+   * Compile and link a program from sources that have already been loaded
+   * with
+   * {@link #newProgramSourcesFromFilesystem(JCGLSLVersionNumber, JCGLApi, FSCapabilityReadType, String, LogUsableType)}
+   * . This function must be called on the thread that owns the OpenGL
+   * context.
+   *
+   * @param gl
+   *          The OpenGL interface
+   * @param sources
+   *          The loaded program sources
+   * @param log
+   *          A log handle
+   *
+   * @return A new program
+   *
+   * @throws RException
+   *           If an error occurs, such as an OpenGL error
+   */
+
+  public static KProgram newProgramFromSources(
+    final JCGLImplementationType gl,
+    final KProgramSources sources,
+    final LogUsableType log)
+    throws RException
+  {
+    NullCheck.notNull(gl, "GL");
+    NullCheck.notNull(sources, "Sources");
+    NullCheck.notNull(log, "Log");
+
+    final JCGLInterfaceCommonType gc = gl.getGLCommon();
+
+    final JPFragmentShaderMetaType fragment_shader_meta =
+      sources.getFragmentShaderMeta();
+    final FragmentShaderType fragment_shader =
+      gc.fragmentShaderCompile(
+        sources.getFragmentShaderPath().toString(),
+        sources.getFragmentShaderSource());
+
+    final JPVertexShaderMetaType vertex_shader_meta =
+      sources.getVertexShaderMeta();
+    final VertexShaderType vertex_shader =
+      gc.vertexShaderCompile(
+        sources.getVertexShaderPath().toString(),
+        sources.getVertexShaderSource());
+
+    final Map<String, FramebufferDrawBufferType> output_mappings =
+      KProgram.makeOutputMappings(gc, fragment_shader_meta);
+    final ProgramType p =
+      KProgram.makeProgram(
+        gl,
+        sources.getName(),
+        output_mappings,
+        fragment_shader,
+        vertex_shader);
+
+    return new KProgram(
+      gl,
+      sources.getProgramMeta(),
+      p,
+      vertex_shader_meta,
+      vertex_shader,
+      fragment_shader_meta,
+      fragment_shader,
+      log);
+  }
+
+  /**
+   * Load the metadata and source code of the shader named <code>name</code>
+   * from the given filesystem, for the given shading language API and
+   * version. This function does not touch OpenGL and may therefore be called
+   * from any thread, as long as the given filesystem is not concurrently
+   * accessed by other threads.
+   *
+   * @param version
+   *          The OpenGL version
+   * @param api
+   *          The OpenGL API
+   * @param fs
+   *          The filesystem
+   * @param name
+   *          The name of the shader
+   * @param log
+   *          A log handle
+   *
+   * @return The loaded program sources
+   *
+   * @throws RException
+   *           If an error occurs, such as an I/O error, or the program not
+   *           being supported on the given version and API
+   */
+
+  public static KProgramSources newProgramSourcesFromFilesystem(
+    final JCGLSLVersionNumber version,
+    final JCGLApi api,
+    final FSCapabilityReadType fs,
+    final String name,
+    final LogUsableType log)
+    throws RException
   {
     try {
-      NullCheck.notNull(gl, "GL");
       NullCheck.notNull(version, "Version");
       NullCheck.notNull(api, "API");
       NullCheck.notNull(fs, "Filesystem");
       NullCheck.notNull(name, "Name");
       NullCheck.notNull(log, "Log");
 
-      final JCGLInterfaceCommonType gc = gl.getGLCommon();
       final GVersionType v = KProgram.versionNumber(version, api);
 
       final PathVirtual program_base = PathVirtual.ROOT.appendName(name);
@@ -377,9 +462,8 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
           fs,
           fragment_shader_path,
           log);
-      final FragmentShaderType fragment_shader =
-        KProgram.newFragmentShaderFromFilesystem(
-          gc,
+      final List<String> fragment_shader_source =
+        KProgram.newSourceFromFilesystem(
           v,
           fs,
           fragment_shader_path,
@@ -396,33 +480,22 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
           fs,
           vertex_shader_path,
           log);
-      final VertexShaderType vertex_shader =
-        KProgram.newVertexShaderFromFilesystem(
-          gc,
+      final List<String> vertex_shader_source =
+        KProgram.newSourceFromFilesystem(
           v,
           fs,
           vertex_shader_path,
           vertex_shader_meta);
 
-      final Map<String, FramebufferDrawBufferType> output_mappings =
-        KProgram.makeOutputMappings(gc, fragment_shader_meta);
-      final ProgramType p =
-        KProgram.makeProgram(
-          gl,
-          name,
-          output_mappings,
-          fragment_shader,
-          vertex_shader);
-
-      return new KProgram(
-        gl,
+      return KProgramSources.newSources(
+        name,
         program_meta,
-        p,
-        vertex_shader_meta,
-        vertex_shader,
+        fragment_shader_path,
         fragment_shader_meta,
-        fragment_shader,
-        log);
+        fragment_shader_source,
+        vertex_shader_path,
+        vertex_shader_meta,
+        vertex_shader_source);
 
     } catch (final IOException e) {
       throw RExceptionIO.fromIOException(e);
@@ -466,21 +539,6 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
     }
   }
 
-  private static VertexShaderType newVertexShaderFromFilesystem(
-    final JCGLShadersCommonType gc,
-    final GVersionType version,
-    final FSCapabilityReadType fs,
-    final PathVirtual path,
-    final JPVertexShaderMetaType meta)
-    throws FilesystemError,
-      IOException,
-      JCGLException
-  {
-    final List<String> source =
-      KProgram.newSourceFromFilesystem(version, fs, path, meta);
-    return gc.vertexShaderCompile(path.toString(), source);
-  }
-
   private static void prependVersionDirective(
     final GVersionType version,
     final List<String> lines)
@@ -519,6 +577,7 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
   private final JPFragmentShaderMetaType       fragment_shader_meta;
   private final ProgramType                    program;
   private final JPUncompactedProgramShaderMeta program_meta;
+  private final KProgramUniforms               uniforms;
   private final VertexShaderType               vertex_shader;
   private final JPVertexShaderMetaType         vertex_shader_meta;
 
@@ -574,6 +633,8 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
         this.declared_uniforms,
         this.declared_attributes,
         in_log);
+    this.uniforms =
+      KProgramUniforms.newUniforms(in_gl.getGLCommon(), in_program);
   }
 
   @Override public boolean equals(
@@ -620,6 +681,11 @@ import com.io7m.r1.exceptions.RExceptionShaderFragmentConflictingOutputs;
     return this.program;
   }
 
+  @Override public KProgramUniforms getUniforms()
+  {
+    return this.uniforms;
+  }
+
   @Override public JPVertexShaderMetaType getVertexShaderMeta()
   {
     return this.vertex_shader_meta;
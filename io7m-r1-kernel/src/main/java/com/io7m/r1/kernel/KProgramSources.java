@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jparasol.core.JPFragmentShaderMetaType;
+import com.io7m.jparasol.core.JPUncompactedProgramShaderMeta;
+import com.io7m.jparasol.core.JPVertexShaderMetaType;
+import com.io7m.jvvfs.PathVirtual;
+
+/**
+ * <p>
+ * The metadata and source code of a program, loaded from a filesystem but
+ * not yet compiled.
+ * </p>
+ * <p>
+ * Values of this type are produced without touching OpenGL, and can
+ * therefore be produced on any thread and later compiled with
+ * {@link KProgram#newProgramFromSources} on the thread that owns the OpenGL
+ * context.
+ * </p>
+ */
+
+@EqualityReference public final class KProgramSources
+{
+  static KProgramSources newSources(
+    final String in_name,
+    final JPUncompactedProgramShaderMeta in_program_meta,
+    final PathVirtual in_fragment_shader_path,
+    final JPFragmentShaderMetaType in_fragment_shader_meta,
+    final List<String> in_fragment_shader_source,
+    final PathVirtual in_vertex_shader_path,
+    final JPVertexShaderMetaType in_vertex_shader_meta,
+    final List<String> in_vertex_shader_source)
+  {
+    return new KProgramSources(
+      in_name,
+      in_program_meta,
+      in_fragment_shader_path,
+      in_fragment_shader_meta,
+      in_fragment_shader_source,
+      in_vertex_shader_path,
+      in_vertex_shader_meta,
+      in_vertex_shader_source);
+  }
+
+  private final JPFragmentShaderMetaType       fragment_shader_meta;
+  private final PathVirtual                    fragment_shader_path;
+  private final List<String>                   fragment_shader_source;
+  private final String                         name;
+  private final JPUncompactedProgramShaderMeta program_meta;
+  private final JPVertexShaderMetaType         vertex_shader_meta;
+  private final PathVirtual                    vertex_shader_path;
+  private final List<String>                   vertex_shader_source;
+
+  private KProgramSources(
+    final String in_name,
+    final JPUncompactedProgramShaderMeta in_program_meta,
+    final PathVirtual in_fragment_shader_path,
+    final JPFragmentShaderMetaType in_fragment_shader_meta,
+    final List<String> in_fragment_shader_source,
+    final PathVirtual in_vertex_shader_path,
+    final JPVertexShaderMetaType in_vertex_shader_meta,
+    final List<String> in_vertex_shader_source)
+  {
+    this.name = NullCheck.notNull(in_name, "Name");
+    this.program_meta = NullCheck.notNull(in_program_meta, "Program meta");
+    this.fragment_shader_path =
+      NullCheck.notNull(in_fragment_shader_path, "Fragment shader path");
+    this.fragment_shader_meta =
+      NullCheck.notNull(in_fragment_shader_meta, "Fragment shader meta");
+
+    final List<String> fs =
+      Collections.unmodifiableList(NullCheck.notNull(
+        in_fragment_shader_source,
+        "Fragment shader source"));
+    assert fs != null;
+    this.fragment_shader_source = fs;
+
+    this.vertex_shader_path =
+      NullCheck.notNull(in_vertex_shader_path, "Vertex shader path");
+    this.vertex_shader_meta =
+      NullCheck.notNull(in_vertex_shader_meta, "Vertex shader meta");
+
+    final List<String> vs =
+      Collections.unmodifiableList(NullCheck.notNull(
+        in_vertex_shader_source,
+        "Vertex shader source"));
+    assert vs != null;
+    this.vertex_shader_source = vs;
+  }
+
+  /**
+   * @return The fragment shader metadata
+   */
+
+  public JPFragmentShaderMetaType getFragmentShaderMeta()
+  {
+    return this.fragment_shader_meta;
+  }
+
+  /**
+   * @return The path of the fragment shader
+   */
+
+  public PathVirtual getFragmentShaderPath()
+  {
+    return this.fragment_shader_path;
+  }
+
+  /**
+   * @return The fragment shader source lines
+   */
+
+  public List<String> getFragmentShaderSource()
+  {
+    return this.fragment_shader_source;
+  }
+
+  /**
+   * @return The name of the program
+   */
+
+  public String getName()
+  {
+    return this.name;
+  }
+
+  /**
+   * @return The program metadata
+   */
+
+  public JPUncompactedProgramShaderMeta getProgramMeta()
+  {
+    return this.program_meta;
+  }
+
+  /**
+   * @return The vertex shader metadata
+   */
+
+  public JPVertexShaderMetaType getVertexShaderMeta()
+  {
+    return this.vertex_shader_meta;
+  }
+
+  /**
+   * @return The path of the vertex shader
+   */
+
+  public PathVirtual getVertexShaderPath()
+  {
+    return this.vertex_shader_path;
+  }
+
+  /**
+   * @return The vertex shader source lines
+   */
+
+  public List<String> getVertexShaderSource()
+  {
+    return this.vertex_shader_source;
+  }
+}
@@ -52,6 +52,12 @@ public interface KProgramType
 
   ProgramType getProgram();
 
+  /**
+   * @return The per-instance uniforms of the program, resolved to slots
+   */
+
+  KProgramUniforms getUniforms();
+
   /**
    * @return The vertex shader metadata.
    */
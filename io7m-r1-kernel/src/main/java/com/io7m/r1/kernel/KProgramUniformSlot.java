@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcanephora.JCGLType;
+import com.io7m.jnull.NullCheck;
+
+/**
+ * The uniforms that are written for every rendered instance, and which are
+ * therefore resolved to {@link KProgramUniforms} slots when a program is
+ * loaded.
+ */
+
+public enum KProgramUniformSlot
+{
+  /**
+   * The logarithmic depth coefficient.
+   */
+
+  SLOT_DEPTH_COEFFICIENT("depth_coefficient", JCGLType.TYPE_FLOAT),
+
+  /**
+   * The material albedo color.
+   */
+
+  SLOT_MATERIAL_ALBEDO_COLOR("p_albedo.color", JCGLType.TYPE_FLOAT_VECTOR_4),
+
+  /**
+   * The material albedo texture mix.
+   */
+
+  SLOT_MATERIAL_ALBEDO_MIX("p_albedo.mix", JCGLType.TYPE_FLOAT),
+
+  /**
+   * The material alpha-to-depth threshold.
+   */
+
+  SLOT_MATERIAL_ALPHA_DEPTH("p_alpha_depth", JCGLType.TYPE_FLOAT),
+
+  /**
+   * The material emission amount.
+   */
+
+  SLOT_MATERIAL_EMISSION_AMOUNT("p_emission.amount", JCGLType.TYPE_FLOAT),
+
+  /**
+   * The material environment mix.
+   */
+
+  SLOT_MATERIAL_ENVIRONMENT_MIX("p_environment.mix", JCGLType.TYPE_FLOAT),
+
+  /**
+   * The material specular color.
+   */
+
+  SLOT_MATERIAL_SPECULAR_COLOR(
+    "p_specular.color",
+    JCGLType.TYPE_FLOAT_VECTOR_3),
+
+  /**
+   * The material specular exponent.
+   */
+
+  SLOT_MATERIAL_SPECULAR_EXPONENT("p_specular.exponent", JCGLType.TYPE_FLOAT),
+
+  /**
+   * The modelview matrix.
+   */
+
+  SLOT_MATRIX_MODELVIEW("m_modelview", JCGLType.TYPE_FLOAT_MATRIX_4),
+
+  /**
+   * The normal matrix.
+   */
+
+  SLOT_MATRIX_NORMAL("m_normal", JCGLType.TYPE_FLOAT_MATRIX_3),
+
+  /**
+   * The projection matrix.
+   */
+
+  SLOT_MATRIX_PROJECTION("m_projection", JCGLType.TYPE_FLOAT_MATRIX_4),
+
+  /**
+   * The UV matrix.
+   */
+
+  SLOT_MATRIX_UV("m_uv", JCGLType.TYPE_FLOAT_MATRIX_3),
+
+  /**
+   * The inverse view matrix.
+   */
+
+  SLOT_MATRIX_VIEW_INVERSE("m_view_inv", JCGLType.TYPE_FLOAT_MATRIX_4),
+
+  /**
+   * The albedo texture.
+   */
+
+  SLOT_TEXTURE_ALBEDO("t_albedo", JCGLType.TYPE_SAMPLER_2D),
+
+  /**
+   * The emission texture.
+   */
+
+  SLOT_TEXTURE_EMISSION("t_emission", JCGLType.TYPE_SAMPLER_2D),
+
+  /**
+   * The environment texture.
+   */
+
+  SLOT_TEXTURE_ENVIRONMENT("t_environment", JCGLType.TYPE_SAMPLER_CUBE),
+
+  /**
+   * The normal texture.
+   */
+
+  SLOT_TEXTURE_NORMAL("t_normal", JCGLType.TYPE_SAMPLER_2D),
+
+  /**
+   * The specular texture.
+   */
+
+  SLOT_TEXTURE_SPECULAR("t_specular", JCGLType.TYPE_SAMPLER_2D);
+
+  private final String   name;
+  private final JCGLType type;
+
+  private KProgramUniformSlot(
+    final String in_name,
+    final JCGLType in_type)
+  {
+    this.name = NullCheck.notNull(in_name, "Name");
+    this.type = NullCheck.notNull(in_type, "Type");
+  }
+
+  /**
+   * @return The name of the uniform in shading programs
+   */
+
+  public String getName()
+  {
+    return this.name;
+  }
+
+  /**
+   * @return The type of the uniform
+   */
+
+  public JCGLType getType()
+  {
+    return this.type;
+  }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.Map;
+
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.ProgramUniformType;
+import com.io7m.jcanephora.ProgramUsableType;
+import com.io7m.jcanephora.TextureUnitType;
+import com.io7m.jcanephora.api.JCGLShadersCommonType;
+import com.io7m.jcanephora.batchexec.JCBProgramProcedureType;
+import com.io7m.jcanephora.batchexec.JCBProgramType;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jtensors.MatrixDirectReadable3x3FType;
+import com.io7m.jtensors.MatrixDirectReadable4x4FType;
+import com.io7m.jtensors.VectorReadable3FType;
+import com.io7m.jtensors.VectorReadable4FType;
+import com.io7m.r1.exceptions.RExceptionProgramUniformUnassigned;
+
+/**
+ * <p>
+ * The uniforms of a single program that are written for every rendered
+ * instance, resolved to indexed slots when the program is loaded.
+ * </p>
+ * <p>
+ * Every write to a resolved slot goes directly to the resolved uniform, and
+ * is recorded by slot index. The program's executor tracks assignments by
+ * name, forgets them each time the program is executed, and rejects an
+ * execution unless every uniform has been assigned since the last one. The
+ * executor is therefore told about every slot written at any point in the
+ * current execution of the executor (the value of which is still held by the
+ * program) once per execution of the program, rather than once per write.
+ * Users must call {@link #uniformsBegin()} at the start of each execution.
+ * </p>
+ * <p>
+ * {@link #uniformsExecute(JCBProgramType, JCBProgramProcedureType)} executes
+ * the program for a single draw.
+ * {@link #uniformsExecuteRun(JCBProgramType, KProgramUniformSlot[], JCBProgramProcedureType)}
+ * executes the program once for any number of draws: the given procedure
+ * writes the given per-draw slots and calls {@link #uniformsDraw()} before
+ * each draw, which checks by slot index that every per-draw slot has been
+ * written since the previous draw. No uniform names are used between the
+ * draws of a run.
+ * </p>
+ * <p>
+ * Uniforms that the program does not declare, or that are declared with an
+ * unexpected type, are left unresolved and are always written by name, so
+ * that errors are reported exactly as they would be without slots.
+ * </p>
+ */
+
+@EqualityReference public final class KProgramUniforms
+{
+  /**
+   * Resolve the slots of the given program.
+   *
+   * @param gc
+   *          The OpenGL interface
+   * @param program
+   *          The program
+   * @return The resolved slots
+   */
+
+  public static KProgramUniforms newUniforms(
+    final JCGLShadersCommonType gc,
+    final ProgramUsableType program)
+  {
+    return new KProgramUniforms(gc, program);
+  }
+
+  private final int[]                          assigned;
+  private int                                  draw_epoch;
+  private final JCGLShadersCommonType          gc;
+  private final @Nullable ProgramUniformType[] handles;
+  private long                                 named;
+  private final int[]                          resident;
+  private final int[]                          resolved;
+  private int                                  run_epoch;
+  private @Nullable KProgramUniformSlot[]      run_slots;
+  private final KProgramUniformSlot[]          slots;
+
+  private KProgramUniforms(
+    final JCGLShadersCommonType in_gc,
+    final ProgramUsableType in_program)
+  {
+    this.gc = NullCheck.notNull(in_gc, "OpenGL interface");
+    NullCheck.notNull(in_program, "Program");
+
+    final KProgramUniformSlot[] all = KProgramUniformSlot.values();
+    this.slots = all;
+    final Map<String, ProgramUniformType> uniforms = in_program.getUniforms();
+
+    this.handles = new ProgramUniformType[all.length];
+    this.assigned = new int[all.length];
+    this.resident = new int[all.length];
+    this.draw_epoch = 1;
+    this.run_epoch = 1;
+    this.named = 0;
+
+    int count = 0;
+    for (int index = 0; index < all.length; ++index) {
+      final KProgramUniformSlot s = all[index];
+      final ProgramUniformType u = uniforms.get(s.getName());
+      if ((u != null) && (u.getType() == s.getType())) {
+        this.handles[index] = u;
+        ++count;
+      }
+    }
+
+    this.resolved = new int[count];
+    count = 0;
+    for (int index = 0; index < all.length; ++index) {
+      if (this.handles[index] != null) {
+        this.resolved[count] = index;
+        ++count;
+      }
+    }
+  }
+
+  private @Nullable ProgramUniformType handleForWrite(
+    final KProgramUniformSlot s)
+  {
+    final int index = s.ordinal();
+    final ProgramUniformType u = this.handles[index];
+    if (u != null) {
+      this.assigned[index] = this.draw_epoch;
+      this.resident[index] = this.run_epoch;
+    } else {
+      ++this.named;
+    }
+    return u;
+  }
+
+  /**
+   * Tell the executor about every resolved slot that holds a value written
+   * in the current execution.
+   */
+
+  private void markResident(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    final int[] rs = this.resolved;
+    for (int index = 0; index < rs.length; ++index) {
+      final int r = rs[index];
+      if (this.resident[r] == this.run_epoch) {
+        program.programUniformUseExisting(this.slots[r].getName());
+        ++this.named;
+      }
+    }
+  }
+
+  /**
+   * Begin a new execution of the program. Must be called at the start of
+   * each call to the executor, before any slot is written.
+   */
+
+  public void uniformsBegin()
+  {
+    ++this.run_epoch;
+    ++this.draw_epoch;
+  }
+
+  /**
+   * Check that every per-draw slot of the current run has been written since
+   * the previous draw of the run. Must be called immediately before each
+   * draw made by the procedure passed to
+   * {@link #uniformsExecuteRun(JCBProgramType, KProgramUniformSlot[], JCBProgramProcedureType)}
+   * .
+   *
+   * @throws RExceptionProgramUniformUnassigned
+   *           If a per-draw slot has not been written
+   */
+
+  public void uniformsDraw()
+    throws RExceptionProgramUniformUnassigned
+  {
+    final KProgramUniformSlot[] per_draw = this.run_slots;
+    assert per_draw != null;
+
+    for (int index = 0; index < per_draw.length; ++index) {
+      final KProgramUniformSlot s = per_draw[index];
+      final int i = s.ordinal();
+      if ((this.handles[i] != null) && (this.assigned[i] != this.draw_epoch)) {
+        throw new RExceptionProgramUniformUnassigned(String.format(
+          "Per-draw uniform %s has not been assigned for this draw",
+          s.getName()));
+      }
+    }
+    ++this.draw_epoch;
+  }
+
+  /**
+   * Execute the program for a single draw, after telling the executor about
+   * every slot that was written earlier in the current execution.
+   *
+   * @param program
+   *          The executing program
+   * @param draw
+   *          The draw procedure
+   * @param <E>
+   *          The type of exceptions raised by the procedure
+   * @throws JCGLException
+   *           On OpenGL errors, or if the program has unassigned uniforms
+   * @throws E
+   *           If the procedure raises <code>E</code>
+   */
+
+  public <E extends Throwable> void uniformsExecute(
+    final JCBProgramType program,
+    final JCBProgramProcedureType<E> draw)
+    throws JCGLException,
+      E
+  {
+    this.markResident(program);
+    try {
+      program.programExecute(draw);
+    } finally {
+      ++this.draw_epoch;
+    }
+  }
+
+  /**
+   * Execute the program once for a run of draws. The executor is told about
+   * every slot that was written earlier in the current execution, and about
+   * every slot in <code>per_draw</code>. The procedure must write every slot
+   * in <code>per_draw</code>, and then call {@link #uniformsDraw()}, before
+   * each draw.
+   *
+   * @param program
+   *          The executing program
+   * @param per_draw
+   *          The slots written for each draw
+   * @param run
+   *          The procedure that makes the draws
+   * @param <E>
+   *          The type of exceptions raised by the procedure
+   * @throws JCGLException
+   *           On OpenGL errors, or if the program has unassigned uniforms
+   * @throws E
+   *           If the procedure raises <code>E</code>
+   */
+
+  public <E extends Throwable> void uniformsExecuteRun(
+    final JCBProgramType program,
+    final KProgramUniformSlot[] per_draw,
+    final JCBProgramProcedureType<E> run)
+    throws JCGLException,
+      E
+  {
+    NullCheck.notNull(per_draw, "Per-draw slots");
+    assert this.run_slots == null;
+
+    /**
+     * The per-draw slots are checked by index before each draw of the run,
+     * so they are reported to the executor as if already written.
+     */
+
+    for (int index = 0; index < per_draw.length; ++index) {
+      this.resident[per_draw[index].ordinal()] = this.run_epoch;
+    }
+    this.markResident(program);
+
+    ++this.draw_epoch;
+    this.run_slots = per_draw;
+    try {
+      program.programExecute(run);
+    } finally {
+      this.run_slots = null;
+      ++this.draw_epoch;
+    }
+  }
+
+  /**
+   * @return The number of uniform operations that this value has made by
+   *         name, either to write an unresolved slot or to tell the executor
+   *         about a resolved slot
+   */
+
+  public long uniformsGetNamedCount()
+  {
+    return this.named;
+  }
+
+  /**
+   * @return The number of slots that were resolved for the program
+   */
+
+  public int uniformsGetResolvedCount()
+  {
+    return this.resolved.length;
+  }
+
+  /**
+   * Write a float to the given slot.
+   *
+   * @param program
+   *          The executing program
+   * @param s
+   *          The slot
+   * @param x
+   *          The value
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public void uniformsPutFloat(
+    final JCBProgramType program,
+    final KProgramUniformSlot s,
+    final float x)
+    throws JCGLException
+  {
+    final ProgramUniformType u = this.handleForWrite(s);
+    if (u != null) {
+      this.gc.programUniformPutFloat(u, x);
+    } else {
+      program.programUniformPutFloat(s.getName(), x);
+    }
+  }
+
+  /**
+   * Write a 3x3 matrix to the given slot.
+   *
+   * @param program
+   *          The executing program
+   * @param s
+   *          The slot
+   * @param m
+   *          The value
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public void uniformsPutMatrix3x3f(
+    final JCBProgramType program,
+    final KProgramUniformSlot s,
+    final MatrixDirectReadable3x3FType m)
+    throws JCGLException
+  {
+    final ProgramUniformType u = this.handleForWrite(s);
+    if (u != null) {
+      this.gc.programUniformPutMatrix3x3f(u, m);
+    } else {
+      program.programUniformPutMatrix3x3f(s.getName(), m);
+    }
+  }
+
+  /**
+   * Write a 4x4 matrix to the given slot.
+   *
+   * @param program
+   *          The executing program
+   * @param s
+   *          The slot
+   * @param m
+   *          The value
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public void uniformsPutMatrix4x4f(
+    final JCBProgramType program,
+    final KProgramUniformSlot s,
+    final MatrixDirectReadable4x4FType m)
+    throws JCGLException
+  {
+    final ProgramUniformType u = this.handleForWrite(s);
+    if (u != null) {
+      this.gc.programUniformPutMatrix4x4f(u, m);
+    } else {
+      program.programUniformPutMatrix4x4f(s.getName(), m);
+    }
+  }
+
+  /**
+   * Write a texture unit to the given slot.
+   *
+   * @param program
+   *          The executing program
+   * @param s
+   *          The slot
+   * @param t
+   *          The value
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public void uniformsPutTextureUnit(
+    final JCBProgramType program,
+    final KProgramUniformSlot s,
+    final TextureUnitType t)
+    throws JCGLException
+  {
+    final ProgramUniformType u = this.handleForWrite(s);
+    if (u != null) {
+      this.gc.programUniformPutTextureUnit(u, t);
+    } else {
+      program.programUniformPutTextureUnit(s.getName(), t);
+    }
+  }
+
+  /**
+   * Write a 3-element vector to the given slot.
+   *
+   * @param program
+   *          The executing program
+   * @param s
+   *          The slot
+   * @param v
+   *          The value
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public void uniformsPutVector3f(
+    final JCBProgramType program,
+    final KProgramUniformSlot s,
+    final VectorReadable3FType v)
+    throws JCGLException
+  {
+    final ProgramUniformType u = this.handleForWrite(s);
+    if (u != null) {
+      this.gc.programUniformPutVector3f(u, v);
+    } else {
+      program.programUniformPutVector3f(s.getName(), v);
+    }
+  }
+
+  /**
+   * Write a 4-element vector to the given slot.
+   *
+   * @param program
+   *          The executing program
+   * @param s
+   *          The slot
+   * @param v
+   *          The value
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public void uniformsPutVector4f(
+    final JCBProgramType program,
+    final KProgramUniformSlot s,
+    final VectorReadable4FType v)
+    throws JCGLException
+  {
+    final ProgramUniformType u = this.handleForWrite(s);
+    if (u != null) {
+      this.gc.programUniformPutVector4f(u, v);
+    } else {
+      program.programUniformPutVector4f(s.getName(), v);
+    }
+  }
+
+  /**
+   * Indicate that the value already held by the given slot should be reused.
+   * For a resolved slot, this only records the slot as written for the
+   * current draw.
+   *
+   * @param program
+   *          The executing program
+   * @param s
+   *          The slot
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public void uniformsReuse(
+    final JCBProgramType program,
+    final KProgramUniformSlot s)
+    throws JCGLException
+  {
+    if (this.handleForWrite(s) == null) {
+      program.programUniformUseExisting(s.getName());
+    }
+  }
+}
@@ -35,6 +35,7 @@ import com.io7m.jfunctional.Unit;
 import com.io7m.jranges.RangeInclusiveL;
 import com.io7m.jtensors.MatrixM3x3F;
 import com.io7m.jtensors.MatrixReadable4x4FType;
+import com.io7m.jtensors.VectorI4F;
 import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.kernel.types.KFaceSelection;
@@ -99,8 +100,17 @@ import com.io7m.r1.kernel.types.KProjectionType;
 
   private static final GetGL3ES3 GET_GL3ES3;
 
+  /**
+   * The texture region of a shadow map that occupies an entire texture. The
+   * same vector is used as the clamp rectangle of such maps, as lookups at
+   * the edges of the texture are handled by its wrapping mode.
+   */
+
+  private static final VectorI4F SHADOW_MAP_REGION_FULL;
+
   static {
     GET_GL3ES3 = new GetGL3ES3();
+    SHADOW_MAP_REGION_FULL = new VectorI4F(0.0f, 0.0f, 1.0f, 1.0f);
   }
 
   static float depthCoefficient(
@@ -164,6 +174,12 @@ import com.io7m.r1.kernel.types.KProjectionType;
       1.0f / range_y.getInterval());
   }
 
+  static void putFramebufferScreenSizeReuse(
+    final JCBProgramType program)
+  {
+    KShadingProgramCommon.putViewportReuse(program);
+  }
+
   static void putInstanceMatricesRegular(
     final JCBProgramType program,
     final KMatricesInstanceValuesType mwi,
@@ -207,6 +223,53 @@ import com.io7m.r1.kernel.types.KProjectionType;
     }
   }
 
+  static void putInstanceMatricesRegular(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final KMatricesInstanceValuesType mwi,
+    final KMaterialRegularType material)
+  {
+    KShadingProgramCommon.putMatrixModelViewUnchecked(
+      program,
+      u,
+      mwi.getMatrixModelView());
+    KShadingProgramCommon.putMatrixNormal(program, u, mwi.getMatrixNormal());
+    KShadingProgramCommon.putMatrixUVUnchecked(program, u, mwi.getMatrixUV());
+
+    try {
+      material.getEnvironment().environmentAccept(
+        new KMaterialEnvironmentVisitorType<Unit, RException>() {
+          @Override public Unit none(
+            final KMaterialEnvironmentNone m)
+          {
+            return Unit.unit();
+          }
+
+          @Override public Unit reflection(
+            final KMaterialEnvironmentReflection m)
+          {
+            KShadingProgramCommon.putMatrixInverseView(
+              program,
+              u,
+              mwi.getMatrixViewInverse());
+            return Unit.unit();
+          }
+
+          @Override public Unit reflectionMapped(
+            final KMaterialEnvironmentReflectionMapped m)
+          {
+            KShadingProgramCommon.putMatrixInverseView(
+              program,
+              u,
+              mwi.getMatrixViewInverse());
+            return Unit.unit();
+          }
+        });
+    } catch (final RException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
   static void putInstanceMatricesSpecularOnly(
     final JCBProgramType program,
     final KMatricesInstanceValuesType mwi,
@@ -247,6 +310,43 @@ import com.io7m.r1.kernel.types.KProjectionType;
       material);
   }
 
+  static void putMaterialOpaqueRegular(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final KTextureBindingsContextType units,
+    final KMaterialOpaqueRegular material)
+    throws RException
+  {
+    KShadingProgramCommon.putMaterialAlbedoTypeWithTextures(
+      program,
+      u,
+      units,
+      material);
+    KShadingProgramCommon.putMaterialDepthType(
+      program,
+      u,
+      material.getDepth());
+    KShadingProgramCommon.putMaterialEmissiveTypeWithTextures(
+      program,
+      u,
+      units,
+      material);
+    KShadingProgramCommon.putMaterialEnvironmentTypeWithTextures(
+      program,
+      u,
+      units,
+      material.getEnvironment());
+    KShadingProgramCommon.putTextureNormal(
+      program,
+      u,
+      units.withTexture2D(material.getNormalTexture()));
+    KShadingProgramCommon.putMaterialSpecularTypeWithTextures(
+      program,
+      u,
+      units,
+      material);
+  }
+
   static void putMaterialTranslucentRegularUnlitWithTextures(
     final JCBProgramType program,
     final KMaterialTranslucentRegular material)
@@ -318,6 +418,12 @@ import com.io7m.r1.kernel.types.KProjectionType;
           KShadingProgramCommon.putShadowBasic(
             program,
             lp.lightGetShadowBasic());
+          KShadingProgramCommon.putShadowBasicMapRegion(
+            program,
+            map.getRegion().getUVRegion());
+          KShadingProgramCommon.putShadowBasicMapClamp(
+            program,
+            map.getRegion().getUVClamp());
           KShadingProgramCommon.putTextureShadowMapBasic(program, unit);
           return Unit.unit();
         }
@@ -339,6 +445,12 @@ import com.io7m.r1.kernel.types.KProjectionType;
           KShadingProgramCommon.putShadowBasic(
             program,
             lp.lightGetShadowBasic());
+          KShadingProgramCommon.putShadowBasicMapRegion(
+            program,
+            map.getRegion().getUVRegion());
+          KShadingProgramCommon.putShadowBasicMapClamp(
+            program,
+            map.getRegion().getUVClamp());
           KShadingProgramCommon.putTextureShadowMapBasic(program, unit);
           return Unit.unit();
         }
@@ -486,6 +598,12 @@ import com.io7m.r1.kernel.types.KProjectionType;
           KShadingProgramCommon.putShadowBasicSSSoft(
             program,
             lp.lightGetShadowBasicSSSoft());
+          KShadingProgramCommon.putShadowBasicSSSoftMapRegion(
+            program,
+            KRendererCommon.SHADOW_MAP_REGION_FULL);
+          KShadingProgramCommon.putShadowBasicSSSoftMapClamp(
+            program,
+            KRendererCommon.SHADOW_MAP_REGION_FULL);
           KShadingProgramCommon.putTextureShadowMapBasicSSSoft(program, unit);
           return Unit.unit();
         }
@@ -507,6 +625,12 @@ import com.io7m.r1.kernel.types.KProjectionType;
           KShadingProgramCommon.putShadowBasicSSSoft(
             program,
             lp.lightGetShadowBasicSSSoft());
+          KShadingProgramCommon.putShadowBasicSSSoftMapRegion(
+            program,
+            KRendererCommon.SHADOW_MAP_REGION_FULL);
+          KShadingProgramCommon.putShadowBasicSSSoftMapClamp(
+            program,
+            KRendererCommon.SHADOW_MAP_REGION_FULL);
           KShadingProgramCommon.putTextureShadowMapBasicSSSoft(program, unit);
           return Unit.unit();
         }
@@ -23,6 +23,7 @@ import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.PartialProcedureType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jlog.LogLevel;
 import com.io7m.jlog.LogUsableType;
@@ -82,26 +83,67 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
     final LogUsableType in_log)
     throws RException
   {
+    final OptionType<KMatricesInstanceBatch> none = Option.none();
     return new KRendererDeferred(
       in_shadow_renderer,
       in_translucent_renderer,
       in_opaque_renderer,
+      none,
       in_log);
   }
 
-  private final LogUsableType               log;
-  private final KMutableMatrices            matrices;
-  private final KRendererDeferredOpaqueType opaque_renderer;
-  private final KShadowMapRendererType      shadow_renderer;
-  private final KTranslucentRendererType    translucent_renderer;
+  /**
+   * Construct a new renderer that calculates the matrices of all visible
+   * instances once per frame with the given batch, before any instances are
+   * rendered.
+   *
+   * @param in_shadow_renderer
+   *          A shadow map renderer
+   * @param in_translucent_renderer
+   *          A translucent renderer
+   * @param in_opaque_renderer
+   *          An opaque renderer
+   * @param in_batch
+   *          The instance matrix batch
+   * @param in_log
+   *          A log handle
+   * @return A new renderer
+   * @throws RException
+   *           If an error occurs during initialization
+   */
+
+  public static KRendererDeferredType newRendererWithBatch(
+    final KShadowMapRendererType in_shadow_renderer,
+    final KTranslucentRendererType in_translucent_renderer,
+    final KRendererDeferredOpaqueType in_opaque_renderer,
+    final KMatricesInstanceBatch in_batch,
+    final LogUsableType in_log)
+    throws RException
+  {
+    return new KRendererDeferred(
+      in_shadow_renderer,
+      in_translucent_renderer,
+      in_opaque_renderer,
+      Option.some(NullCheck.notNull(in_batch, "Batch")),
+      in_log);
+  }
+
+  private final OptionType<KMatricesInstanceBatch> batch;
+  private final LogUsableType                      log;
+  private final KMutableMatrices                   matrices;
+  private final KRendererDeferredOpaqueType        opaque_renderer;
+  private final KShadowMapRendererType             shadow_renderer;
+  private final KTranslucentRendererType           translucent_renderer;
 
   private KRendererDeferred(
     final KShadowMapRendererType in_shadow_renderer,
     final KTranslucentRendererType in_translucent_renderer,
     final KRendererDeferredOpaqueType in_opaque_renderer,
+    final OptionType<KMatricesInstanceBatch> in_batch,
     final LogUsableType in_log)
   {
     this.log = NullCheck.notNull(in_log, "Log").with(KRendererDeferred.NAME);
+    this.batch = NullCheck.notNull(in_batch, "Batch");
 
     this.shadow_renderer =
       NullCheck.notNull(in_shadow_renderer, "Shadow renderer");
@@ -136,9 +178,7 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
     final KRendererDeferredOpaqueType or =
       KRendererDeferred.this.opaque_renderer;
 
-    this.matrices.withObserver(
-      camera.getViewMatrix(),
-      camera.getProjection(),
+    final KMatricesObserverFunctionType<Unit, JCGLException> f =
       new KMatricesObserverFunctionType<Unit, JCGLException>() {
         @Override public Unit run(
           final KMatricesObserverType mwo)
@@ -206,7 +246,29 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
             throw RExceptionCache.fromJCacheException(e);
           }
         }
-      });
+      };
+
+    if (this.batch.isSome()) {
+
+      /**
+       * Calculate the matrices of every visible instance once, up front,
+       * rather than once per instance per pass.
+       */
+
+      final KMatricesInstanceBatch b =
+        ((Some<KMatricesInstanceBatch>) this.batch).get();
+      b.batchEvaluate(visible);
+      this.matrices.withObserverBatched(
+        camera.getViewMatrix(),
+        camera.getProjection(),
+        b,
+        f);
+    } else {
+      this.matrices.withObserver(
+        camera.getViewMatrix(),
+        camera.getProjection(),
+        f);
+    }
   }
 
   @Override public
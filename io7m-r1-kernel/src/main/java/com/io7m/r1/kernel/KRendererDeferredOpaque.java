@@ -16,6 +16,7 @@
 
 package com.io7m.r1.kernel;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
@@ -53,12 +54,14 @@ import com.io7m.jcanephora.batchexec.JCBProgramProcedureType;
 import com.io7m.jcanephora.batchexec.JCBProgramType;
 import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jfunctional.None;
+import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionPartialVisitorType;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.PartialProcedureType;
 import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import com.io7m.jtensors.QuaternionI4F;
 import com.io7m.jtensors.parameterized.PMatrixI3x3F;
 import com.io7m.jtensors.parameterized.PMatrixM3x3F;
@@ -68,11 +71,14 @@ import com.io7m.jtensors.parameterized.PVectorI4F;
 import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.exceptions.RExceptionCache;
+import com.io7m.r1.kernel.types.KFrustum;
 import com.io7m.r1.kernel.types.KFrustumMeshCacheType;
 import com.io7m.r1.kernel.types.KFrustumMeshUsableType;
 import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRuns;
 import com.io7m.r1.kernel.types.KInstanceOpaqueType;
 import com.io7m.r1.kernel.types.KInstanceOpaqueVisitorType;
+import com.io7m.r1.kernel.types.KInstancesByCode;
 import com.io7m.r1.kernel.types.KLightDirectionalType;
 import com.io7m.r1.kernel.types.KLightProjectiveType;
 import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicSSSoft;
@@ -101,6 +107,7 @@ import com.io7m.r1.kernel.types.KVisibleSetOpaques;
 import com.io7m.r1.spaces.RSpaceObjectType;
 import com.io7m.r1.spaces.RSpaceRGBType;
 import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
 
 /**
  * A deferred renderer for opaque objects.
@@ -109,6 +116,182 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 @SuppressWarnings({ "synthetic-access" }) @EqualityReference public final class KRendererDeferredOpaque implements
   KRendererDeferredOpaqueType
 {
+  /**
+   * <p>
+   * The procedure that renders individual instances during the geometry
+   * pass.
+   * </p>
+   * <p>
+   * A single value is allocated per renderer, and the fields of the value
+   * are updated for each instance, so that rendering a batch of instances
+   * does not allocate any per-instance closures.
+   * </p>
+   * <p>
+   * Consecutive instances that share a mesh and a material are rendered as
+   * a single run: the textures, material uniforms, and mesh attributes are
+   * uploaded once for the run, the program is executed once for the run, and
+   * only the per-instance matrices and face selection are uploaded (through
+   * resolved uniform slots) for each instance.
+   * </p>
+   */
+
+  @EqualityReference private static final class GeometryInstanceRenderer implements
+    KMatricesInstanceFunctionType<Unit, JCGLException>,
+    PartialProcedureType<KTextureBindingsContextType, RException>,
+    KInstanceOpaqueVisitorType<KMaterialOpaqueRegular, UnreachableCodeException>,
+    JCBProgramProcedureType<RException>
+  {
+    private static final KProgramUniformSlot[] PER_DRAW;
+
+    static {
+      PER_DRAW = new KProgramUniformSlot[] {
+        KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+        KProgramUniformSlot.SLOT_MATRIX_NORMAL,
+        KProgramUniformSlot.SLOT_MATRIX_UV,
+      };
+    }
+
+    private final KTextureBindingsControllerType bindings;
+    private @Nullable JCGLInterfaceGL3ES3Type    gc;
+    private @Nullable IndexBufferUsableType      indices;
+    private @Nullable KInstanceOpaqueType        instance;
+    private @Nullable List<KInstanceOpaqueType>  instances;
+    private @Nullable KMaterialOpaqueRegular     material;
+    private @Nullable KMatricesObserverType      mwo;
+    private @Nullable JCBProgramType             program;
+    private int                                  run_count;
+    private int                                  run_start;
+    private final KGLStateTrackerType            state;
+    private @Nullable KProgramUniforms           uniforms;
+
+    GeometryInstanceRenderer(
+      final KTextureBindingsControllerType in_bindings,
+      final KGLStateTrackerType in_state)
+    {
+      this.bindings = NullCheck.notNull(in_bindings, "Texture bindings");
+      this.state = NullCheck.notNull(in_state, "State tracker");
+    }
+
+    @Override public void call()
+      throws RException
+    {
+      final List<KInstanceOpaqueType> is = this.instances;
+      final KMatricesObserverType o = this.mwo;
+      assert is != null;
+      assert o != null;
+
+      final int end = this.run_start + this.run_count;
+      for (int index = this.run_start; index < end; ++index) {
+        final KInstanceOpaqueType i = is.get(index);
+        assert i != null;
+        this.instance = i;
+        o.withInstance(i, this);
+      }
+    }
+
+    @Override public void call(
+      final KTextureBindingsContextType units)
+      throws RException
+    {
+      final List<KInstanceOpaqueType> is = this.instances;
+      final JCBProgramType p = this.program;
+      final KProgramUniforms u = this.uniforms;
+      assert is != null;
+      assert p != null;
+      assert u != null;
+
+      /**
+       * Upload the mesh and material state shared by every instance in the
+       * run. The array buffer is left bound after drawing, so that
+       * consecutive runs that share a mesh do not rebind it. The batch
+       * unbinds it once all instances have been drawn.
+       */
+
+      final KInstanceOpaqueType first = is.get(this.run_start);
+      assert first != null;
+
+      final KMeshReadableType mesh = first.instanceGetMesh();
+      final ArrayBufferUsableType a = mesh.meshGetArrayBuffer();
+      this.indices = mesh.meshGetIndexBuffer();
+      final KMaterialOpaqueRegular m = first.opaqueAccept(this);
+      this.material = m;
+
+      KRendererCommon.putMaterialOpaqueRegular(p, u, units, m);
+      KShadingProgramCommon.putMatrixProjectionReuse(p, u);
+      KShadingProgramCommon.putDepthCoefficientReuse(p, u);
+
+      this.state.stateArrayBufferBind(a);
+      KShadingProgramCommon.bindAttributesForMesh(p, a);
+
+      u.uniformsExecuteRun(p, GeometryInstanceRenderer.PER_DRAW, this);
+    }
+
+    @Override public KMaterialOpaqueRegular regular(
+      final KInstanceOpaqueRegular o)
+    {
+      return o.getMaterial();
+    }
+
+    /**
+     * Render all of the given instances with the given program, writing
+     * per-instance uniforms through the program's resolved slots.
+     */
+
+    void renderBatch(
+      final JCGLInterfaceGL3ES3Type in_gc,
+      final KMatricesObserverType in_mwo,
+      final List<KInstanceOpaqueType> in_instances,
+      final JCBProgramType in_program,
+      final KProgramUniforms in_uniforms)
+      throws RException
+    {
+      this.gc = in_gc;
+      this.mwo = in_mwo;
+      this.instances = in_instances;
+      this.program = in_program;
+      this.uniforms = in_uniforms;
+      this.state.stateInvalidate();
+
+      try {
+        final int size = in_instances.size();
+        int index = 0;
+        while (index < size) {
+          this.run_start = index;
+          this.run_count = KInstanceOpaqueRuns.runLength(in_instances, index);
+          this.bindings.withNewEmptyContext(this);
+          index += this.run_count;
+        }
+      } finally {
+        this.state.stateArrayBufferUnbind();
+        this.instances = null;
+      }
+    }
+
+    @Override public Unit run(
+      final KMatricesInstanceType m)
+      throws RException
+    {
+      final KInstanceOpaqueType i = this.instance;
+      final JCGLInterfaceGL3ES3Type g = this.gc;
+      final IndexBufferUsableType ib = this.indices;
+      final KMaterialOpaqueRegular mat = this.material;
+      final JCBProgramType p = this.program;
+      final KProgramUniforms u = this.uniforms;
+      assert i != null;
+      assert g != null;
+      assert ib != null;
+      assert mat != null;
+      assert p != null;
+      assert u != null;
+
+      KRendererCommon.putInstanceMatricesRegular(p, u, m, mat);
+      this.state.stateCullingConfigure(i.instanceGetFaceSelection());
+      u.uniformsDraw();
+      g.drawElements(Primitives.PRIMITIVE_TRIANGLES, ib);
+      return Unit.unit();
+    }
+  }
+
   private static final PVectorI4F<RSpaceRGBType>     BLACK;
   private static final Set<FramebufferBlitBuffer>    BLIT_DEPTH_STENCIL;
   private static final PVectorI3F<RSpaceObjectType>  NORMAL_ZERO;
@@ -286,6 +469,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     final KScreenSpaceShadowDeferredRendererType in_ssshadow_renderer)
     throws RException
   {
+    final OptionType<KLightTileBinner> none = Option.none();
     return new KRendererDeferredOpaque(
       in_g,
       in_texture_bindings,
@@ -296,7 +480,82 @@ import com.io7m.r1.spaces.RSpaceTextureType;
       in_shader_geo_cache,
       in_shader_light_cache,
       in_view_rays_cache,
-      in_ssshadow_renderer);
+      in_ssshadow_renderer,
+      none);
+  }
+
+  /**
+   * <p>
+   * Construct a new opaque renderer that renders spherical lights without
+   * shadows using tiled light accumulation.
+   * </p>
+   * <p>
+   * Instead of rasterizing a light volume per light, eligible lights are
+   * binned into square screen-space tiles of <code>in_tile_size</code>
+   * pixels. Each tile is covered by quads that evaluate up to
+   * {@link KShadingProgramCommon#LIGHT_SPHERICAL_TILED_COUNT} lights at
+   * once, and the quads of all tiles are drawn with a single draw call (see
+   * {@link KLightTileBatch}). This reduces the number of draw calls and
+   * g-buffer reads when a scene contains large numbers of small lights. All
+   * other lights are rendered as usual.
+   * </p>
+   *
+   * @param in_texture_bindings
+   *          A texture bindings controller.
+   * @param in_quad_cache
+   *          A unit quad cache.
+   * @param in_sphere_cache
+   *          A unit sphere cache.
+   * @param in_frustum_cache
+   *          A frustum mesh cache.
+   * @param in_g
+   *          The OpenGL interface.
+   * @param in_shader_debug_cache
+   *          The debug shader cache.
+   * @param in_shader_geo_cache
+   *          The geometry-pass shader cache.
+   * @param in_shader_light_cache
+   *          The light-pass shader cache.
+   * @param in_view_rays_cache
+   *          A cache for view rays.
+   * @param in_ssshadow_renderer
+   *          A screen-space soft shadow renderer.
+   * @param in_tile_size
+   *          The width and height of light tiles in pixels.
+   *
+   * @return A new renderer.
+   * @throws RException
+   *           If an error occurs.
+   */
+
+  public static KRendererDeferredOpaqueType newRendererWithTiledLights(
+    final JCGLImplementationType in_g,
+    final KTextureBindingsControllerType in_texture_bindings,
+    final KUnitQuadCacheType in_quad_cache,
+    final KUnitSphereCacheType in_sphere_cache,
+    final KFrustumMeshCacheType in_frustum_cache,
+    final KShaderCacheDebugType in_shader_debug_cache,
+    final KShaderCacheDeferredGeometryType in_shader_geo_cache,
+    final KShaderCacheDeferredLightType in_shader_light_cache,
+    final KViewRaysCacheType in_view_rays_cache,
+    final KScreenSpaceShadowDeferredRendererType in_ssshadow_renderer,
+    final int in_tile_size)
+    throws RException
+  {
+    final OptionType<KLightTileBinner> binner =
+      Option.some(KLightTileBinner.newBinner(in_tile_size));
+    return new KRendererDeferredOpaque(
+      in_g,
+      in_texture_bindings,
+      in_quad_cache,
+      in_sphere_cache,
+      in_frustum_cache,
+      in_shader_debug_cache,
+      in_shader_geo_cache,
+      in_shader_light_cache,
+      in_view_rays_cache,
+      in_ssshadow_renderer,
+      binner);
   }
 
   private static void putDeferredParameters(
@@ -314,6 +573,16 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     KShadingProgramCommon.putDeferredMapSpecular(program, t_map_specular);
   }
 
+  private static void putDeferredParametersReuse(
+    final JCBProgramType program)
+  {
+    KRendererCommon.putFramebufferScreenSizeReuse(program);
+    KShadingProgramCommon.putDeferredMapAlbedoReuse(program);
+    KShadingProgramCommon.putDeferredMapDepthReuse(program);
+    KShadingProgramCommon.putDeferredMapNormalReuse(program);
+    KShadingProgramCommon.putDeferredMapSpecularReuse(program);
+  }
+
   /**
    * Copy the depth/stencil buffer(s) from the g-buffer to the currently bound
    * framebuffer.
@@ -342,96 +611,6 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     }
   }
 
-  private static void renderGroupGeometryBatchInstances(
-    final JCGLInterfaceGL3ES3Type gc,
-    final KTextureBindingsControllerType texture_bindings,
-    final KMatricesObserverType mwo,
-    final List<KInstanceOpaqueType> instances,
-    final JCBProgramType program)
-    throws RException
-  {
-    final int size = instances.size();
-    for (int index = 0; index < size; ++index) {
-      final KInstanceOpaqueType i = instances.get(index);
-      assert i != null;
-
-      mwo.withInstance(
-        i,
-        new KMatricesInstanceFunctionType<Unit, JCGLException>() {
-          @Override public Unit run(
-            final KMatricesInstanceType mwi)
-            throws RException
-          {
-            texture_bindings
-              .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
-                @Override public void call(
-                  final KTextureBindingsContextType c)
-                  throws RException
-                {
-                  KRendererDeferredOpaque.renderGroupGeometryInstance(
-                    gc,
-                    c,
-                    mwi,
-                    program,
-                    i);
-                }
-              });
-            return Unit.unit();
-          }
-        });
-    }
-  }
-
-  private static void renderGroupGeometryInstance(
-    final JCGLInterfaceGL3ES3Type gc,
-    final KTextureBindingsContextType units,
-    final KMatricesInstanceValuesType mwi,
-    final JCBProgramType program,
-    final KInstanceOpaqueType i)
-    throws RException
-  {
-    final KMeshReadableType mesh = i.instanceGetMesh();
-    final ArrayBufferUsableType array = mesh.meshGetArrayBuffer();
-    final IndexBufferUsableType indices = mesh.meshGetIndexBuffer();
-    final KMaterialOpaqueRegular material =
-      i
-        .opaqueAccept(new KInstanceOpaqueVisitorType<KMaterialOpaqueRegular, UnreachableCodeException>() {
-          @Override public KMaterialOpaqueRegular regular(
-            final KInstanceOpaqueRegular o)
-          {
-            return o.getMaterial();
-          }
-        });
-
-    KRendererCommon.renderConfigureFaceCulling(
-      gc,
-      i.instanceGetFaceSelection());
-
-    KShadingProgramCommon.putMatrixProjectionReuse(program);
-    KShadingProgramCommon.putDepthCoefficientReuse(program);
-    KRendererCommon.putMaterialOpaqueRegular(program, units, material);
-    KRendererCommon.putInstanceMatricesRegular(program, mwi, material);
-
-    try {
-      gc.arrayBufferBind(array);
-      KShadingProgramCommon.bindAttributesForMesh(program, array);
-
-      KRendererCommon.renderConfigureFaceCulling(
-        gc,
-        i.instanceGetFaceSelection());
-
-      program.programExecute(new JCBProgramProcedureType<JCGLException>() {
-        @Override public void call()
-        {
-          gc.drawElements(Primitives.PRIMITIVE_TRIANGLES, indices);
-        }
-      });
-
-    } finally {
-      gc.arrayBufferUnbind();
-    }
-  }
-
   private static
     void
     renderGroupLightSphericalTexturedCubeWithoutShadow(
@@ -593,16 +772,27 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     });
   }
 
-  private final KFrustumMeshCacheType                              frustum_cache;
-  private final JCGLImplementationType                             g;
-  private final KUnitQuadCacheType                                 quad_cache;
-  private final KShaderCacheDeferredGeometryType                   shader_geo_cache;
-  private final KShaderCacheDeferredLightType                      shader_light_cache;
-  private final KUnitSphereCacheType                               sphere_cache;
-  private final KScreenSpaceShadowDeferredRendererType             ssshadow_renderer;
-  private final KTextureBindingsControllerType                     texture_bindings;
-  private final PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType> uv_light_spherical;
-  private final KViewRaysCacheType                                 view_rays_cache;
+  private final KFrustum                                                   frustum;
+  private final KFrustumMeshCacheType                                      frustum_cache;
+  private final JCGLImplementationType                                     g;
+  private final GeometryInstanceRenderer                                   geometry_instance;
+  private final KLightVisitorType<Boolean, UnreachableCodeException>       light_visible;
+  private long                                                             lights_culled;
+  private long                                                             lights_rendered;
+  private long                                                             lights_tiled;
+  private final KUnitQuadCacheType                                         quad_cache;
+  private final KShaderCacheDeferredGeometryType                           shader_geo_cache;
+  private final KShaderCacheDeferredLightType                              shader_light_cache;
+  private final KUnitSphereCacheType                                       sphere_cache;
+  private final KScreenSpaceShadowDeferredRendererType                     ssshadow_renderer;
+  private final KGLStateTrackerType                                        state;
+  private final KTextureBindingsControllerType                             texture_bindings;
+  private final KLightTileBatch                                            tile_batch;
+  private final OptionType<KLightTileBinner>                               tile_binner;
+  private final KLightVisitorType<Boolean, UnreachableCodeException>       tile_collect;
+  private final List<KLightSphereType>                                     tile_lights;
+  private final PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>         uv_light_spherical;
+  private final KViewRaysCacheType                                         view_rays_cache;
 
   private KRendererDeferredOpaque(
     final JCGLImplementationType in_g,
@@ -614,11 +804,15 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     final KShaderCacheDeferredGeometryType in_shader_geo_cache,
     final KShaderCacheDeferredLightType in_shader_light_cache,
     final KViewRaysCacheType in_view_rays_cache,
-    final KScreenSpaceShadowDeferredRendererType in_ssshadow_renderer)
+    final KScreenSpaceShadowDeferredRendererType in_ssshadow_renderer,
+    final OptionType<KLightTileBinner> in_tile_binner)
   {
     this.g = NullCheck.notNull(in_g, "GL");
     this.texture_bindings =
       NullCheck.notNull(in_texture_bindings, "Texture bindings");
+    this.state = KGLStateTracker.newTracker(in_g.getGLCommon());
+    this.geometry_instance =
+      new GeometryInstanceRenderer(this.texture_bindings, this.state);
 
     this.shader_geo_cache =
       NullCheck.notNull(in_shader_geo_cache, "Geometry-pass shader cache");
@@ -638,6 +832,110 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 
     this.uv_light_spherical =
       new PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>();
+
+    this.frustum = KFrustum.newFrustum();
+    this.light_visible =
+      new KLightVisitorType<Boolean, UnreachableCodeException>() {
+        @Override public Boolean lightDirectional(
+          final KLightDirectionalType ld)
+        {
+          return Boolean.TRUE;
+        }
+
+        @Override public Boolean lightProjective(
+          final KLightProjectiveType lp)
+        {
+          final PVectorI3F<RSpaceWorldType> p = lp.lightProjectiveGetPosition();
+          return Boolean.valueOf(KRendererDeferredOpaque.this.frustum
+            .intersectsSphere(
+              p.getXF(),
+              p.getYF(),
+              p.getZF(),
+              lp.lightProjectiveGetRange()));
+        }
+
+        @Override public Boolean lightSpherical(
+          final KLightSphereType ls)
+        {
+          final PVectorI3F<RSpaceWorldType> p = ls.lightGetPosition();
+          return Boolean.valueOf(KRendererDeferredOpaque.this.frustum
+            .intersectsSphere(
+              p.getXF(),
+              p.getYF(),
+              p.getZF(),
+              ls.lightGetRadius()));
+        }
+      };
+
+    this.tile_binner = NullCheck.notNull(in_tile_binner, "Tile binner");
+    this.tile_lights = new ArrayList<KLightSphereType>();
+    this.tile_batch = KLightTileBatch.newBatch();
+
+    /**
+     * Only spherical lights without shadows or textures can be rendered by
+     * the tiled light shader. Eligible lights are collected for binning.
+     */
+
+    final KLightSphereVisitorType<Boolean, UnreachableCodeException> sphere_eligible =
+      new KLightSphereVisitorType<Boolean, UnreachableCodeException>() {
+        @Override public Boolean sphereTexturedCubeWithoutShadow(
+          final KLightSphereTexturedCubeWithoutShadow lsws)
+        {
+          return Boolean.FALSE;
+        }
+
+        @Override public Boolean sphereWithoutShadow(
+          final KLightSphereWithoutShadow lsws)
+        {
+          return Boolean.TRUE;
+        }
+
+        @Override public Boolean sphereWithoutShadowDiffuseOnly(
+          final KLightSphereWithoutShadowDiffuseOnly lsws)
+        {
+          return Boolean.TRUE;
+        }
+      };
+
+    this.tile_collect =
+      new KLightVisitorType<Boolean, UnreachableCodeException>() {
+        @Override public Boolean lightDirectional(
+          final KLightDirectionalType ld)
+        {
+          return Boolean.FALSE;
+        }
+
+        @Override public Boolean lightProjective(
+          final KLightProjectiveType lp)
+        {
+          return Boolean.FALSE;
+        }
+
+        @Override public Boolean lightSpherical(
+          final KLightSphereType ls)
+          throws RException
+        {
+          if (ls.sphereAccept(sphere_eligible).booleanValue()) {
+            KRendererDeferredOpaque.this.tile_lights.add(ls);
+            return Boolean.TRUE;
+          }
+          return Boolean.FALSE;
+        }
+      };
+  }
+
+  /**
+   * Determine whether or not the volume of the given light intersects the
+   * current view frustum. Directional lights affect the entire scene and are
+   * always visible. The volume of a projective light is conservatively
+   * bounded by a sphere of radius equal to its range.
+   */
+
+  private boolean lightIsVisible(
+    final KLightType light)
+    throws RException
+  {
+    return light.lightAccept(this.light_visible).booleanValue();
   }
 
   @Override public void rendererEvaluateOpaqueLit(
@@ -648,6 +946,13 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     final KVisibleSetOpaques opaques)
     throws RException
   {
+    this.lights_culled = 0;
+    this.lights_rendered = 0;
+    this.lights_tiled = 0;
+    this.frustum.updateFromMatrices(
+      mwo.getMatrixView(),
+      mwo.getMatrixProjection());
+
     try {
       final KViewRays view_rays =
         this.view_rays_cache.cacheGetLU(mwo.getProjection());
@@ -685,8 +990,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     throws RException
   {
     try {
-      final Set<String> unlit_codes = opaques.getUnlitMaterialCodes();
-      if (unlit_codes.size() > 0) {
+      if (opaques.getUnlitInstances().getGroupCount() > 0) {
 
         final JCGLInterfaceGL3ES3Type gc =
           this.g.implementationAccept(KRendererCommon.getGL3ES3Get());
@@ -718,6 +1022,26 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     }
   }
 
+  @Override public long rendererGetLightsCulled()
+  {
+    return this.lights_culled;
+  }
+
+  @Override public long rendererGetLightsRendered()
+  {
+    return this.lights_rendered;
+  }
+
+  @Override public long rendererGetLightsTiled()
+  {
+    return this.lights_tiled;
+  }
+
+  @Override public KGLStateTrackerType rendererGetStateTracker()
+  {
+    return this.state;
+  }
+
   private void renderGroup(
     final JCGLInterfaceGL3ES3Type gc,
     final KFramebufferDeferredUsableType framebuffer,
@@ -865,24 +1189,25 @@ import com.io7m.r1.spaces.RSpaceTextureType;
         depth_function,
         this.g);
 
-      final Set<String> material_codes = group.getMaterialCodes();
-      for (final String shader_code : material_codes) {
-        assert shader_code != null;
-
+      final KInstancesByCode by_code = group.getInstancesByCode();
+      final int group_count = by_code.getGroupCount();
+      for (int index = 0; index < group_count; ++index) {
+        final String shader_code = by_code.getGroupCode(index);
         final List<KInstanceOpaqueType> instances =
-          group.getInstances(shader_code);
-        assert instances != null;
+          by_code.getGroupInstances(index);
 
         final KProgramType kprogram =
           this.shader_geo_cache.cacheGetLU(shader_code);
 
-        final KTextureBindingsControllerType bindings = this.texture_bindings;
         kprogram.getExecutable().execRun(
           new JCBExecutorProcedureType<RException>() {
             @Override public void call(
               final JCBProgramType program)
               throws RException
             {
+              final KProgramUniforms u = kprogram.getUniforms();
+              u.uniformsBegin();
+
               KShadingProgramCommon.putMatrixProjectionUnchecked(
                 program,
                 mwo.getMatrixProjection());
@@ -891,12 +1216,12 @@ import com.io7m.r1.spaces.RSpaceTextureType;
                 program,
                 KRendererCommon.depthCoefficient(mwo.getProjection()));
 
-              KRendererDeferredOpaque.renderGroupGeometryBatchInstances(
+              KRendererDeferredOpaque.this.geometry_instance.renderBatch(
                 gc,
-                bindings,
                 mwo,
                 instances,
-                program);
+                program,
+                u);
             }
           });
       }
@@ -1515,10 +1840,25 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 
             KRendererDeferredOpaque.this.renderGroupClearToBlack(gc);
 
+            final KRendererDeferredOpaque r = KRendererDeferredOpaque.this;
             for (final KLightType light : group.getLights()) {
               assert light != null;
 
-              KRendererDeferredOpaque.this.renderGroupLight(
+              if (r.lightIsVisible(light) == false) {
+                ++r.lights_culled;
+                continue;
+              }
+
+              ++r.lights_rendered;
+
+              if (r.tile_binner.isSome()) {
+                if (light.lightAccept(r.tile_collect).booleanValue()) {
+                  ++r.lights_tiled;
+                  continue;
+                }
+              }
+
+              r.renderGroupLight(
                 framebuffer,
                 t_map_albedo,
                 t_map_depth_stencil,
@@ -1531,6 +1871,27 @@ import com.io7m.r1.spaces.RSpaceTextureType;
                 light);
             }
 
+            if (r.tile_lights.isEmpty() == false) {
+              final Some<KLightTileBinner> some =
+                (Some<KLightTileBinner>) r.tile_binner;
+              try {
+                r.renderGroupLightsTiled(
+                  framebuffer,
+                  t_map_albedo,
+                  t_map_depth_stencil,
+                  t_map_normal,
+                  t_map_specular,
+                  view_rays,
+                  gc,
+                  mwo,
+                  some.get());
+              } catch (final JCacheException e) {
+                throw RExceptionCache.fromJCacheException(e);
+              } finally {
+                r.tile_lights.clear();
+              }
+            }
+
           } finally {
             gc.framebufferDrawUnbind();
           }
@@ -1538,6 +1899,105 @@ import com.io7m.r1.spaces.RSpaceTextureType;
       });
   }
 
+  /**
+   * Render all collected tiled lights. The lights are binned into screen
+   * tiles, and each tile containing at least one light is covered by a quad
+   * per {@link KShadingProgramCommon#LIGHT_SPHERICAL_TILED_COUNT} lights.
+   * All of the quads are drawn with a single draw call. Light accumulation
+   * uses additive blending, so a tile with more lights than a single quad
+   * can evaluate is simply covered by multiple quads.
+   */
+
+  private void renderGroupLightsTiled(
+    final KFramebufferDeferredUsableType framebuffer,
+    final TextureUnitType t_map_albedo,
+    final TextureUnitType t_map_depth_stencil,
+    final TextureUnitType t_map_normal,
+    final TextureUnitType t_map_specular,
+    final KViewRays view_rays,
+    final JCGLInterfaceGL3ES3Type gc,
+    final KMatricesObserverType mwo,
+    final KLightTileBinner binner)
+    throws RException,
+      JCacheException
+  {
+    final AreaInclusive area = framebuffer.getArea();
+    final int width = (int) area.getRangeX().getInterval();
+    final int height = (int) area.getRangeY().getInterval();
+
+    binner.binLights(
+      mwo.getMatrixView(),
+      mwo.getMatrixProjection(),
+      width,
+      height,
+      this.tile_lights);
+
+    final KLightTileBatch batch = this.tile_batch;
+    batch.batchBuild(binner, width, height);
+    if (batch.getQuadCount() == 0) {
+      return;
+    }
+
+    batch.batchUpload(gc, mwo.getMatrixContext(), mwo.getMatrixView());
+
+    /**
+     * The quads are screen-aligned and may overlap the far plane, so depth
+     * testing is disabled and only the stencil buffer restricts shading to
+     * pixels that were written by the geometry pass.
+     */
+
+    KRendererDeferredOpaque.configureStencilForLightRendering(gc);
+    gc.blendingEnable(BlendFunction.BLEND_ONE, BlendFunction.BLEND_ONE);
+    gc.colorBufferMask(true, true, true, true);
+    gc.cullingDisable();
+    gc.depthBufferWriteDisable();
+    gc.depthBufferTestDisable();
+    gc.viewportSet(area);
+
+    final KProgramType kp = this.shader_light_cache.cacheGetLU("LSphereTiled");
+    final ArrayBufferUsableType array = batch.batchGetArray();
+    final IndexBufferUsableType index = batch.batchGetIndices();
+
+    final JCBExecutorType exec = kp.getExecutable();
+    exec.execRun(new JCBExecutorProcedureType<RException>() {
+      @Override public void call(
+        final JCBProgramType program)
+        throws RException
+      {
+        gc.arrayBufferBind(array);
+        batch.batchBindAttributes(program);
+
+        KRendererDeferredOpaque.putDeferredParameters(
+          framebuffer,
+          t_map_albedo,
+          t_map_depth_stencil,
+          t_map_normal,
+          t_map_specular,
+          program);
+
+        KShadingProgramCommon.putMatrixInverseProjection(
+          program,
+          mwo.getMatrixProjectionInverse());
+        KShadingProgramCommon.putMatrixProjectionUnchecked(
+          program,
+          mwo.getMatrixProjection());
+        KShadingProgramCommon.putDepthCoefficient(
+          program,
+          KRendererCommon.depthCoefficient(mwo.getProjection()));
+        KShadingProgramCommon.putViewRays(program, view_rays);
+
+        program.programExecute(new JCBProgramProcedureType<JCGLException>() {
+          @Override public void call()
+            throws JCGLException
+          {
+            gc.drawElements(Primitives.PRIMITIVE_TRIANGLES, index);
+          }
+        });
+      }
+    });
+  }
+
+
   private void renderGroupLightSpherical(
     final KFramebufferDeferredUsableType framebuffer,
     final TextureUnitType t_map_albedo,
@@ -1740,8 +2200,6 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     throws RException,
       JCacheException
   {
-    final KTextureBindingsControllerType b = this.texture_bindings;
-
     final KGeometryBufferUsableType geom =
       framebuffer.deferredGetGeometryBuffer();
     final FramebufferUsableType geom_fb = geom.geomGetFramebuffer();
@@ -1753,12 +2211,12 @@ import com.io7m.r1.spaces.RSpaceTextureType;
         depth_function,
         this.g);
 
-      final Set<String> unlit_codes = opaques.getUnlitMaterialCodes();
-      for (final String code : unlit_codes) {
-        assert code != null;
+      final KInstancesByCode unlit = opaques.getUnlitInstances();
+      final int group_count = unlit.getGroupCount();
+      for (int index = 0; index < group_count; ++index) {
+        final String code = unlit.getGroupCode(index);
         final List<KInstanceOpaqueType> batch =
-          opaques.getUnlitInstancesByCode(code);
-        assert batch != null;
+          unlit.getGroupInstances(index);
 
         final KProgramType kprogram = this.shader_geo_cache.cacheGetLU(code);
         kprogram.getExecutable().execRun(
@@ -1767,18 +2225,21 @@ import com.io7m.r1.spaces.RSpaceTextureType;
               final JCBProgramType program)
               throws RException
             {
+              final KProgramUniforms u = kprogram.getUniforms();
+              u.uniformsBegin();
+
               KShadingProgramCommon.putMatrixProjectionUnchecked(
                 program,
                 mwo.getMatrixProjection());
               KShadingProgramCommon.putDepthCoefficient(
                 program,
                 KRendererCommon.depthCoefficient(mwo.getProjection()));
-              KRendererDeferredOpaque.renderGroupGeometryBatchInstances(
+              KRendererDeferredOpaque.this.geometry_instance.renderBatch(
                 gc,
-                b,
                 mwo,
                 batch,
-                program);
+                program,
+                u);
             }
           });
       }
@@ -82,4 +82,38 @@ public interface KRendererDeferredOpaqueType
     final KMatricesObserverType mwo,
     final KVisibleSetOpaques opaques)
     throws RException;
+
+  /**
+   * @return The number of lights that were discarded without being rendered
+   *         during the most recent call to
+   *         {@link #rendererEvaluateOpaqueLit(KFramebufferDeferredUsableType, KShadowMapContextType, OptionType, KMatricesObserverType, KVisibleSetOpaques)}
+   *         , because their volumes lay outside of the view frustum
+   */
+
+  long rendererGetLightsCulled();
+
+  /**
+   * @return The number of lights that were rendered during the most recent
+   *         call to
+   *         {@link #rendererEvaluateOpaqueLit(KFramebufferDeferredUsableType, KShadowMapContextType, OptionType, KMatricesObserverType, KVisibleSetOpaques)}
+   */
+
+  long rendererGetLightsRendered();
+
+  /**
+   * @return The number of lights that were rendered using tiled light
+   *         accumulation during the most recent call to
+   *         {@link #rendererEvaluateOpaqueLit(KFramebufferDeferredUsableType, KShadowMapContextType, OptionType, KMatricesObserverType, KVisibleSetOpaques)}
+   *         . Tiled lights are included in the count returned by
+   *         {@link #rendererGetLightsRendered()}.
+   */
+
+  long rendererGetLightsTiled();
+
+  /**
+   * @return The state tracker used during the geometry pass, whose counters
+   *         record how many redundant OpenGL calls were filtered
+   */
+
+  KGLStateTrackerType rendererGetStateTracker();
 }
@@ -17,8 +17,9 @@
 package com.io7m.r1.kernel;
 
 import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import com.io7m.jcache.JCacheLoaderType;
 import com.io7m.jcanephora.JCGLSLVersion;
 import com.io7m.jcanephora.api.JCGLImplementationType;
 import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
@@ -38,10 +39,16 @@ import com.io7m.r1.exceptions.RException;
  * Programs will be loaded from the root of the filesystem, so the cache can
  * only serve one type of shader per filesystem.
  * </p>
+ * <p>
+ * Program sources may be loaded ahead of time on any thread with
+ * {@link #loaderPreloadSources(JCGLSLVersion, String)}. Access to the
+ * filesystem is serialized, so the filesystem itself does not need to be
+ * thread-safe.
+ * </p>
  */
 
 @EqualityReference public final class KShaderCacheFilesystemLoader implements
-  JCacheLoaderType<String, KProgramType, RException>
+  KShaderCacheLoaderType
 {
   /**
    * Construct a new cache loader.
@@ -56,7 +63,7 @@ import com.io7m.r1.exceptions.RException;
    * @return A new cache loader
    */
 
-  public static JCacheLoaderType<String, KProgramType, RException> newLoader(
+  public static KShaderCacheLoaderType newLoader(
     final JCGLImplementationType gi,
     final FSCapabilityReadType fs,
     final LogUsableType log)
@@ -64,9 +71,10 @@ import com.io7m.r1.exceptions.RException;
     return new KShaderCacheFilesystemLoader(gi, fs, log);
   }
 
-  private final FSCapabilityReadType   fs;
-  private final JCGLImplementationType gi;
-  private final LogUsableType          log;
+  private final FSCapabilityReadType         fs;
+  private final JCGLImplementationType       gi;
+  private final LogUsableType                log;
+  private final Map<String, KProgramSources> preloaded;
 
   private KShaderCacheFilesystemLoader(
     final JCGLImplementationType in_gi,
@@ -76,6 +84,7 @@ import com.io7m.r1.exceptions.RException;
     this.log = NullCheck.notNull(in_log, "Log").with("shader-cache");
     this.gi = NullCheck.notNull(in_gi, "OpenGL implementation");
     this.fs = NullCheck.notNull(in_fs, "Filesystem");
+    this.preloaded = new ConcurrentHashMap<String, KProgramSources>();
   }
 
   @Override public void cacheValueClose(
@@ -90,15 +99,16 @@ import com.io7m.r1.exceptions.RException;
     final String name)
     throws RException
   {
+    final KProgramSources sources = this.preloaded.remove(name);
+    if (sources != null) {
+      return KProgram.newProgramFromSources(this.gi, sources, this.log);
+    }
+
     final JCGLInterfaceCommonType gc = this.gi.getGLCommon();
     final JCGLSLVersion version = gc.metaGetSLVersion();
-
-    return KProgram.newProgramFromFilesystem(
+    return KProgram.newProgramFromSources(
       this.gi,
-      version.getNumber(),
-      version.getAPI(),
-      this.fs,
-      name,
+      this.loadSources(version, name),
       this.log);
   }
 
@@ -109,4 +119,39 @@ import com.io7m.r1.exceptions.RException;
     assert one != null;
     return one;
   }
+
+  @Override public void loaderDiscardPreloaded(
+    final String name)
+  {
+    NullCheck.notNull(name, "Name");
+    this.preloaded.remove(name);
+  }
+
+  @Override public void loaderPreloadSources(
+    final JCGLSLVersion version,
+    final String name)
+    throws RException
+  {
+    NullCheck.notNull(version, "Version");
+    NullCheck.notNull(name, "Name");
+
+    if (this.preloaded.containsKey(name) == false) {
+      this.preloaded.put(name, this.loadSources(version, name));
+    }
+  }
+
+  private KProgramSources loadSources(
+    final JCGLSLVersion version,
+    final String name)
+    throws RException
+  {
+    synchronized (this.fs) {
+      return KProgram.newProgramSourcesFromFilesystem(
+        version.getNumber(),
+        version.getAPI(),
+        this.fs,
+        name,
+        this.log);
+    }
+  }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+/**
+ * The kinds of shader cache held by a {@link KShaderCacheSetType}.
+ */
+
+public enum KShaderCacheKind
+{
+  /**
+   * @see KShaderCacheSetType#getShaderDebugCache()
+   */
+
+  SHADER_CACHE_DEBUG,
+
+  /**
+   * @see KShaderCacheSetType#getShaderDeferredGeoCache()
+   */
+
+  SHADER_CACHE_DEFERRED_GEOMETRY,
+
+  /**
+   * @see KShaderCacheSetType#getShaderDeferredLightCache()
+   */
+
+  SHADER_CACHE_DEFERRED_LIGHT,
+
+  /**
+   * @see KShaderCacheSetType#getShaderDepthCache()
+   */
+
+  SHADER_CACHE_DEPTH,
+
+  /**
+   * @see KShaderCacheSetType#getShaderDepthVarianceCache()
+   */
+
+  SHADER_CACHE_DEPTH_VARIANCE,
+
+  /**
+   * @see KShaderCacheSetType#getShaderForwardTranslucentLitCache()
+   */
+
+  SHADER_CACHE_FORWARD_TRANSLUCENT_LIT,
+
+  /**
+   * @see KShaderCacheSetType#getShaderForwardTranslucentUnlitCache()
+   */
+
+  SHADER_CACHE_FORWARD_TRANSLUCENT_UNLIT,
+
+  /**
+   * @see KShaderCacheSetType#getShaderImageCache()
+   */
+
+  SHADER_CACHE_IMAGE
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcache.JCacheLoaderType;
+import com.io7m.jcanephora.JCGLSLVersion;
+import com.io7m.r1.exceptions.RException;
+
+/**
+ * The type of shader cache loaders that can load program sources ahead of
+ * time, separately from compiling them.
+ */
+
+public interface KShaderCacheLoaderType extends
+  JCacheLoaderType<String, KProgramType, RException>
+{
+  /**
+   * Discard any sources previously retained for the program
+   * <code>name</code> by {@link #loaderPreloadSources(JCGLSLVersion, String)}
+   * that have not been consumed by {@link #cacheValueLoad(Object)}. This is
+   * used when a preloaded program turns out to be cached already.
+   *
+   * @param name
+   *          The name of the program
+   */
+
+  void loaderDiscardPreloaded(
+    final String name);
+
+  /**
+   * <p>
+   * Load the sources of the program <code>name</code> for the given shading
+   * language version, and retain them so that a later call to
+   * {@link #cacheValueLoad(Object)} for the same program only has to compile
+   * and link them.
+   * </p>
+   * <p>
+   * This function does not touch OpenGL and may be called from any thread.
+   * </p>
+   *
+   * @param version
+   *          The shading language version
+   * @param name
+   *          The name of the program
+   *
+   * @throws RException
+   *           If the sources cannot be loaded
+   */
+
+  void loaderPreloadSources(
+    final JCGLSLVersion version,
+    final String name)
+    throws RException;
+}
@@ -17,13 +17,16 @@
 package com.io7m.r1.kernel;
 
 import java.math.BigInteger;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
-import com.io7m.jcache.JCacheLoaderType;
 import com.io7m.jcache.LRUCacheConfig;
 import com.io7m.jcache.LRUCacheTrivial;
 import com.io7m.jcanephora.api.JCGLImplementationType;
 import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
 import com.io7m.jvvfs.Filesystem;
 import com.io7m.jvvfs.FilesystemError;
 import com.io7m.jvvfs.FilesystemType;
@@ -76,24 +79,32 @@ import com.io7m.r1.shaders.image.RShadersImage;
     final KShaderCacheForwardTranslucentLitType in_shader_forward_translucent_lit_cache;
     final KShaderCacheForwardTranslucentUnlitType in_shader_forward_translucent_unlit_cache;
     final KShaderCacheImageType in_shader_image_cache;
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders =
+      new EnumMap<KShaderCacheKind, KShaderCacheLoaderType>(
+        KShaderCacheKind.class);
 
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
       fs.mountClasspathArchive(RShadersDebug.class, PathVirtual.ROOT);
       in_shader_debug_cache =
-        KShaderCacheSetClasspath.wrapDebug(gi, log, cache_config, fs);
+        KShaderCacheSetClasspath.wrapDebug(gi, log, cache_config, fs, loaders);
     }
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
       fs.mountClasspathArchive(RShadersDepth.class, PathVirtual.ROOT);
       in_shader_depth_cache =
-        KShaderCacheSetClasspath.wrapDepth(gi, log, cache_config, fs);
+        KShaderCacheSetClasspath.wrapDepth(gi, log, cache_config, fs, loaders);
     }
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
       fs.mountClasspathArchive(RShadersDepthVariance.class, PathVirtual.ROOT);
       in_shader_depth_variance_cache =
-        KShaderCacheSetClasspath.wrapDepthVariance(gi, log, cache_config, fs);
+        KShaderCacheSetClasspath.wrapDepthVariance(
+          gi,
+          log,
+          cache_config,
+          fs,
+          loaders);
     }
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
@@ -105,13 +116,14 @@ import com.io7m.r1.shaders.image.RShadersImage;
           gi,
           log,
           cache_config,
-          fs);
+          fs,
+          loaders);
     }
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
       fs.mountClasspathArchive(RShadersImage.class, PathVirtual.ROOT);
       in_shader_image_cache =
-        KShaderCacheSetClasspath.wrapImage(gi, log, cache_config, fs);
+        KShaderCacheSetClasspath.wrapImage(gi, log, cache_config, fs, loaders);
     }
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
@@ -123,7 +135,8 @@ import com.io7m.r1.shaders.image.RShadersImage;
           gi,
           log,
           cache_config,
-          fs);
+          fs,
+          loaders);
     }
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
@@ -135,16 +148,25 @@ import com.io7m.r1.shaders.image.RShadersImage;
           gi,
           log,
           cache_config,
-          fs);
+          fs,
+          loaders);
     }
     {
       final FilesystemType fs = Filesystem.makeWithoutArchiveDirectory(log);
       fs.mountClasspathArchive(RShadersDeferredLight.class, PathVirtual.ROOT);
       in_shader_deferred_light_cache =
-        KShaderCacheSetClasspath.wrapDeferredLight(gi, log, cache_config, fs);
+        KShaderCacheSetClasspath.wrapDeferredLight(
+          gi,
+          log,
+          cache_config,
+          fs,
+          loaders);
     }
 
     return new KShaderCacheSetClasspath(
+      gi,
+      log,
+      loaders,
       in_shader_debug_cache,
       in_shader_deferred_geo_cache,
       in_shader_deferred_light_cache,
@@ -159,10 +181,12 @@ import com.io7m.r1.shaders.image.RShadersImage;
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEBUG, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDebug(c);
@@ -172,10 +196,12 @@ import com.io7m.r1.shaders.image.RShadersImage;
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDeferredGeometry(c);
@@ -185,10 +211,12 @@ import com.io7m.r1.shaders.image.RShadersImage;
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDeferredLight(c);
@@ -198,10 +226,12 @@ import com.io7m.r1.shaders.image.RShadersImage;
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEPTH, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDepth(c);
@@ -211,10 +241,12 @@ import com.io7m.r1.shaders.image.RShadersImage;
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEPTH_VARIANCE, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDepthVariance(c);
@@ -226,10 +258,12 @@ import com.io7m.r1.shaders.image.RShadersImage;
       final JCGLImplementationType gi,
       final LogUsableType log,
       final LRUCacheConfig cache_config,
-      final FilesystemType fs)
+      final FilesystemType fs,
+      final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_FORWARD_TRANSLUCENT_LIT, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapForwardTranslucentLit(c);
@@ -241,10 +275,14 @@ import com.io7m.r1.shaders.image.RShadersImage;
       final JCGLImplementationType gi,
       final LogUsableType log,
       final LRUCacheConfig cache_config,
-      final FilesystemType fs)
+      final FilesystemType fs,
+      final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(
+      KShaderCacheKind.SHADER_CACHE_FORWARD_TRANSLUCENT_UNLIT,
+      loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapForwardTranslucentUnlit(c);
@@ -254,27 +292,38 @@ import com.io7m.r1.shaders.image.RShadersImage;
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_IMAGE, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapImage(c);
   }
 
-  private final KShaderCacheDebugType                   shader_debug_cache;
-  private final KShaderCacheDeferredGeometryType        shader_deferred_geo_cache;
-  private final KShaderCacheDeferredLightType           shader_deferred_light_cache;
-  private final KShaderCacheDepthType                   shader_depth_cache;
-  private final KShaderCacheDepthVarianceType           shader_depth_variance_cache;
-  private final KShaderCacheForwardTranslucentLitType   shader_forward_translucent_lit_cache;
-  private final KShaderCacheForwardTranslucentUnlitType shader_forward_translucent_unlit_cache;
-  private final KShaderCacheImageType                   shader_image_cache;
+  private final JCGLImplementationType                        gi;
+  private final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders;
+  private final LogUsableType                                 log;
+  private final KShaderCacheDebugType                         shader_debug_cache;
+  private final KShaderCacheDeferredGeometryType              shader_deferred_geo_cache;
+  private final KShaderCacheDeferredLightType                 shader_deferred_light_cache;
+  private final KShaderCacheDepthType                         shader_depth_cache;
+  private final KShaderCacheDepthVarianceType                 shader_depth_variance_cache;
+  private final KShaderCacheForwardTranslucentLitType         shader_forward_translucent_lit_cache;
+  private final KShaderCacheForwardTranslucentUnlitType       shader_forward_translucent_unlit_cache;
+  private final KShaderCacheImageType                         shader_image_cache;
 
   /**
    * Construct shader caches.
    *
+   * @param in_gi
+   *          The OpenGL implementation
+   * @param in_log
+   *          A log interface
+   * @param in_loaders
+   *          The loaders used by each cache
    * @param in_shader_debug_cache
    *          A shader cache
    * @param in_shader_deferred_geo_cache
@@ -292,6 +341,9 @@ import com.io7m.r1.shaders.image.RShadersImage;
    */
 
   private KShaderCacheSetClasspath(
+    final JCGLImplementationType in_gi,
+    final LogUsableType in_log,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> in_loaders,
     final KShaderCacheDebugType in_shader_debug_cache,
     final KShaderCacheDeferredGeometryType in_shader_deferred_geo_cache,
     final KShaderCacheDeferredLightType in_shader_deferred_light_cache,
@@ -311,6 +363,9 @@ import com.io7m.r1.shaders.image.RShadersImage;
     this.shader_forward_translucent_unlit_cache =
       in_shader_forward_translucent_unlit_cache;
     this.shader_image_cache = in_shader_image_cache;
+    this.gi = NullCheck.notNull(in_gi, "OpenGL implementation");
+    this.log = NullCheck.notNull(in_log, "Log");
+    this.loaders = NullCheck.notNull(in_loaders, "Loaders");
   }
 
   @Override public KShaderCacheDebugType getShaderDebugCache()
@@ -362,4 +417,17 @@ import com.io7m.r1.shaders.image.RShadersImage;
   {
     return this.shader_image_cache;
   }
+
+  @Override public KShaderWarmUpType shaderWarmUpBegin(
+    final KShaderWarmUpRequest request,
+    final ExecutorService exec)
+  {
+    return KShaderWarmUp.newWarmUp(
+      this.gi,
+      this,
+      this.loaders,
+      request,
+      exec,
+      this.log);
+  }
 }
@@ -16,6 +16,8 @@
 
 package com.io7m.r1.kernel;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * The type of shader caches.
  */
@@ -70,4 +72,29 @@ public interface KShaderCacheSetType
    */
 
   KShaderCacheImageType getShaderImageCache();
+
+  /**
+   * <p>
+   * Begin loading and compiling the programs named in <code>request</code>
+   * ahead of time, so that the first frame that uses them does not stall on
+   * program loading.
+   * </p>
+   * <p>
+   * Program sources are read and their metadata deserialized on
+   * <code>exec</code>. Compilation and linking happen only on the calling
+   * thread, which must own the OpenGL context, via
+   * {@link KShaderWarmUpType#warmUpPoll(int)} and
+   * {@link KShaderWarmUpType#warmUpFinish()}.
+   * </p>
+   *
+   * @param request
+   *          The programs to load
+   * @param exec
+   *          The executor on which program sources will be loaded
+   * @return A warm-up in progress
+   */
+
+  KShaderWarmUpType shaderWarmUpBegin(
+    final KShaderWarmUpRequest request,
+    final ExecutorService exec);
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.io7m.jcache.LUCacheType;
+import com.io7m.jcanephora.JCGLSLVersion;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+
+/**
+ * The default implementation of {@link KShaderWarmUpType}.
+ */
+
+@EqualityReference public final class KShaderWarmUp implements
+  KShaderWarmUpType
+{
+  @EqualityReference private static final class Item
+  {
+    private final KShaderCacheKind kind;
+    private final String           name;
+
+    Item(
+      final KShaderCacheKind in_kind,
+      final String in_name)
+    {
+      this.kind = in_kind;
+      this.name = in_name;
+    }
+  }
+
+  private static
+    LUCacheType<String, KProgramType, KProgramType, RException>
+    cacheForKind(
+      final KShaderCacheSetType caches,
+      final KShaderCacheKind kind)
+  {
+    switch (kind) {
+      case SHADER_CACHE_DEBUG:
+        return caches.getShaderDebugCache();
+      case SHADER_CACHE_DEFERRED_GEOMETRY:
+        return caches.getShaderDeferredGeoCache();
+      case SHADER_CACHE_DEFERRED_LIGHT:
+        return caches.getShaderDeferredLightCache();
+      case SHADER_CACHE_DEPTH:
+        return caches.getShaderDepthCache();
+      case SHADER_CACHE_DEPTH_VARIANCE:
+        return caches.getShaderDepthVarianceCache();
+      case SHADER_CACHE_FORWARD_TRANSLUCENT_LIT:
+        return caches.getShaderForwardTranslucentLitCache();
+      case SHADER_CACHE_FORWARD_TRANSLUCENT_UNLIT:
+        return caches.getShaderForwardTranslucentUnlitCache();
+      case SHADER_CACHE_IMAGE:
+        return caches.getShaderImageCache();
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Begin warming up the given caches. Must be called on the thread that
+   * owns the OpenGL context, as the shading language version is queried
+   * before any background work is submitted.
+   *
+   * @param gi
+   *          The OpenGL implementation
+   * @param caches
+   *          The shader caches that will hold the compiled programs
+   * @param loaders
+   *          The loaders used by each cache. Programs for caches that have no
+   *          loader in this map are loaded and compiled entirely on the
+   *          OpenGL thread.
+   * @param request
+   *          The programs to load
+   * @param exec
+   *          The executor on which program sources will be loaded
+   * @param log
+   *          A log interface
+   * @return A warm-up in progress
+   */
+
+  public static KShaderWarmUpType newWarmUp(
+    final JCGLImplementationType gi,
+    final KShaderCacheSetType caches,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders,
+    final KShaderWarmUpRequest request,
+    final ExecutorService exec,
+    final LogUsableType log)
+  {
+    return new KShaderWarmUp(gi, caches, loaders, request, exec, log);
+  }
+
+  private final KShaderCacheSetType                           caches;
+  private int                                                 completed;
+  private OptionType<RException>                              failure;
+  private final List<Future<?>>                               futures;
+  private final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders;
+  private final LogUsableType                                 log;
+  private final BlockingQueue<Item>                           ready;
+  private int                                                 total;
+
+  private KShaderWarmUp(
+    final JCGLImplementationType gi,
+    final KShaderCacheSetType in_caches,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> in_loaders,
+    final KShaderWarmUpRequest request,
+    final ExecutorService exec,
+    final LogUsableType in_log)
+  {
+    NullCheck.notNull(gi, "OpenGL implementation");
+    NullCheck.notNull(in_loaders, "Loaders");
+    NullCheck.notNull(request, "Request");
+    NullCheck.notNull(exec, "Executor");
+
+    this.caches = NullCheck.notNull(in_caches, "Caches");
+    this.loaders =
+      new EnumMap<KShaderCacheKind, KShaderCacheLoaderType>(
+        KShaderCacheKind.class);
+    this.loaders.putAll(in_loaders);
+    this.log = NullCheck.notNull(in_log, "Log").with("shader-warm-up");
+    this.ready = new LinkedBlockingQueue<Item>();
+    this.futures = new ArrayList<Future<?>>();
+    this.total = request.requestGetSize();
+    this.completed = 0;
+    this.failure = Option.none();
+
+    final JCGLSLVersion version = gi.getGLCommon().metaGetSLVersion();
+    final BlockingQueue<Item> q = this.ready;
+    final LogUsableType q_log = this.log;
+
+    for (final KShaderCacheKind kind : KShaderCacheKind.values()) {
+      final KShaderCacheLoaderType loader = this.loaders.get(kind);
+      for (final String name : request.requestGetNames(kind)) {
+        final Item item = new Item(kind, name);
+
+        if (loader == null) {
+          q.add(item);
+          continue;
+        }
+
+        this.futures.add(exec.submit(new Runnable() {
+          @Override public void run()
+          {
+            try {
+              loader.loaderPreloadSources(version, name);
+            } catch (final RException e) {
+              /**
+               * The error is raised again when the program is loaded on the
+               * OpenGL thread.
+               */
+
+              if (q_log.wouldLog(LogLevel.LOG_ERROR)) {
+                q_log.error(String.format(
+                  "preload of %s failed: %s",
+                  name,
+                  e.getMessage()));
+              }
+            } finally {
+              q.add(item);
+            }
+          }
+        }));
+      }
+    }
+
+    if (this.log.wouldLog(LogLevel.LOG_DEBUG)) {
+      this.log.debug(String.format("warming up %d programs", this.total));
+    }
+  }
+
+  /**
+   * Compile the given program. The program counts as completed even if it
+   * fails to compile, so that {@link #warmUpFinish()} does not wait for it
+   * forever. The first failure is recorded so that it can be raised again by
+   * {@link #warmUpFinish()}.
+   */
+
+  private void compile(
+    final Item item)
+    throws RException
+  {
+    try {
+      KShaderWarmUp.cacheForKind(this.caches, item.kind).cacheGetLU(
+        item.name);
+    } catch (final RException e) {
+      if (this.log.wouldLog(LogLevel.LOG_ERROR)) {
+        this.log.error(String.format(
+          "compilation of %s failed: %s",
+          item.name,
+          e.getMessage()));
+      }
+      if (this.failure.isNone()) {
+        this.failure = Option.some(e);
+      }
+      throw e;
+    } finally {
+
+      /**
+       * If the program was already cached, the preloaded sources were not
+       * consumed by the loader and must be dropped explicitly.
+       */
+
+      final KShaderCacheLoaderType loader = this.loaders.get(item.kind);
+      if (loader != null) {
+        loader.loaderDiscardPreloaded(item.name);
+      }
+      ++this.completed;
+    }
+  }
+
+  @Override public void warmUpCancel()
+  {
+    for (final Future<?> f : this.futures) {
+      if (f.cancel(false)) {
+        --this.total;
+      }
+    }
+    this.futures.clear();
+  }
+
+  @Override public void warmUpFinish()
+    throws RException
+  {
+    try {
+      while (this.completed < this.total) {
+        final Item item = this.ready.take();
+        assert item != null;
+        try {
+          this.compile(item);
+        } catch (final RException e) {
+          /**
+           * Recorded by compile, and raised after the remaining programs
+           * have been compiled.
+           */
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (this.failure.isSome()) {
+      throw ((Some<RException>) this.failure).get();
+    }
+  }
+
+  @Override public int warmUpGetCompleted()
+  {
+    return this.completed;
+  }
+
+  @Override public int warmUpGetReady()
+  {
+    return this.ready.size();
+  }
+
+  @Override public int warmUpGetTotal()
+  {
+    return this.total;
+  }
+
+  @Override public boolean warmUpIsFinished()
+  {
+    return this.completed == this.total;
+  }
+
+  @Override public int warmUpPoll(
+    final int maximum)
+    throws RException
+  {
+    int count = 0;
+    while (count < maximum) {
+      final Item item = this.ready.poll();
+      if (item == null) {
+        break;
+      }
+      this.compile(item);
+      ++count;
+    }
+    return count;
+  }
+}
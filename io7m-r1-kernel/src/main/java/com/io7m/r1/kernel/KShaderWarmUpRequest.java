@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.r1.kernel.types.KInstancesByCode;
+import com.io7m.r1.kernel.types.KLightType;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroup;
+import com.io7m.r1.kernel.types.KVisibleSetOpaques;
+
+/**
+ * A mutable set of programs that should be loaded and compiled ahead of
+ * time, organized by the shader cache that will serve them.
+ */
+
+@EqualityReference public final class KShaderWarmUpRequest
+{
+  /**
+   * @return A new empty request
+   */
+
+  public static KShaderWarmUpRequest newRequest()
+  {
+    return new KShaderWarmUpRequest();
+  }
+
+  private final Map<KShaderCacheKind, Set<String>> names;
+  private int                                      size;
+
+  private KShaderWarmUpRequest()
+  {
+    this.names =
+      new EnumMap<KShaderCacheKind, Set<String>>(KShaderCacheKind.class);
+    for (final KShaderCacheKind k : KShaderCacheKind.values()) {
+      this.names.put(k, new LinkedHashSet<String>());
+    }
+    this.size = 0;
+  }
+
+  /**
+   * Add the program <code>name</code> to the set of programs that will be
+   * loaded into the cache of kind <code>kind</code>. Adding the same program
+   * more than once has no effect.
+   *
+   * @param kind
+   *          The cache kind
+   * @param name
+   *          The program name
+   */
+
+  public void requestAdd(
+    final KShaderCacheKind kind,
+    final String name)
+  {
+    NullCheck.notNull(kind, "Kind");
+    NullCheck.notNull(name, "Name");
+
+    final Set<String> s = this.names.get(kind);
+    assert s != null;
+    if (s.add(name)) {
+      ++this.size;
+    }
+  }
+
+  /**
+   * Add all of the deferred geometry and deferred light programs that will
+   * be required to render the opaque instances of the given visible set.
+   *
+   * @param visible
+   *          The visible set
+   */
+
+  public void requestAddVisibleSet(
+    final KVisibleSet visible)
+  {
+    NullCheck.notNull(visible, "Visible set");
+
+    final KVisibleSetOpaques opaques = visible.getOpaques();
+    for (final String group_name : opaques.getGroupNames()) {
+      final KVisibleSetLightGroup group = opaques.getGroup(group_name);
+      this.requestAddGeometry(group.getInstancesByCode());
+      for (final KLightType l : group.getLights()) {
+        this.requestAdd(
+          KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT,
+          l.lightGetCode());
+      }
+    }
+    this.requestAddGeometry(opaques.getUnlitInstances());
+
+    /**
+     * Programs used by the deferred renderer regardless of the contents of
+     * the scene.
+     */
+
+    this.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, "flat_clip");
+    this.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, "copy_rgba");
+  }
+
+  private void requestAddGeometry(
+    final KInstancesByCode by_code)
+  {
+    final int count = by_code.getGroupCount();
+    for (int index = 0; index < count; ++index) {
+      this.requestAdd(
+        KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY,
+        by_code.getGroupCode(index));
+    }
+  }
+
+  /**
+   * @param kind
+   *          The cache kind
+   * @return The programs requested for the cache of kind <code>kind</code>
+   */
+
+  public Set<String> requestGetNames(
+    final KShaderCacheKind kind)
+  {
+    final Set<String> r =
+      Collections.unmodifiableSet(this.names.get(NullCheck.notNull(
+        kind,
+        "Kind")));
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * @return The total number of programs requested
+   */
+
+  public int requestGetSize()
+  {
+    return this.size;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.r1.exceptions.RException;
+
+/**
+ * <p>
+ * The type of shader warm-up operations in progress.
+ * </p>
+ * <p>
+ * Program sources are loaded and their metadata deserialized on a background
+ * executor. Programs whose sources have been loaded are compiled and linked
+ * on the thread that owns the OpenGL context, when that thread calls
+ * {@link #warmUpPoll(int)} or {@link #warmUpFinish()}.
+ * </p>
+ */
+
+public interface KShaderWarmUpType
+{
+  /**
+   * Cancel any background loading that has not yet started, and remove the
+   * affected programs from the total. Programs that have already been
+   * compiled remain in their caches.
+   */
+
+  void warmUpCancel();
+
+  /**
+   * Compile all remaining programs, blocking until the background loading of
+   * each program has completed. Must be called on the thread that owns the
+   * OpenGL context. Programs that fail to load or compile count as completed,
+   * and the first such failure of the warm-up (including any raised earlier
+   * by {@link #warmUpPoll(int)}) is raised once every program has been
+   * attempted.
+   *
+   * @throws RException
+   *           If a program cannot be loaded or compiled
+   */
+
+  void warmUpFinish()
+    throws RException;
+
+  /**
+   * @return The number of programs that have been compiled so far
+   */
+
+  int warmUpGetCompleted();
+
+  /**
+   * @return The number of programs that have been loaded, but not yet
+   *         compiled
+   */
+
+  int warmUpGetReady();
+
+  /**
+   * @return The total number of programs in the warm-up
+   */
+
+  int warmUpGetTotal();
+
+  /**
+   * @return <code>true</code> iff every program has been compiled
+   */
+
+  boolean warmUpIsFinished();
+
+  /**
+   * Compile at most <code>maximum</code> programs whose sources have already
+   * been loaded, without blocking on background loading. Must be called on
+   * the thread that owns the OpenGL context. Typically called once per frame
+   * in order to spread the cost of compilation.
+   *
+   * @param maximum
+   *          The maximum number of programs to compile
+   * @return The number of programs compiled by this call
+   *
+   * @throws RException
+   *           If a program cannot be loaded or compiled
+   */
+
+  int warmUpPoll(
+    final int maximum)
+    throws RException;
+}
@@ -97,6 +97,13 @@ import com.io7m.r1.spaces.RSpaceWorldType;
 {
   private static final String ATTRIBUTE_NAME_VERTEX_UV             = "v_uv";
 
+  /**
+   * The maximum number of spherical lights evaluated by a single quad of the
+   * tiled light shader.
+   */
+
+  static final int LIGHT_SPHERICAL_TILED_COUNT = 4;
+
   private static final String MATRIX_NAME_DEFERRED_PROJECTION      =
                                                                      "m_deferred_projective";
   private static final String MATRIX_NAME_LIGHT_SPHERICAL          =
@@ -281,6 +288,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       unit);
   }
 
+  static void putDeferredMapAlbedoReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program
+      .programUniformUseExisting(KShadingProgramCommon.TEXTURE_NAME_DEFERRED_ALBEDO);
+  }
+
   static void putDeferredMapDepth(
     final JCBProgramType program,
     final TextureUnitType unit)
@@ -291,6 +306,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       unit);
   }
 
+  static void putDeferredMapDepthReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program
+      .programUniformUseExisting(KShadingProgramCommon.TEXTURE_NAME_DEFERRED_DEPTH);
+  }
+
   static void putDeferredMapNormal(
     final JCBProgramType program,
     final TextureUnitType unit)
@@ -301,6 +324,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       unit);
   }
 
+  static void putDeferredMapNormalReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program
+      .programUniformUseExisting(KShadingProgramCommon.TEXTURE_NAME_DEFERRED_NORMAL);
+  }
+
   static void putDeferredMapSpecular(
     final JCBProgramType program,
     final TextureUnitType unit)
@@ -311,6 +342,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       unit);
   }
 
+  static void putDeferredMapSpecularReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program
+      .programUniformUseExisting(KShadingProgramCommon.TEXTURE_NAME_DEFERRED_SPECULAR);
+  }
+
   static void putDepthCoefficient(
     final JCBProgramType program,
     final float c)
@@ -324,6 +363,13 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     p.programUniformUseExisting("depth_coefficient");
   }
 
+  static void putDepthCoefficientReuse(
+    final JCBProgramType p,
+    final KProgramUniforms u)
+  {
+    u.uniformsReuse(p, KProgramUniformSlot.SLOT_DEPTH_COEFFICIENT);
+  }
+
   static void putLightDirectional(
     final JCBProgramType e,
     final PMatrixM4x4F.Context context,
@@ -791,6 +837,27 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       units.withTexture2D(albedo.getAlbedoTexture()));
   }
 
+  static void putMaterialAlbedoTypeWithTextures(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final KTextureBindingsContextType units,
+    final KMaterialAlbedoPropertiesType albedo)
+    throws RException
+  {
+    u.uniformsPutFloat(
+      program,
+      KProgramUniformSlot.SLOT_MATERIAL_ALBEDO_MIX,
+      albedo.getAlbedoMix());
+    u.uniformsPutVector4f(
+      program,
+      KProgramUniformSlot.SLOT_MATERIAL_ALBEDO_COLOR,
+      albedo.getAlbedoColor());
+    u.uniformsPutTextureUnit(
+      program,
+      KProgramUniformSlot.SLOT_TEXTURE_ALBEDO,
+      units.withTexture2D(albedo.getAlbedoTexture()));
+  }
+
   static void putMaterialAlphaDepthThreshold(
     final JCBProgramType program,
     final float threshold)
@@ -856,6 +923,31 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     });
   }
 
+  static void putMaterialDepthType(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final KMaterialDepthType material)
+    throws RException
+  {
+    material.depthAccept(new KMaterialDepthVisitorType<Unit, RException>() {
+      @Override public Unit alpha(
+        final KMaterialDepthAlpha m)
+      {
+        u.uniformsPutFloat(
+          program,
+          KProgramUniformSlot.SLOT_MATERIAL_ALPHA_DEPTH,
+          m.getAlphaThreshold());
+        return Unit.unit();
+      }
+
+      @Override public Unit constant(
+        final KMaterialDepthConstant m)
+      {
+        return Unit.unit();
+      }
+    });
+  }
+
   static void putMaterialEmissiveLevel(
     final JCBProgramType program,
     final float emission)
@@ -887,6 +979,23 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       units.withTexture2D(material.getEmissionTexture()));
   }
 
+  static void putMaterialEmissiveTypeWithTextures(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final KTextureBindingsContextType units,
+    final KMaterialEmissivePropertiesType material)
+    throws RException
+  {
+    u.uniformsPutFloat(
+      program,
+      KProgramUniformSlot.SLOT_MATERIAL_EMISSION_AMOUNT,
+      material.getEmission());
+    u.uniformsPutTextureUnit(
+      program,
+      KProgramUniformSlot.SLOT_TEXTURE_EMISSION,
+      units.withTexture2D(material.getEmissionTexture()));
+  }
+
   static void putMaterialEnvironmentMix(
     final JCBProgramType program,
     final float mix)
@@ -982,6 +1091,53 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       });
   }
 
+  static void putMaterialEnvironmentTypeWithTextures(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final KTextureBindingsContextType units,
+    final KMaterialEnvironmentType environment)
+    throws RException
+  {
+    environment
+      .environmentAccept(new KMaterialEnvironmentVisitorType<Unit, RException>() {
+        @Override public Unit none(
+          final KMaterialEnvironmentNone m)
+        {
+          return Unit.unit();
+        }
+
+        @Override public Unit reflection(
+          final KMaterialEnvironmentReflection m)
+          throws RException
+        {
+          u.uniformsPutFloat(
+            program,
+            KProgramUniformSlot.SLOT_MATERIAL_ENVIRONMENT_MIX,
+            m.getMix());
+          u.uniformsPutTextureUnit(
+            program,
+            KProgramUniformSlot.SLOT_TEXTURE_ENVIRONMENT,
+            units.withTextureCube(m.getTexture()));
+          return Unit.unit();
+        }
+
+        @Override public Unit reflectionMapped(
+          final KMaterialEnvironmentReflectionMapped m)
+          throws RException
+        {
+          u.uniformsPutFloat(
+            program,
+            KProgramUniformSlot.SLOT_MATERIAL_ENVIRONMENT_MIX,
+            m.getMix());
+          u.uniformsPutTextureUnit(
+            program,
+            KProgramUniformSlot.SLOT_TEXTURE_ENVIRONMENT,
+            units.withTextureCube(m.getTexture()));
+          return Unit.unit();
+        }
+      });
+  }
+
   static void putMaterialRefractiveColor(
     final JCBProgramType program,
     final VectorReadable4FType color)
@@ -1081,6 +1237,27 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       units.withTexture2D(material.getSpecularTexture()));
   }
 
+  static void putMaterialSpecularTypeWithTextures(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final KTextureBindingsContextType units,
+    final KMaterialSpecularPropertiesType material)
+    throws RException
+  {
+    u.uniformsPutVector3f(
+      program,
+      KProgramUniformSlot.SLOT_MATERIAL_SPECULAR_COLOR,
+      material.getSpecularColor());
+    u.uniformsPutFloat(
+      program,
+      KProgramUniformSlot.SLOT_MATERIAL_SPECULAR_EXPONENT,
+      material.getSpecularExponent());
+    u.uniformsPutTextureUnit(
+      program,
+      KProgramUniformSlot.SLOT_TEXTURE_SPECULAR,
+      units.withTexture2D(material.getSpecularTexture()));
+  }
+
   static
     void
     putMatrixDeferredProjection(
@@ -1110,6 +1287,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       m);
   }
 
+  static void putMatrixInverseProjectionReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program
+      .programUniformUseExisting(KShadingProgramCommon.MATRIX_NAME_PROJECTION_INVERSE);
+  }
+
   static void putMatrixInverseView(
     final JCBProgramType program,
     final PMatrixDirectReadable4x4FType<RSpaceEyeType, RSpaceWorldType> m)
@@ -1120,6 +1305,26 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       m);
   }
 
+  static void putMatrixInverseViewReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program
+      .programUniformUseExisting(KShadingProgramCommon.MATRIX_NAME_VIEW_INVERSE);
+  }
+
+  static void putMatrixInverseView(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final PMatrixDirectReadable4x4FType<RSpaceEyeType, RSpaceWorldType> m)
+    throws JCGLException
+  {
+    u.uniformsPutMatrix4x4f(
+      program,
+      KProgramUniformSlot.SLOT_MATRIX_VIEW_INVERSE,
+      m);
+  }
+
   static
     void
     putMatrixLightProjection(
@@ -1161,6 +1366,18 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       m);
   }
 
+  static void putMatrixModelViewUnchecked(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final PMatrixDirectReadable4x4FType<RSpaceObjectType, RSpaceEyeType> m)
+    throws JCGLException
+  {
+    u.uniformsPutMatrix4x4f(
+      program,
+      KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+      m);
+  }
+
   static
     void
     putMatrixNormal(
@@ -1173,6 +1390,20 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       mn);
   }
 
+  static
+    void
+    putMatrixNormal(
+      final JCBProgramType program,
+      final KProgramUniforms u,
+      final PMatrixDirectReadable3x3FType<RSpaceObjectType, RSpaceNormalEyeType> mn)
+      throws JCGLException
+  {
+    u.uniformsPutMatrix3x3f(
+      program,
+      KProgramUniformSlot.SLOT_MATRIX_NORMAL,
+      mn);
+  }
+
   static void putMatrixProjectionReuse(
     final JCBProgramType p)
     throws JCGLException
@@ -1180,6 +1411,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     p.programUniformUseExisting(KShadingProgramCommon.MATRIX_NAME_PROJECTION);
   }
 
+  static void putMatrixProjectionReuse(
+    final JCBProgramType p,
+    final KProgramUniforms u)
+    throws JCGLException
+  {
+    u.uniformsReuse(p, KProgramUniformSlot.SLOT_MATRIX_PROJECTION);
+  }
+
   static void putMatrixProjectionUnchecked(
     final JCBProgramType p,
     final PMatrixDirectReadable4x4FType<RSpaceEyeType, RSpaceClipType> m)
@@ -1242,6 +1481,24 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       m);
   }
 
+  static
+    void
+    putMatrixUVUnchecked(
+      final JCBProgramType program,
+      final KProgramUniforms u,
+      final PMatrixDirectReadable3x3FType<RSpaceTextureType, RSpaceTextureType> m)
+      throws JCGLException
+  {
+    u.uniformsPutMatrix3x3f(program, KProgramUniformSlot.SLOT_MATRIX_UV, m);
+  }
+
+  static void putMatrixUVReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program.programUniformUseExisting(KShadingProgramCommon.MATRIX_NAME_UV);
+  }
+
   static void putRefractionTextureDelta(
     final JCBProgramType program,
     final TextureUnitType t)
@@ -1325,12 +1582,44 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     program.programUniformUseExisting("shadow_basic.factor_min");
   }
 
+  static void putShadowBasicMapClamp(
+    final JCBProgramType program,
+    final VectorReadable4FType clamp)
+    throws JCGLException
+  {
+    program.programUniformPutVector4f("shadow_basic.map_clamp", clamp);
+  }
+
+  static void putShadowBasicMapClampReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program.programUniformUseExisting("shadow_basic.map_clamp");
+  }
+
+  static void putShadowBasicMapRegion(
+    final JCBProgramType program,
+    final VectorReadable4FType region)
+    throws JCGLException
+  {
+    program.programUniformPutVector4f("shadow_basic.map_region", region);
+  }
+
+  static void putShadowBasicMapRegionReuse(
+    final JCBProgramType program)
+    throws JCGLException
+  {
+    program.programUniformUseExisting("shadow_basic.map_region");
+  }
+
   static void putShadowBasicReuse(
     final JCBProgramType program)
     throws JCGLException
   {
     KShadingProgramCommon.putShadowBasicDepthBiasReuse(program);
     KShadingProgramCommon.putShadowBasicFactorMinimumReuse(program);
+    KShadingProgramCommon.putShadowBasicMapClampReuse(program);
+    KShadingProgramCommon.putShadowBasicMapRegionReuse(program);
   }
 
   static void putShadowBasicSSSoft(
@@ -1371,6 +1660,22 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     program.programUniformPutFloat("shadow_basic_sssoft.factor_min", min);
   }
 
+  static void putShadowBasicSSSoftMapClamp(
+    final JCBProgramType program,
+    final VectorReadable4FType clamp)
+    throws JCGLException
+  {
+    program.programUniformPutVector4f("shadow_basic_sssoft.map_clamp", clamp);
+  }
+
+  static void putShadowBasicSSSoftMapRegion(
+    final JCBProgramType program,
+    final VectorReadable4FType region)
+    throws JCGLException
+  {
+    program.programUniformPutVector4f("shadow_basic_sssoft.map_region", region);
+  }
+
   static void putShadowVariance(
     final JCBProgramType program,
     final KShadowMappedVariance s)
@@ -1514,6 +1819,18 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       unit);
   }
 
+  static void putTextureNormal(
+    final JCBProgramType program,
+    final KProgramUniforms u,
+    final TextureUnitType unit)
+    throws JCGLException
+  {
+    u.uniformsPutTextureUnit(
+      program,
+      KProgramUniformSlot.SLOT_TEXTURE_NORMAL,
+      unit);
+  }
+
   static void putTextureProjection(
     final JCBProgramType program,
     final TextureUnitType unit)
@@ -1605,6 +1922,13 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     program.programUniformPutFloat("viewport.inverse_height", inverse_height);
   }
 
+  static void putViewportReuse(
+    final JCBProgramType program)
+  {
+    program.programUniformUseExisting("viewport.inverse_width");
+    program.programUniformUseExisting("viewport.inverse_height");
+  }
+
   static void putViewRays(
     final JCBProgramType program,
     final KViewRays view_rays)
@@ -1635,6 +1959,19 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       view_rays.getRayX1Y1());
   }
 
+  static void putViewRaysReuse(
+    final JCBProgramType program)
+  {
+    program.programUniformUseExisting("view_rays.origin_x0y0");
+    program.programUniformUseExisting("view_rays.origin_x1y0");
+    program.programUniformUseExisting("view_rays.origin_x0y1");
+    program.programUniformUseExisting("view_rays.origin_x1y1");
+    program.programUniformUseExisting("view_rays.ray_x0y0");
+    program.programUniformUseExisting("view_rays.ray_x1y0");
+    program.programUniformUseExisting("view_rays.ray_x0y1");
+    program.programUniformUseExisting("view_rays.ray_x1y1");
+  }
+
   private KShadingProgramCommon()
   {
     throw new UnreachableCodeException();
@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.types.KFramebufferDepthDescription;
+import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
+
+/**
+ * The default implementation of shadow atlases.
+ */
+
+@EqualityReference public final class KShadowAtlas implements
+  KShadowAtlasType
+{
+  /**
+   * A single atlas framebuffer and the allocator that manages it.
+   */
+
+  @EqualityReference private static final class Page
+  {
+    private final KShadowAtlasAllocator allocator;
+    private final KFramebufferDepthType framebuffer;
+
+    Page(
+      final KFramebufferDepthType in_framebuffer,
+      final KShadowAtlasAllocator in_allocator)
+    {
+      this.framebuffer = NullCheck.notNull(in_framebuffer, "Framebuffer");
+      this.allocator = NullCheck.notNull(in_allocator, "Allocator");
+    }
+
+    KShadowAtlasAllocator getAllocator()
+    {
+      return this.allocator;
+    }
+
+    KFramebufferDepthType getFramebuffer()
+    {
+      return this.framebuffer;
+    }
+  }
+
+  /**
+   * <p>
+   * Construct a new shadow atlas consisting of <code>page_count</code>
+   * framebuffers, each described by <code>page_description</code>. The
+   * atlas will not allocate maps smaller than
+   * <code>2 ^ exponent_minimum</code>; requests for smaller maps are
+   * rounded up.
+   * </p>
+   * <p>
+   * All framebuffers are allocated on construction, and the atlas never
+   * allocates further framebuffers.
+   * </p>
+   *
+   * @param g
+   *          The OpenGL implementation
+   * @param page_description
+   *          The description of each page
+   * @param page_count
+   *          The number of pages
+   * @param exponent_minimum
+   *          The size exponent of the smallest map that will be allocated
+   * @param log
+   *          A log interface
+   * @return A new atlas
+   * @throws RException
+   *           If an error occurs
+   */
+
+  public static KShadowAtlasType newAtlas(
+    final JCGLImplementationType g,
+    final KShadowMapDescriptionBasic page_description,
+    final int page_count,
+    final int exponent_minimum,
+    final LogUsableType log)
+    throws RException
+  {
+    return new KShadowAtlas(
+      g,
+      page_description,
+      page_count,
+      exponent_minimum,
+      log);
+  }
+
+  private int                              allocated;
+  private final LogUsableType              log;
+  private final KShadowMapDescriptionBasic page_description;
+  private final List<Page>                 pages;
+
+  private KShadowAtlas(
+    final JCGLImplementationType g,
+    final KShadowMapDescriptionBasic in_page_description,
+    final int in_page_count,
+    final int in_exponent_minimum,
+    final LogUsableType in_log)
+    throws RException
+  {
+    NullCheck.notNull(g, "OpenGL implementation");
+    this.page_description =
+      NullCheck.notNull(in_page_description, "Page description");
+    this.log = NullCheck.notNull(in_log, "Log").with("shadow-atlas");
+
+    RangeCheck.checkGreater(
+      in_page_count,
+      "Page count",
+      0,
+      "Minimum page count");
+
+    final int exponent = in_page_description.getSizeExponent();
+    final KFramebufferDepthDescription fb_desc =
+      in_page_description.getFramebufferDescription();
+
+    this.pages = new ArrayList<Page>(in_page_count);
+    for (int index = 0; index < in_page_count; ++index) {
+      final KShadowAtlasAllocator a =
+        KShadowAtlasAllocator.newAllocator(exponent, in_exponent_minimum);
+      final KFramebufferDepthType fb =
+        KFramebufferDepth.newDepthFramebuffer(g, fb_desc);
+      this.pages.add(new Page(fb, a));
+    }
+
+    if (this.log.wouldLog(LogLevel.LOG_DEBUG)) {
+      final String s =
+        String.format(
+          "allocated %d pages of size %d",
+          in_page_count,
+          1 << exponent);
+      assert s != null;
+      this.log.debug(s);
+    }
+  }
+
+  @Override public OptionType<KShadowMapBasic> atlasAllocate(
+    final KShadowMapDescriptionBasic description)
+  {
+    NullCheck.notNull(description, "Description");
+
+    if (this.isCompatible(description) == false) {
+      return Option.none();
+    }
+
+    final int page_count = this.pages.size();
+    for (int index = 0; index < page_count; ++index) {
+      final Page page = this.pages.get(index);
+      final KShadowAtlasAllocator a = page.getAllocator();
+      final int e =
+        Math.max(a.getExponentMinimum(), description.getSizeExponent());
+
+      final OptionType<KShadowAtlasRegion> r = a.allocate(e);
+      if (r.isSome()) {
+        final Some<KShadowAtlasRegion> some = (Some<KShadowAtlasRegion>) r;
+        ++this.allocated;
+        return Option.some(KShadowMapBasic.newMapInAtlas(
+          description,
+          page.getFramebuffer(),
+          some.get()));
+      }
+    }
+
+    return Option.none();
+  }
+
+  @Override public void atlasDelete(
+    final JCGLImplementationType g)
+    throws RException
+  {
+    NullCheck.notNull(g, "OpenGL implementation");
+
+    final int page_count = this.pages.size();
+    for (int index = 0; index < page_count; ++index) {
+      final Page page = this.pages.get(index);
+      page.getFramebuffer().delete(g);
+      page.getAllocator().clear();
+    }
+    this.allocated = 0;
+  }
+
+  @Override public void atlasFree(
+    final KShadowMapBasic map)
+  {
+    NullCheck.notNull(map, "Map");
+
+    final KFramebufferDepthType fb = map.getFramebuffer();
+    final int page_count = this.pages.size();
+    for (int index = 0; index < page_count; ++index) {
+      final Page page = this.pages.get(index);
+      if (page.getFramebuffer() == fb) {
+        if (page.getAllocator().free(map.getRegion())) {
+          --this.allocated;
+        }
+        return;
+      }
+    }
+  }
+
+  @Override public int atlasGetMapsAllocated()
+  {
+    return this.allocated;
+  }
+
+  @Override public int atlasGetPageCount()
+  {
+    return this.pages.size();
+  }
+
+  @Override public KShadowMapDescriptionBasic atlasGetPageDescription()
+  {
+    return this.page_description;
+  }
+
+  @Override public void atlasReset()
+  {
+    final int page_count = this.pages.size();
+    for (int index = 0; index < page_count; ++index) {
+      this.pages.get(index).getAllocator().clear();
+    }
+    this.allocated = 0;
+  }
+
+  /**
+   * @return <code>true</code> iff maps with the given description can be
+   *         stored in the pages of the atlas
+   */
+
+  private boolean isCompatible(
+    final KShadowMapDescriptionBasic description)
+  {
+    final KFramebufferDepthDescription d =
+      description.getFramebufferDescription();
+    final KFramebufferDepthDescription p =
+      this.page_description.getFramebufferDescription();
+
+    return (description.getSizeExponent() <= this.page_description
+      .getSizeExponent())
+      && (d.getDepthPrecision() == p.getDepthPrecision())
+      && (d.getFilterMagnification() == p.getFilterMagnification())
+      && (d.getFilterMinification() == p.getFilterMinification());
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveL;
+
+/**
+ * <p>
+ * A quadtree allocator that divides a square, power-of-two sized atlas into
+ * square, power-of-two sized regions.
+ * </p>
+ * <p>
+ * The allocator is implemented as a buddy allocator over an implicit
+ * quadtree: allocating a region of size <code>2 ^ e</code> splits free
+ * nodes until a node of exactly that size is reached, and freeing a region
+ * merges the node back into its parent once all four siblings are free. The
+ * tree is stored in flat arrays that are allocated once, on construction,
+ * so neither allocating nor freeing regions allocates tree nodes.
+ * </p>
+ */
+
+@EqualityReference public final class KShadowAtlasAllocator
+{
+  /**
+   * The range of valid atlas and region size exponents.
+   */
+
+  public static final RangeInclusiveL EXPONENT_RANGE;
+
+  /**
+   * The maximum number of times that the atlas may be subdivided.
+   */
+
+  public static final int             MAXIMUM_DEPTH;
+
+  private static final byte           NODE_FREE;
+  private static final byte           NODE_SPLIT;
+  private static final byte           NODE_USED;
+
+  static {
+    EXPONENT_RANGE = new RangeInclusiveL(0, 15);
+    MAXIMUM_DEPTH = 8;
+    NODE_FREE = 0;
+    NODE_SPLIT = 1;
+    NODE_USED = 2;
+  }
+
+  /**
+   * Construct a new allocator for an atlas of size <code>2 ^ exponent</code>
+   * , which will not allocate regions smaller than
+   * <code>2 ^ exponent_minimum</code>.
+   *
+   * @param exponent
+   *          The size exponent of the atlas
+   * @param exponent_minimum
+   *          The size exponent of the smallest region that will be allocated
+   * @return A new allocator
+   */
+
+  public static KShadowAtlasAllocator newAllocator(
+    final int exponent,
+    final int exponent_minimum)
+  {
+    return new KShadowAtlasAllocator(exponent, exponent_minimum);
+  }
+
+  private int          allocated;
+  private final int    exponent;
+  private final int    exponent_minimum;
+  private final int[]  sizes;
+  private final byte[] states;
+
+  private KShadowAtlasAllocator(
+    final int in_exponent,
+    final int in_exponent_minimum)
+  {
+    this.exponent =
+      (int) RangeCheck.checkIncludedIn(
+        in_exponent,
+        "Exponent",
+        KShadowAtlasAllocator.EXPONENT_RANGE,
+        "Valid exponents");
+    this.exponent_minimum =
+      (int) RangeCheck.checkIncludedIn(
+        in_exponent_minimum,
+        "Minimum exponent",
+        new RangeInclusiveL(
+          Math.max(0, in_exponent - KShadowAtlasAllocator.MAXIMUM_DEPTH),
+          in_exponent),
+        "Valid minimum exponents");
+
+    /**
+     * A complete quadtree of depth d has (4 ^ (d + 1) - 1) / 3 nodes.
+     */
+
+    final int depth = in_exponent - in_exponent_minimum;
+    final int nodes = ((1 << (2 * (depth + 1))) - 1) / 3;
+    this.states = new byte[nodes];
+    this.sizes = new int[nodes];
+    this.clear();
+  }
+
+  /**
+   * Allocate a region of size <code>2 ^ e</code>.
+   *
+   * @param e
+   *          The size exponent of the region
+   * @return A new region, or nothing if no region of the given size is
+   *         available
+   */
+
+  public OptionType<KShadowAtlasRegion> allocate(
+    final int e)
+  {
+    RangeCheck.checkIncludedIn(
+      e,
+      "Exponent",
+      new RangeInclusiveL(this.exponent_minimum, this.exponent),
+      "Valid exponents");
+
+    if (this.sizes[0] < e) {
+      return Option.none();
+    }
+
+    int node = 0;
+    int node_exponent = this.exponent;
+    int x = 0;
+    int y = 0;
+
+    while (node_exponent > e) {
+      final int child_exponent = node_exponent - 1;
+      final int first = (node * 4) + 1;
+
+      if (this.states[node] == KShadowAtlasAllocator.NODE_FREE) {
+        this.states[node] = KShadowAtlasAllocator.NODE_SPLIT;
+        for (int index = 0; index < 4; ++index) {
+          this.states[first + index] = KShadowAtlasAllocator.NODE_FREE;
+          this.sizes[first + index] = child_exponent;
+        }
+      }
+
+      /**
+       * Pick the child with the smallest free region that is still large
+       * enough, to keep large regions available for large maps.
+       */
+
+      int best = -1;
+      for (int index = 0; index < 4; ++index) {
+        final int size = this.sizes[first + index];
+        if (size >= e) {
+          if ((best == -1) || (size < this.sizes[first + best])) {
+            best = index;
+          }
+        }
+      }
+      assert best != -1;
+
+      final int child_size = 1 << child_exponent;
+      x += (best & 1) * child_size;
+      y += (best >> 1) * child_size;
+      node = first + best;
+      node_exponent = child_exponent;
+    }
+
+    assert this.states[node] == KShadowAtlasAllocator.NODE_FREE;
+    this.states[node] = KShadowAtlasAllocator.NODE_USED;
+    this.sizes[node] = -1;
+    this.update(node, node_exponent);
+    ++this.allocated;
+
+    return Option.some(KShadowAtlasRegion.newRegion(x, y, e, this.exponent));
+  }
+
+  /**
+   * Free all allocated regions.
+   */
+
+  public void clear()
+  {
+    this.states[0] = KShadowAtlasAllocator.NODE_FREE;
+    this.sizes[0] = this.exponent;
+    this.allocated = 0;
+  }
+
+  /**
+   * Free the given region.
+   *
+   * @param r
+   *          A region previously returned by {@link #allocate(int)}
+   * @return <code>true</code> iff the region was allocated and has now been
+   *         freed
+   */
+
+  public boolean free(
+    final KShadowAtlasRegion r)
+  {
+    NullCheck.notNull(r, "Region");
+
+    if (r.getAtlasExponent() != this.exponent) {
+      return false;
+    }
+    if (r.getExponent() < this.exponent_minimum) {
+      return false;
+    }
+
+    int node = 0;
+    int node_exponent = this.exponent;
+    int x = 0;
+    int y = 0;
+
+    while (node_exponent > r.getExponent()) {
+      if (this.states[node] != KShadowAtlasAllocator.NODE_SPLIT) {
+        return false;
+      }
+
+      final int child_exponent = node_exponent - 1;
+      final int child_size = 1 << child_exponent;
+      final int cx = (r.getX() >= (x + child_size)) ? 1 : 0;
+      final int cy = (r.getY() >= (y + child_size)) ? 1 : 0;
+      x += cx * child_size;
+      y += cy * child_size;
+      node = (node * 4) + 1 + cx + (cy * 2);
+      node_exponent = child_exponent;
+    }
+
+    if (this.states[node] != KShadowAtlasAllocator.NODE_USED) {
+      return false;
+    }
+
+    this.states[node] = KShadowAtlasAllocator.NODE_FREE;
+    this.sizes[node] = node_exponent;
+    this.update(node, node_exponent);
+    --this.allocated;
+    return true;
+  }
+
+  /**
+   * @return The number of currently allocated regions
+   */
+
+  public int getAllocatedCount()
+  {
+    return this.allocated;
+  }
+
+  /**
+   * @return The size exponent of the atlas
+   */
+
+  public int getExponent()
+  {
+    return this.exponent;
+  }
+
+  /**
+   * @return The size exponent of the smallest region that will be allocated
+   */
+
+  public int getExponentMinimum()
+  {
+    return this.exponent_minimum;
+  }
+
+  /**
+   * @return The size exponent of the largest region that could currently be
+   *         allocated, or <code>-1</code> if the atlas is full
+   */
+
+  public int getLargestFreeExponent()
+  {
+    return this.sizes[0];
+  }
+
+  /**
+   * Recalculate the free sizes of the ancestors of <code>node</code>,
+   * merging nodes whose children are all free.
+   */
+
+  private void update(
+    final int node,
+    final int node_exponent)
+  {
+    int current = node;
+    int current_exponent = node_exponent;
+
+    while (current > 0) {
+      final int parent = (current - 1) / 4;
+      final int first = (parent * 4) + 1;
+      final int parent_exponent = current_exponent + 1;
+
+      boolean all_free = true;
+      int largest = -1;
+      for (int index = 0; index < 4; ++index) {
+        final int child = first + index;
+        all_free =
+          all_free && (this.states[child] == KShadowAtlasAllocator.NODE_FREE);
+        largest = Math.max(largest, this.sizes[child]);
+      }
+
+      if (all_free) {
+        this.states[parent] = KShadowAtlasAllocator.NODE_FREE;
+        this.sizes[parent] = parent_exponent;
+      } else {
+        this.sizes[parent] = largest;
+      }
+
+      current = parent;
+      current_exponent = parent_exponent;
+    }
+  }
+}
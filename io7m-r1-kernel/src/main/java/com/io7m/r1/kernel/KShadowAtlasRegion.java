@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcanephora.AreaInclusive;
+import com.io7m.jequality.annotations.EqualityStructural;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveL;
+import com.io7m.jtensors.VectorI4F;
+
+/**
+ * <p>
+ * A square, power-of-two sized region of a shadow atlas.
+ * </p>
+ * <p>
+ * Regions are expressed both in texels (for rendering) and in normalized
+ * texture coordinates (for sampling).
+ * </p>
+ * <p>
+ * Shadow maps are sampled with linear filtering, so a lookup at the edge of
+ * a region blends texels from the neighbouring region. Lookups are
+ * therefore clamped to the rectangle given by {@link #getUVClamp()}, which
+ * is inset from the edges of the region by half a texel.
+ * </p>
+ */
+
+@EqualityStructural public final class KShadowAtlasRegion
+{
+  /**
+   * Construct a region that covers the entirety of an atlas of size
+   * <code>2 ^ exponent</code>.
+   *
+   * @param exponent
+   *          The size exponent of the atlas
+   * @return A new region
+   */
+
+  public static KShadowAtlasRegion newFullRegion(
+    final int exponent)
+  {
+    return new KShadowAtlasRegion(0, 0, exponent, exponent);
+  }
+
+  /**
+   * Construct a new region.
+   *
+   * @param x
+   *          The X coordinate of the lower left corner of the region
+   * @param y
+   *          The Y coordinate of the lower left corner of the region
+   * @param exponent
+   *          The size exponent of the region
+   * @param atlas_exponent
+   *          The size exponent of the atlas
+   * @return A new region
+   */
+
+  public static KShadowAtlasRegion newRegion(
+    final int x,
+    final int y,
+    final int exponent,
+    final int atlas_exponent)
+  {
+    return new KShadowAtlasRegion(x, y, exponent, atlas_exponent);
+  }
+
+  private final AreaInclusive area;
+  private final int           atlas_exponent;
+  private final int           exponent;
+  private final VectorI4F     uv;
+  private final VectorI4F     uv_clamp;
+  private final int           x;
+  private final int           y;
+
+  private KShadowAtlasRegion(
+    final int in_x,
+    final int in_y,
+    final int in_exponent,
+    final int in_atlas_exponent)
+  {
+    this.atlas_exponent =
+      (int) RangeCheck.checkIncludedIn(
+        in_atlas_exponent,
+        "Atlas exponent",
+        KShadowAtlasAllocator.EXPONENT_RANGE,
+        "Valid exponents");
+    this.exponent =
+      (int) RangeCheck.checkIncludedIn(
+        in_exponent,
+        "Exponent",
+        new RangeInclusiveL(0, in_atlas_exponent),
+        "Valid exponents");
+
+    final int atlas_size = 1 << in_atlas_exponent;
+    final int size = 1 << in_exponent;
+    final RangeInclusiveL valid =
+      new RangeInclusiveL(0, (long) atlas_size - size);
+
+    this.x = (int) RangeCheck.checkIncludedIn(in_x, "X", valid, "Valid X");
+    this.y = (int) RangeCheck.checkIncludedIn(in_y, "Y", valid, "Valid Y");
+
+    this.area =
+      new AreaInclusive(
+        new RangeInclusiveL(in_x, ((long) in_x + size) - 1),
+        new RangeInclusiveL(in_y, ((long) in_y + size) - 1));
+
+    final float scale = (float) size / (float) atlas_size;
+    this.uv =
+      new VectorI4F(
+        (float) in_x / (float) atlas_size,
+        (float) in_y / (float) atlas_size,
+        scale,
+        scale);
+
+    final float half = 0.5f;
+    this.uv_clamp =
+      new VectorI4F(
+        (in_x + half) / atlas_size,
+        (in_y + half) / atlas_size,
+        ((in_x + size) - half) / atlas_size,
+        ((in_y + size) - half) / atlas_size);
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final KShadowAtlasRegion other = (KShadowAtlasRegion) obj;
+    return (this.atlas_exponent == other.atlas_exponent)
+      && (this.exponent == other.exponent)
+      && (this.x == other.x)
+      && (this.y == other.y);
+  }
+
+  /**
+   * @return The area of the atlas covered by the region, in texels
+   */
+
+  public AreaInclusive getArea()
+  {
+    return this.area;
+  }
+
+  /**
+   * @return The size exponent of the atlas
+   */
+
+  public int getAtlasExponent()
+  {
+    return this.atlas_exponent;
+  }
+
+  /**
+   * @return The size exponent of the region
+   */
+
+  public int getExponent()
+  {
+    return this.exponent;
+  }
+
+  /**
+   * @return The rectangle, in normalized texture coordinates, to which
+   *         lookups into the region are clamped, as a minimum
+   *         <code>(x, y)</code> and a maximum <code>(z, w)</code>. The
+   *         rectangle lies half a texel inside the edges of the region.
+   */
+
+  public VectorI4F getUVClamp()
+  {
+    return this.uv_clamp;
+  }
+
+  /**
+   * @return The region in normalized texture coordinates, as an offset
+   *         <code>(x, y)</code> and a scale <code>(z, w)</code>
+   */
+
+  public VectorI4F getUVRegion()
+  {
+    return this.uv;
+  }
+
+  /**
+   * @return The X coordinate of the lower left corner of the region
+   */
+
+  public int getX()
+  {
+    return this.x;
+  }
+
+  /**
+   * @return The Y coordinate of the lower left corner of the region
+   */
+
+  public int getY()
+  {
+    return this.y;
+  }
+
+  @Override public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = (prime * result) + this.atlas_exponent;
+    result = (prime * result) + this.exponent;
+    result = (prime * result) + this.x;
+    result = (prime * result) + this.y;
+    return result;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder();
+    b.append("[KShadowAtlasRegion x=");
+    b.append(this.x);
+    b.append(" y=");
+    b.append(this.y);
+    b.append(" exponent=");
+    b.append(this.exponent);
+    b.append(" atlas_exponent=");
+    b.append(this.atlas_exponent);
+    b.append("]");
+    final String r = b.toString();
+    assert r != null;
+    return r;
+  }
+}
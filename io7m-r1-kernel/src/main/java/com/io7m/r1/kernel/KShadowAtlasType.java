@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
+
+/**
+ * <p>
+ * The type of shadow atlases.
+ * </p>
+ * <p>
+ * A shadow atlas is a fixed pool of large depth framebuffers (pages) into
+ * which many basic shadow maps are packed. Each map occupies a square,
+ * power-of-two sized region of a page, so that shadow maps for many lights
+ * can be rendered into and sampled from a small number of textures.
+ * </p>
+ */
+
+public interface KShadowAtlasType
+{
+  /**
+   * Allocate a map for the given description from the atlas.
+   *
+   * @param description
+   *          The map description
+   * @return A map, or nothing if the description is not compatible with the
+   *         atlas or the atlas has no free space of the required size
+   */
+
+  OptionType<KShadowMapBasic> atlasAllocate(
+    final KShadowMapDescriptionBasic description);
+
+  /**
+   * Delete all pages of the atlas.
+   *
+   * @param g
+   *          The OpenGL implementation
+   * @throws RException
+   *           If an error occurs
+   */
+
+  void atlasDelete(
+    final JCGLImplementationType g)
+    throws RException;
+
+  /**
+   * Return the given map to the atlas, freeing the region it occupies.
+   *
+   * @param map
+   *          A map previously returned by
+   *          {@link #atlasAllocate(KShadowMapDescriptionBasic)}
+   */
+
+  void atlasFree(
+    final KShadowMapBasic map);
+
+  /**
+   * @return The number of maps currently allocated from the atlas
+   */
+
+  int atlasGetMapsAllocated();
+
+  /**
+   * @return The number of pages in the atlas
+   */
+
+  int atlasGetPageCount();
+
+  /**
+   * @return The description of each page in the atlas
+   */
+
+  KShadowMapDescriptionBasic atlasGetPageDescription();
+
+  /**
+   * Free all maps allocated from the atlas.
+   */
+
+  void atlasReset();
+}
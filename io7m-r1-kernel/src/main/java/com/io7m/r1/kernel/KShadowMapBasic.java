@@ -23,7 +23,16 @@ import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
 
 /**
+ * <p>
  * The type of directional basic shadow maps.
+ * </p>
+ * <p>
+ * A map either owns its framebuffer, in which case the map occupies the
+ * entire framebuffer, or occupies a region of a framebuffer owned by a
+ * shadow atlas.
+ * </p>
+ *
+ * @see KShadowAtlasType
  */
 
 @EqualityReference public final class KShadowMapBasic implements
@@ -53,18 +62,50 @@ import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
       KFramebufferDepth.newDepthFramebuffer(
         g,
         description.getFramebufferDescription());
-    return new KShadowMapBasic(description, f);
+    return new KShadowMapBasic(
+      description,
+      f,
+      KShadowAtlasRegion.newFullRegion(description.getSizeExponent()),
+      true);
+  }
+
+  /**
+   * Construct a new shadow map that occupies the region <code>region</code>
+   * of the atlas framebuffer <code>framebuffer</code>. The map does not own
+   * the framebuffer, and deleting the map does not delete the framebuffer.
+   *
+   * @param description
+   *          A map description
+   * @param framebuffer
+   *          The atlas framebuffer
+   * @param region
+   *          The region of the framebuffer
+   * @return A new map
+   */
+
+  static KShadowMapBasic newMapInAtlas(
+    final KShadowMapDescriptionBasic description,
+    final KFramebufferDepthType framebuffer,
+    final KShadowAtlasRegion region)
+  {
+    return new KShadowMapBasic(description, framebuffer, region, false);
   }
 
   private final KShadowMapDescriptionBasic description;
   private final KFramebufferDepthType      framebuffer;
+  private final boolean                    owned;
+  private final KShadowAtlasRegion         region;
 
   private KShadowMapBasic(
     final KShadowMapDescriptionBasic in_description,
-    final KFramebufferDepthType in_framebuffer)
+    final KFramebufferDepthType in_framebuffer,
+    final KShadowAtlasRegion in_region,
+    final boolean in_owned)
   {
     this.description = NullCheck.notNull(in_description, "Description");
     this.framebuffer = NullCheck.notNull(in_framebuffer, "Framebuffer");
+    this.region = NullCheck.notNull(in_region, "Region");
+    this.owned = in_owned;
   }
 
   /**
@@ -85,6 +126,25 @@ import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
     return this.framebuffer;
   }
 
+  /**
+   * @return The region of the framebuffer occupied by the map
+   */
+
+  public KShadowAtlasRegion getRegion()
+  {
+    return this.region;
+  }
+
+  /**
+   * @return <code>true</code> iff the map occupies a region of a
+   *         framebuffer owned by a shadow atlas
+   */
+
+  public boolean isInAtlas()
+  {
+    return this.owned == false;
+  }
+
   @Override public boolean resourceIsDeleted()
   {
     return this.framebuffer.resourceIsDeleted();
@@ -94,7 +154,9 @@ import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
     final JCGLImplementationType g)
     throws RException
   {
-    this.framebuffer.delete(g);
+    if (this.owned) {
+      this.framebuffer.delete(g);
+    }
   }
 
   @Override public <T, E extends Throwable> T shadowMapAccept(
@@ -107,6 +169,18 @@ import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
 
   @Override public long shadowMapGetSizeBytes()
   {
-    return this.framebuffer.getSizeInBytes();
+    final long size = this.framebuffer.getSizeInBytes();
+    if (this.owned) {
+      return size;
+    }
+
+    /**
+     * A region of exponent e in an atlas of exponent a occupies
+     * 1 / 4 ^ (a - e) of the atlas.
+     */
+
+    final int shift =
+      2 * (this.region.getAtlasExponent() - this.region.getExponent());
+    return size >> shift;
   }
 }
@@ -16,30 +16,43 @@
 
 package com.io7m.r1.kernel;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.io7m.jcache.BLUCacheReceiptType;
 import com.io7m.jcache.JCacheException;
+import com.io7m.jcanephora.AreaInclusive;
 import com.io7m.jcanephora.JCGLException;
 import com.io7m.jcanephora.api.JCGLImplementationType;
 import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
 import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jlog.LogLevel;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveL;
 import com.io7m.jtensors.parameterized.PMatrixDirectReadable4x4FType;
 import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.exceptions.RExceptionCache;
 import com.io7m.r1.kernel.types.KBlurParameters;
 import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KDepthInstancesType;
 import com.io7m.r1.kernel.types.KFaceSelection;
 import com.io7m.r1.kernel.types.KFramebufferDepthVarianceDescription;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KLightProjectiveType;
 import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasic;
 import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicDiffuseOnly;
 import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicSSSoft;
@@ -52,12 +65,19 @@ import com.io7m.r1.kernel.types.KLightProjectiveWithShadowVarianceType;
 import com.io7m.r1.kernel.types.KLightWithShadowType;
 import com.io7m.r1.kernel.types.KLightWithShadowVisitorType;
 import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
+import com.io7m.r1.kernel.types.KShadowMapDescriptionBasicBuilderType;
 import com.io7m.r1.kernel.types.KShadowMapDescriptionBasicSSSoft;
+import com.io7m.r1.kernel.types.KShadowMapDescriptionBasicSSSoftBuilderType;
 import com.io7m.r1.kernel.types.KShadowMapDescriptionType;
 import com.io7m.r1.kernel.types.KShadowMapDescriptionVariance;
+import com.io7m.r1.kernel.types.KShadowMapDescriptionVarianceBuilderType;
 import com.io7m.r1.kernel.types.KShadowMappedBasic;
 import com.io7m.r1.kernel.types.KShadowMappedBasicSSSoft;
 import com.io7m.r1.kernel.types.KShadowMappedVariance;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KTransformNode;
+import com.io7m.r1.kernel.types.KTransformOST;
+import com.io7m.r1.kernel.types.KTransformVisitorType;
 import com.io7m.r1.kernel.types.KVisibleSetShadows;
 import com.io7m.r1.spaces.RSpaceEyeType;
 import com.io7m.r1.spaces.RSpaceLightEyeType;
@@ -70,10 +90,218 @@ import com.io7m.r1.spaces.RSpaceWorldType;
 @SuppressWarnings("synthetic-access") @EqualityReference public final class KShadowMapRenderer implements
   KShadowMapRendererType
 {
-  private static final String NAME;
+  /**
+   * A reusable visitor that extracts a light and the size exponent given in
+   * its shadow map description.
+   */
+
+  @EqualityReference private static final class PolicyRequest implements
+    KLightWithShadowVisitorType<Unit, UnreachableCodeException>
+  {
+    private int                            exponent;
+    private @Nullable KLightProjectiveType light;
+
+    PolicyRequest()
+    {
+      // Nothing
+    }
+
+    int getExponent()
+    {
+      return this.exponent;
+    }
+
+    KLightProjectiveType getLight()
+    {
+      final KLightProjectiveType l = this.light;
+      assert l != null;
+      return l;
+    }
+
+    @Override public Unit projectiveWithShadowBasic(
+      final KLightProjectiveWithShadowBasic lp)
+    {
+      this.light = lp;
+      this.exponent =
+        lp.lightGetShadowBasic().getMapDescription().getSizeExponent();
+      return Unit.unit();
+    }
+
+    @Override public Unit projectiveWithShadowBasicDiffuseOnly(
+      final KLightProjectiveWithShadowBasicDiffuseOnly lp)
+    {
+      this.light = lp;
+      this.exponent =
+        lp.lightGetShadowBasic().getMapDescription().getSizeExponent();
+      return Unit.unit();
+    }
+
+    @Override public Unit projectiveWithShadowBasicSSSoft(
+      final KLightProjectiveWithShadowBasicSSSoft lp)
+    {
+      this.light = lp;
+      this.exponent =
+        lp.lightGetShadowBasicSSSoft().getMapDescription().getSizeExponent();
+      return Unit.unit();
+    }
+
+    @Override public Unit projectiveWithShadowBasicSSSoftDiffuseOnly(
+      final KLightProjectiveWithShadowBasicSSSoftDiffuseOnly lp)
+    {
+      this.light = lp;
+      this.exponent =
+        lp.lightGetShadowBasicSSSoft().getMapDescription().getSizeExponent();
+      return Unit.unit();
+    }
+
+    @Override public Unit projectiveWithShadowVariance(
+      final KLightProjectiveWithShadowVariance lp)
+    {
+      this.light = lp;
+      this.exponent =
+        lp.lightGetShadowVariance().getMapDescription().getSizeExponent();
+      return Unit.unit();
+    }
+
+    @Override public Unit projectiveWithShadowVarianceDiffuseOnly(
+      final KLightProjectiveWithShadowVarianceDiffuseOnly lp)
+    {
+      this.light = lp;
+      this.exponent =
+        lp.lightGetShadowVariance().getMapDescription().getSizeExponent();
+      return Unit.unit();
+    }
+  }
+
+  /**
+   * A shadow map retained across frames, along with the set of casters that
+   * were rendered into it, and the versions of any casters whose transforms
+   * are mutable {@link KTransformNode} values.
+   */
+
+  @EqualityReference private static final class Retained
+  {
+    private final Set<KInstanceOpaqueType>                                             casters;
+    private final int                                                                  exponent;
+    private KDepthInstancesType                                                        instances;
+    private final long[]                                                               node_versions;
+    private final KTransformNode[]                                                     nodes;
+    private final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> receipt;
+
+    Retained(
+      final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> in_receipt,
+      final KDepthInstancesType in_instances,
+      final int in_exponent)
+    {
+      this.receipt = NullCheck.notNull(in_receipt, "Receipt");
+      this.instances = NullCheck.notNull(in_instances, "Instances");
+      this.exponent = in_exponent;
+      this.casters = new HashSet<KInstanceOpaqueType>();
+
+      final int groups = in_instances.getGroupCount();
+      for (int index = 0; index < groups; ++index) {
+        this.casters.addAll(in_instances.getGroupInstances(index));
+      }
+
+      final List<KTransformNode> node_list = new ArrayList<KTransformNode>();
+      for (final KInstanceOpaqueType i : this.casters) {
+        final OptionType<KTransformNode> node =
+          i.instanceGetTransform().transformAccept(KShadowMapRenderer.NODE);
+        if (node.isSome()) {
+          node_list.add(((Some<KTransformNode>) node).get());
+        }
+      }
+
+      this.nodes = new KTransformNode[node_list.size()];
+      this.node_versions = new long[this.nodes.length];
+      for (int index = 0; index < this.nodes.length; ++index) {
+        final KTransformNode n = node_list.get(index);
+        this.nodes[index] = n;
+        this.node_versions[index] = n.nodeGetVersion();
+      }
+    }
+
+    /**
+     * @return The size exponent chosen by the resolution policy when the map
+     *         was rendered, or <code>-1</code> if there was no policy
+     */
+
+    int getExponent()
+    {
+      return this.exponent;
+    }
+
+    BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> getReceipt()
+    {
+      return this.receipt;
+    }
+
+    /**
+     * @return <code>true</code> iff the given casters are exactly the casters
+     *         that were rendered into the retained map, and none of the
+     *         transform nodes of those casters have changed since.
+     */
+
+    boolean isCurrent(
+      final KDepthInstancesType in_instances)
+    {
+      for (int index = 0; index < this.nodes.length; ++index) {
+        if (this.nodes[index].nodeGetVersion() != this.node_versions[index]) {
+          return false;
+        }
+      }
+
+      if (this.instances == in_instances) {
+        return true;
+      }
+
+      int count = 0;
+      final int groups = in_instances.getGroupCount();
+      for (int index = 0; index < groups; ++index) {
+        final List<KInstanceOpaqueType> batch =
+          in_instances.getGroupInstances(index);
+        final int size = batch.size();
+        for (int b = 0; b < size; ++b) {
+          if (this.casters.contains(batch.get(b)) == false) {
+            return false;
+          }
+        }
+        count += size;
+      }
+
+      if (count == this.casters.size()) {
+        this.instances = in_instances;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private static final String                                                                      NAME;
+  private static final KTransformVisitorType<OptionType<KTransformNode>, UnreachableCodeException> NODE;
 
   static {
     NAME = "shadow-map";
+    NODE =
+      new KTransformVisitorType<OptionType<KTransformNode>, UnreachableCodeException>() {
+        @Override public OptionType<KTransformNode> transformMatrix4x4(
+          final KTransformMatrix4x4 t)
+        {
+          return Option.none();
+        }
+
+        @Override public OptionType<KTransformNode> transformNode(
+          final KTransformNode t)
+        {
+          return Option.some(t);
+        }
+
+        @Override public OptionType<KTransformNode> transformOST(
+          final KTransformOST t)
+        {
+          return Option.none();
+        }
+      };
   }
 
   /**
@@ -108,7 +336,139 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       in_depth_variance_renderer,
       in_blur,
       in_shadow_cache,
-      in_log);
+      Option.<KShadowAtlasType> none(),
+      in_log,
+      false);
+  }
+
+  /**
+   * <p>
+   * Construct a new shadow map renderer that retains shadow maps across
+   * frames.
+   * </p>
+   * <p>
+   * Each light keeps the shadow map borrowed from <code>in_shadow_cache</code>
+   * between calls to
+   * {@link #rendererEvaluateShadowMaps(KCamera, KVisibleSetShadows, KShadowMapWithType)}
+   * , and the map is only rendered again if the set of shadow casters for
+   * the light has changed. Lights are immutable, so any change to the
+   * transform, projection, or shadow map description of a light results in
+   * a new light and therefore a new shadow map. Instances are immutable,
+   * except that a caster whose transform is a {@link KTransformNode} can be
+   * moved in place: the version of each such node is recorded when the map
+   * is rendered, and the map is rendered again if any of those versions has
+   * changed. Retained maps for lights that are not present in a given visible
+   * set are returned to the cache.
+   * </p>
+   * <p>
+   * As retained maps are not returned to the cache between frames, the cache
+   * must be large enough to hold a map for every shadow-casting light that
+   * is visible at any one time.
+   * </p>
+   *
+   * @param gl
+   *          An OpenGL implementation
+   * @param in_depth_renderer
+   *          A depth renderer
+   * @param in_depth_variance_renderer
+   *          A depth variance renderer
+   * @param in_blur
+   *          A blur postprocessor
+   * @param in_shadow_cache
+   *          A shadow map cache
+   * @param in_log
+   *          A log interface
+   * @return A new shadow map renderer
+   * @see KShadowMapRendererType#rendererInvalidateShadowMap(KLightWithShadowType)
+   */
+
+  public static KShadowMapRendererType newRendererWithPersistentMaps(
+    final JCGLImplementationType gl,
+    final KDepthRendererType in_depth_renderer,
+    final KDepthVarianceRendererType in_depth_variance_renderer,
+    final KImageFilterDepthVarianceType<KBlurParameters> in_blur,
+    final KShadowMapCacheType in_shadow_cache,
+    final LogUsableType in_log)
+  {
+    return new KShadowMapRenderer(
+      gl,
+      in_depth_renderer,
+      in_depth_variance_renderer,
+      in_blur,
+      in_shadow_cache,
+      Option.<KShadowAtlasType> none(),
+      in_log,
+      true);
+  }
+
+  /**
+   * <p>
+   * Construct a new shadow map renderer that packs basic shadow maps into
+   * the given shadow atlas.
+   * </p>
+   * <p>
+   * Basic shadow maps are allocated from <code>in_atlas</code> and rendered
+   * into their regions of the atlas pages, so that the maps for many lights
+   * share a small, fixed set of framebuffers. If the atlas has no space for
+   * a map, or the map description is not compatible with the atlas, the map
+   * is taken from <code>in_shadow_cache</code> instead. Variance and
+   * screen-space soft shadow maps are always taken from
+   * <code>in_shadow_cache</code>, as they are filtered as entire textures.
+   * </p>
+   *
+   * @param gl
+   *          An OpenGL implementation
+   * @param in_depth_renderer
+   *          A depth renderer
+   * @param in_depth_variance_renderer
+   *          A depth variance renderer
+   * @param in_blur
+   *          A blur postprocessor
+   * @param in_shadow_cache
+   *          A shadow map cache
+   * @param in_atlas
+   *          A shadow atlas
+   * @param in_log
+   *          A log interface
+   * @return A new shadow map renderer
+   */
+
+  public static KShadowMapRendererType newRendererWithAtlas(
+    final JCGLImplementationType gl,
+    final KDepthRendererType in_depth_renderer,
+    final KDepthVarianceRendererType in_depth_variance_renderer,
+    final KImageFilterDepthVarianceType<KBlurParameters> in_blur,
+    final KShadowMapCacheType in_shadow_cache,
+    final KShadowAtlasType in_atlas,
+    final LogUsableType in_log)
+  {
+    return new KShadowMapRenderer(
+      gl,
+      in_depth_renderer,
+      in_depth_variance_renderer,
+      in_blur,
+      in_shadow_cache,
+      Option.some(NullCheck.notNull(in_atlas, "Atlas")),
+      in_log,
+      false);
+  }
+
+  /**
+   * Return all maps allocated from the atlas during the current frame.
+   */
+
+  private static void atlasFreeMaps(
+    final OptionType<KShadowAtlasType> atlas,
+    final Map<KLightWithShadowType, KShadowMapBasic> atlas_maps)
+  {
+    if (atlas.isSome()) {
+      final KShadowAtlasType a = ((Some<KShadowAtlasType>) atlas).get();
+      for (final KShadowMapBasic map : atlas_maps.values()) {
+        assert map != null;
+        a.atlasFree(map);
+      }
+    }
+    atlas_maps.clear();
   }
 
   private static
@@ -116,23 +476,30 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     projectiveWithShadowBasic(
       final KVisibleSetShadows shadows,
       final Map<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>> receipts,
+      final OptionType<KShadowAtlasType> atlas,
+      final Map<KLightWithShadowType, KShadowMapBasic> atlas_maps,
       final KMatricesObserverType observer,
       final KShadowMapCacheType sc,
       final JCGLInterfaceCommonType gc,
       final KDepthRendererType dr,
       final KLightWithShadowType light,
-      final KLightProjectiveWithShadowBasicType lp)
+      final KLightProjectiveWithShadowBasicType lp,
+      final int exponent)
       throws RException
   {
     final KShadowMappedBasic shadow = lp.lightGetShadowBasic();
-    final KShadowMapDescriptionBasic desc = shadow.getMapDescription();
-    final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> r =
-      sc.bluCacheGet(desc);
-
-    assert receipts.containsKey(light) == false;
-    receipts.put(light, r);
-
-    final KShadowMapBasic sm = (KShadowMapBasic) r.getValue();
+    final KShadowMapDescriptionBasic desc =
+      KShadowMapRenderer.descriptionBasicWithExponent(
+        shadow.getMapDescription(),
+        exponent);
+    final KShadowMapBasic sm =
+      KShadowMapRenderer.projectiveWithShadowBasicGetMap(
+        receipts,
+        atlas,
+        atlas_maps,
+        sc,
+        light,
+        desc);
 
     return observer.withProjectiveLight(
       lp,
@@ -154,6 +521,102 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       });
   }
 
+  /**
+   * @return <code>d</code> with the size exponent <code>exponent</code>, or
+   *         <code>d</code> itself if <code>exponent</code> is negative or
+   *         already equal to the size exponent of <code>d</code>
+   */
+
+  private static KShadowMapDescriptionBasic descriptionBasicWithExponent(
+    final KShadowMapDescriptionBasic d,
+    final int exponent)
+  {
+    if ((exponent < 0) || (exponent == d.getSizeExponent())) {
+      return d;
+    }
+    final KShadowMapDescriptionBasicBuilderType b =
+      KShadowMapDescriptionBasic.newBuilderFrom(d);
+    b.setSizeExponent(exponent);
+    return b.build();
+  }
+
+  /**
+   * @return <code>d</code> with the size exponent <code>exponent</code>, or
+   *         <code>d</code> itself if <code>exponent</code> is negative or
+   *         already equal to the size exponent of <code>d</code>
+   */
+
+  private static
+    KShadowMapDescriptionBasicSSSoft
+    descriptionBasicSSSoftWithExponent(
+      final KShadowMapDescriptionBasicSSSoft d,
+      final int exponent)
+  {
+    if ((exponent < 0) || (exponent == d.getSizeExponent())) {
+      return d;
+    }
+    final KShadowMapDescriptionBasicSSSoftBuilderType b =
+      KShadowMapDescriptionBasicSSSoft.newBuilderFrom(d);
+    b.setSizeExponent(exponent);
+    return b.build();
+  }
+
+  /**
+   * @return <code>d</code> with the size exponent <code>exponent</code>, or
+   *         <code>d</code> itself if <code>exponent</code> is negative or
+   *         already equal to the size exponent of <code>d</code>
+   */
+
+  private static
+    KShadowMapDescriptionVariance
+    descriptionVarianceWithExponent(
+      final KShadowMapDescriptionVariance d,
+      final int exponent)
+  {
+    if ((exponent < 0) || (exponent == d.getSizeExponent())) {
+      return d;
+    }
+    final KShadowMapDescriptionVarianceBuilderType b =
+      KShadowMapDescriptionVariance.newBuilderFrom(d);
+    b.setSizeExponent(exponent);
+    return b.build();
+  }
+
+  /**
+   * Take a map for the given light from the atlas, if there is one and it
+   * has space, and from the cache otherwise.
+   */
+
+  private static
+    KShadowMapBasic
+    projectiveWithShadowBasicGetMap(
+      final Map<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>> receipts,
+      final OptionType<KShadowAtlasType> atlas,
+      final Map<KLightWithShadowType, KShadowMapBasic> atlas_maps,
+      final KShadowMapCacheType sc,
+      final KLightWithShadowType light,
+      final KShadowMapDescriptionBasic desc)
+      throws RException
+  {
+    assert receipts.containsKey(light) == false;
+    assert atlas_maps.containsKey(light) == false;
+
+    if (atlas.isSome()) {
+      final KShadowAtlasType a = ((Some<KShadowAtlasType>) atlas).get();
+      final OptionType<KShadowMapBasic> m = a.atlasAllocate(desc);
+      if (m.isSome()) {
+        final KShadowMapBasic sm = ((Some<KShadowMapBasic>) m).get();
+        atlas_maps.put(light, sm);
+        return sm;
+      }
+    }
+
+    final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> r =
+      sc.bluCacheGet(desc);
+    receipts.put(light, r);
+    return (KShadowMapBasic) r.getValue();
+  }
+
   private static
     Unit
     projectiveWithShadowBasicSSSoft(
@@ -164,11 +627,15 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       final JCGLInterfaceCommonType gc,
       final KDepthRendererType dr,
       final KLightWithShadowType light,
-      final KLightProjectiveWithShadowBasicSSSoftType lp)
+      final KLightProjectiveWithShadowBasicSSSoftType lp,
+      final int exponent)
       throws RException
   {
     final KShadowMappedBasicSSSoft shadow = lp.lightGetShadowBasicSSSoft();
-    final KShadowMapDescriptionBasicSSSoft desc = shadow.getMapDescription();
+    final KShadowMapDescriptionBasicSSSoft desc =
+      KShadowMapRenderer.descriptionBasicSSSoftWithExponent(
+        shadow.getMapDescription(),
+        exponent);
     final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> r =
       sc.bluCacheGet(desc);
 
@@ -207,11 +674,15 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       final KDepthVarianceRendererType dvr,
       final KImageFilterDepthVarianceType<KBlurParameters> pb,
       final KLightWithShadowType light,
-      final KLightProjectiveWithShadowVarianceType lp)
+      final KLightProjectiveWithShadowVarianceType lp,
+      final int exponent)
       throws RException
   {
     final KShadowMappedVariance shadow = lp.lightGetShadowVariance();
-    final KShadowMapDescriptionVariance desc = shadow.getMapDescription();
+    final KShadowMapDescriptionVariance desc =
+      KShadowMapRenderer.descriptionVarianceWithExponent(
+        shadow.getMapDescription(),
+        exponent);
     final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> r =
       sc.bluCacheGet(desc);
 
@@ -252,13 +723,22 @@ import com.io7m.r1.spaces.RSpaceWorldType;
       RException
   {
     final KFramebufferDepthType fb = sm.getFramebuffer();
+    final AreaInclusive area = sm.getRegion().getArea();
 
     gc.framebufferDrawBind(fb.getDepthPassFramebuffer());
     try {
+
+      /**
+       * The framebuffer may be an atlas page shared with other maps, so
+       * only the region occupied by this map is cleared.
+       */
+
+      gc.scissorEnable(area);
       gc.colorBufferMask(true, true, true, true);
       gc.colorBufferClear4f(1.0f, 1.0f, 1.0f, 1.0f);
       gc.depthBufferWriteEnable();
       gc.depthBufferClear(1.0f);
+      gc.scissorDisable();
 
       /**
        * This spectacular casting is necessary to allow a (World -> LightEye)
@@ -283,7 +763,7 @@ import com.io7m.r1.spaces.RSpaceWorldType;
         view,
         mwp.getProjectiveProjection(),
         shadows.getInstancesForLight(lp),
-        fb.getArea(),
+        area,
         Option.some(KFaceSelection.FACE_RENDER_BACK));
 
     } finally {
@@ -418,24 +898,45 @@ import com.io7m.r1.spaces.RSpaceWorldType;
   private static
     void
     returnReceipts(
-      final Map<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>> receipts)
+      final Map<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>> receipts,
+      final Map<KLightWithShadowType, Retained> retained)
   {
     for (final KLightWithShadowType light : receipts.keySet()) {
       assert light != null;
 
       final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> r =
         receipts.get(light);
+
+      /**
+       * Maps that are retained for the next frame stay borrowed.
+       */
+
+      final Retained rm = retained.get(light);
+      if ((rm != null) && (rm.getReceipt() == r)) {
+        continue;
+      }
       r.returnToCache();
     }
   }
 
+  private final OptionType<KShadowAtlasType>                   atlas;
   private final KImageFilterDepthVarianceType<KBlurParameters> blur;
   private final KDepthRendererType                             depth_renderer;
   private final KDepthVarianceRendererType                     depth_variance_renderer;
   private final JCGLImplementationType                         g;
   private final LogUsableType                                  log;
   private final KMutableMatrices                               matrices;
+  private final boolean                                        persistent;
+  private OptionType<KShadowResolutionPolicyType>              policy;
+  private int[]                                                policy_chosen;
+  private final Map<KLightWithShadowType, Integer>             policy_exponents;
+  private final List<KLightProjectiveType>                     policy_lights;
+  private final PolicyRequest                                  policy_request;
+  private int[]                                                policy_requested;
+  private final Map<KLightWithShadowType, Retained>            retained;
   private final KShadowMapCacheType                            shadow_cache;
+  private long                                                 shadow_maps_rendered;
+  private long                                                 shadow_maps_reused;
 
   private KShadowMapRenderer(
     final JCGLImplementationType gl,
@@ -443,11 +944,14 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     final KDepthVarianceRendererType in_depth_variance_renderer,
     final KImageFilterDepthVarianceType<KBlurParameters> in_blur,
     final KShadowMapCacheType in_shadow_cache,
-    final LogUsableType in_log)
+    final OptionType<KShadowAtlasType> in_atlas,
+    final LogUsableType in_log,
+    final boolean in_persistent)
   {
     this.log = NullCheck.notNull(in_log, "Log").with("shadow-map-renderer");
     this.g = NullCheck.notNull(gl, "OpenGL implementation");
     this.shadow_cache = NullCheck.notNull(in_shadow_cache, "Shadow cache");
+    this.atlas = NullCheck.notNull(in_atlas, "Atlas");
 
     this.depth_renderer =
       NullCheck.notNull(in_depth_renderer, "Depth renderer");
@@ -457,6 +961,15 @@ import com.io7m.r1.spaces.RSpaceWorldType;
 
     this.blur = NullCheck.notNull(in_blur, "Blur postprocessor");
     this.matrices = KMutableMatrices.newMatrices();
+    this.persistent = in_persistent;
+    this.retained = new HashMap<KLightWithShadowType, Retained>();
+
+    this.policy = Option.none();
+    this.policy_chosen = new int[8];
+    this.policy_exponents = new HashMap<KLightWithShadowType, Integer>();
+    this.policy_lights = new ArrayList<KLightProjectiveType>();
+    this.policy_request = new PolicyRequest();
+    this.policy_requested = new int[8];
 
     if (this.log.wouldLog(LogLevel.LOG_DEBUG)) {
       this.log.debug("initialized");
@@ -476,6 +989,12 @@ import com.io7m.r1.spaces.RSpaceWorldType;
 
     final Map<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>> receipts =
       new HashMap<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>>();
+    final Map<KLightWithShadowType, KShadowMapBasic> atlas_maps =
+      new HashMap<KLightWithShadowType, KShadowMapBasic>();
+
+    this.shadow_maps_rendered = 0;
+    this.shadow_maps_reused = 0;
+    this.policyEvaluate(camera, shadows.getLights());
 
     try {
       this.matrices.withObserver(
@@ -491,6 +1010,7 @@ import com.io7m.r1.spaces.RSpaceWorldType;
               KShadowMapRenderer.this.shadowMapsRenderAll(
                 shadows,
                 receipts,
+                atlas_maps,
                 mo);
               return Unit.unit();
             } catch (final JCacheException e) {
@@ -504,6 +1024,11 @@ import com.io7m.r1.spaces.RSpaceWorldType;
           final KLightWithShadowType light)
           throws RException
         {
+          final KShadowMapBasic am = atlas_maps.get(light);
+          if (am != null) {
+            return am;
+          }
+
           assert receipts.containsKey(light);
           final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> rr =
             receipts.get(light);
@@ -514,7 +1039,8 @@ import com.io7m.r1.spaces.RSpaceWorldType;
 
       return r;
     } finally {
-      KShadowMapRenderer.returnReceipts(receipts);
+      KShadowMapRenderer.returnReceipts(receipts, this.retained);
+      KShadowMapRenderer.atlasFreeMaps(this.atlas, atlas_maps);
     }
   }
 
@@ -523,16 +1049,170 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     return KShadowMapRenderer.NAME;
   }
 
+  @Override public long rendererGetShadowMapsRendered()
+  {
+    return this.shadow_maps_rendered;
+  }
+
+  @Override public long rendererGetShadowMapsReused()
+  {
+    return this.shadow_maps_reused;
+  }
+
+  @Override public void rendererInvalidateShadowMap(
+    final KLightWithShadowType light)
+  {
+    NullCheck.notNull(light, "Light");
+
+    final Retained rm = this.retained.remove(light);
+    if (rm != null) {
+      rm.getReceipt().returnToCache();
+    }
+  }
+
+  @Override public void rendererInvalidateShadowMaps()
+  {
+    for (final Retained rm : this.retained.values()) {
+      rm.getReceipt().returnToCache();
+    }
+    this.retained.clear();
+  }
+
+  @Override public void rendererSetResolutionPolicy(
+    final OptionType<KShadowResolutionPolicyType> in_policy)
+  {
+    this.policy = NullCheck.notNull(in_policy, "Policy");
+    this.policy_exponents.clear();
+  }
+
+  /**
+   * Ask the resolution policy, if any, to choose the size exponents of the
+   * shadow maps for the given lights on this frame.
+   */
+
+  private void policyEvaluate(
+    final KCamera camera,
+    final Set<KLightWithShadowType> lights)
+    throws RException
+  {
+    this.policy_exponents.clear();
+    if (this.policy.isNone()) {
+      return;
+    }
+
+    final KShadowResolutionPolicyType p =
+      ((Some<KShadowResolutionPolicyType>) this.policy).get();
+
+    final int count = lights.size();
+    if (this.policy_requested.length < count) {
+      this.policy_requested = new int[count];
+      this.policy_chosen = new int[count];
+    }
+
+    final List<KLightProjectiveType> pl = this.policy_lights;
+    final PolicyRequest pr = this.policy_request;
+    pl.clear();
+
+    for (final KLightWithShadowType light : lights) {
+      assert light != null;
+      light.withShadowAccept(pr);
+      this.policy_requested[pl.size()] = pr.getExponent();
+      pl.add(pr.getLight());
+    }
+
+    p.policyChooseExponents(
+      camera,
+      pl,
+      this.policy_requested,
+      this.policy_chosen);
+
+    int index = 0;
+    for (final KLightWithShadowType light : lights) {
+      assert light != null;
+      final int e = this.policy_chosen[index];
+      RangeCheck.checkIncludedIn(
+        e,
+        "Chosen exponent",
+        new RangeInclusiveL(1, this.policy_requested[index]),
+        "Valid exponents");
+      this.policy_exponents.put(light, Integer.valueOf(e));
+      ++index;
+    }
+    pl.clear();
+  }
+
+  /**
+   * @return The size exponent chosen by the policy for the given light on
+   *         this frame, or <code>-1</code> if there is no policy
+   */
+
+  private int policyExponent(
+    final KLightWithShadowType light)
+  {
+    final Integer e = this.policy_exponents.get(light);
+    if (e == null) {
+      return -1;
+    }
+    return e.intValue();
+  }
+
+  /**
+   * Return retained maps for lights that are no longer present to the cache.
+   */
+
+  private void shadowMapsReleaseUnused(
+    final Set<KLightWithShadowType> lights)
+  {
+    final Iterator<KLightWithShadowType> iter =
+      this.retained.keySet().iterator();
+    while (iter.hasNext()) {
+      final KLightWithShadowType light = iter.next();
+      if (lights.contains(light) == false) {
+        this.retained.get(light).getReceipt().returnToCache();
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * @return <code>true</code> iff a retained map for the given light could
+   *         be reused, in which case it is added to <code>receipts</code>
+   */
+
+  private boolean shadowMapReuse(
+    final KVisibleSetShadows shadows,
+    final Map<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>> receipts,
+    final KLightWithShadowType light)
+    throws RException
+  {
+    final Retained rm = this.retained.get(light);
+    if (rm == null) {
+      return false;
+    }
+
+    final boolean same_size = rm.getExponent() == this.policyExponent(light);
+    if (same_size && rm.isCurrent(shadows.getInstancesForLight(light))) {
+      receipts.put(light, rm.getReceipt());
+      return true;
+    }
+
+    this.retained.remove(light);
+    rm.getReceipt().returnToCache();
+    return false;
+  }
+
   private
     void
     shadowMapsRenderAll(
       final KVisibleSetShadows shadows,
       final Map<KLightWithShadowType, BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType>> receipts,
+      final Map<KLightWithShadowType, KShadowMapBasic> atlas_maps,
       final KMatricesObserverType observer)
       throws RException,
         JCacheException,
         JCGLException
   {
+    final OptionType<KShadowAtlasType> a = this.atlas;
     final KShadowMapCacheType sc = this.shadow_cache;
     final JCGLInterfaceCommonType gc = this.g.getGLCommon();
     final KDepthRendererType dr = this.depth_renderer;
@@ -540,9 +1220,22 @@ import com.io7m.r1.spaces.RSpaceWorldType;
     final KImageFilterDepthVarianceType<KBlurParameters> pb = this.blur;
 
     final Set<KLightWithShadowType> lights = shadows.getLights();
+    if (this.persistent) {
+      this.shadowMapsReleaseUnused(lights);
+    }
+
     for (final KLightWithShadowType light : lights) {
       assert light != null;
 
+      if (this.persistent) {
+        if (this.shadowMapReuse(shadows, receipts, light)) {
+          ++this.shadow_maps_reused;
+          continue;
+        }
+      }
+
+      final int exponent = this.policyExponent(light);
+
       light
         .withShadowAccept(new KLightWithShadowVisitorType<Unit, JCacheException>() {
           @Override public Unit projectiveWithShadowBasic(
@@ -554,12 +1247,15 @@ import com.io7m.r1.spaces.RSpaceWorldType;
             return KShadowMapRenderer.projectiveWithShadowBasic(
               shadows,
               receipts,
+              a,
+              atlas_maps,
               observer,
               sc,
               gc,
               dr,
               light,
-              lp);
+              lp,
+              exponent);
           }
 
           @Override public Unit projectiveWithShadowBasicDiffuseOnly(
@@ -570,12 +1266,15 @@ import com.io7m.r1.spaces.RSpaceWorldType;
             return KShadowMapRenderer.projectiveWithShadowBasic(
               shadows,
               receipts,
+              a,
+              atlas_maps,
               observer,
               sc,
               gc,
               dr,
               light,
-              lp);
+              lp,
+              exponent);
           }
 
           @Override public Unit projectiveWithShadowBasicSSSoft(
@@ -591,7 +1290,8 @@ import com.io7m.r1.spaces.RSpaceWorldType;
               gc,
               dr,
               light,
-              lp);
+              lp,
+              exponent);
           }
 
           @Override public Unit projectiveWithShadowBasicSSSoftDiffuseOnly(
@@ -607,7 +1307,8 @@ import com.io7m.r1.spaces.RSpaceWorldType;
               gc,
               dr,
               light,
-              lp);
+              lp,
+              exponent);
           }
 
           @Override public Unit projectiveWithShadowVariance(
@@ -625,7 +1326,8 @@ import com.io7m.r1.spaces.RSpaceWorldType;
               dvr,
               pb,
               light,
-              lp);
+              lp,
+              exponent);
           }
 
           @Override public Unit projectiveWithShadowVarianceDiffuseOnly(
@@ -642,9 +1344,21 @@ import com.io7m.r1.spaces.RSpaceWorldType;
               dvr,
               pb,
               light,
-              lp);
+              lp,
+              exponent);
           }
         });
+
+      ++this.shadow_maps_rendered;
+
+      if (this.persistent) {
+        final BLUCacheReceiptType<KShadowMapDescriptionType, KShadowMapUsableType> r =
+          receipts.get(light);
+        assert r != null;
+        this.retained.put(
+          light,
+          new Retained(r, shadows.getInstancesForLight(light), exponent));
+      }
     }
   }
 }
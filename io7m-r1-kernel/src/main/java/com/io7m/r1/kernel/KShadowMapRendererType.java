@@ -16,8 +16,10 @@
 
 package com.io7m.r1.kernel;
 
+import com.io7m.jfunctional.OptionType;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KLightWithShadowType;
 import com.io7m.r1.kernel.types.KVisibleSetShadows;
 
 /**
@@ -55,4 +57,61 @@ public interface KShadowMapRendererType extends KRendererType
     final KShadowMapWithType<A, E> with)
     throws E,
       RException;
+
+  /**
+   * @return The number of shadow maps that were rendered during the most
+   *         recent call to
+   *         {@link #rendererEvaluateShadowMaps(KCamera, KVisibleSetShadows, KShadowMapWithType)}
+   */
+
+  long rendererGetShadowMapsRendered();
+
+  /**
+   * @return The number of shadow maps that were retained from a previous
+   *         frame and therefore not rendered during the most recent call to
+   *         {@link #rendererEvaluateShadowMaps(KCamera, KVisibleSetShadows, KShadowMapWithType)}
+   *         . Always <code>0</code> for renderers that do not retain shadow
+   *         maps.
+   */
+
+  long rendererGetShadowMapsReused();
+
+  /**
+   * <p>
+   * Discard the retained shadow map for the given light, if any, forcing it
+   * to be rendered again the next time it is required. This is necessary if
+   * the contents of a shadow map depend on state that the renderer cannot
+   * observe, such as the contents of a mesh that has been modified in place.
+   * </p>
+   * <p>
+   * Has no effect for renderers that do not retain shadow maps.
+   * </p>
+   *
+   * @param light
+   *          The light
+   */
+
+  void rendererInvalidateShadowMap(
+    final KLightWithShadowType light);
+
+  /**
+   * Discard all retained shadow maps, returning them to the shadow map cache.
+   * Has no effect for renderers that do not retain shadow maps.
+   *
+   * @see #rendererInvalidateShadowMap(KLightWithShadowType)
+   */
+
+  void rendererInvalidateShadowMaps();
+
+  /**
+   * Set the policy used to choose the sizes of shadow maps on each frame. If
+   * no policy is set, each light uses the size given in its shadow map
+   * description.
+   *
+   * @param policy
+   *          The policy, if any
+   */
+
+  void rendererSetResolutionPolicy(
+    final OptionType<KShadowResolutionPolicyType> policy);
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.List;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KLightProjectiveType;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A shadow resolution policy that sizes shadow maps according to the
+ * approximate area of the screen covered by each light.
+ * </p>
+ * <p>
+ * The coverage of a light is estimated by comparing the range of the light
+ * with the height of the visible region of the scene at the distance of the
+ * light from the camera. A light that covers half the height of the screen
+ * receives a map half the size (on each axis) of the map requested by its
+ * description, a light that covers a quarter of the height receives a map a
+ * quarter of the size, and so on, down to a minimum size. Lights whose
+ * range reaches the camera always receive the requested size, and lights
+ * whose range lies entirely behind the near plane of the camera always
+ * receive the minimum size.
+ * </p>
+ * <p>
+ * If the total number of texels in all of the chosen maps exceeds a given
+ * budget, the maps of the lights with the lowest coverage are reduced first
+ * until the total fits within the budget or no map can be reduced further.
+ * </p>
+ * <p>
+ * The estimate assumes a perspective projection for the camera.
+ * </p>
+ */
+
+@EqualityReference public final class KShadowResolutionPolicyScreenCoverage implements
+  KShadowResolutionPolicyType
+{
+  private static final double LOG2;
+
+  static {
+    LOG2 = Math.log(2.0);
+  }
+
+  /**
+   * Construct a new policy.
+   *
+   * @param exponent_minimum
+   *          The size exponent of the smallest map that will be chosen,
+   *          unless the light's description requests a smaller map
+   * @param texel_budget
+   *          The maximum total number of texels that should be used by all
+   *          shadow maps on a given frame
+   * @return A new policy
+   */
+
+  public static KShadowResolutionPolicyType newPolicy(
+    final int exponent_minimum,
+    final long texel_budget)
+  {
+    return new KShadowResolutionPolicyScreenCoverage(
+      exponent_minimum,
+      texel_budget);
+  }
+
+  /**
+   * @return The approximate fraction of the height of the screen covered by
+   *         the given light, in the range <code>(0, 1]</code>
+   */
+
+  private static float coverage(
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view,
+    final float near,
+    final float half_height,
+    final KLightProjectiveType light)
+  {
+    final PVectorI3F<RSpaceWorldType> p = light.lightProjectiveGetPosition();
+    final float range = light.lightProjectiveGetRange();
+
+    /**
+     * The camera looks down the negative Z axis, so the distance from the
+     * camera to the light along the view direction is the negated eye-space
+     * Z coordinate of the light.
+     */
+
+    final float z =
+      (view.getRowColumnF(2, 0) * p.getXF())
+        + (view.getRowColumnF(2, 1) * p.getYF())
+        + (view.getRowColumnF(2, 2) * p.getZF())
+        + view.getRowColumnF(2, 3);
+    final float distance = -z;
+
+    if ((distance + range) <= near) {
+      return Float.MIN_NORMAL;
+    }
+    if ((distance - range) <= near) {
+      return 1.0f;
+    }
+
+    final float visible = (half_height * distance) / near;
+    return Math.min(1.0f, range / visible);
+  }
+
+  private float[]    coverages;
+  private final int  exponent_minimum;
+  private int[]      order;
+  private final long texel_budget;
+
+  private KShadowResolutionPolicyScreenCoverage(
+    final int in_exponent_minimum,
+    final long in_texel_budget)
+  {
+    this.exponent_minimum =
+      (int) RangeCheck.checkGreater(
+        in_exponent_minimum,
+        "Minimum exponent",
+        0,
+        "Smallest exponent");
+    this.texel_budget =
+      RangeCheck.checkGreater(
+        in_texel_budget,
+        "Texel budget",
+        0,
+        "Minimum budget");
+
+    this.coverages = new float[8];
+    this.order = new int[8];
+  }
+
+  @Override public void policyChooseExponents(
+    final KCamera camera,
+    final List<KLightProjectiveType> lights,
+    final int[] requested,
+    final int[] chosen)
+  {
+    NullCheck.notNull(camera, "Camera");
+    NullCheck.notNull(lights, "Lights");
+    NullCheck.notNull(requested, "Requested");
+    NullCheck.notNull(chosen, "Chosen");
+
+    final int count = lights.size();
+    if (this.coverages.length < count) {
+      this.coverages = new float[count];
+      this.order = new int[count];
+    }
+
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      camera.getViewMatrix();
+    final KProjectionType projection = camera.getProjection();
+    final float near = projection.projectionGetZNear();
+    final float half_height =
+      (projection.projectionGetYMaximum() - projection
+        .projectionGetYMinimum()) * 0.5f;
+
+    long total = 0;
+    for (int index = 0; index < count; ++index) {
+      final KLightProjectiveType light = lights.get(index);
+      assert light != null;
+
+      final float c =
+        KShadowResolutionPolicyScreenCoverage.coverage(
+          view,
+          near,
+          half_height,
+          light);
+
+      final int max = requested[index];
+      final int min = Math.min(this.exponent_minimum, max);
+      final int offset =
+        (int) Math.floor(Math.log(c) / KShadowResolutionPolicyScreenCoverage.LOG2);
+      final int e = Math.max(min, Math.min(max, max + offset));
+
+      chosen[index] = e;
+      total += 1L << (2 * e);
+      this.coverages[index] = c;
+      this.order[index] = index;
+    }
+
+    this.sortByCoverage(count);
+
+    /**
+     * Halve the maps of the least visible lights first, one step per light
+     * per pass, until the total fits within the budget.
+     */
+
+    while (total > this.texel_budget) {
+      boolean reduced = false;
+      for (int k = 0; k < count; ++k) {
+        final int index = this.order[k];
+        final int e = chosen[index];
+        final int min = Math.min(this.exponent_minimum, requested[index]);
+        if (e > min) {
+          chosen[index] = e - 1;
+          total -= (1L << (2 * e)) - (1L << (2 * (e - 1)));
+          reduced = true;
+          if (total <= this.texel_budget) {
+            break;
+          }
+        }
+      }
+      if (reduced == false) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Sort the first <code>count</code> light indices by ascending coverage.
+   * The number of shadow-casting lights is small, so an insertion sort is
+   * sufficient.
+   */
+
+  private void sortByCoverage(
+    final int count)
+  {
+    final int[] o = this.order;
+    final float[] c = this.coverages;
+    for (int i = 1; i < count; ++i) {
+      final int v = o[i];
+      int j = i - 1;
+      while ((j >= 0) && (c[o[j]] > c[v])) {
+        o[j + 1] = o[j];
+        --j;
+      }
+      o[j + 1] = v;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.List;
+
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KLightProjectiveType;
+
+/**
+ * <p>
+ * The type of policies that choose the sizes of shadow maps on each frame.
+ * </p>
+ * <p>
+ * The size exponent given in the shadow map description of each light is
+ * treated as the largest size that the light may use. A policy may choose
+ * any smaller exponent for a given frame, and the shadow map renderer will
+ * take a map of the chosen size from its cache.
+ * </p>
+ *
+ * @see KShadowMapRendererType#rendererSetResolutionPolicy(com.io7m.jfunctional.OptionType)
+ */
+
+public interface KShadowResolutionPolicyType
+{
+  /**
+   * Choose the size exponents of the shadow maps for the given lights.
+   *
+   * @param camera
+   *          The camera observing the scene
+   * @param lights
+   *          The shadow-casting lights
+   * @param requested
+   *          The size exponent given in the shadow map description of each
+   *          light, such that <code>requested[i]</code> is the exponent for
+   *          <code>lights.get(i)</code>
+   * @param chosen
+   *          The size exponent that will be used for each light, such that
+   *          <code>chosen[i]</code> is the exponent for
+   *          <code>lights.get(i)</code>. Each exponent must be greater than
+   *          <code>0</code> and at most <code>requested[i]</code>.
+   * @throws RException
+   *           If an error occurs
+   */
+
+  void policyChooseExponents(
+    final KCamera camera,
+    final List<KLightProjectiveType> lights,
+    final int[] requested,
+    final int[] chosen)
+    throws RException;
+}
@@ -16,9 +16,10 @@
 
 package com.io7m.r1.kernel;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 
 import com.io7m.jcanephora.Texture2DStaticUsableType;
@@ -46,35 +47,61 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
 @SuppressWarnings("synthetic-access") @EqualityReference public final class KTextureBindingsController implements
   KTextureBindingsControllerType
 {
-  @EqualityReference private final class Context implements
-    KTextureBindingsContextType
+  /**
+   * The storage for a context, retained and reused by nesting depth. The
+   * generation is incremented each time the context is exited, so that a
+   * {@link ContextHandle} that escaped the function it was passed to can be
+   * detected even after the storage has been reused at the same depth.
+   */
+
+  @EqualityReference private final class Context
   {
     private final TextureUsableType[] bindings;
     private int                       bindings_next;
+    private int                       generation;
 
     Context(
-      final TextureUsableType[] in_bindings,
-      final int in_bindings_start)
+      final int in_size)
     {
-      this.bindings = in_bindings;
-      this.bindings_next = in_bindings_start;
+      this.bindings = new TextureUsableType[in_size];
     }
 
-    private void checkCurrent()
+    private void checkCurrent(
+      final int in_generation)
       throws RExceptionUnitAllocatorNotCurrent
     {
+      if (this.generation != in_generation) {
+        throw new RExceptionUnitAllocatorNotCurrent(
+          "Texture unit context has been exited");
+      }
       if (this != KTextureBindingsController.this.contexts.peek()) {
         throw new RExceptionUnitAllocatorNotCurrent(
           "Texture unit context is not current");
       }
     }
 
-    @Override public TextureUnitType withTexture2D(
+    private void resetAppending(
+      final Context previous)
+    {
+      System.arraycopy(
+        previous.bindings,
+        0,
+        this.bindings,
+        0,
+        this.bindings.length);
+      this.bindings_next = previous.bindings_next;
+    }
+
+    private void resetEmpty()
+    {
+      Arrays.fill(this.bindings, null);
+      this.bindings_next = 0;
+    }
+
+    private TextureUnitType withTexture2D(
       final Texture2DStaticUsableType t)
       throws RException
     {
-      this.checkCurrent();
-
       final List<TextureUnitType> us = KTextureBindingsController.this.units;
       if (this.bindings_next < us.size()) {
         final TextureUnitType u =
@@ -89,12 +116,10 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
       throw new RExceptionUnitAllocatorOutOfUnits("Out of texture units");
     }
 
-    @Override public TextureUnitType withTextureCube(
+    private TextureUnitType withTextureCube(
       final TextureCubeStaticUsableType t)
       throws RException
     {
-      this.checkCurrent();
-
       final List<TextureUnitType> us = KTextureBindingsController.this.units;
       if (this.bindings_next < us.size()) {
         final TextureUnitType u =
@@ -110,6 +135,41 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     }
   }
 
+  /**
+   * The context passed to functions. A handle is only valid for the
+   * generation of the context that it was created for.
+   */
+
+  @EqualityReference private static final class ContextHandle implements
+    KTextureBindingsContextType
+  {
+    private final Context context;
+    private final int     generation;
+
+    ContextHandle(
+      final Context in_context)
+    {
+      this.context = in_context;
+      this.generation = in_context.generation;
+    }
+
+    @Override public TextureUnitType withTexture2D(
+      final Texture2DStaticUsableType t)
+      throws RException
+    {
+      this.context.checkCurrent(this.generation);
+      return this.context.withTexture2D(t);
+    }
+
+    @Override public TextureUnitType withTextureCube(
+      final TextureCubeStaticUsableType t)
+      throws RException
+    {
+      this.context.checkCurrent(this.generation);
+      return this.context.withTextureCube(t);
+    }
+  }
+
   /**
    * Construct a new texture binding controller.
    *
@@ -129,12 +189,16 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     return new KTextureBindingsController(g);
   }
 
-  private final Deque<Context>                   contexts;
-  private final TextureUsableType[]              current;
-  private final TextureUsableType[]              empty;
-  private final JCGLTextures2DStaticCommonType   t2d;
-  private final JCGLTexturesCubeStaticCommonType tc;
-  private final List<TextureUnitType>            units;
+  private final TextureUsableVisitorType<Unit, UnreachableCodeException> bind;
+  private int                                                            bind_index;
+  private final Deque<Context>                                           contexts;
+  private final TextureUsableType[]                                      current;
+  private final TextureUsableType[]                                      empty;
+  private long                                                           filtered;
+  private final List<Context>                                            pool;
+  private final JCGLTextures2DStaticCommonType                           t2d;
+  private final JCGLTexturesCubeStaticCommonType                         tc;
+  private final List<TextureUnitType>                                    units;
 
   private <G extends JCGLTextureUnitsType & JCGLTextures2DStaticCommonType & JCGLTexturesCubeStaticCommonType> KTextureBindingsController(
     final G g)
@@ -143,9 +207,48 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     this.units = g.textureGetUnits();
     this.current = new TextureUsableType[this.units.size()];
     this.empty = new TextureUsableType[this.units.size()];
-    this.contexts = new LinkedList<Context>();
+    this.contexts = new ArrayDeque<Context>();
+    this.pool = new ArrayList<Context>();
     this.t2d = g;
     this.tc = g;
+
+    this.bind = new TextureUsableVisitorType<Unit, UnreachableCodeException>() {
+      @Override public Unit texture2D(
+        final Texture2DStaticUsableType t)
+      {
+        final KTextureBindingsController c = KTextureBindingsController.this;
+        c.contextBindTexture2D(c.bind_index, t);
+        return Unit.unit();
+      }
+
+      @Override public Unit textureCube(
+        final TextureCubeStaticUsableType t)
+      {
+        final KTextureBindingsController c = KTextureBindingsController.this;
+        c.contextBindTextureCube(c.bind_index, t);
+        return Unit.unit();
+      }
+    };
+  }
+
+  /**
+   * Context storage is retained and reused by nesting depth, so that entering
+   * and leaving contexts allocates only a {@link ContextHandle} once the
+   * maximum nesting depth has been reached.
+   */
+
+  private Context contextAcquire()
+  {
+    final int depth = this.contexts.size();
+    if (depth < this.pool.size()) {
+      final Context c = this.pool.get(depth);
+      assert c != null;
+      return c;
+    }
+
+    final Context c = new Context(this.current.length);
+    this.pool.add(c);
+    return c;
   }
 
   private TextureUnitType contextBindTexture2D(
@@ -153,6 +256,11 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     final Texture2DStaticUsableType t)
   {
     final TextureUnitType u = NullCheck.notNull(this.units.get(index));
+    if (this.current[index] == t) {
+      ++this.filtered;
+      return u;
+    }
+
     this.current[index] = t;
     this.t2d.texture2DStaticBind(u, t);
     return u;
@@ -163,6 +271,11 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     final TextureCubeStaticUsableType t)
   {
     final TextureUnitType u = NullCheck.notNull(this.units.get(index));
+    if (this.current[index] == t) {
+      ++this.filtered;
+      return u;
+    }
+
     this.current[index] = t;
     this.tc.textureCubeStaticBind(u, t);
     return u;
@@ -172,7 +285,6 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     final TextureUsableType[] next)
   {
     for (int index = 0; index < next.length; ++index) {
-      final int ci = index;
       final TextureUsableType cb = this.current[index];
       final TextureUsableType nb = next[index];
 
@@ -180,22 +292,8 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
         if (nb == null) {
           this.contextUnbind(index);
         } else {
-          nb
-            .textureUsableAccept(new TextureUsableVisitorType<Unit, UnreachableCodeException>() {
-              @Override public Unit texture2D(
-                final Texture2DStaticUsableType t)
-              {
-                KTextureBindingsController.this.contextBindTexture2D(ci, t);
-                return Unit.unit();
-              }
-
-              @Override public Unit textureCube(
-                final TextureCubeStaticUsableType t)
-              {
-                KTextureBindingsController.this.contextBindTextureCube(ci, t);
-                return Unit.unit();
-              }
-            });
+          this.bind_index = index;
+          nb.textureUsableAccept(this.bind);
         }
       }
     }
@@ -218,8 +316,9 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     this.contexts.push(c);
     try {
       this.contextSwitch(c.bindings);
-      f.call(c);
+      f.call(new ContextHandle(c));
     } finally {
+      ++c.generation;
       this.contexts.pop();
       if (previous != null) {
         this.contextSwitch(previous.bindings);
@@ -229,27 +328,24 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     }
   }
 
+  @Override public long getFilteredBindCount()
+  {
+    return this.filtered;
+  }
+
   @Override public void withNewAppendingContext(
     final PartialProcedureType<KTextureBindingsContextType, RException> f)
     throws RException
   {
     NullCheck.notNull(f, "Function");
 
-    final int new_bindings_used;
-    final TextureUsableType[] new_bindings;
     final Context previous = this.contexts.peek();
+    final Context c = this.contextAcquire();
     if (previous == null) {
-      new_bindings_used = 0;
-      new_bindings = new TextureUsableType[this.current.length];
+      c.resetEmpty();
     } else {
-      new_bindings_used = previous.bindings_next;
-      new_bindings =
-        NullCheck.notNull(Arrays.copyOf(
-          previous.bindings,
-          this.current.length));
+      c.resetAppending(previous);
     }
-
-    final Context c = new Context(new_bindings, new_bindings_used);
     this.execute(f, c);
   }
 
@@ -258,8 +354,8 @@ import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
     throws RException
   {
     NullCheck.notNull(f, "Function");
-    final Context c =
-      new Context(new TextureUsableType[this.current.length], 0);
+    final Context c = this.contextAcquire();
+    c.resetEmpty();
     this.execute(f, c);
   }
 }
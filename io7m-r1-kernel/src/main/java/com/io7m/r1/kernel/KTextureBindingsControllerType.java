@@ -25,6 +25,13 @@ import com.io7m.r1.exceptions.RException;
 
 public interface KTextureBindingsControllerType
 {
+  /**
+   * @return The number of texture binds that were not submitted to OpenGL
+   *         because the texture was already bound to the target unit
+   */
+
+  long getFilteredBindCount();
+
   /**
    * Allocate a new context with no textures bound and pass it to the given
    * function <code>f</code>. When <code>f</code> returns, the previously
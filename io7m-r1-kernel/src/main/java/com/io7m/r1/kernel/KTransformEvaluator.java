@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jnull.Nullable;
+import com.io7m.jtensors.parameterized.PMatrixM3x3F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PMatrixReadable4x4FType;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.kernel.types.KTransformContext;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KTransformNode;
+import com.io7m.r1.kernel.types.KTransformOST;
+import com.io7m.r1.kernel.types.KTransformType;
+import com.io7m.r1.kernel.types.KTransformVisitorType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceNormalEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * Preallocated storage for calculating the model, modelview, and normal
+ * matrices of a transform.
+ * </p>
+ * <p>
+ * Transform nodes cache their world-space normal matrices, so the normal
+ * matrix of a node is produced by multiplying the normal matrix of the view
+ * by the cached matrix, instead of inverting the upper 3x3 of the modelview
+ * matrix for every instance. Other transforms are evaluated as before.
+ * </p>
+ * <p>
+ * Evaluators are not thread-safe; each thread requires its own evaluator.
+ * </p>
+ */
+
+@EqualityReference final class KTransformEvaluator implements
+  KTransformVisitorType<Boolean, UnreachableCodeException>
+{
+  static KTransformEvaluator newEvaluator()
+  {
+    return new KTransformEvaluator();
+  }
+
+  private final KTransformContext                                   context;
+  private @Nullable PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> model;
+  private final PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType>     normal_world;
+
+  private KTransformEvaluator()
+  {
+    this.context = KTransformContext.newContext();
+    this.normal_world = new PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType>();
+  }
+
+  /**
+   * Calculate the model matrix of <code>t</code> into <code>m</code>, the
+   * modelview matrix into <code>mv</code>, and the normal matrix into
+   * <code>n</code>.
+   *
+   * @param t
+   *          The transform
+   * @param view
+   *          The view matrix
+   * @param view_normal
+   *          The normal matrix of <code>view</code>, as produced by
+   *          {@link KMatrices#makeNormalMatrixView}
+   * @param m
+   *          The output model matrix
+   * @param mv
+   *          The output modelview matrix
+   * @param n
+   *          The output normal matrix
+   */
+
+  void evaluate(
+    final KTransformType t,
+    final PMatrixReadable4x4FType<RSpaceWorldType, RSpaceEyeType> view,
+    final PMatrixM3x3F<RSpaceWorldType, RSpaceNormalEyeType> view_normal,
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m,
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceEyeType> mv,
+    final PMatrixM3x3F<RSpaceObjectType, RSpaceNormalEyeType> n)
+  {
+    this.model = m;
+    try {
+      final Boolean cached = t.transformAccept(this);
+      PMatrixM4x4F.multiply(view, m, mv);
+      if (cached.booleanValue()) {
+        PMatrixM3x3F.multiply(view_normal, this.normal_world, n);
+      } else {
+        KMatrices.makeNormalMatrix(mv, n);
+      }
+    } finally {
+      this.model = null;
+    }
+  }
+
+  private Boolean evaluateGeneric(
+    final KTransformType t)
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m = this.model;
+    assert m != null;
+    t.transformMakeMatrix4x4F(this.context, m);
+    return Boolean.FALSE;
+  }
+
+  @Override public Boolean transformMatrix4x4(
+    final KTransformMatrix4x4 t)
+  {
+    return this.evaluateGeneric(t);
+  }
+
+  @Override public Boolean transformNode(
+    final KTransformNode t)
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m = this.model;
+    assert m != null;
+    t.nodeGetMatrices(m, this.normal_world);
+    return Boolean.TRUE;
+  }
+
+  @Override public Boolean transformOST(
+    final KTransformOST t)
+  {
+    return this.evaluateGeneric(t);
+  }
+}
@@ -20,7 +20,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import com.io7m.jcache.BLUCacheReceiptType;
 import com.io7m.jcache.JCacheException;
+import com.io7m.jcanephora.AreaInclusive;
 import com.io7m.jcanephora.ArrayBufferUsableType;
 import com.io7m.jcanephora.BlendFunction;
 import com.io7m.jcanephora.DepthFunction;
@@ -39,12 +41,16 @@ import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.PartialFunctionType;
 import com.io7m.jfunctional.PartialProcedureType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jlog.LogLevel;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.exceptions.RExceptionCache;
+import com.io7m.r1.kernel.types.KFramebufferRGBADescription;
 import com.io7m.r1.kernel.types.KInstanceTranslucentRefractive;
 import com.io7m.r1.kernel.types.KInstanceTranslucentRegular;
 import com.io7m.r1.kernel.types.KInstanceTranslucentSpecularOnly;
@@ -61,10 +67,13 @@ import com.io7m.r1.kernel.types.KMaterialEnvironmentVisitorType;
 import com.io7m.r1.kernel.types.KMaterialTranslucentRegular;
 import com.io7m.r1.kernel.types.KMaterialTranslucentSpecularOnly;
 import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KRGBAPrecision;
 import com.io7m.r1.kernel.types.KTranslucentRegularLit;
 import com.io7m.r1.kernel.types.KTranslucentSpecularOnlyLit;
 import com.io7m.r1.kernel.types.KTranslucentType;
 import com.io7m.r1.kernel.types.KTranslucentVisitorType;
+import com.io7m.r1.kernel.types.KUnitQuadCacheType;
+import com.io7m.r1.kernel.types.KUnitQuadUsableType;
 import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
 
 /**
@@ -74,6 +83,255 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
 @SuppressWarnings("synthetic-access") @EqualityReference public final class KTranslucentRenderer implements
   KTranslucentRendererType
 {
+  /**
+   * The resources required to evaluate translucents with weighted blended
+   * order-independent transparency.
+   */
+
+  @EqualityReference private static final class OrderIndependentResources
+  {
+    private final KRegionCopierType                     copier;
+    private final KFramebufferOrderIndependentCacheType oit_cache;
+    private final KUnitQuadCacheType                    quad_cache;
+    private final KShaderCacheImageType                 shader_image_cache;
+
+    OrderIndependentResources(
+      final KRegionCopierType in_copier,
+      final KFramebufferOrderIndependentCacheType in_oit_cache,
+      final KShaderCacheImageType in_shader_image_cache,
+      final KUnitQuadCacheType in_quad_cache)
+    {
+      this.copier = NullCheck.notNull(in_copier, "Copier");
+      this.oit_cache =
+        NullCheck.notNull(in_oit_cache, "Order independent cache");
+      this.shader_image_cache =
+        NullCheck.notNull(in_shader_image_cache, "Image shader cache");
+      this.quad_cache = NullCheck.notNull(in_quad_cache, "Quad cache");
+    }
+  }
+
+  /**
+   * The pass in which translucent instances are being rendered.
+   */
+
+  private static enum Pass
+  {
+    /**
+     * All instances are rendered in list order, directly into the scene.
+     */
+
+    PASS_ORDERED,
+
+    /**
+     * Regular instances are accumulated into the accumulation and revealage
+     * targets in a single draw per light, and specular-only instances are
+     * added to the color channels of the revealage target.
+     */
+
+    PASS_OIT_ACCUMULATE,
+
+    /**
+     * Refractive instances are rendered in list order, directly into the
+     * scene, after the accumulated instances have been composited.
+     */
+
+    PASS_OIT_REMAINDER
+  }
+
+  /**
+   * <p>
+   * The visitor that renders individual translucent instances.
+   * </p>
+   * <p>
+   * A single value is allocated per renderer, and the fields of the value
+   * are updated for each instance, so that rendering the list of translucent
+   * instances does not allocate any per-instance closures.
+   * </p>
+   */
+
+  @EqualityReference private final class TranslucentInstanceRenderer implements
+    KTranslucentVisitorType<Unit, JCacheException>
+  {
+    private @Nullable KFramebufferRGBAWithDepthUsableType                       framebuffer;
+    private @Nullable KFramebufferOrderIndependentUsableType                    framebuffer_oit;
+    private @Nullable JCGLInterfaceGL3ES3Type                                   gc;
+    private @Nullable KMatricesObserverType                                     mwo;
+    private final PartialProcedureType<KTextureBindingsContextType, RException> regular_lit;
+    private @Nullable KTranslucentRegularLit                                    regular_lit_current;
+    private final PartialProcedureType<KTextureBindingsContextType, RException> regular_unlit;
+    private @Nullable KInstanceTranslucentRegular                               regular_unlit_current;
+    private final PartialProcedureType<KTextureBindingsContextType, RException> specular_only;
+    private @Nullable KTranslucentSpecularOnlyLit                               specular_only_current;
+
+    TranslucentInstanceRenderer()
+    {
+      final TranslucentInstanceRenderer v = this;
+
+      this.regular_lit =
+        new PartialProcedureType<KTextureBindingsContextType, RException>() {
+          @Override public void call(
+            final KTextureBindingsContextType c)
+            throws RException
+          {
+            final JCGLInterfaceGL3ES3Type g = v.gc;
+            final KMatricesObserverType m = v.mwo;
+            final KTranslucentRegularLit t = v.regular_lit_current;
+            assert g != null;
+            assert m != null;
+            assert t != null;
+
+            final KInstanceTranslucentRegular ti = t.translucentGetInstance();
+            KRendererCommon.renderConfigureFaceCulling(
+              g,
+              ti.instanceGetFaceSelection());
+
+            KTranslucentRenderer.this.renderTranslucentRegularLit(
+              g,
+              c,
+              t,
+              m);
+          }
+        };
+
+      this.regular_unlit =
+        new PartialProcedureType<KTextureBindingsContextType, RException>() {
+          @Override public void call(
+            final KTextureBindingsContextType c)
+            throws RException
+          {
+            final JCGLInterfaceGL3ES3Type g = v.gc;
+            final KMatricesObserverType m = v.mwo;
+            final KInstanceTranslucentRegular t = v.regular_unlit_current;
+            assert g != null;
+            assert m != null;
+            assert t != null;
+
+            KRendererCommon.renderConfigureFaceCulling(
+              g,
+              t.instanceGetFaceSelection());
+
+            KTranslucentRenderer.this.renderTranslucentRegularUnlit(
+              g,
+              c,
+              m,
+              t);
+          }
+        };
+
+      this.specular_only =
+        new PartialProcedureType<KTextureBindingsContextType, RException>() {
+          @Override public void call(
+            final KTextureBindingsContextType c)
+            throws RException
+          {
+            final JCGLInterfaceGL3ES3Type g = v.gc;
+            final KMatricesObserverType m = v.mwo;
+            final KTranslucentSpecularOnlyLit t = v.specular_only_current;
+            assert g != null;
+            assert m != null;
+            assert t != null;
+
+            final KInstanceTranslucentSpecularOnly ti =
+              t.translucentGetInstance();
+            KRendererCommon.renderConfigureFaceCulling(
+              g,
+              ti.instanceGetFaceSelection());
+
+            KTranslucentRenderer.this.renderTranslucentSpecularOnlyLit(
+              g,
+              c,
+              t,
+              m);
+          }
+        };
+    }
+
+    @Override public Unit refractive(
+      final KInstanceTranslucentRefractive t)
+      throws RException
+    {
+      if (KTranslucentRenderer.this.passRendersRefractive() == false) {
+        return Unit.unit();
+      }
+
+      final KFramebufferRGBAWithDepthUsableType f = this.framebuffer;
+      final KMatricesObserverType m = this.mwo;
+      assert f != null;
+      assert m != null;
+
+      KTranslucentRenderer.this.refraction_renderer
+        .rendererRefractionEvaluate(f, m, t);
+      return Unit.unit();
+    }
+
+    @Override public Unit regularLit(
+      final KTranslucentRegularLit t)
+      throws RException
+    {
+      if (KTranslucentRenderer.this.passRendersRegular() == false) {
+        return Unit.unit();
+      }
+
+      this.regular_lit_current = t;
+      KTranslucentRenderer.this.texture_bindings
+        .withNewEmptyContext(this.regular_lit);
+      return Unit.unit();
+    }
+
+    @Override public Unit regularUnlit(
+      final KInstanceTranslucentRegular t)
+      throws RException
+    {
+      if (KTranslucentRenderer.this.passRendersRegular() == false) {
+        return Unit.unit();
+      }
+
+      this.regular_unlit_current = t;
+      KTranslucentRenderer.this.texture_bindings
+        .withNewEmptyContext(this.regular_unlit);
+      return Unit.unit();
+    }
+
+    @Override public Unit specularOnly(
+      final KTranslucentSpecularOnlyLit t)
+      throws RException
+    {
+      if (KTranslucentRenderer.this.passRendersRegular() == false) {
+        return Unit.unit();
+      }
+
+      this.specular_only_current = t;
+      if (KTranslucentRenderer.this.pass != Pass.PASS_OIT_ACCUMULATE) {
+        KTranslucentRenderer.this.texture_bindings
+          .withNewEmptyContext(this.specular_only);
+        return Unit.unit();
+      }
+
+      /**
+       * Specular-only instances are purely additive and do not occlude
+       * anything, so they are added to the color channels of the revealage
+       * target, leaving its alpha channel (and the accumulation target)
+       * untouched.
+       */
+
+      final JCGLInterfaceGL3ES3Type g = this.gc;
+      final KFramebufferOrderIndependentUsableType f = this.framebuffer_oit;
+      assert g != null;
+      assert f != null;
+
+      g.framebufferDrawBind(f.getOrderIndependentRevealageFramebuffer());
+      try {
+        g.colorBufferMask(true, true, true, false);
+        KTranslucentRenderer.this.texture_bindings
+          .withNewEmptyContext(this.specular_only);
+      } finally {
+        g.colorBufferMask(true, true, true, true);
+        g.framebufferDrawBind(f.getRGBAColorFramebuffer());
+      }
+      return Unit.unit();
+    }
+  }
+
   private static final String NAME;
 
   static {
@@ -109,12 +367,86 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
     final LogUsableType in_log)
     throws RException
   {
+    final OptionType<OrderIndependentResources> none = Option.none();
+    return new KTranslucentRenderer(
+      in_g,
+      in_texture_bindings,
+      in_shader_unlit_cache,
+      in_shader_lit_cache,
+      in_refraction_renderer,
+      none,
+      in_log);
+  }
+
+  /**
+   * <p>
+   * Construct a new translucent renderer that evaluates regular translucent
+   * instances with weighted blended order-independent transparency, and
+   * therefore does not depend on the order of the given translucents.
+   * </p>
+   * <p>
+   * Regular and specular-only instances are accumulated into a temporary
+   * framebuffer with two color attachments borrowed from
+   * <code>in_oit_cache</code>, which is then composited over the scene with
+   * the <code>composite_oit</code> image program. Each regular instance is
+   * drawn once per light. Refractive instances are rendered afterwards, in
+   * list order, and so always appear in front of regular and specular-only
+   * instances.
+   * </p>
+   *
+   * @param in_g
+   *          The OpenGL implementation
+   * @param in_texture_bindings
+   *          A texture bindings controller
+   * @param in_shader_unlit_cache
+   *          An unlit shader cache
+   * @param in_shader_lit_cache
+   *          An lit shader cache
+   * @param in_shader_image_cache
+   *          An image shader cache
+   * @param in_refraction_renderer
+   *          A refraction renderer
+   * @param in_copier
+   *          A region copier, used to copy the scene depth buffer
+   * @param in_oit_cache
+   *          A framebuffer cache for the accumulation targets
+   * @param in_quad_cache
+   *          A unit quad cache
+   * @param in_log
+   *          A log handle
+   * @return A new renderer
+   * @throws RException
+   *           If an error occurs during initialization
+   */
+
+  public static
+    KTranslucentRendererType
+    newRendererWithOrderIndependentTransparency(
+      final JCGLImplementationType in_g,
+      final KTextureBindingsControllerType in_texture_bindings,
+      final KShaderCacheForwardTranslucentUnlitType in_shader_unlit_cache,
+      final KShaderCacheForwardTranslucentLitType in_shader_lit_cache,
+      final KShaderCacheImageType in_shader_image_cache,
+      final KRefractionRendererType in_refraction_renderer,
+      final KRegionCopierType in_copier,
+      final KFramebufferOrderIndependentCacheType in_oit_cache,
+      final KUnitQuadCacheType in_quad_cache,
+      final LogUsableType in_log)
+      throws RException
+  {
+    final OrderIndependentResources r =
+      new OrderIndependentResources(
+        in_copier,
+        in_oit_cache,
+        in_shader_image_cache,
+        in_quad_cache);
     return new KTranslucentRenderer(
       in_g,
       in_texture_bindings,
       in_shader_unlit_cache,
       in_shader_lit_cache,
       in_refraction_renderer,
+      Option.some(r),
       in_log);
   }
 
@@ -457,7 +789,10 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
   }
 
   private final JCGLImplementationType                  g;
+  private final TranslucentInstanceRenderer             instance_renderer;
   private final LogUsableType                           log;
+  private final OptionType<OrderIndependentResources>   order_independent;
+  private Pass                                          pass;
   private final KRefractionRendererType                 refraction_renderer;
   private final KShaderCacheForwardTranslucentLitType   shader_lit_cache;
   private final KShaderCacheForwardTranslucentUnlitType shader_unlit_cache;
@@ -469,6 +804,7 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
     final KShaderCacheForwardTranslucentUnlitType in_shader_unlit_cache,
     final KShaderCacheForwardTranslucentLitType in_shader_lit_cache,
     final KRefractionRendererType in_refraction_renderer,
+    final OptionType<OrderIndependentResources> in_order_independent,
     final LogUsableType in_log)
   {
     this.log =
@@ -483,12 +819,70 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
       NullCheck.notNull(in_refraction_renderer, "Refraction renderer");
     this.texture_bindings =
       NullCheck.notNull(in_texture_bindings, "Texture bindings");
+    this.order_independent =
+      NullCheck.notNull(in_order_independent, "Order independent resources");
+    this.instance_renderer = new TranslucentInstanceRenderer();
+    this.pass = Pass.PASS_ORDERED;
 
     if (this.log.wouldLog(LogLevel.LOG_DEBUG)) {
       this.log.debug("initialized");
     }
   }
 
+  /**
+   * Configure blending for a contribution of a light to a regular
+   * translucent instance, for the current pass.
+   *
+   * @return <code>false</code> iff the contribution should not be rendered
+   *         in the current pass
+   */
+
+  private boolean configureBlendingForLight(
+    final JCGLInterfaceCommonType gc,
+    final boolean first)
+  {
+    switch (this.pass) {
+      case PASS_ORDERED:
+      case PASS_OIT_REMAINDER:
+      {
+        if (first) {
+          gc.blendingEnable(
+            BlendFunction.BLEND_ONE,
+            BlendFunction.BLEND_ONE_MINUS_SOURCE_ALPHA);
+        } else {
+          gc.blendingEnable(BlendFunction.BLEND_ONE, BlendFunction.BLEND_ONE);
+        }
+        return true;
+      }
+      case PASS_OIT_ACCUMULATE:
+      {
+        /**
+         * The premultiplied color and opacity of every contribution are
+         * summed into the accumulation target, and the revealage of every
+         * surface is summed (as a logarithm) into the alpha channel of the
+         * revealage target. Only the first light provides the opacity of the
+         * surface, so the alpha channels are masked for the remaining lights.
+         */
+
+        gc.colorBufferMask(true, true, true, first);
+        gc.blendingEnable(BlendFunction.BLEND_ONE, BlendFunction.BLEND_ONE);
+        return true;
+      }
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  private boolean passRendersRefractive()
+  {
+    return this.pass != Pass.PASS_OIT_ACCUMULATE;
+  }
+
+  private boolean passRendersRegular()
+  {
+    return this.pass != Pass.PASS_OIT_REMAINDER;
+  }
+
   @Override public void rendererEvaluateTranslucents(
     final KFramebufferRGBAWithDepthUsableType framebuffer,
     final KMatricesObserverType mwo,
@@ -500,27 +894,205 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
       NullCheck.notNull(mwo, "Matrices");
       NullCheck.notNull(translucents, "Translucents");
 
-      KTranslucentRenderer.this.rendererEvaluateTranslucentsActual(
-        framebuffer,
-        mwo,
-        translucents);
+      final JCGLInterfaceGL3ES3Type gc =
+        this.g.implementationAccept(KRendererCommon.getGL3ES3Get());
+
+      if (this.order_independent.isSome()) {
+        final OrderIndependentResources r =
+          ((Some<OrderIndependentResources>) this.order_independent).get();
+        this.rendererEvaluateTranslucentsOrderIndependent(
+          gc,
+          framebuffer,
+          mwo,
+          translucents,
+          r);
+      } else {
+        this.rendererEvaluateTranslucentsPass(
+          gc,
+          framebuffer,
+          mwo,
+          translucents,
+          Pass.PASS_ORDERED);
+      }
     } catch (final JCacheException e) {
       throw RExceptionCache.fromJCacheException(e);
+    } finally {
+      this.pass = Pass.PASS_ORDERED;
+    }
+  }
+
+  /**
+   * Composite the accumulation and revealage targets over the scene. The
+   * composite program produces premultiplied colors.
+   */
+
+  private void rendererEvaluateTranslucentsComposite(
+    final JCGLInterfaceGL3ES3Type gc,
+    final KFramebufferRGBAWithDepthUsableType framebuffer,
+    final KFramebufferOrderIndependentUsableType oit,
+    final OrderIndependentResources r)
+    throws RException,
+      JCacheException
+  {
+    final KProgramType kprogram =
+      r.shader_image_cache.cacheGetLU("composite_oit");
+    final KUnitQuadUsableType quad = r.quad_cache.cacheGetLU(Unit.unit());
+
+    this.texture_bindings
+      .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
+        @Override public void call(
+          final KTextureBindingsContextType units)
+          throws RException
+        {
+          final TextureUnitType unit_accumulation =
+            units.withTexture2D(oit.getRGBATexture());
+          final TextureUnitType unit_revealage =
+            units.withTexture2D(oit.getOrderIndependentRevealageTexture());
+
+          gc.framebufferDrawBind(framebuffer.getRGBAColorFramebuffer());
+          try {
+            gc.blendingEnable(
+              BlendFunction.BLEND_ONE,
+              BlendFunction.BLEND_ONE_MINUS_SOURCE_ALPHA);
+            gc.colorBufferMask(true, true, true, true);
+            gc.cullingDisable();
+            gc.depthBufferTestDisable();
+            gc.depthBufferWriteDisable();
+
+            kprogram.getExecutable().execRun(
+              new JCBExecutorProcedureType<RException>() {
+                @Override public void call(
+                  final JCBProgramType p)
+                  throws JCGLException,
+                    RException
+                {
+                  final ArrayBufferUsableType array = quad.getArray();
+                  final IndexBufferUsableType indices = quad.getIndices();
+
+                  gc.arrayBufferBind(array);
+                  try {
+                    KShadingProgramCommon.bindAttributePositionUnchecked(
+                      p,
+                      array);
+                    KShadingProgramCommon.bindAttributeUVUnchecked(p, array);
+                    KShadingProgramCommon.putMatrixUVUnchecked(
+                      p,
+                      KMatrices.IDENTITY_UV);
+                    p.programUniformPutTextureUnit(
+                      "t_image_0",
+                      unit_accumulation);
+                    p.programUniformPutTextureUnit(
+                      "t_image_1",
+                      unit_revealage);
+
+                    p
+                      .programExecute(new JCBProgramProcedureType<JCGLException>() {
+                        @Override public void call()
+                          throws JCGLException
+                        {
+                          gc.drawElements(
+                            Primitives.PRIMITIVE_TRIANGLES,
+                            indices);
+                        }
+                      });
+                  } finally {
+                    gc.arrayBufferUnbind();
+                  }
+                }
+              });
+          } finally {
+            gc.framebufferDrawUnbind();
+          }
+        }
+      });
+  }
+
+  /**
+   * <p>
+   * Evaluate translucents with weighted blended order-independent
+   * transparency.
+   * </p>
+   * <p>
+   * Regular instances are rendered once per light into a framebuffer with
+   * two color attachments. The accumulation target sums premultiplied colors
+   * and opacities, and the alpha channel of the revealage target sums
+   * <code>-log2 (1 - alpha)</code> so that the transmission of every surface
+   * is multiplied despite the purely additive blending. Specular-only
+   * instances are added to the color channels of the revealage target. The
+   * framebuffer receives a copy of the scene depth buffer so that
+   * translucents remain occluded by opaque instances. The targets are then
+   * composited over the scene.
+   * </p>
+   * <p>
+   * Refractive instances sample the scene behind them and so cannot be
+   * accumulated: they are rendered over the composited result in list
+   * order, and therefore always appear in front of regular and
+   * specular-only instances regardless of depth.
+   * </p>
+   */
+
+  private void rendererEvaluateTranslucentsOrderIndependent(
+    final JCGLInterfaceGL3ES3Type gc,
+    final KFramebufferRGBAWithDepthUsableType framebuffer,
+    final KMatricesObserverType mwo,
+    final KVisibleSetTranslucents translucents,
+    final OrderIndependentResources r)
+    throws RException,
+      JCacheException
+  {
+    final KFramebufferRGBADescription scene_desc =
+      framebuffer.getRGBADescription();
+    final KFramebufferRGBADescription desc =
+      KFramebufferRGBADescription.newDescription(
+        scene_desc.getArea(),
+        scene_desc.getFilterMagnification(),
+        scene_desc.getFilterMinification(),
+        KRGBAPrecision.RGBA_PRECISION_16F);
+    final AreaInclusive area = framebuffer.getArea();
+
+    final BLUCacheReceiptType<KFramebufferRGBADescription, KFramebufferOrderIndependentUsableType> receipt =
+      r.oit_cache.bluCacheGet(desc);
+
+    try {
+      final KFramebufferOrderIndependentUsableType oit = receipt.getValue();
+      r.copier.copierCopyDepthOnly(framebuffer, area, oit, area);
+
+      this.instance_renderer.framebuffer_oit = oit;
+      this.rendererEvaluateTranslucentsPass(
+        gc,
+        oit,
+        mwo,
+        translucents,
+        Pass.PASS_OIT_ACCUMULATE);
+      this.rendererEvaluateTranslucentsComposite(gc, framebuffer, oit, r);
+      this.rendererEvaluateTranslucentsPass(
+        gc,
+        framebuffer,
+        mwo,
+        translucents,
+        Pass.PASS_OIT_REMAINDER);
+
+    } finally {
+      this.instance_renderer.framebuffer_oit = null;
+      receipt.returnToCache();
     }
   }
 
-  private void rendererEvaluateTranslucentsActual(
+  private void rendererEvaluateTranslucentsPass(
+    final JCGLInterfaceGL3ES3Type gc,
     final KFramebufferRGBAWithDepthUsableType framebuffer,
     final KMatricesObserverType mwo,
-    final KVisibleSetTranslucents translucents)
+    final KVisibleSetTranslucents translucents,
+    final Pass in_pass)
     throws JCGLException,
       JCacheException,
       RException
   {
-    final JCGLInterfaceGL3ES3Type gc =
-      this.g.implementationAccept(KRendererCommon.getGL3ES3Get());
-    final KRefractionRendererType rr = this.refraction_renderer;
-    final KTextureBindingsControllerType bindings = this.texture_bindings;
+    final TranslucentInstanceRenderer v = this.instance_renderer;
+    v.framebuffer = framebuffer;
+    v.gc = gc;
+    v.mwo = mwo;
+    this.pass = in_pass;
 
     try {
       gc.framebufferDrawBind(framebuffer.getRGBAColorFramebuffer());
@@ -528,6 +1100,20 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
       // Enabled by each translucent instance
       gc.blendingDisable();
       gc.colorBufferMask(true, true, true, true);
+
+      switch (in_pass) {
+        case PASS_ORDERED:
+        case PASS_OIT_REMAINDER:
+        {
+          break;
+        }
+        case PASS_OIT_ACCUMULATE:
+        {
+          gc.colorBufferClear4f(0.0f, 0.0f, 0.0f, 0.0f);
+          break;
+        }
+      }
+
       gc.depthBufferTestEnable(DepthFunction.DEPTH_LESS_THAN_OR_EQUAL);
       gc.depthBufferWriteDisable();
 
@@ -543,93 +1129,12 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
         gc.cullingDisable();
 
         final KTranslucentType translucent = instances.get(index);
-        translucent
-          .translucentAccept(new KTranslucentVisitorType<Unit, JCacheException>() {
-            @Override public Unit refractive(
-              final KInstanceTranslucentRefractive t)
-              throws RException
-            {
-              rr.rendererRefractionEvaluate(framebuffer, mwo, t);
-              return Unit.unit();
-            }
-
-            @Override public Unit regularLit(
-              final KTranslucentRegularLit t)
-              throws RException
-            {
-              bindings
-                .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
-                  @Override public void call(
-                    final KTextureBindingsContextType c)
-                    throws RException
-                  {
-                    final KInstanceTranslucentRegular ti =
-                      t.translucentGetInstance();
-                    KRendererCommon.renderConfigureFaceCulling(
-                      gc,
-                      ti.instanceGetFaceSelection());
-                    KTranslucentRenderer.this.renderTranslucentRegularLit(
-                      gc,
-                      c,
-                      t,
-                      mwo);
-                  }
-                });
-
-              return Unit.unit();
-            }
-
-            @Override public Unit regularUnlit(
-              final KInstanceTranslucentRegular t)
-              throws RException
-            {
-              bindings
-                .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
-                  @Override public void call(
-                    final KTextureBindingsContextType c)
-                    throws RException
-                  {
-                    KRendererCommon.renderConfigureFaceCulling(
-                      gc,
-                      t.instanceGetFaceSelection());
-                    KTranslucentRenderer.this.renderTranslucentRegularUnlit(
-                      gc,
-                      c,
-                      mwo,
-                      t);
-                  }
-                });
-
-              return Unit.unit();
-            }
-
-            @Override public Unit specularOnly(
-              final KTranslucentSpecularOnlyLit t)
-              throws JCacheException,
-                RException
-            {
-              bindings
-                .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
-                  @Override public void call(
-                    final KTextureBindingsContextType c)
-                    throws RException
-                  {
-                    final KInstanceTranslucentSpecularOnly ti =
-                      t.translucentGetInstance();
-                    KRendererCommon.renderConfigureFaceCulling(
-                      gc,
-                      ti.instanceGetFaceSelection());
-                    KTranslucentRenderer.this
-                      .renderTranslucentSpecularOnlyLit(gc, c, t, mwo);
-                  }
-                });
-
-              return Unit.unit();
-            }
-          });
+        assert translucent != null;
+        translucent.translucentAccept(v);
       }
 
     } finally {
+      gc.colorBufferMask(true, true, true, true);
       gc.framebufferDrawUnbind();
     }
   }
@@ -698,12 +1203,8 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
        * contributions apply lighting to the object.
        */
 
-      if (first) {
-        gc.blendingEnable(
-          BlendFunction.BLEND_ONE,
-          BlendFunction.BLEND_ONE_MINUS_SOURCE_ALPHA);
-      } else {
-        gc.blendingEnable(BlendFunction.BLEND_ONE, BlendFunction.BLEND_ONE);
+      if (this.configureBlendingForLight(gc, first) == false) {
+        break;
       }
 
       final KProgramType kprogram =
@@ -762,9 +1263,7 @@ import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
     final KProgramType kprogram =
       this.shader_unlit_cache.cacheGetLU(shader_code);
 
-    gc.blendingEnable(
-      BlendFunction.BLEND_ONE,
-      BlendFunction.BLEND_ONE_MINUS_SOURCE_ALPHA);
+    this.configureBlendingForLight(gc, true);
 
     /**
      * Bind material textures.
@@ -0,0 +1,735 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PMatrixReadable4x4FType;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
+import com.io7m.r1.exceptions.RExceptionInstanceAlreadyInGroup;
+import com.io7m.r1.exceptions.RExceptionInstanceAlreadyUnlit;
+import com.io7m.r1.exceptions.RExceptionInstanceAlreadyVisible;
+import com.io7m.r1.exceptions.RExceptionLightGroupAlreadyAdded;
+import com.io7m.r1.exceptions.RExceptionLightGroupLacksInstances;
+import com.io7m.r1.exceptions.RExceptionLightGroupLacksLights;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFrustum;
+import com.io7m.r1.kernel.types.KInstanceBoundsFunctionType;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KInstanceTranslucentLitType;
+import com.io7m.r1.kernel.types.KInstanceTranslucentUnlitType;
+import com.io7m.r1.kernel.types.KInstanceType;
+import com.io7m.r1.kernel.types.KLightProjectiveType;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasic;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicDiffuseOnly;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicSSSoft;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicSSSoftDiffuseOnly;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowVariance;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowVarianceDiffuseOnly;
+import com.io7m.r1.kernel.types.KLightTranslucentType;
+import com.io7m.r1.kernel.types.KLightType;
+import com.io7m.r1.kernel.types.KLightWithShadowType;
+import com.io7m.r1.kernel.types.KLightWithShadowVisitorType;
+import com.io7m.r1.kernel.types.KTransformContext;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderWithCreateType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.spaces.RSpaceLightClipType;
+import com.io7m.r1.spaces.RSpaceLightEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * A frustum culling stage for visible set construction.
+ * </p>
+ * <p>
+ * The builders produced by this class have the same interface as those
+ * produced by {@link KVisibleSet#newBuilder(KCamera)}, but each opaque and
+ * translucent instance is first tested against the view frustum of the
+ * camera. Instances that cannot be visible are silently discarded, so the
+ * renderers never see them. Instances for which the bounds function yields
+ * no bounds are unbounded, and are always accepted.
+ * </p>
+ * <p>
+ * Instances outside of the view frustum may still cast shadows into it, so
+ * shadow casters are instead culled against the frustum of each
+ * shadow-casting light according to a {@link KVisibleSetShadowCulling}
+ * mode. Casters may be added for individual lights with
+ * {@link #visibleShadowsAddCaster(KLightWithShadowType, KInstanceOpaqueType)}
+ * , or for all lights at once with
+ * {@link #cullingShadowsAddCaster(KInstanceOpaqueType)}.
+ * </p>
+ * <p>
+ * A culling stage may also be placed in front of an arbitrary builder with
+ * {@link #newFilter(KTransformContext, KCamera, KInstanceBoundsFunctionType, KVisibleSetShadowCulling, KVisibleSetBuilderType)}
+ * . Culling stages are not thread-safe, but each partition of a
+ * {@link com.io7m.r1.kernel.types.KVisibleSetParallelBuilderType} may be
+ * given its own stage (and transform context), so that culling takes place
+ * in parallel.
+ * </p>
+ */
+
+@SuppressWarnings("synthetic-access") @EqualityReference public final class KVisibleSetCulling implements
+  KVisibleSetCullingBuilderType
+{
+  @EqualityReference private final class CullingGroupBuilder implements
+    KVisibleSetLightGroupBuilderType
+  {
+    private final KVisibleSetLightGroupBuilderType actual;
+
+    CullingGroupBuilder(
+      final KVisibleSetLightGroupBuilderType in_actual)
+    {
+      this.actual = NullCheck.notNull(in_actual, "Group builder");
+    }
+
+    @SuppressWarnings("synthetic-access") @Override public
+      void
+      groupAddInstance(
+        final KInstanceOpaqueType o)
+        throws RExceptionInstanceAlreadyUnlit,
+          RExceptionInstanceAlreadyInGroup,
+          RExceptionBuilderInvalid,
+          RExceptionInstanceAlreadyVisible
+    {
+      if (KVisibleSetCulling.this.isVisible(o)) {
+        this.actual.groupAddInstance(o);
+      }
+    }
+
+    @Override public void groupAddLight(
+      final KLightType light)
+      throws RExceptionBuilderInvalid
+    {
+      this.actual.groupAddLight(light);
+    }
+  }
+
+  @EqualityReference private static final class ShadowLight
+  {
+    private final KFrustum frustum;
+    private final float    position_x;
+    private final float    position_y;
+    private final float    position_z;
+    private final float    range;
+
+    ShadowLight(
+      final KFrustum in_frustum,
+      final PVectorI3F<RSpaceWorldType> in_position,
+      final float in_range)
+    {
+      this.frustum = in_frustum;
+      this.position_x = in_position.getXF();
+      this.position_y = in_position.getYF();
+      this.position_z = in_position.getZF();
+      this.range = in_range;
+    }
+  }
+
+  private static KLightProjectiveType lightGetProjective(
+    final KLightWithShadowType light)
+  {
+    try {
+      return light
+        .withShadowAccept(new KLightWithShadowVisitorType<KLightProjectiveType, UnreachableCodeException>() {
+          @Override public KLightProjectiveType projectiveWithShadowBasic(
+            final KLightProjectiveWithShadowBasic lp)
+          {
+            return lp;
+          }
+
+          @Override public
+            KLightProjectiveType
+            projectiveWithShadowBasicDiffuseOnly(
+              final KLightProjectiveWithShadowBasicDiffuseOnly lp)
+          {
+            return lp;
+          }
+
+          @Override public KLightProjectiveType projectiveWithShadowBasicSSSoft(
+            final KLightProjectiveWithShadowBasicSSSoft lp)
+          {
+            return lp;
+          }
+
+          @Override public
+            KLightProjectiveType
+            projectiveWithShadowBasicSSSoftDiffuseOnly(
+              final KLightProjectiveWithShadowBasicSSSoftDiffuseOnly lp)
+          {
+            return lp;
+          }
+
+          @Override public KLightProjectiveType projectiveWithShadowVariance(
+            final KLightProjectiveWithShadowVariance lp)
+          {
+            return lp;
+          }
+
+          @Override public
+            KLightProjectiveType
+            projectiveWithShadowVarianceDiffuseOnly(
+              final KLightProjectiveWithShadowVarianceDiffuseOnly lp)
+          {
+            return lp;
+          }
+        });
+    } catch (final RException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * The greatest value along an axis of any unit vector within
+   * <code>acos(cos_t)</code> radians of a unit vector with component
+   * <code>a</code> along that axis, or <code>0</code> if that is greater.
+   */
+
+  private static float sectorMaximum(
+    final float a,
+    final float cos_t,
+    final float sin_t)
+  {
+    if (a >= cos_t) {
+      return 1.0f;
+    }
+    final float sin_a = (float) Math.sqrt(Math.max(0.0, 1.0 - (a * a)));
+    return Math.max(0.0f, (a * cos_t) + (sin_a * sin_t));
+  }
+
+  /**
+   * The least value along an axis of any unit vector within
+   * <code>acos(cos_t)</code> radians of a unit vector with component
+   * <code>a</code> along that axis, or <code>0</code> if that is less.
+   */
+
+  private static float sectorMinimum(
+    final float a,
+    final float cos_t,
+    final float sin_t)
+  {
+    if (a <= -cos_t) {
+      return -1.0f;
+    }
+    final float sin_a = (float) Math.sqrt(Math.max(0.0, 1.0 - (a * a)));
+    return Math.min(0.0f, (a * cos_t) - (sin_a * sin_t));
+  }
+
+  /**
+   * Construct a new culling visible set builder that does not cull shadow
+   * casters.
+   *
+   * @param context
+   *          A transform context
+   * @param camera
+   *          The camera
+   * @param bounds
+   *          A function that yields object-space bounds for instances
+   * @return A new visible set builder
+   */
+
+  public static KVisibleSetCullingBuilderType newBuilder(
+    final KTransformContext context,
+    final KCamera camera,
+    final KInstanceBoundsFunctionType bounds)
+  {
+    final KVisibleSetBuilderWithCreateType b = KVisibleSet.newBuilder(camera);
+    return new KVisibleSetCulling(
+      context,
+      camera,
+      bounds,
+      KVisibleSetShadowCulling.SHADOW_CULLING_NONE,
+      b,
+      Option.some(b));
+  }
+
+  /**
+   * Construct a new culling visible set builder that culls shadow casters
+   * according to the given mode.
+   *
+   * @param context
+   *          A transform context
+   * @param camera
+   *          The camera
+   * @param bounds
+   *          A function that yields object-space bounds for instances
+   * @param shadow_culling
+   *          The type of culling applied to shadow casters
+   * @return A new visible set builder
+   */
+
+  public static KVisibleSetCullingBuilderType newBuilderWithShadowCulling(
+    final KTransformContext context,
+    final KCamera camera,
+    final KInstanceBoundsFunctionType bounds,
+    final KVisibleSetShadowCulling shadow_culling)
+  {
+    final KVisibleSetBuilderWithCreateType b = KVisibleSet.newBuilder(camera);
+    return new KVisibleSetCulling(
+      context,
+      camera,
+      bounds,
+      shadow_culling,
+      b,
+      Option.some(b));
+  }
+
+  /**
+   * Construct a new culling visible set builder that passes the instances
+   * that survive culling to the given builder, and that delegates the
+   * creation of the visible set to it. This allows culling to be combined
+   * with builders produced by, for example,
+   * {@link KVisibleSet#newBuilderWithSortOrder(KCamera, com.io7m.r1.kernel.types.KInstanceSortOrder)}
+   * . The given builder should have been created with the same camera.
+   *
+   * @param context
+   *          A transform context
+   * @param camera
+   *          The camera
+   * @param bounds
+   *          A function that yields object-space bounds for instances
+   * @param shadow_culling
+   *          The type of culling applied to shadow casters
+   * @param actual
+   *          The builder that receives visible instances and creates the set
+   * @return A new visible set builder
+   */
+
+  public static KVisibleSetCullingBuilderType newBuilderWrapping(
+    final KTransformContext context,
+    final KCamera camera,
+    final KInstanceBoundsFunctionType bounds,
+    final KVisibleSetShadowCulling shadow_culling,
+    final KVisibleSetBuilderWithCreateType actual)
+  {
+    NullCheck.notNull(actual, "Builder");
+    return new KVisibleSetCulling(
+      context,
+      camera,
+      bounds,
+      shadow_culling,
+      actual,
+      Option.some(actual));
+  }
+
+  /**
+   * Construct a new culling stage that passes the instances that survive
+   * culling to the given builder.
+   *
+   * @param context
+   *          A transform context
+   * @param camera
+   *          The camera
+   * @param bounds
+   *          A function that yields object-space bounds for instances
+   * @param shadow_culling
+   *          The type of culling applied to shadow casters
+   * @param actual
+   *          The builder that receives visible instances
+   * @return A new culling stage
+   */
+
+  public static KVisibleSetCullingFilterType newFilter(
+    final KTransformContext context,
+    final KCamera camera,
+    final KInstanceBoundsFunctionType bounds,
+    final KVisibleSetShadowCulling shadow_culling,
+    final KVisibleSetBuilderType actual)
+  {
+    final OptionType<KVisibleSetBuilderWithCreateType> none = Option.none();
+    return new KVisibleSetCulling(
+      context,
+      camera,
+      bounds,
+      shadow_culling,
+      actual,
+      none);
+  }
+
+  private long                                                    accepted;
+  private final KVisibleSetBuilderType                            actual;
+  private final KInstanceBoundsFunctionType                       bounds;
+  private final KTransformContext                                 context;
+  private final OptionType<KVisibleSetBuilderWithCreateType>      creator;
+  private final KFrustum                                          frustum;
+  private final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>   model;
+  private long                                                    rejected;
+  private long                                                    shadow_accepted;
+  private final KVisibleSetShadowCulling                          shadow_culling;
+  private final Map<KLightWithShadowType, ShadowLight>            shadow_lights;
+  private final Set<KLightWithShadowType>                         shadow_lights_known;
+  private final List<KLightWithShadowType>                        shadow_lights_ordered;
+  private long                                                    shadow_rejected;
+  private final PMatrixM4x4F<RSpaceWorldType, RSpaceLightEyeType> shadow_view;
+
+  private KVisibleSetCulling(
+    final KTransformContext in_context,
+    final KCamera in_camera,
+    final KInstanceBoundsFunctionType in_bounds,
+    final KVisibleSetShadowCulling in_shadow_culling,
+    final KVisibleSetBuilderType in_actual,
+    final OptionType<KVisibleSetBuilderWithCreateType> in_creator)
+  {
+    this.context = NullCheck.notNull(in_context, "Context");
+    this.bounds = NullCheck.notNull(in_bounds, "Bounds");
+    this.shadow_culling =
+      NullCheck.notNull(in_shadow_culling, "Shadow culling");
+    this.actual = NullCheck.notNull(in_actual, "Builder");
+    this.creator = NullCheck.notNull(in_creator, "Creator");
+    this.model = new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    this.frustum = KFrustum.newFrustum();
+    this.frustum.updateFromCamera(NullCheck.notNull(in_camera, "Camera"));
+    this.shadow_lights = new HashMap<KLightWithShadowType, ShadowLight>();
+    this.shadow_lights_known = new HashSet<KLightWithShadowType>();
+    this.shadow_lights_ordered = new ArrayList<KLightWithShadowType>();
+    this.shadow_view = new PMatrixM4x4F<RSpaceWorldType, RSpaceLightEyeType>();
+  }
+
+  @Override public long cullingGetAccepted()
+  {
+    return this.accepted;
+  }
+
+  @Override public long cullingGetRejected()
+  {
+    return this.rejected;
+  }
+
+  @Override public long cullingGetShadowCastersAccepted()
+  {
+    return this.shadow_accepted;
+  }
+
+  @Override public long cullingGetShadowCastersRejected()
+  {
+    return this.shadow_rejected;
+  }
+
+  @Override public void cullingShadowsAddCaster(
+    final KInstanceOpaqueType instance)
+    throws RExceptionBuilderInvalid
+  {
+    NullCheck.notNull(instance, "Instance");
+
+    final List<KLightWithShadowType> lights = this.shadow_lights_ordered;
+    for (int index = 0; index < lights.size(); ++index) {
+      final KLightWithShadowType light = lights.get(index);
+      assert light != null;
+      this.visibleShadowsAddCaster(light, instance);
+    }
+  }
+
+  /**
+   * Determine whether or not the given shadow caster can affect the shadows
+   * of the given light.
+   */
+
+  private boolean isShadowCasterVisible(
+    final KLightWithShadowType light,
+    final KInstanceOpaqueType i)
+  {
+    final OptionType<KBoundingBox<RSpaceObjectType>> bounds_opt =
+      NullCheck.notNull(this.bounds.instanceGetBounds(i), "Bounds");
+    if (bounds_opt.isNone()) {
+      return true;
+    }
+
+    final ShadowLight sl = this.shadowLightGet(light);
+    final KBoundingBox<RSpaceObjectType> box =
+      ((Some<KBoundingBox<RSpaceObjectType>>) bounds_opt).get();
+    i.instanceGetTransform().transformMakeMatrix4x4F(this.context, this.model);
+
+    if (sl.frustum.intersectsBoxTransformed(this.model, box) == false) {
+      return false;
+    }
+
+    if (this.shadow_culling == KVisibleSetShadowCulling.SHADOW_CULLING_LIGHT_AND_CAMERA_FRUSTUM) {
+      return this.isShadowVolumeVisible(
+        sl,
+        KBoundingBox.newTransformed(this.model, box));
+    }
+    return true;
+  }
+
+  /**
+   * Determine whether or not the shadow cast by the given world-space box
+   * can reach the view frustum.
+   *
+   * The shadow of the box is contained within the cone that has its apex at
+   * the light and that encloses the bounding sphere of the box, and cannot
+   * extend beyond the range of the light. The shadow is therefore bounded
+   * conservatively by the box combined with the bounding box of the
+   * spherical sector formed by clipping the sphere of the light's range to
+   * that cone. The sector includes the spherical cap at the end of the cone,
+   * which lies further from the light than any of the box's corners when
+   * projected to the light's range.
+   */
+
+  private boolean isShadowVolumeVisible(
+    final ShadowLight sl,
+    final KBoundingBox<RSpaceWorldType> box)
+  {
+    final PVectorI3F<RSpaceWorldType> lower = box.getLower();
+    final PVectorI3F<RSpaceWorldType> upper = box.getUpper();
+
+    final float center_x = (lower.getXF() * 0.5f) + (upper.getXF() * 0.5f);
+    final float center_y = (lower.getYF() * 0.5f) + (upper.getYF() * 0.5f);
+    final float center_z = (lower.getZF() * 0.5f) + (upper.getZF() * 0.5f);
+    final float extent_x = (upper.getXF() * 0.5f) - (lower.getXF() * 0.5f);
+    final float extent_y = (upper.getYF() * 0.5f) - (lower.getYF() * 0.5f);
+    final float extent_z = (upper.getZF() * 0.5f) - (lower.getZF() * 0.5f);
+
+    final float radius =
+      (float) Math.sqrt((extent_x * extent_x)
+        + (extent_y * extent_y)
+        + (extent_z * extent_z));
+
+    final float dx = center_x - sl.position_x;
+    final float dy = center_y - sl.position_y;
+    final float dz = center_z - sl.position_z;
+    final float distance = (float) Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+
+    /**
+     * A light inside the bounding sphere of the box can shadow anything
+     * within its range.
+     */
+
+    if (distance <= radius) {
+      return this.frustum.intersectsBoxCenterExtents(
+        sl.position_x,
+        sl.position_y,
+        sl.position_z,
+        sl.range,
+        sl.range,
+        sl.range);
+    }
+
+    final float sin_t = radius / distance;
+    final float cos_t = (float) Math.sqrt(1.0 - (sin_t * sin_t));
+    final float ax = dx / distance;
+    final float ay = dy / distance;
+    final float az = dz / distance;
+    final float r = sl.range;
+
+    final float min_x =
+      Math.min(lower.getXF(), sl.position_x
+        + (r * KVisibleSetCulling.sectorMinimum(ax, cos_t, sin_t)));
+    final float min_y =
+      Math.min(lower.getYF(), sl.position_y
+        + (r * KVisibleSetCulling.sectorMinimum(ay, cos_t, sin_t)));
+    final float min_z =
+      Math.min(lower.getZF(), sl.position_z
+        + (r * KVisibleSetCulling.sectorMinimum(az, cos_t, sin_t)));
+    final float max_x =
+      Math.max(upper.getXF(), sl.position_x
+        + (r * KVisibleSetCulling.sectorMaximum(ax, cos_t, sin_t)));
+    final float max_y =
+      Math.max(upper.getYF(), sl.position_y
+        + (r * KVisibleSetCulling.sectorMaximum(ay, cos_t, sin_t)));
+    final float max_z =
+      Math.max(upper.getZF(), sl.position_z
+        + (r * KVisibleSetCulling.sectorMaximum(az, cos_t, sin_t)));
+
+    return this.frustum.intersectsBoxCenterExtents(
+      (min_x * 0.5f) + (max_x * 0.5f),
+      (min_y * 0.5f) + (max_y * 0.5f),
+      (min_z * 0.5f) + (max_z * 0.5f),
+      (max_x * 0.5f) - (min_x * 0.5f),
+      (max_y * 0.5f) - (min_y * 0.5f),
+      (max_z * 0.5f) - (min_z * 0.5f));
+  }
+
+  private boolean isVisible(
+    final KInstanceType i)
+  {
+    NullCheck.notNull(i, "Instance");
+
+    final OptionType<KBoundingBox<RSpaceObjectType>> bounds_opt =
+      NullCheck.notNull(this.bounds.instanceGetBounds(i), "Bounds");
+    if (bounds_opt.isNone()) {
+      ++this.accepted;
+      return true;
+    }
+
+    final KBoundingBox<RSpaceObjectType> box =
+      ((Some<KBoundingBox<RSpaceObjectType>>) bounds_opt).get();
+    i.instanceGetTransform().transformMakeMatrix4x4F(this.context, this.model);
+
+    if (this.frustum.intersectsBoxTransformed(this.model, box)) {
+      ++this.accepted;
+      return true;
+    }
+
+    ++this.rejected;
+    return false;
+  }
+
+  /**
+   * Retrieve the frustum of the given light, calculating it if it has not
+   * already been calculated.
+   */
+
+  private ShadowLight shadowLightGet(
+    final KLightWithShadowType light)
+  {
+    final ShadowLight existing = this.shadow_lights.get(light);
+    if (existing != null) {
+      return existing;
+    }
+
+    final KLightProjectiveType lp = KVisibleSetCulling.lightGetProjective(light);
+    KMatrices.makeViewMatrixProjective(
+      this.context,
+      lp.lightProjectiveGetPosition(),
+      lp.lightProjectiveGetOrientation(),
+      this.shadow_view);
+
+    @SuppressWarnings("unchecked") final PMatrixReadable4x4FType<RSpaceLightEyeType, RSpaceLightClipType> projection =
+      (PMatrixReadable4x4FType<RSpaceLightEyeType, RSpaceLightClipType>) (PMatrixReadable4x4FType<?, ?>) lp
+        .lightProjectiveGetProjection()
+        .projectionGetMatrix();
+
+    final KFrustum f = KFrustum.newFrustum();
+    f.updateFromMatrices(this.shadow_view, projection);
+
+    final ShadowLight sl =
+      new ShadowLight(
+        f,
+        lp.lightProjectiveGetPosition(),
+        lp.lightProjectiveGetRange());
+    this.shadow_lights.put(light, sl);
+    this.shadowLightRegister(light);
+    return sl;
+  }
+
+  /**
+   * Record the given light so that casters added with
+   * {@link #cullingShadowsAddCaster(KInstanceOpaqueType)} are added for it.
+   * The frustum of the light is not calculated.
+   */
+
+  private void shadowLightRegister(
+    final KLightWithShadowType light)
+  {
+    if (this.shadow_lights_known.add(light)) {
+      this.shadow_lights_ordered.add(light);
+    }
+  }
+
+  @Override public KVisibleSet visibleCreate()
+    throws RExceptionLightGroupLacksInstances,
+      RExceptionLightGroupLacksLights,
+      RExceptionBuilderInvalid
+  {
+    /**
+     * Culling stages constructed with newFilter are only exposed as
+     * KVisibleSetCullingFilterType, which cannot create sets.
+     */
+
+    if (this.creator.isSome()) {
+      return ((Some<KVisibleSetBuilderWithCreateType>) this.creator)
+        .get()
+        .visibleCreate();
+    }
+    throw new UnreachableCodeException();
+  }
+
+  @Override public void visibleOpaqueAddUnlit(
+    final KInstanceOpaqueType instance)
+    throws RExceptionBuilderInvalid,
+      RExceptionInstanceAlreadyVisible
+  {
+    if (this.isVisible(instance)) {
+      this.actual.visibleOpaqueAddUnlit(instance);
+    }
+  }
+
+  @Override public KVisibleSetLightGroupBuilderType visibleOpaqueNewLightGroup(
+    final String name)
+    throws RExceptionLightGroupAlreadyAdded,
+      RExceptionBuilderInvalid
+  {
+    return new CullingGroupBuilder(this.actual.visibleOpaqueNewLightGroup(name));
+  }
+
+  @Override public void visibleShadowsAddCaster(
+    final KLightWithShadowType light,
+    final KInstanceOpaqueType instance)
+    throws RExceptionBuilderInvalid
+  {
+    NullCheck.notNull(light, "Light");
+    NullCheck.notNull(instance, "Instance");
+
+    if (this.shadow_culling == KVisibleSetShadowCulling.SHADOW_CULLING_NONE) {
+      this.shadowLightRegister(light);
+      this.actual.visibleShadowsAddCaster(light, instance);
+      return;
+    }
+
+    if (this.isShadowCasterVisible(light, instance)) {
+      ++this.shadow_accepted;
+      this.actual.visibleShadowsAddCaster(light, instance);
+    } else {
+      ++this.shadow_rejected;
+      this.actual.visibleShadowsAddLight(light);
+    }
+  }
+
+  @Override public void visibleShadowsAddLight(
+    final KLightWithShadowType light)
+    throws RExceptionBuilderInvalid
+  {
+    this.actual.visibleShadowsAddLight(light);
+    this.shadowLightRegister(light);
+  }
+
+  @Override public void visibleTranslucentsAddLit(
+    final KInstanceTranslucentLitType instance,
+    final Set<KLightTranslucentType> lights)
+    throws RExceptionBuilderInvalid
+  {
+    if (this.isVisible(instance)) {
+      this.actual.visibleTranslucentsAddLit(instance, lights);
+    }
+  }
+
+  @Override public void visibleTranslucentsAddUnlit(
+    final KInstanceTranslucentUnlitType instance)
+    throws RExceptionBuilderInvalid
+  {
+    if (this.isVisible(instance)) {
+      this.actual.visibleTranslucentsAddUnlit(instance);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderType;
+
+/**
+ * The type of visible set builders that discard instances lying outside of
+ * the view frustum of the camera, and shadow casters that cannot contribute
+ * to the shadows of their lights, before passing the remaining instances to
+ * another builder.
+ */
+
+public interface KVisibleSetCullingFilterType extends KVisibleSetBuilderType
+{
+  /**
+   * @return The number of instances that have been tested against the
+   *         frustum and added to the visible set
+   */
+
+  long cullingGetAccepted();
+
+  /**
+   * @return The number of instances that have been tested against the
+   *         frustum and discarded
+   */
+
+  long cullingGetRejected();
+
+  /**
+   * @return The number of shadow casters that have been tested and added to
+   *         the visible set
+   */
+
+  long cullingGetShadowCastersAccepted();
+
+  /**
+   * @return The number of shadow casters that have been tested and discarded
+   */
+
+  long cullingGetShadowCastersRejected();
+
+  /**
+   * Add the given instance as a shadow caster for every shadow-casting light
+   * that has been added with
+   * {@link #visibleShadowsAddLight(com.io7m.r1.kernel.types.KLightWithShadowType)}
+   * and on which the instance can have an effect, according to the current
+   * {@link KVisibleSetShadowCulling} mode.
+   *
+   * @param instance
+   *          The instance
+   * @throws RExceptionBuilderInvalid
+   *           If the builder has been invalidated
+   */
+
+  void cullingShadowsAddCaster(
+    final KInstanceOpaqueType instance)
+    throws RExceptionBuilderInvalid;
+}
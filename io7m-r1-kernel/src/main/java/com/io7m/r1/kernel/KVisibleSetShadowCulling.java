@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+/**
+ * The type of culling applied to shadow casters by
+ * {@link KVisibleSetCullingBuilderType} implementations.
+ */
+
+public enum KVisibleSetShadowCulling
+{
+  /**
+   * Shadow casters are not culled.
+   */
+
+  SHADOW_CULLING_NONE,
+
+  /**
+   * Shadow casters are discarded if they lie outside of the frustum of the
+   * shadow-casting light.
+   */
+
+  SHADOW_CULLING_LIGHT_FRUSTUM,
+
+  /**
+   * Shadow casters are discarded if they lie outside of the frustum of the
+   * shadow-casting light, or if the shadow that they cast cannot reach the
+   * view frustum of the camera.
+   */
+
+  SHADOW_CULLING_LIGHT_AND_CAMERA_FRUSTUM
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.kernel;
+
+import java.util.Collection;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingVolumeHierarchy;
+import com.io7m.r1.kernel.types.KBoundingVolumeHierarchyReceiverType;
+import com.io7m.r1.kernel.types.KFrustum;
+import com.io7m.r1.kernel.types.KInstanceBoundsFunctionType;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KInstanceType;
+import com.io7m.r1.kernel.types.KLightWithShadowType;
+import com.io7m.r1.kernel.types.KTransformContext;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetOpaquesBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetShadowsBuilderType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+/**
+ * <p>
+ * Functions for populating visible sets from a
+ * {@link KBoundingVolumeHierarchy} of instances.
+ * </p>
+ * <p>
+ * Scenes with large numbers of static instances can place those instances
+ * into a hierarchy once, and then add only the instances that intersect the
+ * view (or light) frustum to the visible set builders each frame, rather
+ * than testing every instance individually.
+ * </p>
+ */
+
+@EqualityReference public final class KVisibleSetSpatial
+{
+  /**
+   * Calculate the world-space bounds of the given instance.
+   *
+   * @param context
+   *          A transform context
+   * @param bounds
+   *          A function that yields object-space bounds for instances
+   * @param instance
+   *          The instance
+   * @return The world-space axis-aligned bounds of the instance
+   * @throws IllegalArgumentException
+   *           If the instance is unbounded. Unbounded instances cannot be
+   *           placed into a hierarchy, and should be added to visible sets
+   *           directly.
+   */
+
+  public static KBoundingBox<RSpaceWorldType> instanceGetWorldBounds(
+    final KTransformContext context,
+    final KInstanceBoundsFunctionType bounds,
+    final KInstanceType instance)
+  {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(bounds, "Bounds");
+    NullCheck.notNull(instance, "Instance");
+
+    final OptionType<KBoundingBox<RSpaceObjectType>> bounds_opt =
+      NullCheck.notNull(bounds.instanceGetBounds(instance), "Bounds");
+    if (bounds_opt.isNone()) {
+      throw new IllegalArgumentException(String.format(
+        "Instance %s is unbounded and cannot be placed into a hierarchy",
+        instance));
+    }
+
+    final KBoundingBox<RSpaceObjectType> box =
+      ((Some<KBoundingBox<RSpaceObjectType>>) bounds_opt).get();
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    instance.instanceGetTransform().transformMakeMatrix4x4F(context, m);
+    return KBoundingBox.newTransformed(m, box);
+  }
+
+  /**
+   * Insert the given instance into the given hierarchy, replacing any
+   * existing bounds for the instance.
+   *
+   * @param bvh
+   *          The hierarchy
+   * @param context
+   *          A transform context
+   * @param bounds
+   *          A function that yields object-space bounds for instances
+   * @param instance
+   *          The instance
+   * @param <T>
+   *          The precise type of instances
+   * @throws IllegalArgumentException
+   *           If the instance is unbounded
+   */
+
+  public static <T extends KInstanceType> void insertInstance(
+    final KBoundingVolumeHierarchy<T> bvh,
+    final KTransformContext context,
+    final KInstanceBoundsFunctionType bounds,
+    final T instance)
+  {
+    NullCheck.notNull(bvh, "Hierarchy");
+    bvh.insert(
+      instance,
+      KVisibleSetSpatial.instanceGetWorldBounds(context, bounds, instance));
+  }
+
+  /**
+   * Construct a new balanced hierarchy from the given instances.
+   *
+   * @param context
+   *          A transform context
+   * @param bounds
+   *          A function that yields object-space bounds for instances
+   * @param instances
+   *          The instances
+   * @return A new hierarchy
+   * @param <T>
+   *          The precise type of instances
+   * @throws IllegalArgumentException
+   *           If any of the instances are unbounded
+   */
+
+  public static <T extends KInstanceType> KBoundingVolumeHierarchy<T> newHierarchyFromInstances(
+    final KTransformContext context,
+    final KInstanceBoundsFunctionType bounds,
+    final Collection<T> instances)
+  {
+    NullCheck.notNull(instances, "Instances");
+
+    final KBoundingVolumeHierarchy<T> bvh =
+      KBoundingVolumeHierarchy.newHierarchy();
+    for (final T i : instances) {
+      assert i != null;
+      bvh.insert(i, KVisibleSetSpatial.instanceGetWorldBounds(
+        context,
+        bounds,
+        i));
+    }
+    bvh.rebuild();
+    return bvh;
+  }
+
+  /**
+   * Add all instances in <code>bvh</code> that may intersect
+   * <code>frustum</code> to the given light group.
+   *
+   * @param bvh
+   *          The hierarchy
+   * @param frustum
+   *          The frustum
+   * @param group
+   *          The light group
+   * @throws RException
+   *           If the group rejects an instance
+   */
+
+  public static void opaquesAddVisibleToGroup(
+    final KBoundingVolumeHierarchy<? extends KInstanceOpaqueType> bvh,
+    final KFrustum frustum,
+    final KVisibleSetLightGroupBuilderType group)
+    throws RException
+  {
+    NullCheck.notNull(bvh, "Hierarchy");
+    NullCheck.notNull(frustum, "Frustum");
+    NullCheck.notNull(group, "Group");
+
+    KVisibleSetSpatial.queryOpaque(
+      bvh,
+      frustum,
+      new KBoundingVolumeHierarchyReceiverType<KInstanceOpaqueType, RException>() {
+        @Override public void receiveItem(
+          final KInstanceOpaqueType item)
+          throws RException
+        {
+          group.groupAddInstance(item);
+        }
+      });
+  }
+
+  /**
+   * Add all instances in <code>bvh</code> that may intersect
+   * <code>frustum</code> to the given builder as unlit instances.
+   *
+   * @param bvh
+   *          The hierarchy
+   * @param frustum
+   *          The frustum
+   * @param builder
+   *          The builder
+   * @throws RException
+   *           If the builder rejects an instance
+   */
+
+  public static void opaquesAddVisibleUnlit(
+    final KBoundingVolumeHierarchy<? extends KInstanceOpaqueType> bvh,
+    final KFrustum frustum,
+    final KVisibleSetOpaquesBuilderType builder)
+    throws RException
+  {
+    NullCheck.notNull(bvh, "Hierarchy");
+    NullCheck.notNull(frustum, "Frustum");
+    NullCheck.notNull(builder, "Builder");
+
+    KVisibleSetSpatial.queryOpaque(
+      bvh,
+      frustum,
+      new KBoundingVolumeHierarchyReceiverType<KInstanceOpaqueType, RException>() {
+        @Override public void receiveItem(
+          final KInstanceOpaqueType item)
+          throws RException
+        {
+          builder.visibleOpaqueAddUnlit(item);
+        }
+      });
+  }
+
+  private static <T extends KInstanceOpaqueType> void queryOpaque(
+    final KBoundingVolumeHierarchy<T> bvh,
+    final KFrustum frustum,
+    final KBoundingVolumeHierarchyReceiverType<KInstanceOpaqueType, RException> r)
+    throws RException
+  {
+    bvh.queryFrustum(
+      frustum,
+      new KBoundingVolumeHierarchyReceiverType<T, RException>() {
+        @Override public void receiveItem(
+          final T item)
+          throws RException
+        {
+          r.receiveItem(item);
+        }
+      });
+  }
+
+  /**
+   * Add all instances in <code>bvh</code> that may intersect
+   * <code>frustum</code> to the given builder as shadow casters for
+   * <code>light</code>. The frustum would typically be that of the light.
+   *
+   * @param bvh
+   *          The hierarchy
+   * @param frustum
+   *          The frustum
+   * @param light
+   *          The shadow-casting light
+   * @param builder
+   *          The builder
+   * @throws RException
+   *           If the builder rejects an instance
+   */
+
+  public static void shadowsAddCasters(
+    final KBoundingVolumeHierarchy<? extends KInstanceOpaqueType> bvh,
+    final KFrustum frustum,
+    final KLightWithShadowType light,
+    final KVisibleSetShadowsBuilderType builder)
+    throws RException
+  {
+    NullCheck.notNull(bvh, "Hierarchy");
+    NullCheck.notNull(frustum, "Frustum");
+    NullCheck.notNull(light, "Light");
+    NullCheck.notNull(builder, "Builder");
+
+    KVisibleSetSpatial.queryOpaque(
+      bvh,
+      frustum,
+      new KBoundingVolumeHierarchyReceiverType<KInstanceOpaqueType, RException>() {
+        @Override public void receiveItem(
+          final KInstanceOpaqueType item)
+          throws RException
+        {
+          builder.visibleShadowsAddCaster(light, item);
+        }
+      });
+  }
+
+  private KVisibleSetSpatial()
+  {
+    throw new UnreachableCodeException();
+  }
+}
@@ -31,8 +31,50 @@ import com.io7m.junreachable.UnreachableCodeException;
   }
 
   /**
-   * The currently supported RMB version.
+   * The alignment in bytes of the vertex block in files of version
+   * {@link #RMB_VERSION_INTERLEAVED} and later.
    */
 
-  public static final int RMB_VERSION = 1;
+  public static final int RMB_BLOCK_ALIGNMENT     = 16;
+
+  /**
+   * The current RMB version, written by the exporter.
+   */
+
+  public static final int RMB_VERSION             = 3;
+
+  /**
+   * The first RMB version that stores mesh bounds in the header. The bounds
+   * consist of ten 32-bit floats immediately following the triangle count:
+   * the lower and upper corners of the bounding box, followed by the center
+   * and radius of the bounding sphere.
+   */
+
+  public static final int RMB_VERSION_BOUNDS      = 2;
+
+  /**
+   * <p>
+   * The first RMB version that stores vertex and index data in the layout
+   * used by OpenGL buffers. The bounds are followed by the width in bytes of
+   * each index (<code>2</code> or <code>4</code>) as an unsigned 32-bit
+   * integer, and a CRC32 checksum of the vertex and index blocks as an
+   * unsigned 32-bit integer. The header is then padded with zeroes to a
+   * {@link #RMB_BLOCK_ALIGNMENT} boundary, as computed by {@link RBAlign}.
+   * </p>
+   * <p>
+   * The header remains big-endian, but the vertex and index blocks are
+   * stored in little-endian order. The vertex block is byte-for-byte
+   * identical to an array buffer of the standard mesh type (position,
+   * normal, tangent4, uv) on little-endian hosts, and the index block is
+   * followed by zero padding up to a multiple of four bytes.
+   * </p>
+   */
+
+  public static final int RMB_VERSION_INTERLEAVED = 3;
+
+  /**
+   * The oldest RMB version that can still be read.
+   */
+
+  public static final int RMB_VERSION_MINIMUM     = 1;
 }
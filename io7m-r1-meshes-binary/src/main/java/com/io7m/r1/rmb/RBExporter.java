@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.List;
+import java.util.zip.CRC32;
 
 import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jintegers.Unsigned16;
@@ -29,6 +30,9 @@ import com.io7m.jnull.NullCheck;
 import com.io7m.jtensors.parameterized.PVectorI2F;
 import com.io7m.jtensors.parameterized.PVectorI3F;
 import com.io7m.jtensors.parameterized.PVectorI4F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingSphere;
+import com.io7m.r1.meshes.RMeshBoundsAccumulator;
 import com.io7m.r1.meshes.RMeshTangents;
 import com.io7m.r1.meshes.RMeshTangentsVertex;
 import com.io7m.r1.meshes.RMeshTriangle;
@@ -51,6 +55,114 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     return new RBExporter();
   }
 
+  private static int indexWidth(
+    final RMeshTangents m)
+  {
+    if (m.verticesGet().size() <= 65536) {
+      return 2;
+    }
+    return 4;
+  }
+
+  private static ByteBuffer makeIndices(
+    final RMeshTangents m,
+    final int index_width)
+  {
+    final List<RMeshTriangle> triangles = m.trianglesGet();
+    final ByteBuffer b =
+      ByteBuffer.allocate(triangles.size() * 3 * index_width);
+    assert b != null;
+    b.order(ByteOrder.LITTLE_ENDIAN);
+
+    for (final RMeshTriangle t : triangles) {
+      RBExporter.putIndex(b, t.getV0(), index_width);
+      RBExporter.putIndex(b, t.getV1(), index_width);
+      RBExporter.putIndex(b, t.getV2(), index_width);
+    }
+    return b;
+  }
+
+  private static ByteBuffer makeVertices(
+    final RMeshTangents m)
+  {
+    final List<RMeshTangentsVertex> vertices = m.verticesGet();
+    final List<PVectorI3F<RSpaceObjectType>> positions = m.positionsGet();
+    final List<PVectorI3F<RSpaceObjectType>> normals = m.normalsGet();
+    final List<PVectorI2F<RSpaceTextureType>> uvs = m.uvsGet();
+    final List<PVectorI4F<RSpaceObjectType>> tangents = m.tangentsGet();
+
+    final ByteBuffer b =
+      ByteBuffer.allocate(vertices.size()
+        * RBImporterMapped.VERTEX_SIZE_BYTES);
+    assert b != null;
+    b.order(ByteOrder.LITTLE_ENDIAN);
+
+    for (final RMeshTangentsVertex v : vertices) {
+      assert v != null;
+      RBExporter.putPosition(b, positions, v);
+      RBExporter.putNormal(b, normals, v);
+      RBExporter.putTangent(b, tangents, v);
+      RBExporter.putUV(b, uvs, v);
+    }
+    return b;
+  }
+
+  private static void putIndex(
+    final ByteBuffer b,
+    final long index,
+    final int index_width)
+  {
+    if (index_width == 2) {
+      b.putShort((short) index);
+    } else {
+      b.putInt((int) index);
+    }
+  }
+
+  private static void putNormal(
+    final ByteBuffer b,
+    final List<PVectorI3F<RSpaceObjectType>> normals,
+    final RMeshTangentsVertex v)
+  {
+    final PVectorI3F<RSpaceObjectType> n = normals.get(v.getNormal());
+    b.putFloat(n.getXF());
+    b.putFloat(n.getYF());
+    b.putFloat(n.getZF());
+  }
+
+  private static void putPosition(
+    final ByteBuffer b,
+    final List<PVectorI3F<RSpaceObjectType>> positions,
+    final RMeshTangentsVertex v)
+  {
+    final PVectorI3F<RSpaceObjectType> p = positions.get(v.getPosition());
+    b.putFloat(p.getXF());
+    b.putFloat(p.getYF());
+    b.putFloat(p.getZF());
+  }
+
+  private static void putTangent(
+    final ByteBuffer b,
+    final List<PVectorI4F<RSpaceObjectType>> tangents,
+    final RMeshTangentsVertex v)
+  {
+    final PVectorI4F<RSpaceObjectType> t = tangents.get(v.getTangent());
+    b.putFloat(t.getXF());
+    b.putFloat(t.getYF());
+    b.putFloat(t.getZF());
+    b.putFloat(t.getWF());
+  }
+
+  private static void putUV(
+    final ByteBuffer b,
+    final List<PVectorI2F<RSpaceTextureType>> uvs,
+    final RMeshTangentsVertex v)
+  {
+    final PVectorI2F<RSpaceTextureType> u = uvs.get(v.getUV());
+    b.putFloat(u.getXF());
+    b.putFloat(u.getYF());
+  }
+
   private static void writeMagicNumber(
     final OutputStream s)
     throws IOException
@@ -61,10 +173,22 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     s.write(0x0A);
   }
 
-  private final ByteBuffer temp;
+  private static void writePadding(
+    final int count,
+    final OutputStream s)
+    throws IOException
+  {
+    for (int index = 0; index < count; ++index) {
+      s.write(0x0);
+    }
+  }
+
+  private final RMeshBoundsAccumulator bounds;
+  private final ByteBuffer             temp;
 
   private RBExporter()
   {
+    this.bounds = RMeshBoundsAccumulator.newAccumulator();
     final ByteBuffer m = ByteBuffer.allocate(8);
     assert m != null;
     this.temp = m;
@@ -90,15 +214,66 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     NullCheck.notNull(m, "Mesh");
     NullCheck.notNull(s, "Output stream");
 
+    /**
+     * The vertex and index blocks are assembled in memory first, as the
+     * header contains their checksum.
+     */
+
+    final int index_width = RBExporter.indexWidth(m);
+    final ByteBuffer vertices = RBExporter.makeVertices(m);
+    final ByteBuffer indices = RBExporter.makeIndices(m, index_width);
+    final byte[] vertices_data = vertices.array();
+    final byte[] indices_data = indices.array();
+
+    final CRC32 crc = new CRC32();
+    crc.update(vertices_data);
+    crc.update(indices_data);
+
     RBExporter.writeMagicNumber(s);
     this.writeUnsigned32(RBConstants.RMB_VERSION, s);
 
-    this.writeName(m, s);
+    final long name_size = this.writeName(m, s);
     this.writeVerticesSize(s, m.verticesGet());
     this.writeTrianglesSize(s, m.trianglesGet());
+    this.writeBounds(m, s);
+    this.writeUnsigned32(index_width, s);
+    this.writeUnsigned32(crc.getValue(), s);
+
+    final int header_size = (int) (4 + 4 + name_size + 4 + 4 + (10 * 4) + 8);
+    final int header_aligned =
+      (int) RBAlign.alignedSize(
+        header_size,
+        RBConstants.RMB_BLOCK_ALIGNMENT);
+    RBExporter.writePadding(header_aligned - header_size, s);
+
+    s.write(vertices_data);
+    s.write(indices_data);
+    RBExporter.writePadding((4 - (indices_data.length % 4)) % 4, s);
+  }
 
-    this.writeVertices(m, s);
-    this.writeTriangles(m, s);
+  private void writeBounds(
+    final RMeshTangents m,
+    final OutputStream s)
+    throws IOException
+  {
+    final List<RMeshTangentsVertex> vertices = m.verticesGet();
+    final List<PVectorI3F<RSpaceObjectType>> positions = m.positionsGet();
+
+    this.bounds.reset();
+    for (final RMeshTangentsVertex v : vertices) {
+      final PVectorI3F<RSpaceObjectType> p = positions.get(v.getPosition());
+      assert p != null;
+      this.bounds.addPosition(p);
+    }
+
+    final KBoundingBox<RSpaceObjectType> box = this.bounds.getBoundingBox();
+    final KBoundingSphere<RSpaceObjectType> sphere =
+      this.bounds.getBoundingSphere();
+
+    this.writeVector3f(box.getLower(), s);
+    this.writeVector3f(box.getUpper(), s);
+    this.writeVector3f(sphere.getCenter(), s);
+    this.writeFloat32(sphere.getRadius(), s);
   }
 
   private void writeFloat32(
@@ -112,7 +287,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     s.write(a, 0, 4);
   }
 
-  private void writeName(
+  private long writeName(
     final RMeshTangents m,
     final OutputStream s)
     throws IOException
@@ -131,60 +306,8 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     this.writeUnsigned16(name_length, s);
     s.write(name_bytes);
 
-    for (int index = 0; index < pad_size; ++index) {
-      s.write(0x0);
-    }
-  }
-
-  private void writeNormal(
-    final OutputStream s,
-    final List<PVectorI3F<RSpaceObjectType>> normals,
-    final RMeshTangentsVertex v)
-    throws IOException
-  {
-    final PVectorI3F<RSpaceObjectType> n = normals.get(v.getNormal());
-    this.writeFloat32(n.getXF(), s);
-    this.writeFloat32(n.getYF(), s);
-    this.writeFloat32(n.getZF(), s);
-  }
-
-  private void writePosition(
-    final OutputStream s,
-    final List<PVectorI3F<RSpaceObjectType>> positions,
-    final RMeshTangentsVertex v)
-    throws IOException
-  {
-    final PVectorI3F<RSpaceObjectType> p = positions.get(v.getPosition());
-    this.writeFloat32(p.getXF(), s);
-    this.writeFloat32(p.getYF(), s);
-    this.writeFloat32(p.getZF(), s);
-  }
-
-  private void writeTangent(
-    final OutputStream s,
-    final List<PVectorI4F<RSpaceObjectType>> tangents,
-    final RMeshTangentsVertex v)
-    throws IOException
-  {
-    final PVectorI4F<RSpaceObjectType> t = tangents.get(v.getTangent());
-    this.writeFloat32(t.getXF(), s);
-    this.writeFloat32(t.getYF(), s);
-    this.writeFloat32(t.getZF(), s);
-    this.writeFloat32(t.getWF(), s);
-  }
-
-  private void writeTriangles(
-    final RMeshTangents m,
-    final OutputStream s)
-    throws IOException
-  {
-    final List<RMeshTriangle> triangles = m.trianglesGet();
-
-    for (final RMeshTriangle t : triangles) {
-      this.writeUnsigned32(t.getV0(), s);
-      this.writeUnsigned32(t.getV1(), s);
-      this.writeUnsigned32(t.getV2(), s);
-    }
+    RBExporter.writePadding(pad_size, s);
+    return name_aligned_size;
   }
 
   private void writeTrianglesSize(
@@ -217,37 +340,14 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     s.write(a, 0, 4);
   }
 
-  private void writeUV(
-    final OutputStream s,
-    final List<PVectorI2F<RSpaceTextureType>> uvs,
-    final RMeshTangentsVertex v)
-    throws IOException
-  {
-    {
-      final PVectorI2F<RSpaceTextureType> u = uvs.get(v.getUV());
-      this.writeFloat32(u.getXF(), s);
-      this.writeFloat32(u.getYF(), s);
-    }
-  }
-
-  private void writeVertices(
-    final RMeshTangents m,
+  private void writeVector3f(
+    final PVectorI3F<RSpaceObjectType> v,
     final OutputStream s)
     throws IOException
   {
-    final List<RMeshTangentsVertex> vertices = m.verticesGet();
-    final List<PVectorI3F<RSpaceObjectType>> positions = m.positionsGet();
-    final List<PVectorI3F<RSpaceObjectType>> normals = m.normalsGet();
-    final List<PVectorI2F<RSpaceTextureType>> uvs = m.uvsGet();
-    final List<PVectorI4F<RSpaceObjectType>> tangents = m.tangentsGet();
-
-    for (final RMeshTangentsVertex v : vertices) {
-      assert v != null;
-      this.writePosition(s, positions, v);
-      this.writeNormal(s, normals, v);
-      this.writeTangent(s, tangents, v);
-      this.writeUV(s, uvs, v);
-    }
+    this.writeFloat32(v.getXF(), s);
+    this.writeFloat32(v.getYF(), s);
+    this.writeFloat32(v.getZF(), s);
   }
 
   private void writeVerticesSize(
@@ -20,18 +20,20 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jlog.LogLevel;
 import com.io7m.jlog.LogType;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.NullCheck;
-import com.io7m.jtensors.VectorM3F;
 import com.io7m.jtensors.parameterized.PVectorI2F;
 import com.io7m.jtensors.parameterized.PVectorI3F;
 import com.io7m.jtensors.parameterized.PVectorI4F;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.exceptions.RExceptionIO;
+import com.io7m.r1.meshes.RMeshBoundsAccumulator;
 import com.io7m.r1.meshes.RMeshParserEventsType;
 import com.io7m.r1.spaces.RSpaceObjectType;
 import com.io7m.r1.spaces.RSpaceTextureType;
@@ -146,8 +148,17 @@ import com.io7m.r1.spaces.RSpaceTextureType;
       final RBInfo info = RBInfo.parseFromStream(in_log, in_s);
 
       this.events.eventMeshName(info.getName());
-      this.readVertices(in_s, info, in_log.with("vertices"));
-      this.readTriangles(in_s, info, in_log.with("triangles"));
+
+      /**
+       * The vertex and index blocks are read in the byte order of the file
+       * version, and checksummed as they are read.
+       */
+
+      this.temp.order(info.getDataByteOrder());
+      final CheckedInputStream data =
+        new CheckedInputStream(in_s, new CRC32());
+      this.readVertices(data, info, in_log.with("vertices"));
+      this.readTriangles(data, info, in_log.with("triangles"));
 
     } catch (final RException e) {
       in_events.eventError(e);
@@ -161,7 +172,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
   }
 
   private void readTriangles(
-    final InputStream in_s,
+    final CheckedInputStream in_s,
     final RBInfo info,
     final LogType log)
     throws E,
@@ -169,6 +180,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
       IOException
   {
     final long count = info.getTriangleCount();
+    final int width = info.getIndexWidth();
 
     if (log.wouldLog(LogLevel.LOG_DEBUG)) {
       log.debug(String.format("reading %d triangles", count));
@@ -181,12 +193,13 @@ import com.io7m.r1.spaces.RSpaceTextureType;
         log.debug(String.format("reading triangle %d", index));
       }
 
-      final long v0 = RBParsing.readUnsigned32(this.temp, in_s);
-      final long v1 = RBParsing.readUnsigned32(this.temp, in_s);
-      final long v2 = RBParsing.readUnsigned32(this.temp, in_s);
+      final long v0 = RBParsing.readIndex(this.temp, in_s, width);
+      final long v1 = RBParsing.readIndex(this.temp, in_s, width);
+      final long v2 = RBParsing.readIndex(this.temp, in_s, width);
       this.events.eventMeshTriangle(index, v0, v1, v2);
     }
 
+    RBParsing.checkChecksum(info, in_s.getChecksum().getValue());
     this.events.eventMeshTrianglesEnded();
   }
 
@@ -206,10 +219,8 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 
     this.events.eventMeshVerticesStarted((int) count);
 
-    final VectorM3F bounds_lower =
-      new VectorM3F(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-    final VectorM3F bounds_upper =
-      new VectorM3F(Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE);
+    final RMeshBoundsAccumulator bounds =
+      RMeshBoundsAccumulator.newAccumulator();
 
     for (int index = 0; index < count; ++index) {
       if (log.wouldLog(LogLevel.LOG_DEBUG)) {
@@ -227,15 +238,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
       final PVectorI2F<RSpaceTextureType> uv =
         RBImporter.readUV(this.temp, in_s);
 
-      bounds_lower.set3F(
-        Math.min(position.getXF(), bounds_lower.getXF()),
-        Math.min(position.getYF(), bounds_lower.getYF()),
-        Math.min(position.getZF(), bounds_lower.getZF()));
-
-      bounds_upper.set3F(
-        Math.max(position.getXF(), bounds_upper.getXF()),
-        Math.max(position.getYF(), bounds_upper.getYF()),
-        Math.max(position.getZF(), bounds_upper.getZF()));
+      bounds.addPosition(position);
 
       this.events.eventMeshVertexPosition(index, position);
       this.events.eventMeshVertexNormal(index, normal);
@@ -245,9 +248,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     }
 
     this.events.eventMeshVerticesEnded(
-      new PVectorI3F<RSpaceObjectType>(bounds_lower.getXF(), bounds_lower
-        .getYF(), bounds_lower.getZF()),
-      new PVectorI3F<RSpaceObjectType>(bounds_upper.getXF(), bounds_upper
-        .getYF(), bounds_upper.getZF()));
+      bounds.getLower(),
+      bounds.getUpper());
   }
 }
@@ -0,0 +1,550 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.rmb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.CRC32;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayBufferUpdateUnmapped;
+import com.io7m.jcanephora.ArrayBufferUpdateUnmappedType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.IndexBufferUpdateUnmapped;
+import com.io7m.jcanephora.IndexBufferUpdateUnmappedType;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLArrayBuffersType;
+import com.io7m.jcanephora.api.JCGLIndexBuffersType;
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionIO;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.spaces.RSpaceObjectType;
+
+/**
+ * <p>
+ * A memory-mapped RMB importer.
+ * </p>
+ * <p>
+ * The on-disk vertex layout of an RMB file is identical to the interleaved
+ * layout of the array buffers produced by
+ * <code>RMeshParserEventsVBO</code> (position, normal,
+ * tangent, uv). The importer therefore maps the file into memory and copies
+ * the vertex and triangle blocks into array and index buffer updates in bulk,
+ * without producing any per-vertex objects or parser events.
+ * </p>
+ * <p>
+ * Files of version {@link RBConstants#RMB_VERSION_INTERLEAVED} and later
+ * store both blocks in little-endian order, and so the copies reduce to a
+ * single <code>memcpy</code> on little-endian hosts when the index widths
+ * agree. Their checksums are verified when the file is mapped.
+ * </p>
+ */
+
+@EqualityReference public final class RBImporterMapped
+{
+  /**
+   * An input stream that reads from a mapped buffer, advancing the position
+   * of the buffer. Used to parse the mesh header with the same code as the
+   * stream importer.
+   */
+
+  private static final class BufferInputStream extends InputStream
+  {
+    private final ByteBuffer buffer;
+
+    BufferInputStream(
+      final ByteBuffer in_buffer)
+    {
+      this.buffer = in_buffer;
+    }
+
+    @Override public int read()
+    {
+      if (this.buffer.hasRemaining() == false) {
+        return -1;
+      }
+      return this.buffer.get() & 0xff;
+    }
+
+    @Override public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+    {
+      if (len == 0) {
+        return 0;
+      }
+      if (this.buffer.hasRemaining() == false) {
+        return -1;
+      }
+      final int r = Math.min(len, this.buffer.remaining());
+      this.buffer.get(b, off, r);
+      return r;
+    }
+  }
+
+  /**
+   * The size in bytes of a single vertex in an RMB file.
+   */
+
+  public static final int VERTEX_SIZE_BYTES;
+
+  static {
+    VERTEX_SIZE_BYTES = (3 + 3 + 4 + 2) * 4;
+  }
+
+  private static KBoundingBox<RSpaceObjectType> calculateBounds(
+    final FloatBuffer vertices,
+    final long count)
+  {
+    float lx = Float.POSITIVE_INFINITY;
+    float ly = Float.POSITIVE_INFINITY;
+    float lz = Float.POSITIVE_INFINITY;
+    float ux = Float.NEGATIVE_INFINITY;
+    float uy = Float.NEGATIVE_INFINITY;
+    float uz = Float.NEGATIVE_INFINITY;
+
+    final int stride = RBImporterMapped.VERTEX_SIZE_BYTES / 4;
+    for (int index = 0; index < count; ++index) {
+      final int base = index * stride;
+      final float x = vertices.get(base);
+      final float y = vertices.get(base + 1);
+      final float z = vertices.get(base + 2);
+      lx = Math.min(lx, x);
+      ly = Math.min(ly, y);
+      lz = Math.min(lz, z);
+      ux = Math.max(ux, x);
+      uy = Math.max(uy, y);
+      uz = Math.max(uz, z);
+    }
+
+    return KBoundingBox.newBox(
+      new PVectorI3F<RSpaceObjectType>(lx, ly, lz),
+      new PVectorI3F<RSpaceObjectType>(ux, uy, uz));
+  }
+
+  private static void checkChecksum(
+    final RBInfo info,
+    final ByteBuffer data)
+    throws RBExceptionChecksumMismatch
+  {
+    if (info.getChecksum().isSome()) {
+      final CRC32 crc = new CRC32();
+      final byte[] chunk = new byte[65536];
+      final ByteBuffer d = data.duplicate();
+      while (d.hasRemaining()) {
+        final int size = Math.min(chunk.length, d.remaining());
+        d.get(chunk, 0, size);
+        crc.update(chunk, 0, size);
+      }
+      RBParsing.checkChecksum(info, crc.getValue());
+    }
+  }
+
+  private static void checkTargetSize(
+    final long expected,
+    final long received,
+    final String what)
+  {
+    if (expected != received) {
+      final StringBuilder m = new StringBuilder();
+      m.append("Target ");
+      m.append(what);
+      m.append(" data is ");
+      m.append(received);
+      m.append(" bytes, but the mesh requires ");
+      m.append(expected);
+      m.append(" bytes");
+      final String s = m.toString();
+      assert s != null;
+      throw new IllegalStateException(s);
+    }
+  }
+
+  private static void checkIndexFits(
+    final long value,
+    final long maximum,
+    final long index)
+  {
+    if (value > maximum) {
+      final StringBuilder m = new StringBuilder();
+      m.append("Index ");
+      m.append(index);
+      m.append(" has value ");
+      m.append(value);
+      m.append(", but the target index type can only hold values up to ");
+      m.append(maximum);
+      final String s = m.toString();
+      assert s != null;
+      throw new IllegalStateException(s);
+    }
+  }
+
+  private static ByteBuffer mapFile(
+    final File file)
+    throws IOException
+  {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel c = raf.getChannel();
+      final ByteBuffer b = c.map(MapMode.READ_ONLY, 0, c.size());
+      assert b != null;
+      return b;
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Map the given file into memory and parse the mesh header.
+   *
+   * @param file
+   *          The file.
+   * @param log
+   *          A log interface.
+   * @return A mapped mesh.
+   * @throws RException
+   *           On I/O errors, or if the file is not a valid RMB file.
+   */
+
+  public static RBImporterMapped mapFromFile(
+    final File file,
+    final LogUsableType log)
+    throws RException
+  {
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(log, "Log");
+
+    try {
+      final ByteBuffer b = RBImporterMapped.mapFile(file);
+      b.order(ByteOrder.BIG_ENDIAN);
+
+      final RBInfo info =
+        RBInfo.parseFromStream(log, new BufferInputStream(b));
+
+      final long vertex_size =
+        info.getVertexCount() * RBImporterMapped.VERTEX_SIZE_BYTES;
+      final long triangle_size =
+        info.getTriangleCount() * 3 * info.getIndexWidth();
+
+      if (log.wouldLog(LogLevel.LOG_DEBUG)) {
+        final String s =
+          String.format(
+            "mapped %d bytes, %d vertex bytes at %d, %d triangle bytes",
+            b.capacity(),
+            vertex_size,
+            b.position(),
+            triangle_size);
+        assert s != null;
+        log.debug(s);
+      }
+
+      if (b.remaining() < (vertex_size + triangle_size)) {
+        throw new RBExceptionUnexpectedEOF("Unexpected EOF");
+      }
+
+      final ByteBuffer data = b.slice();
+      data.limit((int) (vertex_size + triangle_size));
+      RBImporterMapped.checkChecksum(info, data);
+
+      final ByteBuffer vertices = b.slice();
+      vertices.limit((int) vertex_size);
+      b.position(b.position() + (int) vertex_size);
+      final ByteBuffer triangles = b.slice();
+      triangles.limit((int) triangle_size);
+
+      return new RBImporterMapped(
+        info,
+        NullCheck.notNull(vertices.slice()),
+        NullCheck.notNull(triangles.slice()));
+    } catch (final IOException e) {
+      throw RExceptionIO.fromIOException(e);
+    }
+  }
+
+  private final RBInfo          info;
+  private final ByteOrder       order;
+  private final ByteBuffer      triangles;
+  private final ArrayDescriptor type;
+  private final ByteBuffer      vertices;
+
+  private RBImporterMapped(
+    final RBInfo in_info,
+    final ByteBuffer in_vertices,
+    final ByteBuffer in_triangles)
+  {
+    this.info = NullCheck.notNull(in_info, "Info");
+    this.vertices = NullCheck.notNull(in_vertices, "Vertices");
+    this.triangles = NullCheck.notNull(in_triangles, "Triangles");
+    this.order = in_info.getDataByteOrder();
+    this.type = KMesh.getStandardDescriptor();
+  }
+
+  /**
+   * Copy the triangle block of the mesh into the given index buffer update.
+   * The update must replace the entire contents of an index buffer holding
+   * exactly <code>3 * triangle_count</code> indices, of any unsigned type.
+   * If the target type is narrower than the indices in the file, every index
+   * must be representable in the target type.
+   *
+   * @param u
+   *          The index buffer update.
+   */
+
+  public void copyTriangles(
+    final IndexBufferUpdateUnmappedType u)
+  {
+    NullCheck.notNull(u, "Update");
+
+    final long index_count = this.info.getTriangleCount() * 3;
+    final int source_width = this.info.getIndexWidth();
+    final long size = u.getTargetDataSize();
+    final ByteBuffer target = u.getTargetData();
+
+    if ((size == (index_count * source_width))
+      && (target.order() == this.order)) {
+      target.duplicate().put(this.triangles.duplicate());
+      return;
+    }
+
+    final ByteBuffer source = this.triangles.duplicate().order(this.order);
+    final IntBuffer source_int = source.asIntBuffer();
+    final ShortBuffer source_short = source.asShortBuffer();
+
+    if (size == (index_count * 4)) {
+      final IntBuffer t = target.asIntBuffer();
+      if (source_width == 4) {
+        t.put(source_int);
+      } else {
+        for (int index = 0; index < index_count; ++index) {
+          t.put(index, source_short.get(index) & 0xffff);
+        }
+      }
+      return;
+    }
+
+    if (size == (index_count * 2)) {
+      final ShortBuffer t = target.asShortBuffer();
+      if (source_width == 2) {
+        t.put(source_short);
+      } else {
+        for (int index = 0; index < index_count; ++index) {
+          final long v = source_int.get(index) & 0xffffffffL;
+          RBImporterMapped.checkIndexFits(v, 0xffffL, index);
+          t.put(index, (short) v);
+        }
+      }
+      return;
+    }
+
+    if (size == index_count) {
+      final ByteBuffer t = target.duplicate();
+      for (int index = 0; index < index_count; ++index) {
+        final long v;
+        if (source_width == 4) {
+          v = source_int.get(index) & 0xffffffffL;
+        } else {
+          v = source_short.get(index) & 0xffffL;
+        }
+        RBImporterMapped.checkIndexFits(v, 0xffL, index);
+        t.put((byte) v);
+      }
+      return;
+    }
+
+    RBImporterMapped.checkTargetSize(index_count * 4, size, "index");
+  }
+
+  /**
+   * Copy the vertex block of the mesh into the given array buffer update. The
+   * update must replace the entire contents of an array buffer of
+   * <code>vertex_count</code> elements of type
+   * {@link #getArrayDescriptor()}.
+   *
+   * @param u
+   *          The array buffer update.
+   */
+
+  public void copyVertices(
+    final ArrayBufferUpdateUnmappedType u)
+  {
+    NullCheck.notNull(u, "Update");
+
+    RBImporterMapped.checkTargetSize(
+      this.vertices.capacity(),
+      u.getTargetDataSize(),
+      "vertex");
+
+    final ByteBuffer target = u.getTargetData();
+
+    /**
+     * If the byte order of the file matches that of the target, the block
+     * can be copied directly. Otherwise, the float views perform the byte
+     * swapping.
+     */
+
+    if (target.order() == this.order) {
+      target.duplicate().put(this.vertices.duplicate());
+    } else {
+      final ByteBuffer source = this.vertices.duplicate().order(this.order);
+      target.asFloatBuffer().put(source.asFloatBuffer());
+    }
+  }
+
+  /**
+   * @return The type of the array buffers produced by
+   *         {@link #loadArrayBuffer(JCGLArrayBuffersType, UsageHint)}.
+   */
+
+  public ArrayDescriptor getArrayDescriptor()
+  {
+    return this.type;
+  }
+
+  /**
+   * @return The bounding box of the mesh. The box is taken from the file if
+   *         the file format version stores bounds, and is otherwise
+   *         calculated from the mapped vertex positions.
+   */
+
+  public KBoundingBox<RSpaceObjectType> getBoundingBox()
+  {
+    final OptionType<KBoundingBox<RSpaceObjectType>> box =
+      this.info.getBoundingBox();
+    if (box.isSome()) {
+      return ((Some<KBoundingBox<RSpaceObjectType>>) box).get();
+    }
+
+    final ByteBuffer source = this.vertices.duplicate().order(this.order);
+    return RBImporterMapped.calculateBounds(
+      NullCheck.notNull(source.asFloatBuffer()),
+      this.info.getVertexCount());
+  }
+
+  /**
+   * @return The mesh header.
+   */
+
+  public RBInfo getInfo()
+  {
+    return this.info;
+  }
+
+  /**
+   * Allocate an array buffer and fill it with the vertices of the mesh.
+   *
+   * @param <G>
+   *          The precise type of OpenGL interface
+   * @param g
+   *          The OpenGL interface
+   * @param hint
+   *          A usage hint
+   * @return A new array buffer
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public <G extends JCGLArrayBuffersType> ArrayBufferType loadArrayBuffer(
+    final G g,
+    final UsageHint hint)
+    throws JCGLException
+  {
+    NullCheck.notNull(g, "OpenGL interface");
+    NullCheck.notNull(hint, "Usage hint");
+
+    final ArrayBufferType a =
+      g.arrayBufferAllocate(this.info.getVertexCount(), this.type, hint);
+    final ArrayBufferUpdateUnmappedType ad =
+      ArrayBufferUpdateUnmapped.newUpdateReplacingAll(a);
+    this.copyVertices(ad);
+
+    g.arrayBufferBind(a);
+    try {
+      g.arrayBufferUpdate(ad);
+    } finally {
+      g.arrayBufferUnbind();
+    }
+    return a;
+  }
+
+  /**
+   * Allocate an index buffer and fill it with the triangles of the mesh.
+   * Unsigned short indices are used if every vertex of the mesh can be
+   * addressed by one, and unsigned int indices otherwise.
+   *
+   * @param <G>
+   *          The precise type of OpenGL interface
+   * @param g
+   *          The OpenGL interface
+   * @return A new index buffer
+   * @throws JCGLException
+   *           On OpenGL errors
+   */
+
+  public <G extends JCGLIndexBuffersType> IndexBufferType loadIndexBuffer(
+    final G g)
+    throws JCGLException
+  {
+    NullCheck.notNull(g, "OpenGL interface");
+
+    /**
+     * AMD's drivers give performance warnings if unsigned bytes are used as
+     * indices.
+     */
+
+    final long index_count = this.info.getTriangleCount() * 3;
+    final JCGLUnsignedType index_type;
+    if (this.info.getVertexCount() <= 65536) {
+      index_type = JCGLUnsignedType.TYPE_UNSIGNED_SHORT;
+    } else {
+      index_type = JCGLUnsignedType.TYPE_UNSIGNED_INT;
+    }
+
+    final IndexBufferType i =
+      g.indexBufferAllocateType(
+        index_type,
+        index_count,
+        UsageHint.USAGE_STATIC_DRAW);
+    assert i != null;
+
+    final IndexBufferUpdateUnmappedType idata =
+      IndexBufferUpdateUnmapped.newReplacing(i);
+    this.copyTriangles(idata);
+    g.indexBufferUpdate(idata);
+    return i;
+  }
+}
@@ -16,15 +16,23 @@
 
 package com.io7m.r1.rmb;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import com.io7m.jequality.annotations.EqualityStructural;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
 import com.io7m.jlog.LogUsableType;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 import com.io7m.jranges.RangeCheck;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingSphere;
+import com.io7m.r1.spaces.RSpaceObjectType;
 
 /**
  * Information about an RMB mesh.
@@ -32,6 +40,51 @@ import com.io7m.jranges.RangeCheck;
 
 @SuppressWarnings("boxing") @EqualityStructural public final class RBInfo
 {
+  /**
+   * A stream that counts the bytes read from the underlying stream, without
+   * buffering. Used to determine the amount of padding that follows the
+   * header.
+   */
+
+  private static final class CountingInputStream extends FilterInputStream
+  {
+    private long count;
+
+    CountingInputStream(
+      final InputStream in_stream)
+    {
+      super(in_stream);
+    }
+
+    long getCount()
+    {
+      return this.count;
+    }
+
+    @Override public int read()
+      throws IOException
+    {
+      final int r = super.read();
+      if (r != -1) {
+        this.count = this.count + 1;
+      }
+      return r;
+    }
+
+    @Override public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+      throws IOException
+    {
+      final int r = super.read(b, off, len);
+      if (r > 0) {
+        this.count = this.count + r;
+      }
+      return r;
+    }
+  }
+
   /**
    * Parse mesh info from the given stream.
    *
@@ -57,12 +110,93 @@ import com.io7m.jranges.RangeCheck;
     final ByteBuffer temp = ByteBuffer.allocate(8);
     assert temp != null;
 
-    RBInfo.readMagicNumber(temp, stream, log);
-    final long version = RBInfo.readVersion(stream, temp, log);
-    final String name = RBParsing.readUTF8String(stream, temp, log);
-    final long vertex_count = RBParsing.readUnsigned32(temp, stream);
-    final long triangle_count = RBParsing.readUnsigned32(temp, stream);
-    return new RBInfo(version, triangle_count, vertex_count, name);
+    final CountingInputStream counted = new CountingInputStream(stream);
+    RBInfo.readMagicNumber(temp, counted, log);
+    final long version = RBInfo.readVersion(counted, temp, log);
+    final String name = RBParsing.readUTF8String(counted, temp, log);
+    final long vertex_count = RBParsing.readUnsigned32(temp, counted);
+    final long triangle_count = RBParsing.readUnsigned32(temp, counted);
+
+    final OptionType<KBoundingBox<RSpaceObjectType>> box;
+    final OptionType<KBoundingSphere<RSpaceObjectType>> sphere;
+
+    if (version >= RBConstants.RMB_VERSION_BOUNDS) {
+      log.debug("reading bounds");
+
+      final PVectorI3F<RSpaceObjectType> lower =
+        RBInfo.readVector3f(temp, counted);
+      final PVectorI3F<RSpaceObjectType> upper =
+        RBInfo.readVector3f(temp, counted);
+      final PVectorI3F<RSpaceObjectType> center =
+        RBInfo.readVector3f(temp, counted);
+      final float radius = RBParsing.readFloat32(temp, counted);
+
+      box = Option.some(KBoundingBox.newBox(lower, upper));
+      sphere = Option.some(KBoundingSphere.newSphere(center, radius));
+    } else {
+      box = Option.none();
+      sphere = Option.none();
+    }
+
+    if (version >= RBConstants.RMB_VERSION_INTERLEAVED) {
+      log.debug("reading index width and checksum");
+
+      final long index_width = RBParsing.readUnsigned32(temp, counted);
+      if ((index_width != 2) && (index_width != 4)) {
+        final StringBuilder m = new StringBuilder();
+        m.append("Invalid index width.\n");
+        m.append("  Expected: 2 or 4\n");
+        m.append("  Got: ");
+        m.append(index_width);
+        m.append("\n");
+        final String s = m.toString();
+        assert s != null;
+        throw new RBExceptionInvalidIndexWidth(s);
+      }
+
+      final OptionType<Long> checksum =
+        Option.some(RBParsing.readUnsigned32(temp, counted));
+
+      final int header_size = (int) counted.getCount();
+      final int header_aligned =
+        (int) RBAlign.alignedSize(
+          header_size,
+          RBConstants.RMB_BLOCK_ALIGNMENT);
+      RBParsing.readPadding(temp, counted, header_aligned - header_size);
+
+      return new RBInfo(
+        version,
+        triangle_count,
+        vertex_count,
+        name,
+        box,
+        sphere,
+        (int) index_width,
+        checksum);
+    }
+
+    final OptionType<Long> checksum = Option.none();
+    return new RBInfo(
+      version,
+      triangle_count,
+      vertex_count,
+      name,
+      box,
+      sphere,
+      4,
+      checksum);
+  }
+
+  private static PVectorI3F<RSpaceObjectType> readVector3f(
+    final ByteBuffer temp,
+    final InputStream stream)
+    throws IOException,
+      RBException
+  {
+    final float x = RBParsing.readFloat32(temp, stream);
+    final float y = RBParsing.readFloat32(temp, stream);
+    final float z = RBParsing.readFloat32(temp, stream);
+    return new PVectorI3F<RSpaceObjectType>(x, y, z);
   }
 
   private static void readMagicNumber(
@@ -114,12 +248,15 @@ import com.io7m.jranges.RangeCheck;
     log.debug("reading 4-byte version");
 
     final long version = RBParsing.readUnsigned32(temp, stream);
-    if (version != RBConstants.RMB_VERSION) {
+    if ((version < RBConstants.RMB_VERSION_MINIMUM)
+      || (version > RBConstants.RMB_VERSION)) {
       final StringBuilder m = new StringBuilder();
       m.append("Unsupported RMB mesh version.\n");
       m.append("  Got: ");
       m.append(version);
       m.append("  Supported versions: ");
+      m.append(RBConstants.RMB_VERSION_MINIMUM);
+      m.append(" - ");
       m.append(RBConstants.RMB_VERSION);
       m.append("\n");
       final String s = m.toString();
@@ -148,17 +285,29 @@ import com.io7m.jranges.RangeCheck;
     return r;
   }
 
-  private final String name;
-  private final long   triangle_count;
-  private final long   version;
-  private final long   vertex_count;
+  private final OptionType<KBoundingBox<RSpaceObjectType>>    box;
+  private final OptionType<Long>                              checksum;
+  private final int                                           index_width;
+  private final String                                        name;
+  private final OptionType<KBoundingSphere<RSpaceObjectType>> sphere;
+  private final long                                          triangle_count;
+  private final long                                          version;
+  private final long                                          vertex_count;
 
   private RBInfo(
     final long in_version,
     final long in_triangle_count,
     final long in_vertex_count,
-    final String in_name)
+    final String in_name,
+    final OptionType<KBoundingBox<RSpaceObjectType>> in_box,
+    final OptionType<KBoundingSphere<RSpaceObjectType>> in_sphere,
+    final int in_index_width,
+    final OptionType<Long> in_checksum)
   {
+    this.box = NullCheck.notNull(in_box, "Box");
+    this.checksum = NullCheck.notNull(in_checksum, "Checksum");
+    this.index_width = in_index_width;
+    this.sphere = NullCheck.notNull(in_sphere, "Sphere");
     this.version =
       RangeCheck.checkGreater(in_version, "Version", 0L, "Minimum version");
 
@@ -191,11 +340,66 @@ import com.io7m.jranges.RangeCheck;
     }
     final RBInfo other = (RBInfo) obj;
     return this.name.equals(other.name)
+      && this.box.equals(other.box)
+      && this.sphere.equals(other.sphere)
+      && this.checksum.equals(other.checksum)
+      && (this.index_width == other.index_width)
       && (this.version == other.version)
       && (this.triangle_count == other.triangle_count)
       && (this.vertex_count == other.vertex_count);
   }
 
+  /**
+   * @return The bounding box of the mesh, if the file format version stores
+   *         bounds.
+   */
+
+  public OptionType<KBoundingBox<RSpaceObjectType>> getBoundingBox()
+  {
+    return this.box;
+  }
+
+  /**
+   * @return The bounding sphere of the mesh, if the file format version
+   *         stores bounds.
+   */
+
+  public OptionType<KBoundingSphere<RSpaceObjectType>> getBoundingSphere()
+  {
+    return this.sphere;
+  }
+
+  /**
+   * @return The CRC32 checksum of the vertex and index blocks, if the file
+   *         format version stores a checksum.
+   */
+
+  public OptionType<Long> getChecksum()
+  {
+    return this.checksum;
+  }
+
+  /**
+   * @return The byte order of the vertex and index blocks of the mesh.
+   */
+
+  public ByteOrder getDataByteOrder()
+  {
+    if (this.version >= RBConstants.RMB_VERSION_INTERLEAVED) {
+      return ByteOrder.LITTLE_ENDIAN;
+    }
+    return ByteOrder.BIG_ENDIAN;
+  }
+
+  /**
+   * @return The width in bytes of each index in the index block of the mesh.
+   */
+
+  public int getIndexWidth()
+  {
+    return this.index_width;
+  }
+
   /**
    * @return The name of the mesh.
    */
@@ -237,6 +441,10 @@ import com.io7m.jranges.RangeCheck;
     final int prime = 31;
     int result = 1;
     result = (prime * result) + this.name.hashCode();
+    result = (prime * result) + this.box.hashCode();
+    result = (prime * result) + this.sphere.hashCode();
+    result = (prime * result) + this.checksum.hashCode();
+    result = (prime * result) + this.index_width;
     result = (prime * result) + (int) (this.version ^ (this.version >>> 32));
     result =
       (prime * result)
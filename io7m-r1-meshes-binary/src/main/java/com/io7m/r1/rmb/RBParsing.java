@@ -21,6 +21,8 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jintegers.Unsigned16;
 import com.io7m.jintegers.Unsigned32;
 import com.io7m.jlog.LogLevel;
@@ -33,6 +35,26 @@ import com.io7m.junreachable.UnreachableCodeException;
 
 @EqualityReference final class RBParsing
 {
+  static void checkChecksum(
+    final RBInfo info,
+    final long received)
+    throws RBExceptionChecksumMismatch
+  {
+    final OptionType<Long> expected_opt = info.getChecksum();
+    if (expected_opt.isSome()) {
+      final long expected = ((Some<Long>) expected_opt).get().longValue();
+      if (expected != received) {
+        final String s =
+          String.format(
+            "Checksum mismatch.\n  Expected: 0x%08x\n  Got: 0x%08x\n",
+            Long.valueOf(expected),
+            Long.valueOf(received));
+        assert s != null;
+        throw new RBExceptionChecksumMismatch(s);
+      }
+    }
+  }
+
   static float readFloat32(
     final ByteBuffer temp,
     final InputStream s)
@@ -59,6 +81,64 @@ import com.io7m.junreachable.UnreachableCodeException;
     return temp.getFloat(0);
   }
 
+  static long readIndex(
+    final ByteBuffer temp,
+    final InputStream s,
+    final int width)
+    throws IOException,
+      RBException
+  {
+    assert (width == 2) || (width == 4);
+
+    temp.rewind();
+    final byte[] a = temp.array();
+    final int r = s.read(a, 0, width);
+
+    if (r == -1) {
+      throw new RBExceptionUnexpectedEOF("Unexpected EOF");
+    }
+
+    if (r < width) {
+      final StringBuilder m = new StringBuilder();
+      m.append("Expected ");
+      m.append(width);
+      m.append(" bytes, got ");
+      m.append(r);
+      final String ms = m.toString();
+      assert ms != null;
+      throw new RBExceptionShortRead(ms);
+    }
+
+    if (width == 2) {
+      return temp.getShort(0) & 0xffff;
+    }
+    return temp.getInt(0) & 0xffffffffL;
+  }
+
+  static void readPadding(
+    final ByteBuffer temp,
+    final InputStream s,
+    final int count)
+    throws IOException,
+      RBException
+  {
+    final byte[] a = temp.array();
+    for (int index = 0; index < count; ++index) {
+      final int r = s.read(a, 0, 1);
+      if (r == -1) {
+        throw new RBExceptionUnexpectedEOF("Unexpected EOF");
+      }
+      if (r != 1) {
+        final StringBuilder m = new StringBuilder();
+        m.append("Expected 1 byte, got ");
+        m.append(r);
+        final String ms = m.toString();
+        assert ms != null;
+        throw new RBExceptionShortRead(ms);
+      }
+    }
+  }
+
   static int readUnsigned16(
     final ByteBuffer temp,
     final InputStream s)
@@ -44,6 +44,8 @@ import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.exceptions.RExceptionMeshTypeUnknown;
 import com.io7m.r1.meshes.RMeshTangents;
+import com.io7m.r1.rmb.RBConstants;
+import com.io7m.r1.rmb.RBInfo;
 
 /**
  * Command line mesh conversion.
@@ -105,6 +107,16 @@ public final class RMeshTool
       g.addOption(OptionBuilder.create());
     }
 
+    {
+      OptionBuilder.withLongOpt("upgrade");
+      OptionBuilder
+        .withDescription("Rewrite the RMB input file using the current RMB format version and write to the output file");
+      OptionBuilder.hasArgs(2);
+      OptionBuilder.withValueSeparator(' ');
+      OptionBuilder.withArgName("input-file> <output-file");
+      g.addOption(OptionBuilder.create());
+    }
+
     {
       OptionBuilder.withLongOpt("export-name");
       OptionBuilder.withDescription("Set the name of the exported mesh");
@@ -233,6 +245,38 @@ public final class RMeshTool
     }
   }
 
+  private void commandUpgrade(
+    final LogUsableType log,
+    final CommandLine line)
+    throws RException
+  {
+    final String[] args = line.getOptionValues("upgrade");
+    assert args.length == 2;
+
+    final File file_in = new File(args[0]);
+    final File file_out = new File(args[1]);
+
+    final RBInfo info = RMeshToolImporterRMB.readInfo(file_in, log);
+    final RMeshToolImporterType importer = this.importers.get("rmb");
+    final RMeshToolExporterType exporter = this.exporters.get("rmb");
+    assert importer != null;
+    assert exporter != null;
+
+    final OptionType<String> none = Option.none();
+    final RMeshTangents mesh =
+      importer.importFile(file_in, info.getName(), none, log);
+    exporter.exportFile(file_out, mesh, log);
+
+    final String s =
+      String.format(
+        "upgraded %s from version %d to version %d",
+        info.getName(),
+        Long.valueOf(info.getVersion()),
+        Integer.valueOf(RBConstants.RMB_VERSION));
+    assert s != null;
+    log.info(s);
+  }
+
   private RMeshToolExporterType exporterForSuffix(
     final OptionType<String> want,
     final String name)
@@ -376,6 +420,8 @@ public final class RMeshTool
         this.commandShow(rlog, line);
       } else if (line.hasOption("convert")) {
         this.commandConvert(rlog, line);
+      } else if (line.hasOption("upgrade")) {
+        this.commandUpgrade(rlog, line);
       }
 
     } catch (final ParseException e) {
@@ -394,6 +440,7 @@ public final class RMeshTool
 
     pw.println("meshtool: [options] --show input-file");
     pw.println("          [options] --convert name input-file output-file");
+    pw.println("          [options] --upgrade input-file output-file");
     pw.println();
     formatter.printOptions(pw, 120, this.options, 0, 2);
     pw.println();
@@ -199,6 +199,23 @@ public final class RMeshToolImporterRMB implements RMeshToolImporterType
     return b.build();
   }
 
+  static RBInfo readInfo(
+    final File file,
+    final LogUsableType log)
+    throws RException
+  {
+    try {
+      final InputStream stream = new FileInputStream(file);
+      try {
+        return RBInfo.parseFromStream(log, stream);
+      } finally {
+        stream.close();
+      }
+    } catch (final IOException e) {
+      throw RExceptionIO.fromIOException(e);
+    }
+  }
+
   /**
    * Construct an importer.
    */
@@ -259,17 +276,13 @@ public final class RMeshToolImporterRMB implements RMeshToolImporterType
     final LogUsableType log)
     throws RException
   {
-    try {
-      final InputStream stream = new FileInputStream(file);
-      final RBInfo info = RBInfo.parseFromStream(log, stream);
-      output.printf(
-        "%s : %d triangles : %d vertices : version %d\n",
-        info.getName(),
-        info.getTriangleCount(),
-        info.getVertexCount(),
-        info.getVersion());
-    } catch (final IOException e) {
-      throw RExceptionIO.fromIOException(e);
-    }
+    final RBInfo info = RMeshToolImporterRMB.readInfo(file, log);
+    output.printf(
+      "%s : %d triangles : %d vertices : version %d : %d-bit indices\n",
+      info.getName(),
+      info.getTriangleCount(),
+      info.getVertexCount(),
+      info.getVersion(),
+      info.getIndexWidth() * 8);
   }
 }
@@ -24,10 +24,10 @@ import nu.xom.ValidityException;
 
 import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jnull.NullCheck;
-import com.io7m.jtensors.VectorM3F;
 import com.io7m.jtensors.parameterized.PVectorI2F;
 import com.io7m.jtensors.parameterized.PVectorI3F;
 import com.io7m.jtensors.parameterized.PVectorI4F;
+import com.io7m.r1.meshes.RMeshBoundsAccumulator;
 import com.io7m.r1.meshes.RMeshParserEventsType;
 import com.io7m.r1.spaces.RSpaceObjectType;
 import com.io7m.r1.spaces.RSpaceTextureType;
@@ -182,10 +182,8 @@ import com.io7m.r1.xml.RXMLUtilities;
   {
     assert "vertices".equals(ev.getLocalName());
 
-    final VectorM3F bounds_lower =
-      new VectorM3F(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-    final VectorM3F bounds_upper =
-      new VectorM3F(Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE);
+    final RMeshBoundsAccumulator bounds =
+      RMeshBoundsAccumulator.newAccumulator();
 
     final int count =
       RXMLUtilities.getAttributeInteger(RXMLUtilities.getAttribute(
@@ -219,15 +217,7 @@ import com.io7m.r1.xml.RXMLUtilities;
       final PVectorI3F<RSpaceObjectType> position =
         RXMLMeshParser.parseVertexPosition(v);
 
-      bounds_lower.set3F(
-        Math.min(position.getXF(), bounds_lower.getXF()),
-        Math.min(position.getYF(), bounds_lower.getYF()),
-        Math.min(position.getZF(), bounds_lower.getZF()));
-
-      bounds_upper.set3F(
-        Math.max(position.getXF(), bounds_upper.getXF()),
-        Math.max(position.getYF(), bounds_upper.getYF()),
-        Math.max(position.getZF(), bounds_upper.getZF()));
+      bounds.addPosition(position);
 
       events.eventMeshVertexPosition(index, position);
 
@@ -265,10 +255,8 @@ import com.io7m.r1.xml.RXMLUtilities;
     }
 
     events.eventMeshVerticesEnded(
-      new PVectorI3F<RSpaceObjectType>(bounds_lower.getXF(), bounds_lower
-        .getYF(), bounds_lower.getZF()),
-      new PVectorI3F<RSpaceObjectType>(bounds_upper.getXF(), bounds_upper
-        .getYF(), bounds_upper.getZF()));
+      bounds.getLower(),
+      bounds.getUpper());
   }
 
   private final RMeshParserEventsType<E> events;
@@ -28,6 +28,8 @@ import com.io7m.jcanephora.api.JCGLIndexBuffersType;
 import com.io7m.jequality.annotations.EqualityReference;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingSphere;
 import com.io7m.r1.meshes.RMeshParserEventsVBO;
 import com.io7m.r1.spaces.RSpaceObjectType;
 import com.io7m.r1.xml.RXMLException;
@@ -138,6 +140,24 @@ import com.io7m.r1.xml.RXMLException;
     return this.events.getArray();
   }
 
+  /**
+   * @return The bounding box of all the vertices in the parsed mesh.
+   */
+
+  public KBoundingBox<RSpaceObjectType> getBoundingBox()
+  {
+    return this.events.getBoundingBox();
+  }
+
+  /**
+   * @return The bounding sphere of all the vertices in the parsed mesh.
+   */
+
+  public KBoundingSphere<RSpaceObjectType> getBoundingSphere()
+  {
+    return this.events.getBoundingSphere();
+  }
+
   /**
    * @return The lower bounds of all the vertices in the parsed mesh.
    */
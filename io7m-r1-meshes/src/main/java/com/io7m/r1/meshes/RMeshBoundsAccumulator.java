@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.meshes;
+
+import com.io7m.jequality.annotations.EqualityReference;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingSphere;
+import com.io7m.r1.spaces.RSpaceObjectType;
+
+/**
+ * <p>
+ * A mutable accumulator that calculates an axis-aligned bounding box and a
+ * bounding sphere for a stream of object-space positions, in a single pass
+ * and without retaining the positions.
+ * </p>
+ * <p>
+ * The sphere is grown incrementally (in the manner of Ritter's algorithm)
+ * as each position arrives. The resulting sphere is compared against the
+ * sphere that circumscribes the bounding box, and the smaller of the two is
+ * returned.
+ * </p>
+ */
+
+@EqualityReference public final class RMeshBoundsAccumulator
+{
+  /**
+   * @return A new accumulator with no positions
+   */
+
+  public static RMeshBoundsAccumulator newAccumulator()
+  {
+    return new RMeshBoundsAccumulator();
+  }
+
+  private long  count;
+  private float lower_x;
+  private float lower_y;
+  private float lower_z;
+  private float sphere_r;
+  private float sphere_x;
+  private float sphere_y;
+  private float sphere_z;
+  private float upper_x;
+  private float upper_y;
+  private float upper_z;
+
+  private RMeshBoundsAccumulator()
+  {
+    this.reset();
+  }
+
+  /**
+   * Include the given position in the bounds.
+   *
+   * @param x
+   *          The X coordinate
+   * @param y
+   *          The Y coordinate
+   * @param z
+   *          The Z coordinate
+   */
+
+  public void addPosition(
+    final float x,
+    final float y,
+    final float z)
+  {
+    this.lower_x = Math.min(this.lower_x, x);
+    this.lower_y = Math.min(this.lower_y, y);
+    this.lower_z = Math.min(this.lower_z, z);
+    this.upper_x = Math.max(this.upper_x, x);
+    this.upper_y = Math.max(this.upper_y, y);
+    this.upper_z = Math.max(this.upper_z, z);
+
+    if (this.count == 0) {
+      this.sphere_x = x;
+      this.sphere_y = y;
+      this.sphere_z = z;
+      this.sphere_r = 0.0f;
+    } else {
+      final float dx = x - this.sphere_x;
+      final float dy = y - this.sphere_y;
+      final float dz = z - this.sphere_z;
+      final float d = (float) Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+
+      if (d > this.sphere_r) {
+        final float new_r = (this.sphere_r + d) * 0.5f;
+        final float k = (new_r - this.sphere_r) / d;
+        this.sphere_x = this.sphere_x + (dx * k);
+        this.sphere_y = this.sphere_y + (dy * k);
+        this.sphere_z = this.sphere_z + (dz * k);
+        this.sphere_r = new_r;
+      }
+    }
+
+    ++this.count;
+  }
+
+  /**
+   * Include the given position in the bounds.
+   *
+   * @param p
+   *          The position
+   */
+
+  public void addPosition(
+    final PVectorI3F<RSpaceObjectType> p)
+  {
+    this.addPosition(p.getXF(), p.getYF(), p.getZF());
+  }
+
+  /**
+   * @return The bounding box of all positions so far. If no positions have
+   *         been added, the box is degenerate and located at the origin.
+   */
+
+  public KBoundingBox<RSpaceObjectType> getBoundingBox()
+  {
+    return KBoundingBox.newBox(this.getLower(), this.getUpper());
+  }
+
+  /**
+   * @return The bounding sphere of all positions so far. If no positions
+   *         have been added, the sphere has a radius of <code>0</code> and
+   *         is located at the origin.
+   */
+
+  public KBoundingSphere<RSpaceObjectType> getBoundingSphere()
+  {
+    if (this.count == 0) {
+      return KBoundingSphere.newSphere(new PVectorI3F<RSpaceObjectType>(
+        0.0f,
+        0.0f,
+        0.0f), 0.0f);
+    }
+
+    final float ex = (this.upper_x - this.lower_x) * 0.5f;
+    final float ey = (this.upper_y - this.lower_y) * 0.5f;
+    final float ez = (this.upper_z - this.lower_z) * 0.5f;
+    final float box_r = (float) Math.sqrt((ex * ex) + (ey * ey) + (ez * ez));
+
+    if (box_r < this.sphere_r) {
+      return KBoundingSphere.newSphere(new PVectorI3F<RSpaceObjectType>(
+        this.lower_x + ex,
+        this.lower_y + ey,
+        this.lower_z + ez), box_r);
+    }
+
+    return KBoundingSphere.newSphere(new PVectorI3F<RSpaceObjectType>(
+      this.sphere_x,
+      this.sphere_y,
+      this.sphere_z), this.sphere_r);
+  }
+
+  /**
+   * @return The number of positions added so far
+   */
+
+  public long getCount()
+  {
+    return this.count;
+  }
+
+  /**
+   * @return The lower corner of the bounding box
+   */
+
+  public PVectorI3F<RSpaceObjectType> getLower()
+  {
+    if (this.count == 0) {
+      return new PVectorI3F<RSpaceObjectType>(0.0f, 0.0f, 0.0f);
+    }
+    return new PVectorI3F<RSpaceObjectType>(
+      this.lower_x,
+      this.lower_y,
+      this.lower_z);
+  }
+
+  /**
+   * @return The upper corner of the bounding box
+   */
+
+  public PVectorI3F<RSpaceObjectType> getUpper()
+  {
+    if (this.count == 0) {
+      return new PVectorI3F<RSpaceObjectType>(0.0f, 0.0f, 0.0f);
+    }
+    return new PVectorI3F<RSpaceObjectType>(
+      this.upper_x,
+      this.upper_y,
+      this.upper_z);
+  }
+
+  /**
+   * Discard all accumulated positions.
+   */
+
+  public void reset()
+  {
+    this.count = 0;
+    this.lower_x = Float.MAX_VALUE;
+    this.lower_y = Float.MAX_VALUE;
+    this.lower_z = Float.MAX_VALUE;
+    this.upper_x = -Float.MAX_VALUE;
+    this.upper_y = -Float.MAX_VALUE;
+    this.upper_z = -Float.MAX_VALUE;
+    this.sphere_x = 0.0f;
+    this.sphere_y = 0.0f;
+    this.sphere_z = 0.0f;
+    this.sphere_r = 0.0f;
+  }
+}
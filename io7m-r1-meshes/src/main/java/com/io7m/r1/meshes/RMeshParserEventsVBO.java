@@ -42,13 +42,17 @@ import com.io7m.jtensors.parameterized.PVectorI2F;
 import com.io7m.jtensors.parameterized.PVectorI3F;
 import com.io7m.jtensors.parameterized.PVectorI4F;
 import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingSphere;
 import com.io7m.r1.kernel.types.KMeshAttributes;
 import com.io7m.r1.spaces.RSpaceObjectType;
 import com.io7m.r1.spaces.RSpaceTextureType;
 
 /**
  * An implementation of the {@link RMeshParserEventsType} interface that
- * produces an array buffer and index buffer whilst parsing.
+ * produces an array buffer and index buffer whilst parsing. A bounding box
+ * and bounding sphere are accumulated from the vertex positions as they are
+ * received.
  *
  * @param <G>
  *          The type of OpenGL interfaces.
@@ -92,6 +96,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 
   private @Nullable ArrayBufferType               array;
   private @Nullable ArrayBufferUpdateUnmappedType array_data;
+  private final RMeshBoundsAccumulator            bounds;
   private @Nullable PVectorI3F<RSpaceObjectType>  bounds_lower;
   private @Nullable PVectorI3F<RSpaceObjectType>  bounds_upper;
   private @Nullable CursorWritableIndexType       cursor_index;
@@ -114,6 +119,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
   {
     this.gl = NullCheck.notNull(g, "OpenGL interface");
     this.usage = NullCheck.notNull(hint, "Usage hint");
+    this.bounds = RMeshBoundsAccumulator.newAccumulator();
 
     try {
       final ArrayDescriptorBuilderType b = ArrayDescriptor.newBuilder();
@@ -282,6 +288,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     final CursorWritable3fType c = this.cursor_pos;
     assert c != null;
     c.put3f(position.getXF(), position.getYF(), position.getZF());
+    this.bounds.addPosition(position);
   }
 
   @Override public void eventMeshVertexStarted(
@@ -383,6 +390,7 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 
     this.array_data = ad;
     this.array = a;
+    this.bounds.reset();
 
     this.cursor_pos =
       this.array_data.getCursor3f(KMeshAttributes.ATTRIBUTE_POSITION
@@ -406,6 +414,26 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     return r;
   }
 
+  /**
+   * @return The bounding box of the mesh data.
+   */
+
+  public KBoundingBox<RSpaceObjectType> getBoundingBox()
+  {
+    this.checkParsingDone();
+    return this.bounds.getBoundingBox();
+  }
+
+  /**
+   * @return The bounding sphere of the mesh data.
+   */
+
+  public KBoundingSphere<RSpaceObjectType> getBoundingSphere()
+  {
+    this.checkParsingDone();
+    return this.bounds.getBoundingSphere();
+  }
+
   /**
    * @return The lower bounds of the mesh data.
    */
@@ -31,13 +31,47 @@ module ShadowBasic is
   --
   -- Basic shadow mapping parameters.
   --
+  -- The [map_region] field specifies the region of the shadow map texture
+  -- that holds the map for the current light, as a texture coordinate
+  -- offset [x y] and scale [z w]. A map that occupies an entire texture
+  -- has a region of (0.0, 0.0, 1.0, 1.0).
+  --
+  -- The [map_clamp] field specifies the rectangle, as a minimum [x y] and
+  -- a maximum [z w], to which lookups are clamped. The rectangle lies half
+  -- a texel inside the region, so that linear filtering at the edges of
+  -- the region never blends in texels of neighbouring regions.
+  --
 
   type t is record
     depth_bias        : float,
     depth_coefficient : float,
-    factor_min        : float
+    factor_min        : float,
+    map_clamp         : vector_4f,
+    map_region        : vector_4f
   end;
 
+  --
+  -- Map the texture coordinates [uv] into the region of the shadow
+  -- map given by [shadow]. The coordinates are clamped to the region
+  -- so that lookups cannot sample maps belonging to other lights.
+  --
+
+  function region_coords (
+    shadow : t,
+    uv     : vector_2f
+  ) : vector_2f =
+    let
+      value u =
+        F.add (F.multiply (uv [x], shadow.map_region [z]), shadow.map_region [x]);
+      value v =
+        F.add (F.multiply (uv [y], shadow.map_region [w]), shadow.map_region [y]);
+    in
+      new vector_2f (
+        F.clamp (u, shadow.map_clamp [x], shadow.map_clamp [z]),
+        F.clamp (v, shadow.map_clamp [y], shadow.map_clamp [w])
+      )
+    end;
+
   --
   -- Given a shadow map [t_shadow], light-clip-coordinates [pos_light_clip], and
   -- light-eye-coordinates [pos_light_eye], return the amount of light that could 
@@ -63,7 +97,7 @@ module ShadowBasic is
           );
 
         value map_depth_log =
-          S2.texture (t_shadow, current_tex [x y]) [x];
+          S2.texture (t_shadow, region_coords (shadow, current_tex [x y])) [x];
         value map_depth =
           F.add (map_depth_log, shadow.depth_bias);
       in
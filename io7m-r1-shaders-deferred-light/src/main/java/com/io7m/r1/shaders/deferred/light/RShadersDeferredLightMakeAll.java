@@ -160,6 +160,14 @@ import com.io7m.r1.shaders.deferred.RKDeferredShader;
           }
         }
 
+        /**
+         * The tiled spherical light shader.
+         */
+
+        batch.addShaderWithOutputName(TASTShaderNameFlat.parse(
+          String.format("%s.LSphereTiled.p", RKDeferredShader.PACKAGE_DEFERRED_LIGHT),
+          meta), "LSphereTiled");
+
         batch.addShaderWithOutputName(
           TASTShaderNameFlat.parse("com.io7m.r1.core.Empty.p", meta),
           "empty");
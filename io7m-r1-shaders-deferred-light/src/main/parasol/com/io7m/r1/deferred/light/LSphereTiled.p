@@ -0,0 +1,279 @@
+--
+-- Copyright © 2014 <code@io7m.com> http://io7m.com
+-- 
+-- Permission to use, copy, modify, and/or distribute this software for any
+-- purpose with or without fee is hereby granted, provided that the above
+-- copyright notice and this permission notice appear in all copies.
+-- 
+-- THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+-- WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+-- MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+-- SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+-- WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+-- ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+-- IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+--
+
+package com.io7m.r1.deferred.light;
+
+--
+-- Tiled spherical lighting. Up to four spherical lights without shadows
+-- are evaluated for each pixel of a screen-space tile. The tiles are
+-- drawn as a batch of quads, and the parameters of the lights affecting
+-- each quad are given as vertex attributes. Unused light slots are
+-- expected to have zero intensity.
+--
+
+module LSphereTiled is
+
+  import com.io7m.parasol.Float      as F;
+  import com.io7m.parasol.Fragment;
+  import com.io7m.parasol.Matrix4x4f as M4;
+  import com.io7m.parasol.Vector3f   as V3;
+  import com.io7m.parasol.Vector4f   as V4;
+  import com.io7m.parasol.Sampler2D  as S;
+
+  import com.io7m.r1.core.Light;
+  import com.io7m.r1.core.LogDepth;
+  import com.io7m.r1.core.Normals;
+  import com.io7m.r1.core.Reconstruction;
+  import com.io7m.r1.core.Specular;
+  import com.io7m.r1.core.SphericalLight;
+  import com.io7m.r1.core.Transform;
+  import com.io7m.r1.core.Viewport;
+  import com.io7m.r1.core.ViewRays;
+
+  --
+  -- Calculate the attenuated contribution of light [k] to the surface
+  -- at [p] with normal [n], albedo [a] and specular properties [s].
+  -- The specular term is scaled by [specular_factor], which is 0.0 for
+  -- diffuse-only lights.
+  --
+
+  function contribution (
+    k               : Light.t,
+    p               : vector_3f,
+    n               : vector_3f,
+    a               : vector_3f,
+    s               : Specular.t,
+    specular_factor : float
+  ) : vector_3f =
+    let
+      value v =
+        Light.calculate (k, p, n);
+      value d =
+        V3.multiply (a, SphericalLight.diffuse_color (k, v.vectors));
+      value sp =
+        V3.multiply_scalar (
+          SphericalLight.specular_color (k, v.vectors, s),
+          specular_factor
+        );
+    in
+      V3.multiply_scalar (V3.add (d, sp), v.attenuation)
+    end;
+
+  --
+  -- A variant of VertexShaders.standard_clip_eye that passes the light
+  -- parameters of the current quad through to the fragment shader. Eye-space
+  -- light positions and inverse ranges are packed into [light_position_range_*],
+  -- and colors and intensities into [light_color_intensity_*].
+  --
+
+  shader vertex v is
+    parameter  m_projection_inv : matrix_4x4f;
+    in         v_position       : vector_3f;
+    out vertex f_position_clip  : vector_4f;
+    out        f_position_eye   : vector_4f;
+    out        f_positive_eye_z : float;
+
+    -- Log depth coefficient (2.0 / log2 (far + 1.0))
+    parameter depth_coefficient : float;
+
+    -- Light parameters
+    in  v_light_position_range_0  : vector_4f;
+    in  v_light_position_range_1  : vector_4f;
+    in  v_light_position_range_2  : vector_4f;
+    in  v_light_position_range_3  : vector_4f;
+    in  v_light_color_intensity_0 : vector_4f;
+    in  v_light_color_intensity_1 : vector_4f;
+    in  v_light_color_intensity_2 : vector_4f;
+    in  v_light_color_intensity_3 : vector_4f;
+    in  v_light_falloffs          : vector_4f;
+    in  v_light_specular_factors  : vector_4f;
+    out f_light_position_range_0  : vector_4f;
+    out f_light_position_range_1  : vector_4f;
+    out f_light_position_range_2  : vector_4f;
+    out f_light_position_range_3  : vector_4f;
+    out f_light_color_intensity_0 : vector_4f;
+    out f_light_color_intensity_1 : vector_4f;
+    out f_light_color_intensity_2 : vector_4f;
+    out f_light_color_intensity_3 : vector_4f;
+    out f_light_falloffs          : vector_4f;
+    out f_light_specular_factors  : vector_4f;
+  with
+    value position_clip =
+      new vector_4f (v_position, 1.0);
+
+    value position_clip_log =
+      new vector_4f (
+        position_clip [x y],
+        LogDepth.encode_full (position_clip [w], depth_coefficient),
+        position_clip [w]
+      );
+
+    value position_eye =
+      M4.multiply_vector (m_projection_inv, position_clip);
+
+    value positive_eye_z =
+      LogDepth.prepare_eye_z (position_eye [z]);
+  as
+    out f_position_clip           = position_clip_log;
+    out f_position_eye            = position_eye;
+    out f_positive_eye_z          = positive_eye_z;
+    out f_light_position_range_0  = v_light_position_range_0;
+    out f_light_position_range_1  = v_light_position_range_1;
+    out f_light_position_range_2  = v_light_position_range_2;
+    out f_light_position_range_3  = v_light_position_range_3;
+    out f_light_color_intensity_0 = v_light_color_intensity_0;
+    out f_light_color_intensity_1 = v_light_color_intensity_1;
+    out f_light_color_intensity_2 = v_light_color_intensity_2;
+    out f_light_color_intensity_3 = v_light_color_intensity_3;
+    out f_light_falloffs          = v_light_falloffs;
+    out f_light_specular_factors  = v_light_specular_factors;
+  end;
+
+  --
+  -- Construct a light from the packed parameters [pr] and [ci] with
+  -- inverse falloff [falloff].
+  --
+
+  function light (
+    pr      : vector_4f,
+    ci      : vector_4f,
+    falloff : float
+  ) : Light.t =
+    record Light.t {
+      color           = ci [x y z],
+      position        = pr [x y z],
+      intensity       = ci [w],
+      inverse_range   = pr [w],
+      inverse_falloff = falloff
+    };
+
+  shader fragment f is
+
+    -- The eye-space position of the current fragment
+    in f_position_eye : vector_4f;
+
+    -- Logarithmic depth parameters
+    in f_positive_eye_z         : float;
+    parameter depth_coefficient : float;
+
+    -- Matrices
+    parameter m_projection : matrix_4x4f;
+
+    -- G-buffer components
+    parameter t_map_albedo    : sampler_2d;
+    parameter t_map_normal    : sampler_2d;
+    parameter t_map_specular  : sampler_2d;
+    parameter t_map_depth     : sampler_2d;
+
+    -- Standard declarations
+    out out_0           : vector_4f as 0;
+    out depth out_depth : float;
+
+    parameter view_rays : ViewRays.t;
+    parameter viewport  : Viewport.t;
+
+    -- Spherical light parameters
+    in f_light_position_range_0  : vector_4f;
+    in f_light_position_range_1  : vector_4f;
+    in f_light_position_range_2  : vector_4f;
+    in f_light_position_range_3  : vector_4f;
+    in f_light_color_intensity_0 : vector_4f;
+    in f_light_color_intensity_1 : vector_4f;
+    in f_light_color_intensity_2 : vector_4f;
+    in f_light_color_intensity_3 : vector_4f;
+    in f_light_falloffs          : vector_4f;
+
+    -- Per-light specular factors (0.0 for diffuse-only lights)
+    in f_light_specular_factors : vector_4f;
+
+  with
+    value position_uv =
+      Transform.screen_to_texture2 (
+        viewport,
+        Fragment.coordinate [x y]
+      );
+
+    value r_depth =
+      LogDepth.encode_partial (f_positive_eye_z, depth_coefficient);
+
+    -- Reconstruct eye-space position.
+    value log_depth =
+      S.texture (t_map_depth, position_uv) [x];
+    value eye_depth =
+      F.negate (LogDepth.decode (log_depth, depth_coefficient));
+    value eye_position =
+      Reconstruction.reconstruct_eye_with_eye_z (
+        eye_depth,
+        position_uv,
+        m_projection,
+        view_rays
+      );
+
+    -- Get surface normal
+    value normal_sample =
+      S.texture (t_map_normal, position_uv) [x y];
+    value normal =
+      V3.normalize (Normals.decompress (normal_sample));
+
+    -- Get surface albedo
+    value albedo =
+      S.texture (t_map_albedo, position_uv);
+
+    -- Get surface specular
+    value specular_sample =
+      S.texture (t_map_specular, position_uv);
+    value specular = record Specular.t {
+      color    = specular_sample [x y z],
+      exponent = F.multiply (specular_sample [w], 256.0)
+    };
+
+    value p = eye_position [x y z];
+    value a = albedo [x y z];
+
+    value light_0 =
+      light (f_light_position_range_0, f_light_color_intensity_0, f_light_falloffs [x]);
+    value light_1 =
+      light (f_light_position_range_1, f_light_color_intensity_1, f_light_falloffs [y]);
+    value light_2 =
+      light (f_light_position_range_2, f_light_color_intensity_2, f_light_falloffs [z]);
+    value light_3 =
+      light (f_light_position_range_3, f_light_color_intensity_3, f_light_falloffs [w]);
+
+    value lit_0 =
+      contribution (light_0, p, normal, a, specular, f_light_specular_factors [x]);
+    value lit_1 =
+      contribution (light_1, p, normal, a, specular, f_light_specular_factors [y]);
+    value lit_2 =
+      contribution (light_2, p, normal, a, specular, f_light_specular_factors [z]);
+    value lit_3 =
+      contribution (light_3, p, normal, a, specular, f_light_specular_factors [w]);
+
+    value lit =
+      V3.add (V3.add (lit_0, lit_1), V3.add (lit_2, lit_3));
+
+    value rgba =
+      new vector_4f (lit, 1.0);
+  as
+    out out_0     = rgba;
+    out out_depth = r_depth;
+  end;
+
+  shader program p is
+    vertex v;
+    fragment f;
+  end;
+
+end;
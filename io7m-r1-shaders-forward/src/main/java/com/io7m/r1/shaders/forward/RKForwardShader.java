@@ -240,6 +240,14 @@ import com.io7m.r1.kernel.types.KMaterialTranslucentSpecularOnly;
     }
   }
 
+  public static void fragmentShaderDeclarationsRevealage(
+    final StringBuilder b)
+  {
+    b.append("  -- Revealage output for order-independent transparency\n");
+    b.append("  out out_1                   : vector_4f as 1;\n");
+    b.append("\n");
+  }
+
   public static void fragmentShaderDeclarationsSpecular(
     final StringBuilder b)
   {
@@ -259,6 +267,7 @@ import com.io7m.r1.kernel.types.KMaterialTranslucentSpecularOnly;
 
     b.append("shader fragment f is\n");
     RKForwardShader.fragmentShaderDeclarationsCommon(b);
+    RKForwardShader.fragmentShaderDeclarationsRevealage(b);
     RKForwardShader.fragmentShaderDeclarationsLight(b, l);
     RKForwardShader.fragmentShaderDeclarationsAlpha(b);
     RKForwardShader.fragmentShaderDeclarationsAlbedo(b);
@@ -275,9 +284,11 @@ import com.io7m.r1.kernel.types.KMaterialTranslucentSpecularOnly;
     RKForwardShader.fragmentShaderValuesAlbedoTranslucent(b);
     RKForwardShader.fragmentShaderValuesSurfaceTranslucent(b, envi);
     RKForwardShader.fragmentShaderValuesRGBATranslucentLit(b);
+    RKForwardShader.fragmentShaderValuesRevealage(b);
     b.append("as\n");
     b.append("  out out_depth = r_depth;\n");
     b.append("  out out_0     = rgba;\n");
+    b.append("  out out_1     = revealage;\n");
     b.append("end;\n");
     b.append("\n");
   }
@@ -337,6 +348,7 @@ import com.io7m.r1.kernel.types.KMaterialTranslucentSpecularOnly;
 
     b.append("shader fragment f is\n");
     RKForwardShader.fragmentShaderDeclarationsCommon(b);
+    RKForwardShader.fragmentShaderDeclarationsRevealage(b);
     RKForwardShader.fragmentShaderDeclarationsAlbedo(b);
     RKForwardShader.fragmentShaderDeclarationsAlpha(b);
     RKForwardShader.fragmentShaderDeclarationsNormal(b);
@@ -351,9 +363,11 @@ import com.io7m.r1.kernel.types.KMaterialTranslucentSpecularOnly;
     RKForwardShader.fragmentShaderValuesAlbedoTranslucent(b);
     RKForwardShader.fragmentShaderValuesSurfaceTranslucent(b, envi);
     RKForwardShader.fragmentShaderValuesRGBATranslucentUnlit(b);
+    RKForwardShader.fragmentShaderValuesRevealage(b);
     b.append("as\n");
     b.append("  out out_depth = r_depth;\n");
     b.append("  out out_0     = rgba;\n");
+    b.append("  out out_1     = revealage;\n");
     b.append("end;\n");
     b.append("\n");
   }
@@ -800,6 +814,19 @@ import com.io7m.r1.kernel.types.KMaterialTranslucentSpecularOnly;
     b.append("  value rgba = new vector_4f (surface [x y z], a);\n");
   }
 
+  public static void fragmentShaderValuesRevealage(
+    final StringBuilder b)
+  {
+    b.append("  -- Revealage, accumulated additively as -log2 (1 - alpha)\n");
+    b.append("  value revealage = new vector_4f (\n");
+    b.append("    0.0,\n");
+    b.append("    0.0,\n");
+    b.append("    0.0,\n");
+    b.append("    F.negate (F.log2 (F.maximum (F.subtract (1.0, rgba [w]), 0.00001)))\n");
+    b.append("  );\n");
+    b.append("\n");
+  }
+
   public static void fragmentShaderValuesSpecular(
     final StringBuilder b)
   {
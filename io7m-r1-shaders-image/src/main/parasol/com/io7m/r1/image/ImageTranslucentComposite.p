@@ -0,0 +1,70 @@
+--
+-- Copyright © 2014 <code@io7m.com> http://io7m.com
+-- 
+-- Permission to use, copy, modify, and/or distribute this software for any
+-- purpose with or without fee is hereby granted, provided that the above
+-- copyright notice and this permission notice appear in all copies.
+-- 
+-- THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+-- WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+-- MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+-- SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+-- WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+-- ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+-- IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+--
+
+package com.io7m.r1.image;
+
+--
+-- Composition of weighted blended order-independent transparency.
+--
+
+module ImageTranslucentComposite is
+
+  import com.io7m.parasol.Float     as F;
+  import com.io7m.parasol.Sampler2D as S;
+  import com.io7m.parasol.Vector3f  as V3;
+  import com.io7m.r1.core.VertexShaders;
+
+  --
+  -- Resolve the accumulated premultiplied color and coverage (t_image_0)
+  -- and the additive color and log revealage (t_image_1) into a single
+  -- premultiplied color whose alpha is the total coverage. The result is
+  -- intended to be blended over the scene with (one, one minus source
+  -- alpha).
+  --
+
+  shader fragment composite_oit_f is
+    parameter t_image_0 : sampler_2d;
+    parameter t_image_1 : sampler_2d;
+    in        f_uv      : vector_2f;
+    out       out_0     : vector_4f as 0;
+  with
+    value accum =
+      S.texture (t_image_0, f_uv);
+    value additive =
+      S.texture (t_image_1, f_uv);
+    value revealage =
+      F.power (2.0, F.negate (additive [w]));
+    value coverage =
+      F.subtract (1.0, revealage);
+    value weight =
+      F.divide (coverage, F.maximum (accum [w], 0.00001));
+    value rgba =
+      new vector_4f (
+        V3.add (
+          V3.multiply_scalar (accum [x y z], weight),
+          additive [x y z]),
+        coverage
+      );
+  as
+    out out_0 = rgba;
+  end;
+
+  shader program composite_oit is
+    vertex   VertexShaders.standard_clip_without_log;
+    fragment composite_oit_f;
+  end;
+
+end;
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * Functions for measuring the number of bytes allocated by the current
+ * thread. Measurement requires a virtual machine that exposes
+ * <code>com.sun.management.ThreadMXBean</code>; tests should use
+ * {@link #isSupported()} to skip themselves on virtual machines that do not.
+ */
+
+public final class TestAllocations
+{
+  /**
+   * The size in bytes of the smallest possible object on the virtual
+   * machines of interest. An average per-instance allocation below this
+   * value implies that no objects were allocated per instance.
+   */
+
+  public static final long MINIMUM_OBJECT_SIZE = 16;
+
+  /**
+   * @return The number of bytes allocated so far by the current thread
+   */
+
+  public static long getAllocatedBytes()
+  {
+    final ThreadMXBean b = ManagementFactory.getThreadMXBean();
+    final com.sun.management.ThreadMXBean sb =
+      (com.sun.management.ThreadMXBean) b;
+    return sb.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * @return <code>true</code> if allocation measurement is supported
+   */
+
+  public static boolean isSupported()
+  {
+    final ThreadMXBean b = ManagementFactory.getThreadMXBean();
+    if (b instanceof com.sun.management.ThreadMXBean) {
+      final com.sun.management.ThreadMXBean sb =
+        (com.sun.management.ThreadMXBean) b;
+      if (sb.isThreadAllocatedMemorySupported()) {
+        sb.setThreadAllocatedMemoryEnabled(true);
+        return sb.isThreadAllocatedMemoryEnabled();
+      }
+    }
+    return false;
+  }
+
+  private TestAllocations()
+  {
+    throw new UnreachableCodeException();
+  }
+}
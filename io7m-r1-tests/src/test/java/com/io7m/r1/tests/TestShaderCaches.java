@@ -2,8 +2,10 @@ package com.io7m.r1.tests;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
-import com.io7m.jcache.JCacheLoaderType;
 import com.io7m.jcache.LRUCacheConfig;
 import com.io7m.jcache.LRUCacheTrivial;
 import com.io7m.jcanephora.api.JCGLImplementationType;
@@ -25,8 +27,13 @@ import com.io7m.r1.kernel.KShaderCacheFilesystemLoader;
 import com.io7m.r1.kernel.KShaderCacheForwardTranslucentLitType;
 import com.io7m.r1.kernel.KShaderCacheForwardTranslucentUnlitType;
 import com.io7m.r1.kernel.KShaderCacheImageType;
+import com.io7m.r1.kernel.KShaderCacheKind;
+import com.io7m.r1.kernel.KShaderCacheLoaderType;
 import com.io7m.r1.kernel.KShaderCacheSetClasspath;
 import com.io7m.r1.kernel.KShaderCacheSetType;
+import com.io7m.r1.kernel.KShaderWarmUp;
+import com.io7m.r1.kernel.KShaderWarmUpRequest;
+import com.io7m.r1.kernel.KShaderWarmUpType;
 
 public final class TestShaderCaches implements KShaderCacheSetType
 {
@@ -113,6 +120,9 @@ public final class TestShaderCaches implements KShaderCacheSetType
     final KShaderCacheForwardTranslucentLitType in_shader_forward_translucent_lit_cache;
     final KShaderCacheForwardTranslucentUnlitType in_shader_forward_translucent_unlit_cache;
     final KShaderCacheImageType in_shader_image_cache;
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders =
+      new EnumMap<KShaderCacheKind, KShaderCacheLoaderType>(
+        KShaderCacheKind.class);
 
     {
       final FilesystemType fs =
@@ -125,7 +135,7 @@ public final class TestShaderCaches implements KShaderCacheSetType
             version),
           PathVirtual.ROOT);
       in_shader_debug_cache =
-        TestShaderCaches.wrapDebug(in_gi, in_log, cache_config, fs);
+        TestShaderCaches.wrapDebug(in_gi, in_log, cache_config, fs, loaders);
     }
 
     {
@@ -139,7 +149,7 @@ public final class TestShaderCaches implements KShaderCacheSetType
             version),
           PathVirtual.ROOT);
       in_shader_depth_cache =
-        TestShaderCaches.wrapDepth(in_gi, in_log, cache_config, fs);
+        TestShaderCaches.wrapDepth(in_gi, in_log, cache_config, fs, loaders);
     }
 
     {
@@ -152,7 +162,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
           version),
         PathVirtual.ROOT);
       in_shader_depth_variance_cache =
-        TestShaderCaches.wrapDepthVariance(in_gi, in_log, cache_config, fs);
+        TestShaderCaches.wrapDepthVariance(
+          in_gi,
+          in_log,
+          cache_config,
+          fs,
+          loaders);
     }
 
     {
@@ -179,7 +194,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
           version),
         PathVirtual.ROOT);
       in_shader_deferred_light_cache =
-        TestShaderCaches.wrapDeferredLight(in_gi, in_log, cache_config, fs);
+        TestShaderCaches.wrapDeferredLight(
+          in_gi,
+          in_log,
+          cache_config,
+          fs,
+          loaders);
     }
 
     {
@@ -193,7 +213,7 @@ public final class TestShaderCaches implements KShaderCacheSetType
             version),
           PathVirtual.ROOT);
       in_shader_image_cache =
-        TestShaderCaches.wrapImage(in_gi, in_log, cache_config, fs);
+        TestShaderCaches.wrapImage(in_gi, in_log, cache_config, fs, loaders);
     }
 
     {
@@ -209,7 +229,8 @@ public final class TestShaderCaches implements KShaderCacheSetType
           in_gi,
           in_log,
           cache_config,
-          fs);
+          fs,
+          loaders);
     }
 
     {
@@ -225,10 +246,14 @@ public final class TestShaderCaches implements KShaderCacheSetType
           in_gi,
           in_log,
           cache_config,
-          fs);
+          fs,
+          loaders);
     }
 
     return new TestShaderCaches(
+      in_gi,
+      in_log,
+      loaders,
       in_shader_debug_cache,
       in_shader_deferred_geo_cache,
       in_shader_deferred_light_cache,
@@ -243,10 +268,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEBUG, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDebug(c);
@@ -256,10 +283,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDeferredGeometry(c);
@@ -269,10 +298,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDeferredLight(c);
@@ -282,10 +313,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEPTH, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDepth(c);
@@ -295,10 +328,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_DEPTH_VARIANCE, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapDepthVariance(c);
@@ -310,10 +345,12 @@ public final class TestShaderCaches implements KShaderCacheSetType
       final JCGLImplementationType gi,
       final LogUsableType log,
       final LRUCacheConfig cache_config,
-      final FilesystemType fs)
+      final FilesystemType fs,
+      final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_FORWARD_TRANSLUCENT_LIT, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapForwardTranslucentLit(c);
@@ -325,10 +362,14 @@ public final class TestShaderCaches implements KShaderCacheSetType
       final JCGLImplementationType gi,
       final LogUsableType log,
       final LRUCacheConfig cache_config,
-      final FilesystemType fs)
+      final FilesystemType fs,
+      final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(
+      KShaderCacheKind.SHADER_CACHE_FORWARD_TRANSLUCENT_UNLIT,
+      loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapForwardTranslucentUnlit(c);
@@ -338,27 +379,38 @@ public final class TestShaderCaches implements KShaderCacheSetType
     final JCGLImplementationType gi,
     final LogUsableType log,
     final LRUCacheConfig cache_config,
-    final FilesystemType fs)
+    final FilesystemType fs,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders)
   {
-    final JCacheLoaderType<String, KProgramType, RException> loader =
+    final KShaderCacheLoaderType loader =
       KShaderCacheFilesystemLoader.newLoader(gi, fs, log);
+    loaders.put(KShaderCacheKind.SHADER_CACHE_IMAGE, loader);
     final LRUCacheTrivial<String, KProgramType, KProgramType, RException> c =
       LRUCacheTrivial.newCache(loader, cache_config);
     return KShaderCache.wrapImage(c);
   }
 
-  private final KShaderCacheDebugType                   shader_debug_cache;
-  private final KShaderCacheDeferredGeometryType        shader_deferred_geo_cache;
-  private final KShaderCacheDeferredLightType           shader_deferred_light_cache;
-  private final KShaderCacheDepthType                   shader_depth_cache;
-  private final KShaderCacheDepthVarianceType           shader_depth_variance_cache;
-  private final KShaderCacheForwardTranslucentLitType   shader_forward_translucent_lit_cache;
-  private final KShaderCacheForwardTranslucentUnlitType shader_forward_translucent_unlit_cache;
-  private final KShaderCacheImageType                   shader_image_cache;
+  private final JCGLImplementationType                        gi;
+  private final Map<KShaderCacheKind, KShaderCacheLoaderType> loaders;
+  private final LogUsableType                                 log;
+  private final KShaderCacheDebugType                         shader_debug_cache;
+  private final KShaderCacheDeferredGeometryType              shader_deferred_geo_cache;
+  private final KShaderCacheDeferredLightType                 shader_deferred_light_cache;
+  private final KShaderCacheDepthType                         shader_depth_cache;
+  private final KShaderCacheDepthVarianceType                 shader_depth_variance_cache;
+  private final KShaderCacheForwardTranslucentLitType         shader_forward_translucent_lit_cache;
+  private final KShaderCacheForwardTranslucentUnlitType       shader_forward_translucent_unlit_cache;
+  private final KShaderCacheImageType                         shader_image_cache;
 
   /**
    * Construct shader caches.
    *
+   * @param in_gi
+   *          The OpenGL implementation
+   * @param in_log
+   *          A log interface
+   * @param in_loaders
+   *          The loaders used by each cache
    * @param in_shader_debug_cache
    *          A shader cache
    * @param in_shader_deferred_geo_cache
@@ -376,6 +428,9 @@ public final class TestShaderCaches implements KShaderCacheSetType
    */
 
   private TestShaderCaches(
+    final JCGLImplementationType in_gi,
+    final LogUsableType in_log,
+    final Map<KShaderCacheKind, KShaderCacheLoaderType> in_loaders,
     final KShaderCacheDebugType in_shader_debug_cache,
     final KShaderCacheDeferredGeometryType in_shader_deferred_geo_cache,
     final KShaderCacheDeferredLightType in_shader_deferred_light_cache,
@@ -395,6 +450,9 @@ public final class TestShaderCaches implements KShaderCacheSetType
     this.shader_forward_translucent_unlit_cache =
       in_shader_forward_translucent_unlit_cache;
     this.shader_image_cache = in_shader_image_cache;
+    this.gi = NullCheck.notNull(in_gi, "OpenGL implementation");
+    this.log = NullCheck.notNull(in_log, "Log");
+    this.loaders = NullCheck.notNull(in_loaders, "Loaders");
   }
 
   @Override public KShaderCacheDebugType getShaderDebugCache()
@@ -446,4 +504,17 @@ public final class TestShaderCaches implements KShaderCacheSetType
   {
     return this.shader_image_cache;
   }
+
+  @Override public KShaderWarmUpType shaderWarmUpBegin(
+    final KShaderWarmUpRequest request,
+    final ExecutorService exec)
+  {
+    return KShaderWarmUp.newWarmUp(
+      this.gi,
+      this,
+      this.loaders,
+      request,
+      exec,
+      this.log);
+  }
 }
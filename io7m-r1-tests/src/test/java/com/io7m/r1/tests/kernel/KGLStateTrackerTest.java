@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.ArrayDescriptorBuilderType;
+import com.io7m.jcanephora.BlendFunction;
+import com.io7m.jcanephora.DepthFunction;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.r1.kernel.KGLStateTracker;
+import com.io7m.r1.kernel.KGLStateTrackerType;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KMeshAttributes;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KGLStateTrackerTest
+{
+  private static JCGLInterfaceCommonType newGL()
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL
+      .newFakeGL30(RFakeShaderControllers.newNull(), none)
+      .getGLCommon();
+  }
+
+  private static ArrayBufferType newArray(
+    final JCGLInterfaceCommonType gc)
+  {
+    final ArrayDescriptorBuilderType b = ArrayDescriptor.newBuilder();
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_POSITION);
+    return gc.arrayBufferAllocate(1, b.build(), UsageHint.USAGE_STATIC_DRAW);
+  }
+
+  @Test public void testArrayBufferRedundant()
+  {
+    final JCGLInterfaceCommonType gc = KGLStateTrackerTest.newGL();
+    final ArrayBufferType a0 = KGLStateTrackerTest.newArray(gc);
+    final ArrayBufferType a1 = KGLStateTrackerTest.newArray(gc);
+    final KGLStateTrackerType s = KGLStateTracker.newTracker(gc);
+
+    s.stateArrayBufferBind(a0);
+    s.stateArrayBufferBind(a0);
+    s.stateArrayBufferBind(a0);
+    Assert.assertTrue(gc.arrayBufferIsBound(a0));
+    Assert.assertEquals(1, s.stateGetSubmittedCount());
+    Assert.assertEquals(2, s.stateGetFilteredCount());
+
+    s.stateArrayBufferBind(a1);
+    Assert.assertTrue(gc.arrayBufferIsBound(a1));
+    Assert.assertEquals(2, s.stateGetSubmittedCount());
+    Assert.assertEquals(2, s.stateGetFilteredCount());
+
+    s.stateArrayBufferUnbind();
+    s.stateArrayBufferUnbind();
+    Assert.assertFalse(gc.arrayBufferIsBound(a1));
+    Assert.assertEquals(3, s.stateGetSubmittedCount());
+    Assert.assertEquals(3, s.stateGetFilteredCount());
+  }
+
+  @Test public void testBlendingRedundant()
+  {
+    final JCGLInterfaceCommonType gc = KGLStateTrackerTest.newGL();
+    final KGLStateTrackerType s = KGLStateTracker.newTracker(gc);
+
+    s.stateBlendingEnable(BlendFunction.BLEND_ONE, BlendFunction.BLEND_ONE);
+    s.stateBlendingEnable(BlendFunction.BLEND_ONE, BlendFunction.BLEND_ONE);
+    Assert.assertEquals(1, s.stateGetSubmittedCount());
+    Assert.assertEquals(1, s.stateGetFilteredCount());
+
+    s.stateBlendingEnable(BlendFunction.BLEND_ONE, BlendFunction.BLEND_ZERO);
+    Assert.assertEquals(2, s.stateGetSubmittedCount());
+
+    s.stateBlendingDisable();
+    s.stateBlendingDisable();
+    Assert.assertEquals(3, s.stateGetSubmittedCount());
+    Assert.assertEquals(2, s.stateGetFilteredCount());
+  }
+
+  @Test public void testCullingRedundant()
+  {
+    final JCGLInterfaceCommonType gc = KGLStateTrackerTest.newGL();
+    final KGLStateTrackerType s = KGLStateTracker.newTracker(gc);
+
+    for (int index = 0; index < 10; ++index) {
+      s.stateCullingConfigure(KFaceSelection.FACE_RENDER_FRONT);
+    }
+    Assert.assertEquals(1, s.stateGetSubmittedCount());
+    Assert.assertEquals(9, s.stateGetFilteredCount());
+
+    s.stateCullingConfigure(KFaceSelection.FACE_RENDER_BACK);
+    s.stateCullingConfigure(KFaceSelection.FACE_RENDER_FRONT_AND_BACK);
+    s.stateCullingConfigure(KFaceSelection.FACE_RENDER_FRONT_AND_BACK);
+    Assert.assertEquals(3, s.stateGetSubmittedCount());
+    Assert.assertEquals(10, s.stateGetFilteredCount());
+  }
+
+  @Test public void testDepthRedundant()
+  {
+    final JCGLInterfaceCommonType gc = KGLStateTrackerTest.newGL();
+    final KGLStateTrackerType s = KGLStateTracker.newTracker(gc);
+
+    s.stateDepthTestEnable(DepthFunction.DEPTH_LESS_THAN);
+    s.stateDepthTestEnable(DepthFunction.DEPTH_LESS_THAN);
+    s.stateDepthTestEnable(DepthFunction.DEPTH_GREATER_THAN);
+    s.stateDepthWriteEnable();
+    s.stateDepthWriteEnable();
+    s.stateDepthWriteDisable();
+    s.stateDepthTestDisable();
+    s.stateDepthTestDisable();
+
+    Assert.assertEquals(5, s.stateGetSubmittedCount());
+    Assert.assertEquals(3, s.stateGetFilteredCount());
+  }
+
+  @Test public void testInvalidate()
+  {
+    final JCGLInterfaceCommonType gc = KGLStateTrackerTest.newGL();
+    final KGLStateTrackerType s = KGLStateTracker.newTracker(gc);
+
+    s.stateStencilEnable();
+    s.stateStencilEnable();
+    Assert.assertEquals(1, s.stateGetSubmittedCount());
+    Assert.assertEquals(1, s.stateGetFilteredCount());
+
+    s.stateInvalidate();
+    s.stateStencilEnable();
+    Assert.assertEquals(2, s.stateGetSubmittedCount());
+    Assert.assertEquals(1, s.stateGetFilteredCount());
+
+    s.stateResetCounters();
+    Assert.assertEquals(0, s.stateGetSubmittedCount());
+    Assert.assertEquals(0, s.stateGetFilteredCount());
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.KLightTileBatch;
+import com.io7m.r1.kernel.KLightTileBinner;
+import com.io7m.r1.kernel.types.KLightSphereType;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadowBuilderType;
+import com.io7m.r1.kernel.types.KProjectionFOV;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KLightTileBatchTest
+{
+  private static final float PLANE_Z = -10.0f;
+
+  private static KLightTileBatch batchLights(
+    final KLightTileBinner binner,
+    final int width,
+    final int height,
+    final List<KLightSphereType> lights)
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFOV.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        (float) Math.toRadians(90.0f),
+        1.0f,
+        1.0f,
+        100.0f);
+    binner.binLights(
+      view,
+      projection.projectionGetMatrix(),
+      width,
+      height,
+      lights);
+
+    final KLightTileBatch batch = KLightTileBatch.newBatch();
+    batch.batchBuild(binner, width, height);
+    return batch;
+  }
+
+  /**
+   * Check that every pixel of a plane facing the observer receives exactly
+   * the lights that the per-light path would apply: each light whose sphere
+   * contains the surface point is evaluated by exactly one quad covering the
+   * pixel, and no light is evaluated twice.
+   */
+
+  private static void checkMatchesPerLight(
+    final KLightTileBatch batch,
+    final int width,
+    final int height,
+    final List<KLightSphereType> lights)
+  {
+    for (int py = 0; py < height; ++py) {
+      for (int px = 0; px < width; ++px) {
+        final float nx = ((2.0f * (px + 0.5f)) / width) - 1.0f;
+        final float ny = ((2.0f * (py + 0.5f)) / height) - 1.0f;
+
+        /**
+         * With a 90 degree field of view and an aspect ratio of 1.0, the
+         * surface point seen through the pixel lies at (nx, ny) scaled by
+         * the distance to the plane.
+         */
+
+        final float sx = nx * -KLightTileBatchTest.PLANE_Z;
+        final float sy = ny * -KLightTileBatchTest.PLANE_Z;
+        final float sz = KLightTileBatchTest.PLANE_Z;
+
+        for (final KLightSphereType light : lights) {
+          int evaluated = 0;
+          for (int q = 0; q < batch.getQuadCount(); ++q) {
+            if ((nx < batch.getQuadXMinimum(q))
+              || (nx >= batch.getQuadXMaximum(q))
+              || (ny < batch.getQuadYMinimum(q))
+              || (ny >= batch.getQuadYMaximum(q))) {
+              continue;
+            }
+            for (int i = 0; i < batch.getQuadLightCount(q); ++i) {
+              if (batch.getQuadLight(q, i) == light) {
+                ++evaluated;
+              }
+            }
+          }
+
+          final PVectorI3F<RSpaceWorldType> p = light.lightGetPosition();
+          final float dx = sx - p.getXF();
+          final float dy = sy - p.getYF();
+          final float dz = sz - p.getZF();
+          final double distance = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+
+          if (distance < light.lightGetRadius()) {
+            Assert.assertEquals(1, evaluated);
+          } else {
+            Assert.assertTrue(evaluated <= 1);
+          }
+        }
+      }
+    }
+  }
+
+  private static KLightSphereType makeLight(
+    final float x,
+    final float y,
+    final float z,
+    final float radius)
+  {
+    final KLightSphereWithoutShadowBuilderType b =
+      KLightSphereWithoutShadow.newBuilder();
+    b.setRadius(radius);
+    b.setPosition(new PVectorI3F<RSpaceWorldType>(x, y, z));
+    return b.build();
+  }
+
+  @Test public void testEmpty()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    final KLightTileBatch batch =
+      KLightTileBatchTest.batchLights(binner, 64, 64, lights);
+    Assert.assertEquals(0, batch.getQuadCount());
+  }
+
+  @Test public void testMatchesPerLightRandom()
+  {
+    final Random r = new Random(0x12345678L);
+    final KLightTileBinner binner = KLightTileBinner.newBinner(8);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    for (int index = 0; index < 64; ++index) {
+      final float x = (r.nextFloat() * 24.0f) - 12.0f;
+      final float y = (r.nextFloat() * 24.0f) - 12.0f;
+      final float z = KLightTileBatchTest.PLANE_Z + ((r.nextFloat() * 4.0f) - 2.0f);
+      final float radius = 1.0f + (r.nextFloat() * 4.0f);
+      lights.add(KLightTileBatchTest.makeLight(x, y, z, radius));
+    }
+
+    final KLightTileBatch batch =
+      KLightTileBatchTest.batchLights(binner, 60, 52, lights);
+    KLightTileBatchTest.checkMatchesPerLight(batch, 60, 52, lights);
+  }
+
+  @Test public void testMatchesPerLightSplitTile()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    for (int index = 0; index < 9; ++index) {
+      lights.add(KLightTileBatchTest.makeLight(
+        0.0f,
+        0.0f,
+        KLightTileBatchTest.PLANE_Z,
+        2.0f));
+    }
+
+    final KLightTileBatch batch =
+      KLightTileBatchTest.batchLights(binner, 64, 64, lights);
+
+    /**
+     * Nine lights in each of the four central tiles require three quads per
+     * tile.
+     */
+
+    Assert.assertEquals(12, batch.getQuadCount());
+    for (int q = 0; q < batch.getQuadCount(); ++q) {
+      Assert.assertEquals((q % 3) == 2 ? 1 : 4, batch.getQuadLightCount(q));
+      Assert.assertEquals(
+        batch.getQuadXMaximum(q) - batch.getQuadXMinimum(q),
+        0.5f,
+        0.0f);
+    }
+
+    KLightTileBatchTest.checkMatchesPerLight(batch, 64, 64, lights);
+  }
+
+  @Test(expected = RangeCheckException.class) public void testQuadOutOfRange()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    final KLightTileBatch batch =
+      KLightTileBatchTest.batchLights(binner, 64, 64, lights);
+    batch.getQuadLightCount(0);
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.KLightTileBinner;
+import com.io7m.r1.kernel.types.KLightSphereType;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadowBuilderType;
+import com.io7m.r1.kernel.types.KProjectionFOV;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KLightTileBinnerTest
+{
+  private static KLightSphereType makeLight(
+    final float x,
+    final float y,
+    final float z,
+    final float radius)
+  {
+    final KLightSphereWithoutShadowBuilderType b =
+      KLightSphereWithoutShadow.newBuilder();
+    b.setRadius(radius);
+    b.setPosition(new PVectorI3F<RSpaceWorldType>(x, y, z));
+    return b.build();
+  }
+
+  private static void binLights(
+    final KLightTileBinner binner,
+    final int width,
+    final int height,
+    final List<KLightSphereType> lights)
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFOV.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        (float) Math.toRadians(90.0f),
+        1.0f,
+        1.0f,
+        100.0f);
+    binner.binLights(
+      view,
+      projection.projectionGetMatrix(),
+      width,
+      height,
+      lights);
+  }
+
+  @Test public void testBinCenter()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    final KLightSphereType light =
+      KLightTileBinnerTest.makeLight(0.0f, 0.0f, -10.0f, 1.0f);
+    lights.add(light);
+
+    KLightTileBinnerTest.binLights(binner, 64, 64, lights);
+
+    Assert.assertEquals(4, binner.getTilesX());
+    Assert.assertEquals(4, binner.getTilesY());
+    Assert.assertEquals(1, binner.getLightsBinned());
+    Assert.assertEquals(0, binner.getLightsCulled());
+
+    for (int y = 0; y < 4; ++y) {
+      for (int x = 0; x < 4; ++x) {
+        final boolean center = (x >= 1) && (x <= 2) && (y >= 1) && (y <= 2);
+        if (center) {
+          Assert.assertEquals(1, binner.getTileLightCount(x, y));
+          Assert.assertSame(light, binner.getTileLight(x, y, 0));
+        } else {
+          Assert.assertEquals(0, binner.getTileLightCount(x, y));
+        }
+      }
+    }
+  }
+
+  @Test public void testBinCulled()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    lights.add(KLightTileBinnerTest.makeLight(0.0f, 0.0f, 50.0f, 1.0f));
+    lights.add(KLightTileBinnerTest.makeLight(500.0f, 0.0f, -10.0f, 1.0f));
+
+    KLightTileBinnerTest.binLights(binner, 64, 64, lights);
+
+    Assert.assertEquals(0, binner.getLightsBinned());
+    Assert.assertEquals(2, binner.getLightsCulled());
+    for (int y = 0; y < 4; ++y) {
+      for (int x = 0; x < 4; ++x) {
+        Assert.assertEquals(0, binner.getTileLightCount(x, y));
+      }
+    }
+  }
+
+  @Test public void testBinContainsObserver()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    lights.add(KLightTileBinnerTest.makeLight(0.0f, 0.0f, 0.0f, 5.0f));
+
+    KLightTileBinnerTest.binLights(binner, 64, 64, lights);
+
+    Assert.assertEquals(1, binner.getLightsBinned());
+    for (int y = 0; y < 4; ++y) {
+      for (int x = 0; x < 4; ++x) {
+        Assert.assertEquals(1, binner.getTileLightCount(x, y));
+      }
+    }
+  }
+
+  @Test public void testBinOrderAndReuse()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    final KLightSphereType l0 =
+      KLightTileBinnerTest.makeLight(0.0f, 0.0f, -10.0f, 1.0f);
+    final KLightSphereType l1 =
+      KLightTileBinnerTest.makeLight(0.0f, 0.0f, -10.0f, 1.0f);
+    lights.add(l0);
+    lights.add(l1);
+
+    KLightTileBinnerTest.binLights(binner, 64, 64, lights);
+    Assert.assertEquals(2, binner.getTileLightCount(1, 1));
+    Assert.assertSame(l0, binner.getTileLight(1, 1, 0));
+    Assert.assertSame(l1, binner.getTileLight(1, 1, 1));
+
+    lights.remove(0);
+    KLightTileBinnerTest.binLights(binner, 64, 64, lights);
+    Assert.assertEquals(1, binner.getTileLightCount(1, 1));
+    Assert.assertSame(l1, binner.getTileLight(1, 1, 0));
+  }
+
+  @Test public void testTileCountRoundsUp()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    KLightTileBinnerTest.binLights(binner, 65, 33, lights);
+    Assert.assertEquals(5, binner.getTilesX());
+    Assert.assertEquals(3, binner.getTilesY());
+  }
+
+  @Test(expected = RangeCheckException.class) public void testTileLightOutOfRange()
+  {
+    final KLightTileBinner binner = KLightTileBinner.newBinner(16);
+    final List<KLightSphereType> lights = new ArrayList<KLightSphereType>();
+    KLightTileBinnerTest.binLights(binner, 64, 64, lights);
+    binner.getTileLight(0, 0, 0);
+  }
+
+  @Test(expected = RangeCheckException.class) public void testTileSizeInvalid()
+  {
+    KLightTileBinner.newBinner(0);
+  }
+}
@@ -16,6 +16,10 @@
 
 package com.io7m.r1.tests.kernel;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -40,6 +44,7 @@ import com.io7m.jequality.AlmostEqualFloat;
 import com.io7m.jequality.AlmostEqualFloat.ContextRelative;
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NonNull;
 import com.io7m.jnull.NullCheckException;
@@ -63,6 +68,7 @@ import com.io7m.r1.exceptions.RExceptionMatricesProjectiveActive;
 import com.io7m.r1.exceptions.RExceptionMatricesProjectiveInactive;
 import com.io7m.r1.exceptions.RExceptionUserError;
 import com.io7m.r1.kernel.KMaterialDefaults;
+import com.io7m.r1.kernel.KMatricesInstanceBatch;
 import com.io7m.r1.kernel.KMatricesInstanceFunctionType;
 import com.io7m.r1.kernel.KMatricesInstanceType;
 import com.io7m.r1.kernel.KMatricesInstanceWithProjectiveFunctionType;
@@ -84,6 +90,7 @@ import com.io7m.r1.kernel.types.KMesh;
 import com.io7m.r1.kernel.types.KMeshAttributes;
 import com.io7m.r1.kernel.types.KProjectionFrustum;
 import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.kernel.types.KTransformNode;
 import com.io7m.r1.kernel.types.KTransformOST;
 import com.io7m.r1.kernel.types.KTransformType;
 import com.io7m.r1.spaces.RSpaceClipType;
@@ -218,6 +225,128 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
     }
   }
 
+  private static List<KInstanceType> makeMeshInstances(
+    final int count)
+  {
+    final KInstanceOpaqueRegular base =
+      (KInstanceOpaqueRegular) KMutableMatricesTest.makeMeshInstance();
+    final List<KInstanceType> instances = new ArrayList<KInstanceType>();
+
+    for (int index = 0; index < count; ++index) {
+      final float f = index;
+      final QuaternionI4F orientation =
+        new QuaternionI4F(0.0f, 0.6f, 0.0f, 0.8f);
+      final VectorI3F scale = new VectorI3F(1.0f + f, 2.0f, 1.0f);
+      final PVectorI3F<RSpaceWorldType> translation =
+        new PVectorI3F<RSpaceWorldType>(f, -f, f * 2.0f);
+      final KTransformType trans =
+        KTransformOST.newTransform(orientation, scale, translation);
+
+      final PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType> uv =
+        new PMatrixM3x3F<RSpaceTextureType, RSpaceTextureType>();
+      uv.set(0, 2, f);
+
+      instances.add(KInstanceOpaqueRegular.newInstance(
+        base.instanceGetMesh(),
+        base.getMaterial(),
+        trans,
+        PMatrixI3x3F.newFromReadable(uv),
+        KFaceSelection.FACE_RENDER_FRONT));
+    }
+
+    return instances;
+  }
+
+  private static List<KInstanceType> makeNodeInstances(
+    final List<KInstanceType> instances)
+  {
+    final List<KInstanceType> nodes = new ArrayList<KInstanceType>();
+    for (int index = 0; index < instances.size(); ++index) {
+      final KInstanceOpaqueRegular i =
+        (KInstanceOpaqueRegular) instances.get(index);
+      nodes.add(KInstanceOpaqueRegular.newInstance(
+        i.instanceGetMesh(),
+        i.getMaterial(),
+        KTransformNode.newNode(i.instanceGetTransform()),
+        i.instanceGetUVMatrix(),
+        i.instanceGetFaceSelection()));
+    }
+    return nodes;
+  }
+
+  private static PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> makeView(
+    final float x)
+  {
+    final PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType> m =
+      new PMatrixM4x4F<RSpaceWorldType, RSpaceEyeType>();
+    m.set(0, 3, x);
+    m.set(1, 3, -x);
+    m.set(0, 1, 0.5f);
+    return PMatrixI4x4F.newFromReadable(m);
+  }
+
+  private static float[] recordMatrices(
+    final KMutableMatrices mm,
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view,
+    final OptionType<KMatricesInstanceBatch> batch,
+    final List<KInstanceType> instances)
+    throws Exception
+  {
+    final float[] out = new float[instances.size() * 50];
+
+    final KMatricesObserverFunctionType<Unit, NullCheckException> f =
+      new KMatricesObserverFunctionType<Unit, NullCheckException>() {
+        @Override public Unit run(
+          final KMatricesObserverType o)
+          throws RException
+        {
+          for (int index = 0; index < instances.size(); ++index) {
+            final int base = index * 50;
+            o.withInstance(
+              instances.get(index),
+              new KMatricesInstanceFunctionType<Unit, NullCheckException>() {
+                @Override public Unit run(
+                  final KMatricesInstanceType i)
+                  throws RException
+                {
+                  for (int r = 0; r < 4; ++r) {
+                    for (int c = 0; c < 4; ++c) {
+                      out[base + (r * 4) + c] =
+                        i.getMatrixModel().getRowColumnF(r, c);
+                      out[base + 16 + (r * 4) + c] =
+                        i.getMatrixModelView().getRowColumnF(r, c);
+                    }
+                  }
+                  for (int r = 0; r < 3; ++r) {
+                    for (int c = 0; c < 3; ++c) {
+                      out[base + 32 + (r * 3) + c] =
+                        i.getMatrixNormal().getRowColumnF(r, c);
+                      out[base + 41 + (r * 3) + c] =
+                        i.getMatrixUV().getRowColumnF(r, c);
+                    }
+                  }
+                  return Unit.unit();
+                }
+              });
+          }
+          return Unit.unit();
+        }
+      };
+
+    final KProjectionType projection =
+      KMutableMatricesTest.arbitraryProjection();
+    if (batch.isSome()) {
+      mm.withObserverBatched(
+        view,
+        projection,
+        ((Some<KMatricesInstanceBatch>) batch).get(),
+        f);
+    } else {
+      mm.withObserver(view, projection, f);
+    }
+    return out;
+  }
+
   private static
     AtomicReference<KMatricesObserverType>
     saveObserverDangerously(
@@ -627,6 +756,104 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
     r.get().withInstance(i, f);
   }
 
+  @Test public void testWithObserverBatchedDifferentView()
+    throws Exception
+  {
+    final List<KInstanceType> instances =
+      KMutableMatricesTest.makeMeshInstances(10);
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      KMutableMatricesTest.makeView(3.0f);
+
+    final KMatricesInstanceBatch b = KMatricesInstanceBatch.newBatch();
+    b.batchEvaluateInstances(KMutableMatricesTest.makeView(1.0f), instances);
+    Assert.assertFalse(b.batchIsForView(view));
+
+    final KMutableMatrices mm = KMutableMatrices.newMatrices();
+    final OptionType<KMatricesInstanceBatch> none = Option.none();
+    final float[] expected =
+      KMutableMatricesTest.recordMatrices(mm, view, none, instances);
+    final float[] received =
+      KMutableMatricesTest.recordMatrices(
+        mm,
+        view,
+        Option.some(b),
+        instances);
+
+    Assert.assertArrayEquals(expected, received, 0.0f);
+  }
+
+  @Test public void testWithObserverBatchedEqualsUnbatched()
+    throws Exception
+  {
+    final int count = (KMatricesInstanceBatch.CHUNK_SIZE * 2) + 3;
+    final List<KInstanceType> instances =
+      KMutableMatricesTest.makeMeshInstances(count);
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      KMutableMatricesTest.makeView(2.0f);
+
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      final KMatricesInstanceBatch b =
+        KMatricesInstanceBatch.newBatchWithExecutor(exec);
+      b.batchEvaluateInstances(view, instances);
+      Assert.assertEquals(count, b.batchGetCount());
+      Assert.assertTrue(b.batchIsForView(view));
+
+      for (int index = 0; index < count; ++index) {
+        Assert.assertEquals(index, b.batchGetIndex(instances.get(index)));
+      }
+      Assert.assertEquals(
+        -1,
+        b.batchGetIndex(KMutableMatricesTest.makeMeshInstance()));
+
+      final KMutableMatrices mm = KMutableMatrices.newMatrices();
+      final OptionType<KMatricesInstanceBatch> none = Option.none();
+      final float[] expected =
+        KMutableMatricesTest.recordMatrices(mm, view, none, instances);
+      final float[] received =
+        KMutableMatricesTest.recordMatrices(
+          mm,
+          view,
+          Option.some(b),
+          instances);
+
+      Assert.assertArrayEquals(expected, received, 0.0f);
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  /**
+   * Instances with transform nodes must receive the same matrices as
+   * instances with the equivalent plain transforms, whether or not their
+   * normal matrices are derived from the nodes' cached normal matrices.
+   */
+
+  @Test public void testWithObserverNodeEqualsTransform()
+    throws Exception
+  {
+    final List<KInstanceType> instances =
+      KMutableMatricesTest.makeMeshInstances(10);
+    final List<KInstanceType> nodes =
+      KMutableMatricesTest.makeNodeInstances(instances);
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      KMutableMatricesTest.makeView(2.0f);
+
+    final KMutableMatrices mm = KMutableMatrices.newMatrices();
+    final OptionType<KMatricesInstanceBatch> none = Option.none();
+    final float[] expected =
+      KMutableMatricesTest.recordMatrices(mm, view, none, instances);
+    final float[] received =
+      KMutableMatricesTest.recordMatrices(mm, view, none, nodes);
+    Assert.assertArrayEquals(expected, received, 0.0001f);
+
+    final KMatricesInstanceBatch b = KMatricesInstanceBatch.newBatch();
+    b.batchEvaluateInstances(view, nodes);
+    final float[] batched =
+      KMutableMatricesTest.recordMatrices(mm, view, Option.some(b), nodes);
+    Assert.assertArrayEquals(received, batched, 0.0f);
+  }
+
   @Test(expected = AssertionError.class) public void testWithObserverFault0()
     throws Exception
   {
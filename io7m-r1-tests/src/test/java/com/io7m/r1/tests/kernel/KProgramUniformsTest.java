@@ -0,0 +1,319 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.FragmentShaderType;
+import com.io7m.jcanephora.JCGLException;
+import com.io7m.jcanephora.JCGLType;
+import com.io7m.jcanephora.ProgramAttributeType;
+import com.io7m.jcanephora.ProgramType;
+import com.io7m.jcanephora.ProgramUniformType;
+import com.io7m.jcanephora.ProgramUsableType;
+import com.io7m.jcanephora.VertexShaderType;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jcanephora.batchexec.JCBExecutor;
+import com.io7m.jcanephora.batchexec.JCBExecutorProcedureType;
+import com.io7m.jcanephora.batchexec.JCBExecutorType;
+import com.io7m.jcanephora.batchexec.JCBProgramProcedureType;
+import com.io7m.jcanephora.batchexec.JCBProgramType;
+import com.io7m.jcanephora.fake.FakeProgram;
+import com.io7m.jcanephora.fake.FakeProgramUniform;
+import com.io7m.jcanephora.fake.FakeShaderControlType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jlog.Log;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogPolicyAllOn;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jtensors.MatrixM4x4F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionProgramUniformUnassigned;
+import com.io7m.r1.kernel.KProgramUniformSlot;
+import com.io7m.r1.kernel.KProgramUniforms;
+import com.io7m.r1.tests.RFakeGL;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KProgramUniformsTest
+{
+  private static void declare(
+    final ProgramUsableType program,
+    final Map<String, ProgramUniformType> uniforms,
+    final String name,
+    final JCGLType type)
+  {
+    final FakeProgram fp = (FakeProgram) program;
+    uniforms.put(
+      name,
+      FakeProgramUniform.newUniform(
+        fp.getContext(),
+        program,
+        0,
+        0,
+        name,
+        type));
+  }
+
+  private static JCGLImplementationType newGL(
+    final LogUsableType log)
+  {
+    final FakeShaderControlType shader_control = new FakeShaderControlType() {
+      @Override public void onFragmentShaderCompile(
+        final String name,
+        final FragmentShaderType v)
+        throws JCGLException
+      {
+        // Nothing
+      }
+
+      @Override public void onProgramCreate(
+        final String name,
+        final ProgramUsableType program,
+        final Map<String, ProgramUniformType> uniforms,
+        final Map<String, ProgramAttributeType> attributes)
+        throws JCGLException
+      {
+        KProgramUniformsTest.declare(
+          program,
+          uniforms,
+          "m_projection",
+          JCGLType.TYPE_FLOAT_MATRIX_4);
+        KProgramUniformsTest.declare(
+          program,
+          uniforms,
+          "depth_coefficient",
+          JCGLType.TYPE_FLOAT);
+        KProgramUniformsTest.declare(
+          program,
+          uniforms,
+          "m_modelview",
+          JCGLType.TYPE_FLOAT_MATRIX_4);
+        KProgramUniformsTest.declare(
+          program,
+          uniforms,
+          "p_albedo.mix",
+          JCGLType.TYPE_FLOAT);
+      }
+
+      @Override public void onVertexShaderCompile(
+        final String name,
+        final VertexShaderType v)
+        throws JCGLException
+      {
+        // Nothing
+      }
+    };
+
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL.newFakeGL30WithLog(log, shader_control, none);
+  }
+
+  private static ProgramType newProgram(
+    final JCGLInterfaceCommonType gc)
+  {
+    final List<String> lines = new ArrayList<String>();
+    lines.add("Nothing!");
+    final VertexShaderType v = gc.vertexShaderCompile("p", lines);
+    final FragmentShaderType f = gc.fragmentShaderCompile("p", lines);
+    return gc.programCreateCommon("p", v, f);
+  }
+
+  /**
+   * Several instances drawn in a single execution of the executor must each
+   * satisfy the executor, even though per-execution uniforms are written only
+   * once.
+   */
+
+  @Test public void testExecuteMultipleInstances()
+    throws Exception
+  {
+    final LogUsableType log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final JCGLImplementationType g = KProgramUniformsTest.newGL(log);
+    final JCGLInterfaceCommonType gc = g.getGLCommon();
+    final ProgramType p = KProgramUniformsTest.newProgram(gc);
+
+    final JCBExecutorType exec =
+      JCBExecutor.newExecutorWithoutDeclarations(gc, p, log);
+    final KProgramUniforms u = KProgramUniforms.newUniforms(gc, p);
+    Assert.assertEquals(4, u.uniformsGetResolvedCount());
+
+    final int[] draws = new int[1];
+    final JCBProgramProcedureType<JCGLException> draw =
+      new JCBProgramProcedureType<JCGLException>() {
+        @Override public void call()
+        {
+          ++draws[0];
+        }
+      };
+
+    final MatrixM4x4F m = new MatrixM4x4F();
+    final JCBExecutorProcedureType<JCGLException> run =
+      new JCBExecutorProcedureType<JCGLException>() {
+        @Override public void call(
+          final JCBProgramType jp)
+          throws JCGLException
+        {
+          u.uniformsBegin();
+
+          /**
+           * Per-execution uniforms, written by name and through a slot.
+           */
+
+          jp.programUniformPutMatrix4x4f("m_projection", m);
+          jp.programUniformPutFloat("depth_coefficient", 1.0f);
+          u.uniformsPutFloat(
+            jp,
+            KProgramUniformSlot.SLOT_MATERIAL_ALBEDO_MIX,
+            0.5f);
+
+          for (int index = 0; index < 3; ++index) {
+            u.uniformsReuse(jp, KProgramUniformSlot.SLOT_MATRIX_PROJECTION);
+            u.uniformsReuse(jp, KProgramUniformSlot.SLOT_DEPTH_COEFFICIENT);
+            u.uniformsPutMatrix4x4f(
+              jp,
+              KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+              m);
+            u.uniformsExecute(jp, draw);
+          }
+        }
+      };
+
+    exec.execRun(run);
+    Assert.assertEquals(3, draws[0]);
+
+    /**
+     * A second execution starts from nothing, and must behave identically.
+     */
+
+    exec.execRun(run);
+    Assert.assertEquals(6, draws[0]);
+  }
+
+  private static JCBExecutorProcedureType<RException> newRun(
+    final KProgramUniforms u,
+    final int count,
+    final boolean skip_last,
+    final int[] draws)
+  {
+    final MatrixM4x4F m = new MatrixM4x4F();
+    final KProgramUniformSlot[] per_draw =
+      new KProgramUniformSlot[] { KProgramUniformSlot.SLOT_MATRIX_MODELVIEW };
+
+    return new JCBExecutorProcedureType<RException>() {
+      @Override public void call(
+        final JCBProgramType jp)
+        throws RException
+      {
+        u.uniformsBegin();
+        jp.programUniformPutMatrix4x4f("m_projection", m);
+        jp.programUniformPutFloat("depth_coefficient", 1.0f);
+        u.uniformsReuse(jp, KProgramUniformSlot.SLOT_MATRIX_PROJECTION);
+        u.uniformsReuse(jp, KProgramUniformSlot.SLOT_DEPTH_COEFFICIENT);
+        u.uniformsPutFloat(
+          jp,
+          KProgramUniformSlot.SLOT_MATERIAL_ALBEDO_MIX,
+          0.5f);
+
+        u.uniformsExecuteRun(
+          jp,
+          per_draw,
+          new JCBProgramProcedureType<RException>() {
+            @Override public void call()
+              throws RException
+            {
+              for (int index = 0; index < count; ++index) {
+                final boolean skip = skip_last && (index == (count - 1));
+                if (skip == false) {
+                  u.uniformsPutMatrix4x4f(
+                    jp,
+                    KProgramUniformSlot.SLOT_MATRIX_MODELVIEW,
+                    m);
+                }
+                u.uniformsDraw();
+                ++draws[0];
+              }
+            }
+          });
+      }
+    };
+  }
+
+  /**
+   * A run of draws must satisfy the executor, and must not make any more
+   * uniform operations by name than a run consisting of a single draw.
+   */
+
+  @Test public void testExecuteRun()
+    throws Exception
+  {
+    final LogUsableType log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final JCGLImplementationType g = KProgramUniformsTest.newGL(log);
+    final JCGLInterfaceCommonType gc = g.getGLCommon();
+    final ProgramType p = KProgramUniformsTest.newProgram(gc);
+
+    final JCBExecutorType exec =
+      JCBExecutor.newExecutorWithoutDeclarations(gc, p, log);
+    final KProgramUniforms u = KProgramUniforms.newUniforms(gc, p);
+    final int[] draws = new int[1];
+
+    exec.execRun(KProgramUniformsTest.newRun(u, 1, false, draws));
+    Assert.assertEquals(1, draws[0]);
+    final long single = u.uniformsGetNamedCount();
+    Assert.assertEquals(4, single);
+
+    exec.execRun(KProgramUniformsTest.newRun(u, 1000, false, draws));
+    Assert.assertEquals(1001, draws[0]);
+    Assert.assertEquals(single * 2, u.uniformsGetNamedCount());
+  }
+
+  /**
+   * A draw in a run for which a per-draw slot has not been written is
+   * rejected.
+   */
+
+  @Test(expected = RExceptionProgramUniformUnassigned.class) public
+    void
+    testExecuteRunUnassigned()
+      throws Exception
+  {
+    final LogUsableType log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final JCGLImplementationType g = KProgramUniformsTest.newGL(log);
+    final JCGLInterfaceCommonType gc = g.getGLCommon();
+    final ProgramType p = KProgramUniformsTest.newProgram(gc);
+
+    final JCBExecutorType exec =
+      JCBExecutor.newExecutorWithoutDeclarations(gc, p, log);
+    final KProgramUniforms u = KProgramUniforms.newUniforms(gc, p);
+    final int[] draws = new int[1];
+
+    try {
+      exec.execRun(KProgramUniformsTest.newRun(u, 3, true, draws));
+    } finally {
+      Assert.assertEquals(2, draws[0]);
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.io7m.r1.tests.kernel;
 
 import java.math.BigInteger;
 
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import com.io7m.jcache.BLUCacheConfig;
@@ -48,6 +50,7 @@ import com.io7m.jtensors.VectorI4F;
 import com.io7m.jtensors.parameterized.PMatrixI3x3F;
 import com.io7m.jtensors.parameterized.PMatrixI4x4F;
 import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
 import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.kernel.KDepthRenderer;
@@ -93,7 +96,10 @@ import com.io7m.r1.kernel.types.KFramebufferDeferredDescriptionBuilderType;
 import com.io7m.r1.kernel.types.KFrustumMeshCache;
 import com.io7m.r1.kernel.types.KFrustumMeshCacheType;
 import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KLightDirectional;
 import com.io7m.r1.kernel.types.KLightPropertiesType;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadowBuilderType;
 import com.io7m.r1.kernel.types.KLightType;
 import com.io7m.r1.kernel.types.KLightWithShadowType;
 import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
@@ -122,6 +128,7 @@ import com.io7m.r1.tests.RFakeGL;
 import com.io7m.r1.tests.RFakeShaderControllers;
 import com.io7m.r1.tests.RFakeTextures2DStatic;
 import com.io7m.r1.tests.RFakeTexturesCubeStatic;
+import com.io7m.r1.tests.TestAllocations;
 import com.io7m.r1.tests.TestShaderCaches;
 
 @SuppressWarnings({ "null", "static-method" }) public final class KRendererDeferredOpaqueTest
@@ -149,6 +156,77 @@ import com.io7m.r1.tests.TestShaderCaches;
     return k;
   }
 
+  private static KVisibleSet makeVisibleSetWithInstances(
+    final KCamera camera,
+    final KMeshReadableType mesh,
+    final KMaterialOpaqueRegular material,
+    final int count)
+    throws Exception
+  {
+    final KVisibleSetBuilderWithCreateType tb =
+      KVisibleSet.newBuilder(camera);
+    final KVisibleSetLightGroupBuilderType lg =
+      tb.visibleOpaqueNewLightGroup("g0");
+    lg.groupAddLight(KLightDirectional.newBuilder().build());
+
+    for (int index = 0; index < count; ++index) {
+      lg.groupAddInstance(KInstanceOpaqueRegular.newInstance(
+        mesh,
+        material,
+        KTransformMatrix4x4.newTransform(PMatrixI4x4F
+          .<RSpaceObjectType, RSpaceWorldType> identity()),
+        PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+        KFaceSelection.FACE_RENDER_FRONT));
+    }
+
+    return tb.visibleCreate();
+  }
+
+  private static long renderFramesAllocation(
+    final KRendererDeferredOpaqueType r,
+    final KShadowMapRendererType sr,
+    final KFramebufferDeferredUsableType framebuffer,
+    final KMutableMatrices m,
+    final KCamera camera,
+    final KVisibleSet visible,
+    final int frames)
+    throws Exception
+  {
+    final KShadowMapWithType<Unit, RException> with =
+      new KShadowMapWithType<Unit, RException>() {
+        @Override public Unit withMaps(
+          final KShadowMapContextType shadow_context)
+          throws RException
+        {
+          return m.withObserver(
+            camera.getViewMatrix(),
+            camera.getProjection(),
+            new KMatricesObserverFunctionType<Unit, UnreachableCodeException>() {
+              @Override public Unit run(
+                final KMatricesObserverType mwo)
+                throws RException
+              {
+                final OptionType<DepthFunction> depth_function =
+                  Option.none();
+                r.rendererEvaluateOpaqueLit(
+                  framebuffer,
+                  shadow_context,
+                  depth_function,
+                  mwo,
+                  visible.getOpaques());
+                return Unit.unit();
+              }
+            });
+        }
+      };
+
+    final long before = TestAllocations.getAllocatedBytes();
+    for (int index = 0; index < frames; ++index) {
+      sr.rendererEvaluateShadowMaps(camera, visible.getShadows(), with);
+    }
+    return TestAllocations.getAllocatedBytes() - before;
+  }
+
   private static KRendererDeferredOpaqueType makeRenderer(
     final JCGLImplementationType g,
     final KShaderCacheSetType tc,
@@ -425,4 +503,301 @@ import com.io7m.r1.tests.TestShaderCaches;
         }
       });
   }
+
+  @Test public void testLightCulling()
+    throws Exception
+  {
+    final LogUsableType in_log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KUnitQuadCacheType qc =
+      KUnitQuadCache.newCache(g.getGLCommon(), in_log);
+    final KShaderCacheSetType tc =
+      TestShaderCaches.newCachesFromArchives(g, in_log);
+    final KTextureBindingsControllerType bindings =
+      KTextureBindingsController.newBindings(g.getGLCommon());
+
+    final KFramebufferDeferredUsableType framebuffer =
+      KFramebufferDeferred.newFramebuffer(g, KFramebufferDeferredDescription
+        .newBuilder(RFakeGL.SCREEN_AREA)
+        .build());
+
+    final KRendererDeferredOpaqueType r =
+      KRendererDeferredOpaqueTest.makeRenderer(g, tc, in_log, qc);
+
+    final KDepthRendererType dr =
+      KDepthRenderer.newRenderer(
+        g,
+        bindings,
+        tc.getShaderDepthCache(),
+        in_log);
+    final KDepthVarianceRendererType dvr =
+      KDepthVarianceRenderer.newRenderer(
+        g,
+        bindings,
+        tc.getShaderDepthVarianceCache());
+    final KFramebufferDepthVarianceCacheType depth_variance_cache =
+      KFramebufferDepthVarianceCache.newCacheWithConfig(
+        g,
+        BLUCacheConfig
+          .empty()
+          .withMaximumBorrowsPerKey(BigInteger.TEN)
+          .withMaximumCapacity(BigInteger.valueOf(1024 * 1024 * 8 * 128)),
+        in_log);
+    final KImageFilterDepthVarianceType<KBlurParameters> pbdv =
+      KImageFilterBlurDepthVariance.filterNew(
+        g,
+        bindings,
+        KRegionCopier.newCopier(g, in_log),
+        depth_variance_cache,
+        tc.getShaderImageCache(),
+        qc,
+        in_log);
+    final KShadowMapCacheType sc =
+      KShadowMapCache.newCacheWithConfig(g, BLUCacheConfig
+        .empty()
+        .withMaximumBorrowsPerKey(BigInteger.valueOf(256))
+        .withMaximumCapacity(BigInteger.valueOf(1024 * 1024 * 8 * 128)), in_log);
+    final KShadowMapRendererType sr =
+      KShadowMapRenderer.newRenderer(g, dr, dvr, pbdv, sc, in_log);
+
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFOV.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        (float) Math.toRadians(90.0f),
+        1.0f,
+        1.0f,
+        100.0f);
+    final KCamera camera = KCamera.newCamera(view, projection);
+
+    final KMeshReadableType mesh =
+      KRendererDeferredOpaqueTest.makeMesh(g.getGLCommon());
+    final KInstanceOpaqueRegular o =
+      KInstanceOpaqueRegular.newInstance(
+        mesh,
+        new RKDMaterialCases(
+          RFakeTextures2DStatic.newWithName(g, "t2d"),
+          RFakeTexturesCubeStatic.newAnything(g))
+          .getCasesGeometryOpaqueRegular()
+          .get(0),
+        KTransformMatrix4x4.newTransform(PMatrixI4x4F
+          .<RSpaceObjectType, RSpaceWorldType> identity()),
+        PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+        KFaceSelection.FACE_RENDER_FRONT);
+
+    /**
+     * One sphere light in front of the camera, one behind it, and one
+     * directional light that cannot be culled.
+     */
+
+    final KLightSphereWithoutShadowBuilderType lsb =
+      KLightSphereWithoutShadow.newBuilder();
+    lsb.setRadius(2.0f);
+    lsb.setPosition(new PVectorI3F<RSpaceWorldType>(0.0f, 0.0f, -10.0f));
+    final KLightType in_front = lsb.build();
+    lsb.setPosition(new PVectorI3F<RSpaceWorldType>(0.0f, 0.0f, 50.0f));
+    final KLightType behind = lsb.build();
+    final KLightType directional = KLightDirectional.newBuilder().build();
+
+    final KVisibleSetBuilderWithCreateType tb =
+      KVisibleSet.newBuilder(camera);
+    final KVisibleSetLightGroupBuilderType lg =
+      tb.visibleOpaqueNewLightGroup("g0");
+    lg.groupAddLight(in_front);
+    lg.groupAddLight(behind);
+    lg.groupAddLight(directional);
+    lg.groupAddInstance(o);
+    final KVisibleSet visible = tb.visibleCreate();
+
+    final KMutableMatrices m = KMutableMatrices.newMatrices();
+    sr.rendererEvaluateShadowMaps(
+      camera,
+      visible.getShadows(),
+      new KShadowMapWithType<Unit, RException>() {
+        @Override public Unit withMaps(
+          final KShadowMapContextType shadow_context)
+          throws RException
+        {
+          return m
+            .withObserver(
+              view,
+              projection,
+              new KMatricesObserverFunctionType<Unit, UnreachableCodeException>() {
+                @Override public Unit run(
+                  final KMatricesObserverType mwo)
+                  throws RException
+                {
+                  final OptionType<DepthFunction> depth_function =
+                    Option.none();
+                  r.rendererEvaluateOpaqueLit(
+                    framebuffer,
+                    shadow_context,
+                    depth_function,
+                    mwo,
+                    visible.getOpaques());
+                  return Unit.unit();
+                }
+              });
+        }
+      });
+
+    Assert.assertEquals(1, r.rendererGetLightsCulled());
+    Assert.assertEquals(2, r.rendererGetLightsRendered());
+  }
+
+  /**
+   * Rendering more instances must not allocate more memory than one texture
+   * binding context handle per instance: All other per-instance work in the
+   * geometry pass reuses preallocated objects.
+   */
+
+  @Test public void testGeometryAllocationSteadyState()
+    throws Exception
+  {
+    Assume.assumeTrue(TestAllocations.isSupported());
+
+    final LogUsableType in_log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KUnitQuadCacheType qc =
+      KUnitQuadCache.newCache(g.getGLCommon(), in_log);
+    final KShaderCacheSetType tc =
+      TestShaderCaches.newCachesFromArchives(g, in_log);
+    final KTextureBindingsControllerType bindings =
+      KTextureBindingsController.newBindings(g.getGLCommon());
+
+    final KFramebufferDeferredUsableType framebuffer =
+      KFramebufferDeferred.newFramebuffer(g, KFramebufferDeferredDescription
+        .newBuilder(RFakeGL.SCREEN_AREA)
+        .build());
+
+    final KRendererDeferredOpaqueType r =
+      KRendererDeferredOpaqueTest.makeRenderer(g, tc, in_log, qc);
+
+    final KDepthRendererType dr =
+      KDepthRenderer.newRenderer(
+        g,
+        bindings,
+        tc.getShaderDepthCache(),
+        in_log);
+    final KDepthVarianceRendererType dvr =
+      KDepthVarianceRenderer.newRenderer(
+        g,
+        bindings,
+        tc.getShaderDepthVarianceCache());
+    final KFramebufferDepthVarianceCacheType depth_variance_cache =
+      KFramebufferDepthVarianceCache.newCacheWithConfig(
+        g,
+        BLUCacheConfig
+          .empty()
+          .withMaximumBorrowsPerKey(BigInteger.TEN)
+          .withMaximumCapacity(BigInteger.valueOf(1024 * 1024 * 8 * 128)),
+        in_log);
+    final KImageFilterDepthVarianceType<KBlurParameters> pbdv =
+      KImageFilterBlurDepthVariance.filterNew(
+        g,
+        bindings,
+        KRegionCopier.newCopier(g, in_log),
+        depth_variance_cache,
+        tc.getShaderImageCache(),
+        qc,
+        in_log);
+    final KShadowMapCacheType sc =
+      KShadowMapCache.newCacheWithConfig(g, BLUCacheConfig
+        .empty()
+        .withMaximumBorrowsPerKey(BigInteger.valueOf(256))
+        .withMaximumCapacity(BigInteger.valueOf(1024 * 1024 * 8 * 128)), in_log);
+    final KShadowMapRendererType sr =
+      KShadowMapRenderer.newRenderer(g, dr, dvr, pbdv, sc, in_log);
+
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFOV.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        (float) Math.toRadians(90.0f),
+        1.0f,
+        1.0f,
+        100.0f);
+    final KCamera camera = KCamera.newCamera(view, projection);
+
+    final KMeshReadableType mesh =
+      KRendererDeferredOpaqueTest.makeMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular material =
+      new RKDMaterialCases(
+        RFakeTextures2DStatic.newWithName(g, "t2d"),
+        RFakeTexturesCubeStatic.newAnything(g))
+        .getCasesGeometryOpaqueRegular()
+        .get(0);
+
+    final int small = 8;
+    final int large = 8 + 256;
+    final KVisibleSet visible_small =
+      KRendererDeferredOpaqueTest.makeVisibleSetWithInstances(
+        camera,
+        mesh,
+        material,
+        small);
+    final KVisibleSet visible_large =
+      KRendererDeferredOpaqueTest.makeVisibleSetWithInstances(
+        camera,
+        mesh,
+        material,
+        large);
+
+    final KMutableMatrices m = KMutableMatrices.newMatrices();
+
+    /**
+     * Warm up, so that caches and pooled objects reach their steady state.
+     */
+
+    KRendererDeferredOpaqueTest.renderFramesAllocation(
+      r,
+      sr,
+      framebuffer,
+      m,
+      camera,
+      visible_large,
+      50);
+    KRendererDeferredOpaqueTest.renderFramesAllocation(
+      r,
+      sr,
+      framebuffer,
+      m,
+      camera,
+      visible_small,
+      50);
+
+    final int frames = 20;
+    final long bytes_small =
+      KRendererDeferredOpaqueTest.renderFramesAllocation(
+        r,
+        sr,
+        framebuffer,
+        m,
+        camera,
+        visible_small,
+        frames);
+    final long bytes_large =
+      KRendererDeferredOpaqueTest.renderFramesAllocation(
+        r,
+        sr,
+        framebuffer,
+        m,
+        camera,
+        visible_large,
+        frames);
+
+    final long per_instance =
+      (bytes_large - bytes_small) / ((long) (large - small) * frames);
+    Assert.assertTrue(
+      "Allocated " + per_instance + " bytes per instance",
+      per_instance < TestAllocations.MINIMUM_OBJECT_SIZE * 3);
+  }
 }
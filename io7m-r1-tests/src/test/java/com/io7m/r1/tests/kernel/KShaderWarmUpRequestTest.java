@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.r1.kernel.KShaderCacheKind;
+import com.io7m.r1.kernel.KShaderWarmUpRequest;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KShaderWarmUpRequestTest
+{
+  @Test public void testEmpty()
+  {
+    final KShaderWarmUpRequest r = KShaderWarmUpRequest.newRequest();
+    Assert.assertEquals(0, r.requestGetSize());
+    for (final KShaderCacheKind k : KShaderCacheKind.values()) {
+      Assert.assertTrue(r.requestGetNames(k).isEmpty());
+    }
+  }
+
+  @Test public void testAddDuplicates()
+  {
+    final KShaderWarmUpRequest r = KShaderWarmUpRequest.newRequest();
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, "flat_clip");
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, "flat_clip");
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_IMAGE, "flat_clip");
+
+    Assert.assertEquals(2, r.requestGetSize());
+    Assert.assertEquals(
+      1,
+      r.requestGetNames(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT).size());
+    Assert.assertEquals(
+      1,
+      r.requestGetNames(KShaderCacheKind.SHADER_CACHE_IMAGE).size());
+    Assert.assertTrue(r.requestGetNames(
+      KShaderCacheKind.SHADER_CACHE_DEPTH).isEmpty());
+  }
+
+  @Test public void testAddOrdered()
+  {
+    final KShaderWarmUpRequest r = KShaderWarmUpRequest.newRequest();
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY, "c");
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY, "a");
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY, "b");
+
+    final Set<String> names =
+      r.requestGetNames(KShaderCacheKind.SHADER_CACHE_DEFERRED_GEOMETRY);
+    final Iterator<String> iter = names.iterator();
+    Assert.assertEquals("c", iter.next());
+    Assert.assertEquals("a", iter.next());
+    Assert.assertEquals("b", iter.next());
+    Assert.assertFalse(iter.hasNext());
+  }
+
+  @Test(expected = UnsupportedOperationException.class) public
+    void
+    testNamesUnmodifiable()
+  {
+    final KShaderWarmUpRequest r = KShaderWarmUpRequest.newRequest();
+    r.requestGetNames(KShaderCacheKind.SHADER_CACHE_DEBUG).add("x");
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jlog.Log;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogPolicyAllOn;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KShaderCacheKind;
+import com.io7m.r1.kernel.KShaderCacheSetType;
+import com.io7m.r1.kernel.KShaderWarmUpRequest;
+import com.io7m.r1.kernel.KShaderWarmUpType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+import com.io7m.r1.tests.TestShaderCaches;
+
+@SuppressWarnings("static-method") public final class KShaderWarmUpTest
+{
+  private static KShaderCacheSetType newCaches()
+    throws Exception
+  {
+    final LogUsableType log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType gi =
+      RFakeGL.newFakeGL30WithLog(log, RFakeShaderControllers.newNull(), none);
+    return TestShaderCaches.newCachesFromArchives(gi, log);
+  }
+
+  @Test(expected = RException.class, timeout = 10000) public
+    void
+    testFinishFailed()
+      throws Exception
+  {
+    final KShaderWarmUpRequest r = KShaderWarmUpRequest.newRequest();
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, "nonexistent_0");
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, "nonexistent_1");
+
+    final ExecutorService exec = Executors.newSingleThreadExecutor();
+    final KShaderWarmUpType w =
+      KShaderWarmUpTest.newCaches().shaderWarmUpBegin(r, exec);
+
+    try {
+      w.warmUpFinish();
+    } finally {
+      exec.shutdown();
+      Assert.assertEquals(2, w.warmUpGetTotal());
+      Assert.assertEquals(2, w.warmUpGetCompleted());
+      Assert.assertTrue(w.warmUpIsFinished());
+    }
+  }
+
+  @Test(expected = RException.class, timeout = 10000) public
+    void
+    testPollFailedFinish()
+      throws Exception
+  {
+    final KShaderWarmUpRequest r = KShaderWarmUpRequest.newRequest();
+    r.requestAdd(KShaderCacheKind.SHADER_CACHE_DEFERRED_LIGHT, "nonexistent_0");
+
+    final ExecutorService exec = Executors.newSingleThreadExecutor();
+    final KShaderWarmUpType w =
+      KShaderWarmUpTest.newCaches().shaderWarmUpBegin(r, exec);
+
+    try {
+      while (w.warmUpIsFinished() == false) {
+        try {
+          w.warmUpPoll(1);
+        } catch (final RException e) {
+          Assert.assertEquals(1, w.warmUpGetCompleted());
+        }
+      }
+
+      /**
+       * The failure raised by the poll is raised again.
+       */
+
+      w.warmUpFinish();
+    } finally {
+      exec.shutdown();
+    }
+  }
+}
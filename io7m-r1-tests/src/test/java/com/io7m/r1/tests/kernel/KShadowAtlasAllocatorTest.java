@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.AreaInclusive;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.r1.kernel.KShadowAtlasAllocator;
+import com.io7m.r1.kernel.KShadowAtlasRegion;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KShadowAtlasAllocatorTest
+{
+  private static KShadowAtlasRegion get(
+    final OptionType<KShadowAtlasRegion> o)
+  {
+    Assert.assertTrue(o.isSome());
+    return ((Some<KShadowAtlasRegion>) o).get();
+  }
+
+  private static boolean overlaps(
+    final KShadowAtlasRegion a,
+    final KShadowAtlasRegion b)
+  {
+    final AreaInclusive aa = a.getArea();
+    final AreaInclusive ba = b.getArea();
+    return (aa.getRangeX().getLower() <= ba.getRangeX().getUpper())
+      && (ba.getRangeX().getLower() <= aa.getRangeX().getUpper())
+      && (aa.getRangeY().getLower() <= ba.getRangeY().getUpper())
+      && (ba.getRangeY().getLower() <= aa.getRangeY().getUpper());
+  }
+
+  @Test public void testAllocateFull()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    final KShadowAtlasRegion r = KShadowAtlasAllocatorTest.get(a.allocate(10));
+
+    Assert.assertEquals(0, r.getX());
+    Assert.assertEquals(0, r.getY());
+    Assert.assertEquals(10, r.getExponent());
+    Assert.assertEquals(0.0f, r.getUVRegion().getXF(), 0.0f);
+    Assert.assertEquals(0.0f, r.getUVRegion().getYF(), 0.0f);
+    Assert.assertEquals(1.0f, r.getUVRegion().getZF(), 0.0f);
+    Assert.assertEquals(1.0f, r.getUVRegion().getWF(), 0.0f);
+    Assert.assertEquals(-1, a.getLargestFreeExponent());
+    Assert.assertTrue(a.allocate(6).isNone());
+  }
+
+  @Test public void testRegionClampInset()
+  {
+    final KShadowAtlasRegion r = KShadowAtlasRegion.newRegion(4, 8, 2, 4);
+
+    /**
+     * A 4x4 region at (4, 8) in a 16x16 atlas: lookups are clamped to the
+     * centres of the outermost texels of the region.
+     */
+
+    Assert.assertEquals(0.25f, r.getUVRegion().getXF(), 0.0f);
+    Assert.assertEquals(0.5f, r.getUVRegion().getYF(), 0.0f);
+    Assert.assertEquals(4.5f / 16.0f, r.getUVClamp().getXF(), 0.0f);
+    Assert.assertEquals(8.5f / 16.0f, r.getUVClamp().getYF(), 0.0f);
+    Assert.assertEquals(7.5f / 16.0f, r.getUVClamp().getZF(), 0.0f);
+    Assert.assertEquals(11.5f / 16.0f, r.getUVClamp().getWF(), 0.0f);
+  }
+
+  @Test public void testAllocateQuadrants()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    final List<KShadowAtlasRegion> rs = new ArrayList<KShadowAtlasRegion>();
+
+    for (int index = 0; index < 4; ++index) {
+      rs.add(KShadowAtlasAllocatorTest.get(a.allocate(9)));
+    }
+
+    Assert.assertEquals(4, a.getAllocatedCount());
+    Assert.assertEquals(-1, a.getLargestFreeExponent());
+    Assert.assertTrue(a.allocate(9).isNone());
+
+    for (int i = 0; i < rs.size(); ++i) {
+      final KShadowAtlasRegion r = rs.get(i);
+      Assert.assertEquals(0.5f, r.getUVRegion().getZF(), 0.0f);
+      for (int k = i + 1; k < rs.size(); ++k) {
+        Assert.assertFalse(KShadowAtlasAllocatorTest.overlaps(r, rs.get(k)));
+      }
+    }
+  }
+
+  @Test public void testAllocateMixedNoOverlap()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    final List<KShadowAtlasRegion> rs = new ArrayList<KShadowAtlasRegion>();
+
+    rs.add(KShadowAtlasAllocatorTest.get(a.allocate(9)));
+    for (int index = 0; index < 16; ++index) {
+      rs.add(KShadowAtlasAllocatorTest.get(a.allocate(7)));
+    }
+    rs.add(KShadowAtlasAllocatorTest.get(a.allocate(8)));
+    for (int index = 0; index < 16; ++index) {
+      rs.add(KShadowAtlasAllocatorTest.get(a.allocate(6)));
+    }
+
+    for (int i = 0; i < rs.size(); ++i) {
+      for (int k = i + 1; k < rs.size(); ++k) {
+        Assert.assertFalse(KShadowAtlasAllocatorTest.overlaps(
+          rs.get(i),
+          rs.get(k)));
+      }
+    }
+
+    /**
+     * Small regions are packed together rather than each splitting a
+     * separate quadrant, so a full quadrant remains.
+     */
+
+    Assert.assertEquals(9, a.getLargestFreeExponent());
+  }
+
+  @Test public void testFreeMerges()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    final List<KShadowAtlasRegion> rs = new ArrayList<KShadowAtlasRegion>();
+
+    for (int index = 0; index < 64; ++index) {
+      rs.add(KShadowAtlasAllocatorTest.get(a.allocate(7)));
+    }
+    Assert.assertEquals(-1, a.getLargestFreeExponent());
+
+    for (final KShadowAtlasRegion r : rs) {
+      Assert.assertTrue(a.free(r));
+    }
+
+    Assert.assertEquals(0, a.getAllocatedCount());
+    Assert.assertEquals(10, a.getLargestFreeExponent());
+    KShadowAtlasAllocatorTest.get(a.allocate(10));
+  }
+
+  @Test public void testFreeTwice()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    final KShadowAtlasRegion r = KShadowAtlasAllocatorTest.get(a.allocate(8));
+
+    Assert.assertTrue(a.free(r));
+    Assert.assertFalse(a.free(r));
+    Assert.assertEquals(0, a.getAllocatedCount());
+  }
+
+  @Test public void testFreeForeign()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    final KShadowAtlasAllocator b = KShadowAtlasAllocator.newAllocator(11, 6);
+    final KShadowAtlasRegion r = KShadowAtlasAllocatorTest.get(b.allocate(8));
+
+    KShadowAtlasAllocatorTest.get(a.allocate(8));
+    Assert.assertFalse(a.free(r));
+    Assert.assertEquals(1, a.getAllocatedCount());
+  }
+
+  @Test public void testClear()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    KShadowAtlasAllocatorTest.get(a.allocate(10));
+    a.clear();
+    Assert.assertEquals(0, a.getAllocatedCount());
+    Assert.assertEquals(10, a.getLargestFreeExponent());
+    KShadowAtlasAllocatorTest.get(a.allocate(6));
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testAllocateTooSmall()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    a.allocate(5);
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testAllocateTooLarge()
+  {
+    final KShadowAtlasAllocator a = KShadowAtlasAllocator.newAllocator(10, 6);
+    a.allocate(11);
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testTooDeep()
+  {
+    KShadowAtlasAllocator.newAllocator(
+      12,
+      11 - KShadowAtlasAllocator.MAXIMUM_DEPTH);
+  }
+}
@@ -82,6 +82,7 @@ import com.io7m.r1.kernel.KImageFilterDepthVarianceType;
 import com.io7m.r1.kernel.KImageFilterVisitorType;
 import com.io7m.r1.kernel.KMaterialDefaults;
 import com.io7m.r1.kernel.KProgramType;
+import com.io7m.r1.kernel.KProgramUniforms;
 import com.io7m.r1.kernel.KShaderCache;
 import com.io7m.r1.kernel.KShaderCacheDepthType;
 import com.io7m.r1.kernel.KShaderCacheDepthVarianceType;
@@ -113,6 +114,7 @@ import com.io7m.r1.kernel.types.KShadowMapDescriptionType;
 import com.io7m.r1.kernel.types.KShadowMappedBasic;
 import com.io7m.r1.kernel.types.KShadowMappedBasicBuilderType;
 import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KTransformNode;
 import com.io7m.r1.kernel.types.KTransformType;
 import com.io7m.r1.kernel.types.KVisibleSet;
 import com.io7m.r1.kernel.types.KVisibleSetBuilderWithCreateType;
@@ -135,7 +137,8 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
 
     public TestRenderer(
       final JCGLImplementationType g,
-      final LogUsableType log)
+      final LogUsableType log,
+      final boolean persistent)
       throws RException
     {
       final JCGLInterfaceCommonType gc = g.getGLCommon();
@@ -167,6 +170,8 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
 
               final JCBExecutorType exec =
                 JCBExecutor.newExecutorWithoutDeclarations(gc, p, log);
+              final KProgramUniforms uniforms =
+                KProgramUniforms.newUniforms(gc, p);
 
               return new KProgramType() {
                 @Override public JCBExecutorType getExecutable()
@@ -193,6 +198,11 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
                   return p;
                 }
 
+                @Override public KProgramUniforms getUniforms()
+                {
+                  return uniforms;
+                }
+
                 @Override public JPVertexShaderMetaType getVertexShaderMeta()
                 {
                   // TODO Auto-generated method stub
@@ -259,6 +269,12 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
                   return p;
                 }
 
+                @Override public KProgramUniforms getUniforms()
+                {
+                  // TODO Auto-generated method stub
+                  throw new UnimplementedCodeException();
+                }
+
                 @Override public JPVertexShaderMetaType getVertexShaderMeta()
                 {
                   // TODO Auto-generated method stub
@@ -371,19 +387,41 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
           }
         });
 
-      this.shadow_map_renderer =
-        KShadowMapRenderer.newRenderer(
-          g,
-          depth_renderer,
-          depth_variance_renderer,
-          blur,
-          shadow_cache,
-          log);
+      if (persistent) {
+        this.shadow_map_renderer =
+          KShadowMapRenderer.newRendererWithPersistentMaps(
+            g,
+            depth_renderer,
+            depth_variance_renderer,
+            blur,
+            shadow_cache,
+            log);
+      } else {
+        this.shadow_map_renderer =
+          KShadowMapRenderer.newRenderer(
+            g,
+            depth_renderer,
+            depth_variance_renderer,
+            blur,
+            shadow_cache,
+            log);
+      }
     }
   }
 
   private KInstanceOpaqueType getOpaque(
     final JCGLImplementationType g)
+  {
+    final PMatrixI4x4F<RSpaceObjectType, RSpaceWorldType> model =
+      PMatrixI4x4F.identity();
+    return this.getOpaqueWithTransform(
+      g,
+      KTransformMatrix4x4.newTransform(model));
+  }
+
+  private KInstanceOpaqueType getOpaqueWithTransform(
+    final JCGLImplementationType g,
+    final KTransformType trans)
   {
     try {
       final JCGLInterfaceCommonType gc = g.getGLCommon();
@@ -392,9 +430,6 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
 
       final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> uv =
         PMatrixI3x3F.identity();
-      final PMatrixI4x4F<RSpaceObjectType, RSpaceWorldType> model =
-        PMatrixI4x4F.identity();
-      final KTransformType trans = KTransformMatrix4x4.newTransform(model);
       final KMaterialOpaqueRegular in_material =
         KMaterialOpaqueRegular.newBuilder(defaults).build();
 
@@ -471,7 +506,7 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
     final JCGLImplementationType g =
       RFakeGL.newFakeGL30WithLog(log, shader_control, none);
 
-    final TestRenderer r = new TestRenderer(g, log);
+    final TestRenderer r = new TestRenderer(g, log, false);
 
     final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> id =
       PMatrixI4x4F.identity();
@@ -606,7 +641,7 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
     final JCGLImplementationType g =
       RFakeGL.newFakeGL30WithLog(log, shader_control, none);
 
-    final TestRenderer r = new TestRenderer(g, log);
+    final TestRenderer r = new TestRenderer(g, log, false);
 
     final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> id =
       PMatrixI4x4F.identity();
@@ -704,6 +739,281 @@ import com.io7m.r1.tests.RFakeTextures2DStatic;
     Assert.assertEquals(9, r.cache_retrieves.intValue());
   }
 
+  @Test public void testShadowMapRendererPersistent_0()
+    throws Exception
+  {
+    final FakeShaderControlType shader_control = new FakeShaderControlType() {
+      @Override public void onFragmentShaderCompile(
+        final String name,
+        final FragmentShaderType v)
+        throws JCGLException
+      {
+        // Nothing
+      }
+
+      @Override public void onProgramCreate(
+        final String name,
+        final ProgramUsableType program,
+        final Map<String, ProgramUniformType> uniforms,
+        final Map<String, ProgramAttributeType> attributes)
+        throws JCGLException
+      {
+        final FakeProgram fp = (FakeProgram) program;
+
+        if ("DepC".equals(name)) {
+          KShadowMapRendererTest.this.configureProgramDepC(
+            program,
+            uniforms,
+            attributes,
+            fp);
+        }
+      }
+
+      @Override public void onVertexShaderCompile(
+        final String name,
+        final VertexShaderType v)
+        throws JCGLException
+      {
+        // Nothing
+      }
+    };
+
+    final LogUsableType log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30WithLog(log, shader_control, none);
+
+    final TestRenderer r = new TestRenderer(g, log, true);
+    final KShadowMapRendererType smr = r.shadow_map_renderer;
+
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> id =
+      PMatrixI4x4F.identity();
+    final KProjectionFOV proj =
+      KProjectionFOV.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        90.0f,
+        1.0f,
+        1.0f,
+        100.0f);
+    final KCamera camera = KCamera.newCamera(id, proj);
+
+    final Texture2DStaticUsableType lt = RFakeTextures2DStatic.newAnything(g);
+    final KLightProjectiveWithShadowBasicBuilderType sl0b =
+      KLightProjectiveWithShadowBasic.newBuilder(lt, proj);
+
+    final KShadowMapDescriptionBasicBuilderType smbm_b =
+      KShadowMapDescriptionBasic.newBuilder();
+    smbm_b.setSizeExponent(2);
+    final KShadowMappedBasicBuilderType smb_b =
+      KShadowMappedBasic.newBuilder();
+    smb_b.setMapDescription(smbm_b.build());
+    final KShadowMappedBasic smb = smb_b.build();
+
+    sl0b.setShadow(smb);
+    final KLightProjectiveWithShadowBasic sl0 = sl0b.build();
+    final KLightProjectiveWithShadowBasic sl1 = sl0b.build();
+
+    final KInstanceOpaqueType o0 = this.getOpaque(g);
+    final KInstanceOpaqueType o1 = this.getOpaque(g);
+
+    final KShadowMapWithType<KShadowMapUsableType, UnreachableCodeException> get_sl0 =
+      new KShadowMapWithType<KShadowMapUsableType, UnreachableCodeException>() {
+        @Override public KShadowMapUsableType withMaps(
+          final KShadowMapContextType context)
+          throws JCGLException,
+            RException
+        {
+          return context.getShadowMap(sl0);
+        }
+      };
+
+    /**
+     * The first frame renders everything.
+     */
+
+    final KVisibleSetBuilderWithCreateType sb0 =
+      KVisibleSet.newBuilder(camera);
+    sb0.visibleShadowsAddCaster(sl0, o0);
+    sb0.visibleShadowsAddCaster(sl1, o0);
+    final KVisibleSet s0 = sb0.visibleCreate();
+
+    final KShadowMapUsableType m0 =
+      smr.rendererEvaluateShadowMaps(camera, s0.getShadows(), get_sl0);
+    Assert.assertEquals(2, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(0, smr.rendererGetShadowMapsReused());
+
+    /**
+     * An identical frame renders nothing, and the same maps are used.
+     */
+
+    final KShadowMapUsableType m1 =
+      smr.rendererEvaluateShadowMaps(camera, s0.getShadows(), get_sl0);
+    Assert.assertEquals(0, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(2, smr.rendererGetShadowMapsReused());
+    Assert.assertSame(m0, m1);
+
+    /**
+     * A different visible set with the same casters renders nothing.
+     */
+
+    final KVisibleSetBuilderWithCreateType sb1 =
+      KVisibleSet.newBuilder(camera);
+    sb1.visibleShadowsAddCaster(sl0, o0);
+    sb1.visibleShadowsAddCaster(sl1, o0);
+    final KVisibleSet s1 = sb1.visibleCreate();
+
+    smr.rendererEvaluateShadowMaps(camera, s1.getShadows(), get_sl0);
+    Assert.assertEquals(0, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(2, smr.rendererGetShadowMapsReused());
+
+    /**
+     * Changing the casters of one light re-renders only that light.
+     */
+
+    final KVisibleSetBuilderWithCreateType sb2 =
+      KVisibleSet.newBuilder(camera);
+    sb2.visibleShadowsAddCaster(sl0, o0);
+    sb2.visibleShadowsAddCaster(sl1, o0);
+    sb2.visibleShadowsAddCaster(sl1, o1);
+    final KVisibleSet s2 = sb2.visibleCreate();
+
+    smr.rendererEvaluateShadowMaps(camera, s2.getShadows(), get_sl0);
+    Assert.assertEquals(1, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(1, smr.rendererGetShadowMapsReused());
+
+    /**
+     * Explicit invalidation re-renders the light.
+     */
+
+    smr.rendererInvalidateShadowMap(sl0);
+    smr.rendererEvaluateShadowMaps(camera, s2.getShadows(), get_sl0);
+    Assert.assertEquals(1, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(1, smr.rendererGetShadowMapsReused());
+
+    smr.rendererInvalidateShadowMaps();
+    smr.rendererEvaluateShadowMaps(camera, s2.getShadows(), get_sl0);
+    Assert.assertEquals(2, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(0, smr.rendererGetShadowMapsReused());
+  }
+
+  @Test public void testShadowMapRendererPersistentNode_0()
+    throws Exception
+  {
+    final FakeShaderControlType shader_control = new FakeShaderControlType() {
+      @Override public void onFragmentShaderCompile(
+        final String name,
+        final FragmentShaderType v)
+        throws JCGLException
+      {
+        // Nothing
+      }
+
+      @Override public void onProgramCreate(
+        final String name,
+        final ProgramUsableType program,
+        final Map<String, ProgramUniformType> uniforms,
+        final Map<String, ProgramAttributeType> attributes)
+        throws JCGLException
+      {
+        final FakeProgram fp = (FakeProgram) program;
+
+        if ("DepC".equals(name)) {
+          KShadowMapRendererTest.this.configureProgramDepC(
+            program,
+            uniforms,
+            attributes,
+            fp);
+        }
+      }
+
+      @Override public void onVertexShaderCompile(
+        final String name,
+        final VertexShaderType v)
+        throws JCGLException
+      {
+        // Nothing
+      }
+    };
+
+    final LogUsableType log =
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30WithLog(log, shader_control, none);
+
+    final TestRenderer r = new TestRenderer(g, log, true);
+    final KShadowMapRendererType smr = r.shadow_map_renderer;
+
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> id =
+      PMatrixI4x4F.identity();
+    final KProjectionFOV proj =
+      KProjectionFOV.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        90.0f,
+        1.0f,
+        1.0f,
+        100.0f);
+    final KCamera camera = KCamera.newCamera(id, proj);
+
+    final Texture2DStaticUsableType lt = RFakeTextures2DStatic.newAnything(g);
+    final KLightProjectiveWithShadowBasicBuilderType sl0b =
+      KLightProjectiveWithShadowBasic.newBuilder(lt, proj);
+
+    final KShadowMapDescriptionBasicBuilderType smbm_b =
+      KShadowMapDescriptionBasic.newBuilder();
+    smbm_b.setSizeExponent(2);
+    final KShadowMappedBasicBuilderType smb_b =
+      KShadowMappedBasic.newBuilder();
+    smb_b.setMapDescription(smbm_b.build());
+    sl0b.setShadow(smb_b.build());
+    final KLightProjectiveWithShadowBasic sl0 = sl0b.build();
+
+    final PMatrixI4x4F<RSpaceObjectType, RSpaceWorldType> model =
+      PMatrixI4x4F.identity();
+    final KTransformNode node =
+      KTransformNode.newNode(KTransformMatrix4x4.newTransform(model));
+    final KInstanceOpaqueType o0 = this.getOpaqueWithTransform(g, node);
+
+    final KShadowMapWithType<KShadowMapUsableType, UnreachableCodeException> get_sl0 =
+      new KShadowMapWithType<KShadowMapUsableType, UnreachableCodeException>() {
+        @Override public KShadowMapUsableType withMaps(
+          final KShadowMapContextType context)
+          throws JCGLException,
+            RException
+        {
+          return context.getShadowMap(sl0);
+        }
+      };
+
+    final KVisibleSetBuilderWithCreateType sb0 =
+      KVisibleSet.newBuilder(camera);
+    sb0.visibleShadowsAddCaster(sl0, o0);
+    final KVisibleSet s0 = sb0.visibleCreate();
+
+    smr.rendererEvaluateShadowMaps(camera, s0.getShadows(), get_sl0);
+    Assert.assertEquals(1, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(0, smr.rendererGetShadowMapsReused());
+
+    smr.rendererEvaluateShadowMaps(camera, s0.getShadows(), get_sl0);
+    Assert.assertEquals(0, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(1, smr.rendererGetShadowMapsReused());
+
+    /**
+     * Moving the caster's node in place re-renders the light, even though
+     * the set of casters is unchanged.
+     */
+
+    node.nodeSetLocal(KTransformMatrix4x4.newTransform(model));
+    smr.rendererEvaluateShadowMaps(camera, s0.getShadows(), get_sl0);
+    Assert.assertEquals(1, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(0, smr.rendererGetShadowMapsReused());
+
+    smr.rendererEvaluateShadowMaps(camera, s0.getShadows(), get_sl0);
+    Assert.assertEquals(0, smr.rendererGetShadowMapsRendered());
+    Assert.assertEquals(1, smr.rendererGetShadowMapsReused());
+  }
+
   private void configureProgramDepC(
     final ProgramUsableType program,
     final Map<String, ProgramUniformType> uniforms,
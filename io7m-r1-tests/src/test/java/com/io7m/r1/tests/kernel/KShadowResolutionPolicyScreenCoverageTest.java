@@ -0,0 +1,258 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.Texture2DStaticUsableType;
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KShadowResolutionPolicyScreenCoverage;
+import com.io7m.r1.kernel.KShadowResolutionPolicyType;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KLightProjectiveType;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasic;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicBuilderType;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeTextures2DStatic;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KShadowResolutionPolicyScreenCoverageTest
+{
+  private static KCamera newCamera()
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> id =
+      PMatrixI4x4F.identity();
+    final KProjectionType proj =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -1.0f,
+        1.0f,
+        -1.0f,
+        1.0f,
+        1.0f,
+        100.0f);
+    return KCamera.newCamera(id, proj);
+  }
+
+  private static KLightProjectiveType newLight(
+    final float z,
+    final float range)
+  {
+    final KProjectionType proj =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -1.0f,
+        1.0f,
+        -1.0f,
+        1.0f,
+        1.0f,
+        100.0f);
+    final Texture2DStaticUsableType tex = RFakeTextures2DStatic.newAnything();
+    final KLightProjectiveWithShadowBasicBuilderType b =
+      KLightProjectiveWithShadowBasic.newBuilder(tex, proj);
+    b.setPosition(new PVectorI3F<RSpaceWorldType>(0.0f, 0.0f, z));
+    b.setRange(range);
+    return b.build();
+  }
+
+  @Test public void testNearLightFullSize()
+    throws RException
+  {
+    final KShadowResolutionPolicyType p =
+      KShadowResolutionPolicyScreenCoverage.newPolicy(4, Long.MAX_VALUE);
+
+    final List<KLightProjectiveType> lights =
+      new ArrayList<KLightProjectiveType>();
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      -2.0f,
+      10.0f));
+
+    final int[] requested = new int[] { 10 };
+    final int[] chosen = new int[1];
+    p.policyChooseExponents(
+      KShadowResolutionPolicyScreenCoverageTest.newCamera(),
+      lights,
+      requested,
+      chosen);
+
+    Assert.assertEquals(10, chosen[0]);
+  }
+
+  @Test public void testBehindLightMinimum()
+    throws RException
+  {
+    final KShadowResolutionPolicyType p =
+      KShadowResolutionPolicyScreenCoverage.newPolicy(4, Long.MAX_VALUE);
+
+    /**
+     * A light of range 10 at distance 20 behind the camera cannot reach the
+     * near plane, and so receives the minimum size.
+     */
+
+    final List<KLightProjectiveType> lights =
+      new ArrayList<KLightProjectiveType>();
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      20.0f,
+      10.0f));
+
+    final int[] requested = new int[] { 10 };
+    final int[] chosen = new int[1];
+    p.policyChooseExponents(
+      KShadowResolutionPolicyScreenCoverageTest.newCamera(),
+      lights,
+      requested,
+      chosen);
+
+    Assert.assertEquals(4, chosen[0]);
+  }
+
+  @Test public void testBehindLightReachingNear()
+    throws RException
+  {
+    final KShadowResolutionPolicyType p =
+      KShadowResolutionPolicyScreenCoverage.newPolicy(4, Long.MAX_VALUE);
+
+    /**
+     * A light of range 10 at distance 5 behind the camera reaches the near
+     * plane, and so receives the requested size.
+     */
+
+    final List<KLightProjectiveType> lights =
+      new ArrayList<KLightProjectiveType>();
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      5.0f,
+      10.0f));
+
+    final int[] requested = new int[] { 10 };
+    final int[] chosen = new int[1];
+    p.policyChooseExponents(
+      KShadowResolutionPolicyScreenCoverageTest.newCamera(),
+      lights,
+      requested,
+      chosen);
+
+    Assert.assertEquals(10, chosen[0]);
+  }
+
+  @Test public void testDistantLightReduced()
+    throws RException
+  {
+    final KShadowResolutionPolicyType p =
+      KShadowResolutionPolicyScreenCoverage.newPolicy(4, Long.MAX_VALUE);
+
+    /**
+     * A light of range 2 at distance 50 covers 2 / 50 of the visible
+     * height, so the map is reduced by a factor of 32.
+     */
+
+    final List<KLightProjectiveType> lights =
+      new ArrayList<KLightProjectiveType>();
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      -50.0f,
+      2.0f));
+
+    final int[] requested = new int[] { 10 };
+    final int[] chosen = new int[1];
+    p.policyChooseExponents(
+      KShadowResolutionPolicyScreenCoverageTest.newCamera(),
+      lights,
+      requested,
+      chosen);
+
+    Assert.assertEquals(5, chosen[0]);
+  }
+
+  @Test public void testMinimum()
+    throws RException
+  {
+    final KShadowResolutionPolicyType p =
+      KShadowResolutionPolicyScreenCoverage.newPolicy(8, Long.MAX_VALUE);
+
+    final List<KLightProjectiveType> lights =
+      new ArrayList<KLightProjectiveType>();
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      -99.0f,
+      0.5f));
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      -99.0f,
+      0.5f));
+
+    final int[] requested = new int[] { 10, 6 };
+    final int[] chosen = new int[2];
+    p.policyChooseExponents(
+      KShadowResolutionPolicyScreenCoverageTest.newCamera(),
+      lights,
+      requested,
+      chosen);
+
+    Assert.assertEquals(8, chosen[0]);
+    Assert.assertEquals(6, chosen[1]);
+  }
+
+  @Test public void testBudgetReducesLeastVisible()
+    throws RException
+  {
+    /**
+     * The first light reaches the camera and receives a 2 ^ 10 map. The
+     * second covers half of the visible height and receives a 2 ^ 9 map
+     * without a budget. The budget only permits a 2 ^ 10 map and a 2 ^ 8
+     * map, so the second (less visible) light is reduced.
+     */
+
+    final long budget = (1L << 20) + (1L << 16);
+    final KShadowResolutionPolicyType p =
+      KShadowResolutionPolicyScreenCoverage.newPolicy(4, budget);
+
+    final List<KLightProjectiveType> lights =
+      new ArrayList<KLightProjectiveType>();
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      -2.0f,
+      10.0f));
+    lights.add(KShadowResolutionPolicyScreenCoverageTest.newLight(
+      -40.0f,
+      20.0f));
+
+    final int[] requested = new int[] { 10, 10 };
+    final int[] chosen = new int[2];
+    p.policyChooseExponents(
+      KShadowResolutionPolicyScreenCoverageTest.newCamera(),
+      lights,
+      requested,
+      chosen);
+
+    Assert.assertEquals(10, chosen[0]);
+    Assert.assertEquals(8, chosen[1]);
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testBudgetInvalid()
+  {
+    KShadowResolutionPolicyScreenCoverage.newPolicy(4, 0);
+  }
+}
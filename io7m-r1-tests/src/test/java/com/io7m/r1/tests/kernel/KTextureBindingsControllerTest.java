@@ -19,6 +19,7 @@ package com.io7m.r1.tests.kernel;
 import java.util.List;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import com.io7m.jcanephora.Texture2DStaticType;
@@ -40,6 +41,7 @@ import com.io7m.r1.tests.RFakeGL;
 import com.io7m.r1.tests.RFakeShaderControllers;
 import com.io7m.r1.tests.RFakeTextures2DStatic;
 import com.io7m.r1.tests.RFakeTexturesCubeStatic;
+import com.io7m.r1.tests.TestAllocations;
 
 @SuppressWarnings({ "null", "static-method" }) public final class KTextureBindingsControllerTest
 {
@@ -398,4 +400,97 @@ import com.io7m.r1.tests.RFakeTexturesCubeStatic;
         }
       });
   }
+
+  @Test public void testBindingsSteadyStateNoAllocation()
+    throws Exception
+  {
+    Assume.assumeTrue(TestAllocations.isSupported());
+
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KTextureBindingsControllerType bc =
+      KTextureBindingsController.newBindings(g.getGLCommon());
+
+    final PartialProcedureType<KTextureBindingsContextType, RException> inner =
+      new PartialProcedureType<KTextureBindingsContextType, RException>() {
+        @Override public void call(
+          final KTextureBindingsContextType c)
+        {
+          // Nothing
+        }
+      };
+    final PartialProcedureType<KTextureBindingsContextType, RException> outer =
+      new PartialProcedureType<KTextureBindingsContextType, RException>() {
+        @Override public void call(
+          final KTextureBindingsContextType c)
+          throws RException
+        {
+          bc.withNewEmptyContext(inner);
+          bc.withNewAppendingContext(inner);
+        }
+      };
+
+    /**
+     * Warm up, so that all contexts have been created.
+     */
+
+    for (int index = 0; index < 1000; ++index) {
+      bc.withNewEmptyContext(outer);
+    }
+
+    /**
+     * Each iteration enters three contexts, each of which allocates exactly
+     * one small context handle.
+     */
+
+    final long before = TestAllocations.getAllocatedBytes();
+    for (int index = 0; index < 10000; ++index) {
+      bc.withNewEmptyContext(outer);
+    }
+    final long after = TestAllocations.getAllocatedBytes();
+
+    Assert.assertTrue(
+      (after - before) / (10000 * 3) < TestAllocations.MINIMUM_OBJECT_SIZE * 3);
+  }
+
+  @Test(expected = RExceptionUnitAllocatorNotCurrent.class) public
+    void
+    testBindingsStaleReused()
+      throws Exception
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KTextureBindingsControllerType bc =
+      KTextureBindingsController.newBindings(g.getGLCommon());
+    final Texture2DStaticType t0 = RFakeTextures2DStatic.newWithName(g, "t0");
+
+    final KTextureBindingsContextType[] saved =
+      new KTextureBindingsContextType[1];
+
+    bc
+      .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
+        @Override public void call(
+          final KTextureBindingsContextType c0)
+        {
+          saved[0] = c0;
+        }
+      });
+
+    /**
+     * The second context reuses the storage of the first, at the same
+     * depth, but the saved context must still be rejected.
+     */
+
+    bc
+      .withNewEmptyContext(new PartialProcedureType<KTextureBindingsContextType, RException>() {
+        @Override public void call(
+          final KTextureBindingsContextType c1)
+          throws RException
+        {
+          saved[0].withTexture2D(t0);
+        }
+      });
+  }
 }
@@ -53,6 +53,8 @@ import com.io7m.junreachable.UnreachableCodeException;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.exceptions.RExceptionUnitAllocatorOutOfUnits;
 import com.io7m.r1.kernel.KFramebufferRGBAWithDepth;
+import com.io7m.r1.kernel.KFramebufferOrderIndependentCache;
+import com.io7m.r1.kernel.KFramebufferOrderIndependentCacheType;
 import com.io7m.r1.kernel.KFramebufferRGBAWithDepthCache;
 import com.io7m.r1.kernel.KFramebufferRGBAWithDepthCacheType;
 import com.io7m.r1.kernel.KFramebufferRGBAWithDepthUsableType;
@@ -89,6 +91,7 @@ import com.io7m.r1.kernel.types.KProjectionType;
 import com.io7m.r1.kernel.types.KRGBAPrecision;
 import com.io7m.r1.kernel.types.KTransformMatrix4x4;
 import com.io7m.r1.kernel.types.KTransformType;
+import com.io7m.r1.kernel.types.KUnitQuadCache;
 import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
 import com.io7m.r1.kernel.types.KVisibleSetTranslucentsBuilderWithCreateType;
 import com.io7m.r1.shaders.forward.RKFLightCases;
@@ -132,6 +135,14 @@ import com.io7m.r1.tests.TestShaderCaches;
   private static KTranslucentRendererType makeRenderer(
     final JCGLImplementationType g)
     throws Exception
+  {
+    return KTranslucentRendererTest.makeRendererWith(g, false);
+  }
+
+  private static KTranslucentRendererType makeRendererWith(
+    final JCGLImplementationType g,
+    final boolean order_independent)
+    throws Exception
   {
     try {
       final LogUsableType in_log =
@@ -161,6 +172,26 @@ import com.io7m.r1.tests.TestShaderCaches;
           tc.getShaderForwardTranslucentUnlitCache(),
           rgba_cache);
 
+      if (order_independent) {
+        final KFramebufferOrderIndependentCacheType oit_cache =
+          KFramebufferOrderIndependentCache.newCacheWithConfig(
+            g,
+            config,
+            in_log);
+        return KTranslucentRenderer
+          .newRendererWithOrderIndependentTransparency(
+            g,
+            bct,
+            tc.getShaderForwardTranslucentUnlitCache(),
+            tc.getShaderForwardTranslucentLitCache(),
+            tc.getShaderImageCache(),
+            in_refraction_renderer,
+            copier,
+            oit_cache,
+            KUnitQuadCache.newCache(g.getGLCommon(), in_log),
+            in_log);
+      }
+
       final KTranslucentRendererType r =
         KTranslucentRenderer.newRenderer(
           g,
@@ -175,15 +206,11 @@ import com.io7m.r1.tests.TestShaderCaches;
     }
   }
 
-  @Test public void testAllCases()
+  private static void evaluateAllCases(
+    final JCGLImplementationType g,
+    final KTranslucentRendererType r)
     throws Exception
   {
-    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
-    final JCGLImplementationType g =
-      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
-    final KTranslucentRendererType r =
-      KTranslucentRendererTest.makeRenderer(g);
-
     final KFramebufferRGBADescription rgba_desc =
       KFramebufferRGBADescription.newDescription(
         RFakeGL.SCREEN_AREA,
@@ -316,6 +343,28 @@ import com.io7m.r1.tests.TestShaderCaches;
       });
   }
 
+  @Test public void testAllCases()
+    throws Exception
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    KTranslucentRendererTest.evaluateAllCases(
+      g,
+      KTranslucentRendererTest.makeRenderer(g));
+  }
+
+  @Test public void testAllCasesOrderIndependent()
+    throws Exception
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    KTranslucentRendererTest.evaluateAllCases(
+      g,
+      KTranslucentRendererTest.makeRendererWith(g, true));
+  }
+
   @Test public void testBug_f1c93bc35b1()
     throws Exception
   {
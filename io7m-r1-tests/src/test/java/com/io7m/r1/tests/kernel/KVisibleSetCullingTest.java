@@ -0,0 +1,729 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.ArrayDescriptorBuilderType;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.Texture2DStaticUsableType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KMaterialDefaults;
+import com.io7m.r1.kernel.KVisibleSetCulling;
+import com.io7m.r1.kernel.KVisibleSetCullingBuilderType;
+import com.io7m.r1.kernel.KVisibleSetCullingFilterType;
+import com.io7m.r1.kernel.KVisibleSetShadowCulling;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KBoundingSphere;
+import com.io7m.r1.kernel.types.KInstanceBoundsFunctionType;
+import com.io7m.r1.kernel.types.KInstanceBoundsMesh;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KInstanceSortOrder;
+import com.io7m.r1.kernel.types.KInstanceType;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasic;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasicBuilderType;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KMaterialDefaultsType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.kernel.types.KMeshAttributes;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.kernel.types.KShadowMapDescriptionBasic;
+import com.io7m.r1.kernel.types.KShadowMappedBasic;
+import com.io7m.r1.kernel.types.KShadowMappedBasicBuilderType;
+import com.io7m.r1.kernel.types.KTransformContext;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderWithCreateType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroup;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetOpaques;
+import com.io7m.r1.kernel.types.KVisibleSetParallel;
+import com.io7m.r1.kernel.types.KVisibleSetParallelBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetShadows;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+import com.io7m.r1.tests.RFakeTextures2DStatic;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KVisibleSetCullingTest
+{
+  private static final KInstanceBoundsFunctionType UNIT_BOUNDS;
+
+  static {
+    final OptionType<KBoundingBox<RSpaceObjectType>> box =
+      Option.some(KBoundingBox.newBox(
+        new PVectorI3F<RSpaceObjectType>(-0.5f, -0.5f, -0.5f),
+        new PVectorI3F<RSpaceObjectType>(0.5f, 0.5f, 0.5f)));
+    UNIT_BOUNDS = new KInstanceBoundsFunctionType() {
+      @Override public
+        OptionType<KBoundingBox<RSpaceObjectType>>
+        instanceGetBounds(
+          final KInstanceType instance)
+      {
+        return box;
+      }
+    };
+  }
+
+  private static KCamera makeCamera()
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -1.0f,
+        1.0f,
+        -1.0f,
+        1.0f,
+        1.0f,
+        10.0f);
+    return KCamera.newCamera(view, projection);
+  }
+
+  private static KInstanceOpaqueRegular makeInstanceAt(
+    final KMeshReadableType mesh,
+    final KMaterialOpaqueRegular material,
+    final float x,
+    final float y,
+    final float z)
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    PMatrixM4x4F.set(m, 0, 3, x);
+    PMatrixM4x4F.set(m, 1, 3, y);
+    PMatrixM4x4F.set(m, 2, 3, z);
+
+    final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> uv =
+      PMatrixI3x3F.identity();
+
+    return KInstanceOpaqueRegular.newInstance(
+      mesh,
+      material,
+      KTransformMatrix4x4.newTransform(PMatrixI4x4F.newFromReadable(m)),
+      uv,
+      KFaceSelection.FACE_RENDER_FRONT);
+  }
+
+  private static KLightProjectiveWithShadowBasic makeShadowLightAt(
+    final JCGLImplementationType g,
+    final float x)
+    throws RException
+  {
+    final Texture2DStaticUsableType t = RFakeTextures2DStatic.newAnything(g);
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -1.0f,
+        1.0f,
+        -1.0f,
+        1.0f,
+        1.0f,
+        10.0f);
+
+    final KLightProjectiveWithShadowBasicBuilderType lb =
+      KLightProjectiveWithShadowBasic.newBuilder(t, projection);
+    final KShadowMappedBasicBuilderType sb = KShadowMappedBasic.newBuilder();
+    sb.setMapDescription(KShadowMapDescriptionBasic.newBuilder().build());
+    lb.setShadow(sb.build());
+    lb.setPosition(new PVectorI3F<RSpaceWorldType>(x, 0.0f, 0.0f));
+    lb.setRange(8.0f);
+    return lb.build();
+  }
+
+  private static KMesh newMesh(
+    final JCGLInterfaceCommonType gc)
+    throws RException
+  {
+    return KVisibleSetCullingTest.newMeshBounded(gc, false);
+  }
+
+  private static KMesh newMeshBounded(
+    final JCGLInterfaceCommonType gc,
+    final boolean bounded)
+    throws RException
+  {
+    final ArrayDescriptorBuilderType b = ArrayDescriptor.newBuilder();
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_POSITION);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_TANGENT4);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_UV);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_NORMAL);
+
+    final ArrayDescriptor type = b.build();
+    final ArrayBufferType array =
+      gc.arrayBufferAllocate(1, type, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType indices =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        1,
+        UsageHint.USAGE_STATIC_DRAW);
+
+    if (bounded) {
+      final KBoundingBox<RSpaceObjectType> box =
+        KBoundingBox.newBox(
+          new PVectorI3F<RSpaceObjectType>(-0.5f, -0.5f, -0.5f),
+          new PVectorI3F<RSpaceObjectType>(0.5f, 0.5f, 0.5f));
+      final KBoundingSphere<RSpaceObjectType> sphere =
+        KBoundingSphere.newSphere(
+          new PVectorI3F<RSpaceObjectType>(0.0f, 0.0f, 0.0f),
+          0.87f);
+      return KMesh.newMeshWithBounds(array, indices, box, sphere);
+    }
+
+    return KMesh.newMesh(array, indices);
+  }
+
+  @Test public void testCullingOpaque_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    final KInstanceOpaqueType visible_unlit =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -5.0f);
+    final KInstanceOpaqueType behind_unlit =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, 5.0f);
+    final KInstanceOpaqueType visible_lit =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 1.0f, 1.0f, -5.0f);
+    final KInstanceOpaqueType distant_lit =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -100.0f);
+    final KInstanceOpaqueType left_lit =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, -50.0f, 0.0f, -5.0f);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilder(
+        KTransformContext.newContext(),
+        KVisibleSetCullingTest.makeCamera(),
+        KVisibleSetCullingTest.UNIT_BOUNDS);
+
+    b.visibleOpaqueAddUnlit(visible_unlit);
+    b.visibleOpaqueAddUnlit(behind_unlit);
+
+    final KVisibleSetLightGroupBuilderType gb =
+      b.visibleOpaqueNewLightGroup("g0");
+    gb.groupAddLight(KLightSphereWithoutShadow.newBuilder().build());
+    gb.groupAddInstance(visible_lit);
+    gb.groupAddInstance(distant_lit);
+    gb.groupAddInstance(left_lit);
+
+    Assert.assertEquals(2, b.cullingGetAccepted());
+    Assert.assertEquals(3, b.cullingGetRejected());
+
+    final KVisibleSet vs = b.visibleCreate();
+    final KVisibleSetOpaques o = vs.getOpaques();
+
+    final Set<String> unlit_codes = o.getUnlitMaterialCodes();
+    Assert.assertEquals(1, unlit_codes.size());
+    final List<KInstanceOpaqueType> unlit =
+      o.getUnlitInstancesByCode(unlit_codes.iterator().next());
+    Assert.assertEquals(1, unlit.size());
+    Assert.assertSame(visible_unlit, unlit.get(0));
+
+    final KVisibleSetLightGroup g0 = o.getGroup("g0");
+    final Set<String> lit_codes = g0.getMaterialCodes();
+    Assert.assertEquals(1, lit_codes.size());
+    final List<KInstanceOpaqueType> lit =
+      g0.getInstances(lit_codes.iterator().next());
+    Assert.assertEquals(1, lit.size());
+    Assert.assertSame(visible_lit, lit.get(0));
+  }
+
+  @Test public void testCullingAllRejected_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    final KInstanceOpaqueType behind =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, 5.0f);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilder(
+        KTransformContext.newContext(),
+        KVisibleSetCullingTest.makeCamera(),
+        KVisibleSetCullingTest.UNIT_BOUNDS);
+
+    b.visibleOpaqueAddUnlit(behind);
+    Assert.assertEquals(0, b.cullingGetAccepted());
+    Assert.assertEquals(1, b.cullingGetRejected());
+
+    final KVisibleSet vs = b.visibleCreate();
+    Assert.assertEquals(0, vs.getOpaques().getUnlitMaterialCodes().size());
+  }
+
+  @Test public void testCullingParallel_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+    final KCamera camera = KVisibleSetCullingTest.makeCamera();
+    final KLightSphereWithoutShadow light =
+      KLightSphereWithoutShadow.newBuilder().build();
+
+    /**
+     * Every other instance lies behind the camera. Instances with indices
+     * divisible by four are lit, the rest are unlit.
+     */
+
+    final List<KInstanceOpaqueType> instances =
+      new ArrayList<KInstanceOpaqueType>();
+    for (int index = 0; index < 64; ++index) {
+      final float z = ((index % 2) == 0) ? -5.0f : 5.0f;
+      instances.add(KVisibleSetCullingTest.makeInstanceAt(
+        m,
+        mat,
+        0.0f,
+        0.0f,
+        z));
+    }
+
+    final KVisibleSetCullingBuilderType serial =
+      KVisibleSetCulling.newBuilder(
+        KTransformContext.newContext(),
+        camera,
+        KVisibleSetCullingTest.UNIT_BOUNDS);
+    final KVisibleSetLightGroupBuilderType serial_g =
+      serial.visibleOpaqueNewLightGroup("g0");
+    serial_g.groupAddLight(light);
+    for (int index = 0; index < instances.size(); ++index) {
+      if ((index % 4) == 0) {
+        serial_g.groupAddInstance(instances.get(index));
+      } else {
+        serial.visibleOpaqueAddUnlit(instances.get(index));
+      }
+    }
+
+    final int partitions = 4;
+    final int per = instances.size() / partitions;
+    final KVisibleSetParallelBuilderType parallel =
+      KVisibleSetParallel.newBuilder(camera, partitions);
+
+    long accepted = 0;
+    long rejected = 0;
+    for (int p = 0; p < partitions; ++p) {
+      final KVisibleSetCullingFilterType f =
+        KVisibleSetCulling.newFilter(
+          KTransformContext.newContext(),
+          camera,
+          KVisibleSetCullingTest.UNIT_BOUNDS,
+          KVisibleSetShadowCulling.SHADOW_CULLING_NONE,
+          parallel.visibleGetPartition(p));
+      final KVisibleSetLightGroupBuilderType fg =
+        f.visibleOpaqueNewLightGroup("g0");
+      fg.groupAddLight(light);
+      for (int index = p * per; index < ((p + 1) * per); ++index) {
+        if ((index % 4) == 0) {
+          fg.groupAddInstance(instances.get(index));
+        } else {
+          f.visibleOpaqueAddUnlit(instances.get(index));
+        }
+      }
+      accepted += f.cullingGetAccepted();
+      rejected += f.cullingGetRejected();
+    }
+
+    Assert.assertEquals(serial.cullingGetAccepted(), accepted);
+    Assert.assertEquals(serial.cullingGetRejected(), rejected);
+
+    final KVisibleSetOpaques so = serial.visibleCreate().getOpaques();
+    final KVisibleSetOpaques po = parallel.visibleCreate().getOpaques();
+
+    final String unlit_code = so.getUnlitMaterialCodes().iterator().next();
+    Assert.assertEquals(so.getUnlitMaterialCodes(), po.getUnlitMaterialCodes());
+    Assert.assertEquals(
+      so.getUnlitInstancesByCode(unlit_code),
+      po.getUnlitInstancesByCode(unlit_code));
+
+    final KVisibleSetLightGroup sg = so.getGroup("g0");
+    final KVisibleSetLightGroup pg = po.getGroup("g0");
+    final String lit_code = sg.getMaterialCodes().iterator().next();
+    Assert.assertEquals(sg.getLights(), pg.getLights());
+    Assert.assertEquals(sg.getMaterialCodes(), pg.getMaterialCodes());
+    Assert.assertEquals(sg.getInstances(lit_code), pg.getInstances(lit_code));
+    Assert.assertEquals(16, pg.getInstances(lit_code).size());
+  }
+
+  @Test public void testCullingMeshBounds_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType bounded =
+      KVisibleSetCullingTest.newMeshBounded(g.getGLCommon(), true);
+    final KMeshReadableType unbounded =
+      KVisibleSetCullingTest.newMeshBounded(g.getGLCommon(), false);
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    final KInstanceOpaqueType behind_bounded =
+      KVisibleSetCullingTest.makeInstanceAt(bounded, mat, 0.0f, 0.0f, 5.0f);
+    final KInstanceOpaqueType behind_unbounded =
+      KVisibleSetCullingTest.makeInstanceAt(unbounded, mat, 0.0f, 0.0f, 5.0f);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilder(
+        KTransformContext.newContext(),
+        KVisibleSetCullingTest.makeCamera(),
+        KInstanceBoundsMesh.get());
+
+    b.visibleOpaqueAddUnlit(behind_bounded);
+    b.visibleOpaqueAddUnlit(behind_unbounded);
+    Assert.assertEquals(1, b.cullingGetAccepted());
+    Assert.assertEquals(1, b.cullingGetRejected());
+  }
+
+  @Test public void testCullingMeshBoundsUnboundedScaled()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType unbounded =
+      KVisibleSetCullingTest.newMeshBounded(g.getGLCommon(), false);
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    /**
+     * Scaling the bounds of an unbounded mesh must not produce infinite or
+     * undefined world-space bounds that would cause it to be culled.
+     */
+
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    PMatrixM4x4F.set(m, 0, 0, 2.0f);
+    PMatrixM4x4F.set(m, 1, 1, -3.0f);
+    PMatrixM4x4F.set(m, 2, 2, 4.0f);
+    PMatrixM4x4F.set(m, 2, 3, 5.0f);
+
+    final KInstanceOpaqueType i =
+      KInstanceOpaqueRegular.newInstance(
+        unbounded,
+        mat,
+        KTransformMatrix4x4.newTransform(PMatrixI4x4F.newFromReadable(m)),
+        PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+        KFaceSelection.FACE_RENDER_FRONT);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilder(
+        KTransformContext.newContext(),
+        KVisibleSetCullingTest.makeCamera(),
+        KInstanceBoundsMesh.get());
+
+    b.visibleOpaqueAddUnlit(i);
+    Assert.assertEquals(1, b.cullingGetAccepted());
+    Assert.assertEquals(0, b.cullingGetRejected());
+  }
+
+  @Test public void testCullingShadowsLight_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    final KLightProjectiveWithShadowBasic l0 =
+      KVisibleSetCullingTest.makeShadowLightAt(g, 0.0f);
+    final KLightProjectiveWithShadowBasic l1 =
+      KVisibleSetCullingTest.makeShadowLightAt(g, 20.0f);
+
+    final KInstanceOpaqueType in_l0 =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -5.0f);
+    final KInstanceOpaqueType in_l1 =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 20.0f, 0.0f, -5.0f);
+    final KInstanceOpaqueType behind =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, 5.0f);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilderWithShadowCulling(
+        KTransformContext.newContext(),
+        KVisibleSetCullingTest.makeCamera(),
+        KVisibleSetCullingTest.UNIT_BOUNDS,
+        KVisibleSetShadowCulling.SHADOW_CULLING_LIGHT_FRUSTUM);
+
+    b.visibleShadowsAddLight(l0);
+    b.visibleShadowsAddLight(l1);
+    b.cullingShadowsAddCaster(in_l0);
+    b.cullingShadowsAddCaster(in_l1);
+    b.cullingShadowsAddCaster(behind);
+
+    Assert.assertEquals(2, b.cullingGetShadowCastersAccepted());
+    Assert.assertEquals(4, b.cullingGetShadowCastersRejected());
+
+    final KVisibleSetShadows s = b.visibleCreate().getShadows();
+    Assert.assertEquals(2, s.getLights().size());
+
+    final Set<String> codes_0 = s.getMaterialsForLight(l0);
+    Assert.assertEquals(1, codes_0.size());
+    final List<KInstanceOpaqueType> casters_0 =
+      s.getInstances(l0, codes_0.iterator().next());
+    Assert.assertEquals(1, casters_0.size());
+    Assert.assertSame(in_l0, casters_0.get(0));
+
+    final Set<String> codes_1 = s.getMaterialsForLight(l1);
+    Assert.assertEquals(1, codes_1.size());
+    final List<KInstanceOpaqueType> casters_1 =
+      s.getInstances(l1, codes_1.iterator().next());
+    Assert.assertEquals(1, casters_1.size());
+    Assert.assertSame(in_l1, casters_1.get(0));
+  }
+
+  @Test public void testCullingShadowsLightCamera_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    final KLightProjectiveWithShadowBasic l0 =
+      KVisibleSetCullingTest.makeShadowLightAt(g, 0.0f);
+    final KLightProjectiveWithShadowBasic l1 =
+      KVisibleSetCullingTest.makeShadowLightAt(g, 20.0f);
+
+    final KInstanceOpaqueType in_l0 =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -5.0f);
+    final KInstanceOpaqueType in_l1 =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 20.0f, 0.0f, -5.0f);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilderWithShadowCulling(
+        KTransformContext.newContext(),
+        KVisibleSetCullingTest.makeCamera(),
+        KVisibleSetCullingTest.UNIT_BOUNDS,
+        KVisibleSetShadowCulling.SHADOW_CULLING_LIGHT_AND_CAMERA_FRUSTUM);
+
+    b.visibleShadowsAddLight(l0);
+    b.visibleShadowsAddLight(l1);
+    b.cullingShadowsAddCaster(in_l0);
+    b.cullingShadowsAddCaster(in_l1);
+
+    /**
+     * The shadow cast by the instance in front of the second light cannot
+     * reach the view frustum.
+     */
+
+    Assert.assertEquals(1, b.cullingGetShadowCastersAccepted());
+    Assert.assertEquals(3, b.cullingGetShadowCastersRejected());
+
+    final KVisibleSetShadows s = b.visibleCreate().getShadows();
+    Assert.assertEquals(2, s.getLights().size());
+    Assert.assertEquals(1, s.getMaterialsForLight(l0).size());
+    Assert.assertEquals(0, s.getMaterialsForLight(l1).size());
+  }
+
+  @Test public void testCullingShadowsLightCamera_1()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    /**
+     * A narrow camera that can only see the region directly in front of the
+     * light at the very end of its range.
+     */
+
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -0.1f,
+        0.1f,
+        -0.1f,
+        0.1f,
+        7.8f,
+        10.0f);
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KCamera camera = KCamera.newCamera(view, projection);
+
+    final KLightProjectiveWithShadowBasic l0 =
+      KVisibleSetCullingTest.makeShadowLightAt(g, 0.0f);
+    final KInstanceOpaqueType caster =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -2.0f);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilderWithShadowCulling(
+        KTransformContext.newContext(),
+        camera,
+        KVisibleSetCullingTest.UNIT_BOUNDS,
+        KVisibleSetShadowCulling.SHADOW_CULLING_LIGHT_AND_CAMERA_FRUSTUM);
+
+    /**
+     * The caster itself is not visible, but the end of its shadow is.
+     */
+
+    b.visibleOpaqueAddUnlit(caster);
+    Assert.assertEquals(0, b.cullingGetAccepted());
+    Assert.assertEquals(1, b.cullingGetRejected());
+
+    b.visibleShadowsAddLight(l0);
+    b.cullingShadowsAddCaster(caster);
+    Assert.assertEquals(1, b.cullingGetShadowCastersAccepted());
+    Assert.assertEquals(0, b.cullingGetShadowCastersRejected());
+
+    final KVisibleSetShadows s = b.visibleCreate().getShadows();
+    Assert.assertEquals(1, s.getMaterialsForLight(l0).size());
+  }
+
+  @Test public void testCullingShadowsNone_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    final KLightProjectiveWithShadowBasic l0 =
+      KVisibleSetCullingTest.makeShadowLightAt(g, 0.0f);
+    final KInstanceOpaqueType behind =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, 5.0f);
+
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilder(
+        KTransformContext.newContext(),
+        KVisibleSetCullingTest.makeCamera(),
+        KVisibleSetCullingTest.UNIT_BOUNDS);
+
+    b.visibleShadowsAddLight(l0);
+    b.cullingShadowsAddCaster(behind);
+    Assert.assertEquals(0, b.cullingGetShadowCastersAccepted());
+    Assert.assertEquals(0, b.cullingGetShadowCastersRejected());
+
+    final KVisibleSetShadows s = b.visibleCreate().getShadows();
+    Assert.assertEquals(1, s.getMaterialsForLight(l0).size());
+  }
+
+  @Test public void testCullingWrappingSortOrder_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetCullingTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    final KInstanceOpaqueType far =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -8.0f);
+    final KInstanceOpaqueType near =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -2.0f);
+    final KInstanceOpaqueType behind =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, 5.0f);
+    final KInstanceOpaqueType middle =
+      KVisibleSetCullingTest.makeInstanceAt(m, mat, 0.0f, 0.0f, -5.0f);
+
+    final KCamera camera = KVisibleSetCullingTest.makeCamera();
+    final KVisibleSetBuilderWithCreateType actual =
+      KVisibleSet.newBuilderWithSortOrder(
+        camera,
+        KInstanceSortOrder.getDefault());
+    final KVisibleSetCullingBuilderType b =
+      KVisibleSetCulling.newBuilderWrapping(
+        KTransformContext.newContext(),
+        camera,
+        KVisibleSetCullingTest.UNIT_BOUNDS,
+        KVisibleSetShadowCulling.SHADOW_CULLING_NONE,
+        actual);
+
+    final KVisibleSetLightGroupBuilderType gb =
+      b.visibleOpaqueNewLightGroup("g");
+    gb.groupAddLight(KLightSphereWithoutShadow.newBuilder().build());
+    gb.groupAddInstance(far);
+    gb.groupAddInstance(near);
+    gb.groupAddInstance(behind);
+    gb.groupAddInstance(middle);
+    Assert.assertEquals(3, b.cullingGetAccepted());
+    Assert.assertEquals(1, b.cullingGetRejected());
+
+    final List<KInstanceOpaqueType> out =
+      b.visibleCreate().getOpaques().getGroup("g").getInstances(
+        mat.getCode());
+    Assert.assertEquals(3, out.size());
+    Assert.assertSame(near, out.get(0));
+    Assert.assertSame(middle, out.get(1));
+    Assert.assertSame(far, out.get(2));
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
+import com.io7m.r1.exceptions.RExceptionInstanceAlreadyVisible;
+import com.io7m.r1.kernel.KMaterialDefaults;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KLightType;
+import com.io7m.r1.kernel.types.KMaterialDefaultsType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KTransformType;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroup;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetParallel;
+import com.io7m.r1.kernel.types.KVisibleSetParallelBuilderType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+import com.io7m.r1.tests.kernel.types.KLightGenerator;
+import com.io7m.r1.tests.kernel.types.KMaterialOpaqueRegularGenerator;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KVisibleSetParallelTest
+{
+  private static KCamera makeCamera()
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        0.0f,
+        1.0f,
+        0.0f,
+        1.0f,
+        1.0f,
+        10.0f);
+    return KCamera.newCamera(view, projection);
+  }
+
+  private static JCGLImplementationType makeGL()
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+  }
+
+  private static List<KInstanceOpaqueType> makeInstances(
+    final JCGLImplementationType gi,
+    final int count)
+    throws RException
+  {
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(gi);
+    final KMaterialOpaqueRegular mat =
+      new KMaterialOpaqueRegularGenerator(gi, defaults).next();
+    final PMatrixI4x4F<RSpaceObjectType, RSpaceWorldType> model =
+      PMatrixI4x4F.identity();
+    final KTransformType t = KTransformMatrix4x4.newTransform(model);
+    final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> uv =
+      PMatrixI3x3F.identity();
+    final KMesh mesh = KVisibleSetParallelTest.makeMesh(gi.getGLCommon());
+
+    final List<KInstanceOpaqueType> instances =
+      new ArrayList<KInstanceOpaqueType>();
+    for (int index = 0; index < count; ++index) {
+      instances.add(KInstanceOpaqueRegular.newInstance(
+        mesh,
+        mat,
+        t,
+        uv,
+        KFaceSelection.FACE_RENDER_FRONT));
+    }
+    return instances;
+  }
+
+  private static KMesh makeMesh(
+    final JCGLInterfaceCommonType gc)
+    throws RException
+  {
+    final ArrayDescriptor type = KMesh.getStandardDescriptor();
+    final ArrayBufferType array =
+      gc.arrayBufferAllocate(1, type, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType indices =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        1,
+        UsageHint.USAGE_STATIC_DRAW);
+    return KMesh.newMesh(array, indices);
+  }
+
+  @Test(expected = RExceptionInstanceAlreadyVisible.class) public
+    void
+    testDuplicateAcrossPartitions()
+      throws Exception
+  {
+    final JCGLImplementationType gi = KVisibleSetParallelTest.makeGL();
+    final KInstanceOpaqueType i =
+      KVisibleSetParallelTest.makeInstances(gi, 1).get(0);
+
+    final KVisibleSetParallelBuilderType b =
+      KVisibleSetParallel.newBuilder(
+        KVisibleSetParallelTest.makeCamera(),
+        2);
+
+    b.visibleGetPartition(0).visibleOpaqueAddUnlit(i);
+    b.visibleGetPartition(1).visibleOpaqueAddUnlit(i);
+    b.visibleCreate();
+  }
+
+  @Test(expected = RExceptionInstanceAlreadyVisible.class) public
+    void
+    testDuplicateWithinPartition()
+      throws Exception
+  {
+    final JCGLImplementationType gi = KVisibleSetParallelTest.makeGL();
+    final KInstanceOpaqueType i =
+      KVisibleSetParallelTest.makeInstances(gi, 1).get(0);
+
+    final KVisibleSetParallelBuilderType b =
+      KVisibleSetParallel.newBuilder(
+        KVisibleSetParallelTest.makeCamera(),
+        2);
+
+    final KVisibleSetBuilderType p = b.visibleGetPartition(0);
+    p.visibleOpaqueAddUnlit(i);
+    p.visibleOpaqueNewLightGroup("g").groupAddInstance(i);
+  }
+
+  @Test(expected = RExceptionBuilderInvalid.class) public
+    void
+    testInvalidAfterCreate()
+      throws Exception
+  {
+    final KVisibleSetParallelBuilderType b =
+      KVisibleSetParallel.newBuilder(
+        KVisibleSetParallelTest.makeCamera(),
+        2);
+
+    b.visibleCreate();
+    b.visibleGetPartition(0);
+  }
+
+  @Test public void testParallelDeterministic()
+    throws Exception
+  {
+    final int partitions = 4;
+    final JCGLImplementationType gi = KVisibleSetParallelTest.makeGL();
+    final List<KInstanceOpaqueType> instances =
+      KVisibleSetParallelTest.makeInstances(gi, 400);
+    final KLightType light = new KLightGenerator(gi).next();
+
+    final KVisibleSetParallelBuilderType b =
+      KVisibleSetParallel.newBuilder(
+        KVisibleSetParallelTest.makeCamera(),
+        partitions);
+    Assert.assertEquals(partitions, b.visibleGetPartitionCount());
+
+    /**
+     * Each partition takes a contiguous range of instances. Even-numbered
+     * instances are lit by the shared group "g", odd-numbered instances are
+     * unlit.
+     */
+
+    final int per = instances.size() / partitions;
+    final ExecutorService exec = Executors.newFixedThreadPool(partitions);
+    try {
+      final List<Future<Unit>> futures = new ArrayList<Future<Unit>>();
+      for (int p = 0; p < partitions; ++p) {
+        final KVisibleSetBuilderType pb = b.visibleGetPartition(p);
+        final int start = p * per;
+        futures.add(exec.submit(new Callable<Unit>() {
+          @Override public Unit call()
+            throws Exception
+          {
+            final KVisibleSetLightGroupBuilderType g =
+              pb.visibleOpaqueNewLightGroup("g");
+            g.groupAddLight(light);
+            for (int index = start; index < (start + per); ++index) {
+              final KInstanceOpaqueType i = instances.get(index);
+              if ((index % 2) == 0) {
+                g.groupAddInstance(i);
+              } else {
+                pb.visibleOpaqueAddUnlit(i);
+              }
+            }
+            return Unit.unit();
+          }
+        }));
+      }
+
+      for (final Future<Unit> f : futures) {
+        f.get();
+      }
+    } finally {
+      exec.shutdown();
+    }
+
+    final KVisibleSet v = b.visibleCreate();
+
+    final List<KInstanceOpaqueType> expected_lit =
+      new ArrayList<KInstanceOpaqueType>();
+    final List<KInstanceOpaqueType> expected_unlit =
+      new ArrayList<KInstanceOpaqueType>();
+    for (int index = 0; index < instances.size(); ++index) {
+      if ((index % 2) == 0) {
+        expected_lit.add(instances.get(index));
+      } else {
+        expected_unlit.add(instances.get(index));
+      }
+    }
+
+    final KVisibleSetLightGroup g = v.getOpaques().getGroup("g");
+    Assert.assertEquals(1, g.getLights().size());
+    Assert.assertEquals(1, g.getMaterialCodes().size());
+    final String code = g.getMaterialCodes().iterator().next();
+    Assert.assertEquals(expected_lit, g.getInstances(code));
+
+    Assert.assertEquals(1, v.getOpaques().getUnlitMaterialCodes().size());
+    final String unlit_code =
+      v.getOpaques().getUnlitMaterialCodes().iterator().next();
+    Assert.assertEquals(
+      expected_unlit,
+      v.getOpaques().getUnlitInstancesByCode(unlit_code));
+  }
+}
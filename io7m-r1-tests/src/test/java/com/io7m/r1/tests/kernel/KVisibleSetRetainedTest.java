@@ -0,0 +1,363 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.ArrayDescriptorBuilderType;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.Texture2DStaticUsableType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.exceptions.RExceptionInstanceAlreadyVisible;
+import com.io7m.r1.exceptions.RExceptionLightGroupAlreadyAdded;
+import com.io7m.r1.exceptions.RExceptionLightGroupNonexistent;
+import com.io7m.r1.kernel.KMaterialDefaults;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KLightProjectiveWithShadowBasic;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KMaterialDefaultsType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.kernel.types.KMeshAttributes;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KTransformType;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroup;
+import com.io7m.r1.kernel.types.KVisibleSetRetained;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+import com.io7m.r1.tests.RFakeTextures2DStatic;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KVisibleSetRetainedTest
+{
+  private static KCamera makeCamera(
+    final float far)
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        0.0f,
+        1.0f,
+        0.0f,
+        1.0f,
+        1.0f,
+        far);
+    return KCamera.newCamera(view, projection);
+  }
+
+  private static JCGLImplementationType makeGL()
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+  }
+
+  private static KInstanceOpaqueRegular makeInstance(
+    final JCGLImplementationType g)
+    throws RException
+  {
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final PMatrixI4x4F<RSpaceObjectType, RSpaceWorldType> model =
+      PMatrixI4x4F.identity();
+    final KTransformType t = KTransformMatrix4x4.newTransform(model);
+    final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> uv =
+      PMatrixI3x3F.identity();
+    final KMeshReadableType m =
+      KVisibleSetRetainedTest.makeMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+
+    return KInstanceOpaqueRegular.newInstance(
+      m,
+      mat,
+      t,
+      uv,
+      KFaceSelection.FACE_RENDER_FRONT);
+  }
+
+  private static KMesh makeMesh(
+    final JCGLInterfaceCommonType gc)
+    throws RException
+  {
+    final ArrayDescriptorBuilderType b = ArrayDescriptor.newBuilder();
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_POSITION);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_TANGENT4);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_UV);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_NORMAL);
+
+    final ArrayDescriptor type = b.build();
+    final ArrayBufferType array =
+      gc.arrayBufferAllocate(1, type, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType indices =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        1,
+        UsageHint.USAGE_STATIC_DRAW);
+
+    return KMesh.newMesh(array, indices);
+  }
+
+  @Test(expected = RExceptionInstanceAlreadyVisible.class) public
+    void
+    testAlreadyVisibleGroup()
+      throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KVisibleSetRetained r =
+      KVisibleSetRetained.newRetained(KVisibleSetRetainedTest
+        .makeCamera(10.0f));
+
+    r.opaqueAddUnlit(i0);
+    r.groupCreate("g0");
+    r.groupAddInstance("g0", i0);
+  }
+
+  @Test(expected = RExceptionInstanceAlreadyVisible.class) public
+    void
+    testAlreadyVisibleUnlit()
+      throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KVisibleSetRetained r =
+      KVisibleSetRetained.newRetained(KVisibleSetRetainedTest
+        .makeCamera(10.0f));
+
+    r.groupCreate("g0");
+    r.groupAddInstance("g0", i0);
+    r.opaqueAddUnlit(i0);
+  }
+
+  @Test public void testCameraChangeSharesGroups()
+    throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KCamera c0 = KVisibleSetRetainedTest.makeCamera(10.0f);
+    final KCamera c1 = KVisibleSetRetainedTest.makeCamera(20.0f);
+    final KVisibleSetRetained r = KVisibleSetRetained.newRetained(c0);
+
+    r.groupCreate("g0");
+    r.groupAddInstance("g0", i0);
+    r.groupAddLight("g0", KLightSphereWithoutShadow.newBuilder().build());
+
+    final KVisibleSet s0 = r.visibleSnapshot();
+    r.cameraSet(c1);
+    final KVisibleSet s1 = r.visibleSnapshot();
+
+    Assert.assertNotSame(s0, s1);
+    Assert.assertEquals(c0, s0.getCamera());
+    Assert.assertEquals(c1, s1.getCamera());
+    Assert.assertSame(s0.getShadows(), s1.getShadows());
+    Assert.assertSame(
+      s0.getOpaques().getGroup("g0"),
+      s1.getOpaques().getGroup("g0"));
+  }
+
+  @Test(expected = RExceptionLightGroupAlreadyAdded.class) public
+    void
+    testGroupAlreadyAdded()
+      throws RException
+  {
+    final KVisibleSetRetained r =
+      KVisibleSetRetained.newRetained(KVisibleSetRetainedTest
+        .makeCamera(10.0f));
+    r.groupCreate("g0");
+    r.groupCreate("g0");
+  }
+
+  @Test public void testGroupChangeSharesOtherGroups()
+    throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KInstanceOpaqueRegular i1 = KVisibleSetRetainedTest.makeInstance(g);
+    final KInstanceOpaqueRegular i2 = KVisibleSetRetainedTest.makeInstance(g);
+    final KVisibleSetRetained r =
+      KVisibleSetRetained.newRetained(KVisibleSetRetainedTest
+        .makeCamera(10.0f));
+
+    r.groupCreate("g0");
+    r.groupCreate("g1");
+    r.groupAddInstance("g0", i0);
+    r.groupAddInstance("g1", i1);
+
+    final KVisibleSet s0 = r.visibleSnapshot();
+    r.groupAddInstance("g1", i2);
+    final KVisibleSet s1 = r.visibleSnapshot();
+
+    Assert.assertNotSame(s0, s1);
+    Assert.assertSame(
+      s0.getOpaques().getGroup("g0"),
+      s1.getOpaques().getGroup("g0"));
+
+    final KVisibleSetLightGroup g1_0 = s0.getOpaques().getGroup("g1");
+    final KVisibleSetLightGroup g1_1 = s1.getOpaques().getGroup("g1");
+    Assert.assertNotSame(g1_0, g1_1);
+    Assert.assertEquals(1, g1_0
+      .getInstancesByCode()
+      .getGroupInstances(0)
+      .size());
+    Assert.assertEquals(2, g1_1
+      .getInstancesByCode()
+      .getGroupInstances(0)
+      .size());
+  }
+
+  @Test(expected = RExceptionLightGroupNonexistent.class) public
+    void
+    testGroupNonexistent()
+      throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KVisibleSetRetained r =
+      KVisibleSetRetained.newRetained(KVisibleSetRetainedTest
+        .makeCamera(10.0f));
+    r.groupAddInstance("nonexistent", i0);
+  }
+
+  @Test public void testRemoveReplace()
+    throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KInstanceOpaqueRegular i1 = KVisibleSetRetainedTest.makeInstance(g);
+    final KInstanceOpaqueRegular i2 = KVisibleSetRetainedTest.makeInstance(g);
+    final KVisibleSetRetained r =
+      KVisibleSetRetained.newRetained(KVisibleSetRetainedTest
+        .makeCamera(10.0f));
+
+    r.groupCreate("g0");
+    r.groupAddInstance("g0", i0);
+    r.opaqueAddUnlit(i1);
+
+    r.opaqueReplace(i0, i2);
+    Assert.assertFalse(r.isOpaqueVisible(i0));
+    Assert.assertTrue(r.isOpaqueVisible(i2));
+
+    r.opaqueRemove(i1);
+    Assert.assertFalse(r.isOpaqueVisible(i1));
+
+    final KVisibleSet s = r.visibleSnapshot();
+    Assert.assertEquals(0, s.getOpaques().getUnlitInstances().getGroupCount());
+
+    final List<KInstanceOpaqueType> in_group =
+      s.getOpaques().getGroup("g0").getInstancesByCode().getGroupInstances(0);
+    Assert.assertEquals(1, in_group.size());
+    Assert.assertSame(i2, in_group.get(0));
+
+    r.opaqueAddUnlit(i0);
+    Assert.assertTrue(r.isOpaqueVisible(i0));
+  }
+
+  @Test public void testShadowLightsFromGroups()
+    throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KProjectionType proj =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        0.0f,
+        10.0f,
+        0.0f,
+        10.0f,
+        1.0f,
+        100.0f);
+    final Texture2DStaticUsableType tex = RFakeTextures2DStatic.newAnything();
+    final KLightProjectiveWithShadowBasic light =
+      KLightProjectiveWithShadowBasic.newBuilder(tex, proj).build();
+
+    final KVisibleSetRetained r =
+      KVisibleSetRetained.newRetained(KVisibleSetRetainedTest
+        .makeCamera(10.0f));
+
+    r.groupCreate("g0");
+    r.groupAddLight("g0", light);
+    Assert.assertTrue(r.visibleSnapshot().getShadows().getLights()
+      .contains(light));
+
+    r.shadowsAddCaster(light, i0);
+    Assert.assertEquals(1, r
+      .visibleSnapshot()
+      .getShadows()
+      .getMaterialsForLight(light)
+      .size());
+
+    r.shadowsRemoveLight(light);
+    Assert.assertEquals(0, r
+      .visibleSnapshot()
+      .getShadows()
+      .getMaterialsForLight(light)
+      .size());
+
+    r.groupRemoveLight("g0", light);
+    Assert.assertFalse(r.visibleSnapshot().getShadows().getLights()
+      .contains(light));
+  }
+
+  @Test public void testSnapshotUnchanged()
+    throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetRetainedTest.makeGL();
+    final KInstanceOpaqueRegular i0 = KVisibleSetRetainedTest.makeInstance(g);
+    final KCamera c = KVisibleSetRetainedTest.makeCamera(10.0f);
+    final KVisibleSetRetained r = KVisibleSetRetained.newRetained(c);
+
+    r.opaqueAddUnlit(i0);
+    final KVisibleSet s0 = r.visibleSnapshot();
+    final long v0 = r.visibleGetVersion();
+
+    r.cameraSet(KVisibleSetRetainedTest.makeCamera(10.0f));
+    r.opaqueRemove(KVisibleSetRetainedTest.makeInstance(g));
+    r.translucentsClear();
+
+    final KVisibleSet s1 = r.visibleSnapshot();
+    Assert.assertSame(s0, s1);
+    Assert.assertEquals(v0, r.visibleGetVersion());
+    Assert.assertEquals(1, s1.getOpaques().getUnlitMaterialCodes().size());
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jtensors.QuaternionI4F;
+import com.io7m.jtensors.VectorI3F;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KMaterialDefaults;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KInstanceSortKeyField;
+import com.io7m.r1.kernel.types.KInstanceSortOrder;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KMaterialDefaultsType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.kernel.types.KTransformOST;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderWithCreateType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KVisibleSetSortTest
+{
+  private static KCamera makeCamera()
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        0.0f,
+        1.0f,
+        0.0f,
+        1.0f,
+        1.0f,
+        100.0f);
+    return KCamera.newCamera(view, projection);
+  }
+
+  private static JCGLImplementationType makeGL()
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+  }
+
+  private static KInstanceOpaqueRegular makeInstance(
+    final KMeshReadableType mesh,
+    final KMaterialOpaqueRegular material,
+    final float z)
+  {
+    final PVectorI3F<RSpaceWorldType> translation =
+      new PVectorI3F<RSpaceWorldType>(0.0f, 0.0f, z);
+    return KInstanceOpaqueRegular.newInstance(
+      mesh,
+      material,
+      KTransformOST.newTransform(
+        new QuaternionI4F(),
+        new VectorI3F(1.0f, 1.0f, 1.0f),
+        translation),
+      PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+      KFaceSelection.FACE_RENDER_FRONT);
+  }
+
+  private static KMesh makeMesh(
+    final JCGLInterfaceCommonType gc)
+  {
+    final ArrayDescriptor type = KMesh.getStandardDescriptor();
+    final ArrayBufferType array =
+      gc.arrayBufferAllocate(1, type, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType indices =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        1,
+        UsageHint.USAGE_STATIC_DRAW);
+    return KMesh.newMesh(array, indices);
+  }
+
+  private static List<KInstanceOpaqueType> sorted(
+    final KInstanceSortOrder order,
+    final String code,
+    final List<KInstanceOpaqueType> instances)
+    throws RException
+  {
+    final KVisibleSetBuilderWithCreateType b =
+      KVisibleSet.newBuilderWithSortOrder(
+        KVisibleSetSortTest.makeCamera(),
+        order);
+    final KVisibleSetLightGroupBuilderType g =
+      b.visibleOpaqueNewLightGroup("g");
+    g.groupAddLight(KLightSphereWithoutShadow.newBuilder().build());
+    for (final KInstanceOpaqueType i : instances) {
+      g.groupAddInstance(i);
+    }
+
+    final KVisibleSet vs = b.visibleCreate();
+    return vs.getOpaques().getGroup("g").getInstances(code);
+  }
+
+  @Test public void testDepthFrontToBack()
+    throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetSortTest.makeGL();
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+    final KMesh mesh = KVisibleSetSortTest.makeMesh(g.getGLCommon());
+
+    final KInstanceOpaqueRegular i0 =
+      KVisibleSetSortTest.makeInstance(mesh, mat, -50.0f);
+    final KInstanceOpaqueRegular i1 =
+      KVisibleSetSortTest.makeInstance(mesh, mat, -2.0f);
+    final KInstanceOpaqueRegular i2 =
+      KVisibleSetSortTest.makeInstance(mesh, mat, -20.0f);
+
+    final List<KInstanceOpaqueType> in = new ArrayList<KInstanceOpaqueType>();
+    in.add(i0);
+    in.add(i1);
+    in.add(i2);
+
+    final List<KInstanceOpaqueType> out =
+      KVisibleSetSortTest.sorted(
+        KInstanceSortOrder.getDefault(),
+        mat.getCode(),
+        in);
+
+    Assert.assertEquals(3, out.size());
+    Assert.assertSame(i1, out.get(0));
+    Assert.assertSame(i2, out.get(1));
+    Assert.assertSame(i0, out.get(2));
+  }
+
+  @Test public void testMeshGrouped()
+    throws RException
+  {
+    final JCGLImplementationType g = KVisibleSetSortTest.makeGL();
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+    final KMesh m0 = KVisibleSetSortTest.makeMesh(g.getGLCommon());
+    final KMesh m1 = KVisibleSetSortTest.makeMesh(g.getGLCommon());
+
+    final KInstanceOpaqueRegular i0 =
+      KVisibleSetSortTest.makeInstance(m0, mat, -1.0f);
+    final KInstanceOpaqueRegular i1 =
+      KVisibleSetSortTest.makeInstance(m1, mat, -1.0f);
+    final KInstanceOpaqueRegular i2 =
+      KVisibleSetSortTest.makeInstance(m0, mat, -1.0f);
+    final KInstanceOpaqueRegular i3 =
+      KVisibleSetSortTest.makeInstance(m1, mat, -1.0f);
+
+    final List<KInstanceOpaqueType> in = new ArrayList<KInstanceOpaqueType>();
+    in.add(i0);
+    in.add(i1);
+    in.add(i2);
+    in.add(i3);
+
+    final List<KInstanceSortKeyField> fields =
+      new ArrayList<KInstanceSortKeyField>();
+    fields.add(KInstanceSortKeyField.SORT_FIELD_MESH);
+
+    final List<KInstanceOpaqueType> out =
+      KVisibleSetSortTest.sorted(
+        KInstanceSortOrder.newOrder(fields),
+        mat.getCode(),
+        in);
+
+    Assert.assertEquals(4, out.size());
+    Assert.assertSame(i0, out.get(0));
+    Assert.assertSame(i2, out.get(1));
+    Assert.assertSame(i1, out.get(2));
+    Assert.assertSame(i3, out.get(3));
+  }
+
+  @Test public void testOrderDuplicates()
+  {
+    final List<KInstanceSortKeyField> fields =
+      new ArrayList<KInstanceSortKeyField>();
+    fields.add(KInstanceSortKeyField.SORT_FIELD_MESH);
+    fields.add(KInstanceSortKeyField.SORT_FIELD_DEPTH);
+    fields.add(KInstanceSortKeyField.SORT_FIELD_MESH);
+
+    final KInstanceSortOrder o = KInstanceSortOrder.newOrder(fields);
+    Assert.assertEquals(2, o.getFields().size());
+    Assert.assertEquals(
+      KInstanceSortKeyField.SORT_FIELD_MESH,
+      o.getFields().get(0));
+    Assert.assertEquals(
+      KInstanceSortKeyField.SORT_FIELD_DEPTH,
+      o.getFields().get(1));
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.ArrayDescriptorBuilderType;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.exceptions.RException;
+import com.io7m.r1.kernel.KMaterialDefaults;
+import com.io7m.r1.kernel.KVisibleSetCulling;
+import com.io7m.r1.kernel.KVisibleSetCullingBuilderType;
+import com.io7m.r1.kernel.KVisibleSetSpatial;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingVolumeHierarchy;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KFrustum;
+import com.io7m.r1.kernel.types.KInstanceBoundsFunctionType;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KInstanceType;
+import com.io7m.r1.kernel.types.KLightSphereWithoutShadow;
+import com.io7m.r1.kernel.types.KMaterialDefaultsType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.kernel.types.KMeshAttributes;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.kernel.types.KTransformContext;
+import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KVisibleSet;
+import com.io7m.r1.kernel.types.KVisibleSetBuilderWithCreateType;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroup;
+import com.io7m.r1.kernel.types.KVisibleSetLightGroupBuilderType;
+import com.io7m.r1.kernel.types.KVisibleSetOpaques;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KVisibleSetSpatialTest
+{
+  /**
+   * The number of instances in the grid produced by
+   * {@link #makeInstanceGrid(KMeshReadableType, KMaterialOpaqueRegular)}
+   * that lie inside the frustum of {@link #makeCamera()}.
+   */
+
+  private static final int                         GRID_VISIBLE = 10;
+  private static final KInstanceBoundsFunctionType UNIT_BOUNDS;
+
+  static {
+    final OptionType<KBoundingBox<RSpaceObjectType>> box =
+      Option.some(KBoundingBox.newBox(
+        new PVectorI3F<RSpaceObjectType>(-0.5f, -0.5f, -0.5f),
+        new PVectorI3F<RSpaceObjectType>(0.5f, 0.5f, 0.5f)));
+    UNIT_BOUNDS = new KInstanceBoundsFunctionType() {
+      @Override public
+        OptionType<KBoundingBox<RSpaceObjectType>>
+        instanceGetBounds(
+          final KInstanceType instance)
+      {
+        return box;
+      }
+    };
+  }
+
+  private static Set<KInstanceOpaqueType> getGroupInstances(
+    final KVisibleSet vs,
+    final String name)
+  {
+    final Set<KInstanceOpaqueType> r = new HashSet<KInstanceOpaqueType>();
+    final KVisibleSetLightGroup g = vs.getOpaques().getGroup(name);
+    for (final String code : g.getMaterialCodes()) {
+      r.addAll(g.getInstances(code));
+    }
+    return r;
+  }
+
+  private static Set<KInstanceOpaqueType> getUnlitInstances(
+    final KVisibleSet vs)
+  {
+    final Set<KInstanceOpaqueType> r = new HashSet<KInstanceOpaqueType>();
+    final KVisibleSetOpaques o = vs.getOpaques();
+    for (final String code : o.getUnlitMaterialCodes()) {
+      r.addAll(o.getUnlitInstancesByCode(code));
+    }
+    return r;
+  }
+
+  private static KCamera makeCamera()
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -1.0f,
+        1.0f,
+        -1.0f,
+        1.0f,
+        1.0f,
+        10.0f);
+    return KCamera.newCamera(view, projection);
+  }
+
+  private static KInstanceOpaqueRegular makeInstanceAt(
+    final KMeshReadableType mesh,
+    final KMaterialOpaqueRegular material,
+    final float x,
+    final float y,
+    final float z)
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    PMatrixM4x4F.set(m, 0, 3, x);
+    PMatrixM4x4F.set(m, 1, 3, y);
+    PMatrixM4x4F.set(m, 2, 3, z);
+
+    final PMatrixI3x3F<RSpaceTextureType, RSpaceTextureType> uv =
+      PMatrixI3x3F.identity();
+
+    return KInstanceOpaqueRegular.newInstance(
+      mesh,
+      material,
+      KTransformMatrix4x4.newTransform(PMatrixI4x4F.newFromReadable(m)),
+      uv,
+      KFaceSelection.FACE_RENDER_FRONT);
+  }
+
+  /**
+   * Produce a grid of instances in front of, beside, beyond, and behind the
+   * camera. No instance lies close enough to a plane of the frustum for the
+   * conservative world-space bounds used by the hierarchy to give a
+   * different answer to the exact test used by the culling builder.
+   */
+
+  private static List<KInstanceOpaqueType> makeInstanceGrid(
+    final KMeshReadableType mesh,
+    final KMaterialOpaqueRegular material)
+  {
+    final float[] xys = { -12.0f, -5.0f, 0.0f, 5.0f, 12.0f };
+    final float[] zs = { -3.0f, -8.0f, -15.0f, 4.0f };
+
+    final List<KInstanceOpaqueType> r = new ArrayList<KInstanceOpaqueType>();
+    for (final float x : xys) {
+      for (final float y : xys) {
+        for (final float z : zs) {
+          r.add(KVisibleSetSpatialTest.makeInstanceAt(mesh, material, x, y, z));
+        }
+      }
+    }
+    return r;
+  }
+
+  private static KMesh newMesh(
+    final JCGLInterfaceCommonType gc)
+    throws RException
+  {
+    final ArrayDescriptorBuilderType b = ArrayDescriptor.newBuilder();
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_POSITION);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_TANGENT4);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_UV);
+    b.addAttribute(KMeshAttributes.ATTRIBUTE_NORMAL);
+
+    final ArrayDescriptor type = b.build();
+    final ArrayBufferType array =
+      gc.arrayBufferAllocate(1, type, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType indices =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        1,
+        UsageHint.USAGE_STATIC_DRAW);
+
+    return KMesh.newMesh(array, indices);
+  }
+
+  @Test public void testSpatialGroupEqualsCulling_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetSpatialTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+    final List<KInstanceOpaqueType> instances =
+      KVisibleSetSpatialTest.makeInstanceGrid(m, mat);
+    final KCamera camera = KVisibleSetSpatialTest.makeCamera();
+    final KTransformContext context = KTransformContext.newContext();
+    final KLightSphereWithoutShadow light =
+      KLightSphereWithoutShadow.newBuilder().build();
+
+    final KVisibleSetCullingBuilderType cb =
+      KVisibleSetCulling.newBuilder(
+        context,
+        camera,
+        KVisibleSetSpatialTest.UNIT_BOUNDS);
+    final KVisibleSetLightGroupBuilderType cg =
+      cb.visibleOpaqueNewLightGroup("g0");
+    cg.groupAddLight(light);
+    for (final KInstanceOpaqueType i : instances) {
+      cg.groupAddInstance(i);
+    }
+
+    final KBoundingVolumeHierarchy<KInstanceOpaqueType> bvh =
+      KVisibleSetSpatial.newHierarchyFromInstances(
+        context,
+        KVisibleSetSpatialTest.UNIT_BOUNDS,
+        instances);
+    final KFrustum frustum = KFrustum.newFrustum();
+    frustum.updateFromCamera(camera);
+
+    final KVisibleSetBuilderWithCreateType sb =
+      KVisibleSet.newBuilder(camera);
+    final KVisibleSetLightGroupBuilderType sg =
+      sb.visibleOpaqueNewLightGroup("g0");
+    sg.groupAddLight(light);
+    KVisibleSetSpatial.opaquesAddVisibleToGroup(bvh, frustum, sg);
+
+    final Set<KInstanceOpaqueType> expected =
+      KVisibleSetSpatialTest.getGroupInstances(cb.visibleCreate(), "g0");
+    final Set<KInstanceOpaqueType> received =
+      KVisibleSetSpatialTest.getGroupInstances(sb.visibleCreate(), "g0");
+
+    Assert.assertEquals(KVisibleSetSpatialTest.GRID_VISIBLE, expected.size());
+    Assert.assertEquals(expected, received);
+  }
+
+  @Test public void testSpatialUnlitEqualsCulling_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetSpatialTest.newMesh(g.getGLCommon());
+    final KMaterialOpaqueRegular mat =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+    final List<KInstanceOpaqueType> instances =
+      KVisibleSetSpatialTest.makeInstanceGrid(m, mat);
+    final KCamera camera = KVisibleSetSpatialTest.makeCamera();
+    final KTransformContext context = KTransformContext.newContext();
+
+    final KVisibleSetCullingBuilderType cb =
+      KVisibleSetCulling.newBuilder(
+        context,
+        camera,
+        KVisibleSetSpatialTest.UNIT_BOUNDS);
+    for (final KInstanceOpaqueType i : instances) {
+      cb.visibleOpaqueAddUnlit(i);
+    }
+    Assert.assertEquals(
+      KVisibleSetSpatialTest.GRID_VISIBLE,
+      cb.cullingGetAccepted());
+
+    final KBoundingVolumeHierarchy<KInstanceOpaqueType> bvh =
+      KVisibleSetSpatial.newHierarchyFromInstances(
+        context,
+        KVisibleSetSpatialTest.UNIT_BOUNDS,
+        instances);
+    final KFrustum frustum = KFrustum.newFrustum();
+    frustum.updateFromCamera(camera);
+
+    final KVisibleSetBuilderWithCreateType sb =
+      KVisibleSet.newBuilder(camera);
+    KVisibleSetSpatial.opaquesAddVisibleUnlit(bvh, frustum, sb);
+
+    final Set<KInstanceOpaqueType> expected =
+      KVisibleSetSpatialTest.getUnlitInstances(cb.visibleCreate());
+    final Set<KInstanceOpaqueType> received =
+      KVisibleSetSpatialTest.getUnlitInstances(sb.visibleCreate());
+
+    Assert.assertEquals(KVisibleSetSpatialTest.GRID_VISIBLE, expected.size());
+    Assert.assertEquals(expected, received);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.io7m.r1.tests.kernel;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -34,9 +35,12 @@ import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
 import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
+import com.io7m.jtensors.QuaternionI4F;
+import com.io7m.jtensors.VectorI3F;
 import com.io7m.jtensors.parameterized.PMatrixI3x3F;
 import com.io7m.jtensors.parameterized.PMatrixI4x4F;
 import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
 import com.io7m.r1.exceptions.RException;
 import com.io7m.r1.exceptions.RExceptionBuilderInvalid;
 import com.io7m.r1.kernel.KMaterialDefaults;
@@ -54,7 +58,9 @@ import com.io7m.r1.kernel.types.KMeshReadableType;
 import com.io7m.r1.kernel.types.KProjectionFrustum;
 import com.io7m.r1.kernel.types.KProjectionType;
 import com.io7m.r1.kernel.types.KTransformMatrix4x4;
+import com.io7m.r1.kernel.types.KTransformOST;
 import com.io7m.r1.kernel.types.KTransformType;
+import com.io7m.r1.kernel.types.KTranslucentSorter;
 import com.io7m.r1.kernel.types.KTranslucentType;
 import com.io7m.r1.kernel.types.KVisibleSetTranslucents;
 import com.io7m.r1.kernel.types.KVisibleSetTranslucentsBuilderWithCreateType;
@@ -90,6 +96,38 @@ import com.io7m.r1.tests.RFakeShaderControllers;
     return KMesh.newMesh(array, indices);
   }
 
+  private static KInstanceTranslucentRegular newInstanceAt(
+    final KMeshReadableType m,
+    final KMaterialTranslucentRegular mat,
+    final float z)
+  {
+    final PVectorI3F<RSpaceWorldType> translation =
+      new PVectorI3F<RSpaceWorldType>(0.0f, 0.0f, z);
+    return KInstanceTranslucentRegular.newInstance(
+      m,
+      mat,
+      KTransformOST.newTransform(
+        new QuaternionI4F(),
+        new VectorI3F(1.0f, 1.0f, 1.0f),
+        translation),
+      PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+      KFaceSelection.FACE_RENDER_FRONT);
+  }
+
+  private static List<KTranslucentType> sorted(
+    final KCamera c,
+    final KTranslucentSorter s,
+    final List<KInstanceTranslucentRegular> in)
+    throws RException
+  {
+    final KVisibleSetTranslucentsBuilderWithCreateType b =
+      KVisibleSetTranslucents.newBuilderWithSorter(c, s);
+    for (final KInstanceTranslucentRegular i : in) {
+      b.visibleTranslucentsAddUnlit(i);
+    }
+    return b.visibleTranslucentsCreate().getInstances();
+  }
+
   private KCamera makeCamera()
   {
     final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
@@ -226,4 +264,92 @@ import com.io7m.r1.tests.RFakeShaderControllers;
     final KVisibleSetTranslucents v = b.visibleTranslucentsCreate();
     Assert.assertEquals(0, v.getInstances().size());
   }
+
+  @Test public void testSortedBackToFront_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetTranslucentsTest.newMesh(g.getGLCommon());
+    final KMaterialTranslucentRegular mat =
+      KMaterialTranslucentRegular.newBuilder(defaults).build();
+
+    final KInstanceTranslucentRegular i0 =
+      KVisibleSetTranslucentsTest.newInstanceAt(m, mat, -2.0f);
+    final KInstanceTranslucentRegular i1 =
+      KVisibleSetTranslucentsTest.newInstanceAt(m, mat, -8.0f);
+    final KInstanceTranslucentRegular i2 =
+      KVisibleSetTranslucentsTest.newInstanceAt(m, mat, -5.0f);
+    final KInstanceTranslucentRegular i3 =
+      KVisibleSetTranslucentsTest.newInstanceAt(m, mat, -5.0f);
+
+    final List<KInstanceTranslucentRegular> in =
+      new ArrayList<KInstanceTranslucentRegular>();
+    in.add(i0);
+    in.add(i1);
+    in.add(i2);
+    in.add(i3);
+
+    final KCamera c = this.makeCamera();
+    final KTranslucentSorter s = KTranslucentSorter.newSorter();
+
+    final List<KTranslucentType> r0 =
+      KVisibleSetTranslucentsTest.sorted(c, s, in);
+    Assert.assertEquals(4, r0.size());
+    Assert.assertSame(i1, r0.get(0));
+    Assert.assertSame(i2, r0.get(1));
+    Assert.assertSame(i3, r0.get(2));
+    Assert.assertSame(i0, r0.get(3));
+
+    /**
+     * Sorting a second frame of the same size reuses the previous
+     * permutation, but must still produce the same result as sorting from
+     * scratch, and must keep equal-depth instances in submission order.
+     */
+
+    in.clear();
+    in.add(i3);
+    in.add(i0);
+    in.add(i2);
+    in.add(i1);
+
+    final List<KTranslucentType> r1 =
+      KVisibleSetTranslucentsTest.sorted(c, s, in);
+    Assert.assertEquals(4, r1.size());
+    Assert.assertSame(i1, r1.get(0));
+    Assert.assertSame(i3, r1.get(1));
+    Assert.assertSame(i2, r1.get(2));
+    Assert.assertSame(i0, r1.get(3));
+  }
+
+  @Test public void testUnsortedSubmissionOrder_0()
+    throws RException
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    final JCGLImplementationType g =
+      RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMeshReadableType m =
+      KVisibleSetTranslucentsTest.newMesh(g.getGLCommon());
+    final KMaterialTranslucentRegular mat =
+      KMaterialTranslucentRegular.newBuilder(defaults).build();
+
+    final KInstanceTranslucentRegular i0 =
+      KVisibleSetTranslucentsTest.newInstanceAt(m, mat, -2.0f);
+    final KInstanceTranslucentRegular i1 =
+      KVisibleSetTranslucentsTest.newInstanceAt(m, mat, -8.0f);
+
+    final KVisibleSetTranslucentsBuilderWithCreateType b =
+      KVisibleSetTranslucents.newBuilder(this.makeCamera());
+    b.visibleTranslucentsAddUnlit(i0);
+    b.visibleTranslucentsAddUnlit(i1);
+
+    final List<KTranslucentType> r =
+      b.visibleTranslucentsCreate().getInstances();
+    Assert.assertSame(i0, r.get(0));
+    Assert.assertSame(i1, r.get(1));
+  }
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel.types;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingVolumeHierarchy;
+import com.io7m.r1.kernel.types.KBoundingVolumeHierarchyReceiverType;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFrustum;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KBoundingVolumeHierarchyTest
+{
+  private static final class Collector implements
+    KBoundingVolumeHierarchyReceiverType<Integer, RuntimeException>
+  {
+    private final Set<Integer> items;
+
+    Collector()
+    {
+      this.items = new HashSet<Integer>();
+    }
+
+    @Override public void receiveItem(
+      final Integer item)
+    {
+      Assert.assertTrue(this.items.add(item));
+    }
+  }
+
+  private static KBoundingBox<RSpaceWorldType> makeBox(
+    final float x0,
+    final float y0,
+    final float z0,
+    final float x1,
+    final float y1,
+    final float z1)
+  {
+    return KBoundingBox.newBox(
+      new PVectorI3F<RSpaceWorldType>(x0, y0, z0),
+      new PVectorI3F<RSpaceWorldType>(x1, y1, z1));
+  }
+
+  private static KFrustum makeFrustum()
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -1.0f,
+        1.0f,
+        -1.0f,
+        1.0f,
+        1.0f,
+        10.0f);
+    final KFrustum f = KFrustum.newFrustum();
+    f.updateFromCamera(KCamera.newCamera(view, projection));
+    return f;
+  }
+
+  private static Map<Integer, KBoundingBox<RSpaceWorldType>> makeRandomBoxes(
+    final int count)
+  {
+    final Random r = new Random(0x10203040L);
+    final Map<Integer, KBoundingBox<RSpaceWorldType>> m =
+      new HashMap<Integer, KBoundingBox<RSpaceWorldType>>();
+    for (int index = 0; index < count; ++index) {
+      final float x = (r.nextFloat() * 40.0f) - 20.0f;
+      final float y = (r.nextFloat() * 40.0f) - 20.0f;
+      final float z = (r.nextFloat() * 40.0f) - 20.0f;
+      final float s = r.nextFloat() * 2.0f;
+      m.put(
+        Integer.valueOf(index),
+        KBoundingVolumeHierarchyTest.makeBox(x, y, z, x + s, y + s, z + s));
+    }
+    return m;
+  }
+
+  private static Set<Integer> bruteFrustum(
+    final Map<Integer, KBoundingBox<RSpaceWorldType>> boxes,
+    final KFrustum f)
+  {
+    final Set<Integer> s = new HashSet<Integer>();
+    for (final Integer k : boxes.keySet()) {
+      if (f.intersectsBox(boxes.get(k))) {
+        s.add(k);
+      }
+    }
+    return s;
+  }
+
+  private static Set<Integer> bruteSphere(
+    final Map<Integer, KBoundingBox<RSpaceWorldType>> boxes,
+    final float x,
+    final float y,
+    final float z,
+    final float radius)
+  {
+    final Set<Integer> s = new HashSet<Integer>();
+    for (final Integer k : boxes.keySet()) {
+      final KBoundingBox<RSpaceWorldType> b = boxes.get(k);
+      final PVectorI3F<RSpaceWorldType> lo = b.getLower();
+      final PVectorI3F<RSpaceWorldType> hi = b.getUpper();
+      final float dx = Math.max(Math.max(lo.getXF() - x, 0.0f), x - hi.getXF());
+      final float dy = Math.max(Math.max(lo.getYF() - y, 0.0f), y - hi.getYF());
+      final float dz = Math.max(Math.max(lo.getZF() - z, 0.0f), z - hi.getZF());
+      if (((dx * dx) + (dy * dy) + (dz * dz)) <= (radius * radius)) {
+        s.add(k);
+      }
+    }
+    return s;
+  }
+
+  @Test public void testEmpty()
+  {
+    final KBoundingVolumeHierarchy<Integer> h =
+      KBoundingVolumeHierarchy.newHierarchy();
+    Assert.assertEquals(0, h.size());
+    Assert.assertEquals(0, h.getHeight());
+
+    final Collector c = new Collector();
+    h.queryFrustum(KBoundingVolumeHierarchyTest.makeFrustum(), c);
+    h.querySphere(0.0f, 0.0f, 0.0f, 100.0f, c);
+    Assert.assertTrue(c.items.isEmpty());
+  }
+
+  @Test public void testInsertRemove()
+  {
+    final KBoundingVolumeHierarchy<Integer> h =
+      KBoundingVolumeHierarchy.newHierarchy();
+    final Integer a = Integer.valueOf(0);
+    final Integer b = Integer.valueOf(1);
+    final Integer c = Integer.valueOf(2);
+
+    h.insert(a, KBoundingVolumeHierarchyTest.makeBox(0, 0, 0, 1, 1, 1));
+    Assert.assertEquals(1, h.getHeight());
+    h.insert(b, KBoundingVolumeHierarchyTest.makeBox(2, 2, 2, 3, 3, 3));
+    h.insert(c, KBoundingVolumeHierarchyTest.makeBox(4, 4, 4, 5, 5, 5));
+    Assert.assertEquals(3, h.size());
+    Assert.assertTrue(h.contains(b));
+
+    Assert.assertTrue(h.remove(b));
+    Assert.assertFalse(h.remove(b));
+    Assert.assertFalse(h.contains(b));
+    Assert.assertEquals(2, h.size());
+    Assert.assertEquals(2, h.getHeight());
+
+    final Collector k = new Collector();
+    h.queryBox(KBoundingVolumeHierarchyTest.makeBox(-1, -1, -1, 10, 10, 10), k);
+    Assert.assertEquals(2, k.items.size());
+    Assert.assertTrue(k.items.contains(a));
+    Assert.assertTrue(k.items.contains(c));
+
+    Assert.assertTrue(h.remove(a));
+    Assert.assertTrue(h.remove(c));
+    Assert.assertEquals(0, h.getHeight());
+  }
+
+  @Test public void testInsertReplaces()
+  {
+    final KBoundingVolumeHierarchy<Integer> h =
+      KBoundingVolumeHierarchy.newHierarchy();
+    final Integer a = Integer.valueOf(0);
+    h.insert(a, KBoundingVolumeHierarchyTest.makeBox(0, 0, 0, 1, 1, 1));
+    h.insert(a, KBoundingVolumeHierarchyTest.makeBox(8, 8, 8, 9, 9, 9));
+    Assert.assertEquals(1, h.size());
+    Assert.assertEquals(
+      KBoundingVolumeHierarchyTest.makeBox(8, 8, 8, 9, 9, 9),
+      h.getBounds(a));
+
+    final Collector k = new Collector();
+    h.queryBox(KBoundingVolumeHierarchyTest.makeBox(0, 0, 0, 1, 1, 1), k);
+    Assert.assertTrue(k.items.isEmpty());
+  }
+
+  @Test public void testBulkBalanced()
+  {
+    final Map<Integer, KBoundingBox<RSpaceWorldType>> boxes =
+      KBoundingVolumeHierarchyTest.makeRandomBoxes(1024);
+    final KBoundingVolumeHierarchy<Integer> h =
+      KBoundingVolumeHierarchy.newHierarchyFromItems(boxes);
+    Assert.assertEquals(1024, h.size());
+    Assert.assertEquals(11, h.getHeight());
+  }
+
+  @Test public void testFrustumMatchesBruteForce()
+  {
+    final Map<Integer, KBoundingBox<RSpaceWorldType>> boxes =
+      KBoundingVolumeHierarchyTest.makeRandomBoxes(1000);
+    final KFrustum f = KBoundingVolumeHierarchyTest.makeFrustum();
+    final Set<Integer> expected =
+      KBoundingVolumeHierarchyTest.bruteFrustum(boxes, f);
+    Assert.assertFalse(expected.isEmpty());
+
+    final KBoundingVolumeHierarchy<Integer> bulk =
+      KBoundingVolumeHierarchy.newHierarchyFromItems(boxes);
+    final Collector c0 = new Collector();
+    bulk.queryFrustum(f, c0);
+    Assert.assertEquals(expected, c0.items);
+
+    final KBoundingVolumeHierarchy<Integer> incremental =
+      KBoundingVolumeHierarchy.newHierarchy();
+    for (final Integer k : boxes.keySet()) {
+      incremental.insert(k, boxes.get(k));
+    }
+    final Collector c1 = new Collector();
+    incremental.queryFrustum(f, c1);
+    Assert.assertEquals(expected, c1.items);
+  }
+
+  @Test public void testSphereMatchesBruteForce()
+  {
+    final Map<Integer, KBoundingBox<RSpaceWorldType>> boxes =
+      KBoundingVolumeHierarchyTest.makeRandomBoxes(1000);
+    final KBoundingVolumeHierarchy<Integer> h =
+      KBoundingVolumeHierarchy.newHierarchyFromItems(boxes);
+
+    for (int index = 0; index < 500; index += 2) {
+      h.remove(Integer.valueOf(index));
+      boxes.remove(Integer.valueOf(index));
+    }
+
+    final Set<Integer> expected =
+      KBoundingVolumeHierarchyTest.bruteSphere(boxes, 1.0f, 2.0f, 3.0f, 8.0f);
+    Assert.assertFalse(expected.isEmpty());
+
+    final Collector c = new Collector();
+    h.querySphere(1.0f, 2.0f, 3.0f, 8.0f, c);
+    Assert.assertEquals(expected, c.items);
+  }
+
+  @Test public void testTransformedBox()
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    PMatrixM4x4F.set(m, 0, 3, 10.0f);
+    PMatrixM4x4F.set(m, 1, 1, 2.0f);
+
+    final KBoundingBox<RSpaceObjectType> box =
+      KBoundingBox.newBox(
+        new PVectorI3F<RSpaceObjectType>(-1.0f, -1.0f, -1.0f),
+        new PVectorI3F<RSpaceObjectType>(1.0f, 1.0f, 1.0f));
+    final KBoundingBox<RSpaceWorldType> r = KBoundingBox.newTransformed(m, box);
+
+    Assert.assertEquals(
+      KBoundingVolumeHierarchyTest.makeBox(9, -2, -1, 11, 2, 1),
+      r);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel.types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jtensors.parameterized.PMatrixI4x4F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KCamera;
+import com.io7m.r1.kernel.types.KFrustum;
+import com.io7m.r1.kernel.types.KProjectionFrustum;
+import com.io7m.r1.kernel.types.KProjectionType;
+import com.io7m.r1.spaces.RSpaceClipType;
+import com.io7m.r1.spaces.RSpaceEyeType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KFrustumTest
+{
+  private static KCamera makeCamera()
+  {
+    final PMatrixI4x4F<RSpaceWorldType, RSpaceEyeType> view =
+      PMatrixI4x4F.identity();
+    final KProjectionType projection =
+      KProjectionFrustum.newProjection(
+        new PMatrixM4x4F<RSpaceEyeType, RSpaceClipType>(),
+        -1.0f,
+        1.0f,
+        -1.0f,
+        1.0f,
+        1.0f,
+        10.0f);
+    return KCamera.newCamera(view, projection);
+  }
+
+  private static KFrustum makeFrustum()
+  {
+    final KFrustum f = KFrustum.newFrustum();
+    f.updateFromCamera(KFrustumTest.makeCamera());
+    return f;
+  }
+
+  private static <S extends RSpaceType> KBoundingBox<S> makeBox(
+    final float x0,
+    final float y0,
+    final float z0,
+    final float x1,
+    final float y1,
+    final float z1)
+  {
+    return KBoundingBox.newBox(
+      new PVectorI3F<S>(x0, y0, z0),
+      new PVectorI3F<S>(x1, y1, z1));
+  }
+
+  @Test(expected = RangeCheckException.class) public void testBoxInvalid()
+  {
+    KFrustumTest.makeBox(1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f);
+  }
+
+  @Test public void testBoxCenterExtents()
+  {
+    final KBoundingBox<RSpaceWorldType> b =
+      KFrustumTest.makeBox(-1.0f, 0.0f, 2.0f, 1.0f, 4.0f, 3.0f);
+    Assert.assertEquals(0.0f, b.getCenterX(), 0.0f);
+    Assert.assertEquals(2.0f, b.getCenterY(), 0.0f);
+    Assert.assertEquals(2.5f, b.getCenterZ(), 0.0f);
+    Assert.assertEquals(1.0f, b.getExtentX(), 0.0f);
+    Assert.assertEquals(2.0f, b.getExtentY(), 0.0f);
+    Assert.assertEquals(0.5f, b.getExtentZ(), 0.0f);
+  }
+
+  @Test public void testFrustumInitialAcceptsEverything()
+  {
+    final KFrustum f = KFrustum.newFrustum();
+    Assert.assertTrue(f.intersectsSphere(0.0f, 0.0f, 1000.0f, 1.0f));
+    Assert.assertTrue(f.intersectsSphere(0.0f, 0.0f, -1000.0f, 1.0f));
+  }
+
+  @Test public void testFrustumSphere()
+  {
+    final KFrustum f = KFrustumTest.makeFrustum();
+
+    Assert.assertTrue(f.intersectsSphere(0.0f, 0.0f, -5.0f, 0.5f));
+    Assert.assertFalse(f.intersectsSphere(0.0f, 0.0f, 5.0f, 0.5f));
+    Assert.assertFalse(f.intersectsSphere(0.0f, 0.0f, -20.0f, 0.5f));
+    Assert.assertFalse(f.intersectsSphere(100.0f, 0.0f, -5.0f, 0.5f));
+    Assert.assertFalse(f.intersectsSphere(0.0f, -100.0f, -5.0f, 0.5f));
+
+    /**
+     * Straddling the near plane.
+     */
+
+    Assert.assertTrue(f.intersectsSphere(0.0f, 0.0f, 0.0f, 2.0f));
+  }
+
+  @Test public void testFrustumBox()
+  {
+    final KFrustum f = KFrustumTest.makeFrustum();
+
+    final KBoundingBox<RSpaceWorldType> inside =
+      KFrustumTest.makeBox(-0.5f, -0.5f, -5.0f, 0.5f, 0.5f, -4.0f);
+    final KBoundingBox<RSpaceWorldType> behind =
+      KFrustumTest.makeBox(-0.5f, -0.5f, 4.0f, 0.5f, 0.5f, 5.0f);
+    final KBoundingBox<RSpaceWorldType> right =
+      KFrustumTest.makeBox(50.0f, -0.5f, -5.0f, 51.0f, 0.5f, -4.0f);
+    final KBoundingBox<RSpaceWorldType> enclosing =
+      KFrustumTest.makeBox(-100.0f, -100.0f, -100.0f, 100.0f, 100.0f, 100.0f);
+
+    Assert.assertTrue(f.intersectsBox(inside));
+    Assert.assertFalse(f.intersectsBox(behind));
+    Assert.assertFalse(f.intersectsBox(right));
+    Assert.assertTrue(f.intersectsBox(enclosing));
+  }
+
+  @Test public void testFrustumBoxTransformed()
+  {
+    final KFrustum f = KFrustumTest.makeFrustum();
+    final KBoundingBox<RSpaceObjectType> box =
+      KFrustumTest.makeBox(-0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f);
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+
+    PMatrixM4x4F.set(m, 2, 3, -5.0f);
+    Assert.assertTrue(f.intersectsBoxTransformed(m, box));
+
+    PMatrixM4x4F.set(m, 2, 3, 5.0f);
+    Assert.assertFalse(f.intersectsBoxTransformed(m, box));
+
+    PMatrixM4x4F.set(m, 0, 3, 40.0f);
+    PMatrixM4x4F.set(m, 2, 3, -5.0f);
+    Assert.assertFalse(f.intersectsBoxTransformed(m, box));
+
+    /**
+     * Scaling the box up by a large factor brings it back into view.
+     */
+
+    PMatrixM4x4F.set(m, 0, 0, 100.0f);
+    Assert.assertTrue(f.intersectsBoxTransformed(m, box));
+  }
+}
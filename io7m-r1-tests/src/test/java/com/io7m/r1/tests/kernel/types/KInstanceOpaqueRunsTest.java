@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel.types;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayDescriptor;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLImplementationType;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jtensors.QuaternionI4F;
+import com.io7m.jtensors.VectorI3F;
+import com.io7m.jtensors.parameterized.PMatrixI3x3F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.KMaterialDefaults;
+import com.io7m.r1.kernel.types.KFaceSelection;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRegular;
+import com.io7m.r1.kernel.types.KInstanceOpaqueRuns;
+import com.io7m.r1.kernel.types.KInstanceOpaqueType;
+import com.io7m.r1.kernel.types.KMaterialDefaultsType;
+import com.io7m.r1.kernel.types.KMaterialOpaqueRegular;
+import com.io7m.r1.kernel.types.KMesh;
+import com.io7m.r1.kernel.types.KMeshReadableType;
+import com.io7m.r1.kernel.types.KTransformOST;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KInstanceOpaqueRunsTest
+{
+  private static JCGLImplementationType makeGL()
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL.newFakeGL30(RFakeShaderControllers.newNull(), none);
+  }
+
+  private static KInstanceOpaqueRegular makeInstance(
+    final KMeshReadableType mesh,
+    final KMaterialOpaqueRegular material)
+  {
+    return KInstanceOpaqueRegular.newInstance(
+      mesh,
+      material,
+      KTransformOST.newTransform(
+        new QuaternionI4F(),
+        new VectorI3F(1.0f, 1.0f, 1.0f),
+        new PVectorI3F<RSpaceWorldType>(0.0f, 0.0f, 0.0f)),
+      PMatrixI3x3F.<RSpaceTextureType, RSpaceTextureType> identity(),
+      KFaceSelection.FACE_RENDER_FRONT);
+  }
+
+  private static KMesh makeMesh(
+    final JCGLInterfaceCommonType gc)
+  {
+    final ArrayDescriptor type = KMesh.getStandardDescriptor();
+    final ArrayBufferType array =
+      gc.arrayBufferAllocate(1, type, UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferType indices =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        1,
+        UsageHint.USAGE_STATIC_DRAW);
+    return KMesh.newMesh(array, indices);
+  }
+
+  @Test public void testRunsMeshAndMaterial()
+  {
+    final JCGLImplementationType g = KInstanceOpaqueRunsTest.makeGL();
+    final KMaterialDefaultsType defaults = KMaterialDefaults.newResources(g);
+    final KMaterialOpaqueRegular mat0 =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+    final KMaterialOpaqueRegular mat1 =
+      KMaterialOpaqueRegular.newBuilder(defaults).build();
+    final KMesh m0 = KInstanceOpaqueRunsTest.makeMesh(g.getGLCommon());
+    final KMesh m1 = KInstanceOpaqueRunsTest.makeMesh(g.getGLCommon());
+
+    final List<KInstanceOpaqueType> in = new ArrayList<KInstanceOpaqueType>();
+    in.add(KInstanceOpaqueRunsTest.makeInstance(m0, mat0));
+    in.add(KInstanceOpaqueRunsTest.makeInstance(m0, mat0));
+    in.add(KInstanceOpaqueRunsTest.makeInstance(m0, mat0));
+    in.add(KInstanceOpaqueRunsTest.makeInstance(m1, mat0));
+    in.add(KInstanceOpaqueRunsTest.makeInstance(m1, mat1));
+    in.add(KInstanceOpaqueRunsTest.makeInstance(m1, mat1));
+
+    Assert.assertEquals(3, KInstanceOpaqueRuns.runLength(in, 0));
+    Assert.assertEquals(2, KInstanceOpaqueRuns.runLength(in, 1));
+    Assert.assertEquals(1, KInstanceOpaqueRuns.runLength(in, 3));
+    Assert.assertEquals(2, KInstanceOpaqueRuns.runLength(in, 4));
+    Assert.assertEquals(1, KInstanceOpaqueRuns.runLength(in, 5));
+
+    Assert.assertTrue(KInstanceOpaqueRuns.runCompatible(in.get(0), in.get(2)));
+    Assert.assertFalse(KInstanceOpaqueRuns.runCompatible(in.get(2), in.get(3)));
+    Assert.assertFalse(KInstanceOpaqueRuns.runCompatible(in.get(3), in.get(4)));
+  }
+
+  @Test(expected = RangeCheckException.class) public void testRunsOutOfRange()
+  {
+    final List<KInstanceOpaqueType> in = new ArrayList<KInstanceOpaqueType>();
+    KInstanceOpaqueRuns.runLength(in, 0);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel.types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.r1.kernel.types.KMaterialCodes;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KMaterialCodesTest
+{
+  @Test public void testInternDistinct()
+  {
+    final int a = KMaterialCodes.codeIntern("KMaterialCodesTest_distinct_0");
+    final int b = KMaterialCodes.codeIntern("KMaterialCodesTest_distinct_1");
+    Assert.assertNotEquals(a, b);
+    Assert.assertTrue(KMaterialCodes.codeCount() > Math.max(a, b));
+  }
+
+  @Test public void testInternIdempotent()
+  {
+    final int a = KMaterialCodes.codeIntern("KMaterialCodesTest_same");
+    final int b = KMaterialCodes.codeIntern("KMaterialCodesTest_same");
+    Assert.assertEquals(a, b);
+    Assert.assertEquals(a, KMaterialCodes.codeLookup("KMaterialCodesTest_same"));
+  }
+
+  @Test public void testLookupUnknown()
+  {
+    Assert.assertEquals(
+      -1,
+      KMaterialCodes.codeLookup("KMaterialCodesTest_never_interned"));
+  }
+
+  @Test public void testStringRoundTrip()
+  {
+    final int a = KMaterialCodes.codeIntern("KMaterialCodesTest_round");
+    Assert.assertEquals(
+      "KMaterialCodesTest_round",
+      KMaterialCodes.codeString(a));
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testStringNegative()
+  {
+    KMaterialCodes.codeString(-1);
+  }
+
+  @Test(expected = RangeCheckException.class) public
+    void
+    testStringTooLarge()
+  {
+    KMaterialCodes.codeString(KMaterialCodes.codeCount());
+  }
+}
@@ -70,6 +70,8 @@ import com.io7m.r1.tests.RFakeShaderControllers;
     final KMesh k = KMesh.newMesh(array, indices);
     Assert.assertEquals(array, k.meshGetArrayBuffer());
     Assert.assertEquals(indices, k.meshGetIndexBuffer());
+    Assert.assertTrue(k.meshGetBoundingBox().isNone());
+    Assert.assertTrue(k.meshGetBoundingSphere().isNone());
     Assert.assertFalse(k.resourceIsDeleted());
 
     k.delete(gc);
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel.types;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.r1.kernel.types.KRadixSort;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KRadixSortTest
+{
+  @Test public void testEmpty()
+  {
+    final long[] k = new long[0];
+    final int[] v = new int[0];
+    KRadixSort.sort(k, v, 0, new long[0], new int[0], new int[256]);
+  }
+
+  @Test public void testRandomMatchesArraysSort()
+  {
+    final Random r = new Random(0x1234L);
+    final int count = 1000;
+    final long[] k = new long[count];
+    final int[] v = new int[count];
+    for (int index = 0; index < count; ++index) {
+      k[index] = r.nextLong() >>> 1;
+      v[index] = index;
+    }
+
+    final long[] original = Arrays.copyOf(k, count);
+    final long[] expected = Arrays.copyOf(k, count);
+    Arrays.sort(expected);
+
+    KRadixSort.sort(
+      k,
+      v,
+      count,
+      new long[count],
+      new int[count],
+      new int[256]);
+
+    Assert.assertArrayEquals(expected, k);
+    for (int index = 0; index < count; ++index) {
+      Assert.assertEquals(k[index], original[v[index]]);
+    }
+  }
+
+  @Test public void testStable()
+  {
+    final long[] k = new long[] { 3L << 48, 1L << 48, 3L << 48, 1L << 48 };
+    final int[] v = new int[] { 0, 1, 2, 3 };
+
+    KRadixSort.sort(k, v, 4, new long[4], new int[4], new int[256]);
+
+    Assert.assertArrayEquals(new int[] { 1, 3, 0, 2 }, v);
+  }
+
+  @Test public void testUnsigned()
+  {
+    final long[] k = new long[] { -1L, 0L, Long.MIN_VALUE, Long.MAX_VALUE };
+    final int[] v = new int[] { 0, 1, 2, 3 };
+
+    KRadixSort.sort(k, v, 4, new long[4], new int[4], new int[256]);
+
+    Assert.assertArrayEquals(new int[] { 1, 3, 2, 0 }, v);
+  }
+
+  @Test public void testPrefixOnly()
+  {
+    final long[] k = new long[] { 9L, 4L, 7L, 1L, 4L };
+    final int[] v = new int[] { 0, 1, 2, 3, 4 };
+
+    KRadixSort.sort(k, v, 3, new long[3], new int[3], new int[256]);
+
+    Assert.assertArrayEquals(new long[] { 4L, 7L, 9L, 1L, 4L }, k);
+    Assert.assertArrayEquals(new int[] { 1, 2, 0, 3, 4 }, v);
+  }
+}
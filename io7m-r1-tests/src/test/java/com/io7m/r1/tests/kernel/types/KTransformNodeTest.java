@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.kernel.types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jtensors.QuaternionI4F;
+import com.io7m.jtensors.VectorI3F;
+import com.io7m.jtensors.parameterized.PMatrixM3x3F;
+import com.io7m.jtensors.parameterized.PMatrixM4x4F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KTransformContext;
+import com.io7m.r1.kernel.types.KTransformNode;
+import com.io7m.r1.kernel.types.KTransformOST;
+import com.io7m.r1.kernel.types.KTransformType;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceWorldType;
+
+@SuppressWarnings({ "null", "static-method" }) public final class KTransformNodeTest
+{
+  private static KTransformType makeTransform(
+    final float x,
+    final float s)
+  {
+    return KTransformOST.newTransform(
+      new QuaternionI4F(0.0f, 0.6f, 0.0f, 0.8f),
+      new VectorI3F(s, 1.0f, 1.0f),
+      new PVectorI3F<RSpaceWorldType>(x, 2.0f, 3.0f));
+  }
+
+  private static PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> matrixOf(
+    final KTransformType t)
+  {
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    t.transformMakeMatrix4x4F(KTransformContext.newContext(), m);
+    return m;
+  }
+
+  @Test public void testNormalMatrix()
+  {
+    final KTransformNode n =
+      KTransformNode.newNode(KTransformOST.newTransform(
+        new QuaternionI4F(),
+        new VectorI3F(2.0f, 4.0f, 8.0f),
+        new PVectorI3F<RSpaceWorldType>(1.0f, 2.0f, 3.0f)));
+
+    final PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType> m =
+      new PMatrixM3x3F<RSpaceObjectType, RSpaceWorldType>();
+    n.nodeGetMatrixNormalWorld(m);
+
+    Assert.assertEquals(0.5f, m.getRowColumnF(0, 0), 0.0f);
+    Assert.assertEquals(0.25f, m.getRowColumnF(1, 1), 0.0f);
+    Assert.assertEquals(0.125f, m.getRowColumnF(2, 2), 0.0f);
+    Assert.assertEquals(0.0f, m.getRowColumnF(0, 1), 0.0f);
+  }
+
+  @Test public void testParentChanged()
+  {
+    final KTransformNode p =
+      KTransformNode.newNode(KTransformNodeTest.makeTransform(1.0f, 1.0f));
+    final KTransformNode c =
+      KTransformNode.newNodeWithParent(
+        p,
+        KTransformNodeTest.makeTransform(5.0f, 2.0f));
+
+    final long v0 = c.nodeGetVersion();
+    Assert.assertFalse(c.nodeIsDirty());
+
+    p.nodeSetLocal(KTransformNodeTest.makeTransform(10.0f, 1.0f));
+    Assert.assertTrue(c.nodeIsDirty());
+
+    final long v1 = c.nodeGetVersion();
+    Assert.assertNotEquals(v0, v1);
+    Assert.assertFalse(c.nodeIsDirty());
+
+    final PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType> expected =
+      new PMatrixM4x4F<RSpaceObjectType, RSpaceWorldType>();
+    PMatrixM4x4F.multiply(
+      KTransformNodeTest.matrixOf(p),
+      KTransformNodeTest.matrixOf(c.nodeGetLocal()),
+      expected);
+    Assert.assertEquals(expected, KTransformNodeTest.matrixOf(c));
+  }
+
+  @Test public void testRootMatchesLocal()
+  {
+    final KTransformType t = KTransformNodeTest.makeTransform(1.0f, 2.0f);
+    final KTransformNode n = KTransformNode.newNode(t);
+
+    Assert.assertTrue(n.nodeIsDirty());
+    Assert.assertEquals(
+      KTransformNodeTest.matrixOf(t),
+      KTransformNodeTest.matrixOf(n));
+    Assert.assertFalse(n.nodeIsDirty());
+  }
+
+  @Test public void testVersionStable()
+  {
+    final KTransformNode n =
+      KTransformNode.newNode(KTransformNodeTest.makeTransform(1.0f, 1.0f));
+
+    final long v0 = n.nodeGetVersion();
+    KTransformNodeTest.matrixOf(n);
+    Assert.assertEquals(v0, n.nodeGetVersion());
+
+    n.nodeSetLocal(KTransformNodeTest.makeTransform(2.0f, 1.0f));
+    Assert.assertTrue(n.nodeIsDirty());
+    Assert.assertNotEquals(v0, n.nodeGetVersion());
+  }
+}
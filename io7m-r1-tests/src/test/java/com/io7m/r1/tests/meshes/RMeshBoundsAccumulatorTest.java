@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.meshes;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingSphere;
+import com.io7m.r1.meshes.RMeshBoundsAccumulator;
+import com.io7m.r1.spaces.RSpaceObjectType;
+
+@SuppressWarnings({ "null", "static-method" }) public final class RMeshBoundsAccumulatorTest
+{
+  private static void checkContains(
+    final KBoundingSphere<RSpaceObjectType> s,
+    final float x,
+    final float y,
+    final float z)
+  {
+    final PVectorI3F<RSpaceObjectType> c = s.getCenter();
+    final float dx = x - c.getXF();
+    final float dy = y - c.getYF();
+    final float dz = z - c.getZF();
+    final double d = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+    Assert.assertTrue(d <= (s.getRadius() + 0.0001));
+  }
+
+  @Test public void testEmpty()
+  {
+    final RMeshBoundsAccumulator a = RMeshBoundsAccumulator.newAccumulator();
+    Assert.assertEquals(0, a.getCount());
+
+    final KBoundingBox<RSpaceObjectType> b = a.getBoundingBox();
+    Assert.assertEquals(new PVectorI3F<RSpaceObjectType>(0, 0, 0), b.getLower());
+    Assert.assertEquals(new PVectorI3F<RSpaceObjectType>(0, 0, 0), b.getUpper());
+
+    final KBoundingSphere<RSpaceObjectType> s = a.getBoundingSphere();
+    Assert.assertEquals(0.0f, s.getRadius(), 0.0f);
+  }
+
+  @Test public void testNegativeBox()
+  {
+    final RMeshBoundsAccumulator a = RMeshBoundsAccumulator.newAccumulator();
+    a.addPosition(-3.0f, -2.0f, -1.0f);
+    a.addPosition(-1.0f, -4.0f, -2.0f);
+
+    final KBoundingBox<RSpaceObjectType> b = a.getBoundingBox();
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(-3.0f, -4.0f, -2.0f),
+      b.getLower());
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(-1.0f, -2.0f, -1.0f),
+      b.getUpper());
+  }
+
+  @Test public void testCube()
+  {
+    final RMeshBoundsAccumulator a = RMeshBoundsAccumulator.newAccumulator();
+    final float[] v = { -1.0f, 1.0f };
+
+    for (final float x : v) {
+      for (final float y : v) {
+        for (final float z : v) {
+          a.addPosition(x, y, z);
+        }
+      }
+    }
+
+    Assert.assertEquals(8, a.getCount());
+
+    final KBoundingBox<RSpaceObjectType> b = a.getBoundingBox();
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(-1.0f, -1.0f, -1.0f),
+      b.getLower());
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(1.0f, 1.0f, 1.0f),
+      b.getUpper());
+
+    final KBoundingSphere<RSpaceObjectType> s = a.getBoundingSphere();
+    Assert.assertTrue(s.getRadius() <= (Math.sqrt(3.0) + 0.0001));
+
+    for (final float x : v) {
+      for (final float y : v) {
+        for (final float z : v) {
+          RMeshBoundsAccumulatorTest.checkContains(s, x, y, z);
+        }
+      }
+    }
+  }
+
+  @Test public void testLine()
+  {
+    final RMeshBoundsAccumulator a = RMeshBoundsAccumulator.newAccumulator();
+    a.addPosition(-1.0f, 0.0f, 0.0f);
+    a.addPosition(1.0f, 0.0f, 0.0f);
+    a.addPosition(0.0f, 0.0f, 0.0f);
+
+    final KBoundingSphere<RSpaceObjectType> s = a.getBoundingSphere();
+    Assert.assertEquals(1.0f, s.getRadius(), 0.0001f);
+    RMeshBoundsAccumulatorTest.checkContains(s, -1.0f, 0.0f, 0.0f);
+    RMeshBoundsAccumulatorTest.checkContains(s, 1.0f, 0.0f, 0.0f);
+  }
+
+  @Test public void testReset()
+  {
+    final RMeshBoundsAccumulator a = RMeshBoundsAccumulator.newAccumulator();
+    a.addPosition(100.0f, 100.0f, 100.0f);
+    a.reset();
+    a.addPosition(1.0f, 2.0f, 3.0f);
+
+    final KBoundingBox<RSpaceObjectType> b = a.getBoundingBox();
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(1.0f, 2.0f, 3.0f),
+      b.getLower());
+    Assert.assertEquals(b.getLower(), b.getUpper());
+    Assert.assertEquals(0.0f, a.getBoundingSphere().getRadius(), 0.0f);
+  }
+}
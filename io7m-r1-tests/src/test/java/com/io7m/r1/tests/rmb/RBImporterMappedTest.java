@@ -0,0 +1,345 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.r1.tests.rmb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.io7m.jcanephora.ArrayBufferType;
+import com.io7m.jcanephora.ArrayBufferUpdateUnmapped;
+import com.io7m.jcanephora.ArrayBufferUpdateUnmappedType;
+import com.io7m.jcanephora.IndexBufferType;
+import com.io7m.jcanephora.IndexBufferUpdateUnmapped;
+import com.io7m.jcanephora.IndexBufferUpdateUnmappedType;
+import com.io7m.jcanephora.JCGLUnsignedType;
+import com.io7m.jcanephora.UsageHint;
+import com.io7m.jcanephora.api.JCGLInterfaceCommonType;
+import com.io7m.jcanephora.api.JCGLSoftRestrictionsType;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jlog.Log;
+import com.io7m.jlog.LogLevel;
+import com.io7m.jlog.LogPolicyAllOn;
+import com.io7m.jlog.LogUsableType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jtensors.parameterized.PVectorI2F;
+import com.io7m.jtensors.parameterized.PVectorI3F;
+import com.io7m.jtensors.parameterized.PVectorI4F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.meshes.RMeshTangents;
+import com.io7m.r1.meshes.RMeshTangentsBuilderType;
+import com.io7m.r1.rmb.RBExceptionChecksumMismatch;
+import com.io7m.r1.rmb.RBExceptionInvalidMagicNumber;
+import com.io7m.r1.rmb.RBExceptionUnexpectedEOF;
+import com.io7m.r1.rmb.RBExporter;
+import com.io7m.r1.rmb.RBImporterMapped;
+import com.io7m.r1.spaces.RSpaceObjectType;
+import com.io7m.r1.spaces.RSpaceTextureType;
+import com.io7m.r1.tests.RFakeGL;
+import com.io7m.r1.tests.RFakeShaderControllers;
+
+@SuppressWarnings({ "null", "static-method" }) public final class RBImporterMappedTest
+{
+  private static byte[] exportTriangle()
+    throws Exception
+  {
+    final PVectorI3F<RSpaceObjectType> n =
+      new PVectorI3F<RSpaceObjectType>(0.0f, 0.0f, 1.0f);
+    final PVectorI4F<RSpaceObjectType> t =
+      new PVectorI4F<RSpaceObjectType>(1.0f, 0.0f, 0.0f, 1.0f);
+    final PVectorI3F<RSpaceObjectType> b =
+      new PVectorI3F<RSpaceObjectType>(0.0f, 1.0f, 0.0f);
+    final PVectorI2F<RSpaceTextureType> uv =
+      new PVectorI2F<RSpaceTextureType>(0.5f, 0.25f);
+
+    final RMeshTangentsBuilderType mb = RMeshTangents.newBuilder("triangle");
+    mb.addVertex(new PVectorI3F<RSpaceObjectType>(-1.0f, -2.0f, -3.0f), n, t, b, uv);
+    mb.addVertex(new PVectorI3F<RSpaceObjectType>(1.0f, -2.0f, -3.0f), n, t, b, uv);
+    mb.addVertex(new PVectorI3F<RSpaceObjectType>(0.0f, 2.0f, 3.0f), n, t, b, uv);
+    mb.addTriangle(0, 2, 1);
+
+    final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+    RBExporter.newExporter().toStream(mb.build(), bao);
+    return bao.toByteArray();
+  }
+
+  private static JCGLInterfaceCommonType makeGL()
+    throws Exception
+  {
+    final OptionType<JCGLSoftRestrictionsType> none = Option.none();
+    return RFakeGL
+      .newFakeGL30(RFakeShaderControllers.newNull(), none)
+      .getGLCommon();
+  }
+
+  private static LogUsableType makeLog()
+  {
+    return Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests");
+  }
+
+  private static byte[] readResource(
+    final String file)
+    throws Exception
+  {
+    final InputStream s =
+      NullCheck.notNull(RBImporterMappedTest.class
+        .getResourceAsStream("/com/io7m/r1/tests/rmb/" + file));
+    try {
+      final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      for (;;) {
+        final int r = s.read(buffer);
+        if (r == -1) {
+          break;
+        }
+        bao.write(buffer, 0, r);
+      }
+      return bao.toByteArray();
+    } finally {
+      s.close();
+    }
+  }
+
+  private static File writeTemporary(
+    final byte[] data,
+    final int size)
+    throws Exception
+  {
+    final File f = File.createTempFile("r1-mapped-", ".rmb");
+    f.deleteOnExit();
+    final FileOutputStream s = new FileOutputStream(f);
+    try {
+      s.write(data, 0, size);
+    } finally {
+      s.close();
+    }
+    return f;
+  }
+
+  @Test(expected = RBExceptionInvalidMagicNumber.class) public
+    void
+    testBadMagic_0()
+      throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.readResource("bad-magic-0.rmb");
+    RBImporterMapped.mapFromFile(
+      RBImporterMappedTest.writeTemporary(data, data.length),
+      RBImporterMappedTest.makeLog());
+  }
+
+  @Test(expected = RBExceptionChecksumMismatch.class) public
+    void
+    testChecksumMismatch()
+      throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.exportTriangle();
+    data[data.length - 12] = (byte) (data[data.length - 12] ^ 0xff);
+    RBImporterMapped.mapFromFile(
+      RBImporterMappedTest.writeTemporary(data, data.length),
+      RBImporterMappedTest.makeLog());
+  }
+
+  @Test(expected = IllegalStateException.class) public
+    void
+    testIndexNarrowingOutOfRange()
+      throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.readResource("minimal-0.rmb");
+    final RBImporterMapped m =
+      RBImporterMapped.mapFromFile(
+        RBImporterMappedTest.writeTemporary(data, data.length),
+        RBImporterMappedTest.makeLog());
+
+    final JCGLInterfaceCommonType gc = RBImporterMappedTest.makeGL();
+    final IndexBufferType i =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_SHORT,
+        3,
+        UsageHint.USAGE_STATIC_DRAW);
+    m.copyTriangles(IndexBufferUpdateUnmapped.newReplacing(i));
+  }
+
+  @Test(expected = IllegalStateException.class) public
+    void
+    testLoadIndexBufferOutOfRange()
+      throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.readResource("minimal-0.rmb");
+    final RBImporterMapped m =
+      RBImporterMapped.mapFromFile(
+        RBImporterMappedTest.writeTemporary(data, data.length),
+        RBImporterMappedTest.makeLog());
+
+    /**
+     * The mesh has a single vertex, so unsigned short indices are chosen, and
+     * its 32-bit indices cannot be represented.
+     */
+
+    m.loadIndexBuffer(RBImporterMappedTest.makeGL());
+  }
+
+  @Test public void testMinimal_0()
+    throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.readResource("minimal-0.rmb");
+    final RBImporterMapped m =
+      RBImporterMapped.mapFromFile(
+        RBImporterMappedTest.writeTemporary(data, data.length),
+        RBImporterMappedTest.makeLog());
+
+    Assert.assertEquals("A", m.getInfo().getName());
+    Assert.assertEquals(1, m.getInfo().getVertexCount());
+    Assert.assertEquals(1, m.getInfo().getTriangleCount());
+    Assert.assertFalse(m.getInfo().getBoundingBox().isSome());
+
+    final JCGLInterfaceCommonType gc = RBImporterMappedTest.makeGL();
+    final ArrayBufferType a =
+      gc.arrayBufferAllocate(
+        1,
+        m.getArrayDescriptor(),
+        UsageHint.USAGE_STATIC_DRAW);
+    final ArrayBufferUpdateUnmappedType au =
+      ArrayBufferUpdateUnmapped.newUpdateReplacingAll(a);
+    m.copyVertices(au);
+
+    final int[] expected_vertex =
+      {
+        0x50305030,
+        0x50315031,
+        0x50325032,
+        0x4E304E30,
+        0x4E314E31,
+        0x4E324E32,
+        0x54305430,
+        0x54315431,
+        0x54325432,
+        0x54335433,
+        0x55305530,
+        0x55315531, };
+
+    final FloatBuffer fb = au.getTargetData().asFloatBuffer();
+    for (int index = 0; index < expected_vertex.length; ++index) {
+      Assert.assertEquals(
+        expected_vertex[index],
+        Float.floatToRawIntBits(fb.get(index)));
+    }
+
+    final IndexBufferType i =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_INT,
+        3,
+        UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferUpdateUnmappedType iu =
+      IndexBufferUpdateUnmapped.newReplacing(i);
+    m.copyTriangles(iu);
+
+    final IntBuffer ib = iu.getTargetData().asIntBuffer();
+    Assert.assertEquals(0x74307430, ib.get(0));
+    Assert.assertEquals(0x74317431, ib.get(1));
+    Assert.assertEquals(0x74327432, ib.get(2));
+  }
+
+  @Test public void testTriangle()
+    throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.exportTriangle();
+    final RBImporterMapped m =
+      RBImporterMapped.mapFromFile(
+        RBImporterMappedTest.writeTemporary(data, data.length),
+        RBImporterMappedTest.makeLog());
+
+    final KBoundingBox<RSpaceObjectType> box = m.getBoundingBox();
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(-1.0f, -2.0f, -3.0f),
+      box.getLower());
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(1.0f, 2.0f, 3.0f),
+      box.getUpper());
+
+    final JCGLInterfaceCommonType gc = RBImporterMappedTest.makeGL();
+    final ArrayBufferType a =
+      gc.arrayBufferAllocate(
+        3,
+        m.getArrayDescriptor(),
+        UsageHint.USAGE_STATIC_DRAW);
+    final ArrayBufferUpdateUnmappedType au =
+      ArrayBufferUpdateUnmapped.newUpdateReplacingAll(a);
+    m.copyVertices(au);
+
+    final FloatBuffer fb = au.getTargetData().asFloatBuffer();
+    final int stride = RBImporterMapped.VERTEX_SIZE_BYTES / 4;
+    Assert.assertEquals(1.0f, fb.get(stride), 0.0f);
+    Assert.assertEquals(-2.0f, fb.get(stride + 1), 0.0f);
+    Assert.assertEquals(-3.0f, fb.get(stride + 2), 0.0f);
+    Assert.assertEquals(1.0f, fb.get(stride + 5), 0.0f);
+    Assert.assertEquals(0.5f, fb.get(stride + 10), 0.0f);
+    Assert.assertEquals(0.25f, fb.get(stride + 11), 0.0f);
+
+    final IndexBufferType i =
+      gc.indexBufferAllocateType(
+        JCGLUnsignedType.TYPE_UNSIGNED_SHORT,
+        3,
+        UsageHint.USAGE_STATIC_DRAW);
+    final IndexBufferUpdateUnmappedType iu =
+      IndexBufferUpdateUnmapped.newReplacing(i);
+    m.copyTriangles(iu);
+
+    final ShortBuffer sb = iu.getTargetData().asShortBuffer();
+    Assert.assertEquals(0, sb.get(0));
+    Assert.assertEquals(2, sb.get(1));
+    Assert.assertEquals(1, sb.get(2));
+  }
+
+  @Test(expected = IllegalStateException.class) public
+    void
+    testTriangleWrongVertexCount()
+      throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.exportTriangle();
+    final RBImporterMapped m =
+      RBImporterMapped.mapFromFile(
+        RBImporterMappedTest.writeTemporary(data, data.length),
+        RBImporterMappedTest.makeLog());
+
+    final JCGLInterfaceCommonType gc = RBImporterMappedTest.makeGL();
+    final ArrayBufferType a =
+      gc.arrayBufferAllocate(
+        4,
+        m.getArrayDescriptor(),
+        UsageHint.USAGE_STATIC_DRAW);
+    m.copyVertices(ArrayBufferUpdateUnmapped.newUpdateReplacingAll(a));
+  }
+
+  @Test(expected = RBExceptionUnexpectedEOF.class) public
+    void
+    testTruncated()
+      throws Exception
+  {
+    final byte[] data = RBImporterMappedTest.exportTriangle();
+    RBImporterMapped.mapFromFile(
+      RBImporterMappedTest.writeTemporary(data, data.length - 4),
+      RBImporterMappedTest.makeLog());
+  }
+}
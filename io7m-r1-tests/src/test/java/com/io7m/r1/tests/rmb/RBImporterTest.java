@@ -16,12 +16,15 @@
 
 package com.io7m.r1.tests.rmb;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.io7m.jfunctional.Some;
 import com.io7m.jlog.Log;
 import com.io7m.jlog.LogLevel;
 import com.io7m.jlog.LogPolicyAllOn;
@@ -30,9 +33,16 @@ import com.io7m.jnull.NullCheck;
 import com.io7m.jtensors.parameterized.PVectorI2F;
 import com.io7m.jtensors.parameterized.PVectorI3F;
 import com.io7m.jtensors.parameterized.PVectorI4F;
+import com.io7m.r1.kernel.types.KBoundingBox;
+import com.io7m.r1.kernel.types.KBoundingSphere;
 import com.io7m.r1.meshes.RMeshParserEventsType;
+import com.io7m.r1.meshes.RMeshTangents;
+import com.io7m.r1.meshes.RMeshTangentsBuilderType;
+import com.io7m.r1.rmb.RBConstants;
+import com.io7m.r1.rmb.RBExceptionChecksumMismatch;
 import com.io7m.r1.rmb.RBExceptionInvalidMagicNumber;
 import com.io7m.r1.rmb.RBExceptionUnsupportedVersion;
+import com.io7m.r1.rmb.RBExporter;
 import com.io7m.r1.rmb.RBImporter;
 import com.io7m.r1.rmb.RBInfo;
 import com.io7m.r1.spaces.RSpaceObjectType;
@@ -153,6 +163,29 @@ import com.io7m.r1.spaces.RSpaceTextureType;
     }
   }
 
+  private static byte[] exportTriangle()
+    throws Exception
+  {
+    final PVectorI3F<RSpaceObjectType> n =
+      new PVectorI3F<RSpaceObjectType>(0.0f, 0.0f, 1.0f);
+    final PVectorI4F<RSpaceObjectType> t =
+      new PVectorI4F<RSpaceObjectType>(1.0f, 0.0f, 0.0f, 1.0f);
+    final PVectorI3F<RSpaceObjectType> b =
+      new PVectorI3F<RSpaceObjectType>(0.0f, 1.0f, 0.0f);
+    final PVectorI2F<RSpaceTextureType> uv =
+      new PVectorI2F<RSpaceTextureType>(0.0f, 0.0f);
+
+    final RMeshTangentsBuilderType mb = RMeshTangents.newBuilder("triangle");
+    mb.addVertex(new PVectorI3F<RSpaceObjectType>(-1.0f, -2.0f, -3.0f), n, t, b, uv);
+    mb.addVertex(new PVectorI3F<RSpaceObjectType>(1.0f, -2.0f, -3.0f), n, t, b, uv);
+    mb.addVertex(new PVectorI3F<RSpaceObjectType>(0.0f, 2.0f, 3.0f), n, t, b, uv);
+    mb.addTriangle(0, 1, 2);
+
+    final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+    RBExporter.newExporter().toStream(mb.build(), bao);
+    return bao.toByteArray();
+  }
+
   private static @NonNull InputStream get(
     final String file)
   {
@@ -389,6 +422,127 @@ import com.io7m.r1.spaces.RSpaceTextureType;
       Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests"));
   }
 
+  @Test public void testExportBounds_0()
+    throws Exception
+  {
+    final byte[] data = RBImporterTest.exportTriangle();
+    final RBInfo info =
+      RBInfo.parseFromStream(
+        Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests"),
+        new ByteArrayInputStream(data));
+
+    Assert.assertEquals(RBConstants.RMB_VERSION, info.getVersion());
+    Assert.assertTrue(info.getBoundingBox().isSome());
+    Assert.assertTrue(info.getBoundingSphere().isSome());
+
+    final KBoundingBox<RSpaceObjectType> box =
+      ((Some<KBoundingBox<RSpaceObjectType>>) info.getBoundingBox()).get();
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(-1.0f, -2.0f, -3.0f),
+      box.getLower());
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(1.0f, 2.0f, 3.0f),
+      box.getUpper());
+
+    final KBoundingSphere<RSpaceObjectType> sphere =
+      ((Some<KBoundingSphere<RSpaceObjectType>>) info.getBoundingSphere())
+        .get();
+    Assert.assertTrue(sphere.getRadius() > 0.0f);
+    Assert.assertTrue(sphere.getRadius() <= Math.sqrt(1 + 4 + 9));
+  }
+
+  @Test public void testExportBounds_1()
+    throws Exception
+  {
+    final byte[] data = RBImporterTest.exportTriangle();
+    final PVectorI3F<?>[] received = new PVectorI3F<?>[2];
+
+    RBImporter.parseFromStream(
+      new ByteArrayInputStream(data),
+      new Show() {
+        @Override public void eventMeshVerticesEnded(
+          final PVectorI3F<RSpaceObjectType> lower,
+          final PVectorI3F<RSpaceObjectType> upper)
+          throws Exception
+        {
+          received[0] = lower;
+          received[1] = upper;
+        }
+      },
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests"));
+
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(-1.0f, -2.0f, -3.0f),
+      received[0]);
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(1.0f, 2.0f, 3.0f),
+      received[1]);
+  }
+
+  @Test(expected = RBExceptionChecksumMismatch.class) public
+    void
+    testExportChecksumMismatch()
+      throws Exception
+  {
+    final byte[] data = RBImporterTest.exportTriangle();
+    data[data.length - 12] = (byte) (data[data.length - 12] ^ 0xff);
+
+    RBImporter.parseFromStream(
+      new ByteArrayInputStream(data),
+      new Show(),
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests"));
+  }
+
+  @Test public void testExportInterleaved()
+    throws Exception
+  {
+    final byte[] data = RBImporterTest.exportTriangle();
+    final RBInfo info =
+      RBInfo.parseFromStream(
+        Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests"),
+        new ByteArrayInputStream(data));
+
+    Assert.assertEquals(RBConstants.RMB_VERSION_INTERLEAVED, info.getVersion());
+    Assert.assertEquals(2, info.getIndexWidth());
+    Assert.assertTrue(info.getChecksum().isSome());
+
+    final long[] triangle = new long[3];
+    final PVectorI3F<?>[] positions = new PVectorI3F<?>[3];
+
+    RBImporter.parseFromStream(
+      new ByteArrayInputStream(data),
+      new Show() {
+        @Override public void eventMeshTriangle(
+          final long index,
+          final long v0,
+          final long v1,
+          final long v2)
+          throws Exception
+        {
+          triangle[0] = v0;
+          triangle[1] = v1;
+          triangle[2] = v2;
+        }
+
+        @Override public void eventMeshVertexPosition(
+          final long index,
+          final PVectorI3F<RSpaceObjectType> position)
+          throws Exception
+        {
+          positions[(int) index] = position;
+        }
+      },
+      Log.newLog(LogPolicyAllOn.newPolicy(LogLevel.LOG_DEBUG), "tests"));
+
+    Assert.assertArrayEquals(new long[] { 0, 1, 2 }, triangle);
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(-1.0f, -2.0f, -3.0f),
+      positions[0]);
+    Assert.assertEquals(
+      new PVectorI3F<RSpaceObjectType>(0.0f, 2.0f, 3.0f),
+      positions[2]);
+  }
+
   @Test public void testMinimalEquals_0()
     throws Exception
   {
@@ -403,6 +557,8 @@ import com.io7m.r1.spaces.RSpaceTextureType;
 
     Assert.assertEquals(rb0, rb1);
     Assert.assertEquals(1, rb0.getVersion());
+    Assert.assertFalse(rb0.getBoundingBox().isSome());
+    Assert.assertFalse(rb0.getBoundingSphere().isSome());
   }
 
   @Test public void testSphere16()